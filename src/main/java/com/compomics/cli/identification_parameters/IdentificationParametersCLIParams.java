@@ -300,6 +300,7 @@ public enum IdentificationParametersCLIParams {
     // Sequence matching
     //////////////////////////////////
     SEQUENCE_INDEX_TYPE("sequence_index_type", "The protein database index type. (" + PeptideMapperType.getCommandLineOptions() + ", default is " + PeptideMapperType.fm_index.index + ")", false, true),
+    SEQUENCE_INDEX_LARGE_TEXT("sequence_index_large_text", "Build the FM index in parts as large as possible, 1: true, 0: false, default is '0'.", false, true),
     SEQUENCE_MATCHING_TYPE("sequence_matching_type", "The peptide to protein sequence matching type. (" + SequenceMatchingPreferences.MatchingType.getCommandLineOptions() 
             + ", default is " + SequenceMatchingPreferences.MatchingType.indistiguishableAminoAcids + ")", false, true),
     SEQUENCE_MATCHING_X("sequence_matching_x", "The maximum share of X's in a sequence, 0.25 means 25% of X's, default is 0.25.", false, true),
@@ -615,6 +616,7 @@ public enum IdentificationParametersCLIParams {
         output += "-" + String.format(CommandLineUtils.formatter, IdentificationParametersCLIParams.ANNOTATION_HIGH_RESOLUTION.id) + " " + IdentificationParametersCLIParams.ANNOTATION_HIGH_RESOLUTION.description + "\n";
 
         output += "\n\nSequence Matching:\n\n";
+        output += "-" + String.format(CommandLineUtils.formatter, IdentificationParametersCLIParams.SEQUENCE_INDEX_LARGE_TEXT.id) + " " + IdentificationParametersCLIParams.SEQUENCE_INDEX_LARGE_TEXT.description + "\n";
         output += "-" + String.format(CommandLineUtils.formatter, IdentificationParametersCLIParams.SEQUENCE_MATCHING_TYPE.id) + " " + IdentificationParametersCLIParams.SEQUENCE_MATCHING_TYPE.description + "\n";
         output += "-" + String.format(CommandLineUtils.formatter, IdentificationParametersCLIParams.SEQUENCE_MATCHING_X.id) + " " + IdentificationParametersCLIParams.SEQUENCE_MATCHING_X.description + "\n";
 
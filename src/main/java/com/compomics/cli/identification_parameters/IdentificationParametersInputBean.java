@@ -1407,6 +1407,12 @@ public class IdentificationParametersInputBean {
                 return false;
             }
         }
+        if (aLine.hasOption(IdentificationParametersCLIParams.SEQUENCE_INDEX_LARGE_TEXT.id)) {
+            String arg = aLine.getOptionValue(IdentificationParametersCLIParams.SEQUENCE_INDEX_LARGE_TEXT.id);
+            if (!CommandParameter.isBooleanInput(IdentificationParametersCLIParams.SEQUENCE_INDEX_LARGE_TEXT.id, arg)) {
+                return false;
+            }
+        }
         if (aLine.hasOption(IdentificationParametersCLIParams.SEQUENCE_MATCHING_TYPE.id)) {
             String arg = aLine.getOptionValue(IdentificationParametersCLIParams.SEQUENCE_MATCHING_TYPE.id);
             if (!CommandParameter.isSequenceMatchingType(IdentificationParametersCLIParams.SEQUENCE_MATCHING_TYPE.id, arg)) {
@@ -3178,6 +3184,22 @@ public class IdentificationParametersInputBean {
             PeptideMapperType value = PeptideMapperType.getPeptideMapperType(intValue);
             sequenceMatchingPreferences.setPeptideMapperType(value);
         }
+        if (commandLine.hasOption(IdentificationParametersCLIParams.SEQUENCE_INDEX_LARGE_TEXT.id)) {
+            String arg = commandLine.getOptionValue(IdentificationParametersCLIParams.SEQUENCE_INDEX_LARGE_TEXT.id);
+            Integer intValue = new Integer(arg);
+            boolean value;
+            switch (intValue) {
+                case 1:
+                    value = true;
+                    break;
+                case 0:
+                    value = false;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Incorrect value for parameter " + IdentificationParametersCLIParams.SEQUENCE_INDEX_LARGE_TEXT.id + ": " + arg + ". 0 or 1 expected.");
+            }
+            sequenceMatchingPreferences.setFmIndexLargeText(value);
+        }
         if (commandLine.hasOption(IdentificationParametersCLIParams.SEQUENCE_MATCHING_TYPE.id)) {
             String arg = commandLine.getOptionValue(IdentificationParametersCLIParams.SEQUENCE_MATCHING_TYPE.id);
             Integer intValue = new Integer(arg);
@@ -0,0 +1,237 @@
+package com.compomics.util.db;
+
+import com.compomics.util.db.codec.BlobCodec;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Decodes the blobs read from a database on a pool of threads and adds the
+ * objects to the cache. The blobs are decoded by batches and the objects are
+ * added to the cache by the reading thread in the order of reading. The
+ * number of batches being decoded is bounded, the reading thread waits when
+ * the decoding threads fall behind.
+ *
+ * @author Marc Vaudel
+ */
+class BlobDecodingPipeline {
+
+    /**
+     * The number of blobs per batch.
+     */
+    private static final int BATCH_SIZE = 256;
+    /**
+     * The cache where to add the objects.
+     */
+    private final ObjectsCache objectsCache;
+    /**
+     * The name of the database.
+     */
+    private final String dbName;
+    /**
+     * The name of the table.
+     */
+    private final String tableName;
+    /**
+     * The waiting handler, can be null.
+     */
+    private final WaitingHandler waitingHandler;
+    /**
+     * Boolean indicating whether the progress should be displayed on the
+     * waiting handler.
+     */
+    private final boolean displayProgress;
+    /**
+     * The pool of decoding threads.
+     */
+    private final ExecutorService pool;
+    /**
+     * The maximal number of batches being decoded.
+     */
+    private final int maxPendingBatches;
+    /**
+     * The batches being decoded in the order of reading.
+     */
+    private final LinkedList<Future<Batch>> pendingBatches = new LinkedList<Future<Batch>>();
+    /**
+     * The batch being filled.
+     */
+    private Batch batch = new Batch();
+
+    /**
+     * Constructor.
+     *
+     * @param objectsCache the cache where to add the objects
+     * @param dbName the name of the database
+     * @param tableName the name of the table
+     * @param nThreads the number of decoding threads
+     * @param waitingHandler the waiting handler, can be null
+     * @param displayProgress boolean indicating whether the progress should
+     * be displayed on the waiting handler
+     */
+    BlobDecodingPipeline(ObjectsCache objectsCache, String dbName, String tableName, int nThreads, WaitingHandler waitingHandler, boolean displayProgress) {
+        this.objectsCache = objectsCache;
+        this.dbName = dbName;
+        this.tableName = tableName;
+        this.waitingHandler = waitingHandler;
+        this.displayProgress = displayProgress;
+        this.pool = Executors.newFixedThreadPool(nThreads);
+        this.maxPendingBatches = 2 * nThreads;
+    }
+
+    /**
+     * Adds a blob to decode. Blobs of objects already in cache are skipped.
+     *
+     * @param key the key of the object
+     * @param blob the blob
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * decoding a blob
+     * @throws SQLException exception thrown whenever an error occurred while
+     * writing to the database
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while decoding a blob
+     * @throws InterruptedException exception thrown if a threading error
+     * occurred
+     */
+    void add(String key, byte[] blob) throws IOException, SQLException, ClassNotFoundException, InterruptedException {
+        if (!objectsCache.inCache(dbName, tableName, key)) {
+            batch.keys.add(key);
+            batch.blobs.add(blob);
+            if (batch.keys.size() == BATCH_SIZE) {
+                submit();
+            }
+        } else if (waitingHandler != null && displayProgress) {
+            waitingHandler.increaseSecondaryProgressCounter();
+        }
+    }
+
+    /**
+     * Decodes the remaining blobs, adds all objects to the cache and stops
+     * the decoding threads.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * decoding a blob
+     * @throws SQLException exception thrown whenever an error occurred while
+     * writing to the database
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while decoding a blob
+     * @throws InterruptedException exception thrown if a threading error
+     * occurred
+     */
+    void finish() throws IOException, SQLException, ClassNotFoundException, InterruptedException {
+        try {
+            if (!batch.keys.isEmpty()) {
+                submit();
+            }
+            while (!pendingBatches.isEmpty()) {
+                addToCache();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Cancels the decoding and stops the decoding threads.
+     */
+    void abort() {
+        pool.shutdownNow();
+        pendingBatches.clear();
+    }
+
+    /**
+     * Submits the current batch for decoding, adds the oldest decoded batch
+     * to the cache if too many batches are pending.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * decoding a blob
+     * @throws SQLException exception thrown whenever an error occurred while
+     * writing to the database
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while decoding a blob
+     * @throws InterruptedException exception thrown if a threading error
+     * occurred
+     */
+    private void submit() throws IOException, SQLException, ClassNotFoundException, InterruptedException {
+        final Batch toDecode = batch;
+        batch = new Batch();
+        pendingBatches.add(pool.submit(new Callable<Batch>() {
+            @Override
+            public Batch call() throws Exception {
+                BlobCodec blobCodec = BlobCodec.getInstance();
+                toDecode.objects = new ArrayList<Object>(toDecode.blobs.size());
+                for (byte[] blob : toDecode.blobs) {
+                    toDecode.objects.add(blobCodec.decode(blob));
+                }
+                return toDecode;
+            }
+        }));
+        if (pendingBatches.size() >= maxPendingBatches) {
+            addToCache();
+        }
+    }
+
+    /**
+     * Waits for the oldest batch to be decoded and adds its objects to the
+     * cache.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * decoding a blob
+     * @throws SQLException exception thrown whenever an error occurred while
+     * writing to the database
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while decoding a blob
+     * @throws InterruptedException exception thrown if a threading error
+     * occurred
+     */
+    private void addToCache() throws IOException, SQLException, ClassNotFoundException, InterruptedException {
+        Batch decoded;
+        try {
+            decoded = pendingBatches.removeFirst().get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof ClassNotFoundException) {
+                throw (ClassNotFoundException) cause;
+            }
+            throw new IllegalArgumentException("An error occurred while decoding objects of table " + tableName + ".", cause);
+        }
+        for (int i = 0; i < decoded.keys.size(); i++) {
+            String key = decoded.keys.get(i);
+            if (!objectsCache.inCache(dbName, tableName, key)) {
+                objectsCache.addObject(dbName, tableName, key, decoded.objects.get(i), false, false, decoded.blobs.get(i).length);
+            }
+        }
+        if (waitingHandler != null && displayProgress) {
+            waitingHandler.increaseSecondaryProgressCounter(decoded.keys.size());
+        }
+    }
+
+    /**
+     * A batch of blobs to decode.
+     */
+    private static class Batch {
+
+        /**
+         * The keys of the objects.
+         */
+        private final ArrayList<String> keys = new ArrayList<String>(BATCH_SIZE);
+        /**
+         * The blobs of the objects.
+         */
+        private final ArrayList<byte[]> blobs = new ArrayList<byte[]>(BATCH_SIZE);
+        /**
+         * The decoded objects.
+         */
+        private ArrayList<Object> objects;
+    }
+}
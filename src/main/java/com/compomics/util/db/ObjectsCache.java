@@ -1,14 +1,18 @@
 package com.compomics.util.db;
 
-import com.compomics.util.maps.MapMutex;
 import com.compomics.util.waiting.WaitingHandler;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.concurrent.LinkedBlockingDeque;
-import java.util.concurrent.Semaphore;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * An object cache can be combined to an ObjectDB to improve its performance. A
@@ -16,14 +20,47 @@ import java.util.concurrent.Semaphore;
  * serialized. The length of lists/maps in the cache shall stay independent from
  * the number of objects in cache.
  *
+ * The cache is split in shards selected by the hash of the db, table and
+ * object keys, every shard being an LRU map guarded by its own lock. The
+ * weight of every entry in memory is estimated from the size of its blob in
+ * the database when available. Modified entries evicted from the cache are
+ * written to the databases in batches by a background thread, they remain
+ * accessible until written.
+ *
  * @author Marc Vaudel
  */
 public class ObjectsCache {
 
+    /**
+     * Number of shards, must be a power of two.
+     */
+    private static final int N_SHARDS = 64;
+    /**
+     * The minimal share of the entries evicted when the cache is full.
+     */
+    private static final double EVICTION_SHARE = 0.25;
+    /**
+     * The estimated memory overhead of an entry in bytes.
+     */
+    private static final long ENTRY_OVERHEAD = 96;
+    /**
+     * The estimated weight of an object in bytes used until the weight of
+     * objects loaded from the databases is known.
+     */
+    private static final long DEFAULT_OBJECT_WEIGHT = 2048;
+    /**
+     * The estimated ratio between the size of an object in memory and the
+     * size of its blob.
+     */
+    private static final int BLOB_EXPANSION_FACTOR = 4;
+    /**
+     * The maximal number of batches waiting to be written to the databases.
+     */
+    private static final int MAX_PENDING_BATCHES = 4;
     /**
      * Map of the databases for which this cache should be used.
      */
-    private HashMap<String, ObjectsDB> databases = new HashMap<String, ObjectsDB>();
+    private final ConcurrentHashMap<String, ObjectsDB> databases = new ConcurrentHashMap<String, ObjectsDB>();
     /**
      * The cache size in number of matches.
      */
@@ -39,21 +76,56 @@ public class ObjectsCache {
      */
     private double memoryShare = 0.8;
     /**
-     * Map of the loaded matches. db &gt; table &gt; object key &gt; object.
+     * The shards of the cache.
+     */
+    private final Shard[] shards = new Shard[N_SHARDS];
+    /**
+     * The number of objects in cache.
+     */
+    private final AtomicInteger size = new AtomicInteger();
+    /**
+     * The estimated weight of the objects in cache in bytes.
+     */
+    private final AtomicLong weight = new AtomicLong();
+    /**
+     * The sum of the weights of the objects loaded from the databases.
+     */
+    private final AtomicLong measuredWeight = new AtomicLong();
+    /**
+     * The number of objects loaded from the databases with a known weight.
+     */
+    private final AtomicLong nMeasured = new AtomicLong();
+    /**
+     * The modified objects evicted from the cache and not yet written to the
+     * databases.
+     */
+    private final ConcurrentHashMap<EntryKey, Object> pendingObjects = new ConcurrentHashMap<EntryKey, Object>();
+    /**
+     * The keys of the objects being removed while waiting to be written, they
+     * are not put back in the cache if the writing fails.
      */
-    private HashMap<String, HashMap<String, HashMap<String, CacheEntry>>> loadedObjectsMap = new HashMap<String, HashMap<String, HashMap<String, CacheEntry>>>(1);
+    private final ConcurrentHashMap<EntryKey, Boolean> removedKeys = new ConcurrentHashMap<EntryKey, Boolean>();
     /**
-     * Mutex for the database maps.
+     * The batches of objects waiting to be written to the databases.
      */
-    private HashMap<String, MapMutex<String>> dbCacheMutexMap = new HashMap<String, MapMutex<String>>(1);
+    private final ArrayBlockingQueue<FlushBatch> flushQueue = new ArrayBlockingQueue<FlushBatch>(MAX_PENDING_BATCHES);
     /**
-     * List of the loaded objects with the most used matches in the end.
+     * The number of batches submitted and not yet written.
      */
-    private LinkedBlockingDeque<String> loadedObjectsKeys = new LinkedBlockingDeque<String>();
+    private final AtomicInteger nPendingBatches = new AtomicInteger();
     /**
-     * Mutex for the edition of the object keys list.
+     * Mutex used to wait for the writing of batches.
      */
-    private Semaphore loadedObjectKeysMutex = new Semaphore(1);
+    private final Object flushMutex = new Object();
+    /**
+     * The thread writing the batches to the databases.
+     */
+    private Thread flushThread = null;
+    /**
+     * The first exception thrown while writing a batch in the background,
+     * thrown again to the next caller.
+     */
+    private volatile Exception flushException = null;
     /**
      * Separator used to concatenate strings.
      */
@@ -65,21 +137,47 @@ public class ObjectsCache {
     /**
      * Indicates whether the cache is read only.
      */
-    private boolean readOnly = false;
+    private volatile boolean readOnly = false;
     /**
      * Indicates whether the cache is being updated.
      */
-    private boolean updating = false;
+    private final AtomicBoolean updating = new AtomicBoolean(false);
+    /**
+     * The number of cache hits.
+     */
+    private final AtomicLong hits = new AtomicLong();
+    /**
+     * The number of cache misses.
+     */
+    private final AtomicLong misses = new AtomicLong();
+    /**
+     * The number of entries evicted.
+     */
+    private final AtomicLong evictions = new AtomicLong();
+    /**
+     * The number of objects written to the databases.
+     */
+    private final AtomicLong flushedObjects = new AtomicLong();
     /**
-     * Boolean indicating whether the cache is being saved to reduce the memory
-     * consumption.
+     * The number of batches written to the databases.
      */
-    private boolean reducingMemoryConsumption = false;
+    private final AtomicLong flushedBatches = new AtomicLong();
+    /**
+     * The total time spent writing batches in nanoseconds.
+     */
+    private final AtomicLong flushTime = new AtomicLong();
+    /**
+     * The longest time spent writing a batch in nanoseconds.
+     */
+    private final AtomicLong maxFlushTime = new AtomicLong();
 
     /**
      * Constructor.
      */
     public ObjectsCache() {
+        for (int i = 0; i < N_SHARDS; i++) {
+            shards[i] = new Shard();
+        }
     }
 
     /**
@@ -167,7 +265,7 @@ public class ObjectsCache {
      *
      * @param objectsDB the objects database
      */
-    public synchronized void addDb(ObjectsDB objectsDB) {
+    public void addDb(ObjectsDB objectsDB) {
         if (readOnly) {
             throw new IllegalArgumentException("Cannot add db, cache read only.");
         }
@@ -176,11 +274,12 @@ public class ObjectsCache {
             throw new IllegalArgumentException("Database name (" + dbName + ") should not contain " + cacheSeparator);
         }
         databases.put(dbName, objectsDB);
-        loadedObjectsMap.put(dbName, new HashMap<String, HashMap<String, CacheEntry>>());
     }
 
     /**
-     * Removes an object from the cache mappings.
+     * Removes an object from the cache mappings. If the object is being
+     * written to the database, waits for the writing to complete. The object
+     * is not put back in the cache if the writing fails.
      *
      * @param dbName the name of the database
      * @param tableName the name of the table
@@ -190,49 +289,24 @@ public class ObjectsCache {
      */
     public void removeObject(String dbName, String tableName, String objectKey) throws InterruptedException {
         if (!readOnly) {
-            String cacheKey = getCacheKey(dbName, tableName, objectKey);
-            loadedObjectKeysMutex.acquire();
-            loadedObjectsKeys.remove(cacheKey);
-            loadedObjectKeysMutex.release();
-            HashMap<String, HashMap<String, CacheEntry>> dbObjects = loadedObjectsMap.get(dbName);
-            if (dbObjects != null) {
-                MapMutex<String> dbMutexMap = getMapMutex(dbName);
-                dbMutexMap.acquire(tableName);
-                HashMap<String, CacheEntry> tableObjects = dbObjects.get(tableName);
-                if (tableObjects != null) {
-                    tableObjects.remove(objectKey);
+            EntryKey key = new EntryKey(dbName, tableName, objectKey);
+            removedKeys.put(key, Boolean.TRUE);
+            try {
+                getShard(key).remove(key);
+                synchronized (flushMutex) {
+                    while (pendingObjects.containsKey(key)) {
+                        flushMutex.wait();
+                    }
                 }
-                dbMutexMap.release(tableName);
+            } finally {
+                removedKeys.remove(key);
             }
         }
     }
 
     /**
-     * Returns the entry if present in the cache. Null if not. Warning: this
-     * method returns the object as it is and does not wait for cache edition
-     * operations to finish.
-     *
-     * @param dbName the name of the database
-     * @param tableName the name of the table
-     * @param objectKey the key of the object
-     *
-     * @return the entry of interest, null if not present in the cache
-     */
-    private CacheEntry getEntry(String dbName, String tableName, String objectKey) {
-        HashMap<String, HashMap<String, CacheEntry>> dbObjects = loadedObjectsMap.get(dbName);
-        if (dbObjects != null) {
-            HashMap<String, CacheEntry> tableObjects = dbObjects.get(tableName);
-            if (tableObjects != null) {
-                return tableObjects.get(objectKey);
-            }
-        }
-        return null;
-    }
-
-    /**
-     * Returns the objects if present in the cache. Null if not. Warning: this
-     * method returns the object as it is and does not wait for cache edition
-     * operations to finish.
+     * Returns the objects if present in the cache or waiting to be written to
+     * the database. Null if not.
      *
      * @param dbName the name of the database
      * @param tableName the name of the table
@@ -241,16 +315,22 @@ public class ObjectsCache {
      * @return the object of interest, null if not present in the cache
      */
     public Object getObject(String dbName, String tableName, String objectKey) {
-        CacheEntry entry = getEntry(dbName, tableName, objectKey);
-        if (entry != null) {
-            return entry.getObject();
+        EntryKey key = new EntryKey(dbName, tableName, objectKey);
+        Object object = getShard(key).get(key);
+        if (object == null) {
+            object = pendingObjects.get(key);
+        }
+        if (object == null) {
+            misses.incrementAndGet();
         } else {
-            return null;
+            hits.incrementAndGet();
         }
+        return object;
     }
 
     /**
      * Sets that a match has been modified and returns true in case of success.
+     * Objects waiting to be written to the database are put back in cache.
      *
      * @param dbName the name of the database
      * @param tableName the name of the table
@@ -264,21 +344,8 @@ public class ObjectsCache {
      */
     public boolean updateObject(String dbName, String tableName, String objectKey, Object object) throws InterruptedException {
         if (!readOnly) {
-            CacheEntry entry = getEntry(dbName, tableName, objectKey);
-            if (entry != null) {
-                MapMutex<String> dbMutexMap = getMapMutex(dbName);
-                dbMutexMap.acquire(tableName);
-                entry = getEntry(dbName, tableName, objectKey);
-                boolean result = false;
-                if (entry != null && !readOnly) {
-                    entry.setModified(true);
-                    entry.setObject(object);
-                    result = true;
-                }
-                dbMutexMap.release(tableName);
-                return result;
-            }
-            return false;
+            EntryKey key = new EntryKey(dbName, tableName, objectKey);
+            return getShard(key).update(key, object);
         }
         return false;
     }
@@ -303,32 +370,51 @@ public class ObjectsCache {
      * writing to the database
      */
     public void addObject(String dbName, String tableName, String objectKey, Object object, boolean modifiedOrNew, boolean updateCache) throws IOException, SQLException, InterruptedException {
+        addObject(dbName, tableName, objectKey, object, modifiedOrNew, updateCache, -1);
+    }
+
+    /**
+     * Adds an object to the cache. The object must not necessarily be in the
+     * database. If an object is already present with the same identifiers, it
+     * will be silently overwritten.
+     *
+     * @param dbName the name of the database
+     * @param tableName the name of the table
+     * @param objectKey the key of the object
+     * @param object the object to store in the cache
+     * @param modifiedOrNew true if the object is modified or new
+     * @param updateCache boolean indicating whether the cache should be updated
+     * @param blobSize the size of the blob of the object in the database in
+     * bytes, used to estimate the weight of the object in memory. -1 if not
+     * known.
+     *
+     * @throws IOException if an IOException occurs while writing to the
+     * database
+     * @throws SQLException if an SQLException occurs while writing to the
+     * database
+     * @throws java.lang.InterruptedException if a threading error occurs
+     * writing to the database
+     */
+    public void addObject(String dbName, String tableName, String objectKey, Object object, boolean modifiedOrNew, boolean updateCache, int blobSize) throws IOException, SQLException, InterruptedException {
         if (!readOnly) {
             if (objectKey.contains(cacheSeparator)) {
                 throw new IllegalArgumentException("Object key (" + objectKey + ") should not contain " + cacheSeparator + ".");
             }
-            HashMap<String, HashMap<String, CacheEntry>> dbCache = loadedObjectsMap.get(dbName);
-            MapMutex<String> dbMutexMap = getMapMutex(dbName);
-            dbMutexMap.acquire(tableName);
-            HashMap<String, CacheEntry> tableCache = dbCache.get(tableName);
-            if (tableCache == null) {
-                tableCache = dbCache.get(tableName);
-                if (tableCache == null) {
-                    if (tableName.contains(cacheSeparator)) {
-                        throw new IllegalArgumentException("Table name (" + tableName + ") should not contain " + cacheSeparator + ".");
-                    }
-                    tableCache = new HashMap<String, CacheEntry>(512);
-                    dbCache.put(tableName, tableCache);
-                }
+            if (tableName.contains(cacheSeparator)) {
+                throw new IllegalArgumentException("Table name (" + tableName + ") should not contain " + cacheSeparator + ".");
             }
-            if (!tableCache.containsKey(objectKey)) {
-                String key = getCacheKey(dbName, tableName, objectKey);
-                loadedObjectKeysMutex.acquire();
-                loadedObjectsKeys.add(key);
-                loadedObjectKeysMutex.release();
+            long objectWeight;
+            if (blobSize >= 0) {
+                objectWeight = (long) BLOB_EXPANSION_FACTOR * blobSize;
+                measuredWeight.addAndGet(objectWeight);
+                nMeasured.incrementAndGet();
+            } else {
+                long n = nMeasured.get();
+                objectWeight = n == 0 ? DEFAULT_OBJECT_WEIGHT : measuredWeight.get() / n;
             }
-            tableCache.put(objectKey, new CacheEntry(object, modifiedOrNew));
-            dbMutexMap.release(tableName);
+            EntryKey key = new EntryKey(dbName, tableName, objectKey);
+            long entryWeight = ENTRY_OVERHEAD + 2 * objectKey.length() + objectWeight;
+            getShard(key).put(key, new CacheEntry(object, modifiedOrNew, entryWeight));
             if (updateCache) {
                 updateCache();
             }
@@ -379,7 +465,8 @@ public class ObjectsCache {
     }
 
     /**
-     * Saves an entry in the database if modified.
+     * Saves an entry in the database if modified. Entries not in cache are
+     * ignored.
      *
      * @param entryKeys the keys of the entries
      * @param waitingHandler a waiting handler displaying progress to the user.
@@ -393,102 +480,25 @@ public class ObjectsCache {
      * writing the object
      * @throws java.lang.InterruptedException if the thread is interrupted
      */
-    public synchronized void saveObjects(ArrayList<String> entryKeys, WaitingHandler waitingHandler, boolean clearEntries) throws IOException, SQLException, InterruptedException {
+    public void saveObjects(ArrayList<String> entryKeys, WaitingHandler waitingHandler, boolean clearEntries) throws IOException, SQLException, InterruptedException {
         if (!readOnly) {
             if (waitingHandler != null) {
                 waitingHandler.resetSecondaryProgressCounter();
-                if (clearEntries) {
-                    waitingHandler.setMaxSecondaryProgressCounter(3 * entryKeys.size());
-                } else {
-                    waitingHandler.setMaxSecondaryProgressCounter(2 * entryKeys.size());
-                }
+                waitingHandler.setMaxSecondaryProgressCounter(2 * entryKeys.size());
             }
-            // temporary map for batch saving
-            HashMap<String, HashMap<String, HashMap<String, Object>>> toSave = new HashMap<String, HashMap<String, HashMap<String, Object>>>(1);
-            HashMap<String, HashSet<String>> blockedTablesMap = new HashMap<String, HashSet<String>>(1);
+            FlushBatch batch = new FlushBatch();
             for (String entryKey : entryKeys) {
                 String[] splittedKey = getKeyComponents(entryKey);
-                String dbName = splittedKey[0];
-                String tableName = splittedKey[1];
-                String objectKey = splittedKey[2];
-                HashSet<String> blockedTables = blockedTablesMap.get(dbName);
-                if (blockedTables == null) {
-                    blockedTables = new HashSet<String>();
-                    blockedTablesMap.put(dbName, blockedTables);
-                }
-                if (!blockedTables.contains(tableName)) {
-                    MapMutex<String> mapMutex = getMapMutex(dbName);
-                    mapMutex.acquire(tableName);
-                    blockedTables.add(tableName);
-                }
-                CacheEntry entry = getEntry(dbName, tableName, objectKey);
-
-                if (entry == null) {
-                    throw new IllegalArgumentException("Object " + objectKey + " corresponding to entry " + entryKey + " not found in cache when saving.");
-                } else if (entry.isModified()) {
-                    HashMap<String, HashMap<String, Object>> dbMap = toSave.get(dbName);
-                    if (dbMap == null) {
-                        dbMap = new HashMap<String, HashMap<String, Object>>();
-                        toSave.put(dbName, dbMap);
-                    }
-                    HashMap<String, Object> tableMap = dbMap.get(tableName);
-                    if (tableMap == null) {
-                        tableMap = new HashMap<String, Object>();
-                        dbMap.put(tableName, tableMap);
-                    }
-                    tableMap.put(objectKey, entry.getObject());
-                }
-
+                EntryKey key = new EntryKey(splittedKey[0], splittedKey[1], splittedKey[2]);
+                getShard(key).save(key, clearEntries, batch);
                 if (waitingHandler != null) {
                     waitingHandler.increaseSecondaryProgressCounter();
                     if (waitingHandler.isRunCanceled()) {
-                        return;
-                    }
-                }
-            }
-            for (String dbName : toSave.keySet()) {
-                ObjectsDB objectsDB = databases.get(dbName);
-                for (String tableName : toSave.get(dbName).keySet()) {
-                    objectsDB.insertObjects(tableName, toSave.get(dbName).get(tableName), waitingHandler);
-                }
-            }
-            if (waitingHandler == null || !waitingHandler.isRunCanceled()) {
-                if (clearEntries) {
-                    for (String entryKey : entryKeys) {
-                        String[] splittedKey = getKeyComponents(entryKey);
-                        String dbName = splittedKey[0];
-                        String tableName = splittedKey[1];
-                        String objectKey = splittedKey[2];
-                        HashMap<String, HashMap<String, CacheEntry>> dbMap = loadedObjectsMap.get(dbName);
-                        if (dbMap != null) {
-                            HashMap<String, CacheEntry> tableMap = dbMap.get(tableName);
-                            if (tableMap != null) {
-                                tableMap.remove(objectKey);
-                                if (tableMap.isEmpty()) {
-                                    dbMap.remove(tableName);
-                                }
-                            }
-                            if (dbMap.isEmpty()) {
-                                loadedObjectsMap.remove(dbName);
-                            }
-                        }
-
-                        if (waitingHandler != null) {
-                            waitingHandler.increaseSecondaryProgressCounter();
-                            if (waitingHandler.isRunCanceled()) {
-                                return;
-                            }
-                        }
+                        break;
                     }
                 }
             }
-            for (String dbName : blockedTablesMap.keySet()) {
-                HashSet<String> blockedTables = blockedTablesMap.get(dbName);
-                MapMutex<String> mapMutex = getMapMutex(dbName);
-                for (String blockedTable : blockedTables) {
-                    mapMutex.release(blockedTable);
-                }
-            }
+            writeBatch(batch, waitingHandler);
         }
     }
 
@@ -505,7 +515,7 @@ public class ObjectsCache {
      * writing the object
      * @throws java.lang.InterruptedException if the thread is interrupted
      */
-    public synchronized void saveObject(String entryKey) throws IOException, SQLException, InterruptedException {
+    public void saveObject(String entryKey) throws IOException, SQLException, InterruptedException {
         saveObject(entryKey, true);
     }
 
@@ -524,51 +534,15 @@ public class ObjectsCache {
      * writing the object
      * @throws java.lang.InterruptedException if the thread is interrupted
      */
-    public synchronized void saveObject(String entryKey, boolean clearEntry) throws IOException, SQLException, InterruptedException {
-        if (!readOnly) {
-            String[] splittedKey = getKeyComponents(entryKey);
-            String dbName = splittedKey[0];
-            String tableName = splittedKey[1];
-            String objectKey = splittedKey[2];
-            MapMutex<String> mapMutex = getMapMutex(dbName);
-            mapMutex.acquire(tableName);
-            CacheEntry entry = loadedObjectsMap.get(dbName).get(tableName).get(objectKey);
-            if (entry.isModified()) {
-                try {
-                    ObjectsDB objectsDB = databases.get(dbName);
-                    if (objectsDB == null) {
-                        throw new IllegalStateException("Database " + dbName + " not loaded in cache");
-                    }
-                    if (objectsDB.inDB(tableName, objectKey, false)) {
-                        objectsDB.updateObject(tableName, objectKey, entry.getObject(), false);
-                    } else {
-                        objectsDB.insertObject(tableName, objectKey, entry.getObject(), false);
-                    }
-                } catch (IOException e) {
-                    e.printStackTrace();
-                    throw new IOException("Error while writing match " + objectKey + " in table " + tableName + " in database" + dbName + ".");
-                } catch (SQLException e) {
-                    e.printStackTrace();
-                    throw new SQLException("Error while writing match " + objectKey + " in table " + tableName + " in database" + dbName + ".");
-                }
-            }
-            if (clearEntry) {
-                loadedObjectKeysMutex.acquire();
-                loadedObjectsKeys.remove(entryKey);
-                loadedObjectKeysMutex.release();
-                HashMap<String, HashMap<String, ObjectsCache.CacheEntry>> dbCache = loadedObjectsMap.get(dbName);
-                HashMap<String, ObjectsCache.CacheEntry> tableCache = dbCache.get(tableName);
-                tableCache.remove(objectKey);
-                if (tableCache.isEmpty()) {
-                    dbCache.remove(tableName);
-                }
-            }
-            mapMutex.release(tableName);
-        }
+    public void saveObject(String entryKey, boolean clearEntry) throws IOException, SQLException, InterruptedException {
+        ArrayList<String> entryKeys = new ArrayList<String>(1);
+        entryKeys.add(entryKey);
+        saveObjects(entryKeys, null, clearEntry);
     }
 
     /**
-     * Updates the cache according to the memory settings.
+     * Updates the cache according to the memory settings. Nothing happens if
+     * the cache is already being updated by another thread.
      *
      * @throws SQLException exception thrown whenever an error occurred while
      * adding the object in the database
@@ -577,13 +551,14 @@ public class ObjectsCache {
      * @throws java.lang.InterruptedException if the thread is interrupted
      */
     public void updateCache() throws IOException, SQLException, InterruptedException {
-        if (!readOnly && !updating) {
+        if (!readOnly && !updating.get()) {
             updateCacheSynchronized();
         }
     }
 
     /**
-     * Updates the cache according to the memory settings.
+     * Updates the cache according to the memory settings. The modified
+     * entries evicted are written to the databases in the background.
      *
      * @throws SQLException exception thrown whenever an error occurred while
      * adding the object in the database
@@ -591,28 +566,35 @@ public class ObjectsCache {
      * writing the object
      * @throws java.lang.InterruptedException if the thread is interrupted
      */
-    public synchronized void updateCacheSynchronized() throws IOException, SQLException, InterruptedException {
-        updating = true;
-        while ((!automatedMemoryManagement && loadedObjectsKeys.size() > cacheSize)
-                || (automatedMemoryManagement && !memoryCheck())) {
-            int toRemove = (int) (((double) loadedObjectsKeys.size()) * 0.25); // remove 25% of the objects from the cache
-            if (toRemove <= 1) {
-                loadedObjectKeysMutex.acquire();
-                String objectKey = loadedObjectsKeys.take();
-                loadedObjectKeysMutex.release();
-                saveObject(objectKey);
-            } else {
-                ArrayList<String> keysToRemove = new ArrayList<String>(toRemove);
-                loadedObjectKeysMutex.acquire();
-                loadedObjectsKeys.drainTo(keysToRemove, toRemove);
-                loadedObjectKeysMutex.release();
-                saveObjects(keysToRemove);
+    public void updateCacheSynchronized() throws IOException, SQLException, InterruptedException {
+        if (!updating.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            checkFlushException();
+            int currentSize = size.get();
+            if (currentSize == 0) {
+                return;
             }
-            if (loadedObjectsKeys.isEmpty()) {
-                break;
+            if (!automatedMemoryManagement) {
+                if (currentSize > cacheSize) {
+                    double share = ((double) (currentSize - cacheSize)) / currentSize;
+                    evict(Math.max(share, EVICTION_SHARE), false);
+                }
+            } else {
+                long maxWeight = (long) (memoryShare * Runtime.getRuntime().maxMemory());
+                long currentWeight = weight.get();
+                if (currentWeight > maxWeight) {
+                    double share = ((double) (currentWeight - maxWeight)) / currentWeight;
+                    evict(Math.max(share, EVICTION_SHARE), true);
+                } else if (nPendingBatches.get() == 0 && !memoryCheck()) {
+                    // the weight estimates are off, the evicted objects must be written before checking again
+                    evict(EVICTION_SHARE, false);
+                }
             }
+        } finally {
+            updating.set(false);
         }
-        updating = false;
     }
 
     /**
@@ -631,39 +613,23 @@ public class ObjectsCache {
      * @throws java.lang.InterruptedException if the thread is interrupted
      */
     public void reduceMemoryConsumption(double share, WaitingHandler waitingHandler) throws IOException, SQLException, InterruptedException {
-        if (!reducingMemoryConsumption) {
-            reduceMemoryConsumptionSynchronized(share, waitingHandler);
+        if (!readOnly) {
+            checkFlushException();
+            FlushBatch batch = new FlushBatch();
+            for (Shard shard : shards) {
+                shard.evict(share, false, batch);
+            }
+            if (waitingHandler != null) {
+                waitingHandler.resetSecondaryProgressCounter();
+                waitingHandler.setMaxSecondaryProgressCounter(batch.size);
+            }
+            writeBatch(batch, waitingHandler);
         }
     }
 
     /**
-     * Reduces the memory consumption by saving the given share of cache
-     * content.
-     *
-     * @param share the share to be saved, 0.25 means that 25% of the hits will
-     * be saved
-     * @param waitingHandler a waiting handler on which the progress will be
-     * displayed as secondary progress. can be null
-     *
-     * @throws SQLException exception thrown whenever an error occurred while
-     * adding the object in the database
-     * @throws IOException exception thrown whenever an error occurred while
-     * writing the object
-     * @throws java.lang.InterruptedException if the thread is interrupted
-     */
-    private synchronized void reduceMemoryConsumptionSynchronized(double share, WaitingHandler waitingHandler) throws IOException, SQLException, InterruptedException {
-        reducingMemoryConsumption = true;
-        int toRemove = (int) (share * loadedObjectsKeys.size());
-        ArrayList<String> keysToRemove = new ArrayList<String>(toRemove);
-        loadedObjectKeysMutex.acquire();
-        loadedObjectsKeys.drainTo(keysToRemove, toRemove);
-        loadedObjectKeysMutex.release();
-        saveObjects(keysToRemove, waitingHandler);
-        reducingMemoryConsumption = false;
-    }
-
-    /**
-     * Indicates whether an object is loaded in the cache
+     * Indicates whether an object is loaded in the cache or waiting to be
+     * written to the database.
      *
      * @param dbName the database name
      * @param tableName the table name
@@ -671,7 +637,8 @@ public class ObjectsCache {
      * @return a boolean indicating whether an object is loaded in the cache
      */
     public boolean inCache(String dbName, String tableName, String objectKey) {
-        return getEntry(dbName, tableName, objectKey) != null;
+        EntryKey key = new EntryKey(dbName, tableName, objectKey);
+        return getShard(key).contains(key) || pendingObjects.containsKey(key);
     }
 
     /**
@@ -687,71 +654,238 @@ public class ObjectsCache {
      * writing the object
      * @throws java.lang.InterruptedException if the thread is interrupted
      */
-    public synchronized void saveCache(WaitingHandler waitingHandler, boolean emptyCache) throws IOException, SQLException, InterruptedException {
+    public void saveCache(WaitingHandler waitingHandler, boolean emptyCache) throws IOException, SQLException, InterruptedException {
+
+        waitForPendingWrites();
 
         if (waitingHandler != null) {
-            waitingHandler.setMaxSecondaryProgressCounter((loadedObjectsKeys.size() * 2) + 1);
+            waitingHandler.setMaxSecondaryProgressCounter((size.get() * 2) + 1);
             waitingHandler.setSecondaryProgressCounterIndeterminate(false);
             waitingHandler.setSecondaryProgressCounter(0);
         }
 
-        // add the objects to the database
-        for (String dbName : loadedObjectsMap.keySet()) {
+        FlushBatch batch = new FlushBatch();
+        for (Shard shard : shards) {
+            int previousSize = batch.size;
+            if (emptyCache && !readOnly) {
+                shard.evict(1.0, false, batch);
+            } else {
+                shard.collectModified(batch);
+            }
+            if (waitingHandler != null) {
+                waitingHandler.increaseSecondaryProgressCounter(batch.size - previousSize);
+                if (waitingHandler.isRunCanceled()) {
+                    // put back the objects collected so far, they are saved at the next attempt
+                    restore(batch);
+                    return;
+                }
+            }
+        }
 
-            ObjectsDB objectsDB = databases.get(dbName);
+        writeBatch(batch, waitingHandler);
+    }
 
-            if (objectsDB == null) {
-                throw new IllegalStateException("Database " + dbName + " not loaded in cache");
+    /**
+     * Waits for the evicted objects to be written to the databases.
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * writing the objects in the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the objects
+     * @throws java.lang.InterruptedException if the thread is interrupted
+     */
+    public void waitForPendingWrites() throws IOException, SQLException, InterruptedException {
+        synchronized (flushMutex) {
+            while (nPendingBatches.get() > 0 && flushException == null) {
+                flushMutex.wait();
+            }
+        }
+        checkFlushException();
+    }
+
+    /**
+     * Throws the exception encountered while writing in the background if
+     * any.
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * writing the objects in the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the objects
+     * @throws java.lang.InterruptedException if the thread is interrupted
+     */
+    private void checkFlushException() throws IOException, SQLException, InterruptedException {
+        Exception exception = flushException;
+        if (exception != null) {
+            flushException = null;
+            if (exception instanceof IOException) {
+                throw (IOException) exception;
+            } else if (exception instanceof SQLException) {
+                throw (SQLException) exception;
+            } else if (exception instanceof InterruptedException) {
+                throw (InterruptedException) exception;
             }
-            for (String tableName : loadedObjectsMap.get(dbName).keySet()) {
-                MapMutex<String> mapMutex = getMapMutex(dbName);
-                mapMutex.acquire(tableName);
+            throw new IllegalStateException("Error while writing the cache to the database.", exception);
+        }
+    }
 
-                HashMap<String, CacheEntry> data = loadedObjectsMap.get(dbName).get(tableName);
-                HashMap<String, Object> objectsToStore = new HashMap<String, Object>(data.size());
+    /**
+     * Evicts the given share of every shard and submits the modified objects
+     * to the background writer.
+     *
+     * @param share the share of every shard to evict
+     * @param byWeight if true the share is computed on the weight, otherwise
+     * on the number of entries
+     *
+     * @throws java.lang.InterruptedException if the thread is interrupted
+     * while waiting for the background writer
+     */
+    private void evict(double share, boolean byWeight) throws InterruptedException {
+        FlushBatch batch = new FlushBatch();
+        for (Shard shard : shards) {
+            shard.evict(share, byWeight, batch);
+            if (batch.size >= batchSize) {
+                submit(batch);
+                batch = new FlushBatch();
+            }
+        }
+        if (batch.size > 0) {
+            submit(batch);
+        }
+    }
 
-                for (String objectKey : data.keySet()) {
-                    CacheEntry entry = data.get(objectKey);
-                    if (entry.isModified()) {
-                        objectsToStore.put(objectKey, entry.getObject());
+    /**
+     * Submits a batch to the background writer, waits if too many batches
+     * are pending.
+     *
+     * @param batch the batch to write
+     *
+     * @throws java.lang.InterruptedException if the thread is interrupted
+     * while waiting for the background writer
+     */
+    private void submit(FlushBatch batch) throws InterruptedException {
+        synchronized (flushMutex) {
+            if (flushThread == null) {
+                flushThread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        flush();
                     }
+                }, "Objects cache writer");
+                flushThread.setDaemon(true);
+                flushThread.start();
+            }
+            nPendingBatches.incrementAndGet();
+        }
+        flushQueue.put(batch);
+    }
 
-                    if (waitingHandler != null) {
-                        waitingHandler.increaseSecondaryProgressCounter();
-                        if (waitingHandler.isRunCanceled()) {
-                            return;
-                        }
+    /**
+     * Writes the batches submitted to the background writer.
+     */
+    private void flush() {
+        while (true) {
+            FlushBatch batch;
+            try {
+                batch = flushQueue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                writeBatch(batch, null);
+            } catch (Exception e) {
+                synchronized (flushMutex) {
+                    if (flushException == null) {
+                        flushException = e;
                     }
                 }
+            } finally {
+                nPendingBatches.decrementAndGet();
+                synchronized (flushMutex) {
+                    flushMutex.notifyAll();
+                }
+            }
+        }
+    }
 
-                objectsDB.insertObjects(tableName, objectsToStore, waitingHandler);
-
-                mapMutex.release(tableName);
+    /**
+     * Writes a batch to the databases and removes its objects from the
+     * pending objects. If the writing fails, the objects are put back in the
+     * cache as modified so that they are written again later.
+     *
+     * @param batch the batch to write
+     * @param waitingHandler a waiting handler displaying progress to the user.
+     * Can be null. Progress will be displayed as secondary.
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * writing the objects in the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the objects
+     * @throws java.lang.InterruptedException if the thread is interrupted
+     */
+    private void writeBatch(FlushBatch batch, WaitingHandler waitingHandler) throws IOException, SQLException, InterruptedException {
+        if (batch.size == 0) {
+            return;
+        }
+        long start = System.nanoTime();
+        boolean written = false;
+        try {
+            for (String dbName : batch.objects.keySet()) {
+                ObjectsDB objectsDB = databases.get(dbName);
+                if (objectsDB == null) {
+                    throw new IllegalStateException("Database " + dbName + " not loaded in cache");
+                }
+                HashMap<String, HashMap<String, Object>> dbObjects = batch.objects.get(dbName);
+                for (String tableName : dbObjects.keySet()) {
+                    objectsDB.insertObjects(tableName, dbObjects.get(tableName), waitingHandler);
+                }
+            }
+            written = true;
+        } finally {
+            if (written) {
+                for (int i = 0; i < batch.keys.size(); i++) {
+                    pendingObjects.remove(batch.keys.get(i), batch.values.get(i));
+                }
+            } else {
+                restore(batch);
+            }
+            synchronized (flushMutex) {
+                flushMutex.notifyAll();
             }
         }
+        long time = System.nanoTime() - start;
+        flushTime.addAndGet(time);
+        flushedBatches.incrementAndGet();
+        flushedObjects.addAndGet(batch.size);
+        long max = maxFlushTime.get();
+        while (time > max && !maxFlushTime.compareAndSet(max, time)) {
+            max = maxFlushTime.get();
+        }
+    }
 
-        if (emptyCache && !readOnly) {
-            loadedObjectsMap.clear();
-            loadedObjectKeysMutex.acquire();
-            loadedObjectsKeys.clear();
-            loadedObjectKeysMutex.release();
+    /**
+     * Puts back the objects of a batch which was not written as modified
+     * entries and removes them from the pending objects.
+     *
+     * @param batch the batch
+     */
+    private void restore(FlushBatch batch) {
+        for (int i = 0; i < batch.keys.size(); i++) {
+            EntryKey key = batch.keys.get(i);
+            getShard(key).restore(key, batch.values.get(i));
         }
     }
 
     /**
-     * Returns the cache key which will index an object based on its db name,
-     * table name and object key.
+     * Returns the estimated weight of an entry whose blob size is not known.
      *
-     * @param dbName the DB name
-     * @param tableName the table name
-     * @param objectKey the object key
-     * @return the cache key which will index an object based on its db name,
-     * table name and object key
+     * @param key the key of the entry
+     *
+     * @return the estimated weight of the entry in bytes
      */
-    private String getCacheKey(String dbName, String tableName, String objectKey) {
-        StringBuilder stringBuilder = new StringBuilder(2 * cacheSeparator.length() + dbName.length() + tableName.length() + objectKey.length());
-        stringBuilder.append(dbName).append(cacheSeparator).append(tableName).append(cacheSeparator).append(objectKey);
-        return stringBuilder.toString();
+    private long getEstimatedWeight(EntryKey key) {
+        long n = nMeasured.get();
+        long objectWeight = n == 0 ? DEFAULT_OBJECT_WEIGHT : measuredWeight.get() / n;
+        return ENTRY_OVERHEAD + 2 * key.objectKey.length() + objectWeight;
     }
 
     /**
@@ -771,7 +905,7 @@ public class ObjectsCache {
      * @return a boolean indicating whether the cache is empty
      */
     public boolean isEmpty() {
-        return loadedObjectsKeys.isEmpty();
+        return size.get() == 0 && pendingObjects.isEmpty();
     }
 
     /**
@@ -785,34 +919,396 @@ public class ObjectsCache {
     }
 
     /**
-     * Adds a map mutex to the dbCacheMutexMap.
+     * Returns the number of objects in cache.
      *
-     * @param dbName the name of the database
+     * @return the number of objects in cache
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Returns the estimated weight of the objects in cache in bytes.
      *
-     * @return the map mutex corresponding to the database
+     * @return the estimated weight of the objects in cache in bytes
      */
-    private synchronized MapMutex<String> addMapMutex(String dbName) {
-        MapMutex<String> mapMutex = dbCacheMutexMap.get(dbName);
-        if (mapMutex == null) {
-            mapMutex = new MapMutex<String>();
-            dbCacheMutexMap.put(dbName, mapMutex);
-        }
-        return mapMutex;
+    public long getWeight() {
+        return weight.get();
     }
 
     /**
-     * Returns the map mutex for the given database.
+     * Returns the number of cache hits.
      *
-     * @param dbName the name of the database
+     * @return the number of cache hits
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of cache misses.
+     *
+     * @return the number of cache misses
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the share of the requests found in cache.
+     *
+     * @return the share of the requests found in cache
+     */
+    public double getHitRatio() {
+        long nHits = hits.get();
+        long nRequests = nHits + misses.get();
+        return nRequests == 0 ? 0.0 : ((double) nHits) / nRequests;
+    }
+
+    /**
+     * Returns the number of entries evicted.
+     *
+     * @return the number of entries evicted
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Returns the number of objects written to the databases.
+     *
+     * @return the number of objects written to the databases
+     */
+    public long getFlushedObjects() {
+        return flushedObjects.get();
+    }
+
+    /**
+     * Returns the number of batches written to the databases.
      *
-     * @return the map mutex
+     * @return the number of batches written to the databases
+     */
+    public long getFlushedBatches() {
+        return flushedBatches.get();
+    }
+
+    /**
+     * Returns the mean time spent writing a batch in milliseconds.
+     *
+     * @return the mean time spent writing a batch in milliseconds
+     */
+    public double getMeanFlushLatency() {
+        long nBatches = flushedBatches.get();
+        return nBatches == 0 ? 0.0 : flushTime.get() / 1000000.0 / nBatches;
+    }
+
+    /**
+     * Returns the longest time spent writing a batch in milliseconds.
+     *
+     * @return the longest time spent writing a batch in milliseconds
+     */
+    public double getMaxFlushLatency() {
+        return maxFlushTime.get() / 1000000.0;
+    }
+
+    @Override
+    public String toString() {
+        return size() + " objects (" + getWeight() / 1048576 + " MB), hit ratio " + Math.round(1000 * getHitRatio()) / 10.0 + "%, "
+                + getEvictions() + " evictions, " + getFlushedObjects() + " objects written in " + getFlushedBatches() + " batches (mean "
+                + Math.round(getMeanFlushLatency()) + " ms, max " + Math.round(getMaxFlushLatency()) + " ms)";
+    }
+
+    /**
+     * Returns the shard of the given key.
+     *
+     * @param key the key
+     *
+     * @return the shard of the key
+     */
+    private Shard getShard(EntryKey key) {
+        int hash = key.hash ^ (key.hash >>> 16);
+        return shards[hash & (N_SHARDS - 1)];
+    }
+
+    /**
+     * Key of an entry made of the db, table and object keys.
+     */
+    private static class EntryKey {
+
+        /**
+         * The name of the database.
+         */
+        private final String dbName;
+        /**
+         * The name of the table.
+         */
+        private final String tableName;
+        /**
+         * The key of the object.
+         */
+        private final String objectKey;
+        /**
+         * The hash of the key.
+         */
+        private final int hash;
+
+        /**
+         * Constructor.
+         *
+         * @param dbName the name of the database
+         * @param tableName the name of the table
+         * @param objectKey the key of the object
+         */
+        EntryKey(String dbName, String tableName, String objectKey) {
+            this.dbName = dbName;
+            this.tableName = tableName;
+            this.objectKey = objectKey;
+            this.hash = 31 * (31 * objectKey.hashCode() + tableName.hashCode()) + dbName.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof EntryKey)) {
+                return false;
+            }
+            EntryKey other = (EntryKey) obj;
+            return hash == other.hash && objectKey.equals(other.objectKey) && tableName.equals(other.tableName) && dbName.equals(other.dbName);
+        }
+    }
+
+    /**
+     * Batch of objects to write to the databases.
+     */
+    private static class FlushBatch {
+
+        /**
+         * The objects indexed by db, table and object key.
+         */
+        private final HashMap<String, HashMap<String, HashMap<String, Object>>> objects = new HashMap<String, HashMap<String, HashMap<String, Object>>>(1);
+        /**
+         * The keys of the objects.
+         */
+        private final ArrayList<EntryKey> keys = new ArrayList<EntryKey>();
+        /**
+         * The objects in the order of the keys.
+         */
+        private final ArrayList<Object> values = new ArrayList<Object>();
+        /**
+         * The number of objects in the batch.
+         */
+        private int size = 0;
+
+        /**
+         * Adds an object to the batch.
+         *
+         * @param key the key of the object
+         * @param object the object
+         */
+        void add(EntryKey key, Object object) {
+            HashMap<String, HashMap<String, Object>> dbObjects = objects.get(key.dbName);
+            if (dbObjects == null) {
+                dbObjects = new HashMap<String, HashMap<String, Object>>();
+                objects.put(key.dbName, dbObjects);
+            }
+            HashMap<String, Object> tableObjects = dbObjects.get(key.tableName);
+            if (tableObjects == null) {
+                tableObjects = new HashMap<String, Object>();
+                dbObjects.put(key.tableName, tableObjects);
+            }
+            tableObjects.put(key.objectKey, object);
+            keys.add(key);
+            values.add(object);
+            size++;
+        }
+    }
+
+    /**
+     * Shard of the cache, an LRU map of entries.
      */
-    private MapMutex<String> getMapMutex(String dbName) {
-        MapMutex<String> dbMutexMap = dbCacheMutexMap.get(dbName);
-        if (dbMutexMap == null) {
-            dbMutexMap = addMapMutex(dbName);
+    private class Shard {
+
+        /**
+         * The entries in access order.
+         */
+        private final LinkedHashMap<EntryKey, CacheEntry> entries = new LinkedHashMap<EntryKey, CacheEntry>(64, 0.75f, true);
+        /**
+         * The estimated weight of the shard.
+         */
+        private long shardWeight = 0;
+
+        /**
+         * Returns the object of the given key, null if not found.
+         *
+         * @param key the key
+         *
+         * @return the object of the given key
+         */
+        synchronized Object get(EntryKey key) {
+            CacheEntry entry = entries.get(key);
+            return entry == null ? null : entry.getObject();
+        }
+
+        /**
+         * Indicates whether the shard contains the given key.
+         *
+         * @param key the key
+         *
+         * @return a boolean indicating whether the shard contains the given
+         * key
+         */
+        synchronized boolean contains(EntryKey key) {
+            return entries.containsKey(key);
+        }
+
+        /**
+         * Adds an entry, replacing the previous entry of the same key.
+         *
+         * @param key the key
+         * @param entry the entry
+         */
+        synchronized void put(EntryKey key, CacheEntry entry) {
+            CacheEntry previous = entries.put(key, entry);
+            if (previous != null) {
+                removeWeight(previous);
+            } else {
+                size.incrementAndGet();
+            }
+            shardWeight += entry.getWeight();
+            weight.addAndGet(entry.getWeight());
+        }
+
+        /**
+         * Updates the object of an entry and marks it as modified. If the
+         * object is waiting to be written, it is put back in the shard.
+         *
+         * @param key the key
+         * @param object the new object
+         *
+         * @return a boolean indicating whether the entry was found
+         */
+        synchronized boolean update(EntryKey key, Object object) {
+            CacheEntry entry = entries.get(key);
+            if (entry != null) {
+                entry.setModified(true);
+                entry.setObject(object);
+                return true;
+            }
+            if (pendingObjects.containsKey(key)) {
+                put(key, new CacheEntry(object, true, getEstimatedWeight(key)));
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Puts back an object which could not be written as a modified entry
+         * and removes it from the pending objects. The object is not put back
+         * if the shard contains a more recent version, if a more recent
+         * version is waiting to be written or if the object is being removed.
+         *
+         * @param key the key
+         * @param object the object which could not be written
+         */
+        synchronized void restore(EntryKey key, Object object) {
+            if (!entries.containsKey(key) && pendingObjects.get(key) == object && !removedKeys.containsKey(key)) {
+                put(key, new CacheEntry(object, true, getEstimatedWeight(key)));
+            }
+            pendingObjects.remove(key, object);
+        }
+
+        /**
+         * Removes an entry.
+         *
+         * @param key the key
+         */
+        synchronized void remove(EntryKey key) {
+            CacheEntry entry = entries.remove(key);
+            if (entry != null) {
+                removeWeight(entry);
+                size.decrementAndGet();
+            }
+        }
+
+        /**
+         * Adds an entry to a batch if modified and removes it if needed.
+         *
+         * @param key the key
+         * @param clear if true the entry is removed from the shard
+         * @param batch the batch where to add the entry
+         */
+        synchronized void save(EntryKey key, boolean clear, FlushBatch batch) {
+            CacheEntry entry = entries.get(key);
+            if (entry != null) {
+                if (entry.isModified()) {
+                    batch.add(key, entry.getObject());
+                    pendingObjects.put(key, entry.getObject());
+                }
+                if (clear) {
+                    remove(key);
+                }
+            }
+        }
+
+        /**
+         * Adds the modified entries to a batch.
+         *
+         * @param batch the batch
+         */
+        synchronized void collectModified(FlushBatch batch) {
+            for (Map.Entry<EntryKey, CacheEntry> mapEntry : entries.entrySet()) {
+                CacheEntry entry = mapEntry.getValue();
+                if (entry.isModified()) {
+                    batch.add(mapEntry.getKey(), entry.getObject());
+                    pendingObjects.put(mapEntry.getKey(), entry.getObject());
+                }
+            }
+        }
+
+        /**
+         * Removes the least recently used entries and adds the modified ones
+         * to a batch. The removed entries remain accessible until written.
+         *
+         * @param share the share of the shard to evict
+         * @param byWeight if true the share is computed on the weight,
+         * otherwise on the number of entries
+         * @param batch the batch
+         */
+        synchronized void evict(double share, boolean byWeight, FlushBatch batch) {
+            if (entries.isEmpty()) {
+                return;
+            }
+            long targetWeight = byWeight ? (long) (shardWeight * (1 - share)) : Long.MAX_VALUE;
+            int targetSize = byWeight ? 0 : entries.size() - (int) Math.ceil(share * entries.size());
+            Iterator<Map.Entry<EntryKey, CacheEntry>> iterator = entries.entrySet().iterator();
+            while (iterator.hasNext() && (byWeight ? shardWeight > targetWeight : entries.size() > targetSize)) {
+                Map.Entry<EntryKey, CacheEntry> mapEntry = iterator.next();
+                CacheEntry entry = mapEntry.getValue();
+                if (entry.isModified()) {
+                    batch.add(mapEntry.getKey(), entry.getObject());
+                    pendingObjects.put(mapEntry.getKey(), entry.getObject());
+                }
+                iterator.remove();
+                removeWeight(entry);
+                size.decrementAndGet();
+                evictions.incrementAndGet();
+            }
+        }
+
+        /**
+         * Removes the weight of an entry from the weight of the shard and of
+         * the cache.
+         *
+         * @param entry the entry
+         */
+        private void removeWeight(CacheEntry entry) {
+            shardWeight -= entry.getWeight();
+            weight.addAndGet(-entry.getWeight());
         }
-        return dbMutexMap;
     }
 
     /**
@@ -830,16 +1326,22 @@ public class ObjectsCache {
          * the cache is emptied.
          */
         private boolean modified;
+        /**
+         * The estimated weight of the entry in bytes.
+         */
+        private final long weight;
 
         /**
          * Constructor.
          *
          * @param object the object of the entry
          * @param modified boolean indicating whether the entry is modified
+         * @param weight the estimated weight of the entry in bytes
          */
-        public CacheEntry(Object object, boolean modified) {
+        public CacheEntry(Object object, boolean modified, long weight) {
             this.object = object;
             this.modified = modified;
+            this.weight = weight;
         }
 
         /**
@@ -881,5 +1383,14 @@ public class ObjectsCache {
         public void setObject(Object object) {
             this.object = object;
         }
+
+        /**
+         * Returns the estimated weight of the entry in bytes.
+         *
+         * @return the estimated weight of the entry in bytes
+         */
+        public long getWeight() {
+            return weight;
+        }
     }
 }
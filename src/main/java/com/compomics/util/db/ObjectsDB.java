@@ -1,6 +1,9 @@
 package com.compomics.util.db;
 
 import com.compomics.util.Util;
+import com.compomics.util.db.codec.BlobCodec;
+import com.compomics.util.db.store.BlobStore;
+import com.compomics.util.db.store.LogStructuredStore;
 import com.compomics.util.waiting.WaitingHandler;
 import java.io.*;
 import java.sql.*;
@@ -8,7 +11,6 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.concurrent.Semaphore;
-import javax.sql.rowset.serial.SerialBlob;
 
 /**
  * A database which can easily be used to store objects.
@@ -149,6 +151,16 @@ public class ObjectsDB implements Serializable {
      * If true, SQLite is used as the database, if false Derby is used.
      */
     private boolean useSQLite = false;
+    /**
+     * If true, the objects are stored in a log structured blob store instead
+     * of a JDBC database.
+     */
+    private boolean useLogStructuredStore = false;
+    /**
+     * The blob store used when not using a JDBC database, null if not
+     * connected.
+     */
+    private transient BlobStore blobStore;
     /**
      * The identifier used to register the derby connection in the DerbyUtil
      * class.
@@ -174,11 +186,47 @@ public class ObjectsDB implements Serializable {
      * threading error occurred while establishing the connection
      */
     public ObjectsDB(String folder, String dbName, boolean deleteOldDatabase, ObjectsCache objectsCache) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+        this(folder, dbName, deleteOldDatabase, objectsCache, false);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param folder absolute path of the folder where to establish the database
+     * @param dbName name of the database
+     * @param deleteOldDatabase if true, tries to delete the old database
+     * @param objectsCache a cache to store objects without interacting with the
+     * database
+     * @param useLogStructuredStore if true, the objects are stored in a log
+     * structured blob store instead of a Derby database
+     *
+     * @throws SQLException exception thrown whenever a problem occurred when
+     * establishing the connection to the database
+     * @throws java.io.IOException exception thrown whenever an error occurred
+     * while reading or writing a file
+     * @throws java.lang.ClassNotFoundException exception thrown whenever an
+     * error occurred while deserializing a file
+     * @throws java.lang.InterruptedException exception thrown whenever a
+     * threading error occurred while establishing the connection
+     */
+    public ObjectsDB(String folder, String dbName, boolean deleteOldDatabase, ObjectsCache objectsCache, boolean useLogStructuredStore) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
         this.dbName = dbName;
+        this.useLogStructuredStore = useLogStructuredStore;
         objectsCache.addDb(this);
         establishConnection(folder, deleteOldDatabase, objectsCache);
     }
 
+    /**
+     * Indicates whether the objects are stored in a log structured blob store
+     * instead of a JDBC database.
+     *
+     * @return a boolean indicating whether the objects are stored in a log
+     * structured blob store
+     */
+    public boolean isUseLogStructuredStore() {
+        return useLogStructuredStore;
+    }
+
     /**
      * Returns the database name.
      *
@@ -221,6 +269,14 @@ public class ObjectsDB implements Serializable {
         if (debugInteractions) {
             System.out.println(System.currentTimeMillis() + " Inserting table, table: " + tableName);
         }
+        if (useLogStructuredStore) {
+            try {
+                blobStore.addTable(getStoreTableName(tableName));
+            } catch (IOException e) {
+                throw new SQLException("An error occurred while creating table " + tableName + ".", e);
+            }
+            return;
+        }
         Statement stmt = dbConnection.createStatement();
         dbMutex.acquire();
         try {
@@ -279,6 +335,10 @@ public class ObjectsDB implements Serializable {
      */
     public ArrayList<String> getTables() throws SQLException, InterruptedException {
 
+        if (useLogStructuredStore) {
+            return blobStore.getTables();
+        }
+
         dbMutex.acquire();
         DatabaseMetaData dmd = dbConnection.getMetaData();
         ArrayList<String> result = new ArrayList<String>();
@@ -351,22 +411,15 @@ public class ObjectsDB implements Serializable {
         if (usedTables != null) {
             usedTables.add(tableName);
         }
+        if (useLogStructuredStore) {
+            blobStore.put(getStoreTableName(tableName), correctedKey, BlobCodec.getInstance().encode(object));
+            return;
+        }
         dbMutex.acquire();
         PreparedStatement ps = dbConnection.prepareStatement("INSERT INTO " + tableName + " VALUES (?, ?)");
         try {
             ps.setString(1, correctedKey);
-            ByteArrayOutputStream bos = new ByteArrayOutputStream();
-            try {
-                ObjectOutputStream oos = new ObjectOutputStream(bos);
-                try {
-                    oos.writeObject(object);
-                } finally {
-                    oos.close();
-                }
-            } finally {
-                bos.close();
-            }
-            ps.setBytes(2, bos.toByteArray());
+            ps.setBytes(2, BlobCodec.getInstance().encode(object));
             ps.executeUpdate();
         } finally {
             ps.close();
@@ -400,6 +453,11 @@ public class ObjectsDB implements Serializable {
             usedTables.add(tableName);
         }
 
+        if (useLogStructuredStore) {
+            insertObjectsInStore(tableName, objects, waitingHandler);
+            return;
+        }
+
         dbMutex.acquire();
 
         dbConnection.setAutoCommit(false);
@@ -408,6 +466,7 @@ public class ObjectsDB implements Serializable {
 
         HashSet<String> addedKeys = new HashSet<String>(objects.size());
         HashMap<String, String> updateKeys = new HashMap<String, String>(objects.size());
+        BlobCodec blobCodec = BlobCodec.getInstance();
 
         PreparedStatement insertStatement = dbConnection.prepareStatement("INSERT INTO " + tableName + " VALUES (?, ?)");
         try {
@@ -421,15 +480,7 @@ public class ObjectsDB implements Serializable {
                     if (debugInteractions) {
                         System.out.println(System.currentTimeMillis() + " Inserting batch of objects, table: " + tableName + ", key: " + objectKey);
                     }
-                    File debugObjectFile = new File(debugFolder, "debugMatch");
-                    FileOutputStream fos = new FileOutputStream(debugObjectFile);
-                    BufferedOutputStream debugBos = new BufferedOutputStream(fos);
-                    ObjectOutputStream debugOos = new ObjectOutputStream(debugBos);
-                    debugOos.writeObject(objects.get(objectKey));
-                    debugOos.close();
-                    debugBos.close();
-                    fos.close();
-                    long size = debugObjectFile.length();
+                    long size = blobCodec.encode(objects.get(objectKey)).length;
 
                     debugContentWriter.write(tableName + "\t" + objectKey + "\t" + size + "\n");
                     debugContentWriter.flush();
@@ -438,29 +489,17 @@ public class ObjectsDB implements Serializable {
                 if (tableContent.contains(correctedKey)) {
                     updateKeys.put(objectKey, correctedKey);
                 } else {
-                    ByteArrayOutputStream bos = new ByteArrayOutputStream();
-                    try {
-                        ObjectOutputStream oos = new ObjectOutputStream(bos);
-                        try {
-
-                            oos.writeObject(objects.get(objectKey));
-                            insertStatement.setString(1, correctedKey);
-                            insertStatement.setBytes(2, bos.toByteArray());
-                            insertStatement.addBatch();
-
-                            if ((++rowCounter) % objectsCache.getBatchSize() == 0) {
-                                insertStatement.executeBatch();
-                                insertStatement.clearParameters();
-                                dbConnection.commit();
-                                insertStatement.close();
-                                insertStatement = dbConnection.prepareStatement("INSERT INTO " + tableName + " VALUES (?, ?)");
-                                rowCounter = 0;
-                            }
-                        } finally {
-                            oos.close();
-                        }
-                    } finally {
-                        bos.close();
+                    insertStatement.setString(1, correctedKey);
+                    insertStatement.setBytes(2, blobCodec.encode(objects.get(objectKey)));
+                    insertStatement.addBatch();
+
+                    if ((++rowCounter) % objectsCache.getBatchSize() == 0) {
+                        insertStatement.executeBatch();
+                        insertStatement.clearParameters();
+                        dbConnection.commit();
+                        insertStatement.close();
+                        insertStatement = dbConnection.prepareStatement("INSERT INTO " + tableName + " VALUES (?, ?)");
+                        rowCounter = 0;
                     }
 
                     addedKeys.add(correctedKey);
@@ -499,43 +538,23 @@ public class ObjectsDB implements Serializable {
                     if (debugInteractions) {
                         System.out.println(System.currentTimeMillis() + " Updating batch of objects, table: " + tableName + ", key: " + objectKey);
                     }
-                    File debugObjectFile = new File(debugFolder, "debugMatch");
-                    FileOutputStream fos = new FileOutputStream(debugObjectFile);
-                    BufferedOutputStream debugBos = new BufferedOutputStream(fos);
-                    ObjectOutputStream debugOos = new ObjectOutputStream(debugBos);
-                    debugOos.writeObject(objects.get(objectKey));
-                    debugOos.close();
-                    debugBos.close();
-                    fos.close();
-                    long size = debugObjectFile.length();
+                    long size = blobCodec.encode(objects.get(objectKey)).length;
 
                     debugContentWriter.write(tableName + "\t" + objectKey + "\t" + size + "\n");
                     debugContentWriter.flush();
                 }
 
-                ByteArrayOutputStream bos = new ByteArrayOutputStream();
-                try {
-                    ObjectOutputStream oos = new ObjectOutputStream(bos);
-                    try {
-                        oos.writeObject(objects.get(objectKey));
-
-                        updateStatement.setString(2, correctedKey);
-                        updateStatement.setBytes(1, bos.toByteArray());
-                        updateStatement.addBatch();
-
-                        if ((++rowCounter) % objectsCache.getBatchSize() == 0) {
-                            updateStatement.executeBatch();
-                            updateStatement.clearParameters();
-                            dbConnection.commit();
-                            updateStatement.close();
-                            updateStatement = dbConnection.prepareStatement("UPDATE " + tableName + " SET MATCH_BLOB=? WHERE NAME=?");
-                            rowCounter = 0;
-                        }
-                    } finally {
-                        oos.close();
-                    }
-                } finally {
-                    bos.close();
+                updateStatement.setString(2, correctedKey);
+                updateStatement.setBytes(1, blobCodec.encode(objects.get(objectKey)));
+                updateStatement.addBatch();
+
+                if ((++rowCounter) % objectsCache.getBatchSize() == 0) {
+                    updateStatement.executeBatch();
+                    updateStatement.clearParameters();
+                    dbConnection.commit();
+                    updateStatement.close();
+                    updateStatement = dbConnection.prepareStatement("UPDATE " + tableName + " SET MATCH_BLOB=? WHERE NAME=?");
+                    rowCounter = 0;
                 }
 
                 if (waitingHandler != null) {
@@ -561,6 +580,56 @@ public class ObjectsDB implements Serializable {
         dbMutex.release();
     }
 
+    /**
+     * Inserts a set of objects in the given table of the blob store. Objects
+     * already in the table are replaced.
+     *
+     * @param tableName the name of the table
+     * @param objects map of the objects (object key &gt; object)
+     * @param waitingHandler a waiting handler displaying the progress (can be
+     * null). The progress will be displayed on the secondary progress bar.
+     *
+     * @throws IOException exception thrown whenever an error occurs while
+     * writing in the store
+     */
+    private void insertObjectsInStore(String tableName, HashMap<String, Object> objects, WaitingHandler waitingHandler) throws IOException {
+
+        BlobCodec blobCodec = BlobCodec.getInstance();
+        String storeTableName = getStoreTableName(tableName);
+        HashMap<String, byte[]> blobs = new HashMap<String, byte[]>(Math.min(objects.size(), objectsCache.getBatchSize()));
+
+        for (String objectKey : objects.keySet()) {
+
+            if (debugInteractions) {
+                System.out.println(System.currentTimeMillis() + " Inserting batch of objects, table: " + tableName + ", key: " + objectKey);
+            }
+
+            byte[] blob = blobCodec.encode(objects.get(objectKey));
+            blobs.put(correctKey(tableName, objectKey), blob);
+
+            if (debugContent) {
+                debugContentWriter.write(tableName + "\t" + objectKey + "\t" + blob.length + "\n");
+                debugContentWriter.flush();
+            }
+
+            if (blobs.size() == objectsCache.getBatchSize()) {
+                blobStore.putAll(storeTableName, blobs);
+                blobs.clear();
+            }
+
+            if (waitingHandler != null) {
+                waitingHandler.increaseSecondaryProgressCounter();
+                if (waitingHandler.isRunCanceled()) {
+                    return;
+                }
+            }
+        }
+
+        if (!blobs.isEmpty()) {
+            blobStore.putAll(storeTableName, blobs);
+        }
+    }
+
     /**
      * Loads all objects from a table in the cache.
      *
@@ -581,6 +650,13 @@ public class ObjectsDB implements Serializable {
      */
     public void loadObjects(String tableName, WaitingHandler waitingHandler, boolean displayProgress) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
 
+        if (useLogStructuredStore) {
+            if (usedTables == null || usedTables.contains(tableName)) {
+                loadObjectsFromStore(tableName, null, waitingHandler, displayProgress);
+            }
+            return;
+        }
+
         if (usedTables == null || usedTables.contains(tableName)) {
             if (!loading && (tableQueue.isEmpty() || tableQueue.indexOf(tableName) == 0)) {
 
@@ -612,6 +688,7 @@ public class ObjectsDB implements Serializable {
                 }
 
                 HashMap<String, Object> objectsFromDb = new HashMap<String, Object>();
+                HashMap<String, Integer> blobSizes = new HashMap<String, Integer>();
 
                 dbMutex.acquire();
                 loading = true;
@@ -637,27 +714,9 @@ public class ObjectsDB implements Serializable {
 
                                 if (!objectsCache.inCache(dbName, tableName, key)) {
 
-                                    Blob tempBlob;
-
-                                    if (useSQLite) {
-                                        byte[] bytes = results.getBytes(2);
-                                        tempBlob = new SerialBlob(bytes);
-                                    } else {
-                                        tempBlob = results.getBlob(2);
-                                    }
-
-                                    BufferedInputStream bis = new BufferedInputStream(tempBlob.getBinaryStream());
-                                    try {
-                                        ObjectInputStream in = new ObjectInputStream(bis);
-                                        try {
-                                            Object object = in.readObject();
-                                            objectsFromDb.put(key, object);
-                                        } finally {
-                                            in.close();
-                                        }
-                                    } finally {
-                                        bis.close();
-                                    }
+                                    byte[] blob = getBytes(results, 2);
+                                    objectsFromDb.put(key, BlobCodec.getInstance().decode(blob));
+                                    blobSizes.put(key, blob.length);
                                 }
                             }
 
@@ -678,7 +737,7 @@ public class ObjectsDB implements Serializable {
                 for (String key : objectsFromDb.keySet()) {
                     if (!objectsCache.inCache(dbName, tableName, key)) {
                         Object object = objectsFromDb.get(key);
-                        objectsCache.addObject(dbName, tableName, key, object, false, false);
+                        objectsCache.addObject(dbName, tableName, key, object, false, false, blobSizes.get(key));
                     }
                 }
                 objectsCache.updateCache();
@@ -719,6 +778,22 @@ public class ObjectsDB implements Serializable {
      */
     public void loadObjects(String tableName, ArrayList<String> keys, WaitingHandler waitingHandler, boolean displayProgress) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
 
+        if (useLogStructuredStore) {
+            if (usedTables == null || usedTables.contains(tableName)) {
+                ArrayList<String> toLoad = new ArrayList<String>(keys.size());
+                for (String key : keys) {
+                    String correctedKey = correctKey(tableName, key);
+                    if (objectsCache != null && !objectsCache.inCache(dbName, tableName, correctedKey)) {
+                        toLoad.add(correctedKey);
+                    }
+                }
+                if (!toLoad.isEmpty()) {
+                    loadObjectsFromStore(tableName, toLoad, waitingHandler, displayProgress);
+                }
+            }
+            return;
+        }
+
         HashSet<String> keysToQuery = new HashSet<String>(keys);
 
         HashSet<String> queue = contentQueue.get(tableName);
@@ -777,6 +852,7 @@ public class ObjectsDB implements Serializable {
                 if (!toLoad.isEmpty()) {
 
                     HashMap<String, Object> objectsFromDb = new HashMap<String, Object>(toLoad.size());
+                    HashMap<String, Integer> blobSizes = new HashMap<String, Integer>(toLoad.size());
 
                     dbMutex.acquire();
                     loading = true;
@@ -796,27 +872,9 @@ public class ObjectsDB implements Serializable {
                                     String key = results.getString(1);
                                     if (toLoad.contains(key)) {
                                         found++;
-                                        Blob tempBlob;
-
-                                        if (useSQLite) {
-                                            byte[] bytes = results.getBytes(2);
-                                            tempBlob = new SerialBlob(bytes);
-                                        } else {
-                                            tempBlob = results.getBlob(2);
-                                        }
-
-                                        BufferedInputStream bis = new BufferedInputStream(tempBlob.getBinaryStream());
-                                        try {
-                                            ObjectInputStream in = new ObjectInputStream(bis);
-                                            try {
-                                                Object object = in.readObject();
-                                                objectsFromDb.put(key, object);
-                                            } finally {
-                                                in.close();
-                                            }
-                                        } finally {
-                                            bis.close();
-                                        }
+                                        byte[] blob = getBytes(results, 2);
+                                        objectsFromDb.put(key, BlobCodec.getInstance().decode(blob));
+                                        blobSizes.put(key, blob.length);
                                         if (waitingHandler != null && displayProgress) {
                                             waitingHandler.increaseSecondaryProgressCounter();
                                         }
@@ -840,7 +898,7 @@ public class ObjectsDB implements Serializable {
                     for (String key : objectsFromDb.keySet()) {
                         if (!objectsCache.inCache(dbName, tableName, key)) {
                             Object object = objectsFromDb.get(key);
-                            objectsCache.addObject(dbName, tableName, key, object, false, false);
+                            objectsCache.addObject(dbName, tableName, key, object, false, false, blobSizes.get(key));
                         }
                     }
                     objectsCache.updateCache();
@@ -865,6 +923,243 @@ public class ObjectsDB implements Serializable {
         }
     }
 
+    /**
+     * Loads all objects from a table in the cache. One thread reads the blobs
+     * while the given number of threads decode them. The objects are added to
+     * the cache in the order of reading.
+     *
+     * @param tableName the table name
+     * @param waitingHandler the waiting handler allowing displaying progress
+     * and canceling the process
+     * @param displayProgress boolean indicating whether the progress of this
+     * method should be displayed on the waiting handler
+     * @param nThreads the number of threads to use to decode the objects, if
+     * one the objects are decoded by the reading thread
+     *
+     * @throws SQLException exception thrown whenever an error occurs while
+     * interacting with the database
+     * @throws IOException exception thrown whenever an error occurs while
+     * reading or writing a file
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing a file from the database
+     * @throws InterruptedException exception thrown if a threading error occurs
+     * while interacting with the database
+     */
+    public void loadObjects(String tableName, WaitingHandler waitingHandler, boolean displayProgress, int nThreads) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+        if (nThreads <= 1) {
+            loadObjects(tableName, waitingHandler, displayProgress);
+        } else if (usedTables == null || usedTables.contains(tableName)) {
+            loadObjectsParallel(tableName, null, waitingHandler, displayProgress, nThreads);
+        }
+    }
+
+    /**
+     * Loads some objects from a table in the cache. One thread reads the
+     * blobs while the given number of threads decode them. The objects are
+     * added to the cache in the order of reading.
+     *
+     * @param tableName the table name
+     * @param keys the keys of the objects to load
+     * @param waitingHandler the waiting handler allowing displaying progress
+     * and canceling the process
+     * @param displayProgress boolean indicating whether the progress of this
+     * method should be displayed on the waiting handler
+     * @param nThreads the number of threads to use to decode the objects, if
+     * one the objects are decoded by the reading thread
+     *
+     * @throws SQLException exception thrown whenever an error occurs while
+     * interacting with the database
+     * @throws IOException exception thrown whenever an error occurs while
+     * reading or writing a file
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing a file from the database
+     * @throws InterruptedException exception thrown if a threading error occurs
+     * while interacting with the database
+     */
+    public void loadObjects(String tableName, ArrayList<String> keys, WaitingHandler waitingHandler, boolean displayProgress, int nThreads) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+        if (nThreads <= 1) {
+            loadObjects(tableName, keys, waitingHandler, displayProgress);
+        } else if (usedTables == null || usedTables.contains(tableName)) {
+            HashSet<String> toLoad = new HashSet<String>(keys.size());
+            for (String key : keys) {
+                String correctedKey = correctKey(tableName, key);
+                if (!objectsCache.inCache(dbName, tableName, correctedKey)) {
+                    toLoad.add(correctedKey);
+                }
+            }
+            if (!toLoad.isEmpty()) {
+                loadObjectsParallel(tableName, toLoad, waitingHandler, displayProgress, nThreads);
+            }
+        }
+    }
+
+    /**
+     * Reads the blobs of a table and decodes them on a pool of threads.
+     *
+     * @param tableName the table name
+     * @param correctedKeys the corrected keys of the objects to load, null for
+     * the entire table
+     * @param waitingHandler the waiting handler allowing displaying progress
+     * and canceling the process
+     * @param displayProgress boolean indicating whether the progress of this
+     * method should be displayed on the waiting handler
+     * @param nThreads the number of threads to use to decode the objects
+     *
+     * @throws SQLException exception thrown whenever an error occurs while
+     * interacting with the database
+     * @throws IOException exception thrown whenever an error occurs while
+     * reading or writing a file
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing a file from the database
+     * @throws InterruptedException exception thrown if a threading error occurs
+     * while interacting with the database
+     */
+    private void loadObjectsParallel(String tableName, HashSet<String> correctedKeys, WaitingHandler waitingHandler, boolean displayProgress, int nThreads) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+
+        if (debugInteractions) {
+            System.out.println(System.currentTimeMillis() + " getting table objects using " + nThreads + " threads, table: " + tableName);
+        }
+
+        BlobDecodingPipeline pipeline = new BlobDecodingPipeline(objectsCache, dbName, tableName, nThreads, waitingHandler, displayProgress);
+        boolean completed = false;
+
+        try {
+            if (useLogStructuredStore) {
+
+                // read the blobs one by one in the order of the log
+                String storeTableName = getStoreTableName(tableName);
+                ArrayList<String> keys = blobStore.getKeysInStoreOrder(storeTableName, correctedKeys);
+                if (waitingHandler != null && displayProgress && correctedKeys == null) {
+                    waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+                    waitingHandler.setSecondaryProgressCounter(0);
+                    waitingHandler.setMaxSecondaryProgressCounter(keys.size());
+                }
+                for (String key : keys) {
+                    if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                        break;
+                    }
+                    byte[] blob = blobStore.get(storeTableName, key);
+                    if (blob != null) {
+                        pipeline.add(key, blob);
+                    }
+                }
+
+            } else {
+
+                if (waitingHandler != null && displayProgress && correctedKeys == null) {
+                    waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+                    dbMutex.acquire();
+                    Statement rowCountStatement = dbConnection.createStatement();
+                    try {
+                        ResultSet results = rowCountStatement.executeQuery("select count(*) from " + tableName);
+                        results.next();
+                        waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+                        waitingHandler.setSecondaryProgressCounter(0);
+                        waitingHandler.setMaxSecondaryProgressCounter(results.getInt(1));
+                    } finally {
+                        rowCountStatement.close();
+                        dbMutex.release();
+                    }
+                }
+
+                dbMutex.acquire();
+                loading = true;
+                try {
+                    Statement stmt = dbConnection.createStatement();
+                    try {
+                        ResultSet results = stmt.executeQuery("select * from " + tableName);
+                        try {
+                            int found = 0;
+                            while (results.next() && (correctedKeys == null || found < correctedKeys.size())) {
+                                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                                    break;
+                                }
+                                String key = results.getString(1);
+                                if (correctedKeys == null || correctedKeys.contains(key)) {
+                                    found++;
+                                    pipeline.add(key, getBytes(results, 2));
+                                }
+                            }
+                        } finally {
+                            results.close();
+                        }
+                    } finally {
+                        stmt.close();
+                    }
+                } finally {
+                    loading = false;
+                    dbMutex.release();
+                }
+            }
+
+            pipeline.finish();
+            completed = true;
+
+        } finally {
+            if (!completed) {
+                pipeline.abort();
+            }
+        }
+
+        objectsCache.updateCache();
+    }
+
+    /**
+     * Loads objects from the blob store in the cache. The store can be read
+     * concurrently, no mutex is needed.
+     *
+     * @param tableName the table name
+     * @param correctedKeys the corrected keys of the objects to load, null for
+     * the entire table
+     * @param waitingHandler the waiting handler allowing displaying progress
+     * and canceling the process
+     * @param displayProgress boolean indicating whether the progress of this
+     * method should be displayed on the waiting handler
+     *
+     * @throws IOException exception thrown whenever an error occurs while
+     * reading the store
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing an object
+     * @throws SQLException exception thrown whenever an error occurred while
+     * writing objects evicted from the cache
+     * @throws InterruptedException exception thrown if a threading error
+     * occurred
+     */
+    private void loadObjectsFromStore(String tableName, ArrayList<String> correctedKeys, WaitingHandler waitingHandler, boolean displayProgress) throws IOException, ClassNotFoundException, SQLException, InterruptedException {
+
+        if (debugInteractions) {
+            System.out.println(System.currentTimeMillis() + " getting table objects, table: " + tableName);
+        }
+
+        HashMap<String, byte[]> blobs = blobStore.getAll(getStoreTableName(tableName), correctedKeys);
+
+        if (waitingHandler != null && displayProgress && correctedKeys == null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+            waitingHandler.setSecondaryProgressCounter(0);
+            waitingHandler.setMaxSecondaryProgressCounter(blobs.size());
+        }
+
+        BlobCodec blobCodec = BlobCodec.getInstance();
+
+        for (String key : blobs.keySet()) {
+
+            if (waitingHandler != null) {
+                if (waitingHandler.isRunCanceled()) {
+                    break;
+                }
+                if (displayProgress) {
+                    waitingHandler.increaseSecondaryProgressCounter();
+                }
+            }
+
+            if (!objectsCache.inCache(dbName, tableName, key)) {
+                byte[] blob = blobs.get(key);
+                objectsCache.addObject(dbName, tableName, key, blobCodec.decode(blob), false, false, blob.length);
+            }
+        }
+        objectsCache.updateCache();
+    }
+
     /**
      * Retrieves an object from the desired table. The key should be unique
      * otherwise the first object will be returned. Returns null if the key is
@@ -965,6 +1260,22 @@ public class ObjectsDB implements Serializable {
             System.out.println(System.currentTimeMillis() + " Retrieving object, table: " + tableName + ", key: " + objectKey);
         }
 
+        if (useLogStructuredStore) {
+            if (blobStore == null || usedTables != null && !usedTables.contains(tableName)) {
+                return object;
+            }
+            byte[] blob = blobStore.get(getStoreTableName(tableName), correctedKey);
+            if (blob != null) {
+                object = BlobCodec.getInstance().decode(blob);
+            }
+            if (useCache) {
+                if (!objectsCache.inCache(dbName, tableName, objectKey)) {
+                    objectsCache.addObject(dbName, tableName, objectKey, object, false, true, blob == null ? -1 : blob.length);
+                }
+            }
+            return object;
+        }
+
         if (dbConnection == null || usedTables != null && !usedTables.contains(tableName)) {
             return object;
         }
@@ -972,6 +1283,7 @@ public class ObjectsDB implements Serializable {
         dbMutex.acquire();
 
         long start = System.currentTimeMillis();
+        int blobSize = -1;
 
         Statement stmt = dbConnection.createStatement();
 
@@ -981,51 +1293,23 @@ public class ObjectsDB implements Serializable {
 
                 if (results.next()) {
 
-                    Blob tempBlob;
-
-                    if (useSQLite) {
-                        byte[] bytes = results.getBytes(1);
-                        tempBlob = new SerialBlob(bytes);
-                    } else {
-                        tempBlob = results.getBlob(1);
-                    }
-
-                    BufferedInputStream bis = new BufferedInputStream(tempBlob.getBinaryStream());
-                    try {
-                        ObjectInputStream in = new ObjectInputStream(bis);
-                        try {
-                            object = in.readObject();
-                        } finally {
-                            in.close();
-                        }
-                    } finally {
-                        bis.close();
-                    }
+                    BlobCodec blobCodec = BlobCodec.getInstance();
+                    byte[] dbBlob = getBytes(results, 1);
+                    blobSize = dbBlob.length;
+                    object = blobCodec.decode(dbBlob);
 
                     if (debugSpeed) {
                         long loaded = System.currentTimeMillis();
 
-                        File debugObjectFile = new File(debugFolder, "debugMatch");
-                        FileOutputStream fos = new FileOutputStream(debugObjectFile);
-                        BufferedOutputStream bos = new BufferedOutputStream(fos);
-                        ObjectOutputStream oos = new ObjectOutputStream(bos);
-                        oos.writeObject(object);
-                        oos.close();
-                        bos.close();
-                        fos.close();
+                        byte[] blob = blobCodec.encode(object);
 
                         long written = System.currentTimeMillis();
 
-                        FileInputStream fis = new FileInputStream(debugObjectFile);
-                        bis = new BufferedInputStream(fis);
-                        ObjectInputStream in = new ObjectInputStream(bis);
-                        Object match = in.readObject();
-                        fis.close();
-                        bis.close();
-                        in.close();
+                        blobCodec.decode(blob);
+
                         long read = System.currentTimeMillis();
 
-                        long size = debugObjectFile.length();
+                        long size = blob.length;
 
                         long queryTime = loaded - start;
                         long serializationTime = written - loaded;
@@ -1046,7 +1330,7 @@ public class ObjectsDB implements Serializable {
 
         if (useCache) {
             if (!objectsCache.inCache(dbName, tableName, objectKey)) {
-                objectsCache.addObject(dbName, tableName, objectKey, object, false, true);
+                objectsCache.addObject(dbName, tableName, objectKey, object, false, true, blobSize);
             }
         }
 
@@ -1103,6 +1387,9 @@ public class ObjectsDB implements Serializable {
         if (debugInteractions) {
             System.out.println(System.currentTimeMillis() + " Checking db content, table: " + tableName + ", key: " + objectKey);
         }
+        if (useLogStructuredStore) {
+            return blobStore.contains(getStoreTableName(tableName), correctedKey);
+        }
         dbMutex.acquire();
         Statement stmt = dbConnection.createStatement();
         boolean result = false;
@@ -1157,6 +1444,17 @@ public class ObjectsDB implements Serializable {
      */
     private HashSet<String> getTableContentFromDB(String tableName) throws SQLException, InterruptedException {
 
+        if (useLogStructuredStore) {
+            HashSet<String> tableContent = new HashSet<String>();
+            for (String key : blobStore.getKeys(getStoreTableName(tableName))) {
+                if (key.startsWith(LONG_KEY_PREFIX)) {
+                    key = getOriginalKey(tableName, key);
+                }
+                tableContent.add(key);
+            }
+            return tableContent;
+        }
+
         dbMutex.acquire();
 
         HashSet<String> result = getTableContentFromDBNoMutex(tableName);
@@ -1250,6 +1548,12 @@ public class ObjectsDB implements Serializable {
         objectsCache.removeObject(dbName, tableName, correctedKey);
 
         // delete from database
+        if (useLogStructuredStore) {
+            if (usedTables == null || usedTables.contains(tableName)) {
+                blobStore.delete(getStoreTableName(tableName), correctedKey);
+            }
+            return;
+        }
         dbMutex.acquire();
         if (debugInteractions) {
             System.out.println(System.currentTimeMillis() + " Removing object, table: " + tableName + ", key: " + objectKey);
@@ -1342,6 +1646,11 @@ public class ObjectsDB implements Serializable {
 
         if (!cacheUpdated && (usedTables == null || usedTables.contains(tableName))) {
 
+            if (useLogStructuredStore) {
+                blobStore.put(getStoreTableName(tableName), correctedKey, BlobCodec.getInstance().encode(object));
+                return;
+            }
+
             dbMutex.acquire();
 
             if (debugInteractions) {
@@ -1349,18 +1658,7 @@ public class ObjectsDB implements Serializable {
             }
             PreparedStatement ps = dbConnection.prepareStatement("update " + tableName + " set MATCH_BLOB=? where NAME='" + objectKey + "'");
             try {
-                ByteArrayOutputStream bos = new ByteArrayOutputStream();
-                try {
-                    ObjectOutputStream oos = new ObjectOutputStream(bos);
-                    try {
-                        oos.writeObject(object);
-                    } finally {
-                        oos.close();
-                    }
-                } finally {
-                    bos.close();
-                }
-                ps.setBytes(1, bos.toByteArray());
+                ps.setBytes(1, BlobCodec.getInstance().encode(object));
                 ps.executeUpdate();
             } finally {
                 ps.close();
@@ -1370,6 +1668,42 @@ public class ObjectsDB implements Serializable {
         }
     }
 
+    /**
+     * Returns the content of a blob column of the current row of the given
+     * result set.
+     *
+     * @param results the result set
+     * @param columnIndex the index of the column
+     *
+     * @return the content of the blob
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * reading the blob
+     */
+    private byte[] getBytes(ResultSet results, int columnIndex) throws SQLException {
+        if (useSQLite) {
+            return results.getBytes(columnIndex);
+        }
+        Blob blob = results.getBlob(columnIndex);
+        return blob.getBytes(1, (int) blob.length());
+    }
+
+    /**
+     * Returns the name of a table in the blob store following the SQL
+     * conventions: quoted names are case sensitive, other names are converted
+     * to upper case.
+     *
+     * @param tableName the name of the table
+     *
+     * @return the name of the table in the blob store
+     */
+    private static String getStoreTableName(String tableName) {
+        if (tableName.length() > 1 && tableName.startsWith("\"") && tableName.endsWith("\"")) {
+            return tableName.substring(1, tableName.length() - 1);
+        }
+        return tableName.toUpperCase();
+    }
+
     /**
      * Saves the current date to the CONNECTION_LOG_TABLE.
      *
@@ -1456,6 +1790,9 @@ public class ObjectsDB implements Serializable {
      * @return true if the connection to the DB is active
      */
     public boolean isConnectionActive() {
+        if (useLogStructuredStore) {
+            return blobStore != null;
+        }
         return path != null && DerbyUtil.isActiveConnection(derbyConnectionID, path);
     }
 
@@ -1477,12 +1814,12 @@ public class ObjectsDB implements Serializable {
         }
         dbMutex.release();
 
-        if (dbConnection != null) {
+        if (dbConnection != null || blobStore != null) {
             // try to save the long key indexes
             try {
                 saveAttributes();
             } catch (Exception e) {
-                if (dbConnection != null) {
+                if (dbConnection != null || blobStore != null) {
                     e.printStackTrace();
                 }
             }
@@ -1492,7 +1829,9 @@ public class ObjectsDB implements Serializable {
         objectsCache = null;
 
         try {
-            if (dbConnection != null && isConnectionActive()) {
+            if (blobStore != null) {
+                blobStore.close();
+            } else if (dbConnection != null && isConnectionActive()) {
                 dbConnection.close();
                 DerbyUtil.removeActiveConnection(derbyConnectionID, path);
             }
@@ -1519,6 +1858,7 @@ public class ObjectsDB implements Serializable {
         }
 
         dbConnection = null;
+        blobStore = null;
 
         dbMutex.release();
     }
@@ -1553,7 +1893,9 @@ public class ObjectsDB implements Serializable {
 
             close();
 
-            DerbyUtil.closeConnection();
+            if (!useLogStructuredStore) {
+                DerbyUtil.closeConnection();
+            }
             boolean deleted = Util.deleteDir(dbFolder);
             //TODO: Restore connections?
 
@@ -1570,7 +1912,9 @@ public class ObjectsDB implements Serializable {
         }
         dbMutex.acquire();
 
-        if (useSQLite) {
+        if (useLogStructuredStore) {
+            blobStore = new LogStructuredStore(dbFolder);
+        } else if (useSQLite) {
             try {
                 Class.forName("org.sqlite.JDBC");
                 dbConnection = DriverManager.getConnection("jdbc:sqlite:" + path); // @TODO: another instance of SQLite may have already booted the database. We need to check this first?
@@ -1581,7 +1925,7 @@ public class ObjectsDB implements Serializable {
                 ex.printStackTrace();
             }
         }
-        if (!useSQLite) {
+        if (!useLogStructuredStore && !useSQLite) {
             if (isConnectionActive()) {
                 throw new IllegalArgumentException("Impossible to establish a Derby connection in " + path + ", connection to the folder already active.");
             }
@@ -0,0 +1,427 @@
+package com.compomics.util.db.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Converts objects to the blobs stored in the database and back. Objects of
+ * a class with a registered codec are written in a compact versioned binary
+ * form, other objects are written using Java serialization. Blobs can
+ * optionally be compressed. Blobs written using Java serialization only, as
+ * done by previous versions, are recognized and read as before.
+ *
+ * @author Marc Vaudel
+ */
+public class BlobCodec {
+
+    /**
+     * The first byte of the blobs written by this codec. Blobs written using
+     * Java serialization start with 0xAC.
+     */
+    public static final int BLOB_MARKER = 0x43;
+    /**
+     * The version of the blob format.
+     */
+    public static final int BLOB_VERSION = 1;
+    /**
+     * Flag indicating that the payload is compressed.
+     */
+    private static final int FLAG_COMPRESSED = 1;
+    /**
+     * Tag of a null object.
+     */
+    private static final int TAG_NULL = 0;
+    /**
+     * Tag of an object written using Java serialization.
+     */
+    private static final int TAG_JAVA = 1;
+    /**
+     * Tag of an object written using a registered codec.
+     */
+    private static final int TAG_CODEC = 2;
+    /**
+     * Type identifiers below this value are reserved to the codecs of this
+     * library.
+     */
+    public static final int FIRST_USER_TYPE_ID = 1000;
+    /**
+     * The instance of the codec.
+     */
+    private static BlobCodec instance = null;
+    /**
+     * The registered codecs indexed by class.
+     */
+    private final ConcurrentHashMap<Class<?>, Registration> codecsByClass = new ConcurrentHashMap<Class<?>, Registration>();
+    /**
+     * The registered codecs indexed by type identifier.
+     */
+    private final ConcurrentHashMap<Integer, Registration> codecsById = new ConcurrentHashMap<Integer, Registration>();
+    /**
+     * The minimal size in bytes of a blob to be compressed, -1 for no
+     * compression.
+     */
+    private volatile int compressionThreshold = -1;
+
+    /**
+     * Constructor.
+     */
+    public BlobCodec() {
+    }
+
+    /**
+     * Returns the instance of the codec used by the objects databases.
+     *
+     * @return the instance of the codec
+     */
+    public static synchronized BlobCodec getInstance() {
+        if (instance == null) {
+            instance = new BlobCodec();
+        }
+        return instance;
+    }
+
+    /**
+     * Registers a codec. The type identifier is stored in the blobs and must
+     * therefore never change for a given class. Identifiers below
+     * FIRST_USER_TYPE_ID are reserved to this library.
+     *
+     * @param <T> the class of the objects encoded
+     * @param typeId the identifier of the type in the blobs
+     * @param type the class of the objects encoded, subclasses are not
+     * encoded using this codec
+     * @param codec the codec
+     */
+    public synchronized <T> void registerCodec(int typeId, Class<T> type, ObjectCodec<T> codec) {
+        if (typeId < 0) {
+            throw new IllegalArgumentException("Negative type identifier " + typeId + " for " + type.getName() + ".");
+        }
+        Registration registered = codecsById.get(typeId);
+        if (registered != null && registered.type != type) {
+            throw new IllegalArgumentException("Type identifier " + typeId + " already used for " + registered.type.getName() + ".");
+        }
+        Registration registration = new Registration(typeId, type, codec);
+        codecsById.put(typeId, registration);
+        codecsByClass.put(type, registration);
+    }
+
+    /**
+     * Indicates whether a codec is registered for the given class.
+     *
+     * @param type the class
+     *
+     * @return a boolean indicating whether a codec is registered for the given
+     * class
+     */
+    public boolean hasCodec(Class<?> type) {
+        return codecsByClass.containsKey(type);
+    }
+
+    /**
+     * Sets the minimal size in bytes of a blob to be compressed, -1 for no
+     * compression.
+     *
+     * @param compressionThreshold the minimal size in bytes of a blob to be
+     * compressed
+     */
+    public void setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    /**
+     * Returns the minimal size in bytes of a blob to be compressed, -1 for no
+     * compression.
+     *
+     * @return the minimal size in bytes of a blob to be compressed
+     */
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * Converts an object to a blob.
+     *
+     * @param object the object
+     *
+     * @return the blob
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * encoding the object
+     */
+    public byte[] encode(Object object) throws IOException {
+
+        int threshold = compressionThreshold;
+        if (threshold < 0 && (object == null || !codecsByClass.containsKey(object.getClass()))) {
+            return serialize(object);
+        }
+
+        BlobOutput payload = new BlobOutput(this, 256);
+        writeObject(object, payload);
+
+        BlobOutput blob = new BlobOutput(this, payload.size() + 8);
+        blob.writeByte(BLOB_MARKER);
+        blob.writeByte(BLOB_VERSION);
+
+        if (threshold >= 0 && payload.size() >= threshold) {
+            byte[] compressed = compress(payload.getBuffer(), payload.size());
+            if (compressed.length < payload.size()) {
+                blob.writeByte(FLAG_COMPRESSED);
+                blob.writeVarInt(payload.size());
+                blob.writeBytes(compressed, 0, compressed.length);
+                return blob.toByteArray();
+            }
+        }
+
+        blob.writeByte(0);
+        blob.writeBytes(payload.getBuffer(), 0, payload.size());
+        return blob.toByteArray();
+    }
+
+    /**
+     * Converts a blob back to an object.
+     *
+     * @param blob the blob
+     *
+     * @return the object
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * decoding the blob
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing an object encoded using Java serialization
+     */
+    public Object decode(byte[] blob) throws IOException, ClassNotFoundException {
+
+        if (blob.length == 0 || (blob[0] & 0xFF) != BLOB_MARKER) {
+            return deserialize(blob, 0, blob.length);
+        }
+
+        BlobInput header = new BlobInput(this, blob, 0, blob.length);
+        header.readByte();
+        int version = header.readByte();
+        if (version > BLOB_VERSION) {
+            throw new IOException("Blob version " + version + " not supported.");
+        }
+        int flags = header.readByte();
+
+        if ((flags & FLAG_COMPRESSED) != 0) {
+            int length = header.readVarInt();
+            int offset = blob.length - header.remaining();
+            byte[] payload = decompress(blob, offset, blob.length - offset, length);
+            return readObject(new BlobInput(this, payload, 0, payload.length));
+        }
+
+        int offset = blob.length - header.remaining();
+        return readObject(new BlobInput(this, blob, offset, blob.length - offset));
+    }
+
+    /**
+     * Writes an object which can be null using the codec registered for its
+     * class, or Java serialization if none.
+     *
+     * @param object the object
+     * @param output the output where to write the object
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the object
+     */
+    @SuppressWarnings("unchecked")
+    void writeObject(Object object, BlobOutput output) throws IOException {
+        if (object == null) {
+            output.writeByte(TAG_NULL);
+            return;
+        }
+        Registration registration = codecsByClass.get(object.getClass());
+        if (registration == null) {
+            byte[] bytes = serialize(object);
+            output.writeByte(TAG_JAVA);
+            output.writeVarInt(bytes.length);
+            output.writeBytes(bytes, 0, bytes.length);
+        } else {
+            output.writeByte(TAG_CODEC);
+            output.writeVarInt(registration.typeId);
+            output.writeVarInt(registration.codec.getVersion());
+            ((ObjectCodec<Object>) registration.codec).write(object, output);
+        }
+    }
+
+    /**
+     * Reads an object written using writeObject.
+     *
+     * @param input the input where to read the object from
+     *
+     * @return the object
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the object
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing an object encoded using Java serialization
+     */
+    Object readObject(BlobInput input) throws IOException, ClassNotFoundException {
+        int tag = input.readByte();
+        switch (tag) {
+            case TAG_NULL:
+                return null;
+            case TAG_JAVA:
+                byte[] bytes = input.readBytes(input.readVarInt());
+                return deserialize(bytes, 0, bytes.length);
+            case TAG_CODEC:
+                int typeId = input.readVarInt();
+                int version = input.readVarInt();
+                Registration registration = codecsById.get(typeId);
+                if (registration == null) {
+                    throw new IOException("No codec registered for type " + typeId + ".");
+                }
+                if (version > registration.codec.getVersion()) {
+                    throw new IOException("Version " + version + " of " + registration.type.getName() + " not supported.");
+                }
+                return registration.codec.read(input, version);
+            default:
+                throw new IOException("Unknown object tag " + tag + ".");
+        }
+    }
+
+    /**
+     * Serializes an object using Java serialization.
+     *
+     * @param object the object
+     *
+     * @return the serialized object
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * serializing the object
+     */
+    private static byte[] serialize(Object object) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try {
+            ObjectOutputStream oos = new ObjectOutputStream(bos);
+            try {
+                oos.writeObject(object);
+            } finally {
+                oos.close();
+            }
+        } finally {
+            bos.close();
+        }
+        return bos.toByteArray();
+    }
+
+    /**
+     * Deserializes an object using Java serialization.
+     *
+     * @param bytes the array containing the serialized object
+     * @param offset the index of the first byte of the object
+     * @param length the length of the serialized object
+     *
+     * @return the object
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * deserializing the object
+     * @throws ClassNotFoundException exception thrown whenever the class of
+     * the object is not found
+     */
+    private static Object deserialize(byte[] bytes, int offset, int length) throws IOException, ClassNotFoundException {
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes, offset, length));
+        try {
+            return in.readObject();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Compresses bytes.
+     *
+     * @param bytes the array containing the bytes
+     * @param length the number of bytes to compress
+     *
+     * @return the compressed bytes
+     */
+    private static byte[] compress(byte[] bytes, int length) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(bytes, 0, length);
+            deflater.finish();
+            BlobOutput output = new BlobOutput(null, length / 2 + 16);
+            byte[] buffer = new byte[Math.min(Math.max(length, 64), 8192)];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                output.writeBytes(buffer, 0, n);
+            }
+            return output.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Decompresses bytes.
+     *
+     * @param bytes the array containing the compressed bytes
+     * @param offset the index of the first compressed byte
+     * @param length the number of compressed bytes
+     * @param uncompressedLength the number of bytes once decompressed
+     *
+     * @return the decompressed bytes
+     *
+     * @throws IOException exception thrown if the compressed bytes are
+     * corrupted
+     */
+    private static byte[] decompress(byte[] bytes, int offset, int length, int uncompressedLength) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(bytes, offset, length);
+            byte[] result = new byte[uncompressedLength];
+            int n = 0;
+            while (n < uncompressedLength) {
+                int read = inflater.inflate(result, n, uncompressedLength - n);
+                if (read == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IOException("Compressed blob truncated.");
+                }
+                n += read;
+            }
+            return result;
+        } catch (DataFormatException e) {
+            throw new IOException("Compressed blob corrupted: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * A codec registered for a class.
+     */
+    private static class Registration {
+
+        /**
+         * The identifier of the type in the blobs.
+         */
+        private final int typeId;
+        /**
+         * The class of the objects encoded.
+         */
+        private final Class<?> type;
+        /**
+         * The codec.
+         */
+        private final ObjectCodec<?> codec;
+
+        /**
+         * Constructor.
+         *
+         * @param typeId the identifier of the type in the blobs
+         * @param type the class of the objects encoded
+         * @param codec the codec
+         */
+        public Registration(int typeId, Class<?> type, ObjectCodec<?> codec) {
+            this.typeId = typeId;
+            this.type = type;
+            this.codec = codec;
+        }
+    }
+}
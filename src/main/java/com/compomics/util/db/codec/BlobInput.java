@@ -0,0 +1,248 @@
+package com.compomics.util.db.codec;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Reader of the bytes written by a BlobOutput.
+ *
+ * @author Marc Vaudel
+ */
+public final class BlobInput {
+
+    /**
+     * The blob codec used to read nested objects.
+     */
+    private final BlobCodec blobCodec;
+    /**
+     * The bytes to read.
+     */
+    private final byte[] bytes;
+    /**
+     * The index of the next byte to read.
+     */
+    private int position;
+    /**
+     * The index after the last byte to read.
+     */
+    private final int limit;
+
+    /**
+     * Constructor.
+     *
+     * @param blobCodec the blob codec used to read nested objects
+     * @param bytes the bytes to read
+     * @param offset the index of the first byte to read
+     * @param length the number of bytes to read
+     */
+    public BlobInput(BlobCodec blobCodec, byte[] bytes, int offset, int length) {
+        this.blobCodec = blobCodec;
+        this.bytes = bytes;
+        this.position = offset;
+        this.limit = offset + length;
+    }
+
+    /**
+     * Makes sure that the given number of bytes can be read.
+     *
+     * @param n the number of bytes to read
+     *
+     * @throws EOFException exception thrown if the end of the blob is reached
+     */
+    private void require(int n) throws EOFException {
+        if (n < 0 || position + n > limit) {
+            throw new EOFException("Attempting to read " + n + " bytes after the end of the blob.");
+        }
+    }
+
+    /**
+     * Returns the number of bytes left to read.
+     *
+     * @return the number of bytes left to read
+     */
+    public int remaining() {
+        return limit - position;
+    }
+
+    /**
+     * Reads a byte.
+     *
+     * @return the byte read, between 0 and 255
+     *
+     * @throws EOFException exception thrown if the end of the blob is reached
+     */
+    public int readByte() throws EOFException {
+        require(1);
+        return bytes[position++] & 0xFF;
+    }
+
+    /**
+     * Reads bytes.
+     *
+     * @param length the number of bytes to read
+     *
+     * @return the bytes read
+     *
+     * @throws EOFException exception thrown if the end of the blob is reached
+     */
+    public byte[] readBytes(int length) throws EOFException {
+        require(length);
+        byte[] result = new byte[length];
+        System.arraycopy(bytes, position, result, 0, length);
+        position += length;
+        return result;
+    }
+
+    /**
+     * Reads a boolean.
+     *
+     * @return the boolean read
+     *
+     * @throws EOFException exception thrown if the end of the blob is reached
+     */
+    public boolean readBoolean() throws EOFException {
+        return readByte() != 0;
+    }
+
+    /**
+     * Reads an integer written on four bytes.
+     *
+     * @return the integer read
+     *
+     * @throws EOFException exception thrown if the end of the blob is reached
+     */
+    public int readInt() throws EOFException {
+        require(4);
+        int result = (bytes[position] & 0xFF) << 24
+                | (bytes[position + 1] & 0xFF) << 16
+                | (bytes[position + 2] & 0xFF) << 8
+                | (bytes[position + 3] & 0xFF);
+        position += 4;
+        return result;
+    }
+
+    /**
+     * Reads a long written on eight bytes.
+     *
+     * @return the long read
+     *
+     * @throws EOFException exception thrown if the end of the blob is reached
+     */
+    public long readLong() throws EOFException {
+        long high = readInt();
+        long low = readInt() & 0xFFFFFFFFL;
+        return (high << 32) | low;
+    }
+
+    /**
+     * Reads a double written on eight bytes.
+     *
+     * @return the double read
+     *
+     * @throws EOFException exception thrown if the end of the blob is reached
+     */
+    public double readDouble() throws EOFException {
+        return Double.longBitsToDouble(readLong());
+    }
+
+    /**
+     * Reads a double which can be null.
+     *
+     * @return the double read
+     *
+     * @throws EOFException exception thrown if the end of the blob is reached
+     */
+    public Double readNullableDouble() throws EOFException {
+        if (readBoolean()) {
+            return readDouble();
+        }
+        return null;
+    }
+
+    /**
+     * Reads a positive integer written on one to five bytes.
+     *
+     * @return the integer read
+     *
+     * @throws IOException exception thrown if the end of the blob is reached
+     * or if the integer is malformed
+     */
+    public int readVarInt() throws IOException {
+        int result = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = readByte();
+            result |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("Malformed variable length integer.");
+    }
+
+    /**
+     * Reads an integer written using writeSignedVarInt.
+     *
+     * @return the integer read
+     *
+     * @throws IOException exception thrown if the end of the blob is reached
+     * or if the integer is malformed
+     */
+    public int readSignedVarInt() throws IOException {
+        int value = readVarInt();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Reads a string which can be null.
+     *
+     * @return the string read
+     *
+     * @throws IOException exception thrown if the end of the blob is reached
+     * or if the length is malformed
+     */
+    public String readString() throws IOException {
+        int length = readVarInt() - 1;
+        if (length == -1) {
+            return null;
+        }
+        require(length);
+        String result = new String(bytes, position, length, BlobOutput.UTF_8);
+        position += length;
+        return result;
+    }
+
+    /**
+     * Reads a list of strings which can be null.
+     *
+     * @return the strings read
+     *
+     * @throws IOException exception thrown if the end of the blob is reached
+     * or if a length is malformed
+     */
+    public ArrayList<String> readStrings() throws IOException {
+        int size = readVarInt() - 1;
+        if (size == -1) {
+            return null;
+        }
+        ArrayList<String> result = new ArrayList<String>(size);
+        for (int i = 0; i < size; i++) {
+            result.add(readString());
+        }
+        return result;
+    }
+
+    /**
+     * Reads an object written using BlobOutput.writeObject.
+     *
+     * @return the object read
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the object
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing an object encoded using Java serialization
+     */
+    public Object readObject() throws IOException, ClassNotFoundException {
+        return blobCodec.readObject(this);
+    }
+}
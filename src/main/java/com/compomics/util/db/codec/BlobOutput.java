@@ -0,0 +1,225 @@
+package com.compomics.util.db.codec;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Growable byte buffer used by the codecs to write objects.
+ *
+ * @author Marc Vaudel
+ */
+public final class BlobOutput {
+
+    /**
+     * The encoding used for strings.
+     */
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+    /**
+     * The blob codec used to write nested objects.
+     */
+    private final BlobCodec blobCodec;
+    /**
+     * The buffer.
+     */
+    private byte[] buffer;
+    /**
+     * The number of bytes written.
+     */
+    private int size = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param blobCodec the blob codec used to write nested objects
+     * @param initialCapacity the initial capacity of the buffer
+     */
+    public BlobOutput(BlobCodec blobCodec, int initialCapacity) {
+        this.blobCodec = blobCodec;
+        this.buffer = new byte[Math.max(initialCapacity, 16)];
+    }
+
+    /**
+     * Makes sure that the given number of bytes can be written.
+     *
+     * @param n the number of bytes to write
+     */
+    private void ensureCapacity(int n) {
+        if (size + n > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(2 * buffer.length, size + n));
+        }
+    }
+
+    /**
+     * Returns the number of bytes written.
+     *
+     * @return the number of bytes written
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the buffer. Only the first size() bytes are written.
+     *
+     * @return the buffer
+     */
+    byte[] getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Returns a copy of the bytes written.
+     *
+     * @return a copy of the bytes written
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, size);
+    }
+
+    /**
+     * Writes a byte.
+     *
+     * @param value the byte to write, only the lowest eight bits are written
+     */
+    public void writeByte(int value) {
+        ensureCapacity(1);
+        buffer[size++] = (byte) value;
+    }
+
+    /**
+     * Writes bytes.
+     *
+     * @param bytes the array containing the bytes
+     * @param offset the index of the first byte to write
+     * @param length the number of bytes to write
+     */
+    public void writeBytes(byte[] bytes, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(bytes, offset, buffer, size, length);
+        size += length;
+    }
+
+    /**
+     * Writes a boolean.
+     *
+     * @param value the boolean to write
+     */
+    public void writeBoolean(boolean value) {
+        writeByte(value ? 1 : 0);
+    }
+
+    /**
+     * Writes an integer on four bytes.
+     *
+     * @param value the integer to write
+     */
+    public void writeInt(int value) {
+        ensureCapacity(4);
+        buffer[size++] = (byte) (value >>> 24);
+        buffer[size++] = (byte) (value >>> 16);
+        buffer[size++] = (byte) (value >>> 8);
+        buffer[size++] = (byte) value;
+    }
+
+    /**
+     * Writes a long on eight bytes.
+     *
+     * @param value the long to write
+     */
+    public void writeLong(long value) {
+        writeInt((int) (value >>> 32));
+        writeInt((int) value);
+    }
+
+    /**
+     * Writes a double on eight bytes.
+     *
+     * @param value the double to write
+     */
+    public void writeDouble(double value) {
+        writeLong(Double.doubleToRawLongBits(value));
+    }
+
+    /**
+     * Writes a double which can be null.
+     *
+     * @param value the double to write
+     */
+    public void writeNullableDouble(Double value) {
+        writeBoolean(value != null);
+        if (value != null) {
+            writeDouble(value);
+        }
+    }
+
+    /**
+     * Writes a positive integer on one to five bytes, small values taking
+     * less space.
+     *
+     * @param value the integer to write, considered as unsigned
+     */
+    public void writeVarInt(int value) {
+        ensureCapacity(5);
+        while ((value & ~0x7F) != 0) {
+            buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[size++] = (byte) value;
+    }
+
+    /**
+     * Writes an integer on one to five bytes, values close to zero taking
+     * less space.
+     *
+     * @param value the integer to write
+     */
+    public void writeSignedVarInt(int value) {
+        writeVarInt((value << 1) ^ (value >> 31));
+    }
+
+    /**
+     * Writes a string which can be null.
+     *
+     * @param value the string to write
+     */
+    public void writeString(String value) {
+        if (value == null) {
+            writeVarInt(0);
+        } else {
+            byte[] bytes = value.getBytes(UTF_8);
+            writeVarInt(bytes.length + 1);
+            writeBytes(bytes, 0, bytes.length);
+        }
+    }
+
+    /**
+     * Writes a collection of strings which can be null.
+     *
+     * @param values the strings to write
+     */
+    public void writeStrings(Collection<String> values) {
+        if (values == null) {
+            writeVarInt(0);
+        } else {
+            writeVarInt(values.size() + 1);
+            for (String value : values) {
+                writeString(value);
+            }
+        }
+    }
+
+    /**
+     * Writes an object which can be null using the codec registered for its
+     * class, or Java serialization if none.
+     *
+     * @param object the object to write
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the object
+     */
+    public void writeObject(Object object) throws IOException {
+        blobCodec.writeObject(object, this);
+    }
+}
@@ -0,0 +1,49 @@
+package com.compomics.util.db.codec;
+
+import java.io.IOException;
+
+/**
+ * Encodes objects of a given class in a compact binary form. The version of
+ * the codec used to write an object is stored with the object and given back
+ * when reading, allowing codecs to evolve while remaining able to read older
+ * blobs.
+ *
+ * @param <T> the class of the objects encoded
+ *
+ * @author Marc Vaudel
+ */
+public interface ObjectCodec<T> {
+
+    /**
+     * Returns the version of the encoding written by this codec.
+     *
+     * @return the version of the encoding
+     */
+    public int getVersion();
+
+    /**
+     * Writes the given object.
+     *
+     * @param object the object to write
+     * @param output the output where to write the object
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the object
+     */
+    public void write(T object, BlobOutput output) throws IOException;
+
+    /**
+     * Reads an object.
+     *
+     * @param input the input where to read the object from
+     * @param version the version of the encoding used to write the object
+     *
+     * @return the object
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the object
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing an object encoded using Java serialization
+     */
+    public T read(BlobInput input, int version) throws IOException, ClassNotFoundException;
+}
@@ -0,0 +1,146 @@
+package com.compomics.util.db.store;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+/**
+ * Storage of blobs indexed by table and key, used as backend of the objects
+ * database. Implementations must allow concurrent calls.
+ *
+ * @author Marc Vaudel
+ */
+public interface BlobStore {
+
+    /**
+     * Adds a table. Nothing happens if the table already exists.
+     *
+     * @param tableName the name of the table
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing to the store
+     */
+    public void addTable(String tableName) throws IOException;
+
+    /**
+     * Indicates whether the store contains the given table.
+     *
+     * @param tableName the name of the table
+     *
+     * @return a boolean indicating whether the store contains the given table
+     */
+    public boolean hasTable(String tableName);
+
+    /**
+     * Returns the names of the tables of the store.
+     *
+     * @return the names of the tables of the store
+     */
+    public ArrayList<String> getTables();
+
+    /**
+     * Stores a blob, replacing the blob previously stored under the same key
+     * if any.
+     *
+     * @param tableName the name of the table
+     * @param key the key of the blob
+     * @param blob the blob
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing to the store
+     */
+    public void put(String tableName, String key, byte[] blob) throws IOException;
+
+    /**
+     * Stores blobs in a single batch, replacing the blobs previously stored
+     * under the same keys if any.
+     *
+     * @param tableName the name of the table
+     * @param blobs the blobs indexed by key
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing to the store
+     */
+    public void putAll(String tableName, Map<String, byte[]> blobs) throws IOException;
+
+    /**
+     * Returns the blob stored under the given key, null if none.
+     *
+     * @param tableName the name of the table
+     * @param key the key of the blob
+     *
+     * @return the blob
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the store
+     */
+    public byte[] get(String tableName, String key) throws IOException;
+
+    /**
+     * Returns the blobs stored under the given keys. Keys not found are
+     * ignored.
+     *
+     * @param tableName the name of the table
+     * @param keys the keys of the blobs, null for the entire table
+     *
+     * @return the blobs indexed by key
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the store
+     */
+    public HashMap<String, byte[]> getAll(String tableName, Collection<String> keys) throws IOException;
+
+    /**
+     * Returns the keys of the blobs stored in a table in the order in which
+     * the blobs are located in the store, allowing them to be read one by one
+     * sequentially. Keys not found are ignored.
+     *
+     * @param tableName the name of the table
+     * @param keys the keys of the blobs, null for the entire table
+     *
+     * @return the keys in the order of the store
+     */
+    public ArrayList<String> getKeysInStoreOrder(String tableName, Collection<String> keys);
+
+    /**
+     * Indicates whether a blob is stored under the given key.
+     *
+     * @param tableName the name of the table
+     * @param key the key of the blob
+     *
+     * @return a boolean indicating whether a blob is stored under the given
+     * key
+     */
+    public boolean contains(String tableName, String key);
+
+    /**
+     * Returns the keys of a table.
+     *
+     * @param tableName the name of the table
+     *
+     * @return the keys of the table
+     */
+    public HashSet<String> getKeys(String tableName);
+
+    /**
+     * Deletes the blob stored under the given key if any.
+     *
+     * @param tableName the name of the table
+     * @param key the key of the blob
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing to the store
+     */
+    public void delete(String tableName, String key) throws IOException;
+
+    /**
+     * Writes pending changes to disk and closes the store.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing to the store
+     */
+    public void close() throws IOException;
+}
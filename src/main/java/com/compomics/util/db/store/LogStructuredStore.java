@@ -0,0 +1,1001 @@
+package com.compomics.util.db.store;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * Embedded blob store writing all changes at the end of a log file. The
+ * location of the blobs is indexed in memory and rebuilt by scanning the log
+ * when the store is opened. Writes are appended by a single thread at a time
+ * while readers access the log concurrently, the completed segments of the
+ * log are memory mapped. Records left incomplete by a crash are discarded
+ * when opening. The space taken by replaced and deleted blobs is reclaimed
+ * by rewriting the live blobs in a new log, done automatically when closing
+ * if more than half of the log is obsolete. The new log is written to a
+ * temporary file which replaces the old log only once complete.
+ *
+ * @author Marc Vaudel
+ */
+public class LogStructuredStore implements BlobStore {
+
+    /**
+     * The magic number at the start of the log.
+     */
+    private static final int MAGIC = 0x434C4F47;
+    /**
+     * The version of the log format.
+     */
+    private static final int VERSION = 1;
+    /**
+     * The size of the header of the log.
+     */
+    private static final int HEADER_SIZE = 8;
+    /**
+     * Record storing a blob.
+     */
+    private static final byte PUT = 1;
+    /**
+     * Record deleting a blob.
+     */
+    private static final byte DELETE = 2;
+    /**
+     * Record creating a table.
+     */
+    private static final byte TABLE = 3;
+    /**
+     * The size of the mapped segments of the log.
+     */
+    private static final long SEGMENT_SIZE = 1L << 26;
+    /**
+     * The minimal size of a log to be compacted automatically.
+     */
+    private static final long MIN_COMPACTION_SIZE = 1L << 20;
+    /**
+     * The prefix of the log files.
+     */
+    private static final String LOG_PREFIX = "store.";
+    /**
+     * The suffix of the log files.
+     */
+    private static final String LOG_SUFFIX = ".log";
+    /**
+     * The suffix of the log files being written by a compaction.
+     */
+    private static final String TEMP_SUFFIX = ".tmp";
+    /**
+     * The encoding of keys and table names.
+     */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    /**
+     * The folder of the store.
+     */
+    private final File folder;
+    /**
+     * The generation of the current log, incremented at every compaction.
+     */
+    private int generation;
+    /**
+     * The current log file.
+     */
+    private RandomAccessFile logFile;
+    /**
+     * The channel of the current log file.
+     */
+    private FileChannel channel;
+    /**
+     * The length of the data written in the log.
+     */
+    private volatile long logLength;
+    /**
+     * The number of bytes of the log taken by replaced or deleted records.
+     */
+    private long obsoleteLength = 0;
+    /**
+     * The mapped segments of the log, null if not mapped yet.
+     */
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+    /**
+     * The tables indexed by name.
+     */
+    private final ConcurrentHashMap<String, Table> tables = new ConcurrentHashMap<String, Table>();
+    /**
+     * Mutex for the appending of records.
+     */
+    private final Object appendMutex = new Object();
+    /**
+     * Lock shared by readers and writers, exclusive for the compaction and
+     * closing of the store.
+     */
+    private final ReentrantReadWriteLock storeLock = new ReentrantReadWriteLock();
+    /**
+     * Boolean indicating whether the store is closed.
+     */
+    private boolean closed = false;
+
+    /**
+     * Opens the store in the given folder, creating it if needed.
+     *
+     * @param folder the folder of the store
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the log
+     */
+    public LogStructuredStore(File folder) throws IOException {
+        this.folder = folder;
+        if (!folder.exists() && !folder.mkdirs()) {
+            throw new IOException("Impossible to create the folder " + folder.getAbsolutePath() + ".");
+        }
+
+        generation = -1;
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Integer fileGeneration = getGeneration(file);
+                if (fileGeneration != null && fileGeneration > generation) {
+                    generation = fileGeneration;
+                } else if (isCompactionFile(file)) {
+                    // left by a compaction interrupted before completion
+                    file.delete();
+                }
+            }
+        }
+
+        if (generation == -1) {
+            generation = 0;
+            openLog(getLogFile(generation), true);
+        } else {
+            openLog(getLogFile(generation), false);
+            replay();
+        }
+        deleteOldLogs();
+    }
+
+    /**
+     * Returns the generation of a log file, null if the file is not a log.
+     *
+     * @param file the file
+     *
+     * @return the generation of the log file
+     */
+    private static Integer getGeneration(File file) {
+        String name = file.getName();
+        if (name.startsWith(LOG_PREFIX) && name.endsWith(LOG_SUFFIX)) {
+            try {
+                return Integer.valueOf(name.substring(LOG_PREFIX.length(), name.length() - LOG_SUFFIX.length()));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Indicates whether a file is a log being written by a compaction.
+     *
+     * @param file the file
+     *
+     * @return a boolean indicating whether the file is a log being written by
+     * a compaction
+     */
+    private static boolean isCompactionFile(File file) {
+        String name = file.getName();
+        return name.startsWith(LOG_PREFIX) && name.endsWith(LOG_SUFFIX + TEMP_SUFFIX);
+    }
+
+    /**
+     * Returns the file where the log of the given generation is written
+     * during compaction.
+     *
+     * @param logGeneration the generation
+     *
+     * @return the temporary log file
+     */
+    private File getCompactionFile(int logGeneration) {
+        return new File(folder, LOG_PREFIX + logGeneration + LOG_SUFFIX + TEMP_SUFFIX);
+    }
+
+    /**
+     * Returns the log file of the given generation.
+     *
+     * @param logGeneration the generation
+     *
+     * @return the log file
+     */
+    private File getLogFile(int logGeneration) {
+        return new File(folder, LOG_PREFIX + logGeneration + LOG_SUFFIX);
+    }
+
+    /**
+     * Deletes the logs of previous generations.
+     */
+    private void deleteOldLogs() {
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Integer fileGeneration = getGeneration(file);
+                if (fileGeneration != null && fileGeneration < generation) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Opens a log file. The current log is replaced only if the new one could
+     * be opened, otherwise the new file is closed and the current log is left
+     * unchanged.
+     *
+     * @param file the log file
+     * @param create if true, a new log is written
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * opening the log
+     */
+    private void openLog(File file, boolean create) throws IOException {
+        RandomAccessFile newLogFile = new RandomAccessFile(file, "rw");
+        FileChannel newChannel = newLogFile.getChannel();
+        long newLength;
+        try {
+            if (create) {
+                newChannel.truncate(0);
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC).putInt(VERSION).flip();
+                long position = 0;
+                while (header.hasRemaining()) {
+                    position += newChannel.write(header, position);
+                }
+                newLength = HEADER_SIZE;
+            } else {
+                newLength = newChannel.size();
+            }
+        } catch (IOException e) {
+            newLogFile.close();
+            throw e;
+        }
+        logFile = newLogFile;
+        channel = newChannel;
+        segments = new MappedByteBuffer[0];
+        logLength = newLength;
+    }
+
+    /**
+     * Rebuilds the index by reading the log, discards incomplete records at
+     * the end of the log.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the log
+     */
+    private void replay() throws IOException {
+
+        HashMap<Integer, Table> tablesById = new HashMap<Integer, Table>();
+        long validLength = HEADER_SIZE;
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(getLogFile(generation)), 1 << 16));
+
+        try {
+            if (logLength < HEADER_SIZE || input.readInt() != MAGIC) {
+                throw new IOException(getLogFile(generation).getAbsolutePath() + " is not a blob store log.");
+            }
+            int version = input.readInt();
+            if (version > VERSION) {
+                throw new IOException("Blob store log version " + version + " not supported.");
+            }
+
+            CRC32 crc = new CRC32();
+            byte[] body = new byte[1024];
+            while (validLength + 4 <= logLength) {
+
+                int bodyLength = input.readInt();
+                if (bodyLength < 17 || validLength + 4 + bodyLength > logLength) {
+                    break;
+                }
+                if (body.length < bodyLength) {
+                    body = new byte[bodyLength];
+                }
+                input.readFully(body, 0, bodyLength);
+                crc.reset();
+                crc.update(body, 0, bodyLength - 4);
+                ByteBuffer record = ByteBuffer.wrap(body, 0, bodyLength);
+                if ((int) crc.getValue() != record.getInt(bodyLength - 4)) {
+                    break;
+                }
+
+                byte type = record.get();
+                int tableId = record.getInt();
+                int keyLength = record.getInt();
+                String key = new String(body, record.position(), keyLength, UTF_8);
+                record.position(record.position() + keyLength);
+                record.getInt();
+                long blobOffset = validLength + 4 + record.position();
+
+                if (type == TABLE) {
+                    Table table = new Table(tableId);
+                    tables.put(key, table);
+                    tablesById.put(tableId, table);
+                } else {
+                    Table table = tablesById.get(tableId);
+                    if (table == null) {
+                        throw new IOException("Unknown table " + tableId + " in blob store log.");
+                    }
+                    Long previous = type == PUT ? table.index.put(key, blobOffset) : table.index.remove(key);
+                    if (previous != null) {
+                        obsoleteLength += getRecordLength(key, readInt(previous - 4));
+                    }
+                    if (type == DELETE) {
+                        obsoleteLength += 4 + bodyLength;
+                    }
+                }
+                validLength += 4 + bodyLength;
+            }
+        } catch (EOFException e) {
+            // incomplete record at the end of the log
+        } finally {
+            input.close();
+        }
+
+        if (validLength < logLength) {
+            channel.truncate(validLength);
+            logLength = validLength;
+        }
+    }
+
+    /**
+     * Returns the length of a put record.
+     *
+     * @param key the key of the blob
+     * @param blobLength the length of the blob
+     *
+     * @return the length of the record
+     */
+    private static long getRecordLength(String key, int blobLength) {
+        return 4 + 1 + 4 + 4 + key.getBytes(UTF_8).length + 4 + blobLength + 4;
+    }
+
+    /**
+     * Writes a record in the given stream.
+     *
+     * @param output the stream
+     * @param type the type of record
+     * @param tableId the id of the table
+     * @param key the key
+     * @param blob the blob, can be null
+     * @param crc the checksum calculator
+     *
+     * @return the offset of the blob relative to the start of the record
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the record
+     */
+    private static int writeRecord(ByteArrayOutputStream output, byte type, int tableId, String key, byte[] blob, CRC32 crc) throws IOException {
+        byte[] keyBytes = key.getBytes(UTF_8);
+        int blobLength = blob == null ? 0 : blob.length;
+        int bodyLength = 1 + 4 + 4 + keyBytes.length + 4 + blobLength + 4;
+        ByteBuffer header = ByteBuffer.allocate(4 + 1 + 4 + 4);
+        header.putInt(bodyLength).put(type).putInt(tableId).putInt(keyBytes.length);
+        ByteBuffer blobHeader = ByteBuffer.allocate(4);
+        blobHeader.putInt(blobLength);
+
+        crc.reset();
+        crc.update(header.array(), 4, header.capacity() - 4);
+        crc.update(keyBytes);
+        crc.update(blobHeader.array());
+        if (blob != null) {
+            crc.update(blob);
+        }
+        ByteBuffer checksum = ByteBuffer.allocate(4);
+        checksum.putInt((int) crc.getValue());
+
+        DataOutputStream dataOutput = new DataOutputStream(output);
+        dataOutput.write(header.array());
+        dataOutput.write(keyBytes);
+        dataOutput.write(blobHeader.array());
+        if (blob != null) {
+            dataOutput.write(blob);
+        }
+        dataOutput.write(checksum.array());
+        return header.capacity() + keyBytes.length + 4;
+    }
+
+    /**
+     * Writes a buffer at the given position of the log.
+     *
+     * @param buffer the buffer
+     * @param position the position in the log
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the log
+     */
+    private void write(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * Makes sure that the store is open. Must be called while holding the
+     * store lock.
+     */
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("The blob store in " + folder.getAbsolutePath() + " is closed.");
+        }
+    }
+
+    @Override
+    public void addTable(String tableName) throws IOException {
+        storeLock.readLock().lock();
+        try {
+            checkOpen();
+            synchronized (appendMutex) {
+                if (!tables.containsKey(tableName)) {
+                    Table table = new Table(tables.size());
+                    ByteArrayOutputStream output = new ByteArrayOutputStream();
+                    writeRecord(output, TABLE, table.id, tableName, null, new CRC32());
+                    append(output);
+                    tables.put(tableName, table);
+                }
+            }
+        } finally {
+            storeLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean hasTable(String tableName) {
+        storeLock.readLock().lock();
+        try {
+            return tables.containsKey(tableName);
+        } finally {
+            storeLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public ArrayList<String> getTables() {
+        storeLock.readLock().lock();
+        try {
+            return new ArrayList<String>(tables.keySet());
+        } finally {
+            storeLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the table of the given name.
+     *
+     * @param tableName the name of the table
+     *
+     * @return the table
+     */
+    private Table getTable(String tableName) {
+        Table table = tables.get(tableName);
+        if (table == null) {
+            throw new IllegalArgumentException("Table " + tableName + " not found in the blob store.");
+        }
+        return table;
+    }
+
+    /**
+     * Appends the given bytes at the end of the log. Must be called while
+     * holding the append mutex.
+     *
+     * @param output the bytes to append
+     *
+     * @return the position of the bytes in the log
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the log
+     */
+    private long append(ByteArrayOutputStream output) throws IOException {
+        long start = logLength;
+        write(ByteBuffer.wrap(output.toByteArray()), start);
+        logLength = start + output.size();
+        return start;
+    }
+
+    @Override
+    public void put(String tableName, String key, byte[] blob) throws IOException {
+        HashMap<String, byte[]> blobs = new HashMap<String, byte[]>(1);
+        blobs.put(key, blob);
+        putAll(tableName, blobs);
+    }
+
+    @Override
+    public void putAll(String tableName, Map<String, byte[]> blobs) throws IOException {
+        storeLock.readLock().lock();
+        try {
+            checkOpen();
+            Table table = getTable(tableName);
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            CRC32 crc = new CRC32();
+            String[] keys = new String[blobs.size()];
+            long[] offsets = new long[blobs.size()];
+            int i = 0;
+            for (Map.Entry<String, byte[]> entry : blobs.entrySet()) {
+                long recordStart = output.size();
+                keys[i] = entry.getKey();
+                offsets[i] = recordStart + writeRecord(output, PUT, table.id, entry.getKey(), entry.getValue(), crc);
+                i++;
+            }
+            synchronized (appendMutex) {
+                long start = append(output);
+                for (i = 0; i < keys.length; i++) {
+                    Long previous = table.index.put(keys[i], start + offsets[i]);
+                    if (previous != null) {
+                        obsoleteLength += getRecordLength(keys[i], readInt(previous - 4));
+                    }
+                }
+            }
+        } finally {
+            storeLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void delete(String tableName, String key) throws IOException {
+        storeLock.readLock().lock();
+        try {
+            checkOpen();
+            Table table = getTable(tableName);
+            synchronized (appendMutex) {
+                Long previous = table.index.get(key);
+                if (previous != null) {
+                    ByteArrayOutputStream output = new ByteArrayOutputStream();
+                    writeRecord(output, DELETE, table.id, key, null, new CRC32());
+                    append(output);
+                    table.index.remove(key);
+                    obsoleteLength += getRecordLength(key, readInt(previous - 4)) + output.size();
+                }
+            }
+        } finally {
+            storeLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public byte[] get(String tableName, String key) throws IOException {
+        storeLock.readLock().lock();
+        try {
+            checkOpen();
+            Table table = tables.get(tableName);
+            if (table == null) {
+                return null;
+            }
+            Long offset = table.index.get(key);
+            if (offset == null) {
+                return null;
+            }
+            return readBlob(offset);
+        } finally {
+            storeLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public HashMap<String, byte[]> getAll(String tableName, Collection<String> keys) throws IOException {
+        storeLock.readLock().lock();
+        try {
+            checkOpen();
+            Table table = tables.get(tableName);
+            if (table == null) {
+                return new HashMap<String, byte[]>(0);
+            }
+
+            // read the blobs in the order of the log
+            HashMap<String, byte[]> result = new HashMap<String, byte[]>(keys == null ? table.index.size() : keys.size());
+            for (String key : getKeysInStoreOrder(table, keys)) {
+                Long offset = table.index.get(key);
+                if (offset != null) {
+                    result.put(key, readBlob(offset));
+                }
+            }
+            return result;
+        } finally {
+            storeLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public ArrayList<String> getKeysInStoreOrder(String tableName, Collection<String> keys) {
+        storeLock.readLock().lock();
+        try {
+            Table table = tables.get(tableName);
+            if (table == null) {
+                return new ArrayList<String>(0);
+            }
+            return getKeysInStoreOrder(table, keys);
+        } finally {
+            storeLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the keys found in a table sorted by offset in the log.
+     *
+     * @param table the table
+     * @param keys the keys, null for the entire table
+     *
+     * @return the keys sorted by offset in the log
+     */
+    private static ArrayList<String> getKeysInStoreOrder(Table table, Collection<String> keys) {
+        Collection<String> candidates = keys == null ? table.index.keySet() : keys;
+        HashMap<Long, String> keysAtOffsets = new HashMap<Long, String>(candidates.size());
+        for (String key : candidates) {
+            Long offset = table.index.get(key);
+            if (offset != null) {
+                keysAtOffsets.put(offset, key);
+            }
+        }
+        long[] offsets = new long[keysAtOffsets.size()];
+        int i = 0;
+        for (Long offset : keysAtOffsets.keySet()) {
+            offsets[i++] = offset;
+        }
+        Arrays.sort(offsets);
+        ArrayList<String> result = new ArrayList<String>(offsets.length);
+        for (long offset : offsets) {
+            result.add(keysAtOffsets.get(offset));
+        }
+        return result;
+    }
+
+    @Override
+    public boolean contains(String tableName, String key) {
+        storeLock.readLock().lock();
+        try {
+            Table table = tables.get(tableName);
+            return table != null && table.index.containsKey(key);
+        } finally {
+            storeLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public HashSet<String> getKeys(String tableName) {
+        storeLock.readLock().lock();
+        try {
+            Table table = tables.get(tableName);
+            if (table == null) {
+                return new HashSet<String>(0);
+            }
+            return new HashSet<String>(table.index.keySet());
+        } finally {
+            storeLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Reads the blob at the given offset.
+     *
+     * @param offset the offset of the blob in the log
+     *
+     * @return the blob
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the log
+     */
+    private byte[] readBlob(long offset) throws IOException {
+        byte[] blob = new byte[readInt(offset - 4)];
+        read(offset, blob);
+        return blob;
+    }
+
+    /**
+     * Reads an integer at the given offset.
+     *
+     * @param offset the offset in the log
+     *
+     * @return the integer
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the log
+     */
+    private int readInt(long offset) throws IOException {
+        byte[] bytes = new byte[4];
+        read(offset, bytes);
+        return ByteBuffer.wrap(bytes).getInt();
+    }
+
+    /**
+     * Reads bytes from the log. Bytes located in a complete segment are read
+     * from the mapped segment, the others from the file channel.
+     *
+     * @param offset the offset in the log
+     * @param destination the array where to copy the bytes
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the log
+     */
+    private void read(long offset, byte[] destination) throws IOException {
+        int segmentIndex = (int) (offset / SEGMENT_SIZE);
+        long segmentEnd = (segmentIndex + 1) * SEGMENT_SIZE;
+        if (offset + destination.length <= segmentEnd && segmentEnd <= logLength) {
+            ByteBuffer segment = getSegment(segmentIndex).duplicate();
+            segment.position((int) (offset - segmentIndex * SEGMENT_SIZE));
+            segment.get(destination);
+        } else {
+            ByteBuffer buffer = ByteBuffer.wrap(destination);
+            long position = offset;
+            while (buffer.hasRemaining()) {
+                int n = channel.read(buffer, position);
+                if (n < 0) {
+                    throw new EOFException("Attempting to read after the end of the blob store log.");
+                }
+                position += n;
+            }
+        }
+    }
+
+    /**
+     * Returns the mapped segment of the given index, maps it if needed. The
+     * segment must be complete.
+     *
+     * @param segmentIndex the index of the segment
+     *
+     * @return the mapped segment
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * mapping the log
+     */
+    private MappedByteBuffer getSegment(int segmentIndex) throws IOException {
+        MappedByteBuffer[] currentSegments = segments;
+        if (segmentIndex < currentSegments.length && currentSegments[segmentIndex] != null) {
+            return currentSegments[segmentIndex];
+        }
+        synchronized (this) {
+            currentSegments = segments;
+            if (segmentIndex >= currentSegments.length) {
+                currentSegments = Arrays.copyOf(currentSegments, segmentIndex + 1);
+            }
+            if (currentSegments[segmentIndex] == null) {
+                currentSegments[segmentIndex] = channel.map(FileChannel.MapMode.READ_ONLY, segmentIndex * SEGMENT_SIZE, SEGMENT_SIZE);
+            }
+            segments = currentSegments;
+            return currentSegments[segmentIndex];
+        }
+    }
+
+    /**
+     * Rewrites the live blobs in a new log and deletes the old one.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing the log
+     */
+    public void compact() throws IOException {
+        storeLock.writeLock().lock();
+        try {
+            checkOpen();
+            compactLog();
+        } finally {
+            storeLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Rewrites the live blobs in a new log and deletes the old one. The new
+     * log is written to a temporary file, forced to disk and renamed, the old
+     * log is deleted only afterwards. Must be called while holding the store
+     * write lock.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing the log
+     */
+    private void compactLog() throws IOException {
+
+        RandomAccessFile oldLogFile = logFile;
+        FileChannel oldChannel = channel;
+        MappedByteBuffer[] oldSegments = segments;
+        long oldLength = logLength;
+
+        // the old log is read through the old channel until the new one is complete
+        HashMap<String, Table> newTables = new HashMap<String, Table>(tables.size());
+        ArrayList<Map.Entry<String, Table>> tableEntries = new ArrayList<Map.Entry<String, Table>>(tables.entrySet());
+
+        File compactionFile = getCompactionFile(generation + 1);
+        File newLogFile = getLogFile(generation + 1);
+        CRC32 crc = new CRC32();
+
+        try {
+            openLog(compactionFile, true);
+            for (Map.Entry<String, Table> tableEntry : tableEntries) {
+                Table newTable = new Table(newTables.size());
+                ByteArrayOutputStream output = new ByteArrayOutputStream();
+                writeRecord(output, TABLE, newTable.id, tableEntry.getKey(), null, crc);
+                append(output);
+                newTables.put(tableEntry.getKey(), newTable);
+            }
+            for (Map.Entry<String, Table> tableEntry : tableEntries) {
+                Table newTable = newTables.get(tableEntry.getKey());
+                ByteArrayOutputStream output = new ByteArrayOutputStream();
+                ArrayList<String> keys = new ArrayList<String>();
+                ArrayList<Long> offsets = new ArrayList<Long>();
+                for (Map.Entry<String, Long> entry : tableEntry.getValue().index.entrySet()) {
+                    byte[] blob = readOld(oldChannel, entry.getValue());
+                    long recordStart = output.size();
+                    keys.add(entry.getKey());
+                    offsets.add(recordStart + writeRecord(output, PUT, newTable.id, entry.getKey(), blob, crc));
+                    if (output.size() > SEGMENT_SIZE / 4) {
+                        flushCompacted(output, newTable, keys, offsets);
+                    }
+                }
+                flushCompacted(output, newTable, keys, offsets);
+            }
+            channel.force(false);
+            channel.close();
+            logFile.close();
+            if (!compactionFile.renameTo(newLogFile)) {
+                throw new IOException("Could not move " + compactionFile.getAbsolutePath() + " to " + newLogFile.getAbsolutePath() + ".");
+            }
+            openLog(newLogFile, false);
+        } catch (IOException e) {
+            // restore the old log, the new one is deleted so that the old log is used when reopening the store
+            if (logFile != oldLogFile) {
+                try {
+                    logFile.close();
+                } catch (IOException closeException) {
+                    // ignore, the original exception is thrown
+                }
+            }
+            compactionFile.delete();
+            newLogFile.delete();
+            logFile = oldLogFile;
+            channel = oldChannel;
+            segments = oldSegments;
+            logLength = oldLength;
+            throw e;
+        }
+
+        generation++;
+        tables.clear();
+        tables.putAll(newTables);
+        obsoleteLength = 0;
+        oldChannel.close();
+        oldLogFile.close();
+        deleteOldLogs();
+    }
+
+    /**
+     * Appends the compacted records to the new log and indexes them.
+     *
+     * @param output the records
+     * @param table the table of the records
+     * @param keys the keys of the records
+     * @param offsets the offsets of the blobs in the records
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the log
+     */
+    private void flushCompacted(ByteArrayOutputStream output, Table table, ArrayList<String> keys, ArrayList<Long> offsets) throws IOException {
+        long start = append(output);
+        for (int i = 0; i < keys.size(); i++) {
+            table.index.put(keys.get(i), start + offsets.get(i));
+        }
+        output.reset();
+        keys.clear();
+        offsets.clear();
+    }
+
+    /**
+     * Reads a blob from the log being compacted.
+     *
+     * @param oldChannel the channel of the log being compacted
+     * @param offset the offset of the blob
+     *
+     * @return the blob
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the log
+     */
+    private static byte[] readOld(FileChannel oldChannel, long offset) throws IOException {
+        ByteBuffer length = ByteBuffer.allocate(4);
+        readFully(oldChannel, length, offset - 4);
+        length.flip();
+        ByteBuffer blob = ByteBuffer.allocate(length.getInt());
+        readFully(oldChannel, blob, offset);
+        return blob.array();
+    }
+
+    /**
+     * Fills a buffer from a channel.
+     *
+     * @param fileChannel the channel
+     * @param buffer the buffer
+     * @param position the position where to start reading
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the channel
+     */
+    private static void readFully(FileChannel fileChannel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = fileChannel.read(buffer, position);
+            if (n < 0) {
+                throw new EOFException("Attempting to read after the end of the blob store log.");
+            }
+            position += n;
+        }
+    }
+
+    /**
+     * Returns the length of the log in bytes.
+     *
+     * @return the length of the log in bytes
+     */
+    public long getLogLength() {
+        return logLength;
+    }
+
+    /**
+     * Returns the number of bytes of the log taken by replaced or deleted
+     * records.
+     *
+     * @return the number of obsolete bytes
+     */
+    public long getObsoleteLength() {
+        synchronized (appendMutex) {
+            return obsoleteLength;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        storeLock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            if (logLength > MIN_COMPACTION_SIZE && 2 * obsoleteLength > logLength) {
+                compactLog();
+            }
+            channel.force(false);
+            channel.close();
+            logFile.close();
+            segments = new MappedByteBuffer[0];
+            closed = true;
+        } finally {
+            storeLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * A table of the store.
+     */
+    private static class Table {
+
+        /**
+         * The identifier of the table in the log.
+         */
+        private final int id;
+        /**
+         * The offset of the blobs in the log indexed by key.
+         */
+        private final ConcurrentHashMap<String, Long> index = new ConcurrentHashMap<String, Long>();
+
+        /**
+         * Constructor.
+         *
+         * @param id the identifier of the table in the log
+         */
+        public Table(int id) {
+            this.id = id;
+        }
+    }
+}
@@ -96,6 +96,10 @@ public abstract class Ion extends ExperimentObject {
      * The atomic composition of the ion.
      */
     protected AtomChain atomChain;
+    /**
+     * Indicates whether the ion is shared and cannot be modified anymore.
+     */
+    private transient boolean readOnly = false;
 
     /**
      * Returns the name of the ion. The name should be short enough to be
@@ -278,6 +282,7 @@ public abstract class Ion extends ExperimentObject {
      * @param atomChain the atomic composition
      */
     public void setAtomicComposition(AtomChain atomChain) {
+        checkWritable();
         this.atomChain = atomChain;
     }
 
@@ -287,9 +292,39 @@ public abstract class Ion extends ExperimentObject {
      * @param theoreticMass a new theoretic mass
      */
     public void setTheoreticMass(double theoreticMass) {
+        checkWritable();
         this.theoreticMass1 = theoreticMass;
     }
 
+    /**
+     * Marks the ion as shared, it cannot be modified afterwards. Copies of the
+     * ion are not affected.
+     */
+    public void setReadOnly() {
+        readOnly = true;
+    }
+
+    /**
+     * Indicates whether the ion is shared and cannot be modified.
+     *
+     * @return a boolean indicating whether the ion is shared and cannot be
+     * modified
+     */
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * Throws an exception if the ion cannot be modified.
+     *
+     * @throws UnsupportedOperationException if the ion cannot be modified
+     */
+    private void checkWritable() {
+        if (readOnly) {
+            throw new UnsupportedOperationException("The ion " + getName() + " is shared and cannot be modified, use a copy instead.");
+        }
+    }
+
     /**
      * Returns the ion type.
      *
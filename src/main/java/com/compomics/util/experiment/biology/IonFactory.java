@@ -1,5 +1,7 @@
 package com.compomics.util.experiment.biology;
 
+import com.compomics.util.experiment.biology.ions.FragmentIonCache;
+import com.compomics.util.experiment.biology.ions.FragmentIonLadder;
 import com.compomics.util.experiment.biology.ions.ImmoniumIon;
 import com.compomics.util.experiment.biology.ions.PeptideFragmentIon;
 import com.compomics.util.experiment.biology.ions.PrecursorIon;
@@ -37,6 +39,10 @@ public class IonFactory {
      * Cache for the possible combinations of neutral losses.
      */
     private HashMap<String, NeutralLossCombination[]> neutralLossesCombinationsCache = new HashMap<String, NeutralLossCombination[]>();
+    /**
+     * Cache for the fragment ion ladders of peptides.
+     */
+    private final FragmentIonCache fragmentIonCache = new FragmentIonCache();
     /**
      * Cache for the mass of NH3.
      */
@@ -171,6 +177,34 @@ public class IonFactory {
         return getFragmentIons(peptide, null);
     }
 
+    /**
+     * Returns the fragment ion ladder of a peptide from the cache of the
+     * factory, the ladder is computed upon first call. The peptide fragment and
+     * precursor ions of the ladder are shared and read only, use
+     * getFragmentIons to obtain ions which can be modified. The cache is
+     * emptied when the modifications of the PTMFactory change. /!\ this
+     * method will work only if the PMTs found in the peptide are in the
+     * PTMFactory.
+     *
+     * @param peptide The considered peptide
+     * @param specificAnnotationSettings if provided, only the ions detectable
+     * using these settings will be selected
+     *
+     * @return the fragment ion ladder of the peptide
+     */
+    public FragmentIonLadder getFragmentIonLadder(Peptide peptide, SpecificAnnotationSettings specificAnnotationSettings) {
+        return fragmentIonCache.getFragmentIonLadder(peptide, specificAnnotationSettings);
+    }
+
+    /**
+     * Returns the cache of the fragment ion ladders.
+     *
+     * @return the cache of the fragment ion ladders
+     */
+    public FragmentIonCache getFragmentIonCache() {
+        return fragmentIonCache;
+    }
+
     /**
      * This method returns the theoretic ions expected from a peptide. /!\ this
      * method will work only if the PMTs found in the peptide are in the
@@ -164,6 +164,7 @@ public class PTMFactory implements Serializable {
      */
     public void clearFactory() {
         instance = new PTMFactory();
+        clearCaches();
     }
 
     /**
@@ -171,6 +172,16 @@ public class PTMFactory implements Serializable {
      */
     public void reloadFactory() {
         instance = null;
+        clearCaches();
+    }
+
+    /**
+     * Empties the caches of objects computed from the modification
+     * definitions, to be called whenever a modification is added, removed or
+     * replaced.
+     */
+    private static void clearCaches() {
+        IonFactory.getInstance().getFragmentIonCache().clear();
     }
 
     /**
@@ -229,6 +240,7 @@ public class PTMFactory implements Serializable {
 
         String modName = ptm.getName();
         ptmMap.put(modName, ptm);
+        clearCaches();
         if (!userMods.contains(modName)) {
             userMods.add(modName);
         } else {
@@ -264,6 +276,7 @@ public class PTMFactory implements Serializable {
         }
         ptmMap.remove(ptmName);
         userMods.remove(ptmName);
+        clearCaches();
     }
 
     /**
@@ -377,6 +390,7 @@ public class PTMFactory implements Serializable {
                     if (overwrite) {
                         PTM ptm = modificationProfile.getPtm(modification);
                         ptmMap.put(modification, ptm);
+                        clearCaches();
                         for (NeutralLoss neutralLoss : ptm.getNeutralLosses()) {
                             NeutralLoss.addNeutralLoss(neutralLoss);
                         }
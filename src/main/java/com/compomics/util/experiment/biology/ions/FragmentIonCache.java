@@ -0,0 +1,240 @@
+package com.compomics.util.experiment.biology.ions;
+
+import com.compomics.util.experiment.biology.Ion;
+import com.compomics.util.experiment.biology.IonFactory;
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import com.compomics.util.experiment.identification.spectrum_annotation.SpecificAnnotationSettings;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of the fragment ion ladders of peptides indexed by peptide
+ * sequence, modifications and ion settings. When the cache is full, the
+ * oldest ladders are evicted first. This class is thread safe.
+ *
+ * @author Marc Vaudel
+ */
+public class FragmentIonCache {
+
+    /**
+     * The default number of ladders kept in cache.
+     */
+    public static final int DEFAULT_CAPACITY = 10000;
+    /**
+     * The maximal number of ladders kept in cache.
+     */
+    private volatile int capacity;
+    /**
+     * The ladders indexed by key.
+     */
+    private final ConcurrentHashMap<String, FragmentIonLadder> ladders = new ConcurrentHashMap<String, FragmentIonLadder>();
+    /**
+     * The keys of the ladders in order of addition.
+     */
+    private final ConcurrentLinkedQueue<String> keysQueue = new ConcurrentLinkedQueue<String>();
+    /**
+     * The number of ladders in cache.
+     */
+    private final AtomicInteger size = new AtomicInteger(0);
+    /**
+     * The number of ladders found in cache.
+     */
+    private final AtomicLong hits = new AtomicLong(0);
+    /**
+     * The number of ladders computed.
+     */
+    private final AtomicLong misses = new AtomicLong(0);
+
+    /**
+     * Constructor.
+     *
+     * @param capacity the maximal number of ladders kept in cache
+     */
+    public FragmentIonCache(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Constructor with default capacity.
+     */
+    public FragmentIonCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Returns the fragment ion ladder of the given peptide, from the cache if
+     * available. /!\ this method will work only if the PTMs found in the
+     * peptide are in the PTMFactory.
+     *
+     * @param peptide the peptide
+     * @param specificAnnotationSettings if provided, only the ions detectable
+     * using these settings will be selected
+     *
+     * @return the fragment ion ladder of the peptide
+     */
+    public FragmentIonLadder getFragmentIonLadder(Peptide peptide, SpecificAnnotationSettings specificAnnotationSettings) {
+
+        String key = getKey(peptide, specificAnnotationSettings);
+        FragmentIonLadder ladder = ladders.get(key);
+
+        if (ladder != null) {
+            hits.incrementAndGet();
+            return ladder;
+        }
+
+        misses.incrementAndGet();
+        ladder = new FragmentIonLadder(IonFactory.getInstance().getFragmentIons(peptide, specificAnnotationSettings));
+
+        if (capacity > 0) {
+            FragmentIonLadder previousLadder = ladders.putIfAbsent(key, ladder);
+            if (previousLadder != null) {
+                return previousLadder;
+            }
+            keysQueue.add(key);
+            if (size.incrementAndGet() > capacity) {
+                evict();
+            }
+        }
+
+        return ladder;
+    }
+
+    /**
+     * Removes the oldest ladders until the cache size is within capacity.
+     */
+    private void evict() {
+        while (size.get() > capacity) {
+            String oldestKey = keysQueue.poll();
+            if (oldestKey == null) {
+                return;
+            }
+            if (ladders.remove(oldestKey) != null) {
+                size.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Returns the key of the ladder of the given peptide with the given
+     * settings.
+     *
+     * @param peptide the peptide
+     * @param specificAnnotationSettings the annotation settings, can be null
+     *
+     * @return the key of the ladder
+     */
+    public static String getKey(Peptide peptide, SpecificAnnotationSettings specificAnnotationSettings) {
+
+        StringBuilder key = new StringBuilder(peptide.getSequence().length() + 32);
+        key.append(peptide.getSequence());
+
+        if (peptide.isModified()) {
+            ArrayList<String> modifications = new ArrayList<String>(peptide.getNModifications());
+            for (ModificationMatch modificationMatch : peptide.getModificationMatches()) {
+                modifications.add(modificationMatch.getModificationSite() + "@" + modificationMatch.getTheoreticPtm());
+            }
+            Collections.sort(modifications);
+            for (String modification : modifications) {
+                key.append('_').append(modification);
+            }
+        }
+
+        key.append('|');
+
+        if (specificAnnotationSettings == null) {
+            key.append("all");
+        } else {
+            for (Ion.IonType ionType : Ion.IonType.values()) {
+                if (specificAnnotationSettings.getIonTypes().containsKey(ionType)) {
+                    key.append(ionType.index).append(',');
+                }
+            }
+            key.append('|');
+            ArrayList<Integer> fragmentIonTypes = new ArrayList<Integer>(specificAnnotationSettings.getFragmentIonTypes());
+            Collections.sort(fragmentIonTypes);
+            for (Integer fragmentIonType : fragmentIonTypes) {
+                key.append(fragmentIonType).append(',');
+            }
+            key.append('|');
+            key.append(specificAnnotationSettings.getNeutralLossesMap().isEmpty() ? '0' : '1');
+        }
+
+        return key.toString();
+    }
+
+    /**
+     * Returns the maximal number of ladders kept in cache.
+     *
+     * @return the maximal number of ladders kept in cache
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Sets the maximal number of ladders kept in cache. Ladders are evicted if
+     * needed.
+     *
+     * @param capacity the maximal number of ladders kept in cache
+     */
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
+        evict();
+    }
+
+    /**
+     * Returns the number of ladders in cache.
+     *
+     * @return the number of ladders in cache
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Returns the number of ladders found in cache since the creation of the
+     * cache or the last reset of the counters.
+     *
+     * @return the number of ladders found in cache
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of ladders computed since the creation of the cache
+     * or the last reset of the counters.
+     *
+     * @return the number of ladders computed
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Resets the hit and miss counters.
+     */
+    public void resetCounters() {
+        hits.set(0);
+        misses.set(0);
+    }
+
+    /**
+     * Empties the cache. This method is called by the PTMFactory when the
+     * modifications change, it should also be called after modifying the
+     * definition of a PTM in place or of amino acids.
+     */
+    public void clear() {
+        String key;
+        while ((key = keysQueue.poll()) != null) {
+            if (ladders.remove(key) != null) {
+                size.decrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.compomics.util.experiment.biology.ions;
+
+import com.compomics.util.experiment.biology.Ion;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The theoretic fragment ions of a peptide with their masses in flat columns
+ * per ion type and subtype. The m/z columns are computed once per charge. The
+ * ladder can be shared between threads and annotators, the peptide fragment
+ * and precursor ions of the ladder are therefore read only and the lists
+ * returned cannot be modified. The immonium, related and reporter ions are the
+ * definitions shared by the ion factory.
+ *
+ * @author Marc Vaudel
+ */
+public class FragmentIonLadder {
+
+    /**
+     * The read only lists of ions indexed by type and subtype.
+     */
+    private final HashMap<Integer, HashMap<Integer, List<Ion>>> fragmentIons;
+    /**
+     * The theoretic masses of the ions indexed by type and subtype, in the
+     * order of the ions.
+     */
+    private final HashMap<Integer, HashMap<Integer, double[]>> masses;
+    /**
+     * The m/z columns computed so far indexed by type, subtype and charge.
+     */
+    private final ConcurrentHashMap<Long, double[]> mzColumns = new ConcurrentHashMap<Long, double[]>();
+
+    /**
+     * Constructor.
+     *
+     * @param fragmentIons the ions indexed by type and subtype as returned by
+     * the ion factory
+     */
+    public FragmentIonLadder(HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> fragmentIons) {
+        this.fragmentIons = new HashMap<Integer, HashMap<Integer, List<Ion>>>(fragmentIons.size());
+        masses = new HashMap<Integer, HashMap<Integer, double[]>>(fragmentIons.size());
+        for (Map.Entry<Integer, HashMap<Integer, ArrayList<Ion>>> typeEntry : fragmentIons.entrySet()) {
+            int ionType = typeEntry.getKey();
+            boolean peptideIons = ionType == Ion.IonType.PEPTIDE_FRAGMENT_ION.index || ionType == Ion.IonType.PRECURSOR_ION.index;
+            HashMap<Integer, List<Ion>> typeIons = new HashMap<Integer, List<Ion>>(typeEntry.getValue().size());
+            HashMap<Integer, double[]> typeMasses = new HashMap<Integer, double[]>(typeEntry.getValue().size());
+            for (Map.Entry<Integer, ArrayList<Ion>> subTypeEntry : typeEntry.getValue().entrySet()) {
+                ArrayList<Ion> ions = new ArrayList<Ion>(subTypeEntry.getValue());
+                double[] subTypeMasses = new double[ions.size()];
+                for (int i = 0; i < subTypeMasses.length; i++) {
+                    Ion ion = ions.get(i);
+                    if (peptideIons) {
+                        ion.setReadOnly();
+                    }
+                    subTypeMasses[i] = ion.getTheoreticMass();
+                }
+                typeIons.put(subTypeEntry.getKey(), Collections.unmodifiableList(ions));
+                typeMasses.put(subTypeEntry.getKey(), subTypeMasses);
+            }
+            this.fragmentIons.put(ionType, typeIons);
+            masses.put(ionType, typeMasses);
+        }
+    }
+
+    /**
+     * Returns a copy of the ions indexed by type and subtype. The maps and
+     * lists can be modified, the peptide fragment and precursor ions are read
+     * only.
+     *
+     * @return the ions indexed by type and subtype
+     */
+    public HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> getFragmentIons() {
+        HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> result = new HashMap<Integer, HashMap<Integer, ArrayList<Ion>>>(fragmentIons.size());
+        for (Map.Entry<Integer, HashMap<Integer, List<Ion>>> typeEntry : fragmentIons.entrySet()) {
+            HashMap<Integer, ArrayList<Ion>> typeIons = new HashMap<Integer, ArrayList<Ion>>(typeEntry.getValue().size());
+            for (Map.Entry<Integer, List<Ion>> subTypeEntry : typeEntry.getValue().entrySet()) {
+                typeIons.put(subTypeEntry.getKey(), new ArrayList<Ion>(subTypeEntry.getValue()));
+            }
+            result.put(typeEntry.getKey(), typeIons);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the ions of the given type and subtype, an empty list if none.
+     * The list is shared and cannot be modified, the peptide fragment and
+     * precursor ions are read only.
+     *
+     * @param ionType the index of the ion type
+     * @param subType the ion subtype
+     *
+     * @return the ions of the given type and subtype
+     */
+    public List<Ion> getIons(int ionType, int subType) {
+        HashMap<Integer, List<Ion>> typeIons = fragmentIons.get(ionType);
+        if (typeIons != null) {
+            List<Ion> ions = typeIons.get(subType);
+            if (ions != null) {
+                return ions;
+            }
+        }
+        return Collections.<Ion>emptyList();
+    }
+
+    /**
+     * Returns the theoretic masses of the ions of the given type and subtype
+     * in the order of getIons, an empty array if none. The array is shared and
+     * must not be modified.
+     *
+     * @param ionType the index of the ion type
+     * @param subType the ion subtype
+     *
+     * @return the theoretic masses of the ions
+     */
+    public double[] getMasses(int ionType, int subType) {
+        HashMap<Integer, double[]> typeMasses = masses.get(ionType);
+        if (typeMasses != null) {
+            double[] subTypeMasses = typeMasses.get(subType);
+            if (subTypeMasses != null) {
+                return subTypeMasses;
+            }
+        }
+        return new double[0];
+    }
+
+    /**
+     * Returns the theoretic m/z of the ions of the given type and subtype at
+     * the given charge in the order of getIons, an empty array if none. The
+     * array is shared and must not be modified.
+     *
+     * @param ionType the index of the ion type
+     * @param subType the ion subtype
+     * @param charge the charge
+     *
+     * @return the theoretic m/z of the ions
+     */
+    public double[] getMz(int ionType, int subType, int charge) {
+        Long key = (((long) ionType) << 48) | ((subType & 0xFFFFFFFFL) << 16) | (charge & 0xFFFFL);
+        double[] mzColumn = mzColumns.get(key);
+        if (mzColumn == null) {
+            double[] subTypeMasses = getMasses(ionType, subType);
+            double protonMass = ElementaryIon.proton.getTheoreticMass();
+            mzColumn = new double[subTypeMasses.length];
+            for (int i = 0; i < mzColumn.length; i++) {
+                double mz = subTypeMasses[i] + protonMass;
+                if (charge > 1) {
+                    mz = (mz + (charge - 1) * protonMass) / charge;
+                }
+                mzColumn[i] = mz;
+            }
+            mzColumns.putIfAbsent(key, mzColumn);
+        }
+        return mzColumn;
+    }
+
+    /**
+     * Returns the indexes of the ion types of the ladder.
+     *
+     * @return the indexes of the ion types of the ladder
+     */
+    public ArrayList<Integer> getIonTypes() {
+        ArrayList<Integer> ionTypes = new ArrayList<Integer>(fragmentIons.keySet());
+        Collections.sort(ionTypes);
+        return ionTypes;
+    }
+}
@@ -13,6 +13,10 @@ import com.compomics.util.experiment.identification.matches_iterators.PsmIterato
 import com.compomics.util.experiment.massspectrometry.Spectrum;
 import com.compomics.util.experiment.personalization.ExperimentObject;
 import com.compomics.util.experiment.personalization.UrParameter;
+import com.compomics.util.maps.IntHashSet;
+import com.compomics.util.maps.IntMultimap;
+import com.compomics.util.maps.KeyDictionary;
+import com.compomics.util.maps.KeySet;
 import com.compomics.util.preferences.SequenceMatchingPreferences;
 import com.compomics.util.waiting.WaitingHandler;
 import java.io.*;
@@ -22,6 +26,13 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * This class contains identification results.
@@ -35,21 +46,63 @@ public abstract class Identification extends ExperimentObject {
      */
     static final long serialVersionUID = -2551700699384242554L;
     /**
-     * List of the keys of all imported proteins.
+     * The number of spectrum matches mapped per batch when building the
+     * peptides and proteins.
      */
-    protected HashSet<String> proteinIdentification = new HashSet<String>();
+    private static final int BUILD_BATCH_SIZE = 1000;
     /**
-     * List of the keys of all imported peptides.
+     * List of the keys of all imported proteins. Only used to read projects
+     * saved with previous versions, see proteinMatchKeys.
      */
-    protected HashSet<String> peptideIdentification = new HashSet<String>();
+    private HashSet<String> proteinIdentification;
     /**
-     * List of all imported PSMs indexed by mgf file name.
+     * List of the keys of all imported peptides. Only used to read projects
+     * saved with previous versions, see peptideMatchKeys.
      */
-    protected HashMap<String, HashSet<String>> spectrumIdentificationMap = new HashMap<String, HashSet<String>>();
+    private HashSet<String> peptideIdentification;
     /**
-     * A map linking protein accessions to all their protein matches keys.
+     * List of all imported PSMs indexed by mgf file name. Only used to read
+     * projects saved with previous versions, see spectrumMatchKeys.
      */
-    protected HashMap<String, HashSet<String>> proteinMap = new HashMap<String, HashSet<String>>();
+    private HashMap<String, HashSet<String>> spectrumIdentificationMap;
+    /**
+     * A map linking protein accessions to all their protein matches keys. Only
+     * used to read projects saved with previous versions, see
+     * accessionToProteinMatchKeys.
+     */
+    private HashMap<String, HashSet<String>> proteinMap;
+    /**
+     * The dictionary of the spectrum keys. Keys are kept in the dictionary
+     * when the match is removed.
+     */
+    private KeyDictionary spectrumKeyDictionary;
+    /**
+     * The dictionary of the peptide keys. Keys are kept in the dictionary when
+     * the match is removed.
+     */
+    private KeyDictionary peptideKeyDictionary;
+    /**
+     * The dictionary of the protein keys and protein accessions. Keys are kept
+     * in the dictionary when the match is removed.
+     */
+    private KeyDictionary proteinKeyDictionary;
+    /**
+     * The keys of all imported proteins.
+     */
+    protected KeySet proteinMatchKeys;
+    /**
+     * The keys of all imported peptides.
+     */
+    protected KeySet peptideMatchKeys;
+    /**
+     * The keys of all imported PSMs indexed by mgf file name.
+     */
+    protected HashMap<String, KeySet> spectrumMatchKeys;
+    /**
+     * The ids of the protein matches keys indexed by the ids of the protein
+     * accessions in the protein key dictionary.
+     */
+    protected IntMultimap accessionToProteinMatchKeys;
     /**
      * The method used.
      */
@@ -71,6 +124,79 @@ public abstract class Identification extends ExperimentObject {
      */
     private ArrayList<String> orderedSpectrumFileNames;
 
+    /**
+     * Constructor.
+     */
+    public Identification() {
+        initializeKeys();
+    }
+
+    /**
+     * Creates empty dictionaries and key sets.
+     */
+    private void initializeKeys() {
+        spectrumKeyDictionary = new KeyDictionary();
+        peptideKeyDictionary = new KeyDictionary();
+        proteinKeyDictionary = new KeyDictionary();
+        proteinMatchKeys = new KeySet(proteinKeyDictionary, 1024);
+        peptideMatchKeys = new KeySet(peptideKeyDictionary, 1024);
+        spectrumMatchKeys = new HashMap<String, KeySet>();
+        accessionToProteinMatchKeys = new IntMultimap();
+    }
+
+    /**
+     * Reads the identification and converts the keys of projects saved with
+     * previous versions.
+     *
+     * @param in the input stream
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the object
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while casting the object
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (proteinMatchKeys == null) {
+            initializeKeys();
+            if (proteinIdentification != null) {
+                proteinMatchKeys.addAll(proteinIdentification);
+                proteinIdentification = null;
+            }
+            if (peptideIdentification != null) {
+                peptideMatchKeys.addAll(peptideIdentification);
+                peptideIdentification = null;
+            }
+            if (spectrumIdentificationMap != null) {
+                for (String spectrumFile : spectrumIdentificationMap.keySet()) {
+                    HashSet<String> spectrumKeys = spectrumIdentificationMap.get(spectrumFile);
+                    KeySet keySet = new KeySet(spectrumKeyDictionary, spectrumKeys.size());
+                    keySet.addAll(spectrumKeys);
+                    spectrumMatchKeys.put(spectrumFile, keySet);
+                }
+                spectrumIdentificationMap = null;
+            }
+            if (proteinMap != null) {
+                for (String accession : proteinMap.keySet()) {
+                    for (String proteinKey : proteinMap.get(accession)) {
+                        addProteinMapping(accession, proteinKey);
+                    }
+                }
+                proteinMap = null;
+            }
+        }
+    }
+
+    /**
+     * Maps a protein match to an accession of its proteins.
+     *
+     * @param accession the accession of the protein
+     * @param proteinKey the key of the protein match
+     */
+    private synchronized void addProteinMapping(String accession, String proteinKey) {
+        accessionToProteinMatchKeys.put(proteinKeyDictionary.add(accession), proteinKeyDictionary.add(proteinKey));
+    }
+
     /**
      * Returns the ordered list of spectrum file names.
      *
@@ -113,7 +239,7 @@ public abstract class Identification extends ExperimentObject {
      * @return the mgf files used in the spectrum identification map
      */
     public ArrayList<String> getSpectrumFiles() {
-        return new ArrayList<String>(spectrumIdentificationMap.keySet());
+        return new ArrayList<String>(spectrumMatchKeys.keySet());
     }
 
     /**
@@ -123,8 +249,8 @@ public abstract class Identification extends ExperimentObject {
      */
     public int getSpectrumIdentificationSize() {
         int result = 0;
-        for (String spectrumFile : spectrumIdentificationMap.keySet()) {
-            result += spectrumIdentificationMap.get(spectrumFile).size();
+        for (KeySet spectrumKeys : spectrumMatchKeys.values()) {
+            result += spectrumKeys.size();
         }
         return result;
     }
@@ -151,6 +277,30 @@ public abstract class Identification extends ExperimentObject {
         identificationDB.loadAssumptions(fileName, waitingHandler, displayProgress);
     }
 
+    /**
+     * Loads all assumptions of the spectrum matches of the file in the cache
+     * of the database.
+     *
+     * @param fileName the file name
+     * @param waitingHandler the waiting handler allowing displaying progress
+     * and canceling the process
+     * @param displayProgress boolean indicating whether the progress of this
+     * method should be displayed on the waiting handler
+     * @param nThreads the number of threads to use to decode the objects
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * loading the object from the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the object in the database
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while casting the database input in the desired match class
+     * @throws InterruptedException thrown whenever a threading issue occurred
+     * while interacting with the database
+     */
+    public void loadAssumptions(String fileName, WaitingHandler waitingHandler, boolean displayProgress, int nThreads) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+        identificationDB.loadAssumptions(fileName, waitingHandler, displayProgress, nThreads);
+    }
+
     /**
      * Loads the assumptions of the spectrum matches indicated by the given keys
      * in the cache of the database.
@@ -174,6 +324,30 @@ public abstract class Identification extends ExperimentObject {
         identificationDB.loadAssumptions(spectrumKeys, waitingHandler, displayProgress);
     }
 
+    /**
+     * Loads the assumptions of the spectrum matches indicated by the given keys
+     * in the cache of the database.
+     *
+     * @param spectrumKeys the spectrum keys
+     * @param waitingHandler the waiting handler allowing displaying progress
+     * and canceling the process
+     * @param displayProgress boolean indicating whether the progress of this
+     * method should be displayed on the waiting handler
+     * @param nThreads the number of threads to use to decode the objects
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * loading the object from the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the object in the database
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while casting the database input in the desired match class
+     * @throws InterruptedException thrown whenever a threading issue occurred
+     * while interacting with the database
+     */
+    public void loadAssumptions(ArrayList<String> spectrumKeys, WaitingHandler waitingHandler, boolean displayProgress, int nThreads) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+        identificationDB.loadAssumptions(spectrumKeys, waitingHandler, displayProgress, nThreads);
+    }
+
     /**
      * Loads the raw assumptions of the spectrum matches indicated by the given
      * keys in the cache of the database.
@@ -219,6 +393,29 @@ public abstract class Identification extends ExperimentObject {
         identificationDB.loadSpectrumMatches(fileName, waitingHandler, displayProgress);
     }
 
+    /**
+     * Loads all spectrum matches of the file in cache.
+     *
+     * @param fileName the file name
+     * @param waitingHandler the waiting handler allowing displaying progress
+     * and canceling the process
+     * @param displayProgress boolean indicating whether the progress of this
+     * method should be displayed on the waiting handler
+     * @param nThreads the number of threads to use to decode the objects
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * loading the object from the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the object in the database
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while casting the database input in the desired match class
+     * @throws InterruptedException thrown whenever a threading issue occurred
+     * while interacting with the database
+     */
+    public void loadSpectrumMatches(String fileName, WaitingHandler waitingHandler, boolean displayProgress, int nThreads) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+        identificationDB.loadSpectrumMatches(fileName, waitingHandler, displayProgress, nThreads);
+    }
+
     /**
      * Loads the spectrum matches corresponding to the given keys in cache.
      *
@@ -241,6 +438,29 @@ public abstract class Identification extends ExperimentObject {
         identificationDB.loadSpectrumMatches(spectrumKeys, waitingHandler, displayProgress);
     }
 
+    /**
+     * Loads the spectrum matches corresponding to the given keys in cache.
+     *
+     * @param spectrumKeys the spectrum keys
+     * @param waitingHandler the waiting handler allowing displaying progress
+     * and canceling the process
+     * @param displayProgress boolean indicating whether the progress of this
+     * method should be displayed on the waiting handler
+     * @param nThreads the number of threads to use to decode the objects
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * loading the object from the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the object in the database
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while casting the database input in the desired match class
+     * @throws InterruptedException thrown whenever a threading issue occurred
+     * while interacting with the database
+     */
+    public void loadSpectrumMatches(ArrayList<String> spectrumKeys, WaitingHandler waitingHandler, boolean displayProgress, int nThreads) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+        identificationDB.loadSpectrumMatches(spectrumKeys, waitingHandler, displayProgress, nThreads);
+    }
+
     /**
      * Loads all spectrum match parameters of the given type in the cache of the
      * database
@@ -312,6 +532,30 @@ public abstract class Identification extends ExperimentObject {
         identificationDB.loadPeptideMatches(peptideKeys, waitingHandler, displayProgress);
     }
 
+    /**
+     * Loads the desired peptide matches of the given type in the cache of the
+     * database.
+     *
+     * @param peptideKeys the list of peptide keys to load
+     * @param waitingHandler the waiting handler allowing displaying progress
+     * and canceling the process
+     * @param displayProgress boolean indicating whether the progress of this
+     * method should be displayed on the waiting handler
+     * @param nThreads the number of threads to use to decode the objects
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * loading the object from the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the object in the database
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while casting the database input in the desired match class
+     * @throws InterruptedException thrown whenever a threading issue occurred
+     * while interacting with the database
+     */
+    public void loadPeptideMatches(ArrayList<String> peptideKeys, WaitingHandler waitingHandler, boolean displayProgress, int nThreads) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+        identificationDB.loadPeptideMatches(peptideKeys, waitingHandler, displayProgress, nThreads);
+    }
+
     /**
      * Loads all peptide matches in the cache of the database.
      *
@@ -333,6 +577,28 @@ public abstract class Identification extends ExperimentObject {
         identificationDB.loadPeptideMatches(waitingHandler, displayProgress);
     }
 
+    /**
+     * Loads all peptide matches in the cache of the database.
+     *
+     * @param waitingHandler the waiting handler allowing displaying progress
+     * and canceling the process
+     * @param displayProgress boolean indicating whether the progress of this
+     * method should be displayed on the waiting handler
+     * @param nThreads the number of threads to use to decode the objects
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * loading the object from the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the object in the database
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while casting the database input in the desired match class
+     * @throws InterruptedException thrown whenever a threading issue occurred
+     * while interacting with the database
+     */
+    public void loadPeptideMatches(WaitingHandler waitingHandler, boolean displayProgress, int nThreads) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+        identificationDB.loadPeptideMatches(waitingHandler, displayProgress, nThreads);
+    }
+
     /**
      * Loads all peptide match parameters of the given type in the cache of the
      * database.
@@ -787,12 +1053,12 @@ public abstract class Identification extends ExperimentObject {
         }
         removePeptideMatch(oldKey);
         peptideMatch.setKey(newKey);
-        peptideIdentification.remove(oldKey);
-        peptideIdentification.add(newKey);
+        peptideMatchKeys.remove(oldKey);
+        peptideMatchKeys.add(newKey);
         identificationDB.addPeptideMatch(peptideMatch);
         for (String accession : peptideMatch.getTheoreticPeptide().getParentProteinsNoRemapping()) {
-            HashSet<String> proteinGroups = proteinMap.get(accession);
-            if (proteinGroups != null) {
+            HashSet<String> proteinGroups = getProteinMatches(accession);
+            if (!proteinGroups.isEmpty()) {
                 for (String proteinKey : proteinGroups) {
                     ProteinMatch proteinMatch = getProteinMatch(proteinKey);
                     ArrayList<String> oldPeptideMatches = proteinMatch.getPeptideMatchesKeys();
@@ -883,7 +1149,7 @@ public abstract class Identification extends ExperimentObject {
     public void removeSpectrumMatch(String matchKey) throws SQLException, IOException, InterruptedException {
 
         String fileName = Spectrum.getSpectrumFile(matchKey);
-        HashSet<String> spectrumKeys = spectrumIdentificationMap.get(fileName);
+        KeySet spectrumKeys = spectrumMatchKeys.get(fileName);
         if (spectrumKeys != null) {
             spectrumKeys.remove(matchKey);
         }
@@ -903,7 +1169,7 @@ public abstract class Identification extends ExperimentObject {
      */
     public void removePeptideMatch(String matchKey) throws SQLException, IOException, InterruptedException {
 
-        peptideIdentification.remove(matchKey);
+        peptideMatchKeys.remove(matchKey);
         identificationDB.removePeptideMatch(matchKey);
     }
 
@@ -919,22 +1185,30 @@ public abstract class Identification extends ExperimentObject {
      * @throws java.lang.InterruptedException if the thread is interrupted
      */
     public void removeProteinMatch(String matchKey) throws SQLException, IOException, InterruptedException {
-        if (proteinIdentification.contains(matchKey)) {
-            for (String protein : ProteinMatch.getAccessions(matchKey)) {
-                HashSet<String> proteinKeys = proteinMap.get(protein);
-                if (proteinKeys != null) {
-                    proteinKeys.remove(matchKey);
-                    if (proteinKeys.isEmpty()) {
-                        proteinMap.remove(protein);
-                    }
-                }
-            }
+        if (proteinMatchKeys.contains(matchKey)) {
+            removeProteinMappings(matchKey);
         }
 
-        proteinIdentification.remove(matchKey);
+        proteinMatchKeys.remove(matchKey);
         identificationDB.removeProteinMatch(matchKey);
     }
 
+    /**
+     * Removes a protein match from the mapping of the accessions of its
+     * proteins.
+     *
+     * @param matchKey the key of the protein match
+     */
+    private synchronized void removeProteinMappings(String matchKey) {
+        int proteinKeyId = proteinKeyDictionary.getId(matchKey);
+        for (String protein : ProteinMatch.getAccessions(matchKey)) {
+            int accessionId = proteinKeyDictionary.getId(protein);
+            if (accessionId != -1) {
+                accessionToProteinMatchKeys.remove(accessionId, proteinKeyId);
+            }
+        }
+    }
+
     /**
      * Indicates whether a match indexed by the given key exists.
      *
@@ -951,13 +1225,13 @@ public abstract class Identification extends ExperimentObject {
 
         if (matchKey.lastIndexOf(Spectrum.SPECTRUM_KEY_SPLITTER) != -1) {
             String fileName = Spectrum.getSpectrumFile(matchKey);
-            HashSet<String> spectrumKeys = spectrumIdentificationMap.get(fileName);
+            KeySet spectrumKeys = spectrumMatchKeys.get(fileName);
             if (spectrumKeys != null && spectrumKeys.contains(matchKey)) {
                 return true;
             }
         }
 
-        return proteinIdentification.contains(matchKey) || peptideIdentification.contains(matchKey);
+        return proteinMatchKeys.contains(matchKey) || peptideMatchKeys.contains(matchKey);
     }
 
     /**
@@ -1231,21 +1505,23 @@ public abstract class Identification extends ExperimentObject {
     }
 
     /**
-     * Returns a list of the keys of all encountered proteins.
+     * Returns a list of the keys of all encountered proteins. The set is
+     * backed by the identification.
      *
      * @return the corresponding identification results
      */
-    public HashSet<String> getProteinIdentification() {
-        return proteinIdentification;
+    public Set<String> getProteinIdentification() {
+        return proteinMatchKeys;
     }
 
     /**
-     * Returns a list of the keys of all encountered peptides.
+     * Returns a list of the keys of all encountered peptides. The set is
+     * backed by the identification.
      *
      * @return the corresponding identification results
      */
-    public HashSet<String> getPeptideIdentification() {
-        return peptideIdentification;
+    public Set<String> getPeptideIdentification() {
+        return peptideMatchKeys;
     }
 
     /**
@@ -1256,8 +1532,8 @@ public abstract class Identification extends ExperimentObject {
      * @return the corresponding list of spectrum matches keys. See
      * Spectrum.getKey() for more details.
      */
-    public HashSet<String> getSpectrumIdentification(String spectrumFile) {
-        return spectrumIdentificationMap.get(spectrumFile);
+    public Set<String> getSpectrumIdentification(String spectrumFile) {
+        return spectrumMatchKeys.get(spectrumFile);
     }
 
     /**
@@ -1265,8 +1541,8 @@ public abstract class Identification extends ExperimentObject {
      *
      * @return the keys of all identified spectra indexed by the spectrum file
      */
-    public HashMap<String, HashSet<String>> getSpectrumIdentificationMap() {
-        return spectrumIdentificationMap;
+    public HashMap<String, KeySet> getSpectrumIdentificationMap() {
+        return spectrumMatchKeys;
     }
 
     /**
@@ -1408,7 +1684,7 @@ public abstract class Identification extends ExperimentObject {
 
         String spectrumKey = newMatch.getKey();
         String spectrumFile = Spectrum.getSpectrumFile(spectrumKey);
-        HashSet<String> spectrumKeys = spectrumIdentificationMap.get(spectrumFile);
+        KeySet spectrumKeys = spectrumMatchKeys.get(spectrumFile);
 
         if (spectrumKeys == null) {
             spectrumKeys = getSpectrumKeysSynchronized(spectrumFile);
@@ -1435,12 +1711,12 @@ public abstract class Identification extends ExperimentObject {
      * @param spectrumKeys the set
      * @param spectrumKey the key
      */
-    public synchronized void addKeyToSetSynchronized(HashSet<String> spectrumKeys, String spectrumKey) {
+    public synchronized void addKeyToSetSynchronized(Set<String> spectrumKeys, String spectrumKey) {
         spectrumKeys.add(spectrumKey);
     }
 
     /**
-     * Checks whether the spectrumIdentificationMap contains spectrum keys for
+     * Checks whether the spectrumMatchKeys map contains spectrum keys for
      * this file. If yes, returns the corresponding set. If no, adds a new set
      * to the map and returns it.
      *
@@ -1448,11 +1724,11 @@ public abstract class Identification extends ExperimentObject {
      *
      * @return the set of spectrum keys for this file
      */
-    private synchronized HashSet<String> getSpectrumKeysSynchronized(String spectrumFile) {
-        HashSet<String> spectrumKeys = spectrumIdentificationMap.get(spectrumFile);
+    private synchronized KeySet getSpectrumKeysSynchronized(String spectrumFile) {
+        KeySet spectrumKeys = spectrumMatchKeys.get(spectrumFile);
         if (spectrumKeys == null) {
-            spectrumKeys = new HashSet<String>(1000);
-            spectrumIdentificationMap.put(spectrumFile, spectrumKeys);
+            spectrumKeys = new KeySet(spectrumKeyDictionary, 1000);
+            spectrumMatchKeys.put(spectrumFile, spectrumKeys);
         }
         return spectrumKeys;
     }
@@ -1477,22 +1753,272 @@ public abstract class Identification extends ExperimentObject {
      * while interacting with the database
      */
     public void buildPeptidesAndProteins(WaitingHandler waitingHandler, SequenceMatchingPreferences sequenceMatchingPreferences) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+        buildPeptidesAndProteins(waitingHandler, sequenceMatchingPreferences, 1);
+    }
+
+    /**
+     * Creates the peptides and protein instances based on the spectrum matches.
+     * Note that the attribute bestAssumption should be set for every spectrum
+     * match at this point. The spectrum matches are first mapped to peptides
+     * and proteins using the given number of threads and grouped in memory,
+     * every new peptide and protein match is then written once to the
+     * database in batch. The keys of the new matches are registered only once
+     * the matches are written.
+     *
+     * @param waitingHandler the waiting handler displaying the progress. Can be
+     * null. The progress will be displayed as secondary.
+     * @param sequenceMatchingPreferences the sequence matching preferences
+     * @param nThreads the number of threads to use to map the spectrum matches
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * loading the object from the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the object in the database
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while casting the database input in the desired match class
+     * @throws InterruptedException thrown whenever a threading issue occurred
+     * while interacting with the database
+     */
+    public void buildPeptidesAndProteins(WaitingHandler waitingHandler, final SequenceMatchingPreferences sequenceMatchingPreferences, int nThreads) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+
+        final ArrayList<String> spectrumKeys = new ArrayList<String>(getSpectrumIdentificationSize());
+        for (KeySet fileSpectrumKeys : spectrumMatchKeys.values()) {
+            spectrumKeys.addAll(fileSpectrumKeys);
+        }
+        int nSpectra = spectrumKeys.size();
+
         if (waitingHandler != null) {
             waitingHandler.setSecondaryProgressCounterIndeterminate(false);
-            waitingHandler.setMaxSecondaryProgressCounter(getSpectrumIdentificationSize());
+            waitingHandler.setMaxSecondaryProgressCounter(nSpectra);
             waitingHandler.setSecondaryProgressCounter(0);
         }
-        for (String spectrumFile : spectrumIdentificationMap.keySet()) {
-            for (String spectrumMatchKey : spectrumIdentificationMap.get(spectrumFile)) {
-                buildPeptidesAndProteins(spectrumMatchKey, sequenceMatchingPreferences);
+
+        // Phase one: map the spectrum matches to peptides and proteins
+        final Peptide[] peptides = new Peptide[nSpectra];
+        final String[] peptideKeys = new String[nSpectra];
+        final String[] proteinKeys = new String[nSpectra];
+
+        if (nThreads > 1) {
+            ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+            try {
+                ArrayList<Future<Integer>> futures = new ArrayList<Future<Integer>>(nSpectra / BUILD_BATCH_SIZE + 1);
+                for (int start = 0; start < nSpectra; start += BUILD_BATCH_SIZE) {
+                    final int batchStart = start;
+                    final int batchEnd = Math.min(start + BUILD_BATCH_SIZE, nSpectra);
+                    futures.add(pool.submit(new Callable<Integer>() {
+                        @Override
+                        public Integer call() throws Exception {
+                            mapSpectrumMatches(spectrumKeys, batchStart, batchEnd, peptides, peptideKeys, proteinKeys, sequenceMatchingPreferences);
+                            return batchEnd - batchStart;
+                        }
+                    }));
+                }
+                for (Future<Integer> future : futures) {
+                    int nMapped;
+                    try {
+                        nMapped = future.get();
+                    } catch (ExecutionException e) {
+                        Throwable cause = e.getCause();
+                        if (cause instanceof SQLException) {
+                            throw (SQLException) cause;
+                        } else if (cause instanceof IOException) {
+                            throw (IOException) cause;
+                        } else if (cause instanceof ClassNotFoundException) {
+                            throw (ClassNotFoundException) cause;
+                        } else if (cause instanceof InterruptedException) {
+                            throw (InterruptedException) cause;
+                        } else if (cause instanceof IllegalArgumentException) {
+                            throw (IllegalArgumentException) cause;
+                        }
+                        throw new IllegalArgumentException("An error occurred while mapping the spectrum matches.", cause);
+                    }
+                    if (waitingHandler != null) {
+                        waitingHandler.increaseSecondaryProgressCounter(nMapped);
+                        if (waitingHandler.isRunCanceled()) {
+                            return;
+                        }
+                    }
+                }
+            } finally {
+                pool.shutdownNow();
+            }
+        } else {
+            for (int start = 0; start < nSpectra; start += BUILD_BATCH_SIZE) {
+                int end = Math.min(start + BUILD_BATCH_SIZE, nSpectra);
+                mapSpectrumMatches(spectrumKeys, start, end, peptides, peptideKeys, proteinKeys, sequenceMatchingPreferences);
                 if (waitingHandler != null) {
-                    waitingHandler.increaseSecondaryProgressCounter();
+                    waitingHandler.increaseSecondaryProgressCounter(end - start);
                     if (waitingHandler.isRunCanceled()) {
                         return;
                     }
                 }
             }
         }
+
+        // Group the spectra by peptide and the peptides by protein in the order of the spectrum keys
+        HashMap<String, PeptideMatch> peptideMatches = new HashMap<String, PeptideMatch>();
+        HashMap<String, HashSet<String>> proteinToPeptideKeys = new HashMap<String, HashSet<String>>();
+        HashMap<String, ProteinMatch> proteinMatches = new HashMap<String, ProteinMatch>();
+        ArrayList<PeptideMatch> newPeptideMatches = new ArrayList<PeptideMatch>();
+        ArrayList<PeptideMatch> updatedPeptideMatches = new ArrayList<PeptideMatch>();
+        ArrayList<ProteinMatch> newProteinMatches = new ArrayList<ProteinMatch>();
+        ArrayList<Peptide> newProteinPeptides = new ArrayList<Peptide>();
+        ArrayList<ProteinMatch> updatedProteinMatches = new ArrayList<ProteinMatch>();
+        HashMap<String, ArrayList<String>> addedPeptideKeys = new HashMap<String, ArrayList<String>>();
+
+        for (int i = 0; i < nSpectra; i++) {
+
+            Peptide peptide = peptides[i];
+            if (peptide == null) {
+                continue;
+            }
+            String spectrumMatchKey = spectrumKeys.get(i);
+            String peptideKey = peptideKeys[i];
+            PeptideMatch peptideMatch = peptideMatches.get(peptideKey);
+
+            if (peptideMatch == null) {
+                if (peptideMatchKeys.contains(peptideKey)) {
+                    peptideMatch = getPeptideMatch(peptideKey);
+                    if (peptideMatch == null) {
+                        throw new IllegalArgumentException("Peptide match " + peptideKey + " not found.");
+                    }
+                    updatedPeptideMatches.add(peptideMatch);
+                } else {
+                    peptideMatch = new PeptideMatch(peptide, peptideKey);
+                    newPeptideMatches.add(peptideMatch);
+                }
+                peptideMatches.put(peptideKey, peptideMatch);
+            }
+            peptideMatch.addSpectrumMatchKey(spectrumMatchKey);
+
+            String proteinKey = proteinKeys[i];
+            HashSet<String> proteinPeptideKeys = proteinToPeptideKeys.get(proteinKey);
+
+            if (proteinPeptideKeys == null) {
+                ProteinMatch proteinMatch;
+                if (proteinMatchKeys.contains(proteinKey)) {
+                    proteinMatch = getProteinMatch(proteinKey);
+                    if (proteinMatch == null) {
+                        throw new IllegalArgumentException("Protein match " + proteinKey + " not found.");
+                    }
+                    updatedProteinMatches.add(proteinMatch);
+                    addedPeptideKeys.put(proteinKey, new ArrayList<String>(1));
+                    proteinPeptideKeys = new HashSet<String>(proteinMatch.getPeptideMatchesKeys());
+                    if (proteinPeptideKeys.add(peptideKey)) {
+                        addedPeptideKeys.get(proteinKey).add(peptideKey);
+                    }
+                } else {
+                    proteinMatch = new ProteinMatch(peptideMatch.getTheoreticPeptide(), peptideKey);
+                    if (!proteinMatch.getKey().equals(proteinKey)) {
+                        throw new IllegalArgumentException("Protein inference issue: the protein key " + proteinKey + " does not match the peptide proteins " + proteinMatch.getKey() + "."
+                                + " Peptide: " + peptideKey + " found in spectrum " + spectrumMatchKey + ".");
+                    }
+                    newProteinMatches.add(proteinMatch);
+                    newProteinPeptides.add(peptide);
+                    proteinPeptideKeys = new HashSet<String>(proteinMatch.getPeptideMatchesKeys());
+                }
+                proteinMatches.put(proteinKey, proteinMatch);
+                proteinToPeptideKeys.put(proteinKey, proteinPeptideKeys);
+            } else if (proteinPeptideKeys.add(peptideKey)) {
+
+                // the peptides of the existing protein matches are added once the peptide matches are written
+                ArrayList<String> proteinAddedPeptideKeys = addedPeptideKeys.get(proteinKey);
+                if (proteinAddedPeptideKeys != null) {
+                    proteinAddedPeptideKeys.add(peptideKey);
+                } else {
+                    proteinMatches.get(proteinKey).addPeptideMatchKey(peptideKey);
+                }
+            }
+        }
+
+        // Phase two: write every match once
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+            waitingHandler.setMaxSecondaryProgressCounter(newPeptideMatches.size() + newProteinMatches.size());
+            waitingHandler.setSecondaryProgressCounter(0);
+        }
+        try {
+            identificationDB.addPeptideMatches(newPeptideMatches, waitingHandler);
+        } catch (IOException e) {
+            throw new IOException("Error while writing peptide matches in the database.", e);
+        } catch (SQLException e) {
+            throw new SQLException("Error while writing peptide matches in the database.", e);
+        }
+        if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+            return;
+        }
+        for (PeptideMatch peptideMatch : newPeptideMatches) {
+            peptideMatchKeys.add(peptideMatch.getKey());
+        }
+        for (PeptideMatch peptideMatch : updatedPeptideMatches) {
+            identificationDB.updatePeptideMatch(peptideMatch);
+        }
+        try {
+            identificationDB.addProteinMatches(newProteinMatches, waitingHandler);
+        } catch (IOException e) {
+            throw new IOException("Error while writing protein matches in the database.", e);
+        } catch (SQLException e) {
+            throw new SQLException("Error while writing protein matches in the database.", e);
+        }
+        if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+            return;
+        }
+        for (int i = 0; i < newProteinMatches.size(); i++) {
+            String proteinKey = newProteinMatches.get(i).getKey();
+            proteinMatchKeys.add(proteinKey);
+            for (String protein : newProteinPeptides.get(i).getParentProteinsNoRemapping()) {
+                addProteinMapping(protein, proteinKey);
+            }
+        }
+        for (ProteinMatch proteinMatch : updatedProteinMatches) {
+            for (String peptideKey : addedPeptideKeys.get(proteinMatch.getKey())) {
+                proteinMatch.addPeptideMatchKey(peptideKey);
+            }
+            identificationDB.updateProteinMatch(proteinMatch);
+        }
+    }
+
+    /**
+     * Maps the best peptide assumption of the given spectrum matches to
+     * proteins and stores the peptide, peptide key and protein key of every
+     * spectrum match in the given arrays. The array elements are left null for
+     * spectrum matches without best peptide assumption.
+     *
+     * @param spectrumKeys the keys of the spectrum matches
+     * @param start the index of the first spectrum match to map
+     * @param end the index after the last spectrum match to map
+     * @param peptides the peptides of the spectrum matches
+     * @param peptideKeys the peptide keys of the spectrum matches
+     * @param proteinKeys the protein keys of the spectrum matches
+     * @param sequenceMatchingPreferences the sequence matching preferences
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * loading the object from the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the object in the database
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while casting the database input in the desired match class
+     * @throws InterruptedException thrown whenever a threading issue occurred
+     * while interacting with the database
+     */
+    private void mapSpectrumMatches(ArrayList<String> spectrumKeys, int start, int end, Peptide[] peptides, String[] peptideKeys, String[] proteinKeys,
+            SequenceMatchingPreferences sequenceMatchingPreferences) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+        for (int i = start; i < end; i++) {
+            String spectrumMatchKey = spectrumKeys.get(i);
+            SpectrumMatch spectrumMatch = getSpectrumMatch(spectrumMatchKey);
+            if (spectrumMatch == null) {
+                throw new IllegalArgumentException("Spectrum match " + spectrumMatchKey + " not found.");
+            }
+            if (spectrumMatch.getBestPeptideAssumption() != null) {
+                Peptide peptide = spectrumMatch.getBestPeptideAssumption().getPeptide();
+                if (peptide.getParentProteinsNoRemapping() == null) {
+                    peptide.getParentProteins(sequenceMatchingPreferences);
+                }
+                peptides[i] = peptide;
+                peptideKeys[i] = peptide.getMatchingKey(sequenceMatchingPreferences);
+                proteinKeys[i] = ProteinMatch.getProteinMatchKey(peptide);
+            }
+        }
     }
 
     /**
@@ -1529,7 +2055,7 @@ public abstract class Identification extends ExperimentObject {
             String peptideKey = peptide.getMatchingKey(sequenceMatchingPreferences);
             PeptideMatch peptideMatch;
 
-            if (peptideIdentification.contains(peptideKey)) {
+            if (peptideMatchKeys.contains(peptideKey)) {
                 peptideMatch = getPeptideMatch(peptideKey);
                 if (peptideMatch == null) {
                     throw new IllegalArgumentException("Peptide match " + peptideKey + " not found.");
@@ -1539,7 +2065,7 @@ public abstract class Identification extends ExperimentObject {
             } else {
                 peptideMatch = new PeptideMatch(peptide, peptideKey);
                 peptideMatch.addSpectrumMatchKey(spectrumMatchKey);
-                peptideIdentification.add(peptideKey);
+                peptideMatchKeys.add(peptideKey);
                 try {
                     identificationDB.addPeptideMatch(peptideMatch);
                 } catch (IOException e) {
@@ -1553,7 +2079,7 @@ public abstract class Identification extends ExperimentObject {
 
             String proteinKey = ProteinMatch.getProteinMatchKey(peptide);
 
-            if (proteinIdentification.contains(proteinKey)) {
+            if (proteinMatchKeys.contains(proteinKey)) {
                 ProteinMatch proteinMatch = getProteinMatch(proteinKey);
                 if (proteinMatch == null) {
                     throw new IllegalArgumentException("Protein match " + proteinKey + " not found.");
@@ -1568,14 +2094,9 @@ public abstract class Identification extends ExperimentObject {
                     throw new IllegalArgumentException("Protein inference issue: the protein key " + proteinKey + " does not match the peptide proteins " + proteinMatch.getKey() + "."
                             + " Peptide: " + peptideKey + " found in spectrum " + spectrumMatchKey + ".");
                 }
-                proteinIdentification.add(proteinKey);
+                proteinMatchKeys.add(proteinKey);
                 for (String protein : peptide.getParentProteinsNoRemapping()) {
-                    if (!proteinMap.containsKey(protein)) {
-                        proteinMap.put(protein, new HashSet<String>());
-                    }
-                    if (!proteinMap.get(protein).contains(proteinKey)) {
-                        proteinMap.get(protein).add(proteinKey);
-                    }
+                    addProteinMapping(protein, proteinKey);
                 }
                 try {
                     identificationDB.addProteinMatch(proteinMatch);
@@ -1622,13 +2143,55 @@ public abstract class Identification extends ExperimentObject {
 
     /**
      * Returns a map of all the protein matches which can be ascribed to a
-     * protein indexed by its accession.
+     * protein indexed by its accession. The map is built upon call and cannot
+     * be modified, use getProteinMatches(String) for individual accessions.
      *
      * @return a map of all the protein matches which can be ascribed to a
      * protein indexed by its accession.
      */
-    public HashMap<String, HashSet<String>> getProteinMap() {
-        return proteinMap;
+    public synchronized Map<String, Set<String>> getProteinMap() {
+        int[] accessionIds = accessionToProteinMatchKeys.getKeys();
+        HashMap<String, Set<String>> result = new HashMap<String, Set<String>>(accessionIds.length);
+        for (int accessionId : accessionIds) {
+            result.put(proteinKeyDictionary.getKey(accessionId), Collections.unmodifiableSet(getProteinMatches(accessionId)));
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * Returns the keys of the protein matches which can be ascribed to the
+     * protein of the given accession.
+     *
+     * @param accession the accession of the protein
+     *
+     * @return the keys of the protein matches, an empty set if none
+     */
+    public synchronized HashSet<String> getProteinMatches(String accession) {
+        int accessionId = proteinKeyDictionary.getId(accession);
+        if (accessionId == -1) {
+            return new HashSet<String>(0);
+        }
+        return getProteinMatches(accessionId);
+    }
+
+    /**
+     * Returns the keys of the protein matches which can be ascribed to the
+     * protein of the given accession id.
+     *
+     * @param accessionId the id of the accession in the protein key dictionary
+     *
+     * @return the keys of the protein matches, an empty set if none
+     */
+    private HashSet<String> getProteinMatches(int accessionId) {
+        IntHashSet proteinKeyIds = accessionToProteinMatchKeys.get(accessionId);
+        if (proteinKeyIds == null) {
+            return new HashSet<String>(0);
+        }
+        HashSet<String> result = new HashSet<String>(proteinKeyIds.size());
+        for (int proteinKeyId : proteinKeyIds.toArray()) {
+            result.add(proteinKeyDictionary.getKey(proteinKeyId));
+        }
+        return result;
     }
 
     /**
@@ -1652,13 +2215,13 @@ public abstract class Identification extends ExperimentObject {
      * @return the kind of match
      */
     public MatchType getMatchType(String matchKey) {
-        if (proteinIdentification.contains(matchKey)) {
+        if (proteinMatchKeys.contains(matchKey)) {
             return MatchType.Protein;
-        } else if (peptideIdentification.contains(matchKey)) {
+        } else if (peptideMatchKeys.contains(matchKey)) {
             return MatchType.Peptide;
         } else {
             String fileName = Spectrum.getSpectrumFile(matchKey);
-            HashSet<String> spectrumKeys = spectrumIdentificationMap.get(fileName);
+            KeySet spectrumKeys = spectrumMatchKeys.get(fileName);
             if (spectrumKeys != null && spectrumKeys.contains(matchKey)) {
                 return MatchType.Spectrum;
             }
@@ -1685,7 +2248,31 @@ public abstract class Identification extends ExperimentObject {
      * while interacting with the database
      */
     public void establishConnection(String dbFolder, boolean deleteOldDatabase, ObjectsCache objectsCache) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
-        identificationDB = new IdentificationDB(dbFolder, reference, deleteOldDatabase, objectsCache);
+        establishConnection(dbFolder, deleteOldDatabase, objectsCache, false);
+    }
+
+    /**
+     * Establishes a connection to the database.
+     *
+     * @param dbFolder the absolute path to the folder where the database is
+     * located
+     * @param deleteOldDatabase if true, tries to delete the old database
+     * @param objectsCache the objects cache
+     * @param useLogStructuredStore if true, the matches are stored in a log
+     * structured blob store instead of a Derby database
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * establishing the connection, typically when another software already has
+     * a connection open
+     * @throws IOException exception thrown whenever an error occurs while
+     * reading or writing a file
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing a file from the database
+     * @throws InterruptedException exception thrown if a threading error occurs
+     * while interacting with the database
+     */
+    public void establishConnection(String dbFolder, boolean deleteOldDatabase, ObjectsCache objectsCache, boolean useLogStructuredStore) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+        identificationDB = new IdentificationDB(dbFolder, reference, deleteOldDatabase, objectsCache, useLogStructuredStore);
     }
 
     /**
@@ -1754,12 +2341,7 @@ public abstract class Identification extends ExperimentObject {
             throw new IllegalArgumentException("Proteins are not mapped for peptide " + peptide.getKey() + ".");
         }
         for (String accession : peptide.getParentProteinsNoRemapping()) {
-            HashSet<String> keys = proteinMap.get(accession);
-            if (keys != null) {
-                for (String key : keys) {
-                    proteinMatches.add(key);
-                }
-            }
+            proteinMatches.addAll(getProteinMatches(accession));
         }
         return proteinMatches;
     }
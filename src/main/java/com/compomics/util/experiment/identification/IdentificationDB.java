@@ -2,6 +2,8 @@ package com.compomics.util.experiment.identification;
 
 import com.compomics.util.db.ObjectsCache;
 import com.compomics.util.db.ObjectsDB;
+import com.compomics.util.db.codec.BlobCodec;
+import com.compomics.util.experiment.identification.codec.IdentificationCodecs;
 import com.compomics.util.experiment.identification.matches.PeptideMatch;
 import com.compomics.util.experiment.identification.matches.ProteinMatch;
 import com.compomics.util.experiment.identification.matches.SpectrumMatch;
@@ -87,6 +89,13 @@ public class IdentificationDB implements Serializable {
      */
     private ObjectsDB objectsDB;
 
+    /**
+     * Registers the codecs used to store the matches in the database.
+     */
+    static {
+        IdentificationCodecs.registerCodecs(BlobCodec.getInstance());
+    }
+
     /**
      * Constructor creating the database and the protein and protein parameters
      * tables.
@@ -106,8 +115,32 @@ public class IdentificationDB implements Serializable {
      * while interacting with the database
      */
     public IdentificationDB(String folder, String name, boolean deleteOldDatabase, ObjectsCache objectCache) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+        this(folder, name, deleteOldDatabase, objectCache, false);
+    }
+
+    /**
+     * Constructor creating the database and the protein and protein parameters
+     * tables.
+     *
+     * @param folder the folder where to put the database
+     * @param name the database name
+     * @param deleteOldDatabase if true, tries to delete the old database
+     * @param objectCache the objects cache
+     * @param useLogStructuredStore if true, the matches are stored in a log
+     * structured blob store instead of a Derby database
+     *
+     * @throws SQLException exception thrown whenever an error occurs while
+     * interacting with the database
+     * @throws IOException exception thrown whenever an error occurs while
+     * reading or writing a file
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing a file from the database
+     * @throws InterruptedException exception thrown if a threading error occurs
+     * while interacting with the database
+     */
+    public IdentificationDB(String folder, String name, boolean deleteOldDatabase, ObjectsCache objectCache, boolean useLogStructuredStore) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
         this.dbName = name;
-        objectsDB = new ObjectsDB(folder, dbName, deleteOldDatabase, objectCache);
+        objectsDB = new ObjectsDB(folder, dbName, deleteOldDatabase, objectCache, useLogStructuredStore);
         if (deleteOldDatabase) {
             objectsDB.addTable(proteinTableName);
             objectsDB.addTable(peptideTableName);
@@ -623,6 +656,52 @@ public class IdentificationDB implements Serializable {
         objectsDB.insertObject(proteinTableName, proteinMatch.getKey(), proteinMatch, true);
     }
 
+    /**
+     * Adds peptide matches to the database in batch. The matches are written
+     * to the database directly without going through the cache.
+     *
+     * @param peptideMatches the peptide matches to be added
+     * @param waitingHandler a waiting handler displaying the progress on the
+     * secondary progress bar, can be null
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * adding the object in the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the object
+     * @throws java.lang.InterruptedException exception thrown whenever a
+     * threading issue occurred when interacting with the database
+     */
+    public void addPeptideMatches(ArrayList<PeptideMatch> peptideMatches, WaitingHandler waitingHandler) throws SQLException, IOException, InterruptedException {
+        HashMap<String, Object> objects = new HashMap<String, Object>(peptideMatches.size());
+        for (PeptideMatch peptideMatch : peptideMatches) {
+            objects.put(peptideMatch.getKey(), peptideMatch);
+        }
+        objectsDB.insertObjects(peptideTableName, objects, waitingHandler);
+    }
+
+    /**
+     * Adds protein matches to the database in batch. The matches are written
+     * to the database directly without going through the cache.
+     *
+     * @param proteinMatches the protein matches to be added
+     * @param waitingHandler a waiting handler displaying the progress on the
+     * secondary progress bar, can be null
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * adding the object in the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the object
+     * @throws java.lang.InterruptedException exception thrown whenever a
+     * threading issue occurred when interacting with the database
+     */
+    public void addProteinMatches(ArrayList<ProteinMatch> proteinMatches, WaitingHandler waitingHandler) throws SQLException, IOException, InterruptedException {
+        HashMap<String, Object> objects = new HashMap<String, Object>(proteinMatches.size());
+        for (ProteinMatch proteinMatch : proteinMatches) {
+            objects.put(proteinMatch.getKey(), proteinMatch);
+        }
+        objectsDB.insertObjects(proteinTableName, objects, waitingHandler);
+    }
+
     /**
      * Adds an identification match to the database.
      *
@@ -666,9 +745,32 @@ public class IdentificationDB implements Serializable {
      * threading issue occurred when interacting with the database
      */
     public void loadAssumptions(String fileName, WaitingHandler waitingHandler, boolean displayProgress) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+        loadAssumptions(fileName, waitingHandler, displayProgress, 1);
+    }
+
+    /**
+     * Loads all assumptions of the given file in the cache of the database.
+     *
+     * @param fileName the file name
+     * @param waitingHandler the waiting handler allowing displaying progress
+     * and canceling the process
+     * @param displayProgress boolean indicating whether the progress of this
+     * method should be displayed on the waiting handler
+     * @param nThreads the number of threads to use to decode the objects
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interrogating the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the database
+     * @throws ClassNotFoundException exception thrown whenever the class of the
+     * object is not found when deserializing it.
+     * @throws java.lang.InterruptedException exception thrown whenever a
+     * threading issue occurred when interacting with the database
+     */
+    public void loadAssumptions(String fileName, WaitingHandler waitingHandler, boolean displayProgress, int nThreads) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
         String testKey = Spectrum.getSpectrumKey(fileName, "test");
         String tableName = getAssumptionTable(testKey);
-        objectsDB.loadObjects(tableName, waitingHandler, displayProgress);
+        objectsDB.loadObjects(tableName, waitingHandler, displayProgress, nThreads);
     }
 
     /**
@@ -690,6 +792,29 @@ public class IdentificationDB implements Serializable {
      * threading issue occurred when interacting with the database
      */
     public void loadAssumptions(ArrayList<String> spectrumKeys, WaitingHandler waitingHandler, boolean displayProgress) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+        loadAssumptions(spectrumKeys, waitingHandler, displayProgress, 1);
+    }
+
+    /**
+     * Loads all assumptions of the given spectra in the cache of the database.
+     *
+     * @param spectrumKeys the key of the spectra
+     * @param waitingHandler the waiting handler allowing displaying progress
+     * and canceling the process
+     * @param displayProgress boolean indicating whether the progress of this
+     * method should be displayed on the waiting handler
+     * @param nThreads the number of threads to use to decode the objects
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interrogating the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the database
+     * @throws ClassNotFoundException exception thrown whenever the class of the
+     * object is not found when deserializing it.
+     * @throws java.lang.InterruptedException exception thrown whenever a
+     * threading issue occurred when interacting with the database
+     */
+    public void loadAssumptions(ArrayList<String> spectrumKeys, WaitingHandler waitingHandler, boolean displayProgress, int nThreads) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
         if (waitingHandler != null && displayProgress) {
             waitingHandler.setSecondaryProgressCounterIndeterminate(false);
             waitingHandler.setSecondaryProgressCounter(0);
@@ -713,7 +838,7 @@ public class IdentificationDB implements Serializable {
         }
         for (String tableName : sortedKeys.keySet()) {
             if (objectsDB.hasTable(tableName)) { // Escape for old projects which don't contain this table
-                objectsDB.loadObjects(tableName, sortedKeys.get(tableName), waitingHandler, displayProgress);
+                objectsDB.loadObjects(tableName, sortedKeys.get(tableName), waitingHandler, displayProgress, nThreads);
             }
         }
     }
@@ -809,9 +934,33 @@ public class IdentificationDB implements Serializable {
      * threading issue occurred when interacting with the database
      */
     public void loadSpectrumMatches(String fileName, WaitingHandler waitingHandler, boolean displayProgress) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+        loadSpectrumMatches(fileName, waitingHandler, displayProgress, 1);
+    }
+
+    /**
+     * Loads all spectrum matches of the given file in the cache of the
+     * database.
+     *
+     * @param fileName the file name
+     * @param waitingHandler the waiting handler allowing displaying progress
+     * and canceling the process
+     * @param displayProgress boolean indicating whether the progress of this
+     * method should be displayed on the waiting handler
+     * @param nThreads the number of threads to use to decode the objects
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interrogating the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the database
+     * @throws ClassNotFoundException exception thrown whenever the class of the
+     * object is not found when deserializing it.
+     * @throws java.lang.InterruptedException exception thrown whenever a
+     * threading issue occurred when interacting with the database
+     */
+    public void loadSpectrumMatches(String fileName, WaitingHandler waitingHandler, boolean displayProgress, int nThreads) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
         String testKey = Spectrum.getSpectrumKey(fileName, "test");
         String tableName = getSpectrumMatchTable(testKey);
-        objectsDB.loadObjects(tableName, waitingHandler, displayProgress);
+        objectsDB.loadObjects(tableName, waitingHandler, displayProgress, nThreads);
     }
 
     /**
@@ -833,6 +982,29 @@ public class IdentificationDB implements Serializable {
      * threading issue occurred when interacting with the database
      */
     public void loadSpectrumMatches(ArrayList<String> spectrumKeys, WaitingHandler waitingHandler, boolean displayProgress) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+        loadSpectrumMatches(spectrumKeys, waitingHandler, displayProgress, 1);
+    }
+
+    /**
+     * Loads all given spectrum matches in the cache of the database.
+     *
+     * @param spectrumKeys the key of the spectrum matches to be loaded
+     * @param waitingHandler the waiting handler allowing displaying progress
+     * and canceling the process
+     * @param displayProgress boolean indicating whether the progress of this
+     * method should be displayed on the waiting handler
+     * @param nThreads the number of threads to use to decode the objects
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interrogating the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the database
+     * @throws ClassNotFoundException exception thrown whenever the class of the
+     * object is not found when deserializing it.
+     * @throws java.lang.InterruptedException exception thrown whenever a
+     * threading issue occurred when interacting with the database
+     */
+    public void loadSpectrumMatches(ArrayList<String> spectrumKeys, WaitingHandler waitingHandler, boolean displayProgress, int nThreads) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
         if (waitingHandler != null && displayProgress) {
             waitingHandler.setSecondaryProgressCounterIndeterminate(false);
             waitingHandler.setSecondaryProgressCounter(0);
@@ -855,7 +1027,7 @@ public class IdentificationDB implements Serializable {
             }
         }
         for (String tableName : sortedKeys.keySet()) {
-            objectsDB.loadObjects(tableName, sortedKeys.get(tableName), waitingHandler, displayProgress);
+            objectsDB.loadObjects(tableName, sortedKeys.get(tableName), waitingHandler, displayProgress, nThreads);
         }
     }
 
@@ -949,7 +1121,29 @@ public class IdentificationDB implements Serializable {
      * threading issue occurred when interacting with the database
      */
     public void loadPeptideMatches(WaitingHandler waitingHandler, boolean displayProgress) throws SQLException, IOException, ClassNotFoundException, InterruptedException, InterruptedException {
-        objectsDB.loadObjects(peptideTableName, waitingHandler, displayProgress);
+        loadPeptideMatches(waitingHandler, displayProgress, 1);
+    }
+
+    /**
+     * Loads all peptide matches in the cache of the database.
+     *
+     * @param waitingHandler the waiting handler allowing displaying progress
+     * and canceling the process
+     * @param displayProgress boolean indicating whether the progress of this
+     * method should be displayed on the waiting handler
+     * @param nThreads the number of threads to use to decode the objects
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interrogating the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the database
+     * @throws ClassNotFoundException exception thrown whenever the class of the
+     * object is not found when deserializing it.
+     * @throws java.lang.InterruptedException exception thrown whenever a
+     * threading issue occurred when interacting with the database
+     */
+    public void loadPeptideMatches(WaitingHandler waitingHandler, boolean displayProgress, int nThreads) throws SQLException, IOException, ClassNotFoundException, InterruptedException, InterruptedException {
+        objectsDB.loadObjects(peptideTableName, waitingHandler, displayProgress, nThreads);
     }
 
     /**
@@ -972,12 +1166,36 @@ public class IdentificationDB implements Serializable {
      * threading issue occurred when interacting with the database
      */
     public void loadPeptideMatches(ArrayList<String> peptideKeys, WaitingHandler waitingHandler, boolean displayProgress) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+        loadPeptideMatches(peptideKeys, waitingHandler, displayProgress, 1);
+    }
+
+    /**
+     * Loads the desired peptide matches of the given type in the cache of the
+     * database.
+     *
+     * @param peptideKeys the list of peptide keys to load
+     * @param waitingHandler the waiting handler allowing displaying progress
+     * and canceling the process
+     * @param displayProgress boolean indicating whether the progress of this
+     * method should be displayed on the waiting handler
+     * @param nThreads the number of threads to use to decode the objects
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interrogating the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the database
+     * @throws ClassNotFoundException exception thrown whenever the class of the
+     * object is not found when deserializing it.
+     * @throws java.lang.InterruptedException exception thrown whenever a
+     * threading issue occurred when interacting with the database
+     */
+    public void loadPeptideMatches(ArrayList<String> peptideKeys, WaitingHandler waitingHandler, boolean displayProgress, int nThreads) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
         if (waitingHandler != null && displayProgress) {
             waitingHandler.setSecondaryProgressCounterIndeterminate(false);
             waitingHandler.setSecondaryProgressCounter(0);
             waitingHandler.setMaxSecondaryProgressCounter(peptideKeys.size());
         }
-        objectsDB.loadObjects(peptideTableName, peptideKeys, waitingHandler, displayProgress);
+        objectsDB.loadObjects(peptideTableName, peptideKeys, waitingHandler, displayProgress, nThreads);
     }
 
     /**
@@ -0,0 +1,36 @@
+package com.compomics.util.experiment.identification.codec;
+
+import com.compomics.util.db.codec.BlobInput;
+import com.compomics.util.db.codec.BlobOutput;
+import com.compomics.util.db.codec.ObjectCodec;
+import com.compomics.util.experiment.massspectrometry.Charge;
+import java.io.IOException;
+
+/**
+ * Codec for charges.
+ *
+ * @author Marc Vaudel
+ */
+public class ChargeCodec implements ObjectCodec<Charge> {
+
+    @Override
+    public int getVersion() {
+        return 1;
+    }
+
+    @Override
+    public void write(Charge charge, BlobOutput output) throws IOException {
+        output.writeSignedVarInt(charge.sign);
+        output.writeSignedVarInt(charge.value);
+        IdentificationCodecs.writeUrParams(charge, output);
+    }
+
+    @Override
+    public Charge read(BlobInput input, int version) throws IOException, ClassNotFoundException {
+        int sign = input.readSignedVarInt();
+        int value = input.readSignedVarInt();
+        Charge charge = new Charge(sign, value);
+        IdentificationCodecs.readUrParams(charge, input);
+        return charge;
+    }
+}
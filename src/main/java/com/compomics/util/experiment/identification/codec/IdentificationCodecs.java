@@ -0,0 +1,152 @@
+package com.compomics.util.experiment.identification.codec;
+
+import com.compomics.util.db.codec.BlobCodec;
+import com.compomics.util.db.codec.BlobInput;
+import com.compomics.util.db.codec.BlobOutput;
+import com.compomics.util.db.codec.ObjectCodec;
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import com.compomics.util.experiment.identification.matches.PeptideMatch;
+import com.compomics.util.experiment.identification.matches.ProteinMatch;
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import com.compomics.util.experiment.massspectrometry.Charge;
+import com.compomics.util.experiment.personalization.ExperimentObject;
+import com.compomics.util.experiment.personalization.UrParameter;
+import java.io.IOException;
+import java.util.HashMap;
+
+/**
+ * Registration of the codecs of the identification objects. The type
+ * identifiers are stored in the database and must never change.
+ *
+ * @author Marc Vaudel
+ */
+public class IdentificationCodecs {
+
+    /**
+     * The type identifier of the charges.
+     */
+    public static final int CHARGE = 1;
+    /**
+     * The type identifier of the modification matches.
+     */
+    public static final int MODIFICATION_MATCH = 2;
+    /**
+     * The type identifier of the peptides.
+     */
+    public static final int PEPTIDE = 3;
+    /**
+     * The type identifier of the peptide assumptions.
+     */
+    public static final int PEPTIDE_ASSUMPTION = 4;
+    /**
+     * The type identifier of the spectrum matches.
+     */
+    public static final int SPECTRUM_MATCH = 5;
+    /**
+     * The type identifier of the peptide matches.
+     */
+    public static final int PEPTIDE_MATCH = 6;
+    /**
+     * The type identifier of the protein matches.
+     */
+    public static final int PROTEIN_MATCH = 7;
+
+    /**
+     * Empty default constructor.
+     */
+    private IdentificationCodecs() {
+    }
+
+    /**
+     * Registers the codecs of the identification objects to the given blob
+     * codec.
+     *
+     * @param blobCodec the blob codec
+     */
+    public static void registerCodecs(BlobCodec blobCodec) {
+        blobCodec.registerCodec(CHARGE, Charge.class, new ChargeCodec());
+        blobCodec.registerCodec(MODIFICATION_MATCH, ModificationMatch.class, new ModificationMatchCodec());
+        blobCodec.registerCodec(PEPTIDE, Peptide.class, new PeptideCodec());
+        blobCodec.registerCodec(PEPTIDE_ASSUMPTION, PeptideAssumption.class, new PeptideAssumptionCodec());
+        blobCodec.registerCodec(SPECTRUM_MATCH, SpectrumMatch.class, new SpectrumMatchCodec());
+        blobCodec.registerCodec(PEPTIDE_MATCH, PeptideMatch.class, new PeptideMatchCodec());
+        blobCodec.registerCodec(PROTEIN_MATCH, ProteinMatch.class, new ProteinMatchCodec());
+    }
+
+    /**
+     * Writes the version of a codec used for an object nested in another
+     * object, so that the nested encoding can evolve independently from the
+     * encoding of the enclosing object.
+     *
+     * @param codec the codec of the nested object
+     * @param output the output where to write
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the version
+     */
+    static void writeNestedVersion(ObjectCodec<?> codec, BlobOutput output) throws IOException {
+        output.writeVarInt(codec.getVersion());
+    }
+
+    /**
+     * Reads the version of a codec used for a nested object as written by
+     * writeNestedVersion.
+     *
+     * @param codec the codec of the nested object
+     * @param input the input where to read from
+     *
+     * @return the version of the encoding of the nested object
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the version or if the version is not supported by the codec
+     */
+    static int readNestedVersion(ObjectCodec<?> codec, BlobInput input) throws IOException {
+        int version = input.readVarInt();
+        if (version > codec.getVersion()) {
+            throw new IOException("Version " + version + " of " + codec.getClass().getSimpleName() + " not supported.");
+        }
+        return version;
+    }
+
+    /**
+     * Writes the user refinement parameters of an object. The parameters are
+     * written using their registered codec, Java serialization otherwise.
+     *
+     * @param experimentObject the object
+     * @param output the output where to write
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing a parameter
+     */
+    static void writeUrParams(ExperimentObject experimentObject, BlobOutput output) throws IOException {
+        HashMap<String, UrParameter> urParams = experimentObject.getUrParams();
+        if (urParams == null) {
+            output.writeVarInt(0);
+        } else {
+            output.writeVarInt(urParams.size() + 1);
+            for (UrParameter urParameter : urParams.values()) {
+                output.writeObject(urParameter);
+            }
+        }
+    }
+
+    /**
+     * Reads the user refinement parameters of an object.
+     *
+     * @param experimentObject the object
+     * @param input the input where to read from
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading a parameter
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing a parameter
+     */
+    static void readUrParams(ExperimentObject experimentObject, BlobInput input) throws IOException, ClassNotFoundException {
+        int size = input.readVarInt() - 1;
+        for (int i = 0; i < size; i++) {
+            experimentObject.addUrParam((UrParameter) input.readObject());
+        }
+    }
+}
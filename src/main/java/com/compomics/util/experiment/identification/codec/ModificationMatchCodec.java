@@ -0,0 +1,43 @@
+package com.compomics.util.experiment.identification.codec;
+
+import com.compomics.util.db.codec.BlobInput;
+import com.compomics.util.db.codec.BlobOutput;
+import com.compomics.util.db.codec.ObjectCodec;
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import java.io.IOException;
+
+/**
+ * Codec for modification matches.
+ *
+ * @author Marc Vaudel
+ */
+public class ModificationMatchCodec implements ObjectCodec<ModificationMatch> {
+
+    @Override
+    public int getVersion() {
+        return 1;
+    }
+
+    @Override
+    public void write(ModificationMatch modificationMatch, BlobOutput output) throws IOException {
+        output.writeString(modificationMatch.getTheoreticPtm());
+        output.writeSignedVarInt(modificationMatch.getModificationSite());
+        int flags = (modificationMatch.isVariable() ? 1 : 0)
+                | (modificationMatch.isConfident() ? 2 : 0)
+                | (modificationMatch.isInferred() ? 4 : 0);
+        output.writeByte(flags);
+        IdentificationCodecs.writeUrParams(modificationMatch, output);
+    }
+
+    @Override
+    public ModificationMatch read(BlobInput input, int version) throws IOException, ClassNotFoundException {
+        String theoreticPtm = input.readString();
+        int site = input.readSignedVarInt();
+        int flags = input.readByte();
+        ModificationMatch modificationMatch = new ModificationMatch(theoreticPtm, (flags & 1) != 0, site);
+        modificationMatch.setConfident((flags & 2) != 0);
+        modificationMatch.setInferred((flags & 4) != 0);
+        IdentificationCodecs.readUrParams(modificationMatch, input);
+        return modificationMatch;
+    }
+}
@@ -0,0 +1,102 @@
+package com.compomics.util.experiment.identification.codec;
+
+import com.compomics.util.db.codec.BlobInput;
+import com.compomics.util.db.codec.BlobOutput;
+import com.compomics.util.db.codec.ObjectCodec;
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import com.compomics.util.experiment.massspectrometry.Charge;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Codec for peptide assumptions.
+ *
+ * @author Marc Vaudel
+ */
+public class PeptideAssumptionCodec implements ObjectCodec<PeptideAssumption> {
+
+    /**
+     * The codec used for the peptides.
+     */
+    private final PeptideCodec peptideCodec = new PeptideCodec();
+    /**
+     * The codec used for the charges.
+     */
+    private final ChargeCodec chargeCodec = new ChargeCodec();
+
+    @Override
+    public int getVersion() {
+        return 1;
+    }
+
+    @Override
+    public void write(PeptideAssumption peptideAssumption, BlobOutput output) throws IOException {
+
+        IdentificationCodecs.writeNestedVersion(peptideCodec, output);
+        peptideCodec.write(peptideAssumption.getPeptide(), output);
+        output.writeSignedVarInt(peptideAssumption.getRank());
+        output.writeSignedVarInt(peptideAssumption.getAdvocate());
+
+        Charge charge = peptideAssumption.getIdentificationCharge();
+        output.writeBoolean(charge != null);
+        if (charge != null) {
+            IdentificationCodecs.writeNestedVersion(chargeCodec, output);
+            chargeCodec.write(charge, output);
+        }
+
+        output.writeNullableDouble(peptideAssumption.getScore());
+        output.writeString(peptideAssumption.getIdentificationFile());
+        output.writeNullableDouble(peptideAssumption.getRawScore());
+
+        ArrayList<double[]> aminoAcidScores = peptideAssumption.getAminoAcidScores();
+        if (aminoAcidScores == null) {
+            output.writeVarInt(0);
+        } else {
+            output.writeVarInt(aminoAcidScores.size() + 1);
+            for (double[] scores : aminoAcidScores) {
+                output.writeVarInt(scores.length);
+                for (double score : scores) {
+                    output.writeDouble(score);
+                }
+            }
+        }
+
+        IdentificationCodecs.writeUrParams(peptideAssumption, output);
+    }
+
+    @Override
+    public PeptideAssumption read(BlobInput input, int version) throws IOException, ClassNotFoundException {
+
+        int peptideVersion = IdentificationCodecs.readNestedVersion(peptideCodec, input);
+        Peptide peptide = peptideCodec.read(input, peptideVersion);
+        int rank = input.readSignedVarInt();
+        int advocate = input.readSignedVarInt();
+        Charge charge = null;
+        if (input.readBoolean()) {
+            int chargeVersion = IdentificationCodecs.readNestedVersion(chargeCodec, input);
+            charge = chargeCodec.read(input, chargeVersion);
+        }
+        Double score = input.readNullableDouble();
+        String identificationFile = input.readString();
+
+        PeptideAssumption peptideAssumption = new PeptideAssumption(peptide, rank, advocate, charge, score, identificationFile);
+        peptideAssumption.setRawScore(input.readNullableDouble());
+
+        int nAminoAcidScores = input.readVarInt() - 1;
+        if (nAminoAcidScores >= 0) {
+            ArrayList<double[]> aminoAcidScores = new ArrayList<double[]>(nAminoAcidScores);
+            for (int i = 0; i < nAminoAcidScores; i++) {
+                double[] scores = new double[input.readVarInt()];
+                for (int j = 0; j < scores.length; j++) {
+                    scores[j] = input.readDouble();
+                }
+                aminoAcidScores.add(scores);
+            }
+            peptideAssumption.setAminoAcidScores(aminoAcidScores);
+        }
+
+        IdentificationCodecs.readUrParams(peptideAssumption, input);
+        return peptideAssumption;
+    }
+}
@@ -0,0 +1,70 @@
+package com.compomics.util.experiment.identification.codec;
+
+import com.compomics.util.db.codec.BlobInput;
+import com.compomics.util.db.codec.BlobOutput;
+import com.compomics.util.db.codec.ObjectCodec;
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import com.compomics.util.experiment.identification.matches.VariantMatch;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Codec for peptides. The values cached by the peptide, like its keys and
+ * mass, are not stored and are computed again when needed.
+ *
+ * @author Marc Vaudel
+ */
+public class PeptideCodec implements ObjectCodec<Peptide> {
+
+    /**
+     * The codec used for the modification matches.
+     */
+    private final ModificationMatchCodec modificationMatchCodec = new ModificationMatchCodec();
+
+    @Override
+    public int getVersion() {
+        return 1;
+    }
+
+    @Override
+    public void write(Peptide peptide, BlobOutput output) throws IOException {
+        output.writeString(peptide.getSequence());
+        ArrayList<ModificationMatch> modificationMatches = peptide.getModificationMatches();
+        if (modificationMatches == null) {
+            output.writeVarInt(0);
+        } else {
+            output.writeVarInt(modificationMatches.size() + 1);
+            IdentificationCodecs.writeNestedVersion(modificationMatchCodec, output);
+            for (ModificationMatch modificationMatch : modificationMatches) {
+                modificationMatchCodec.write(modificationMatch, output);
+            }
+        }
+        output.writeStrings(peptide.getParentProteinsNoRemapping());
+        output.writeObject(peptide.getVariantMatches());
+        IdentificationCodecs.writeUrParams(peptide, output);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Peptide read(BlobInput input, int version) throws IOException, ClassNotFoundException {
+        String sequence = input.readString();
+        int nModifications = input.readVarInt() - 1;
+        ArrayList<ModificationMatch> modificationMatches = null;
+        if (nModifications >= 0) {
+            modificationMatches = new ArrayList<ModificationMatch>(nModifications);
+            int modificationMatchVersion = IdentificationCodecs.readNestedVersion(modificationMatchCodec, input);
+            for (int i = 0; i < nModifications; i++) {
+                modificationMatches.add(modificationMatchCodec.read(input, modificationMatchVersion));
+            }
+        }
+        Peptide peptide = new Peptide(sequence, modificationMatches);
+        ArrayList<String> parentProteins = input.readStrings();
+        if (parentProteins != null) {
+            peptide.setParentProteins(parentProteins);
+        }
+        peptide.setVariantMatches((ArrayList<VariantMatch>) input.readObject());
+        IdentificationCodecs.readUrParams(peptide, input);
+        return peptide;
+    }
+}
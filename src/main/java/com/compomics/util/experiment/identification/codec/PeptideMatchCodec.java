@@ -0,0 +1,43 @@
+package com.compomics.util.experiment.identification.codec;
+
+import com.compomics.util.db.codec.BlobInput;
+import com.compomics.util.db.codec.BlobOutput;
+import com.compomics.util.db.codec.ObjectCodec;
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.matches.PeptideMatch;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Codec for peptide matches.
+ *
+ * @author Marc Vaudel
+ */
+public class PeptideMatchCodec implements ObjectCodec<PeptideMatch> {
+
+    @Override
+    public int getVersion() {
+        return 1;
+    }
+
+    @Override
+    public void write(PeptideMatch peptideMatch, BlobOutput output) throws IOException {
+        output.writeString(peptideMatch.getKey());
+        output.writeObject(peptideMatch.getTheoreticPeptide());
+        output.writeStrings(peptideMatch.getSpectrumMatchesKeys());
+        IdentificationCodecs.writeUrParams(peptideMatch, output);
+    }
+
+    @Override
+    public PeptideMatch read(BlobInput input, int version) throws IOException, ClassNotFoundException {
+        PeptideMatch peptideMatch = new PeptideMatch();
+        peptideMatch.setKey(input.readString());
+        peptideMatch.setTheoreticPeptide((Peptide) input.readObject());
+        ArrayList<String> spectrumMatchesKeys = input.readStrings();
+        if (spectrumMatchesKeys != null) {
+            peptideMatch.getSpectrumMatchesKeys().addAll(spectrumMatchesKeys);
+        }
+        IdentificationCodecs.readUrParams(peptideMatch, input);
+        return peptideMatch;
+    }
+}
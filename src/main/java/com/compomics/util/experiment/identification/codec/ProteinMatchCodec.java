@@ -0,0 +1,45 @@
+package com.compomics.util.experiment.identification.codec;
+
+import com.compomics.util.db.codec.BlobInput;
+import com.compomics.util.db.codec.BlobOutput;
+import com.compomics.util.db.codec.ObjectCodec;
+import com.compomics.util.experiment.identification.matches.ProteinMatch;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Codec for protein matches.
+ *
+ * @author Marc Vaudel
+ */
+public class ProteinMatchCodec implements ObjectCodec<ProteinMatch> {
+
+    @Override
+    public int getVersion() {
+        return 1;
+    }
+
+    @Override
+    public void write(ProteinMatch proteinMatch, BlobOutput output) throws IOException {
+        output.writeStrings(proteinMatch.getTheoreticProteinsAccessions());
+        output.writeString(proteinMatch.getMainMatch());
+        output.writeStrings(proteinMatch.getPeptideMatchesKeys());
+        IdentificationCodecs.writeUrParams(proteinMatch, output);
+    }
+
+    @Override
+    public ProteinMatch read(BlobInput input, int version) throws IOException, ClassNotFoundException {
+        ProteinMatch proteinMatch = new ProteinMatch();
+        ArrayList<String> accessions = input.readStrings();
+        if (accessions != null) {
+            proteinMatch.getTheoreticProteinsAccessions().addAll(accessions);
+        }
+        proteinMatch.setMainMatch(input.readString());
+        ArrayList<String> peptideMatchesKeys = input.readStrings();
+        if (peptideMatchesKeys != null) {
+            proteinMatch.setPeptideKeys(peptideMatchesKeys);
+        }
+        IdentificationCodecs.readUrParams(proteinMatch, input);
+        return proteinMatch;
+    }
+}
@@ -0,0 +1,154 @@
+package com.compomics.util.experiment.identification.codec;
+
+import com.compomics.util.db.codec.BlobInput;
+import com.compomics.util.db.codec.BlobOutput;
+import com.compomics.util.db.codec.ObjectCodec;
+import com.compomics.util.experiment.identification.SpectrumIdentificationAssumption;
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import com.compomics.util.experiment.identification.spectrum_assumptions.TagAssumption;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Codec for spectrum matches. The best assumptions are written as a
+ * reference when they are also in the assumptions map, so that they remain
+ * the same instances once read as with Java serialization.
+ *
+ * @author Marc Vaudel
+ */
+public class SpectrumMatchCodec implements ObjectCodec<SpectrumMatch> {
+
+    @Override
+    public int getVersion() {
+        return 1;
+    }
+
+    @Override
+    public void write(SpectrumMatch spectrumMatch, BlobOutput output) throws IOException {
+
+        output.writeString(spectrumMatch.getKey());
+
+        Integer spectrumNumber = spectrumMatch.getSpectrumNumber();
+        output.writeBoolean(spectrumNumber != null);
+        if (spectrumNumber != null) {
+            output.writeSignedVarInt(spectrumNumber);
+        }
+
+        ArrayList<SpectrumIdentificationAssumption> written = new ArrayList<SpectrumIdentificationAssumption>();
+        HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptionsMap = spectrumMatch.getAssumptionsMap();
+        if (assumptionsMap == null) {
+            output.writeVarInt(0);
+        } else {
+            output.writeVarInt(assumptionsMap.size() + 1);
+            for (Map.Entry<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> advocateEntry : assumptionsMap.entrySet()) {
+                output.writeSignedVarInt(advocateEntry.getKey());
+                HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocateMap = advocateEntry.getValue();
+                output.writeVarInt(advocateMap.size());
+                for (Map.Entry<Double, ArrayList<SpectrumIdentificationAssumption>> scoreEntry : advocateMap.entrySet()) {
+                    output.writeNullableDouble(scoreEntry.getKey());
+                    ArrayList<SpectrumIdentificationAssumption> assumptions = scoreEntry.getValue();
+                    output.writeVarInt(assumptions.size());
+                    for (SpectrumIdentificationAssumption assumption : assumptions) {
+                        output.writeObject(assumption);
+                        written.add(assumption);
+                    }
+                }
+            }
+        }
+
+        writeAssumption(spectrumMatch.getBestPeptideAssumption(), written, output);
+        writeAssumption(spectrumMatch.getBestTagAssumption(), written, output);
+        IdentificationCodecs.writeUrParams(spectrumMatch, output);
+    }
+
+    @Override
+    public SpectrumMatch read(BlobInput input, int version) throws IOException, ClassNotFoundException {
+
+        SpectrumMatch spectrumMatch = new SpectrumMatch(input.readString());
+
+        if (input.readBoolean()) {
+            spectrumMatch.setSpectrumNumber(input.readSignedVarInt());
+        }
+
+        ArrayList<SpectrumIdentificationAssumption> read = new ArrayList<SpectrumIdentificationAssumption>();
+        int nAdvocates = input.readVarInt() - 1;
+        if (nAdvocates >= 0) {
+            HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptionsMap
+                    = new HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>>(Math.max(nAdvocates, 1));
+            for (int i = 0; i < nAdvocates; i++) {
+                int advocate = input.readSignedVarInt();
+                int nScores = input.readVarInt();
+                HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocateMap = new HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>(Math.max(nScores, 1));
+                for (int j = 0; j < nScores; j++) {
+                    Double score = input.readNullableDouble();
+                    int nAssumptions = input.readVarInt();
+                    ArrayList<SpectrumIdentificationAssumption> assumptions = new ArrayList<SpectrumIdentificationAssumption>(nAssumptions);
+                    for (int k = 0; k < nAssumptions; k++) {
+                        SpectrumIdentificationAssumption assumption = (SpectrumIdentificationAssumption) input.readObject();
+                        assumptions.add(assumption);
+                        read.add(assumption);
+                    }
+                    advocateMap.put(score, assumptions);
+                }
+                assumptionsMap.put(advocate, advocateMap);
+            }
+            spectrumMatch.setAssumptionsMap(assumptionsMap);
+        }
+
+        spectrumMatch.setBestPeptideAssumption((PeptideAssumption) readAssumption(read, input));
+        spectrumMatch.setBestTagAssumption((TagAssumption) readAssumption(read, input));
+        IdentificationCodecs.readUrParams(spectrumMatch, input);
+
+        return spectrumMatch;
+    }
+
+    /**
+     * Writes an assumption, as a reference if it was already written.
+     *
+     * @param assumption the assumption to write
+     * @param written the assumptions already written
+     * @param output the output where to write
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the assumption
+     */
+    private void writeAssumption(SpectrumIdentificationAssumption assumption, ArrayList<SpectrumIdentificationAssumption> written, BlobOutput output) throws IOException {
+        if (assumption != null) {
+            for (int i = 0; i < written.size(); i++) {
+                if (written.get(i) == assumption) {
+                    output.writeVarInt(i + 1);
+                    return;
+                }
+            }
+        }
+        output.writeVarInt(0);
+        output.writeObject(assumption);
+    }
+
+    /**
+     * Reads an assumption written using writeAssumption.
+     *
+     * @param read the assumptions already read
+     * @param input the input where to read from
+     *
+     * @return the assumption
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the assumption
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing the assumption
+     */
+    private SpectrumIdentificationAssumption readAssumption(ArrayList<SpectrumIdentificationAssumption> read, BlobInput input) throws IOException, ClassNotFoundException {
+        int reference = input.readVarInt();
+        if (reference > 0) {
+            if (reference > read.size()) {
+                throw new IOException("Reference to assumption " + reference + " out of " + read.size() + ".");
+            }
+            return read.get(reference - 1);
+        }
+        return (SpectrumIdentificationAssumption) input.readObject();
+    }
+}
@@ -2,12 +2,16 @@ package com.compomics.util.experiment.identification.matches_iterators;
 
 import com.compomics.util.experiment.identification.Identification;
 import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.experiment.massspectrometry.Spectrum;
+import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
+import com.compomics.util.experiment.massspectrometry.SpectrumPrefetcher;
 import com.compomics.util.experiment.personalization.UrParameter;
 import com.compomics.util.waiting.WaitingHandler;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.concurrent.Semaphore;
+import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
 
 /**
  * An iterator for spectrum matches.
@@ -75,6 +79,10 @@ public class PsmIterator {
      * The waiting handler.
      */
     private WaitingHandler waitingHandler;
+    /**
+     * The prefetcher of the spectra, null if the spectra are not prefetched.
+     */
+    private SpectrumPrefetcher spectrumPrefetcher = null;
 
     /**
      * Constructor.
@@ -228,6 +236,9 @@ public class PsmIterator {
     public SpectrumMatch next() throws SQLException, IOException, ClassNotFoundException, InterruptedException {
         int threadIndex = incrementIndex();
         if (threadIndex < nMatches) {
+            if (spectrumPrefetcher != null) {
+                spectrumPrefetcher.setPosition(threadIndex);
+            }
             checkBuffer();
             String key = spectrumKeys.get(threadIndex);
             SpectrumMatch match = identification.getSpectrumMatch(key);
@@ -328,6 +339,68 @@ public class PsmIterator {
         return localIndex;
     }
 
+    /**
+     * Starts reading the spectra of the matches ahead of the iteration on a
+     * background thread using the default window size. The spectra should
+     * then be retrieved using getSpectrum. Must be called before iterating.
+     */
+    public void enableSpectrumPrefetching() {
+        enableSpectrumPrefetching(SpectrumPrefetcher.DEFAULT_WINDOW_SIZE, SpectrumPrefetcher.DEFAULT_WINDOWS_AHEAD);
+    }
+
+    /**
+     * Starts reading the spectra of the matches ahead of the iteration on a
+     * background thread. The spectra of a window of keys are read in the
+     * order of the spectrum files. The spectra should then be retrieved using
+     * getSpectrum. Must be called before iterating.
+     *
+     * @param windowSize the number of spectra per window
+     * @param windowsAhead the number of windows to read ahead of the
+     * iteration
+     */
+    public synchronized void enableSpectrumPrefetching(int windowSize, int windowsAhead) {
+        if (index != -1) {
+            throw new IllegalStateException("Spectrum prefetching must be enabled before iterating.");
+        }
+        if (spectrumPrefetcher == null) {
+            spectrumPrefetcher = new SpectrumPrefetcher(spectrumKeys, windowSize, windowsAhead);
+            spectrumPrefetcher.start();
+        }
+    }
+
+    /**
+     * Stops the prefetching of the spectra. Needs to be called if the
+     * iteration is stopped before the end.
+     */
+    public void stopSpectrumPrefetching() {
+        if (spectrumPrefetcher != null) {
+            spectrumPrefetcher.close();
+        }
+    }
+
+    /**
+     * Returns the spectrum of a match returned by this iterator. If spectrum
+     * prefetching is enabled the spectrum is taken from the prefetched
+     * spectra, otherwise it is read from the spectrum factory.
+     *
+     * @param spectrumKey the key of the spectrum
+     *
+     * @return the spectrum
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the spectrum file
+     * @throws MzMLUnmarshallerException exception thrown whenever an error
+     * occurred while parsing the mzML file
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while waiting for the spectrum
+     */
+    public Spectrum getSpectrum(String spectrumKey) throws IOException, MzMLUnmarshallerException, InterruptedException {
+        if (spectrumPrefetcher != null) {
+            return spectrumPrefetcher.getSpectrum(spectrumKey);
+        }
+        return SpectrumFactory.getInstance().getSpectrum(spectrumKey);
+    }
+
     /**
      * Set the batch size.
      *
@@ -0,0 +1,68 @@
+package com.compomics.util.experiment.identification.protein_inference;
+
+import com.compomics.util.experiment.identification.amino_acid_tags.Tag;
+import com.compomics.util.experiment.identification.amino_acid_tags.matchers.TagMatcher;
+import com.compomics.util.preferences.SequenceMatchingPreferences;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Collection;
+
+/**
+ * Interface for a peptide mapper able to map batches of peptides and tags.
+ *
+ * @author Marc Vaudel
+ * @author Dominik Kopczynski
+ */
+public interface BatchPeptideMapper extends PeptideMapper {
+
+    /**
+     * Maps a batch of peptide sequences and reports the mapping of every
+     * distinct sequence to the listener. The sequences are deduplicated and
+     * the order in which they are reported is not defined.
+     *
+     * @param peptideSequences the peptide sequences
+     * @param sequenceMatchingPreferences the sequence matching preferences
+     * @param listener the listener receiving the mappings, must be thread
+     * safe
+     * @param nThreads the number of threads to use
+     *
+     * @return the throughput statistics of the mapping
+     *
+     * @throws IOException exception thrown whenever an error occurs while
+     * reading or writing a file.
+     * @throws ClassNotFoundException exception thrown whenever an error occurs
+     * while deserializing an object.
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while mapping.
+     * @throws SQLException if an SQLException exception thrown whenever a
+     * problem occurred while interacting with the tree database.
+     */
+    public PeptideMappingStatistics getProteinMappings(Collection<String> peptideSequences, SequenceMatchingPreferences sequenceMatchingPreferences,
+            PeptideMappingListener<String> listener, int nThreads) throws IOException, InterruptedException, ClassNotFoundException, SQLException;
+
+    /**
+     * Maps a batch of tags and reports the mapping of every tag to the
+     * listener. The order in which the tags are reported is not defined.
+     *
+     * @param tags the tags
+     * @param tagMatcher the tag matcher to use
+     * @param sequenceMatchingPreferences the sequence matching preferences
+     * @param massTolerance the MS2 m/z tolerance
+     * @param listener the listener receiving the mappings, must be thread
+     * safe
+     * @param nThreads the number of threads to use
+     *
+     * @return the throughput statistics of the mapping
+     *
+     * @throws IOException exception thrown whenever an error occurs while
+     * reading or writing a file.
+     * @throws ClassNotFoundException exception thrown whenever an error occurs
+     * while deserializing an object.
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while mapping.
+     * @throws SQLException if an SQLException exception thrown whenever a
+     * problem occurred while interacting with the tree database.
+     */
+    public PeptideMappingStatistics getTagMappings(Collection<Tag> tags, TagMatcher tagMatcher, SequenceMatchingPreferences sequenceMatchingPreferences, Double massTolerance,
+            PeptideMappingListener<Tag> listener, int nThreads) throws IOException, InterruptedException, ClassNotFoundException, SQLException;
+}
@@ -0,0 +1,26 @@
+package com.compomics.util.experiment.identification.protein_inference;
+
+import java.util.ArrayList;
+
+/**
+ * Listener receiving the results of a batch peptide to protein mapping.
+ * Implementations must be thread safe as the mapping of different queries can
+ * be reported concurrently.
+ *
+ * @param <T> the type of query, e.g. a peptide sequence or a tag
+ *
+ * @author Dominik Kopczynski
+ */
+public interface PeptideMappingListener<T> {
+
+    /**
+     * Called when the mapping of a query is completed. Peptide sequences are
+     * reported once per distinct sequence, tags are reported once per tag
+     * object, identical tags receiving copies of the same mappings.
+     *
+     * @param query the query
+     * @param peptideProteinMappings the peptide to protein mappings found for
+     * the query, empty if none
+     */
+    public void mappingCompleted(T query, ArrayList<PeptideProteinMapping> peptideProteinMappings);
+}
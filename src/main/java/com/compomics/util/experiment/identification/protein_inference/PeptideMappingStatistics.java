@@ -0,0 +1,112 @@
+package com.compomics.util.experiment.identification.protein_inference;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput counters of a batch peptide to protein mapping.
+ *
+ * @author Dominik Kopczynski
+ */
+public class PeptideMappingStatistics {
+
+    /**
+     * The number of queries submitted.
+     */
+    private final AtomicLong nQueries = new AtomicLong();
+    /**
+     * The number of distinct queries mapped.
+     */
+    private final AtomicLong nDistinctQueries = new AtomicLong();
+    /**
+     * The number of peptide to protein mappings found.
+     */
+    private final AtomicLong nMappings = new AtomicLong();
+    /**
+     * The start time in nanoseconds.
+     */
+    private final long startTime = System.nanoTime();
+    /**
+     * The end time in nanoseconds, -1 while running.
+     */
+    private volatile long endTime = -1;
+
+    /**
+     * Adds submitted queries.
+     *
+     * @param n the number of queries
+     */
+    public void addQueries(long n) {
+        nQueries.addAndGet(n);
+    }
+
+    /**
+     * Registers the mapping of a distinct query.
+     *
+     * @param nQueryMappings the number of mappings found for the query
+     */
+    public void addMappedQuery(int nQueryMappings) {
+        nDistinctQueries.incrementAndGet();
+        nMappings.addAndGet(nQueryMappings);
+    }
+
+    /**
+     * Sets the end of the mapping.
+     */
+    public void setFinished() {
+        endTime = System.nanoTime();
+    }
+
+    /**
+     * Returns the number of queries submitted.
+     *
+     * @return the number of queries submitted
+     */
+    public long getnQueries() {
+        return nQueries.get();
+    }
+
+    /**
+     * Returns the number of distinct queries mapped so far.
+     *
+     * @return the number of distinct queries mapped so far
+     */
+    public long getnDistinctQueries() {
+        return nDistinctQueries.get();
+    }
+
+    /**
+     * Returns the number of peptide to protein mappings found so far.
+     *
+     * @return the number of peptide to protein mappings found so far
+     */
+    public long getnMappings() {
+        return nMappings.get();
+    }
+
+    /**
+     * Returns the time elapsed since the start of the mapping, until its end
+     * if finished.
+     *
+     * @return the elapsed time in seconds
+     */
+    public double getElapsedTime() {
+        long end = endTime == -1 ? System.nanoTime() : endTime;
+        return (end - startTime) / 1e9;
+    }
+
+    /**
+     * Returns the number of distinct queries mapped per second.
+     *
+     * @return the number of distinct queries mapped per second
+     */
+    public double getThroughput() {
+        double elapsedTime = getElapsedTime();
+        return elapsedTime > 0 ? nDistinctQueries.get() / elapsedTime : 0;
+    }
+
+    @Override
+    public String toString() {
+        return getnQueries() + " queries (" + getnDistinctQueries() + " distinct) yielding " + getnMappings() + " protein mappings in "
+                + getElapsedTime() + " seconds (" + ((long) getThroughput()) + " queries/s)";
+    }
+}
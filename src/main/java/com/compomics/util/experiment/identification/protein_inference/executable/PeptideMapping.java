@@ -9,8 +9,10 @@ import com.compomics.util.experiment.identification.amino_acid_tags.TagComponent
 import com.compomics.util.experiment.identification.amino_acid_tags.matchers.TagMatcher;
 import com.compomics.util.experiment.identification.identification_parameters.PtmSettings;
 import com.compomics.util.experiment.identification.identification_parameters.SearchParameters;
-import com.compomics.util.experiment.identification.protein_inference.PeptideMapper;
+import com.compomics.util.experiment.identification.protein_inference.BatchPeptideMapper;
 import com.compomics.util.experiment.identification.protein_inference.PeptideMapperType;
+import com.compomics.util.experiment.identification.protein_inference.PeptideMappingListener;
+import com.compomics.util.experiment.identification.protein_inference.PeptideMappingStatistics;
 import com.compomics.util.experiment.identification.protein_inference.PeptideProteinMapping;
 import com.compomics.util.experiment.identification.protein_inference.fm_index.FMIndex;
 import com.compomics.util.experiment.identification.protein_inference.proteintree.ProteinTree;
@@ -22,6 +24,9 @@ import com.compomics.util.preferences.SequenceMatchingPreferences;
 import java.io.File;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.regex.Pattern;
 import java.io.BufferedReader;
 import java.io.FileReader;
@@ -101,9 +106,10 @@ public class PeptideMapping {
 
         System.err.println("Start indexing proteome");
         long startTimeIndex = System.nanoTime();
-        PeptideMapper peptideMapper = null;
+        int nThreads = Math.max(Runtime.getRuntime().availableProcessors(), 1);
+        BatchPeptideMapper peptideMapper = null;
         if (peptideMapperType == PeptideMapperType.fm_index) {
-            peptideMapper = new FMIndex(waitingHandlerCLIImpl, true, peptideVariantsPreferences, searchParameters);
+            peptideMapper = new FMIndex(waitingHandlerCLIImpl, true, peptideVariantsPreferences, searchParameters, nThreads, sequenceMatchingPreferences.isFmIndexLargeText());
         } else {
             try {
                 peptideMapper = new ProteinTree(1000, 1000);
@@ -139,35 +145,42 @@ public class PeptideMapping {
                 System.err.println("Error: cound not open input list");
                 System.exit(-1);
             }
+            // the mappings are reported once per distinct peptide
             waitingHandlerCLIImpl.setSecondaryProgressCounterIndeterminate(false);
-            waitingHandlerCLIImpl.setMaxSecondaryProgressCounter(peptides.size());
+            waitingHandlerCLIImpl.setMaxSecondaryProgressCounter(new HashSet<String>(peptides).size());
             waitingHandlerCLIImpl.setSecondaryProgressCounter(0);
-            ArrayList<PeptideProteinMapping> allPeptideProteinMappings = new ArrayList<PeptideProteinMapping>();
+            final HashMap<String, ArrayList<PeptideProteinMapping>> peptideMappings = new HashMap<String, ArrayList<PeptideProteinMapping>>(peptides.size());
+            final WaitingHandlerCLIImpl mappingWaitingHandler = waitingHandlerCLIImpl;
 
             // starting the mapping
             try {
-                long startTimeMapping = System.nanoTime();
-                for (int i = 0; i < peptides.size(); ++i) {
-                    String peptide = peptides.get(i);
-                    waitingHandlerCLIImpl.increaseSecondaryProgressCounter();
-                    ArrayList<PeptideProteinMapping> peptideProteinMappings = peptideMapper.getProteinMapping(peptide, sequenceMatchingPreferences);
-                    allPeptideProteinMappings.addAll(peptideProteinMappings);
-                }
-                long diffTimeMapping = System.nanoTime() - startTimeMapping;
+                PeptideMappingStatistics statistics = peptideMapper.getProteinMappings(peptides, sequenceMatchingPreferences, new PeptideMappingListener<String>() {
+                    @Override
+                    public synchronized void mappingCompleted(String peptide, ArrayList<PeptideProteinMapping> peptideProteinMappings) {
+                        mappingWaitingHandler.increaseSecondaryProgressCounter();
+                        peptideMappings.put(peptide, peptideProteinMappings);
+                    }
+                }, nThreads);
                 System.err.println();
-                System.err.println("Mapping " + peptides.size() + " peptides took " + (diffTimeMapping / 1e9) + " seconds");
+                System.err.println("Mapping " + statistics);
             } catch (Exception e) {
                 System.err.println("Error: mapping went wrong for unknown reasons");
                 System.exit(-1);
             }
 
+            // write the mappings in the order of the input
             try {
                 PrintWriter writer = new PrintWriter(args[3], "UTF-8");
-                for (PeptideProteinMapping peptideProteinMapping : allPeptideProteinMappings) {
-                    String peptide = peptideProteinMapping.getPeptideSequence();
-                    String accession = peptideProteinMapping.getProteinAccession();
-                    int startIndex = peptideProteinMapping.getIndex();
-                    writer.println(peptide + "," + accession + "," + startIndex);
+                for (String inputPeptide : peptides) {
+                    ArrayList<PeptideProteinMapping> peptideProteinMappings = peptideMappings.get(inputPeptide);
+                    if (peptideProteinMappings != null) {
+                        for (PeptideProteinMapping peptideProteinMapping : peptideProteinMappings) {
+                            String peptide = peptideProteinMapping.getPeptideSequence();
+                            String accession = peptideProteinMapping.getProteinAccession();
+                            int startIndex = peptideProteinMapping.getIndex();
+                            writer.println(peptide + "," + accession + "," + startIndex);
+                        }
+                    }
                 }
                 writer.close();
             } catch (Exception e) {
@@ -176,7 +189,6 @@ public class PeptideMapping {
             }
         } else {
             ArrayList<Tag> tags = new ArrayList<Tag>();
-            ArrayList<Integer> tagIndexes = new ArrayList<Integer>();
             try {
                 String line = "";
                 BufferedReader br = new BufferedReader(new FileReader(args[2]));
@@ -206,7 +218,8 @@ public class PeptideMapping {
             waitingHandlerCLIImpl.setSecondaryProgressCounterIndeterminate(false);
             waitingHandlerCLIImpl.setMaxSecondaryProgressCounter(tags.size());
             waitingHandlerCLIImpl.setSecondaryProgressCounter(0);
-            ArrayList<PeptideProteinMapping> allPeptideProteinMappings = new ArrayList<PeptideProteinMapping>();
+            final IdentityHashMap<Tag, ArrayList<PeptideProteinMapping>> tagMappings = new IdentityHashMap<Tag, ArrayList<PeptideProteinMapping>>(tags.size());
+            final WaitingHandlerCLIImpl mappingWaitingHandler = waitingHandlerCLIImpl;
 
             // starting the mapping
             try {
@@ -216,41 +229,43 @@ public class PeptideMapping {
 
                 TagMatcher tagMatcher = new TagMatcher(fixedModifications, variableModifications, sequenceMatchingPreferences);
 
-                long startTimeMapping = System.nanoTime();
-                for (int i = 0; i < tags.size(); ++i) {
-                    waitingHandlerCLIImpl.increaseSecondaryProgressCounter();
-                    ArrayList<PeptideProteinMapping> peptideProteinMappings = peptideMapper.getProteinMapping(tags.get(i), tagMatcher, sequenceMatchingPreferences, searchParameters.getFragmentIonAccuracyInDaltons());
-                    allPeptideProteinMappings.addAll(peptideProteinMappings);
-                    for (int j = 0; j < peptideProteinMappings.size(); ++j) {
-                        tagIndexes.add(i);
+                PeptideMappingStatistics statistics = peptideMapper.getTagMappings(tags, tagMatcher, sequenceMatchingPreferences, searchParameters.getFragmentIonAccuracyInDaltons(), new PeptideMappingListener<Tag>() {
+                    @Override
+                    public synchronized void mappingCompleted(Tag tag, ArrayList<PeptideProteinMapping> peptideProteinMappings) {
+                        mappingWaitingHandler.increaseSecondaryProgressCounter();
+                        tagMappings.put(tag, peptideProteinMappings);
                     }
-                }
-                long diffTimeMapping = System.nanoTime() - startTimeMapping;
+                }, nThreads);
                 System.err.println();
-                System.err.println("Mapping " + tags.size() + " tags took " + (diffTimeMapping / 1e9) + " seconds");
+                System.err.println("Mapping " + statistics);
             } catch (Exception e) {
                 e.printStackTrace();
                 System.err.println("Error: an unexpected error happened.");
                 System.exit(-1);
             }
 
+            // write the mappings in the order of the input
             try {
                 PrintWriter writer = new PrintWriter(args[3], "UTF-8");
-                for (int i = 0; i < allPeptideProteinMappings.size(); ++i) {
-                    PeptideProteinMapping peptideProteinMapping = allPeptideProteinMappings.get(i);
-                    String peptide = peptideProteinMapping.getPeptideSequence();
-                    String accession = peptideProteinMapping.getProteinAccession();
-                    int startIndex = peptideProteinMapping.getIndex();
-                    for (TagComponent tagComponent : tags.get(tagIndexes.get(i)).getContent()) {
-                        if (tagComponent instanceof MassGap) {
-                            writer.print(tagComponent.getMass());
-                        }
-                        if (tagComponent instanceof AminoAcidSequence) {
-                            writer.print(tagComponent.asSequence());
+                for (Tag tag : tags) {
+                    ArrayList<PeptideProteinMapping> peptideProteinMappings = tagMappings.get(tag);
+                    if (peptideProteinMappings != null) {
+                        for (PeptideProteinMapping peptideProteinMapping : peptideProteinMappings) {
+                            String peptide = peptideProteinMapping.getPeptideSequence();
+                            String accession = peptideProteinMapping.getProteinAccession();
+                            int startIndex = peptideProteinMapping.getIndex();
+                            for (TagComponent tagComponent : tag.getContent()) {
+                                if (tagComponent instanceof MassGap) {
+                                    writer.print(tagComponent.getMass());
+                                }
+                                if (tagComponent instanceof AminoAcidSequence) {
+                                    writer.print(tagComponent.asSequence());
+                                }
+                                writer.print(",");
+                            }
+                            writer.println(peptide + "," + accession + "," + startIndex);
                         }
-                        writer.print(",");
                     }
-                    writer.println(peptide + "," + accession + "," + startIndex);
                 }
                 writer.close();
             } catch (Exception e) {
@@ -0,0 +1,76 @@
+package com.compomics.util.experiment.identification.protein_inference.fm_index;
+
+import java.io.IOException;
+
+/**
+ * Rank and select over the bit vector of a wavelet tree node.
+ *
+ * @author Dominik Kopczynski
+ */
+public interface BitRank {
+
+    /**
+     * Returns the rank.
+     *
+     * @param index the value
+     * @param zeros the zeros
+     * @return the rank
+     */
+    public int getRank(int index, boolean zeros);
+
+    /**
+     * Returns the number of ones up to the given index, included.
+     *
+     * @param index the value
+     * @return the rank
+     */
+    public int getRankOne(int index);
+
+    /**
+     * Returns the number of zeros up to the given index, included.
+     *
+     * @param index the value
+     * @return the rank
+     */
+    public int getRankZero(int index);
+
+    /**
+     * Returns the position of the k-th one.
+     *
+     * @param k the number of the one, starting from one
+     * @return the position of the k-th one, -1 if there are less than k ones
+     */
+    public int selectOne(int k);
+
+    /**
+     * Returns true if the value is equal to one.
+     *
+     * @param index the value
+     * @return true if the value is equal to one
+     */
+    public boolean isOne(int index);
+
+    /**
+     * Returns one if the value is equal to one, zero otherwise.
+     *
+     * @param index the value
+     * @return the bit
+     */
+    public int isOneInt(int index);
+
+    /**
+     * Returns the number of bytes for the allocated arrays.
+     *
+     * @return the number of bytes for the allocated arrays
+     */
+    public int getAllocatedBytes();
+
+    /**
+     * Writes the rank to an index file.
+     *
+     * @param writer the index file writer
+     *
+     * @throws IOException thrown if an error occurred while writing the file
+     */
+    public void write(FMIndexFile.Writer writer) throws IOException;
+}
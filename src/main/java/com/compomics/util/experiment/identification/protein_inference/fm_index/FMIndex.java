@@ -12,20 +12,26 @@ import com.compomics.util.experiment.biology.PTM;
 import com.compomics.util.experiment.biology.PTMFactory;
 import com.compomics.util.experiment.biology.variants.AaSubstitutionMatrix;
 import com.compomics.util.experiment.identification.amino_acid_tags.Tag;
+import com.compomics.util.experiment.identification.amino_acid_tags.TagComponent;
 import com.compomics.util.experiment.identification.amino_acid_tags.matchers.TagMatcher;
 import com.compomics.util.experiment.identification.identification_parameters.PtmSettings;
 import com.compomics.util.experiment.identification.identification_parameters.SearchParameters;
 import com.compomics.util.experiment.identification.matches.ModificationMatch;
 import com.compomics.util.experiment.identification.matches.VariantMatch;
-import com.compomics.util.experiment.identification.protein_inference.PeptideMapper;
+import com.compomics.util.experiment.identification.protein_inference.BatchPeptideMapper;
+import com.compomics.util.experiment.identification.protein_inference.PeptideMappingListener;
+import com.compomics.util.experiment.identification.protein_inference.PeptideMappingStatistics;
 import com.compomics.util.experiment.identification.protein_inference.PeptideProteinMapping;
 import com.compomics.util.preferences.PeptideVariantsPreferences;
 import com.compomics.util.preferences.SequenceMatchingPreferences;
 import com.compomics.util.waiting.WaitingHandler;
+import java.io.File;
 import java.io.IOException;
+import java.nio.IntBuffer;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -33,8 +39,15 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.zip.CRC32;
 import org.jsuffixarrays.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.Semaphore;
 
 /**
@@ -43,23 +56,52 @@ import java.util.concurrent.Semaphore;
  * @author Dominik Kopczynski
  * @author Marc Vaudel
  */
-public class FMIndex implements PeptideMapper {
+public class FMIndex implements BatchPeptideMapper {
     /**
-     * Semaphore for caching.
+     * Cache for the intermediate results of the tag mapping.
      */
-    static Semaphore cacheMutex = new Semaphore(1);
+    private final TagMappingCache tagMappingCache = new TagMappingCache();
     /**
     * Number of chunks of complete index.
     */
     private int indexParts = 0;
     /**
-     * Byte size of index chuck.
+     * Default byte size of index chunk.
      */
-    private final int indexChunkSize = 100 * 1024 * 1024;
+    public static final int DEFAULT_INDEX_CHUNK_SIZE = 100 * 1024 * 1024;
     /**
-     * Sampled suffix array.
+     * Maximal length of the text of an index part, delimiters and sentinel
+     * included. The text, the suffix array and the rank structures of a part
+     * are addressed by Java arrays and thus limited to 2^31 positions.
      */
-    private final ArrayList<int[]> suffixArraysPrimary = new ArrayList<int[]>();
+    public static final int MAX_INDEX_PART_LENGTH = Integer.MAX_VALUE - 1024;
+    /**
+     * Byte size of index chunk.
+     */
+    private int indexChunkSize = DEFAULT_INDEX_CHUNK_SIZE;
+    /**
+     * If true the occurrence tables use a rank interleaving the counters with
+     * the bits.
+     */
+    private boolean interleavedRank = false;
+    /**
+     * Estimate of the peak number of bytes per residue needed to build the
+     * forward and reversed index of a chunk.
+     */
+    private static final int BUILD_BYTES_PER_RESIDUE = 24;
+    /**
+     * Number of threads used to build the index.
+     */
+    private int nThreads = Math.max(Runtime.getRuntime().availableProcessors(), 1);
+    /**
+     * Number of queries mapped per task in batch mappings.
+     */
+    private static final int MAPPING_BATCH_SIZE = 1024;
+    /**
+     * Sampled suffix array, mapped directly from the index file when loaded
+     * from disk.
+     */
+    private final ArrayList<IntBuffer> suffixArraysPrimary = new ArrayList<IntBuffer>();
     /**
      * Wavelet tree for storing the burrows wheeler transform.
      */
@@ -465,7 +507,7 @@ public class FMIndex implements PeptideMapper {
     public long getAllocatedBytes() {
         long bytes = 0;
         for (int indexPart = 0; indexPart < indexParts; ++indexPart){
-            bytes += occurrenceTablesPrimary.get(indexPart).getAllocatedBytes() + occurrenceTablesReversed.get(indexPart).getAllocatedBytes() + suffixArraysPrimary.get(indexPart).length * 4;
+            bytes += occurrenceTablesPrimary.get(indexPart).getAllocatedBytes() + occurrenceTablesReversed.get(indexPart).getAllocatedBytes() + suffixArraysPrimary.get(indexPart).capacity() * 4;
         }
         return bytes;
     }
@@ -481,6 +523,65 @@ public class FMIndex implements PeptideMapper {
      * @param searchParameters the search parameters
      */
     public FMIndex(WaitingHandler waitingHandler, boolean displayProgress, PeptideVariantsPreferences peptideVariantsPreferences, SearchParameters searchParameters) {
+        this(waitingHandler, displayProgress, peptideVariantsPreferences, searchParameters, Math.max(Runtime.getRuntime().availableProcessors(), 1));
+    }
+    
+    /**
+     * Constructor. If PTM settings are provided the index will contain
+     * modification information, ignored if null.
+     *
+     * @param waitingHandler the waiting handler
+     * @param displayProgress if true, the progress is displayed
+     * @param peptideVariantsPreferences contains all parameters for variants
+     * @param searchParameters the search parameters
+     * @param nThreads the number of threads to use to build the index
+     */
+    public FMIndex(WaitingHandler waitingHandler, boolean displayProgress, PeptideVariantsPreferences peptideVariantsPreferences, SearchParameters searchParameters, int nThreads) {
+        this(waitingHandler, displayProgress, peptideVariantsPreferences, searchParameters, nThreads, false);
+    }
+    
+    /**
+     * Constructor. If PTM settings are provided the index will contain
+     * modification information, ignored if null. In large text mode, the
+     * proteome is indexed in parts as large as the Java arrays allow instead
+     * of parts of 100 MB. A query then runs a single backward search for
+     * every proteome below 2^31 residues, at the cost of a higher peak
+     * memory usage during the construction. Positions remain 32-bit within a
+     * part: larger proteomes are split into several maximal parts. The mode
+     * can be set in the sequence matching preferences.
+     *
+     * @param waitingHandler the waiting handler
+     * @param displayProgress if true, the progress is displayed
+     * @param peptideVariantsPreferences contains all parameters for variants
+     * @param searchParameters the search parameters
+     * @param nThreads the number of threads to use to build the index
+     * @param largeText if true the index is built in large text mode
+     */
+    public FMIndex(WaitingHandler waitingHandler, boolean displayProgress, PeptideVariantsPreferences peptideVariantsPreferences, SearchParameters searchParameters, int nThreads, boolean largeText) {
+        this(waitingHandler, displayProgress, peptideVariantsPreferences, searchParameters, nThreads, largeText, false);
+    }
+    
+    /**
+     * Constructor. If PTM settings are provided the index will contain
+     * modification information, ignored if null. The interleaved rank stores
+     * the rank counters and the bits of the occurrence tables in the same
+     * cache line, see RankInterleaved.
+     *
+     * @param waitingHandler the waiting handler
+     * @param displayProgress if true, the progress is displayed
+     * @param peptideVariantsPreferences contains all parameters for variants
+     * @param searchParameters the search parameters
+     * @param nThreads the number of threads to use to build the index
+     * @param largeText if true the index is built in large text mode
+     * @param interleavedRank if true the occurrence tables use the
+     * interleaved rank
+     */
+    public FMIndex(WaitingHandler waitingHandler, boolean displayProgress, PeptideVariantsPreferences peptideVariantsPreferences, SearchParameters searchParameters, int nThreads, boolean largeText, boolean interleavedRank) {
+        this.nThreads = Math.max(nThreads, 1);
+        this.interleavedRank = interleavedRank;
+        if (largeText) {
+            indexChunkSize = MAX_INDEX_PART_LENGTH;
+        }
         massTolerance = searchParameters.getFragmentIonAccuracy();
         massAccuracyType = searchParameters.getFragmentAccuracyType();
         init(waitingHandler, displayProgress, searchParameters.getPtmSettings(), peptideVariantsPreferences);
@@ -950,6 +1051,26 @@ public class FMIndex implements PeptideMapper {
             alphabet[sortedAas[i] >> 6] |= 1L << (sortedAas[i] & 63);
         }
 
+        // try to reopen an index previously built for the same database and settings
+        File fastaFile = sf.getCurrentFastaFile();
+        File indexFile = null;
+        long checksum = 0;
+        long fingerprint = getFingerprint(ptmSettings);
+        if (fastaFile != null) {
+            try {
+                checksum = FMIndexFile.getChecksum(fastaFile);
+                indexFile = FMIndexFile.getIndexFile(fastaFile, fingerprint);
+                if (indexFile.exists() && readIndex(indexFile, checksum, fingerprint)) {
+                    return;
+                }
+            } catch (Exception e) {
+                if (waitingHandler != null) {
+                    waitingHandler.appendReport("Rebuilding the FM index of " + fastaFile.getName() + " (" + e.getLocalizedMessage() + ").", true, true);
+                }
+                clearIndex();
+            }
+        }
+
         // reading all proteins in a first pass to get information about number and total length
         ArrayList<Integer> tmpLengths = new ArrayList<Integer>();
         ArrayList<Integer> tmpProteins = new ArrayList<Integer>();
@@ -964,6 +1085,14 @@ public class FMIndex implements PeptideMapper {
                 }
                 Protein currentProtein = pi.getNextProtein();
                 int proteinLen = currentProtein.getLength();
+                
+                // the text of a part including delimiters and sentinel must fit in an array
+                if (numProteins > 0 && (long) indexStringLength + numProteins + proteinLen + 2 > MAX_INDEX_PART_LENGTH) {
+                    tmpLengths.add(indexStringLength);
+                    tmpProteins.add(numProteins);
+                    indexStringLength = 1;
+                    numProteins = 0;
+                }
                 indexStringLength += proteinLen;
                 ++numProteins;
                 if (indexStringLength > ticker){
@@ -976,8 +1105,7 @@ public class FMIndex implements PeptideMapper {
             tmpLengths.add(indexStringLength);
             tmpProteins.add(numProteins);
         } catch (Exception e) {
-            System.out.println(e.getMessage());
-            e.printStackTrace();
+            throw new IllegalArgumentException("An error occurred while reading the proteins of the FM index.", e);
         }
         
         int maxProgressBar = 10 * tmpLengths.size();
@@ -990,11 +1118,11 @@ public class FMIndex implements PeptideMapper {
         
         try {
             ProteinIterator pi = sf.getProteinIterator(false);
-            for (int i = 0; i < tmpLengths.size(); ++i){
-                addDataToIndex(pi, tmpLengths.get(i), tmpProteins.get(i), alphabet, waitingHandler, displayProgress);
-            }
+            buildIndex(pi, tmpLengths, tmpProteins, alphabet, waitingHandler, displayProgress);
+        } catch (ExecutionException e) {
+            throw new IllegalArgumentException("An error occurred while building the FM index.", e.getCause());
         } catch (Exception e) {
-            e.printStackTrace();
+            throw new IllegalArgumentException("An error occurred while building the FM index.", e);
         }
         
         int lookupLength = ((int) ((lookupMaxMass + computeInverseMassValue(massTolerance, lookupMaxMass)) * lookupMultiplier));
@@ -1019,146 +1147,503 @@ public class FMIndex implements PeptideMapper {
                return (int)((m1.mass - m2.mass) * 1000000.);
            } 
         });
-        cache = (HashMap<String, CacheElement>[])new HashMap[indexParts];
-        for (int indexPart = 0; indexPart < indexParts; ++indexPart) cache[indexPart] = new HashMap<String, CacheElement>();
+        
+        if (indexFile != null && (waitingHandler == null || !waitingHandler.isRunCanceled())) {
+            try {
+                writeIndex(indexFile, checksum, fingerprint);
+            } catch (Exception e) {
+                if (waitingHandler != null) {
+                    waitingHandler.appendReport("The FM index of " + fastaFile.getName() + " could not be saved (" + e.getLocalizedMessage() + ").", true, true);
+                }
+            }
+        }
     }
-
+    
+    /**
+     * Removes all index parts and mass lookup tables.
+     */
+    private void clearIndex() {
+        indexParts = 0;
+        indexStringLengths.clear();
+        suffixArraysPrimary.clear();
+        boundaries.clear();
+        accessions.clear();
+        occurrenceTablesPrimary.clear();
+        occurrenceTablesReversed.clear();
+        lessTablesPrimary.clear();
+        lessTablesReversed.clear();
+        lookupMasses = null;
+        Xlookup = null;
+        massIndexMaps = null;
+    }
+    
+    /**
+     * Returns a fingerprint of all settings influencing the content of the
+     * index: the resolved amino acid and modification masses, the variant
+     * settings, the lookup table parameters and the layout of the index.
+     * 
+     * @param ptmSettings the PTM settings, can be null
+     * 
+     * @return the fingerprint
+     */
+    private long getFingerprint(PtmSettings ptmSettings) {
+        StringBuilder settings = new StringBuilder();
+        settings.append(FMIndexFile.VERSION).append('|').append(indexChunkSize).append('|').append(samplingShift).append('|').append(interleavedRank).append('|');
+        if (ptmSettings != null) {
+            settings.append(ptmSettings.getFixedModifications()).append('|').append(ptmSettings.getVariableModifications()).append('|');
+        }
+        for (int i = 0; i < aaMasses.length; ++i) {
+            if (aaMasses[i] > 0) {
+                settings.append(i).append(':').append(Double.doubleToLongBits(aaMasses[i])).append(',');
+            }
+        }
+        settings.append('|');
+        if (modifictationLabels != null) {
+            for (int i = 0; i < modifictationLabels.length; ++i) {
+                if (modifictationLabels[i] != null) {
+                    settings.append(i).append(':').append(modifictationLabels[i]).append(',');
+                }
+            }
+        }
+        settings.append('|');
+        for (int i = 0; i < 128; ++i) {
+            for (int j = 0; j < 128; ++j) {
+                if (substitutionMatrix[i][j]) {
+                    settings.append(i).append('>').append(j).append(',');
+                }
+            }
+        }
+        settings.append('|').append(genericVariantMatching).append('|').append(maxNumberVariants).append('|').append(maxNumberInsertions)
+                .append('|').append(maxNumberDeletions).append('|').append(maxNumberSubstitutions).append('|').append(hasPTMatTerminus)
+                .append('|').append(massAccuracyType).append('|').append(Double.doubleToLongBits(massTolerance))
+                .append('|').append(Double.doubleToLongBits(lookupMaxMass)).append('|').append(Double.doubleToLongBits(lookupMultiplier))
+                .append('|').append(maxXPerTag);
+        String settingsString = settings.toString();
+        CRC32 crc = new CRC32();
+        try {
+            crc.update(settingsString.getBytes("UTF-8"));
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+        return (crc.getValue() << 32) | (settingsString.hashCode() & 0xFFFFFFFFL);
+    }
+    
     /**
-     * Add data to index
+     * Writes the complete index to a file.
+     * 
+     * @param indexFile the destination file
+     * @param checksum the checksum of the FASTA file
+     * @param fingerprint the fingerprint of the index settings
      * 
+     * @throws IOException thrown if an error occurred while writing the file
+     */
+    private void writeIndex(File indexFile, long checksum, long fingerprint) throws IOException {
+        FMIndexFile.Writer writer = new FMIndexFile.Writer(indexFile, checksum, fingerprint);
+        boolean written = false;
+        try {
+            writer.putInt(indexParts);
+            for (int indexPart = 0; indexPart < indexParts; ++indexPart) {
+                writer.putInt(indexStringLengths.get(indexPart));
+                writer.putInts(suffixArraysPrimary.get(indexPart));
+                writer.putInts(boundaries.get(indexPart));
+                String[] partAccessions = accessions.get(indexPart);
+                writer.putInt(partAccessions.length);
+                for (String accession : partAccessions) {
+                    writer.putString(accession);
+                }
+                occurrenceTablesPrimary.get(indexPart).write(writer);
+                occurrenceTablesReversed.get(indexPart).write(writer);
+            }
+            writer.putLongs(lookupMasses);
+            for (int i = 1; i <= maxXPerTag; ++i) {
+                writer.putLongs(Xlookup[i]);
+            }
+            writer.putInt(massIndexMaps.size());
+            for (MassIndexMap massIndexMap : massIndexMaps) {
+                writer.putDouble(massIndexMap.mass);
+                writer.putBoolean(massIndexMap.indexes != null);
+                if (massIndexMap.indexes != null) {
+                    writer.putInts(massIndexMap.indexes);
+                }
+            }
+            written = true;
+        } finally {
+            if (written) {
+                writer.close();
+            } else {
+                writer.abort();
+            }
+        }
+    }
+    
+    /**
+     * Loads the complete index from a file. The sampled suffix arrays remain
+     * mapped, all other tables are copied to the heap.
+     * 
+     * @param indexFile the index file
+     * @param checksum the expected checksum of the FASTA file
+     * @param fingerprint the expected fingerprint of the index settings
+     * 
+     * @return true if the index was loaded, false if the file does not match
+     * the FASTA file or the settings
+     * 
+     * @throws IOException thrown if an error occurred while reading the file
+     */
+    private boolean readIndex(File indexFile, long checksum, long fingerprint) throws IOException {
+        FMIndexFile.Reader reader = new FMIndexFile.Reader(indexFile);
+        try {
+            if (reader.getChecksum() != checksum || reader.getFingerprint() != fingerprint) {
+                return false;
+            }
+            int nParts = reader.getInt();
+            for (int indexPart = 0; indexPart < nParts; ++indexPart) {
+                indexStringLengths.add(reader.getInt());
+                suffixArraysPrimary.add(reader.getIntBuffer());
+                boundaries.add(reader.getInts());
+                String[] partAccessions = new String[reader.getInt()];
+                for (int i = 0; i < partAccessions.length; ++i) {
+                    partAccessions[i] = reader.getString();
+                }
+                accessions.add(partAccessions);
+                WaveletTree occurrenceTablePrimary = new WaveletTree(reader);
+                WaveletTree occurrenceTableReversed = new WaveletTree(reader);
+                occurrenceTablesPrimary.add(occurrenceTablePrimary);
+                occurrenceTablesReversed.add(occurrenceTableReversed);
+                lessTablesPrimary.add(occurrenceTablePrimary.createLessTable());
+                lessTablesReversed.add(occurrenceTableReversed.createLessTable());
+            }
+            lookupMasses = reader.getLongs();
+            Xlookup = new long[maxXPerTag + 1][];
+            for (int i = 1; i <= maxXPerTag; ++i) {
+                Xlookup[i] = reader.getLongs();
+            }
+            int nMassIndexMaps = reader.getInt();
+            massIndexMaps = new ArrayList<MassIndexMap>(nMassIndexMaps);
+            for (int i = 0; i < nMassIndexMaps; ++i) {
+                double mass = reader.getDouble();
+                int[] indexes = reader.getBoolean() ? reader.getInts() : null;
+                massIndexMaps.add(new MassIndexMap(mass, indexes));
+            }
+            indexParts = nParts;
+        } finally {
+            reader.close();
+        }
+        return true;
+    }
+
+    /**
+     * Reads the proteins of every index part and builds the parts in
+     * parallel. The forward and reversed indexes of a part are built by
+     * independent tasks. Parts are only read when enough heap is available
+     * for their construction.
+     *
      * @param pi the protein iterator
-     * @param indexStringLength the index string length
-     * @param numProteins the number of proteins
+     * @param partLengths the summed protein lengths of every part
+     * @param partProteins the number of proteins of every part
      * @param alphabet the alphabet
      * @param waitingHandler the waiting handler
      * @param displayProgress if progress is to be displayed
+     *
+     * @throws IOException thrown if an error occurred while reading the
+     * proteins
+     * @throws InterruptedException thrown if the threads are interrupted
+     * @throws ExecutionException thrown if an error occurred while building a
+     * part
      */
-    void addDataToIndex(ProteinIterator pi, int indexStringLength, int numProteins, long[] alphabet, WaitingHandler waitingHandler, boolean displayProgress){
-        indexParts += 1;
-        indexStringLength += numProteins + 1; // delimiters between protein sequences + sentinal
-        indexStringLengths.add(indexStringLength);
-        
-        if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
-            waitingHandler.increaseSecondaryProgressCounter();
-        }
-        byte[] T = new byte[indexStringLength];
-        T[0] = '/';                     // adding delimiter at beginning
-        T[indexStringLength - 2] = '/'; // adding delimiter at ending
-        T[indexStringLength - 1] = '$'; // adding the sentinal
+    private void buildIndex(ProteinIterator pi, ArrayList<Integer> partLengths, ArrayList<Integer> partProteins, long[] alphabet, WaitingHandler waitingHandler, boolean displayProgress) throws IOException, InterruptedException, ExecutionException {
 
-        int[] bndaries = new int[numProteins + 1];
-        boundaries.add(bndaries);
-        String[] accssions = new String[numProteins];
-        accessions.add(accssions);
-        boundaries.get(0)[0] = 1;
+        // heap budget in MB shared by all parts under construction
+        Runtime runtime = Runtime.getRuntime();
+        long freeHeap = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+        int memoryBudget = (int) Math.max(1, (freeHeap * 3 / 4) >>> 20);
+        Semaphore memoryPermits = new Semaphore(memoryBudget);
 
-        // reading proteins in a second pass to store their amino acid sequences and their accession numbers
-        int tmpN = 0;
-        int tmpNumProtein = 0;
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        ArrayList<IndexPart> parts = new ArrayList<IndexPart>(partLengths.size());
+        ArrayList<Future<?>> futures = new ArrayList<Future<?>>(2 * partLengths.size());
         try {
-            for (int i = 0; i < numProteins; ++i){
+            for (int i = 0; i < partLengths.size(); ++i) {
                 if (waitingHandler != null && waitingHandler.isRunCanceled()) {
                     return;
                 }
-                if (!pi.hasNext()) throw new Exception("More sequences from database requested than contained.");
-                Protein currentProtein = pi.getNextProtein();
-                int proteinLen = currentProtein.getLength();
-                T[tmpN++] = '/'; // adding the delimiters
-                System.arraycopy(currentProtein.getSequence().toUpperCase().getBytes(), 0, T, tmpN, proteinLen);
-                tmpN += proteinLen;
-                accssions[tmpNumProtein++] = currentProtein.getAccession();
-                bndaries[tmpNumProtein] = tmpN + 1;
-
+                int indexStringLength = partLengths.get(i) + partProteins.get(i) + 1; // delimiters between protein sequences + sentinal
+                int memoryRequired = (int) Math.min(memoryBudget, Math.max(1, ((long) indexStringLength * BUILD_BYTES_PER_RESIDUE) >>> 20));
+                memoryPermits.acquire(memoryRequired);
+                IndexPart part = readIndexPart(pi, indexStringLength, partProteins.get(i), memoryRequired, memoryPermits, waitingHandler, displayProgress);
+                parts.add(part);
+                futures.add(pool.submit(new IndexPartBuilder(part, false, alphabet, waitingHandler, displayProgress)));
+                futures.add(pool.submit(new IndexPartBuilder(part, true, alphabet, waitingHandler, displayProgress)));
             }
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-        if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
-            waitingHandler.increaseSecondaryProgressCounter();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            pool.shutdownNow();
         }
-
-        int[] T_int = new int[indexStringLength];
-        for (int i = 0; i < indexStringLength; ++i) {
-            T_int[i] = T[i];
+        if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+            return;
         }
-        int[] suffixArrayPrimary = (new DivSufSort()).buildSuffixArray(T_int, 0, indexStringLength);
 
-        if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
-            waitingHandler.increaseSecondaryProgressCounter();
+        for (IndexPart part : parts) {
+            indexParts += 1;
+            indexStringLengths.add(part.indexStringLength);
+            boundaries.add(part.boundaries);
+            accessions.add(part.accessions);
+            suffixArraysPrimary.add(IntBuffer.wrap(part.sampledSuffixArray));
+            occurrenceTablesPrimary.add(part.occurrenceTablePrimary);
+            occurrenceTablesReversed.add(part.occurrenceTableReversed);
+            lessTablesPrimary.add(part.occurrenceTablePrimary.createLessTable());
+            lessTablesReversed.add(part.occurrenceTableReversed.createLessTable());
         }
-        T_int = null;
+    }
 
-        // create Burrows-Wheeler-Transform
-        byte[] bwt = new byte[indexStringLength];
-        for (int i = 0; i < indexStringLength; ++i) {
-            bwt[i] = (suffixArrayPrimary[i] != 0) ? T[suffixArrayPrimary[i] - 1] : T[indexStringLength - 1];
-        }
+    /**
+     * Reads the concatenated protein sequences and accessions of an index
+     * part.
+     *
+     * @param pi the protein iterator
+     * @param indexStringLength the index string length including delimiters
+     * and sentinel
+     * @param numProteins the number of proteins
+     * @param memoryPermits the number of memory permits held by the part
+     * @param memorySemaphore the semaphore the permits were acquired from
+     * @param waitingHandler the waiting handler
+     * @param displayProgress if progress is to be displayed
+     *
+     * @return the index part
+     *
+     * @throws IOException thrown if an error occurred while reading the
+     * proteins
+     * @throws InterruptedException thrown if the threads are interrupted
+     */
+    private IndexPart readIndexPart(ProteinIterator pi, int indexStringLength, int numProteins, int memoryPermits, Semaphore memorySemaphore, WaitingHandler waitingHandler, boolean displayProgress) throws IOException, InterruptedException {
+        
         if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
             waitingHandler.increaseSecondaryProgressCounter();
         }
+        IndexPart part = new IndexPart(indexStringLength, numProteins, memoryPermits, memorySemaphore);
+        byte[] T = part.text;
+        T[0] = '/';                     // adding delimiter at beginning
+        T[indexStringLength - 2] = '/'; // adding delimiter at ending
+        T[indexStringLength - 1] = '$'; // adding the sentinal
+        part.boundaries[0] = 1;
 
-        // sampling suffix array
-        int[] sampledSuffixArray = new int[((indexStringLength + 1) >> samplingShift) + 1];
-        int sampledIndex = 0;
-        for (int i = 0; i < indexStringLength; i += sampling) {
+        // reading proteins in a second pass to store their amino acid sequences and their accession numbers
+        int tmpN = 0;
+        int tmpNumProtein = 0;
+        for (int i = 0; i < numProteins; ++i){
             if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                return;
+                return part;
             }
-            sampledSuffixArray[sampledIndex++] = suffixArrayPrimary[i];
+            if (!pi.hasNext()) throw new IOException("More sequences from database requested than contained.");
+            Protein currentProtein = pi.getNextProtein();
+            int proteinLen = currentProtein.getLength();
+            T[tmpN++] = '/'; // adding the delimiters
+            System.arraycopy(currentProtein.getSequence().toUpperCase().getBytes(), 0, T, tmpN, proteinLen);
+            tmpN += proteinLen;
+            part.accessions[tmpNumProtein++] = currentProtein.getAccession();
+            part.boundaries[tmpNumProtein] = tmpN + 1;
+
         }
-        suffixArraysPrimary.add(sampledSuffixArray);
         if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
             waitingHandler.increaseSecondaryProgressCounter();
         }
+        return part;
+    }
 
-        // creating the occurrence table and less table for backward search over forward text
-        WaveletTree occurrenceTablePrimary = new WaveletTree(bwt, alphabet, waitingHandler, numMasses, hasPTMatTerminus);
-        int[] lessTablePrimary = occurrenceTablePrimary.createLessTable();
-        if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
-            waitingHandler.increaseSecondaryProgressCounter();
-        }
+    /**
+     * Text and construction results of an index part.
+     */
+    private static class IndexPart {
 
-        bwt = null;
-        // create inversed text for inversed index
-        byte[] TReversed = new byte[indexStringLength];
-        for (int i = 0; i < indexStringLength - 1; ++i) {
-            TReversed[indexStringLength - 2 - i] = T[i];
-        }
-        TReversed[indexStringLength - 1] = '$';
-        if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
-            waitingHandler.increaseSecondaryProgressCounter();
-        }
+        /**
+         * The concatenated protein sequences with delimiters and sentinel,
+         * released once both directions are built.
+         */
+        byte[] text;
+        /**
+         * The length of the text.
+         */
+        final int indexStringLength;
+        /**
+         * The starting positions of the proteins.
+         */
+        final int[] boundaries;
+        /**
+         * The protein accessions.
+         */
+        final String[] accessions;
+        /**
+         * The sampled suffix array of the forward text.
+         */
+        int[] sampledSuffixArray;
+        /**
+         * The occurrence table of the forward text.
+         */
+        WaveletTree occurrenceTablePrimary;
+        /**
+         * The occurrence table of the reversed text.
+         */
+        WaveletTree occurrenceTableReversed;
+        /**
+         * The memory permits held until both directions are built.
+         */
+        private int memoryPermits;
+        /**
+         * The semaphore the memory permits are released to.
+         */
+        private final Semaphore memorySemaphore;
+        /**
+         * The number of directions still under construction.
+         */
+        private int pendingDirections = 2;
 
-        // create the inversed suffix array using at most 128 characters
-        T_int = new int[indexStringLength];
-        for (int i = 0; i < indexStringLength; ++i) {
-            T_int[i] = TReversed[i];
+        /**
+         * Constructor.
+         *
+         * @param indexStringLength the length of the text
+         * @param numProteins the number of proteins
+         * @param memoryPermits the memory permits held by the part
+         * @param memorySemaphore the semaphore the memory permits are
+         * released to
+         */
+        IndexPart(int indexStringLength, int numProteins, int memoryPermits, Semaphore memorySemaphore) {
+            this.indexStringLength = indexStringLength;
+            this.text = new byte[indexStringLength];
+            this.boundaries = new int[numProteins + 1];
+            this.accessions = new String[numProteins];
+            this.memoryPermits = memoryPermits;
+            this.memorySemaphore = memorySemaphore;
         }
-        int[] suffixArrayReversed = (new DivSufSort()).buildSuffixArray(T_int, 0, indexStringLength);
-        if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
-            waitingHandler.increaseSecondaryProgressCounter();
+
+        /**
+         * Releases the memory of a direction once built. The text and the
+         * memory permits are freed when both directions are done.
+         */
+        synchronized void directionDone() {
+            if (--pendingDirections == 0) {
+                text = null;
+                memorySemaphore.release(memoryPermits);
+                memoryPermits = 0;
+            }
         }
+    }
+
+    /**
+     * Runnable building the suffix array, Burrows-Wheeler transform and
+     * occurrence table of one direction of an index part.
+     */
+    private class IndexPartBuilder implements Runnable {
+
+        /**
+         * The index part.
+         */
+        private final IndexPart part;
+        /**
+         * If true the reversed text is indexed.
+         */
+        private final boolean reversed;
+        /**
+         * The alphabet.
+         */
+        private final long[] alphabet;
+        /**
+         * The waiting handler.
+         */
+        private final WaitingHandler waitingHandler;
+        /**
+         * If progress is to be displayed.
+         */
+        private final boolean displayProgress;
 
-        // create inversed Burrows-Wheeler-Transform
-        bwt = new byte[indexStringLength];
-        for (int i = 0; i < indexStringLength; ++i) {
-            bwt[i] = (suffixArrayReversed[i] != 0) ? TReversed[suffixArrayReversed[i] - 1] : TReversed[indexStringLength - 1];
+        /**
+         * Constructor.
+         *
+         * @param part the index part
+         * @param reversed if true the reversed text is indexed
+         * @param alphabet the alphabet
+         * @param waitingHandler the waiting handler
+         * @param displayProgress if progress is to be displayed
+         */
+        IndexPartBuilder(IndexPart part, boolean reversed, long[] alphabet, WaitingHandler waitingHandler, boolean displayProgress) {
+            this.part = part;
+            this.reversed = reversed;
+            this.alphabet = alphabet;
+            this.waitingHandler = waitingHandler;
+            this.displayProgress = displayProgress;
         }
-        if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
-            waitingHandler.increaseSecondaryProgressCounter();
+
+        /**
+         * Increases the progress counter.
+         */
+        private void progress() {
+            if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
+                waitingHandler.increaseSecondaryProgressCounter();
+            }
         }
 
-        // create inversed less and occurrence table
-        WaveletTree occurrenceTableReversed = new WaveletTree(bwt, alphabet, waitingHandler, numMasses, hasPTMatTerminus);
-        int[] lessTableReversed = occurrenceTableReversed.createLessTable();
-        if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
-            waitingHandler.increaseSecondaryProgressCounter();
+        @Override
+        public void run() {
+            try {
+                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                    return;
+                }
+                int indexStringLength = part.indexStringLength;
+                byte[] T = part.text;
+                if (reversed) {
+                    // create inversed text for inversed index
+                    byte[] TReversed = new byte[indexStringLength];
+                    for (int i = 0; i < indexStringLength - 1; ++i) {
+                        TReversed[indexStringLength - 2 - i] = T[i];
+                    }
+                    TReversed[indexStringLength - 1] = '$';
+                    T = TReversed;
+                }
+
+                // create the suffix array using at most 128 characters
+                int[] T_int = new int[indexStringLength];
+                for (int i = 0; i < indexStringLength; ++i) {
+                    T_int[i] = T[i];
+                }
+                int[] suffixArray = (new DivSufSort()).buildSuffixArray(T_int, 0, indexStringLength);
+                T_int = null;
+                progress();
+
+                // create Burrows-Wheeler-Transform
+                byte[] bwt = new byte[indexStringLength];
+                for (int i = 0; i < indexStringLength; ++i) {
+                    bwt[i] = (suffixArray[i] != 0) ? T[suffixArray[i] - 1] : T[indexStringLength - 1];
+                }
+                progress();
+
+                if (!reversed) {
+                    // sampling suffix array
+                    int[] sampledSuffixArray = new int[((indexStringLength + 1) >> samplingShift) + 1];
+                    int sampledIndex = 0;
+                    for (int i = 0; i < indexStringLength; i += sampling) {
+                        sampledSuffixArray[sampledIndex++] = suffixArray[i];
+                    }
+                    part.sampledSuffixArray = sampledSuffixArray;
+                }
+                suffixArray = null;
+                T = null;
+                progress();
+                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                    return;
+                }
+
+                // creating the occurrence table and less table for backward search
+                WaveletTree occurrenceTable = new WaveletTree(bwt, alphabet, waitingHandler, numMasses, hasPTMatTerminus, interleavedRank);
+                if (reversed) {
+                    part.occurrenceTableReversed = occurrenceTable;
+                } else {
+                    part.occurrenceTablePrimary = occurrenceTable;
+                }
+                progress();
+            } finally {
+                part.directionDone();
+            }
         }
-        
-        occurrenceTablesPrimary.add(occurrenceTablePrimary);
-        occurrenceTablesReversed.add(occurrenceTableReversed);
-        lessTablesPrimary.add(lessTablePrimary);
-        lessTablesReversed.add(lessTableReversed);
     }
 
     /**
@@ -1335,7 +1820,7 @@ public class FMIndex implements PeptideMapper {
      * @return the text position
      */
     private int getTextPosition(int index, int indexPart) {
-        int[] suffixArrayPrimary = suffixArraysPrimary.get(indexPart);
+        IntBuffer suffixArrayPrimary = suffixArraysPrimary.get(indexPart);
         int[] lessTablePrimary = lessTablesPrimary.get(indexPart);
         WaveletTree occurrenceTablePrimary = occurrenceTablesPrimary.get(indexPart);
         int indexStringLength = indexStringLengths.get(indexPart);
@@ -1346,7 +1831,7 @@ public class FMIndex implements PeptideMapper {
 
             ++numIterations;
         }
-        int pos = suffixArrayPrimary[index >> samplingShift] + numIterations;
+        int pos = suffixArrayPrimary.get(index >> samplingShift) + numIterations;
         return (pos < indexStringLength) ? pos : pos - indexStringLength;
     }
 
@@ -1398,7 +1883,7 @@ public class FMIndex implements PeptideMapper {
         String pep_rev = new StringBuilder(peptide).reverse().toString();
         int lenPeptide = peptide.length();
         ArrayList<String> combinations = createPeptideCombinations(pep_rev, seqMatchPref);
-        int maxX = (int) (((seqMatchPref.getLimitX() != null) ? seqMatchPref.getLimitX() : 1) * lenPeptide);
+        int maxX = getMaxX(lenPeptide, seqMatchPref);
 
         ArrayList<MatrixContent>[] backwardList = (ArrayList<MatrixContent>[]) new ArrayList[lenPeptide + 1];
 
@@ -1413,61 +1898,164 @@ public class FMIndex implements PeptideMapper {
         if (countX <= maxX) {
             backwardList[0].add(new MatrixContent(indexStringLengths.get(indexPart) - 1)); // L, R, char, previous content, num of X
             for (int j = 0; j < lenPeptide; ++j) {
-                String combinationSequence = combinations.get(j);
-                ArrayList<MatrixContent> cell = backwardList[j];
-                for (MatrixContent content : cell) {
-                    int leftIndexOld = content.left;
-                    int rightIndexOld = content.right;
-                    int numX = content.numX;
-
-                    for (int c = 0; c < combinationSequence.length(); ++c) {
-                        int aminoAcid = combinationSequence.charAt(c);
-
-                        int lessValue = lessTablePrimary[aminoAcid];
-                        int[] range = occurrenceTablePrimary.singleRangeQuery(leftIndexOld - 1, rightIndexOld, aminoAcid);
-                        final int leftIndex = lessValue + range[0];
-                        final int rightIndex = lessValue + range[1] - 1;
+                extendBackwardSearch(backwardList[j], combinations.get(j), maxX, lessTablePrimary, occurrenceTablePrimary, backwardList[j + 1]);
+            }
 
-                        if (leftIndex <= rightIndex) {
-                            int newNumX = numX + ((aminoAcid == 'X') ? 1 : 0);
-                            if (newNumX > maxX) {
-                                continue;
-                            }
-                            backwardList[j + 1].add(new MatrixContent(leftIndex, rightIndex, aminoAcid, content, newNumX));
-                        }
+            // traceback
+            addExactMatches(backwardList[lenPeptide], indexPart, allMatches);
+        }
+
+        /*
+        for (PeptideProteinMapping ppm : allMatches){
+            System.out.println(ppm.getPeptideSequence() + " " + ppm.getProteinAccession() + " " + ppm.getIndex());
+        }*/
+        return allMatches;
+    }
+
+    /**
+     * Returns the maximal number of X allowed in a peptide.
+     *
+     * @param lenPeptide the length of the peptide
+     * @param seqMatchPref the sequence matching preferences
+     * @return the maximal number of X allowed in the peptide
+     */
+    private int getMaxX(int lenPeptide, SequenceMatchingPreferences seqMatchPref) {
+        return (int) (((seqMatchPref.getLimitX() != null) ? seqMatchPref.getLimitX() : 1) * lenPeptide);
+    }
+
+    /**
+     * Extends every interval of a cell of the backward search by all
+     * possible amino acids of the next position.
+     *
+     * @param cell the intervals of the current position
+     * @param combinationSequence the possible amino acids at the next
+     * position
+     * @param maxX the maximal number of X
+     * @param lessTablePrimary the less table
+     * @param occurrenceTablePrimary the occurrence table
+     * @param nextCell the cell receiving the intervals of the next position
+     */
+    private void extendBackwardSearch(ArrayList<MatrixContent> cell, String combinationSequence, int maxX, int[] lessTablePrimary, WaveletTree occurrenceTablePrimary, ArrayList<MatrixContent> nextCell) {
+        for (MatrixContent content : cell) {
+            int leftIndexOld = content.left;
+            int rightIndexOld = content.right;
+            int numX = content.numX;
+
+            for (int c = 0; c < combinationSequence.length(); ++c) {
+                int aminoAcid = combinationSequence.charAt(c);
+
+                int lessValue = lessTablePrimary[aminoAcid];
+                int[] range = occurrenceTablePrimary.singleRangeQuery(leftIndexOld - 1, rightIndexOld, aminoAcid);
+                final int leftIndex = lessValue + range[0];
+                final int rightIndex = lessValue + range[1] - 1;
+
+                if (leftIndex <= rightIndex) {
+                    int newNumX = numX + ((aminoAcid == 'X') ? 1 : 0);
+                    if (newNumX > maxX) {
+                        continue;
                     }
+                    nextCell.add(new MatrixContent(leftIndex, rightIndex, aminoAcid, content, newNumX));
                 }
             }
+        }
+    }
 
-            // traceback
-            for (MatrixContent content : backwardList[lenPeptide]) {
-                MatrixContent currentContent = content;
-                String currentPeptide = "";
+    /**
+     * Traces back the intervals of the last cell of an exact backward search
+     * and adds the corresponding protein mappings.
+     *
+     * @param cell the intervals of the last position
+     * @param indexPart the index part
+     * @param allMatches the list receiving the mappings
+     */
+    private void addExactMatches(ArrayList<MatrixContent> cell, int indexPart, ArrayList<PeptideProteinMapping> allMatches) {
+        for (MatrixContent content : cell) {
+            MatrixContent currentContent = content;
+            String currentPeptide = "";
 
-                while (currentContent.previousContent != null) {
-                    currentPeptide += (char) currentContent.character;
-                    currentContent = currentContent.previousContent;
-                }
+            while (currentContent.previousContent != null) {
+                currentPeptide += (char) currentContent.character;
+                currentContent = currentContent.previousContent;
+            }
 
-                int leftIndex = content.left;
-                int rightIndex = content.right;
+            int leftIndex = content.left;
+            int rightIndex = content.right;
 
-                for (int j = leftIndex; j <= rightIndex; ++j) {
-                    int pos = getTextPosition(j, indexPart);
-                    int index = binarySearch(boundaries.get(indexPart), pos);
-                    String accession = accessions.get(indexPart)[index];
+            for (int j = leftIndex; j <= rightIndex; ++j) {
+                int pos = getTextPosition(j, indexPart);
+                int index = binarySearch(boundaries.get(indexPart), pos);
+                String accession = accessions.get(indexPart)[index];
 
-                    PeptideProteinMapping peptideProteinMapping = new PeptideProteinMapping(accession, currentPeptide, pos - boundaries.get(indexPart)[index]);
-                    allMatches.add(peptideProteinMapping);
-                }
+                PeptideProteinMapping peptideProteinMapping = new PeptideProteinMapping(accession, currentPeptide, pos - boundaries.get(indexPart)[index]);
+                allMatches.add(peptideProteinMapping);
             }
         }
+    }
 
-        /*
-        for (PeptideProteinMapping ppm : allMatches){
-            System.out.println(ppm.getPeptideSequence() + " " + ppm.getProteinAccession() + " " + ppm.getIndex());
-        }*/
-        return allMatches;
+    /**
+     * Exact mapping of a range of distinct reversed peptides against an index
+     * part. The peptides are expected to be sorted so that consecutive
+     * peptides with the same X limit reuse the backward search intervals of
+     * their common suffix.
+     *
+     * @param reversedPeptides the reversed peptides
+     * @param from the index of the first peptide to map
+     * @param to the index after the last peptide to map
+     * @param seqMatchPref the sequence matching preferences
+     * @param indexPart the index part
+     * @param results the lists receiving the mappings of every peptide,
+     * indexed from the first peptide
+     */
+    private void getProteinMappingWithoutVariants(String[] reversedPeptides, int from, int to, SequenceMatchingPreferences seqMatchPref, int indexPart, ArrayList<PeptideProteinMapping>[] results) {
+        int[] lessTablePrimary = lessTablesPrimary.get(indexPart);
+        WaveletTree occurrenceTablePrimary = occurrenceTablesPrimary.get(indexPart);
+        ArrayList<MatrixContent>[] backwardList = (ArrayList<MatrixContent>[]) new ArrayList[1];
+        String previousPeptide = null;
+        int previousMaxX = -1;
+
+        for (int i = from; i < to; ++i) {
+            String pep_rev = reversedPeptides[i];
+            int lenPeptide = pep_rev.length();
+            int maxX = getMaxX(lenPeptide, seqMatchPref);
+            int countX = 0;
+            for (int j = 0; j < lenPeptide; ++j) {
+                if (pep_rev.charAt(j) == 'X') {
+                    ++countX;
+                }
+            }
+            if (countX > maxX) {
+                previousPeptide = null;
+                continue;
+            }
+
+            // number of positions already searched for the previous peptide
+            int shared = 0;
+            if (previousPeptide != null && previousMaxX == maxX) {
+                int maxShared = Math.min(lenPeptide, previousPeptide.length());
+                while (shared < maxShared && pep_rev.charAt(shared) == previousPeptide.charAt(shared)) {
+                    ++shared;
+                }
+            }
+            if (backwardList.length < lenPeptide + 1) {
+                backwardList = Arrays.copyOf(backwardList, Math.max(lenPeptide + 1, 2 * backwardList.length));
+            }
+            if (previousPeptide == null) {
+                backwardList[0] = new ArrayList<MatrixContent>(1);
+                backwardList[0].add(new MatrixContent(indexStringLengths.get(indexPart) - 1)); // L, R, char, previous content, num of X
+            }
+
+            ArrayList<String> combinations = createPeptideCombinations(pep_rev, seqMatchPref);
+            for (int j = shared; j < lenPeptide; ++j) {
+                backwardList[j + 1] = new ArrayList<MatrixContent>(10);
+                extendBackwardSearch(backwardList[j], combinations.get(j), maxX, lessTablePrimary, occurrenceTablePrimary, backwardList[j + 1]);
+            }
+
+            // traceback
+            addExactMatches(backwardList[lenPeptide], indexPart, results[i - from]);
+
+            previousPeptide = pep_rev;
+            previousMaxX = maxX;
+        }
     }
 
     /**
@@ -1809,9 +2397,308 @@ public class FMIndex implements PeptideMapper {
         return allMatches;
     }
 
+    /**
+     * Maps a batch of peptides. The reversed peptides are sorted and
+     * deduplicated so that peptides sharing a suffix reuse the intervals of
+     * the backward search, and are mapped in batches on a thread pool.
+     *
+     * @param peptideSequences the peptide sequences
+     * @param seqMatchPref the sequence matching preferences
+     * @param listener the listener receiving the mappings, must be thread
+     * safe
+     * @param nThreads the number of threads to use
+     *
+     * @return the throughput statistics of the mapping
+     *
+     * @throws InterruptedException thrown if the threads are interrupted
+     */
+    @Override
+    public PeptideMappingStatistics getProteinMappings(Collection<String> peptideSequences, final SequenceMatchingPreferences seqMatchPref,
+            PeptideMappingListener<String> listener, int nThreads) throws InterruptedException {
+
+        PeptideMappingStatistics statistics = new PeptideMappingStatistics();
+        statistics.addQueries(peptideSequences.size());
+
+        String[] reversedPeptides = new String[peptideSequences.size()];
+        int nPeptides = 0;
+        for (String peptide : peptideSequences) {
+            reversedPeptides[nPeptides++] = new StringBuilder(peptide).reverse().toString();
+        }
+        Arrays.sort(reversedPeptides, new Comparator<String>() {
+            @Override
+            public int compare(String peptide1, String peptide2) {
+                int maxX1 = getMaxX(peptide1.length(), seqMatchPref);
+                int maxX2 = getMaxX(peptide2.length(), seqMatchPref);
+                if (maxX1 != maxX2) {
+                    return maxX1 < maxX2 ? -1 : 1;
+                }
+                return peptide1.compareTo(peptide2);
+            }
+        });
+        int nDistinct = 0;
+        for (int i = 0; i < nPeptides; ++i) {
+            if (nDistinct == 0 || !reversedPeptides[i].equals(reversedPeptides[nDistinct - 1])) {
+                reversedPeptides[nDistinct++] = reversedPeptides[i];
+            }
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(nThreads, 1));
+        ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+        try {
+            for (int from = 0; from < nDistinct; from += MAPPING_BATCH_SIZE) {
+                int to = Math.min(from + MAPPING_BATCH_SIZE, nDistinct);
+                futures.add(pool.submit(new PeptideBatchMapper(reversedPeptides, from, to, seqMatchPref, listener, statistics)));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalArgumentException("An error occurred while mapping peptides.", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        statistics.setFinished();
+        return statistics;
+    }
+
+    /**
+     * Maps a batch of tags. Identical tags are mapped once and the result is
+     * reported for every one of them, the tags are mapped in batches on a
+     * thread pool. The intermediate results of the
+     * tag mapping are shared between threads through the tag cache.
+     *
+     * @param tags the tags
+     * @param tagMatcher the tag matcher
+     * @param sequenceMatchingPreferences the sequence matching preferences
+     * @param massTolerance the mass tolerance, ignored, the fragment
+     * tolerance of the index is used
+     * @param listener the listener receiving the mappings, must be thread
+     * safe
+     * @param nThreads the number of threads to use
+     *
+     * @return the throughput statistics of the mapping
+     *
+     * @throws IOException thrown if an IOException occurs
+     * @throws InterruptedException thrown if an InterruptedException occurs
+     * @throws ClassNotFoundException thrown if a ClassNotFoundException
+     * @throws SQLException thrown if an SQLException occurs
+     */
+    @Override
+    public PeptideMappingStatistics getTagMappings(Collection<Tag> tags, TagMatcher tagMatcher, SequenceMatchingPreferences sequenceMatchingPreferences, Double massTolerance,
+            PeptideMappingListener<Tag> listener, int nThreads) throws IOException, InterruptedException, ClassNotFoundException, SQLException {
+
+        PeptideMappingStatistics statistics = new PeptideMappingStatistics();
+        statistics.addQueries(tags.size());
+
+        // tags are only mapped using their sequences and mass gaps
+        TreeMap<String, ArrayList<Tag>> distinctTags = new TreeMap<String, ArrayList<Tag>>();
+        for (Tag tag : tags) {
+            StringBuilder key = new StringBuilder();
+            for (TagComponent tagComponent : tag.getContent()) {
+                if (tagComponent instanceof MassGap) {
+                    key.append(String.format("%.5f", tagComponent.getMass()));
+                } else {
+                    key.append(tagComponent.asSequence());
+                }
+                key.append(',');
+            }
+            String tagKey = key.toString();
+            ArrayList<Tag> identicalTags = distinctTags.get(tagKey);
+            if (identicalTags == null) {
+                identicalTags = new ArrayList<Tag>(1);
+                distinctTags.put(tagKey, identicalTags);
+            }
+            identicalTags.add(tag);
+        }
+        ArrayList<ArrayList<Tag>> sortedTags = new ArrayList<ArrayList<Tag>>(distinctTags.values());
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(nThreads, 1));
+        ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+        try {
+            for (int from = 0; from < sortedTags.size(); from += MAPPING_BATCH_SIZE) {
+                int to = Math.min(from + MAPPING_BATCH_SIZE, sortedTags.size());
+                futures.add(pool.submit(new TagBatchMapper(sortedTags, from, to, tagMatcher, sequenceMatchingPreferences, listener, statistics)));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            } else if (cause instanceof ClassNotFoundException) {
+                throw (ClassNotFoundException) cause;
+            } else if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            }
+            throw new IllegalArgumentException("An error occurred while mapping tags.", cause);
+        } finally {
+            pool.shutdownNow();
+        }
+        statistics.setFinished();
+        return statistics;
+    }
+
+    /**
+     * Runnable mapping a batch of sorted reversed peptides.
+     */
+    private class PeptideBatchMapper implements Runnable {
+
+        /**
+         * The sorted distinct reversed peptides.
+         */
+        private final String[] reversedPeptides;
+        /**
+         * The index of the first peptide of the batch.
+         */
+        private final int from;
+        /**
+         * The index after the last peptide of the batch.
+         */
+        private final int to;
+        /**
+         * The sequence matching preferences.
+         */
+        private final SequenceMatchingPreferences seqMatchPref;
+        /**
+         * The listener receiving the mappings.
+         */
+        private final PeptideMappingListener<String> listener;
+        /**
+         * The statistics of the mapping.
+         */
+        private final PeptideMappingStatistics statistics;
+
+        /**
+         * Constructor.
+         *
+         * @param reversedPeptides the sorted distinct reversed peptides
+         * @param from the index of the first peptide of the batch
+         * @param to the index after the last peptide of the batch
+         * @param seqMatchPref the sequence matching preferences
+         * @param listener the listener receiving the mappings
+         * @param statistics the statistics of the mapping
+         */
+        PeptideBatchMapper(String[] reversedPeptides, int from, int to, SequenceMatchingPreferences seqMatchPref, PeptideMappingListener<String> listener, PeptideMappingStatistics statistics) {
+            this.reversedPeptides = reversedPeptides;
+            this.from = from;
+            this.to = to;
+            this.seqMatchPref = seqMatchPref;
+            this.listener = listener;
+            this.statistics = statistics;
+        }
+
+        @Override
+        public void run() {
+            if (maxNumberVariants > 0 || maxNumberDeletions > 0 || maxNumberInsertions > 0 || maxNumberSubstitutions > 0) {
+                for (int i = from; i < to; ++i) {
+                    String peptide = new StringBuilder(reversedPeptides[i]).reverse().toString();
+                    ArrayList<PeptideProteinMapping> peptideProteinMappings = getProteinMapping(peptide, seqMatchPref);
+                    statistics.addMappedQuery(peptideProteinMappings.size());
+                    listener.mappingCompleted(peptide, peptideProteinMappings);
+                }
+            } else {
+                ArrayList<PeptideProteinMapping>[] results = (ArrayList<PeptideProteinMapping>[]) new ArrayList[to - from];
+                for (int i = 0; i < results.length; ++i) {
+                    results[i] = new ArrayList<PeptideProteinMapping>(1);
+                }
+                for (int indexPart = 0; indexPart < indexParts; ++indexPart) {
+                    getProteinMappingWithoutVariants(reversedPeptides, from, to, seqMatchPref, indexPart, results);
+                }
+                for (int i = from; i < to; ++i) {
+                    String peptide = new StringBuilder(reversedPeptides[i]).reverse().toString();
+                    statistics.addMappedQuery(results[i - from].size());
+                    listener.mappingCompleted(peptide, results[i - from]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Callable mapping a batch of tags.
+     */
+    private class TagBatchMapper implements Callable<Object> {
+
+        /**
+         * The distinct tags, every entry holding the identical tags.
+         */
+        private final ArrayList<ArrayList<Tag>> tags;
+        /**
+         * The index of the first tag of the batch.
+         */
+        private final int from;
+        /**
+         * The index after the last tag of the batch.
+         */
+        private final int to;
+        /**
+         * The tag matcher.
+         */
+        private final TagMatcher tagMatcher;
+        /**
+         * The sequence matching preferences.
+         */
+        private final SequenceMatchingPreferences sequenceMatchingPreferences;
+        /**
+         * The listener receiving the mappings.
+         */
+        private final PeptideMappingListener<Tag> listener;
+        /**
+         * The statistics of the mapping.
+         */
+        private final PeptideMappingStatistics statistics;
+
+        /**
+         * Constructor.
+         *
+         * @param tags the distinct tags, every entry holding the identical tags
+         * @param from the index of the first tag of the batch
+         * @param to the index after the last tag of the batch
+         * @param tagMatcher the tag matcher
+         * @param sequenceMatchingPreferences the sequence matching preferences
+         * @param listener the listener receiving the mappings
+         * @param statistics the statistics of the mapping
+         */
+        TagBatchMapper(ArrayList<ArrayList<Tag>> tags, int from, int to, TagMatcher tagMatcher, SequenceMatchingPreferences sequenceMatchingPreferences, PeptideMappingListener<Tag> listener, PeptideMappingStatistics statistics) {
+            this.tags = tags;
+            this.from = from;
+            this.to = to;
+            this.tagMatcher = tagMatcher;
+            this.sequenceMatchingPreferences = sequenceMatchingPreferences;
+            this.listener = listener;
+            this.statistics = statistics;
+        }
+
+        @Override
+        public Object call() throws Exception {
+            for (int i = from; i < to; ++i) {
+                ArrayList<Tag> identicalTags = tags.get(i);
+                ArrayList<PeptideProteinMapping> peptideProteinMappings = getProteinMapping(identicalTags.get(0), tagMatcher, sequenceMatchingPreferences);
+                statistics.addMappedQuery(peptideProteinMappings.size());
+                listener.mappingCompleted(identicalTags.get(0), peptideProteinMappings);
+                for (int j = 1; j < identicalTags.size(); ++j) {
+                    listener.mappingCompleted(identicalTags.get(j), new ArrayList<PeptideProteinMapping>(peptideProteinMappings));
+                }
+            }
+            return null;
+        }
+    }
+
     @Override
     public void emptyCache() {
-        // No cache here
+        tagMappingCache.clear();
+    }
+
+    /**
+     * Returns the cache of the intermediate tag mapping results, for instance
+     * to monitor its hit rate.
+     *
+     * @return the tag mapping cache
+     */
+    public TagMappingCache getTagMappingCache() {
+        return tagMappingCache;
     }
 
     @Override
@@ -4610,37 +5497,6 @@ public class FMIndex implements PeptideMapper {
         }
     }
 
-    /**
-     * Class for caching intermediate tag to proteome mapping results.
-     */
-    private class CacheElement {
-
-        Double massFirst;
-        String sequence;
-        Double massSecond;
-        ArrayList<MatrixContent> cachedPrimary;
-
-        /**
-         * Constructor
-         *
-         * @param massFirst
-         * @param sequence
-         * @param massSecond
-         * @param cachedPrimary
-         */
-        public CacheElement(Double massFirst, String sequence, Double massSecond, ArrayList<MatrixContent> cachedPrimary) {
-            this.sequence = sequence;
-            this.massFirst = massFirst;
-            this.massSecond = massSecond;
-            this.cachedPrimary = cachedPrimary;
-        }
-    }
-
-    /**
-     * List of cached intermediate tag to proteome mapping results.
-     */
-    private HashMap<String, CacheElement>[] cache = null;
-
     /**
      * Adding intermediate tag to proteome mapping results into the cache.
      *
@@ -4651,20 +5507,7 @@ public class FMIndex implements PeptideMapper {
         if (tagComponents.length != 3 || !tagComponents[0].isMass || tagComponents[1].isMass || !tagComponents[2].isMass) {
             return null;
         }
-        ArrayList<MatrixContent> cached = null;
-
-        try {
-            cacheMutex.acquire();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-        
-        
-        String key = tagComponents[1].sequence + String.format("%.5f", tagComponents[2].mass);
-        CacheElement cacheElement = cache[indexPart].get(key);
-        if (cacheElement != null) cached = cacheElement.cachedPrimary;
-        cacheMutex.release();
-        return cached;
+        return tagMappingCache.get(indexPart, tagComponents[1].sequence, tagComponents[2].mass);
     }
 
     /**
@@ -4677,20 +5520,10 @@ public class FMIndex implements PeptideMapper {
         if (tagComponents.length != 3 || !tagComponents[0].isMass || tagComponents[1].isMass || !tagComponents[2].isMass) {
             return;
         }
-        try {
-            cacheMutex.acquire();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-
         ArrayList<MatrixContent> cacheContentPrimary = new ArrayList<MatrixContent>();
         for (MatrixContent matrixContent : cachedPrimary) {
             cacheContentPrimary.add(new MatrixContent(matrixContent));
         }
-        
-        String key = tagComponents[1].sequence + String.format("%.5f", tagComponents[2].mass);
-        CacheElement cacheElement = new CacheElement(tagComponents[0].mass, tagComponents[1].sequence, tagComponents[2].mass, cacheContentPrimary);
-        if (!cache[indexPart].containsKey(key)) cache[indexPart].put(key, cacheElement);
-        cacheMutex.release();
+        tagMappingCache.put(indexPart, tagComponents[1].sequence, tagComponents[2].mass, cacheContentPrimary);
     }
 }
@@ -0,0 +1,662 @@
+package com.compomics.util.experiment.identification.protein_inference.fm_index;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Versioned binary file format for a complete FM index. The file is written
+ * sequentially in native byte order and read back through memory mapped
+ * buffers so that processes on the same node share the page cache.
+ *
+ * @author Dominik Kopczynski
+ */
+public class FMIndexFile {
+
+    /**
+     * Magic number at the start of every index file ("FMIX").
+     */
+    public static final int MAGIC = 0x584D4946;
+    /**
+     * Version of the file format, to be incremented whenever the layout
+     * changes.
+     */
+    public static final int VERSION = 2;
+    /**
+     * Extension of the index files.
+     */
+    public static final String EXTENSION = ".fmi";
+    /**
+     * Size of the buffer used when writing.
+     */
+    private static final int WRITE_BUFFER_SIZE = 8 * 1024 * 1024;
+    /**
+     * Maximal size of a mapped window when reading.
+     */
+    private static final int READ_WINDOW_SIZE = 1024 * 1024 * 1024;
+
+    /**
+     * Empty default constructor.
+     */
+    private FMIndexFile() {
+    }
+
+    /**
+     * Returns the index file for the given FASTA file and settings
+     * fingerprint.
+     *
+     * @param fastaFile the FASTA file
+     * @param fingerprint the fingerprint of the settings used to build the
+     * index
+     *
+     * @return the index file
+     */
+    public static File getIndexFile(File fastaFile, long fingerprint) {
+        return new File(fastaFile.getParentFile(), fastaFile.getName() + "_" + Long.toHexString(fingerprint) + EXTENSION);
+    }
+
+    /**
+     * Returns the CRC32 checksum of the content of the given file.
+     *
+     * @param file the file
+     *
+     * @return the checksum
+     *
+     * @throws IOException thrown if an error occurred while reading the file
+     */
+    public static long getChecksum(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[1024 * 1024];
+        FileInputStream inputStream = new FileInputStream(file);
+        try {
+            int read;
+            while ((read = inputStream.read(buffer)) > 0) {
+                crc.update(buffer, 0, read);
+            }
+        } finally {
+            inputStream.close();
+        }
+        return (file.length() << 32) ^ crc.getValue();
+    }
+
+    /**
+     * Sequential writer of an index file. The content is written to a
+     * temporary file which replaces the destination file when closed, so that
+     * an interrupted write never leaves an incomplete index at the destination.
+     */
+    public static class Writer {
+
+        /**
+         * The destination file.
+         */
+        private final File file;
+        /**
+         * The temporary file written.
+         */
+        private final File tempFile;
+
+        /**
+         * The file channel.
+         */
+        private final FileChannel channel;
+        /**
+         * The random access file.
+         */
+        private final RandomAccessFile raf;
+        /**
+         * The write buffer.
+         */
+        private final ByteBuffer buffer;
+
+        /**
+         * Constructor. Writes the header of the file.
+         *
+         * @param file the destination file
+         * @param checksum the checksum of the FASTA file
+         * @param fingerprint the fingerprint of the index settings
+         *
+         * @throws IOException thrown if an error occurred while writing the
+         * file
+         */
+        public Writer(File file, long checksum, long fingerprint) throws IOException {
+            this.file = file;
+            tempFile = getTempFile(file);
+            raf = new RandomAccessFile(tempFile, "rw");
+            raf.setLength(0);
+            channel = raf.getChannel();
+            buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE).order(ByteOrder.nativeOrder());
+            putInt(MAGIC);
+            putInt(VERSION);
+            putInt(ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN ? 0 : 1);
+            putLong(checksum);
+            putLong(fingerprint);
+        }
+
+        /**
+         * Makes sure that the given number of bytes can be put in the buffer.
+         *
+         * @param nBytes the number of bytes
+         *
+         * @throws IOException thrown if an error occurred while writing the
+         * file
+         */
+        private void ensure(int nBytes) throws IOException {
+            if (buffer.remaining() < nBytes) {
+                flush();
+            }
+        }
+
+        /**
+         * Writes the content of the buffer to the file.
+         *
+         * @throws IOException thrown if an error occurred while writing the
+         * file
+         */
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        /**
+         * Writes a boolean.
+         *
+         * @param value the value
+         *
+         * @throws IOException thrown if an error occurred while writing the
+         * file
+         */
+        public void putBoolean(boolean value) throws IOException {
+            putInt(value ? 1 : 0);
+        }
+
+        /**
+         * Writes an integer.
+         *
+         * @param value the value
+         *
+         * @throws IOException thrown if an error occurred while writing the
+         * file
+         */
+        public void putInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        /**
+         * Writes a long.
+         *
+         * @param value the value
+         *
+         * @throws IOException thrown if an error occurred while writing the
+         * file
+         */
+        public void putLong(long value) throws IOException {
+            ensure(8);
+            buffer.putLong(value);
+        }
+
+        /**
+         * Writes a double.
+         *
+         * @param value the value
+         *
+         * @throws IOException thrown if an error occurred while writing the
+         * file
+         */
+        public void putDouble(double value) throws IOException {
+            ensure(8);
+            buffer.putDouble(value);
+        }
+
+        /**
+         * Writes a string in UTF-8, null strings are supported.
+         *
+         * @param value the value
+         *
+         * @throws IOException thrown if an error occurred while writing the
+         * file
+         */
+        public void putString(String value) throws IOException {
+            if (value == null) {
+                putInt(-1);
+                return;
+            }
+            putBytes(value.getBytes("UTF-8"));
+        }
+
+        /**
+         * Writes an array of bytes preceded by its length.
+         *
+         * @param values the values
+         *
+         * @throws IOException thrown if an error occurred while writing the
+         * file
+         */
+        public void putBytes(byte[] values) throws IOException {
+            putInt(values.length);
+            int offset = 0;
+            while (offset < values.length) {
+                ensure(1);
+                int length = Math.min(buffer.remaining(), values.length - offset);
+                buffer.put(values, offset, length);
+                offset += length;
+            }
+            align();
+        }
+
+        /**
+         * Writes an array of integers preceded by its length.
+         *
+         * @param values the values
+         *
+         * @throws IOException thrown if an error occurred while writing the
+         * file
+         */
+        public void putInts(int[] values) throws IOException {
+            putInts(values, values.length);
+        }
+
+        /**
+         * Writes the first values of an array of integers preceded by their
+         * number.
+         *
+         * @param values the values
+         * @param length the number of values to write
+         *
+         * @throws IOException thrown if an error occurred while writing the
+         * file
+         */
+        public void putInts(int[] values, int length) throws IOException {
+            putInt(length);
+            align();
+            int offset = 0;
+            while (offset < length) {
+                ensure(4);
+                int n = Math.min(buffer.remaining() >>> 2, length - offset);
+                buffer.asIntBuffer().put(values, offset, n);
+                buffer.position(buffer.position() + (n << 2));
+                offset += n;
+            }
+            align();
+        }
+
+        /**
+         * Writes the content of an integer buffer preceded by its length.
+         *
+         * @param values the values
+         *
+         * @throws IOException thrown if an error occurred while writing the
+         * file
+         */
+        public void putInts(IntBuffer values) throws IOException {
+            int length = values.limit();
+            putInt(length);
+            align();
+            for (int i = 0; i < length; ++i) {
+                ensure(4);
+                buffer.putInt(values.get(i));
+            }
+            align();
+        }
+
+        /**
+         * Writes an array of longs preceded by its length.
+         *
+         * @param values the values
+         *
+         * @throws IOException thrown if an error occurred while writing the
+         * file
+         */
+        public void putLongs(long[] values) throws IOException {
+            putInt(values.length);
+            align();
+            int offset = 0;
+            while (offset < values.length) {
+                ensure(8);
+                int n = Math.min(buffer.remaining() >>> 3, values.length - offset);
+                buffer.asLongBuffer().put(values, offset, n);
+                buffer.position(buffer.position() + (n << 3));
+                offset += n;
+            }
+        }
+
+        /**
+         * Pads the output to the next multiple of 8 bytes so that arrays can
+         * be viewed directly from the mapped file.
+         *
+         * @throws IOException thrown if an error occurred while writing the
+         * file
+         */
+        private void align() throws IOException {
+            int padding = (int) ((8 - ((channel.position() + buffer.position()) & 7)) & 7);
+            ensure(padding);
+            for (int i = 0; i < padding; ++i) {
+                buffer.put((byte) 0);
+            }
+        }
+
+        /**
+         * Flushes and closes the file, and moves it to the destination.
+         *
+         * @throws IOException thrown if an error occurred while writing the
+         * file
+         */
+        public void close() throws IOException {
+            try {
+                flush();
+                channel.force(false);
+            } finally {
+                raf.close();
+            }
+            if (file.exists() && !file.delete()) {
+                tempFile.delete();
+                throw new IOException("Could not replace " + file.getAbsolutePath() + ".");
+            }
+            if (!tempFile.renameTo(file)) {
+                tempFile.delete();
+                throw new IOException("Could not move " + tempFile.getAbsolutePath() + " to " + file.getAbsolutePath() + ".");
+            }
+        }
+
+        /**
+         * Closes and deletes the temporary file without writing the
+         * destination.
+         */
+        public void abort() {
+            try {
+                raf.close();
+            } catch (IOException e) {
+                // the file is deleted anyway
+            }
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * Returns the temporary file used while writing the given index file.
+     *
+     * @param file the index file
+     *
+     * @return the temporary file
+     */
+    public static File getTempFile(File file) {
+        return new File(file.getParentFile(), file.getName() + ".tmp");
+    }
+
+    /**
+     * Reader of an index file through memory mapped windows.
+     */
+    public static class Reader {
+
+        /**
+         * The random access file.
+         */
+        private final RandomAccessFile raf;
+        /**
+         * The file channel.
+         */
+        private final FileChannel channel;
+        /**
+         * The length of the file.
+         */
+        private final long fileLength;
+        /**
+         * The currently mapped window.
+         */
+        private MappedByteBuffer window = null;
+        /**
+         * The position of the window in the file.
+         */
+        private long windowStart = 0;
+        /**
+         * The current position in the file.
+         */
+        private long position = 0;
+        /**
+         * The FASTA checksum stored in the header.
+         */
+        private final long checksum;
+        /**
+         * The settings fingerprint stored in the header.
+         */
+        private final long fingerprint;
+
+        /**
+         * Constructor. Reads and validates the header of the file.
+         *
+         * @param file the index file
+         *
+         * @throws IOException thrown if an error occurred while reading the
+         * file or if the file is not a valid index file
+         */
+        public Reader(File file) throws IOException {
+            raf = new RandomAccessFile(file, "r");
+            channel = raf.getChannel();
+            fileLength = channel.size();
+            try {
+                if (getInt() != MAGIC) {
+                    throw new IOException("Not an FM index file: " + file.getName() + ".");
+                }
+                int version = getInt();
+                if (version != VERSION) {
+                    throw new IOException("Unsupported FM index file version " + version + " in " + file.getName() + ".");
+                }
+                int endianness = getInt();
+                if (endianness != (ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN ? 0 : 1)) {
+                    throw new IOException("FM index file " + file.getName() + " was written with another byte order.");
+                }
+                checksum = getLong();
+                fingerprint = getLong();
+            } catch (IOException e) {
+                raf.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Returns the FASTA checksum stored in the header.
+         *
+         * @return the FASTA checksum stored in the header
+         */
+        public long getChecksum() {
+            return checksum;
+        }
+
+        /**
+         * Returns the settings fingerprint stored in the header.
+         *
+         * @return the settings fingerprint stored in the header
+         */
+        public long getFingerprint() {
+            return fingerprint;
+        }
+
+        /**
+         * Returns a buffer positioned at the current location containing the
+         * given number of bytes and advances the position.
+         *
+         * @param nBytes the number of bytes
+         *
+         * @return a buffer in native order
+         *
+         * @throws IOException thrown if an error occurred while reading the
+         * file
+         */
+        private ByteBuffer next(long nBytes) throws IOException {
+            if (nBytes > Integer.MAX_VALUE || position + nBytes > fileLength) {
+                throw new IOException("Corrupted FM index file.");
+            }
+            if (window == null || position < windowStart || position + nBytes > windowStart + window.capacity()) {
+                long size = Math.max(nBytes, Math.min(READ_WINDOW_SIZE, fileLength - position));
+                window = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+                windowStart = position;
+            }
+            ByteBuffer view = window.duplicate();
+            int start = (int) (position - windowStart);
+            view.position(start);
+            view.limit(start + (int) nBytes);
+            position += nBytes;
+            return view.slice().order(ByteOrder.nativeOrder());
+        }
+
+        /**
+         * Skips the padding written after arrays.
+         */
+        private void align() {
+            position = (position + 7) & ~7L;
+        }
+
+        /**
+         * Reads a boolean.
+         *
+         * @return the value
+         *
+         * @throws IOException thrown if an error occurred while reading the
+         * file
+         */
+        public boolean getBoolean() throws IOException {
+            return getInt() != 0;
+        }
+
+        /**
+         * Reads an integer.
+         *
+         * @return the value
+         *
+         * @throws IOException thrown if an error occurred while reading the
+         * file
+         */
+        public int getInt() throws IOException {
+            return next(4).getInt();
+        }
+
+        /**
+         * Reads a long.
+         *
+         * @return the value
+         *
+         * @throws IOException thrown if an error occurred while reading the
+         * file
+         */
+        public long getLong() throws IOException {
+            return next(8).getLong();
+        }
+
+        /**
+         * Reads a double.
+         *
+         * @return the value
+         *
+         * @throws IOException thrown if an error occurred while reading the
+         * file
+         */
+        public double getDouble() throws IOException {
+            return next(8).getDouble();
+        }
+
+        /**
+         * Reads a string.
+         *
+         * @return the value, can be null
+         *
+         * @throws IOException thrown if an error occurred while reading the
+         * file
+         */
+        public String getString() throws IOException {
+            int length = getInt();
+            if (length < 0) {
+                return null;
+            }
+            byte[] bytes = new byte[length];
+            next(length).get(bytes);
+            align();
+            return new String(bytes, "UTF-8");
+        }
+
+        /**
+         * Reads an array of bytes.
+         *
+         * @return the values
+         *
+         * @throws IOException thrown if an error occurred while reading the
+         * file
+         */
+        public byte[] getBytes() throws IOException {
+            int length = getInt();
+            byte[] bytes = new byte[length];
+            next(length).get(bytes);
+            align();
+            return bytes;
+        }
+
+        /**
+         * Reads an array of integers into the heap.
+         *
+         * @return the values
+         *
+         * @throws IOException thrown if an error occurred while reading the
+         * file
+         */
+        public int[] getInts() throws IOException {
+            IntBuffer view = getIntBuffer();
+            int[] values = new int[view.remaining()];
+            view.get(values);
+            return values;
+        }
+
+        /**
+         * Returns a read only view on an array of integers without copying it
+         * to the heap.
+         *
+         * @return the mapped values
+         *
+         * @throws IOException thrown if an error occurred while reading the
+         * file
+         */
+        public IntBuffer getIntBuffer() throws IOException {
+            int length = getInt();
+            align();
+            IntBuffer view = next(((long) length) << 2).asIntBuffer();
+            align();
+            return view;
+        }
+
+        /**
+         * Reads an array of longs into the heap.
+         *
+         * @return the values
+         *
+         * @throws IOException thrown if an error occurred while reading the
+         * file
+         */
+        public long[] getLongs() throws IOException {
+            int length = getInt();
+            align();
+            long[] values = new long[length];
+            next(((long) length) << 3).asLongBuffer().get(values);
+            return values;
+        }
+
+        /**
+         * Closes the file. Buffers handed out remain valid until garbage
+         * collected.
+         *
+         * @throws IOException thrown if an error occurred while closing the
+         * file
+         */
+        public void close() throws IOException {
+            window = null;
+            raf.close();
+        }
+    }
+}
@@ -1,11 +1,13 @@
 package com.compomics.util.experiment.identification.protein_inference.fm_index;
 
+import java.io.IOException;
+
 /**
  * Rank as used in the FM index.
  *
  * @author Dominik Kopczynski
  */
-public class Rank {
+public class Rank implements BitRank {
 
     /**
      * The length.
@@ -102,6 +104,34 @@ public class Rank {
         }
     }
 
+    /**
+     * Constructor loading the rank from an index file.
+     *
+     * @param reader the index file reader
+     *
+     * @throws IOException thrown if an error occurred while reading the file
+     */
+    public Rank(FMIndexFile.Reader reader) throws IOException {
+        length = reader.getInt();
+        bitfield = reader.getLongs();
+        sums = reader.getInts();
+        sumsSecondLevel = reader.getBytes();
+    }
+
+    /**
+     * Writes the rank to an index file.
+     *
+     * @param writer the index file writer
+     *
+     * @throws IOException thrown if an error occurred while writing the file
+     */
+    public void write(FMIndexFile.Writer writer) throws IOException {
+        writer.putInt(length);
+        writer.putLongs(bitfield);
+        writer.putInts(sums);
+        writer.putBytes(sumsSecondLevel);
+    }
+
     /**
      * Returns the rank.
      *
@@ -145,6 +175,45 @@ public class Rank {
         return index + 1 - count_ones;
     }
 
+    /**
+     * Returns the position of the k-th one.
+     *
+     * @param k the number of the one, starting from one
+     * @return the position of the k-th one, -1 if there are less than k ones
+     */
+    public int selectOne(int k) {
+        if (k <= 0) {
+            return -1;
+        }
+
+        // last superblock with less than k ones before it
+        int low = 0;
+        int high = length > 0 ? (length - 1) >>> 8 : 0;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (sums[middle] < k) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+
+        int remaining = k - sums[low];
+        for (int cell = low << 2; cell < bitfield.length; ++cell) {
+            long bits = bitfield[cell];
+            int count = Long.bitCount(bits);
+            if (remaining <= count) {
+                for (int i = 1; i < remaining; ++i) {
+                    bits &= bits - 1;
+                }
+                int position = (cell << shift) + Long.numberOfTrailingZeros(bits);
+                return position < length ? position : -1;
+            }
+            remaining -= count;
+        }
+        return -1;
+    }
+
     /**
      * Returns true if the value is equal to one.
      *
@@ -0,0 +1,173 @@
+package com.compomics.util.experiment.identification.protein_inference.fm_index;
+
+import java.io.IOException;
+
+/**
+ * Rank with the counters interleaved with the bits. The bits are stored in
+ * blocks of eight longs, i.e. one 64 byte cache line: a header word followed
+ * by seven words of bits. The header holds the number of ones before the
+ * block in its upper 32 bits and the number of ones in the first two, four
+ * and six words of the block in three 9 bit fields. A rank query thus reads
+ * a single block and counts the bits of at most two words.
+ *
+ * @author Dominik Kopczynski
+ */
+public class RankInterleaved implements BitRank {
+
+    /**
+     * Number of longs per block.
+     */
+    private static final int BLOCK_WORDS = 8;
+    /**
+     * Number of bits per block.
+     */
+    private static final int BLOCK_BITS = (BLOCK_WORDS - 1) << 6;
+    /**
+     * Multiplier dividing a word index by seven, exact for the word indexes
+     * of an int indexed text.
+     */
+    private static final long DIVIDE_BY_SEVEN = 0x24924925L;
+    /**
+     * Mask of a field of the header.
+     */
+    private static final long FIELD_MASK = 511;
+    /**
+     * The length.
+     */
+    public final int length;
+    /**
+     * The blocks of header and bit words.
+     */
+    private final long[] blocks;
+
+    /**
+     * Constructor.
+     *
+     * @param text the text
+     * @param aAlphabet the alphabet, characters of which are set to one
+     */
+    public RankInterleaved(byte[] text, long[] aAlphabet) {
+        length = text.length;
+        int nBlocks = length / BLOCK_BITS + 1;
+        blocks = new long[nBlocks * BLOCK_WORDS];
+
+        for (int i = 0; i < length; ++i) {
+            long bit = (aAlphabet[text[i] >>> 6] >>> (text[i] & 63)) & 1L;
+            int block = i / BLOCK_BITS;
+            int offset = i - block * BLOCK_BITS;
+            blocks[block * BLOCK_WORDS + 1 + (offset >>> 6)] |= bit << (offset & 63);
+        }
+
+        long count = 0;
+        for (int block = 0; block < nBlocks; ++block) {
+            int start = block * BLOCK_WORDS;
+            long header = count << 32;
+            long blockCount = 0;
+            for (int word = 0; word < BLOCK_WORDS - 1; ++word) {
+                if (word > 0 && (word & 1) == 0) {
+                    header |= blockCount << (9 * ((word >>> 1) - 1));
+                }
+                blockCount += Long.bitCount(blocks[start + 1 + word]);
+            }
+            blocks[start] = header;
+            count += blockCount;
+        }
+    }
+
+    /**
+     * Constructor loading the rank from an index file.
+     *
+     * @param reader the index file reader
+     *
+     * @throws IOException thrown if an error occurred while reading the file
+     */
+    public RankInterleaved(FMIndexFile.Reader reader) throws IOException {
+        length = reader.getInt();
+        blocks = reader.getLongs();
+    }
+
+    @Override
+    public void write(FMIndexFile.Writer writer) throws IOException {
+        writer.putInt(length);
+        writer.putLongs(blocks);
+    }
+
+    @Override
+    public int getRank(int index, boolean zeros) {
+        int countOnes = getRankOne(index);
+        return zeros ? index + 1 - countOnes : countOnes;
+    }
+
+    @Override
+    public final int getRankOne(int index) {
+        final int cell = index >>> 6;
+        final int block = (int) ((cell * DIVIDE_BY_SEVEN) >>> 32);
+        final int word = cell - 7 * block;
+        final int start = block << 3;
+        final long header = blocks[start];
+
+        // the shifted header has a zero field for the first pair of words
+        final long pairCount = ((header << 9) >>> (9 * (word >>> 1))) & FIELD_MASK;
+        // for odd words add the preceding word, for word 0 this reads the header and is masked out
+        final long previousWord = Long.bitCount(blocks[start + word]) & -(word & 1);
+        final long activeOnes = blocks[start + 1 + word] << (63 - (index & 63));
+        return (int) ((header >>> 32) + pairCount + previousWord + Long.bitCount(activeOnes));
+    }
+
+    @Override
+    public int getRankZero(int index) {
+        return index + 1 - getRankOne(index);
+    }
+
+    @Override
+    public int selectOne(int k) {
+        if (k <= 0) {
+            return -1;
+        }
+
+        // last block with less than k ones before it
+        int low = 0;
+        int high = blocks.length / BLOCK_WORDS - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if ((blocks[middle * BLOCK_WORDS] >>> 32) < k) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+
+        int start = low * BLOCK_WORDS;
+        int remaining = k - (int) (blocks[start] >>> 32);
+        for (int word = 0; word < BLOCK_WORDS - 1; ++word) {
+            long bits = blocks[start + 1 + word];
+            int count = Long.bitCount(bits);
+            if (remaining <= count) {
+                for (int i = 1; i < remaining; ++i) {
+                    bits &= bits - 1;
+                }
+                int position = low * BLOCK_BITS + (word << 6) + Long.numberOfTrailingZeros(bits);
+                return position < length ? position : -1;
+            }
+            remaining -= count;
+        }
+        return -1;
+    }
+
+    @Override
+    public boolean isOne(int index) {
+        return isOneInt(index) == 1;
+    }
+
+    @Override
+    public int isOneInt(int index) {
+        int cell = index >>> 6;
+        int block = (int) ((cell * DIVIDE_BY_SEVEN) >>> 32);
+        return (int) ((blocks[(block << 3) + 1 + cell - 7 * block] >>> (index & 63)) & 1L);
+    }
+
+    @Override
+    public int getAllocatedBytes() {
+        return blocks.length << 3;
+    }
+}
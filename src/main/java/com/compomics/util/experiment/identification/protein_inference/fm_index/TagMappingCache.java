@@ -0,0 +1,336 @@
+package com.compomics.util.experiment.identification.protein_inference.fm_index;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache for the intermediate results of the tag to proteome mapping.
+ * The cache is split in segments selected by the hash of the key, every
+ * segment being an LRU map guarded by its own lock, so that mapping threads
+ * only contend when they hit the same segment. The size of the cache is
+ * bounded by its weight, i.e. the number of cached matrix contents.
+ *
+ * @author Dominik Kopczynski
+ */
+public class TagMappingCache {
+
+    /**
+     * The default maximal weight of the cache in number of matrix contents.
+     */
+    public static final long DEFAULT_MAX_WEIGHT = 500000;
+    /**
+     * Number of segments, must be a power of two.
+     */
+    private static final int N_SEGMENTS = 64;
+    /**
+     * Factor used to quantize the masses, corresponds to five decimals.
+     */
+    private static final double MASS_QUANTUM = 100000.0;
+    /**
+     * The segments of the cache.
+     */
+    private final Segment[] segments = new Segment[N_SEGMENTS];
+    /**
+     * The number of cache hits.
+     */
+    private final AtomicLong hits = new AtomicLong();
+    /**
+     * The number of cache misses.
+     */
+    private final AtomicLong misses = new AtomicLong();
+    /**
+     * The number of evicted entries.
+     */
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Constructor with the default maximal weight.
+     */
+    public TagMappingCache() {
+        this(DEFAULT_MAX_WEIGHT);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param maxWeight the maximal weight of the cache in number of matrix
+     * contents
+     */
+    public TagMappingCache(long maxWeight) {
+        long segmentWeight = Math.max(maxWeight / N_SEGMENTS, 1);
+        for (int i = 0; i < N_SEGMENTS; ++i) {
+            segments[i] = new Segment(segmentWeight);
+        }
+    }
+
+    /**
+     * Returns the cached matrix contents of the given sequence and mass, null
+     * if not cached.
+     *
+     * @param indexPart the index part
+     * @param sequence the amino acid sequence
+     * @param mass the mass following the sequence
+     *
+     * @return the cached matrix contents, null if not cached
+     */
+    public ArrayList<MatrixContent> get(int indexPart, String sequence, double mass) {
+        Key key = new Key(indexPart, sequence, mass);
+        ArrayList<MatrixContent> cached = getSegment(key).get(key);
+        if (cached == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return cached;
+    }
+
+    /**
+     * Adds matrix contents to the cache, if not already cached. The matrix
+     * contents must not be modified afterwards.
+     *
+     * @param indexPart the index part
+     * @param sequence the amino acid sequence
+     * @param mass the mass following the sequence
+     * @param matrixContents the matrix contents
+     */
+    public void put(int indexPart, String sequence, double mass, ArrayList<MatrixContent> matrixContents) {
+        Key key = new Key(indexPart, sequence, mass);
+        getSegment(key).put(key, matrixContents);
+    }
+
+    /**
+     * Empties the cache and resets the statistics.
+     */
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+    }
+
+    /**
+     * Returns the number of cached entries.
+     *
+     * @return the number of cached entries
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * Returns the weight of the cache in number of matrix contents.
+     *
+     * @return the weight of the cache
+     */
+    public long getWeight() {
+        long weight = 0;
+        for (Segment segment : segments) {
+            weight += segment.getWeight();
+        }
+        return weight;
+    }
+
+    /**
+     * Returns the number of cache hits.
+     *
+     * @return the number of cache hits
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of cache misses.
+     *
+     * @return the number of cache misses
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of evicted entries.
+     *
+     * @return the number of evicted entries
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    @Override
+    public String toString() {
+        return size() + " entries (weight " + getWeight() + "), " + getHits() + " hits, " + getMisses() + " misses, " + getEvictions() + " evictions";
+    }
+
+    /**
+     * Returns the segment of the given key.
+     *
+     * @param key the key
+     *
+     * @return the segment of the key
+     */
+    private Segment getSegment(Key key) {
+        int hash = key.hash ^ (key.hash >>> 16);
+        return segments[hash & (N_SEGMENTS - 1)];
+    }
+
+    /**
+     * Key of the cache made of the index part, the sequence and the quantized
+     * mass.
+     */
+    private static class Key {
+
+        /**
+         * The index part.
+         */
+        private final int indexPart;
+        /**
+         * The amino acid sequence.
+         */
+        private final String sequence;
+        /**
+         * The mass quantized to five decimals.
+         */
+        private final long massQuantum;
+        /**
+         * The hash of the key.
+         */
+        private final int hash;
+
+        /**
+         * Constructor.
+         *
+         * @param indexPart the index part
+         * @param sequence the amino acid sequence
+         * @param mass the mass
+         */
+        Key(int indexPart, String sequence, double mass) {
+            this.indexPart = indexPart;
+            this.sequence = sequence;
+            this.massQuantum = Math.round(mass * MASS_QUANTUM);
+            int h = 31 * sequence.hashCode() + (int) (massQuantum ^ (massQuantum >>> 32));
+            this.hash = 31 * h + indexPart;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return hash == other.hash && massQuantum == other.massQuantum && indexPart == other.indexPart && sequence.equals(other.sequence);
+        }
+    }
+
+    /**
+     * Segment of the cache, an LRU map bounded by weight.
+     */
+    private class Segment {
+
+        /**
+         * The maximal weight of the segment.
+         */
+        private final long maxWeight;
+        /**
+         * The current weight of the segment.
+         */
+        private long weight = 0;
+        /**
+         * The entries in access order.
+         */
+        private final LinkedHashMap<Key, ArrayList<MatrixContent>> entries = new LinkedHashMap<Key, ArrayList<MatrixContent>>(16, 0.75f, true);
+
+        /**
+         * Constructor.
+         *
+         * @param maxWeight the maximal weight of the segment
+         */
+        Segment(long maxWeight) {
+            this.maxWeight = maxWeight;
+        }
+
+        /**
+         * Returns the entry of the given key, null if not found.
+         *
+         * @param key the key
+         *
+         * @return the entry of the given key
+         */
+        synchronized ArrayList<MatrixContent> get(Key key) {
+            return entries.get(key);
+        }
+
+        /**
+         * Adds an entry if not present and evicts the least recently used
+         * entries above the maximal weight.
+         *
+         * @param key the key
+         * @param value the value
+         */
+        synchronized void put(Key key, ArrayList<MatrixContent> value) {
+            if (entries.containsKey(key)) {
+                return;
+            }
+            entries.put(key, value);
+            weight += getWeight(value);
+            Iterator<Map.Entry<Key, ArrayList<MatrixContent>>> iterator = entries.entrySet().iterator();
+            while (weight > maxWeight && entries.size() > 1) {
+                ArrayList<MatrixContent> evicted = iterator.next().getValue();
+                iterator.remove();
+                weight -= getWeight(evicted);
+                evictions.incrementAndGet();
+            }
+        }
+
+        /**
+         * Empties the segment.
+         */
+        synchronized void clear() {
+            entries.clear();
+            weight = 0;
+        }
+
+        /**
+         * Returns the number of entries in the segment.
+         *
+         * @return the number of entries in the segment
+         */
+        synchronized int size() {
+            return entries.size();
+        }
+
+        /**
+         * Returns the weight of the segment.
+         *
+         * @return the weight of the segment
+         */
+        synchronized long getWeight() {
+            return weight;
+        }
+
+        /**
+         * Returns the weight of a value, empty values count as one.
+         *
+         * @param value the value
+         *
+         * @return the weight of the value
+         */
+        private long getWeight(ArrayList<MatrixContent> value) {
+            return Math.max(value.size(), 1);
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.compomics.util.experiment.identification.protein_inference.fm_index;
 
 import com.compomics.util.waiting.WaitingHandler;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 
@@ -14,7 +15,12 @@ public class WaveletTree {
     /**
      * Instance of a rank.
      */
-    private Rank rank;
+    private BitRank rank;
+    
+    /**
+     * If true the rank of the nodes interleaves the counters with the bits.
+     */
+    private boolean interleavedRank = false;
     
     /**
      * Stored alphabet in a 128 bitfield.
@@ -76,6 +82,9 @@ public class WaveletTree {
      */
     private int leftRightMask;
     
+    /**
+     * Less table, only set for the root of the tree.
+     */
     private int[] less;
     
 
@@ -140,6 +149,22 @@ public class WaveletTree {
         prepareWaveletTree(text, aAlphabet, waitingHandler, numMasses, hasPTMatTerminus);
     }
 
+    /**
+     * Constructor.
+     *
+     * @param text the text
+     * @param aAlphabet the alphabet
+     * @param waitingHandler the waiting handler
+     * @param numMasses  number of masses plus modifications
+     * @param hasPTMatTerminus indicates how to handle / sign
+     * @param interleavedRank if true the nodes use a rank interleaving the
+     * counters with the bits, see RankInterleaved
+     */
+    public WaveletTree(byte[] text, long[] aAlphabet, WaitingHandler waitingHandler, int numMasses, boolean hasPTMatTerminus, boolean interleavedRank) {
+        this.interleavedRank = interleavedRank;
+        prepareWaveletTree(text, aAlphabet, waitingHandler, numMasses, hasPTMatTerminus);
+    }
+
     /**
      * Constructor.
      *
@@ -208,12 +233,91 @@ public class WaveletTree {
      * @param hasPTMatTerminus if there is a PTM at the terminus
      */
     public WaveletTree(byte[] text, WaitingHandler waitingHandler, HuffmanNode root, int numMasses, boolean hasPTMatTerminus) {
+        this(text, waitingHandler, root, numMasses, hasPTMatTerminus, false);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param text the text
+     * @param waitingHandler the waiting handler
+     * @param root the root
+     * @param numMasses  number of masses plus modifications
+     * @param hasPTMatTerminus if there is a PTM at the terminus
+     * @param interleavedRank if true the nodes use a rank interleaving the
+     * counters with the bits
+     */
+    public WaveletTree(byte[] text, WaitingHandler waitingHandler, HuffmanNode root, int numMasses, boolean hasPTMatTerminus, boolean interleavedRank) {
         this.numMasses = numMasses;
+        this.interleavedRank = interleavedRank;
         createWaveletTreeHuffman(text, waitingHandler, root, numMasses, hasPTMatTerminus);
     }
     
     
 
+    /**
+     * Constructor loading the tree and all its children from an index file.
+     *
+     * @param reader the index file reader
+     *
+     * @throws IOException thrown if an error occurred while reading the file
+     */
+    public WaveletTree(FMIndexFile.Reader reader) throws IOException {
+        lenText = reader.getInt();
+        numMasses = reader.getInt();
+        firstChar = reader.getInt();
+        lastChar = reader.getInt();
+        leftRightMask = reader.getInt();
+        alphabetDirections[0] = reader.getLong();
+        alphabetDirections[1] = reader.getLong();
+        continueLeftRangeQuery = reader.getBoolean();
+        continueRightRangeQuery = reader.getBoolean();
+        if (reader.getBoolean()) {
+            less = reader.getInts();
+        }
+        interleavedRank = reader.getBoolean();
+        rank = interleavedRank ? new RankInterleaved(reader) : new Rank(reader);
+        if (reader.getBoolean()) {
+            leftChild = new WaveletTree(reader);
+        }
+        if (reader.getBoolean()) {
+            rightChild = new WaveletTree(reader);
+        }
+    }
+
+    /**
+     * Writes the tree and all its children to an index file.
+     *
+     * @param writer the index file writer
+     *
+     * @throws IOException thrown if an error occurred while writing the file
+     */
+    public void write(FMIndexFile.Writer writer) throws IOException {
+        writer.putInt(lenText);
+        writer.putInt(numMasses);
+        writer.putInt(firstChar);
+        writer.putInt(lastChar);
+        writer.putInt(leftRightMask);
+        writer.putLong(alphabetDirections[0]);
+        writer.putLong(alphabetDirections[1]);
+        writer.putBoolean(continueLeftRangeQuery);
+        writer.putBoolean(continueRightRangeQuery);
+        writer.putBoolean(less != null);
+        if (less != null) {
+            writer.putInts(less);
+        }
+        writer.putBoolean(interleavedRank);
+        rank.write(writer);
+        writer.putBoolean(leftChild != null);
+        if (leftChild != null) {
+            leftChild.write(writer);
+        }
+        writer.putBoolean(rightChild != null);
+        if (rightChild != null) {
+            rightChild.write(writer);
+        }
+    }
+
     /**
      * Create wavelet tree huffman.
      *
@@ -250,7 +354,7 @@ public class WaveletTree {
         continueRightRangeQuery = (((alphabet_right[0] & (~alphabetExcluded[0])) + (alphabet_right[1] & (~alphabetExcluded[1]))) > 0);
 
         lenText = text.length;
-        rank = new Rank(text, alphabet_right);
+        rank = interleavedRank ? new RankInterleaved(text, alphabet_right) : new Rank(text, alphabet_right);
         leftChild = null;
         rightChild = null;
 
@@ -284,7 +388,7 @@ public class WaveletTree {
                         text_left[j++] = text[i];
                     }
                 }
-                leftChild = new WaveletTree(text_left, waitingHandler, root.leftChild, numMasses, hasPTMatTerminus);
+                leftChild = new WaveletTree(text_left, waitingHandler, root.leftChild, numMasses, hasPTMatTerminus, interleavedRank);
             }
         }
         if (waitingHandler != null && waitingHandler.isRunCanceled()) {
@@ -309,7 +413,7 @@ public class WaveletTree {
                         text_right[j++] = text[i];
                     }
                 }
-                rightChild = new WaveletTree(text_right, waitingHandler, root.rightChild, numMasses, hasPTMatTerminus);
+                rightChild = new WaveletTree(text_right, waitingHandler, root.rightChild, numMasses, hasPTMatTerminus, interleavedRank);
             }
         }
         if (leftChild != null) leftRightMask = 4;
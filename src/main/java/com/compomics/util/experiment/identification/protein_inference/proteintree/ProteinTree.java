@@ -14,7 +14,9 @@ import com.compomics.util.experiment.identification.TagFactory;
 import com.compomics.util.experiment.identification.amino_acid_tags.Tag;
 import com.compomics.util.experiment.identification.amino_acid_tags.TagComponent;
 import com.compomics.util.experiment.identification.amino_acid_tags.matchers.TagMatcher;
-import com.compomics.util.experiment.identification.protein_inference.PeptideMapper;
+import com.compomics.util.experiment.identification.protein_inference.BatchPeptideMapper;
+import com.compomics.util.experiment.identification.protein_inference.PeptideMappingListener;
+import com.compomics.util.experiment.identification.protein_inference.PeptideMappingStatistics;
 import com.compomics.util.experiment.identification.protein_inference.PeptideProteinMapping;
 import com.compomics.util.math.BasicMathFunctions;
 import com.compomics.util.preferences.SequenceMatchingPreferences;
@@ -28,11 +30,13 @@ import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.TreeSet;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -41,7 +45,7 @@ import java.util.concurrent.Executors;
  *
  * @author Marc Vaudel
  */
-public class ProteinTree implements PeptideMapper {
+public class ProteinTree implements BatchPeptideMapper {
 
     /**
      * The memory allocation in MB.
@@ -1096,6 +1100,78 @@ public class ProteinTree implements PeptideMapper {
         throw new InterruptedException("Error: function not implemented");
     }
 
+    /**
+     * Maps a batch of peptide sequences. The tree caches are not thread safe,
+     * the sequences are therefore mapped on the calling thread regardless of
+     * the number of threads.
+     *
+     * @param peptideSequences the peptide sequences
+     * @param sequenceMatchingPreferences the sequence matching preferences
+     * @param listener the listener receiving the mappings
+     * @param nThreads ignored
+     *
+     * @return the throughput statistics of the mapping
+     *
+     * @throws IOException exception thrown whenever an error occurs while
+     * reading or writing a file.
+     * @throws ClassNotFoundException exception thrown whenever an error occurs
+     * while deserializing an object.
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while mapping.
+     * @throws SQLException if an SQLException exception thrown whenever a
+     * problem occurred while interacting with the tree database.
+     */
+    @Override
+    public PeptideMappingStatistics getProteinMappings(Collection<String> peptideSequences, SequenceMatchingPreferences sequenceMatchingPreferences,
+            PeptideMappingListener<String> listener, int nThreads) throws IOException, InterruptedException, ClassNotFoundException, SQLException {
+        PeptideMappingStatistics statistics = new PeptideMappingStatistics();
+        statistics.addQueries(peptideSequences.size());
+        for (String peptideSequence : new TreeSet<String>(peptideSequences)) {
+            ArrayList<PeptideProteinMapping> peptideProteinMappings = getProteinMapping(peptideSequence, sequenceMatchingPreferences);
+            statistics.addMappedQuery(peptideProteinMappings.size());
+            listener.mappingCompleted(peptideSequence, peptideProteinMappings);
+        }
+        statistics.setFinished();
+        return statistics;
+    }
+
+    /**
+     * Maps a batch of tags. The tree caches are not thread safe, the tags are
+     * therefore mapped on the calling thread regardless of the number of
+     * threads.
+     *
+     * @param tags the tags
+     * @param tagMatcher the tag matcher to use
+     * @param sequenceMatchingPreferences the sequence matching preferences
+     * @param massTolerance the MS2 m/z tolerance
+     * @param listener the listener receiving the mappings
+     * @param nThreads ignored
+     *
+     * @return the throughput statistics of the mapping
+     *
+     * @throws IOException exception thrown whenever an error occurs while
+     * reading or writing a file.
+     * @throws ClassNotFoundException exception thrown whenever an error occurs
+     * while deserializing an object.
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while mapping.
+     * @throws SQLException if an SQLException exception thrown whenever a
+     * problem occurred while interacting with the tree database.
+     */
+    @Override
+    public PeptideMappingStatistics getTagMappings(Collection<Tag> tags, TagMatcher tagMatcher, SequenceMatchingPreferences sequenceMatchingPreferences, Double massTolerance,
+            PeptideMappingListener<Tag> listener, int nThreads) throws IOException, InterruptedException, ClassNotFoundException, SQLException {
+        PeptideMappingStatistics statistics = new PeptideMappingStatistics();
+        statistics.addQueries(tags.size());
+        for (Tag tag : tags) {
+            ArrayList<PeptideProteinMapping> peptideProteinMappings = getProteinMapping(tag, tagMatcher, sequenceMatchingPreferences, massTolerance);
+            statistics.addMappedQuery(peptideProteinMappings.size());
+            listener.mappingCompleted(tag, peptideProteinMappings);
+        }
+        statistics.setFinished();
+        return statistics;
+    }
+
     @Override
     public ArrayList<PeptideProteinMapping> getProteinMapping(Tag tag, TagMatcher tagMatcher, SequenceMatchingPreferences sequenceMatchingPreferences, Double massTolerance) throws IOException, InterruptedException, ClassNotFoundException, SQLException {
 
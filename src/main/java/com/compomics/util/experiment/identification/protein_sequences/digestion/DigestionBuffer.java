@@ -0,0 +1,165 @@
+package com.compomics.util.experiment.identification.protein_sequences.digestion;
+
+import java.util.Arrays;
+
+/**
+ * Reusable buffer of the peptide candidates obtained from the digestion of
+ * protein sequences. Candidates are stored in primitive arrays as protein
+ * index, start and end on the protein, mass and fixed modifications, the
+ * peptides can be built on demand using the digester.
+ *
+ * @author Marc Vaudel
+ */
+public class DigestionBuffer {
+
+    /**
+     * The default capacity of the buffer.
+     */
+    public static final int DEFAULT_CAPACITY = 1024;
+    /**
+     * The indexes of the proteins of the candidates.
+     */
+    private int[] proteinIndexes;
+    /**
+     * The start indexes of the candidates on the protein, inclusive.
+     */
+    private int[] starts;
+    /**
+     * The end indexes of the candidates on the protein, exclusive.
+     */
+    private int[] ends;
+    /**
+     * The masses of the candidates.
+     */
+    private double[] masses;
+    /**
+     * The fixed modifications of the candidates as bit masks.
+     */
+    private long[] fixedModifications;
+    /**
+     * The number of candidates in the buffer.
+     */
+    private int size = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param capacity the initial capacity of the buffer
+     */
+    public DigestionBuffer(int capacity) {
+        capacity = Math.max(capacity, 1);
+        proteinIndexes = new int[capacity];
+        starts = new int[capacity];
+        ends = new int[capacity];
+        masses = new double[capacity];
+        fixedModifications = new long[capacity];
+    }
+
+    /**
+     * Constructor with default capacity.
+     */
+    public DigestionBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Adds a candidate to the buffer.
+     *
+     * @param proteinIndex the index of the protein
+     * @param start the start index on the protein, inclusive
+     * @param end the end index on the protein, exclusive
+     * @param mass the mass of the peptide
+     * @param fixedModificationsMask the fixed modifications as bit mask
+     */
+    void add(int proteinIndex, int start, int end, double mass, long fixedModificationsMask) {
+        if (size == starts.length) {
+            int capacity = 2 * size;
+            proteinIndexes = Arrays.copyOf(proteinIndexes, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            masses = Arrays.copyOf(masses, capacity);
+            fixedModifications = Arrays.copyOf(fixedModifications, capacity);
+        }
+        proteinIndexes[size] = proteinIndex;
+        starts[size] = start;
+        ends[size] = end;
+        masses[size] = mass;
+        fixedModifications[size] = fixedModificationsMask;
+        size++;
+    }
+
+    /**
+     * Empties the buffer, the memory allocated is kept for reuse.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Returns the number of candidates in the buffer.
+     *
+     * @return the number of candidates in the buffer
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the index of the protein of the candidate at the given index.
+     *
+     * @param index the index of the candidate
+     *
+     * @return the index of the protein
+     */
+    public int getProteinIndex(int index) {
+        return proteinIndexes[index];
+    }
+
+    /**
+     * Returns the start of the candidate at the given index on the protein, 0
+     * being the first amino acid.
+     *
+     * @param index the index of the candidate
+     *
+     * @return the start of the candidate on the protein, inclusive
+     */
+    public int getStart(int index) {
+        return starts[index];
+    }
+
+    /**
+     * Returns the end of the candidate at the given index on the protein.
+     *
+     * @param index the index of the candidate
+     *
+     * @return the end of the candidate on the protein, exclusive
+     */
+    public int getEnd(int index) {
+        return ends[index];
+    }
+
+    /**
+     * Returns the mass of the candidate at the given index, including the
+     * fixed modifications and the termini.
+     *
+     * @param index the index of the candidate
+     *
+     * @return the mass of the candidate
+     */
+    public double getMass(int index) {
+        return masses[index];
+    }
+
+    /**
+     * Returns the fixed modifications of the candidate at the given index as a
+     * bit mask. The bits correspond to the indexes of the modifications in the
+     * digester.
+     *
+     * @param index the index of the candidate
+     *
+     * @return the fixed modifications of the candidate as a bit mask
+     */
+    public long getFixedModifications(int index) {
+        return fixedModifications[index];
+    }
+}
@@ -0,0 +1,659 @@
+package com.compomics.util.experiment.identification.protein_sequences.digestion;
+
+import com.compomics.util.experiment.biology.AminoAcid;
+import com.compomics.util.experiment.biology.AminoAcidPattern;
+import com.compomics.util.experiment.biology.Enzyme;
+import com.compomics.util.experiment.biology.PTM;
+import com.compomics.util.experiment.biology.PTMFactory;
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import com.compomics.util.preferences.DigestionPreferences;
+import com.compomics.util.preferences.SequenceMatchingPreferences;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Digests protein sequences stored as byte arrays of one letter amino acid
+ * codes. The masses are obtained from precomputed tables of residue and fixed
+ * modification masses and the candidates are written to a reusable buffer,
+ * peptides are only built on demand. Candidates containing amino acid
+ * combinations (B, J, Z, X) are not generated, the iterators of the
+ * IteratorFactory should be used for such sequences. Like the iterators,
+ * the digester supports the digestion with a single enzyme only, digestion
+ * preferences with multiple enzymes are rejected by the constructor. The
+ * digester keeps working arrays and is not thread safe, one digester should
+ * be used per thread.
+ *
+ * @author Marc Vaudel
+ */
+public class ProteinDigester {
+
+    /**
+     * The maximal number of fixed modifications supported.
+     */
+    public static final int MAX_FIXED_MODIFICATIONS = 64;
+    /**
+     * Index used when no modification is found.
+     */
+    private static final int NO_MODIFICATION = -1;
+    /**
+     * The masses of the amino acids indexed by one letter code, NaN for
+     * combinations and unknown codes.
+     */
+    private final double[] residueMasses = new double[256];
+    /**
+     * The names of the fixed modifications.
+     */
+    private final String[] modificationNames;
+    /**
+     * The masses of the fixed modifications.
+     */
+    private final double[] modificationMasses;
+    /**
+     * The patterns targeted by the fixed modifications, null if no pattern
+     * longer than one is targeted.
+     */
+    private final AminoAcidPattern[] modificationPatterns;
+    /**
+     * Boolean indicating whether patterns need to be matched on the protein
+     * sequence.
+     */
+    private boolean hasPatterns = false;
+    /**
+     * The fixed modifications at specific amino acids indexed by one letter
+     * code.
+     */
+    private final int[] aaModifications = getEmptyTable();
+    /**
+     * The fixed protein N-term modifications at specific amino acids.
+     */
+    private final int[] proteinNtermAaModifications = getEmptyTable();
+    /**
+     * The fixed protein C-term modifications at specific amino acids.
+     */
+    private final int[] proteinCtermAaModifications = getEmptyTable();
+    /**
+     * The fixed peptide N-term modifications at specific amino acids.
+     */
+    private final int[] peptideNtermAaModifications = getEmptyTable();
+    /**
+     * The fixed peptide C-term modifications at specific amino acids.
+     */
+    private final int[] peptideCtermAaModifications = getEmptyTable();
+    /**
+     * The fixed protein N-term modification.
+     */
+    private int proteinNtermModification = NO_MODIFICATION;
+    /**
+     * The fixed protein C-term modification.
+     */
+    private int proteinCtermModification = NO_MODIFICATION;
+    /**
+     * The fixed peptide N-term modification.
+     */
+    private int peptideNtermModification = NO_MODIFICATION;
+    /**
+     * The fixed peptide C-term modification.
+     */
+    private int peptideCtermModification = NO_MODIFICATION;
+    /**
+     * The minimal mass a C-terminus modification can have. 0.0 by default for
+     * no modification.
+     */
+    private double minCtermMass = 0.0;
+    /**
+     * The cleavage preference.
+     */
+    private final DigestionPreferences.CleavagePreference cleavagePreference;
+    /**
+     * The enzyme, null if not digesting with an enzyme.
+     */
+    private final Enzyme enzyme;
+    /**
+     * The enzyme specificity.
+     */
+    private final DigestionPreferences.Specificity specificity;
+    /**
+     * The maximal number of missed cleavages.
+     */
+    private final int nMissedCleavages;
+    /**
+     * The cleavage sites of the enzyme indexed by the codes of the amino acids
+     * before and after the site.
+     */
+    private boolean[][] cleavageSites;
+    /**
+     * Working array: the residue masses along the protein.
+     */
+    private double[] proteinResidueMasses = new double[0];
+    /**
+     * Working array: the fixed modification masses along the protein.
+     */
+    private double[] proteinModificationMasses;
+    /**
+     * Working array: the fixed modifications along the protein.
+     */
+    private long[] proteinModifications;
+    /**
+     * Working array: the N-term masses of peptides starting at every
+     * position.
+     */
+    private double[] nTermMasses;
+    /**
+     * Working array: the N-term modifications of peptides starting at every
+     * position.
+     */
+    private long[] nTermModifications;
+    /**
+     * Working array: the C-term masses of peptides ending at every position.
+     */
+    private double[] cTermMasses;
+    /**
+     * Working array: the C-term modifications of peptides ending at every
+     * position.
+     */
+    private long[] cTermModifications;
+    /**
+     * Working array: boolean indicating whether a peptide can start at every
+     * position, i.e. the enzyme cleaves before the position.
+     */
+    private boolean[] cleavedBefore;
+
+    /**
+     * Constructor.
+     *
+     * @param fixedModifications a list of fixed modifications to consider when
+     * digesting the protein sequences
+     * @param digestionPreferences the digestion preferences
+     *
+     * @throws IllegalArgumentException exception thrown if the digestion
+     * preferences specify more than one enzyme
+     */
+    public ProteinDigester(ArrayList<String> fixedModifications, DigestionPreferences digestionPreferences) throws IllegalArgumentException {
+
+        cleavagePreference = digestionPreferences.getCleavagePreference();
+        if (cleavagePreference == DigestionPreferences.CleavagePreference.enzyme && digestionPreferences.getEnzymes().size() != 1) {
+            throw new IllegalArgumentException("Digestion with " + digestionPreferences.getEnzymes().size() + " enzymes not supported, only one enzyme can be used.");
+        }
+
+        for (char aa : AminoAcid.getAminoAcids()) {
+            AminoAcid aminoAcid = AminoAcid.getAminoAcid(aa);
+            residueMasses[aa] = aminoAcid.iscombination() ? Double.NaN : aminoAcid.getMonoisotopicMass();
+        }
+
+        if (fixedModifications.size() > MAX_FIXED_MODIFICATIONS) {
+            throw new IllegalArgumentException("Only " + MAX_FIXED_MODIFICATIONS + " fixed modifications supported, " + fixedModifications.size() + " found.");
+        }
+        modificationNames = new String[fixedModifications.size()];
+        modificationMasses = new double[fixedModifications.size()];
+        modificationPatterns = new AminoAcidPattern[fixedModifications.size()];
+        fillModificationTables(fixedModifications);
+
+        if (cleavagePreference == DigestionPreferences.CleavagePreference.enzyme) {
+            enzyme = digestionPreferences.getEnzymes().get(0);
+            specificity = digestionPreferences.getSpecificity(enzyme.getName());
+            nMissedCleavages = digestionPreferences.getnMissedCleavages(enzyme.getName());
+            char[] aminoAcids = AminoAcid.getAminoAcids();
+            cleavageSites = new boolean[256][256];
+            for (char aaBefore : aminoAcids) {
+                for (char aaAfter : aminoAcids) {
+                    cleavageSites[aaBefore][aaAfter] = enzyme.isCleavageSiteNoCombination(aaBefore, aaAfter);
+                }
+            }
+        } else if (cleavagePreference == DigestionPreferences.CleavagePreference.unSpecific
+                || cleavagePreference == DigestionPreferences.CleavagePreference.wholeProtein) {
+            enzyme = null;
+            specificity = null;
+            nMissedCleavages = 0;
+        } else {
+            throw new UnsupportedOperationException("Cleavage preference of type " + cleavagePreference + " not supported.");
+        }
+    }
+
+    /**
+     * Returns a table of modifications indexed by amino acid code filled with
+     * NO_MODIFICATION.
+     *
+     * @return an empty table of modifications
+     */
+    private static int[] getEmptyTable() {
+        int[] table = new int[256];
+        Arrays.fill(table, NO_MODIFICATION);
+        return table;
+    }
+
+    /**
+     * Fills the modification tables of the class based on the given list of
+     * modifications.
+     *
+     * @param fixedModifications the list of fixed modifications to consider
+     */
+    private void fillModificationTables(ArrayList<String> fixedModifications) {
+
+        PTMFactory ptmFactory = PTMFactory.getInstance();
+
+        for (int i = 0; i < fixedModifications.size(); i++) {
+
+            String ptmName = fixedModifications.get(i);
+            PTM ptm = ptmFactory.getPTM(ptmName);
+            modificationNames[i] = ptmName;
+            modificationMasses[i] = ptm.getMass();
+
+            switch (ptm.getType()) {
+                case PTM.MODN:
+                    if (proteinNtermModification != NO_MODIFICATION) {
+                        throw new IllegalArgumentException("Only one fixed modification supported for the protein N-terminus.");
+                    }
+                    proteinNtermModification = i;
+                    break;
+                case PTM.MODC:
+                    if (proteinCtermModification != NO_MODIFICATION) {
+                        throw new IllegalArgumentException("Only one fixed modification supported for the protein C-terminus.");
+                    }
+                    proteinCtermModification = i;
+                    minCtermMass = Math.min(minCtermMass, ptm.getMass());
+                    break;
+                case PTM.MODNP:
+                    if (peptideNtermModification != NO_MODIFICATION) {
+                        throw new IllegalArgumentException("Only one fixed modification supported for the peptide N-terminus.");
+                    }
+                    peptideNtermModification = i;
+                    break;
+                case PTM.MODCP:
+                    if (peptideCtermModification != NO_MODIFICATION) {
+                        throw new IllegalArgumentException("Only one fixed modification supported for the peptide C-terminus.");
+                    }
+                    peptideCtermModification = i;
+                    minCtermMass = Math.min(minCtermMass, ptm.getMass());
+                    break;
+                case PTM.MODNAA:
+                    addAaModification(proteinNtermAaModifications, ptm, i, "protein N-term amino acid");
+                    break;
+                case PTM.MODCAA:
+                    addAaModification(proteinCtermAaModifications, ptm, i, "protein C-term amino acid");
+                    minCtermMass = Math.min(minCtermMass, ptm.getMass());
+                    break;
+                case PTM.MODNPAA:
+                    addAaModification(peptideNtermAaModifications, ptm, i, "peptide N-term amino acid");
+                    break;
+                case PTM.MODCPAA:
+                    addAaModification(peptideCtermAaModifications, ptm, i, "peptide C-term amino acid");
+                    minCtermMass = Math.min(minCtermMass, ptm.getMass());
+                    break;
+                case PTM.MODAA:
+                    addAaModification(aaModifications, ptm, i, "amino acid");
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Adds a modification targeting amino acids to the given table.
+     *
+     * @param table the table of modifications indexed by amino acid code
+     * @param ptm the modification
+     * @param modificationIndex the index of the modification
+     * @param location the location targeted, used for the error message
+     */
+    private void addAaModification(int[] table, PTM ptm, int modificationIndex, String location) {
+        AminoAcidPattern ptmPattern = ptm.getPattern();
+        for (Character aa : ptmPattern.getAminoAcidsAtTarget()) {
+            if (table[aa] != NO_MODIFICATION) {
+                throw new IllegalArgumentException("Only one fixed modification supported per " + location + ". Found two at " + aa + ".");
+            }
+            table[aa] = modificationIndex;
+        }
+        if (ptmPattern.length() > 1) {
+            modificationPatterns[modificationIndex] = ptmPattern;
+            hasPatterns = true;
+        }
+    }
+
+    /**
+     * Returns the number of fixed modifications.
+     *
+     * @return the number of fixed modifications
+     */
+    public int getNFixedModifications() {
+        return modificationNames.length;
+    }
+
+    /**
+     * Returns the name of the fixed modification of the given index, i.e.
+     * corresponding to the given bit in the fixed modifications masks.
+     *
+     * @param modificationIndex the index of the modification
+     *
+     * @return the name of the modification
+     */
+    public String getFixedModification(int modificationIndex) {
+        return modificationNames[modificationIndex];
+    }
+
+    /**
+     * Returns the modification of the given index if it can be found at the
+     * given index on the protein, NO_MODIFICATION otherwise.
+     *
+     * @param modificationIndex the index of the modification
+     * @param proteinSequence the protein sequence as string, can be null if
+     * the digester has no pattern
+     * @param index the index on the protein
+     *
+     * @return the modification if it is found at the given index
+     */
+    private int getModificationAt(int modificationIndex, String proteinSequence, int index) {
+        if (modificationIndex == NO_MODIFICATION) {
+            return NO_MODIFICATION;
+        }
+        AminoAcidPattern aminoAcidPattern = modificationPatterns[modificationIndex];
+        if (aminoAcidPattern == null || aminoAcidPattern.matchesAt(proteinSequence, SequenceMatchingPreferences.defaultStringMatching, index)) {
+            return modificationIndex;
+        }
+        return NO_MODIFICATION;
+    }
+
+    /**
+     * Returns the fixed modification of the amino acid at the given index.
+     *
+     * @param proteinSequence the protein sequence
+     * @param proteinSequenceAsString the protein sequence as string, can be
+     * null if the digester has no pattern
+     * @param index the index on the protein
+     *
+     * @return the index of the fixed modification, NO_MODIFICATION if none
+     */
+    private int getAaModification(byte[] proteinSequence, String proteinSequenceAsString, int index) {
+        return getModificationAt(aaModifications[proteinSequence[index] & 0xff], proteinSequenceAsString, index);
+    }
+
+    /**
+     * Returns the N-term fixed modification of a peptide starting at the given
+     * index.
+     *
+     * @param proteinSequence the protein sequence
+     * @param proteinSequenceAsString the protein sequence as string, can be
+     * null if the digester has no pattern
+     * @param index the index of the peptide on the protein
+     *
+     * @return the index of the fixed modification, NO_MODIFICATION if none
+     */
+    private int getNtermModification(byte[] proteinSequence, String proteinSequenceAsString, int index) {
+        int aa = proteinSequence[index] & 0xff;
+        if (index == 0) {
+            if (proteinNtermModification != NO_MODIFICATION) {
+                return proteinNtermModification;
+            }
+            int modification = getModificationAt(proteinNtermAaModifications[aa], proteinSequenceAsString, index);
+            if (modification != NO_MODIFICATION) {
+                return modification;
+            }
+        }
+        if (peptideNtermModification != NO_MODIFICATION) {
+            return peptideNtermModification;
+        }
+        return getModificationAt(peptideNtermAaModifications[aa], proteinSequenceAsString, index);
+    }
+
+    /**
+     * Returns the C-term fixed modification of a peptide ending at the given
+     * index.
+     *
+     * @param proteinSequence the protein sequence
+     * @param proteinSequenceAsString the protein sequence as string, can be
+     * null if the digester has no pattern
+     * @param index the index of the last amino acid of the peptide on the
+     * protein
+     *
+     * @return the index of the fixed modification, NO_MODIFICATION if none
+     */
+    private int getCtermModification(byte[] proteinSequence, String proteinSequenceAsString, int index) {
+        int aa = proteinSequence[index] & 0xff;
+        if (index == proteinSequence.length - 1) {
+            if (proteinCtermModification != NO_MODIFICATION) {
+                return proteinCtermModification;
+            }
+            int modification = getModificationAt(proteinCtermAaModifications[aa], proteinSequenceAsString, index);
+            if (modification != NO_MODIFICATION) {
+                return modification;
+            }
+        }
+        if (peptideCtermModification != NO_MODIFICATION) {
+            return peptideCtermModification;
+        }
+        return getModificationAt(peptideCtermAaModifications[aa], proteinSequenceAsString, index);
+    }
+
+    /**
+     * Returns the mass of the given modification, 0.0 if none.
+     *
+     * @param modificationIndex the index of the modification
+     *
+     * @return the mass of the modification
+     */
+    private double getModificationMass(int modificationIndex) {
+        return modificationIndex == NO_MODIFICATION ? 0.0 : modificationMasses[modificationIndex];
+    }
+
+    /**
+     * Returns the given modification as bit mask.
+     *
+     * @param modificationIndex the index of the modification
+     *
+     * @return the modification as bit mask
+     */
+    private static long getModificationMask(int modificationIndex) {
+        return modificationIndex == NO_MODIFICATION ? 0L : 1L << modificationIndex;
+    }
+
+    /**
+     * Returns the given protein sequence as string if needed to match
+     * modification patterns, null otherwise.
+     *
+     * @param proteinSequence the protein sequence
+     *
+     * @return the protein sequence as string
+     */
+    private String getSequenceForPatterns(byte[] proteinSequence) {
+        return hasPatterns ? getSequence(proteinSequence, 0, proteinSequence.length) : null;
+    }
+
+    /**
+     * Returns a subsequence of the given protein as string.
+     *
+     * @param proteinSequence the protein sequence
+     * @param start the start index, inclusive
+     * @param end the end index, exclusive
+     *
+     * @return the subsequence as string
+     */
+    private static String getSequence(byte[] proteinSequence, int start, int end) {
+        char[] sequence = new char[end - start];
+        for (int i = start; i < end; i++) {
+            sequence[i - start] = (char) (proteinSequence[i] & 0xff);
+        }
+        return new String(sequence);
+    }
+
+    /**
+     * Fills the working arrays for the given protein.
+     *
+     * @param proteinSequence the protein sequence
+     */
+    private void fillProteinTables(byte[] proteinSequence) {
+
+        int length = proteinSequence.length;
+
+        if (proteinResidueMasses.length < length) {
+            int capacity = Math.max(length, 2 * proteinResidueMasses.length);
+            proteinResidueMasses = new double[capacity];
+            proteinModificationMasses = new double[capacity];
+            proteinModifications = new long[capacity];
+            nTermMasses = new double[capacity];
+            nTermModifications = new long[capacity];
+            cTermMasses = new double[capacity];
+            cTermModifications = new long[capacity];
+            cleavedBefore = new boolean[capacity];
+        }
+
+        String proteinSequenceAsString = getSequenceForPatterns(proteinSequence);
+
+        for (int i = 0; i < length; i++) {
+
+            int aa = proteinSequence[i] & 0xff;
+            proteinResidueMasses[i] = residueMasses[aa];
+
+            int modification = getAaModification(proteinSequence, proteinSequenceAsString, i);
+            proteinModificationMasses[i] = getModificationMass(modification);
+            proteinModifications[i] = getModificationMask(modification);
+
+            modification = getNtermModification(proteinSequence, proteinSequenceAsString, i);
+            nTermMasses[i] = getModificationMass(modification);
+            nTermModifications[i] = getModificationMask(modification);
+
+            modification = getCtermModification(proteinSequence, proteinSequenceAsString, i);
+            cTermMasses[i] = getModificationMass(modification);
+            cTermModifications[i] = getModificationMask(modification);
+
+            if (enzyme != null) {
+                cleavedBefore[i] = i == 0 || cleavageSites[proteinSequence[i - 1] & 0xff][aa];
+            }
+        }
+    }
+
+    /**
+     * Digests the given protein sequence and appends the peptide candidates
+     * with a mass within the given range to the buffer.
+     *
+     * @param proteinIndex the index of the protein, reported in the buffer
+     * @param proteinSequence the protein sequence as one letter amino acid
+     * codes
+     * @param massMin the minimal mass of a peptide
+     * @param massMax the maximal mass of a peptide
+     * @param buffer the buffer where to store the candidates
+     */
+    public void digest(int proteinIndex, byte[] proteinSequence, double massMin, double massMax, DigestionBuffer buffer) {
+
+        int length = proteinSequence.length;
+
+        if (length == 0) {
+            return;
+        }
+
+        fillProteinTables(proteinSequence);
+
+        boolean wholeProtein = cleavagePreference == DigestionPreferences.CleavagePreference.wholeProtein;
+        boolean startSpecific = enzyme != null
+                && (specificity == DigestionPreferences.Specificity.specific || specificity == DigestionPreferences.Specificity.specificNTermOnly);
+        boolean endSpecific = enzyme != null
+                && (specificity == DigestionPreferences.Specificity.specific || specificity == DigestionPreferences.Specificity.specificCTermOnly);
+        boolean semiSpecific = enzyme != null && specificity == DigestionPreferences.Specificity.semiSpecific;
+        double massMaxNoCterm = massMax - minCtermMass - ProteinIteratorUtils.WATER_MASS;
+        int lastStart = wholeProtein ? 1 : length;
+
+        for (int start = 0; start < lastStart; start++) {
+
+            boolean startCleaved = enzyme != null && cleavedBefore[start];
+            if (startSpecific && !startCleaved) {
+                continue;
+            }
+
+            double mass = nTermMasses[start];
+            long modifications = nTermModifications[start];
+            int missedCleavages = 0;
+
+            for (int end = start + 1; end <= length; end++) {
+
+                int index = end - 1;
+                double residueMass = proteinResidueMasses[index];
+                if (Double.isNaN(residueMass)) {
+                    break;
+                }
+                mass += residueMass;
+                mass += proteinModificationMasses[index];
+                modifications |= proteinModifications[index];
+
+                if (mass > massMaxNoCterm) {
+                    break;
+                }
+                if (enzyme != null && index > start && cleavedBefore[index] && ++missedCleavages > nMissedCleavages) {
+                    break;
+                }
+                if (wholeProtein && end < length) {
+                    continue;
+                }
+                if (enzyme != null) {
+                    boolean endCleaved = end == length || cleavedBefore[end];
+                    if (endSpecific && !endCleaved || semiSpecific && !startCleaved && !endCleaved) {
+                        continue;
+                    }
+                }
+
+                double peptideMass = mass + cTermMasses[index] + ProteinIteratorUtils.WATER_MASS;
+                if (peptideMass >= massMin && peptideMass <= massMax) {
+                    buffer.add(proteinIndex, start, end, peptideMass, modifications | cTermModifications[index]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the peptide corresponding to the candidate at the given index in
+     * the buffer.
+     *
+     * @param proteinSequence the sequence of the protein of the candidate
+     * @param buffer the buffer
+     * @param index the index of the candidate in the buffer
+     *
+     * @return the peptide
+     */
+    public Peptide getPeptide(byte[] proteinSequence, DigestionBuffer buffer, int index) {
+        return getPeptide(proteinSequence, buffer.getStart(index), buffer.getEnd(index));
+    }
+
+    /**
+     * Returns the peptide found between the given indexes of the protein with
+     * its fixed modifications.
+     *
+     * @param proteinSequence the protein sequence
+     * @param start the start index on the protein, inclusive
+     * @param end the end index on the protein, exclusive
+     *
+     * @return the peptide
+     */
+    public Peptide getPeptide(byte[] proteinSequence, int start, int end) {
+
+        String proteinSequenceAsString = getSequenceForPatterns(proteinSequence);
+        ArrayList<ModificationMatch> modificationMatches = null;
+
+        int nTermModification = getNtermModification(proteinSequence, proteinSequenceAsString, start);
+        double mass = getModificationMass(nTermModification);
+        if (nTermModification != NO_MODIFICATION) {
+            modificationMatches = new ArrayList<ModificationMatch>(1);
+            modificationMatches.add(new ModificationMatch(modificationNames[nTermModification], false, 1));
+        }
+
+        int cTermModification = getCtermModification(proteinSequence, proteinSequenceAsString, end - 1);
+        if (cTermModification != NO_MODIFICATION) {
+            if (modificationMatches == null) {
+                modificationMatches = new ArrayList<ModificationMatch>(1);
+            }
+            modificationMatches.add(new ModificationMatch(modificationNames[cTermModification], false, end - start));
+        }
+
+        for (int i = start; i < end; i++) {
+            mass += residueMasses[proteinSequence[i] & 0xff];
+            int modification = getAaModification(proteinSequence, proteinSequenceAsString, i);
+            if (modification != NO_MODIFICATION) {
+                mass += modificationMasses[modification];
+                if (modificationMatches == null) {
+                    modificationMatches = new ArrayList<ModificationMatch>(1);
+                }
+                modificationMatches.add(new ModificationMatch(modificationNames[modification], false, i - start + 1));
+            }
+        }
+        mass += getModificationMass(cTermModification);
+        mass += ProteinIteratorUtils.WATER_MASS;
+
+        return new Peptide(getSequence(proteinSequence, start, end), modificationMatches, false, mass);
+    }
+}
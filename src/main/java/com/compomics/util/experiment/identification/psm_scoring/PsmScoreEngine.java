@@ -0,0 +1,826 @@
+package com.compomics.util.experiment.identification.psm_scoring;
+
+import com.compomics.util.experiment.biology.AminoAcid;
+import com.compomics.util.experiment.biology.Atom;
+import com.compomics.util.experiment.biology.Ion;
+import com.compomics.util.experiment.biology.PTM;
+import com.compomics.util.experiment.biology.PTMFactory;
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.biology.ions.ElementaryIon;
+import com.compomics.util.experiment.biology.ions.PeptideFragmentIon;
+import com.compomics.util.experiment.identification.identification_parameters.SearchParameters;
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import com.compomics.util.experiment.identification.spectrum_annotation.AnnotationSettings;
+import com.compomics.util.experiment.identification.spectrum_annotation.SpecificAnnotationSettings;
+import com.compomics.util.experiment.identification.spectrum_annotation.SpectrumAnnotator;
+import com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators.PeptideSpectrumAnnotator;
+import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
+import com.compomics.util.experiment.massspectrometry.PeakArray;
+import com.compomics.util.math.BasicMathFunctions;
+import com.compomics.util.preferences.IdentificationParameters;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import org.apache.commons.math.MathException;
+import org.apache.commons.math.util.FastMath;
+
+/**
+ * Estimates all PSM scores implemented in compomics utilities in a single
+ * pass. The fragment ion ladders are computed in arrays and matched against
+ * the peaks of the spectrum using one merge per ion series. The buffers are
+ * reused from one PSM to the other, and the spectrum specific values are kept
+ * as long as the same spectrum is scored.
+ *
+ * Only peptide fragment ions without neutral losses are matched by the
+ * engine. When the annotation settings select other ions or neutral losses,
+ * the scores are computed one by one using the PsmScoresEstimator, so that
+ * the scores are always identical to the ones of the classes in the
+ * psm_scores package. Warning: use one engine per thread.
+ *
+ * @author Marc Vaudel
+ */
+public class PsmScoreEngine {
+
+    /**
+     * The number of bins used by the amino acid intensity rank score.
+     */
+    private static final int N_INTENSITY_BINS = 10;
+    /**
+     * The mass of a proton.
+     */
+    private static final double PROTON = ElementaryIon.proton.getTheoreticMass();
+    /**
+     * The mass of NH3.
+     */
+    private static final double NH3 = Atom.N.getMonoisotopicMass() + 3 * Atom.H.getMonoisotopicMass();
+    /**
+     * The mass of CO.
+     */
+    private static final double CO = Atom.C.getMonoisotopicMass() + Atom.O.getMonoisotopicMass();
+    /**
+     * The mass of H2.
+     */
+    private static final double H2 = 2 * Atom.H.getMonoisotopicMass();
+    /**
+     * The mass difference between C13 and C12.
+     */
+    private static final double C13_SHIFT = Atom.C.getDifferenceToMonoisotopic(1);
+    /**
+     * Log2.
+     */
+    private static final double LOG2 = FastMath.log(2.0);
+    /**
+     * The fragment ion subtypes supported by the engine.
+     */
+    private static final int[] FRAGMENT_ION_TYPES = new int[]{PeptideFragmentIon.A_ION, PeptideFragmentIon.B_ION, PeptideFragmentIon.C_ION,
+        PeptideFragmentIon.X_ION, PeptideFragmentIon.Y_ION, PeptideFragmentIon.Z_ION};
+    /**
+     * The scores of the last PSM indexed by score index.
+     */
+    private final double[] scores;
+    /**
+     * The spectrum currently loaded.
+     */
+    private MSnSpectrum spectrum = null;
+    /**
+     * The peaks of the spectrum currently loaded.
+     */
+    private PeakArray peaks = null;
+    /**
+     * The indexes of the peaks sorted by decreasing intensity.
+     */
+    private int[] intensityOrder = new int[0];
+    /**
+     * The intensity thresholds of the bins used by the amino acid intensity
+     * rank score.
+     */
+    private double[] intensityThresholds = new double[0];
+    /**
+     * The number of intensity thresholds.
+     */
+    private int nIntensityThresholds = 0;
+    /**
+     * The neutral mass of the N-terminal fragments indexed by number of
+     * residues.
+     */
+    private double[] forwardMasses = new double[64];
+    /**
+     * The neutral mass of the C-terminal fragments plus one oxygen indexed by
+     * number of residues.
+     */
+    private double[] rewindMasses = new double[64];
+    /**
+     * The fragment ion subtypes to consider.
+     */
+    private final int[] subTypes = new int[FRAGMENT_ION_TYPES.length];
+    /**
+     * The fragment charges to consider.
+     */
+    private int[] charges = new int[4];
+    /**
+     * The index of the first peak of the window of every charge.
+     */
+    private int[] peakPointers = new int[4];
+    /**
+     * The number of matches.
+     */
+    private int nMatches = 0;
+    /**
+     * The index of the peak of every match.
+     */
+    private int[] matchPeaks = new int[256];
+    /**
+     * The fragment ion subtype of every match.
+     */
+    private int[] matchSubTypes = new int[256];
+    /**
+     * The fragment ion number of every match.
+     */
+    private int[] matchNumbers = new int[256];
+    /**
+     * The m/z error in Da of every match.
+     */
+    private double[] matchErrors = new double[256];
+    /**
+     * Buffer for the sorting of the errors.
+     */
+    private double[] sortedErrors = new double[256];
+    /**
+     * The intensity of the most intense peak annotating every residue when
+     * no intensity filter is used.
+     */
+    private double[] residueIntensities = new double[64];
+    /**
+     * The smallest absolute error of the ions annotating every residue.
+     */
+    private double[] residueErrors = new double[64];
+    /**
+     * The number of ions annotating every residue.
+     */
+    private int[] residueMatches = new int[64];
+    /**
+     * Flags for the fragment numbers already counted.
+     */
+    private boolean[] forwardNumbers = new boolean[64];
+    /**
+     * Flags for the fragment numbers already counted.
+     */
+    private boolean[] rewindNumbers = new boolean[64];
+    /**
+     * Flags for the peaks already counted in the covered intensity.
+     */
+    private boolean[] coveredPeaks = new boolean[0];
+    /**
+     * Flags for the peaks already counted in the cross correlation.
+     */
+    private boolean[] accountedPeaks = new boolean[0];
+    /**
+     * Flags for the peaks found in the tolerance window of a fragment ion.
+     */
+    private boolean[] explainedPeaks = new boolean[0];
+    /**
+     * The scores estimator used when the annotation settings are not
+     * supported by the engine.
+     */
+    private PsmScoresEstimator psmScoresEstimator = null;
+    /**
+     * The spectrum annotator used when the annotation settings are not
+     * supported by the engine.
+     */
+    private PeptideSpectrumAnnotator peptideSpectrumAnnotator = null;
+
+    /**
+     * Constructor.
+     */
+    public PsmScoreEngine() {
+        int maxIndex = 0;
+        for (PsmScore psmScore : PsmScore.values()) {
+            maxIndex = Math.max(maxIndex, psmScore.index);
+        }
+        scores = new double[maxIndex + 1];
+    }
+
+    /**
+     * Scores the match between the given peptide and spectrum using all
+     * implemented scores. The scores can then be retrieved using the getScore
+     * method.
+     *
+     * @param peptide the peptide of interest
+     * @param spectrum the spectrum of interest
+     * @param identificationParameters the identification parameters
+     * @param specificAnnotationSettings the annotation settings specific to
+     * this PSM
+     *
+     * @throws java.lang.InterruptedException exception thrown if a threading
+     * error occurred when estimating the noise level
+     * @throws org.apache.commons.math.MathException exception thrown if a math
+     * exception occurred when estimating the noise level
+     */
+    public void score(Peptide peptide, MSnSpectrum spectrum, IdentificationParameters identificationParameters,
+            SpecificAnnotationSettings specificAnnotationSettings) throws InterruptedException, MathException {
+
+        if (!isSupported(specificAnnotationSettings)) {
+            scoreWithEstimator(peptide, spectrum, identificationParameters, specificAnnotationSettings);
+            return;
+        }
+
+        AnnotationSettings annotationSettings = identificationParameters.getAnnotationPreferences();
+        setSpectrum(spectrum);
+        double intensityLimit = spectrum.getIntensityLimit(annotationSettings.getIntensityThresholdType(), annotationSettings.getAnnotationIntensityLimit());
+        int precursorCharge = specificAnnotationSettings.getPrecursorCharge();
+        int sequenceLength = peptide.getSequence().length();
+
+        setLadders(peptide);
+        matchLadders(sequenceLength, precursorCharge, specificAnnotationSettings, annotationSettings.getTiesResolution(), intensityLimit);
+
+        SearchParameters searchParameters = identificationParameters.getSearchParameters();
+        scores[PsmScore.precursor_accuracy.index] = getPrecursorAccuracy(peptide, precursorCharge, searchParameters.isPrecursorAccuracyTypePpm(),
+                searchParameters.getMinIsotopicCorrection(), searchParameters.getMaxIsotopicCorrection());
+        double maxMz = spectrum.getMaxMz();
+        double fragmentAccuracyInDa = specificAnnotationSettings.isFragmentIonPpm()
+                ? specificAnnotationSettings.getFragmentIonAccuracy() * maxMz / 1000000 : specificAnnotationSettings.getFragmentIonAccuracy();
+        scores[PsmScore.hyperScore.index] = getHyperScore(sequenceLength, precursorCharge);
+        scores[PsmScore.ms2_mz_fidelity.index] = getMzFidelity(fragmentAccuracyInDa);
+        scores[PsmScore.aa_ms2_mz_fidelity.index] = getAaMzFidelity(sequenceLength, fragmentAccuracyInDa);
+        scores[PsmScore.intensity.index] = getIntensityRankScore();
+        scores[PsmScore.aa_intensity.index] = getAaIntensityRankScore(sequenceLength);
+        scores[PsmScore.complementarity.index] = getComplementarity(sequenceLength);
+    }
+
+    /**
+     * Indicates whether the ions selected in the given annotation settings
+     * can be matched by the engine, i.e. only peptide fragment ions without
+     * neutral losses are selected.
+     *
+     * @param specificAnnotationSettings the annotation settings specific to a
+     * PSM
+     *
+     * @return a boolean indicating whether the annotation settings are
+     * supported by the engine
+     */
+    public static boolean isSupported(SpecificAnnotationSettings specificAnnotationSettings) {
+        if (!specificAnnotationSettings.getNeutralLossesMap().isEmpty()) {
+            return false;
+        }
+        HashMap<Ion.IonType, HashSet<Integer>> ionTypes = specificAnnotationSettings.getIonTypes();
+        for (Ion.IonType ionType : ionTypes.keySet()) {
+            if (ionType != Ion.IonType.PEPTIDE_FRAGMENT_ION && !ionTypes.get(ionType).isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Scores the match using the PsmScoresEstimator, used for the annotation
+     * settings not supported by the engine.
+     *
+     * @param peptide the peptide of interest
+     * @param spectrum the spectrum of interest
+     * @param identificationParameters the identification parameters
+     * @param specificAnnotationSettings the annotation settings specific to
+     * this PSM
+     *
+     * @throws java.lang.InterruptedException exception thrown if a threading
+     * error occurred when estimating the noise level
+     * @throws org.apache.commons.math.MathException exception thrown if a math
+     * exception occurred when estimating the noise level
+     */
+    private void scoreWithEstimator(Peptide peptide, MSnSpectrum spectrum, IdentificationParameters identificationParameters,
+            SpecificAnnotationSettings specificAnnotationSettings) throws InterruptedException, MathException {
+        if (psmScoresEstimator == null) {
+            psmScoresEstimator = new PsmScoresEstimator();
+            peptideSpectrumAnnotator = new PeptideSpectrumAnnotator();
+        }
+        int precursorCharge = specificAnnotationSettings.getPrecursorCharge();
+        for (PsmScore psmScore : PsmScore.values()) {
+            if (psmScore != PsmScore.native_score) {
+                scores[psmScore.index] = psmScoresEstimator.getScore(peptide, precursorCharge, spectrum, identificationParameters,
+                        specificAnnotationSettings, peptideSpectrumAnnotator, psmScore);
+            }
+        }
+    }
+
+    /**
+     * Returns the given score of the last PSM scored.
+     *
+     * @param psmScore the score of interest
+     *
+     * @return the score of the last PSM scored
+     */
+    public double getScore(PsmScore psmScore) {
+        if (psmScore == PsmScore.native_score) {
+            throw new IllegalArgumentException("Impossible to compute the native score of an algorithm");
+        }
+        return scores[psmScore.index];
+    }
+
+    /**
+     * Returns the given score of the last PSM scored. The score is forced to
+     * decrease with the quality of the match by taking the opposite value when
+     * relevant.
+     *
+     * @param psmScore the score of interest
+     *
+     * @return the score of the last PSM scored
+     */
+    public double getDecreasingScore(PsmScore psmScore) {
+        double score = getScore(psmScore);
+        if (psmScore.increasing) {
+            return -score;
+        }
+        return score;
+    }
+
+    /**
+     * Loads the spectrum specific values if the spectrum changed.
+     *
+     * @param spectrum the spectrum to score
+     */
+    private void setSpectrum(MSnSpectrum spectrum) {
+
+        PeakArray spectrumPeaks = spectrum.getPeaks();
+        if (spectrum == this.spectrum && spectrumPeaks == peaks) {
+            return;
+        }
+        this.spectrum = spectrum;
+        this.peaks = spectrumPeaks;
+
+        int nPeaks = spectrumPeaks.size();
+        if (coveredPeaks.length < nPeaks) {
+            coveredPeaks = new boolean[nPeaks];
+            accountedPeaks = new boolean[nPeaks];
+            explainedPeaks = new boolean[nPeaks];
+        }
+
+        // Sort the peaks by decreasing intensity and increasing index using the rank of the distinct intensities
+        double[] intensities = spectrumPeaks.getIntensityArray();
+        double[] distinctIntensities = Arrays.copyOf(intensities, nPeaks);
+        Arrays.sort(distinctIntensities);
+        int nDistinct = 0;
+        for (int i = 0; i < nPeaks; i++) {
+            if (i == 0 || distinctIntensities[i] != distinctIntensities[nDistinct - 1]) {
+                distinctIntensities[nDistinct++] = distinctIntensities[i];
+            }
+        }
+        long[] sortKeys = new long[nPeaks];
+        for (int i = 0; i < nPeaks; i++) {
+            long rank = nDistinct - 1 - Arrays.binarySearch(distinctIntensities, 0, nDistinct, intensities[i]);
+            sortKeys[i] = (rank << 32) | i;
+        }
+        Arrays.sort(sortKeys);
+        intensityOrder = new int[nPeaks];
+        for (int i = 0; i < nPeaks; i++) {
+            intensityOrder[i] = (int) sortKeys[i];
+        }
+
+        // Every percentile of the distinct intensities is used as bin threshold
+        int percentile = nPeaks / N_INTENSITY_BINS;
+        intensityThresholds = new double[nPeaks];
+        nIntensityThresholds = 0;
+        int count = 0;
+        for (int i = 0; i < nPeaks; i++) {
+            double intensity = intensities[intensityOrder[i]];
+            if (i > 0 && intensity == intensities[intensityOrder[i - 1]]) {
+                continue;
+            }
+            if (++count == percentile) {
+                intensityThresholds[nIntensityThresholds++] = intensity;
+                count = 0;
+            }
+        }
+    }
+
+    /**
+     * Computes the neutral masses of the N- and C-terminal fragments of the
+     * given peptide.
+     *
+     * @param peptide the peptide
+     */
+    private void setLadders(Peptide peptide) {
+
+        String sequence = peptide.getSequence();
+        int sequenceLength = sequence.length();
+        if (forwardMasses.length <= sequenceLength) {
+            int newLength = 2 * sequenceLength;
+            forwardMasses = new double[newLength];
+            rewindMasses = new double[newLength];
+            residueIntensities = new double[newLength];
+            residueErrors = new double[newLength];
+            residueMatches = new int[newLength];
+            forwardNumbers = new boolean[newLength];
+            rewindNumbers = new boolean[newLength];
+        }
+
+        // Residue masses first, stored in the forward array
+        for (int i = 0; i < sequenceLength; i++) {
+            forwardMasses[i + 1] = AminoAcid.getAminoAcid(sequence.charAt(i)).getMonoisotopicMass();
+        }
+        if (peptide.isModified()) {
+            PTMFactory ptmFactory = PTMFactory.getInstance();
+            ArrayList<ModificationMatch> modificationMatches = peptide.getModificationMatches();
+            for (int i = 0; i < modificationMatches.size(); i++) {
+                ModificationMatch modificationMatch = modificationMatches.get(i);
+                String ptmName = modificationMatch.getTheoreticPtm();
+                PTM ptm = ptmFactory.getPTM(ptmName);
+                if (ptm == null) {
+                    throw new IllegalArgumentException("PTM " + ptmName + " not loaded in the PTM factory.");
+                }
+                forwardMasses[modificationMatch.getModificationSite()] += ptm.getMass();
+            }
+        }
+
+        // Cumulative sums
+        rewindMasses[0] = Atom.O.getMonoisotopicMass();
+        for (int n = 1; n <= sequenceLength; n++) {
+            rewindMasses[n] = rewindMasses[n - 1] + forwardMasses[sequenceLength - n + 1];
+        }
+        forwardMasses[0] = 0;
+        for (int n = 1; n <= sequenceLength; n++) {
+            forwardMasses[n] += forwardMasses[n - 1];
+        }
+    }
+
+    /**
+     * Matches the fragment ion ladders against the spectrum. For every ion,
+     * the best peak above the intensity limit is stored as match, the best
+     * peak regardless of intensity is used for the amino acid intensity
+     * score, and all peaks in the tolerance window are flagged as explained.
+     *
+     * @param sequenceLength the length of the peptide sequence
+     * @param precursorCharge the charge of the precursor
+     * @param specificAnnotationSettings the annotation settings specific to
+     * this PSM
+     * @param tiesResolution the method used to resolve ties
+     * @param intensityLimit the intensity limit
+     */
+    private void matchLadders(int sequenceLength, int precursorCharge, SpecificAnnotationSettings specificAnnotationSettings,
+            SpectrumAnnotator.TiesResolution tiesResolution, double intensityLimit) {
+
+        // Settings
+        int nSubTypes = 0;
+        if (specificAnnotationSettings.getIonTypes().containsKey(Ion.IonType.PEPTIDE_FRAGMENT_ION)) {
+            for (int subType : FRAGMENT_ION_TYPES) {
+                if (specificAnnotationSettings.getFragmentIonTypes().contains(subType)) {
+                    subTypes[nSubTypes++] = subType;
+                }
+            }
+        }
+        ArrayList<Integer> selectedCharges = specificAnnotationSettings.getSelectedCharges();
+        int nCharges = selectedCharges.size();
+        if (charges.length < nCharges) {
+            charges = new int[nCharges];
+            peakPointers = new int[nCharges];
+        }
+        for (int i = 0; i < nCharges; i++) {
+            charges[i] = selectedCharges.get(i);
+        }
+        int maxMatches = nSubTypes * nCharges * sequenceLength;
+        if (matchPeaks.length < maxMatches) {
+            matchPeaks = new int[maxMatches];
+            matchSubTypes = new int[maxMatches];
+            matchNumbers = new int[maxMatches];
+            matchErrors = new double[maxMatches];
+            sortedErrors = new double[maxMatches];
+        }
+        boolean ppm = specificAnnotationSettings.isFragmentIonPpm();
+        double fragmentAccuracy = specificAnnotationSettings.getFragmentIonAccuracy();
+        boolean mostAccurate = tiesResolution == SpectrumAnnotator.TiesResolution.mostAccurateMz;
+        if (!mostAccurate && tiesResolution != SpectrumAnnotator.TiesResolution.mostIntense) {
+            throw new UnsupportedOperationException("Ties resolution method " + tiesResolution + " not implemented.");
+        }
+
+        // Reset the buffers
+        int nPeaks = peaks.size();
+        double[] mzArray = peaks.getMzArray();
+        double[] intensities = peaks.getIntensityArray();
+        Arrays.fill(explainedPeaks, 0, nPeaks, false);
+        Arrays.fill(residueIntensities, 0, sequenceLength + 1, 0.0);
+        nMatches = 0;
+
+        // Merge every ion series with the peaks, ions are processed by type, number and charge like in the spectrum annotator
+        for (int i = 0; i < nSubTypes; i++) {
+            int subType = subTypes[i];
+            Arrays.fill(peakPointers, 0, nCharges, 0);
+            for (int number = 1; number < sequenceLength; number++) {
+                double mass = getFragmentMass(subType, number);
+                for (int j = 0; j < nCharges; j++) {
+                    int charge = charges[j];
+                    if (charge > 1 && (charge > number || charge >= precursorCharge)) {
+                        continue;
+                    }
+                    double mz = (mass + charge * PROTON) / charge;
+                    double tolerance = ppm ? fragmentAccuracy * mz / 1000000 : fragmentAccuracy;
+                    int peakIndex = peakPointers[j];
+                    double minMz = mz - tolerance;
+                    while (peakIndex < nPeaks && mzArray[peakIndex] < minMz) {
+                        peakIndex++;
+                    }
+                    peakPointers[j] = peakIndex;
+                    double maxMz = mz + tolerance;
+                    int bestPeak = -1, bestFilteredPeak = -1;
+                    double bestError = 0, bestFilteredError = 0;
+                    for (; peakIndex < nPeaks && mzArray[peakIndex] <= maxMz; peakIndex++) {
+                        explainedPeaks[peakIndex] = true;
+                        double error = Math.abs(mzArray[peakIndex] - mz);
+                        if (bestPeak == -1 || isBetter(mostAccurate, error, intensities[peakIndex], bestError, intensities[bestPeak])) {
+                            bestPeak = peakIndex;
+                            bestError = error;
+                        }
+                        if (intensities[peakIndex] >= intensityLimit
+                                && (bestFilteredPeak == -1 || isBetter(mostAccurate, error, intensities[peakIndex], bestFilteredError, intensities[bestFilteredPeak]))) {
+                            bestFilteredPeak = peakIndex;
+                            bestFilteredError = error;
+                        }
+                    }
+                    if (bestPeak != -1 && intensities[bestPeak] > residueIntensities[number]) {
+                        residueIntensities[number] = intensities[bestPeak];
+                    }
+                    if (bestFilteredPeak != -1) {
+                        matchPeaks[nMatches] = bestFilteredPeak;
+                        matchSubTypes[nMatches] = subType;
+                        matchNumbers[nMatches] = number;
+                        matchErrors[nMatches] = mzArray[bestFilteredPeak] - mz;
+                        nMatches++;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the neutral mass of a fragment ion.
+     *
+     * @param subType the fragment ion subtype
+     * @param number the fragment ion number
+     *
+     * @return the neutral mass of the fragment ion
+     */
+    private double getFragmentMass(int subType, int number) {
+        switch (subType) {
+            case PeptideFragmentIon.A_ION:
+                return forwardMasses[number] - CO;
+            case PeptideFragmentIon.B_ION:
+                return forwardMasses[number];
+            case PeptideFragmentIon.C_ION:
+                return forwardMasses[number] + NH3;
+            case PeptideFragmentIon.X_ION:
+                return rewindMasses[number] + CO;
+            case PeptideFragmentIon.Y_ION:
+                return rewindMasses[number] + H2;
+            case PeptideFragmentIon.Z_ION:
+                return rewindMasses[number] - Atom.N.getMonoisotopicMass();
+            default:
+                throw new UnsupportedOperationException("Fragment ion type " + subType + " not implemented.");
+        }
+    }
+
+    /**
+     * Indicates whether a candidate peak is a better match than the current
+     * best peak according to the ties resolution.
+     *
+     * @param mostAccurate boolean indicating whether the most accurate peak
+     * should be retained, the most intense otherwise
+     * @param error the absolute error of the candidate peak
+     * @param intensity the intensity of the candidate peak
+     * @param bestError the absolute error of the best peak
+     * @param bestIntensity the intensity of the best peak
+     *
+     * @return a boolean indicating whether the candidate peak is a better match
+     */
+    private static boolean isBetter(boolean mostAccurate, double error, double intensity, double bestError, double bestIntensity) {
+        if (mostAccurate) {
+            return error < bestError || error == bestError && intensity > bestIntensity;
+        }
+        return intensity > bestIntensity || intensity == bestIntensity && error < bestError;
+    }
+
+    /**
+     * Returns the precursor accuracy score.
+     *
+     * @param peptide the peptide
+     * @param charge the charge of the precursor
+     * @param ppm indicates whether the error is in ppm
+     * @param minIsotope the minimal isotope
+     * @param maxIsotope the maximal isotope
+     *
+     * @return the precursor accuracy score
+     *
+     * @throws InterruptedException exception thrown if a thread is
+     * interrupted
+     */
+    private double getPrecursorAccuracy(Peptide peptide, int charge, boolean ppm, int minIsotope, int maxIsotope) throws InterruptedException {
+        double peptideMass = peptide.getMass();
+        double theoreticMz = (peptideMass + charge * PROTON) / charge;
+        double measuredMz = spectrum.getPrecursor().getMz();
+        double experimentalMass = measuredMz * charge - charge * PROTON;
+        int isotope = (int) Math.round((experimentalMass - peptideMass) / C13_SHIFT);
+        isotope = Math.min(Math.max(isotope, minIsotope), maxIsotope);
+        measuredMz -= isotope * C13_SHIFT / charge;
+        double error = measuredMz - theoreticMz;
+        if (ppm) {
+            error = error * 1000000 / theoreticMz;
+        }
+        return Math.abs(error);
+    }
+
+    /**
+     * Returns the hyperscore, see the HyperScore class for details.
+     *
+     * @param sequenceLength the length of the peptide sequence
+     * @param charge the charge of the precursor
+     *
+     * @return the hyperscore
+     *
+     * @throws InterruptedException exception thrown if a thread is
+     * interrupted
+     */
+    private double getHyperScore(int sequenceLength, int charge) throws InterruptedException {
+
+        int nPeaks = peaks.size();
+        double[] intensities = peaks.getIntensityArray();
+        Arrays.fill(coveredPeaks, 0, nPeaks, false);
+        Arrays.fill(accountedPeaks, 0, nPeaks, false);
+
+        boolean peakMatched = false;
+        double coveredIntensity = 0.0;
+        for (int i = 0; i < nMatches; i++) {
+            int peak = matchPeaks[i];
+            if (!coveredPeaks[peak]) {
+                coveredIntensity += intensities[peak];
+                coveredPeaks[peak] = true;
+            }
+            if (matchNumbers[i] >= 2) {
+                peakMatched = true;
+            }
+        }
+        if (!peakMatched) {
+            return 0.0;
+        }
+
+        double consideredIntensity = spectrum.getTotalIntensity() - coveredIntensity;
+        Arrays.fill(forwardNumbers, 0, sequenceLength + 1, false);
+        Arrays.fill(rewindNumbers, 0, sequenceLength + 1, false);
+        int nForward = 0, nRewind = 0;
+        double xCorr = 0;
+        for (int i = 0; i < nMatches; i++) {
+            int peak = matchPeaks[i];
+            int number = matchNumbers[i];
+            if (number > 1 && !accountedPeaks[peak]) {
+                accountedPeaks[peak] = true;
+                xCorr += intensities[peak] / consideredIntensity;
+                int subType = matchSubTypes[i];
+                if (subType == PeptideFragmentIon.X_ION || subType == PeptideFragmentIon.Y_ION || subType == PeptideFragmentIon.Z_ION) {
+                    if (!forwardNumbers[number]) {
+                        forwardNumbers[number] = true;
+                        nForward++;
+                    }
+                } else if (!rewindNumbers[number]) {
+                    rewindNumbers[number] = true;
+                    nRewind++;
+                }
+            }
+        }
+        nForward = nForward / Math.max(charge - 1, 1);
+        nRewind = nRewind / Math.max(charge - 1, 1);
+        nForward = nForward > 20 ? 20 : nForward;
+        nRewind = nRewind > 20 ? 20 : nRewind;
+        return xCorr * BasicMathFunctions.factorial(nForward) * BasicMathFunctions.factorial(nRewind);
+    }
+
+    /**
+     * Returns the m/z fidelity score, see the MS2MzFidelityScore class for
+     * details.
+     *
+     * @param fragmentAccuracyInDa the fragment ion accuracy in Da
+     *
+     * @return the m/z fidelity score
+     */
+    private double getMzFidelity(double fragmentAccuracyInDa) {
+        if (nMatches < 2) {
+            return fragmentAccuracyInDa;
+        }
+        System.arraycopy(matchErrors, 0, sortedErrors, 0, nMatches);
+        Arrays.sort(sortedErrors, 0, nMatches);
+        double deviationUp = getPercentile(sortedErrors, nMatches, 0.75);
+        double deviationDown = getPercentile(sortedErrors, nMatches, 0.25);
+        return (deviationUp - deviationDown) / 2;
+    }
+
+    /**
+     * Returns the amino acid m/z fidelity score, see the AAMS2MzFidelityScore
+     * class for details.
+     *
+     * @param sequenceLength the length of the peptide sequence
+     * @param fragmentAccuracyInDa the fragment ion accuracy in Da
+     *
+     * @return the amino acid m/z fidelity score
+     */
+    private double getAaMzFidelity(int sequenceLength, double fragmentAccuracyInDa) {
+        Arrays.fill(residueErrors, 1, sequenceLength + 1, fragmentAccuracyInDa);
+        for (int i = 0; i < nMatches; i++) {
+            double error = Math.abs(matchErrors[i]);
+            int number = matchNumbers[i];
+            if (error < residueErrors[number]) {
+                residueErrors[number] = error;
+            }
+        }
+        double sum = 0;
+        for (int number = 1; number <= sequenceLength; number++) {
+            sum += residueErrors[number];
+        }
+        return sum / sequenceLength;
+    }
+
+    /**
+     * Returns the intensity rank score, see the IntensityRankScore class for
+     * details.
+     *
+     * @return the intensity rank score
+     */
+    private double getIntensityRankScore() {
+        int nPeaks = peaks.size();
+        double nMissedTolerance = 10 * ((double) nPeaks) / 100;
+        double rank = 0;
+        int missed = 0;
+        for (int i = 0; i < nPeaks; i++) {
+            if (!explainedPeaks[intensityOrder[i]]) {
+                missed++;
+                if (missed > nMissedTolerance) {
+                    return rank / nPeaks;
+                }
+            }
+            rank++;
+        }
+        return rank / nPeaks;
+    }
+
+    /**
+     * Returns the amino acid intensity rank score, see the
+     * AAIntensityRankScore class for details.
+     *
+     * @param sequenceLength the length of the peptide sequence
+     *
+     * @return the amino acid intensity rank score
+     */
+    private double getAaIntensityRankScore(int sequenceLength) {
+        double sum = 0;
+        for (int number = 1; number <= sequenceLength; number++) {
+            double intensity = residueIntensities[number];
+            int rank = N_INTENSITY_BINS;
+            if (intensity > 0) {
+                rank = 0;
+                while (rank < nIntensityThresholds && intensity < intensityThresholds[rank]) {
+                    rank++;
+                }
+            }
+            sum += rank;
+        }
+        return sum / sequenceLength;
+    }
+
+    /**
+     * Returns the complementarity score, see the ComplementarityScore class
+     * for details.
+     *
+     * @param sequenceLength the length of the peptide sequence
+     *
+     * @return the complementarity score
+     */
+    private double getComplementarity(int sequenceLength) {
+        Arrays.fill(residueMatches, 0, sequenceLength + 1, 0);
+        for (int i = 0; i < nMatches; i++) {
+            residueMatches[matchNumbers[i]]++;
+        }
+        double sum = 0;
+        for (int number = 1; number <= sequenceLength; number++) {
+            sum += FastMath.log(residueMatches[number]) / LOG2;
+        }
+        return Math.pow(2, sum / sequenceLength);
+    }
+
+    /**
+     * Returns the desired percentile of the first values of a sorted array.
+     * If the percentile is between two values a linear interpolation is done.
+     *
+     * @param sortedValues the sorted values
+     * @param length the number of values to consider
+     * @param percentile the desired percentile
+     *
+     * @return the desired percentile
+     */
+    private static double getPercentile(double[] sortedValues, int length, double percentile) {
+        if (length == 1) {
+            return sortedValues[0];
+        }
+        double indexDouble = percentile * (length - 1);
+        int index = (int) indexDouble;
+        double valueAtIndex = sortedValues[index];
+        double rest = indexDouble - index;
+        if (index == length - 1 || rest == 0) {
+            return valueAtIndex;
+        }
+        return valueAtIndex + rest * (sortedValues[index + 1] - valueAtIndex);
+    }
+}
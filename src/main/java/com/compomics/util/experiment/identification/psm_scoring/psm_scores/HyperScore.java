@@ -1,6 +1,5 @@
 package com.compomics.util.experiment.identification.psm_scoring.psm_scores;
 
-import com.compomics.util.Util;
 import com.compomics.util.experiment.biology.Ion;
 import com.compomics.util.experiment.biology.Peptide;
 import com.compomics.util.experiment.biology.ions.PeptideFragmentIon;
@@ -13,13 +12,19 @@ import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
 import com.compomics.util.experiment.massspectrometry.Peak;
 import com.compomics.util.experiment.massspectrometry.indexes.SpectrumIndex;
 import com.compomics.util.math.BasicMathFunctions;
-import com.compomics.util.math.HistogramUtils;
+import com.compomics.util.math.ConcurrentHistogram;
 import com.compomics.util.math.statistics.linear_regression.LinearRegression;
 import com.compomics.util.math.statistics.linear_regression.RegressionStatistics;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.apache.commons.math.MathException;
 import org.apache.commons.math.util.FastMath;
 
@@ -36,10 +41,23 @@ import org.apache.commons.math.util.FastMath;
  * scoring approach is in many points similar. No copyright infringement
  * intended.
  *
+ * The fitted e-value coefficients are kept in thread safe histograms, an
+ * instance can be shared between threads.
+ *
  * @author Marc Vaudel
  */
 public class HyperScore {
 
+    /**
+     * The bound of the values of a and b kept in the histograms, values
+     * outside [-bound, bound] are counted at the bound.
+     */
+    public static final double COEFFICIENT_BOUND = 100.0;
+    /**
+     * The number of score lists per batch when estimating e-values in
+     * parallel.
+     */
+    private static final int BATCH_SIZE = 64;
     /**
      * The peptide fragmentation model to use.
      */
@@ -47,11 +65,11 @@ public class HyperScore {
     /**
      * Histogram of the values found for a in the fitting.
      */
-    private HashMap<Double, Integer> as = new HashMap<Double, Integer>();
+    private final ConcurrentHistogram as = new ConcurrentHistogram(-COEFFICIENT_BOUND, COEFFICIENT_BOUND, 2);
     /**
      * Histogram of the values found for b in the fitting.
      */
-    private HashMap<Double, Integer> bs = new HashMap<Double, Integer>();
+    private final ConcurrentHistogram bs = new ConcurrentHistogram(-COEFFICIENT_BOUND, COEFFICIENT_BOUND, 2);
 
     /**
      * Constructor.
@@ -191,60 +209,69 @@ public class HyperScore {
      * @return the e-values corresponding to the given scores
      */
     public HashMap<Double, Double> getEValueMap(ArrayList<Double> hyperScores, boolean useCache) {
-        HashMap<Integer, Integer> histogram = new HashMap<Integer, Integer>();
-        Double maxScore = 0.0;
-        Double minScore = Double.MAX_VALUE;
-        for (Double score : hyperScores) {
-            Integer intValue = score.intValue();
-            if (intValue > 0) {
-                Integer nScores = histogram.get(intValue);
-                if (nScores == null) {
-                    nScores = 1;
-                } else {
-                    nScores++;
-                }
-                histogram.put(intValue, nScores);
-                if (score > maxScore) {
-                    maxScore = score;
-                }
-                if (score < minScore) {
-                    minScore = score;
-                }
-            }
-        }
-        Integer lowestBin = minScore.intValue();
-        Integer highestBin = maxScore.intValue();
-        Integer secondEmptybin = highestBin;
-        Integer firstEmptybin = highestBin;
-        boolean emptyBin = false;
-        for (Integer bin = lowestBin; bin <= highestBin; bin++) {
-            if (!histogram.containsKey(bin)) {
-                if (!emptyBin) {
-                    emptyBin = true;
-                    firstEmptybin = bin;
-                } else {
-                    secondEmptybin = bin;
-                    break;
-                }
-            }
+        int[] scores = new int[hyperScores.size()];
+        for (int i = 0; i < scores.length; i++) {
+            scores[i] = hyperScores.get(i).intValue();
         }
-        ArrayList<Integer> bins = new ArrayList<Integer>(histogram.keySet());
-        for (Integer bin : bins) {
-            if (bin > secondEmptybin) {
-                histogram.remove(bin);
-            } else if (bin > firstEmptybin) {
-                histogram.put(bin, 1);
-            }
-        }
-        double[] ab = getInterpolationValues(histogram, useCache);
+        double[] ab = getInterpolationValues(scores, useCache);
         if (ab == null) {
             return null;
         }
         return getInterpolation(hyperScores, ab[0], ab[1]);
     }
 
+    /**
+     * Returns the e-values corresponding to lists of scores, typically the
+     * scores of the candidates of a spectrum or of a charge. The lists are
+     * processed in batches on a thread pool and the e-values are returned in
+     * the same order as the lists. See getEValueMap.
+     *
+     * @param hyperScores the lists of scores
+     * @param useCache if true the interpolation values will be stored in the
+     * histograms in cache
+     * @param nThreads the number of threads to use
+     *
+     * @return the e-values corresponding to the given scores
+     *
+     * @throws InterruptedException exception thrown if a threading error
+     * occurred
+     */
+    public ArrayList<HashMap<Double, Double>> getEValueMaps(final ArrayList<ArrayList<Double>> hyperScores, final boolean useCache, int nThreads) throws InterruptedException {
+        int nLists = hyperScores.size();
+        // the lists are only modified using set, distinct indexes can be set concurrently
+        final ArrayList<HashMap<Double, Double>> eValueMaps = new ArrayList<HashMap<Double, Double>>(Collections.<HashMap<Double, Double>>nCopies(nLists, null));
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(nThreads, 1));
+        ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+        try {
+            for (int from = 0; from < nLists; from += BATCH_SIZE) {
+                final int batchStart = from;
+                final int batchEnd = Math.min(from + BATCH_SIZE, nLists);
+                futures.add(pool.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() {
+                        for (int i = batchStart; i < batchEnd; i++) {
+                            eValueMaps.set(i, getEValueMap(hyperScores.get(i), useCache));
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalArgumentException("An error occurred while estimating e-values.", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        return eValueMaps;
+    }
+
     /**
      * Returns the interpolation values for the given scores in the form {a, b}.
+     * The scores are binned by their integer value, bins above the second
+     * empty bin are discarded and bins above the first empty bin are counted
+     * once.
      *
      * @param scores the scores
      * @param useCache if true the interpolation values will be stored in the
@@ -253,49 +280,67 @@ public class HyperScore {
      * @return the interpolation values for the given scores
      */
     public double[] getInterpolationValues(int[] scores, boolean useCache) {
-        HashMap<Integer, Integer> scoreHistogram = new HashMap<Integer, Integer>();
-        int maxScore = 0;
-        int minScore = Integer.MAX_VALUE;
+
+        // Sort the positive scores
+        int[] sortedScores = new int[scores.length];
+        int nScores = 0;
         for (int score : scores) {
             if (score > 0) {
-                Integer nScores = scoreHistogram.get(score);
-                if (nScores == null) {
-                    nScores = 1;
-                } else {
-                    nScores++;
-                }
-                scoreHistogram.put(score, nScores);
-                if (score > maxScore) {
-                    maxScore = score;
-                }
-                if (score < minScore) {
-                    minScore = score;
-                }
+                sortedScores[nScores++] = score;
             }
         }
-        Integer secondEmptybin = maxScore;
-        Integer firstEmptybin = maxScore;
+        if (nScores == 0) {
+            return null;
+        }
+        Arrays.sort(sortedScores, 0, nScores);
+
+        // Find the first two empty bins
+        int lowestBin = sortedScores[0];
+        int highestBin = sortedScores[nScores - 1];
+        int firstEmptyBin = highestBin;
+        int secondEmptyBin = highestBin;
         boolean emptyBin = false;
-        for (int bin = minScore; bin <= maxScore; bin++) {
-            if (!scoreHistogram.containsKey(bin)) {
+        for (int i = 1; i < nScores; i++) {
+            int previousBin = sortedScores[i - 1];
+            int bin = sortedScores[i];
+            if (bin > previousBin + 1) {
                 if (!emptyBin) {
                     emptyBin = true;
-                    firstEmptybin = bin;
+                    firstEmptyBin = previousBin + 1;
+                    if (bin > previousBin + 2) {
+                        secondEmptyBin = previousBin + 2;
+                        break;
+                    }
                 } else {
-                    secondEmptybin = bin;
+                    secondEmptyBin = previousBin + 1;
                     break;
                 }
             }
         }
-        ArrayList<Integer> bins = new ArrayList<Integer>(scoreHistogram.keySet());
-        for (Integer bin : bins) {
-            if (bin > secondEmptybin) {
-                scoreHistogram.remove(bin);
-            } else if (bin > firstEmptybin) {
-                scoreHistogram.put(bin, 1);
+
+        // Fill the histogram over the bins until the second empty bin
+        int[] binCounts = new int[secondEmptyBin - lowestBin + 1];
+        for (int i = 0; i < nScores && sortedScores[i] <= secondEmptyBin; i++) {
+            int bin = sortedScores[i];
+            if (bin > firstEmptyBin) {
+                binCounts[bin - lowestBin] = 1;
+            } else {
+                binCounts[bin - lowestBin]++;
+            }
+        }
+
+        ArrayList<Double> evalueFunctionX = new ArrayList<Double>(binCounts.length);
+        ArrayList<Double> evalueFunctionY = new ArrayList<Double>(binCounts.length);
+        int currentSum = 0;
+        for (int i = binCounts.length - 1; i >= 0; i--) {
+            int nInBin = binCounts[i];
+            if (nInBin > 0) {
+                currentSum += nInBin;
+                evalueFunctionX.add(FastMath.log10(lowestBin + i));
+                evalueFunctionY.add(FastMath.log10(currentSum));
             }
         }
-        return getInterpolationValues(scoreHistogram, useCache);
+        return getInterpolationValues(evalueFunctionX, evalueFunctionY, useCache);
     }
 
     /**
@@ -329,25 +374,29 @@ public class HyperScore {
                 evalueFunctionY.add(yValue);
             }
         }
+        return getInterpolationValues(evalueFunctionX, evalueFunctionY, useCache);
+    }
+
+    /**
+     * Returns the interpolation values for the given e-value function in the
+     * form {a, b}, null if less than two points are given.
+     *
+     * @param evalueFunctionX the log of the scores
+     * @param evalueFunctionY the log of the number of scores higher than or
+     * equal to the score
+     * @param useCache if true the interpolation values will be stored in the
+     * histograms in cache
+     *
+     * @return the interpolation values for the given e-value function
+     */
+    private double[] getInterpolationValues(ArrayList<Double> evalueFunctionX, ArrayList<Double> evalueFunctionY, boolean useCache) {
         if (evalueFunctionX.size() <= 1) {
             return null;
         }
         RegressionStatistics regressionStatistics = LinearRegression.getSimpleLinearRegression(evalueFunctionX, evalueFunctionY);
         if (useCache) {
-            Double roundedA = Util.roundDouble(regressionStatistics.a, 2);
-            Double roundedB = Util.roundDouble(regressionStatistics.b, 2);
-            Integer nA = as.get(roundedA);
-            if (nA == null) {
-                as.put(roundedA, 1);
-            } else {
-                as.put(roundedA, nA + 1);
-            }
-            Integer nB = bs.get(roundedB);
-            if (nB == null) {
-                bs.put(roundedB, 1);
-            } else {
-                bs.put(roundedB, nB + 1);
-            }
+            as.add(regressionStatistics.a);
+            bs.add(regressionStatistics.b);
         }
         return new double[]{regressionStatistics.a, regressionStatistics.b};
     }
@@ -403,10 +452,7 @@ public class HyperScore {
      * scores
      */
     public Double getMendianA() {
-        if (as.isEmpty()) {
-            return null;
-        }
-        return HistogramUtils.getMedianValue(as);
+        return as.getMedianValue();
     }
 
     /**
@@ -417,29 +463,26 @@ public class HyperScore {
      * scores
      */
     public Double getMendianB() {
-        if (bs.isEmpty()) {
-            return null;
-        }
-        return HistogramUtils.getMedianValue(bs);
+        return bs.getMedianValue();
     }
 
     /**
-     * Returns a histogram of the as found in the previously interpolated
-     * scores.
+     * Returns a snapshot of the histogram of the as found in the previously
+     * interpolated scores.
      *
      * @return a histogram of the as found in the previously interpolated scores
      */
     public HashMap<Double, Integer> getAs() {
-        return as;
+        return as.getHistogram();
     }
 
     /**
-     * Returns a histogram of the bs found in the previously interpolated
-     * scores.
+     * Returns a snapshot of the histogram of the bs found in the previously
+     * interpolated scores.
      *
      * @return a histogram of the bs found in the previously interpolated scores
      */
     public HashMap<Double, Integer> getBs() {
-        return bs;
+        return bs.getHistogram();
     }
 }
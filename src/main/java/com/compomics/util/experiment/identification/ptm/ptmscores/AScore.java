@@ -11,6 +11,7 @@ import com.compomics.util.experiment.identification.matches.ModificationMatch;
 import com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators.PeptideSpectrumAnnotator;
 import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
 import com.compomics.util.experiment.massspectrometry.Peak;
+import com.compomics.util.experiment.massspectrometry.PeakArray;
 import com.compomics.util.math.statistics.distributions.BinomialDistribution;
 import com.compomics.util.experiment.identification.spectrum_annotation.AnnotationSettings;
 import com.compomics.util.preferences.SequenceMatchingPreferences;
@@ -609,8 +610,9 @@ public class AScore {
             currentmzMin += 200 * mzTolerance;
         }
 
+        ArrayList<ArrayList<Peak>> reducedPeaks = new ArrayList<ArrayList<Peak>>(depthMax);
         for (int i = 0; i < depthMax; i++) {
-            result.put(i, new MSnSpectrum(2, baseSpectrum.getPrecursor(), baseSpectrum.getSpectrumTitle() + "_" + i, new HashMap<Double, Peak>(), "a score"));
+            reducedPeaks.add(new ArrayList<Peak>());
         }
 
         cpt = 0;
@@ -632,12 +634,16 @@ public class AScore {
 
             for (int i = 0; i < intensities.size(); i++) {
                 for (int j = i; j < depthMax; j++) {
-                    result.get(j).addPeak(tempMap.get(intensities.get(i)));
+                    reducedPeaks.get(j).add(tempMap.get(intensities.get(i)));
                 }
             }
 
             currentmzMin += 200 * mzTolerance;
         }
+
+        for (int i = 0; i < depthMax; i++) {
+            result.put(i, new MSnSpectrum(2, baseSpectrum.getPrecursor(), baseSpectrum.getSpectrumTitle() + "_" + i, PeakArray.fromPeaks(reducedPeaks.get(i)), "a score"));
+        }
         return result;
     }
 }
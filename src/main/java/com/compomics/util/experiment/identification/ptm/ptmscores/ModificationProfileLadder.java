@@ -0,0 +1,468 @@
+package com.compomics.util.experiment.identification.ptm.ptmscores;
+
+import com.compomics.util.experiment.biology.Ion;
+import com.compomics.util.experiment.biology.IonFactory;
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.biology.ions.ElementaryIon;
+import com.compomics.util.experiment.biology.ions.PeptideFragmentIon;
+import com.compomics.util.experiment.identification.spectrum_annotation.NeutralLossesMap;
+import com.compomics.util.experiment.identification.spectrum_annotation.SpecificAnnotationSettings;
+import com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators.PeptideSpectrumAnnotator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * The fragment ions of a peptide for all the localization profiles of a
+ * modification. The fragment ions are computed once for a reference profile,
+ * the m/z of the ions for the other profiles is obtained by shifting the ions
+ * by the modification mass for every modification site gained or lost by the
+ * fragment. Profiles are matched against peaks on a thread pool.
+ *
+ * @author Marc Vaudel
+ */
+class ModificationProfileLadder {
+
+    /**
+     * The number of profiles processed per task.
+     */
+    private static final int PROFILE_BATCH_SIZE = 256;
+    /**
+     * The mass of a proton.
+     */
+    private static final double PROTON = ElementaryIon.proton.getTheoreticMass();
+    /**
+     * The length of the peptide sequence.
+     */
+    private final int sequenceLength;
+    /**
+     * The mass of the modification.
+     */
+    private final double ptmMass;
+    /**
+     * The modification sites of every profile, 1 is the first amino acid.
+     */
+    private final int[][] profileSites;
+    /**
+     * The number of ions, every charge of a fragment ion counts as one ion.
+     */
+    private int nIons = 0;
+    /**
+     * The mass of the ions for the reference profile.
+     */
+    private double[] ionMasses;
+    /**
+     * The charge of the ions.
+     */
+    private int[] ionCharges;
+    /**
+     * The fragment ion number of the ions.
+     */
+    private int[] ionNumbers;
+    /**
+     * Indicates whether the ions are N-terminal fragments.
+     */
+    private boolean[] ionForward;
+    /**
+     * The number of modifications carried by the ions for the reference
+     * profile.
+     */
+    private int[] referenceCoverage;
+    /**
+     * The minimal m/z of the ions over all profiles.
+     */
+    private double[] ionMinMz;
+    /**
+     * The maximal m/z of the ions over all profiles.
+     */
+    private double[] ionMaxMz;
+    /**
+     * Indicates whether the m/z of the ions depends on the profile.
+     */
+    private boolean[] siteDetermining;
+    /**
+     * Indicates whether the fragment ion tolerance is in ppm.
+     */
+    private final boolean ppm;
+    /**
+     * The fragment ion tolerance.
+     */
+    private final double tolerance;
+    /**
+     * The pool used to process the profiles, null to process them in the
+     * calling thread.
+     */
+    private final ExecutorService pool;
+
+    /**
+     * Constructor.
+     *
+     * @param referencePeptide the peptide carrying the modifications of the
+     * first profile
+     * @param ptmMass the mass of the modification
+     * @param possibleSites the possible modification sites, 1 is the first
+     * amino acid
+     * @param profileSites the modification sites of every profile, 1 is the
+     * first amino acid, the first profile must be the one of the reference
+     * peptide
+     * @param spectrumAnnotator the spectrum annotator used to validate the
+     * neutral losses and charges of the ions
+     * @param scoringAnnotationSettings the annotation settings used for the
+     * scoring
+     * @param pool the pool used to process the profiles, null to process them
+     * in the calling thread
+     */
+    ModificationProfileLadder(Peptide referencePeptide, double ptmMass, int[] possibleSites, int[][] profileSites, PeptideSpectrumAnnotator spectrumAnnotator,
+            SpecificAnnotationSettings scoringAnnotationSettings, ExecutorService pool) {
+
+        this.sequenceLength = referencePeptide.getSequence().length();
+        this.ptmMass = ptmMass;
+        this.profileSites = profileSites;
+        this.ppm = scoringAnnotationSettings.isFragmentIonPpm();
+        this.tolerance = scoringAnnotationSettings.getFragmentIonAccuracy();
+        this.pool = pool;
+
+        // The ions expected by the spectrum annotator for the reference profile
+        ArrayList<Ion> ions = new ArrayList<Ion>();
+        ArrayList<Integer> charges = new ArrayList<Integer>();
+        HashMap<Integer, ArrayList<Ion>> peptideFragmentIons = IonFactory.getInstance().getFragmentIonLadder(referencePeptide, scoringAnnotationSettings).getFragmentIons().get(Ion.IonType.PEPTIDE_FRAGMENT_ION.index);
+        HashSet<Integer> subTypes = scoringAnnotationSettings.getIonTypes().get(Ion.IonType.PEPTIDE_FRAGMENT_ION);
+        if (peptideFragmentIons != null && subTypes != null) {
+            NeutralLossesMap neutralLosses = scoringAnnotationSettings.getNeutralLossesMap();
+            int precursorCharge = scoringAnnotationSettings.getPrecursorCharge();
+            for (int subType : subTypes) {
+                ArrayList<Ion> subTypeIons = peptideFragmentIons.get(subType);
+                if (subTypeIons != null) {
+                    for (Ion ion : subTypeIons) {
+                        if (spectrumAnnotator.lossesValidated(neutralLosses, ion)) {
+                            for (int charge : scoringAnnotationSettings.getSelectedCharges()) {
+                                if (spectrumAnnotator.chargeValidated(ion, charge, precursorCharge)) {
+                                    ions.add(ion);
+                                    charges.add(charge);
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        nIons = ions.size();
+        ionMasses = new double[nIons];
+        ionCharges = new int[nIons];
+        ionNumbers = new int[nIons];
+        ionForward = new boolean[nIons];
+        referenceCoverage = new int[nIons];
+        ionMinMz = new double[nIons];
+        ionMaxMz = new double[nIons];
+        siteDetermining = new boolean[nIons];
+        int nPtms = profileSites[0].length;
+        for (int i = 0; i < nIons; i++) {
+            PeptideFragmentIon ion = (PeptideFragmentIon) ions.get(i);
+            ionMasses[i] = ion.getTheoreticMass();
+            ionCharges[i] = charges.get(i);
+            ionNumbers[i] = ion.getNumber();
+            int subType = ion.getSubType();
+            ionForward[i] = subType == PeptideFragmentIon.A_ION || subType == PeptideFragmentIon.B_ION || subType == PeptideFragmentIon.C_ION;
+            referenceCoverage[i] = getCoverage(profileSites[0], i);
+
+            // Range of modifications carried by the ion over all profiles
+            int nCovered = getCoverage(possibleSites, i);
+            int minCoverage = Math.max(0, nPtms - (possibleSites.length - nCovered));
+            int maxCoverage = Math.min(nPtms, nCovered);
+            siteDetermining[i] = minCoverage != maxCoverage;
+            double mz1 = getMz(i, minCoverage);
+            double mz2 = getMz(i, maxCoverage);
+            ionMinMz[i] = Math.min(mz1, mz2);
+            ionMaxMz[i] = Math.max(mz1, mz2);
+        }
+    }
+
+    /**
+     * Returns the number of ions, every charge of a fragment ion counts as one
+     * ion.
+     *
+     * @return the number of ions
+     */
+    int getNIons() {
+        return nIons;
+    }
+
+    /**
+     * Returns the number of profiles.
+     *
+     * @return the number of profiles
+     */
+    int getNProfiles() {
+        return profileSites.length;
+    }
+
+    /**
+     * Matches the ions of every profile against the most intense peaks of a
+     * window. For every profile, the number of ions matched by the peaks of
+     * rank lower than or equal to r is stored at index profile * nRanks + r
+     * of the matches array. The sorted m/z of the site determining ions of
+     * every profile in the window are stored in the siteDeterminingMz array,
+     * null if none.
+     *
+     * @param windowMin the lower bound of the window, exclusive
+     * @param windowMax the upper bound of the window, inclusive
+     * @param rankedMz the m/z of the peaks of the window by decreasing
+     * intensity
+     * @param matches the array where to store the number of matches
+     * @param siteDeterminingMz the array where to store the m/z of the site
+     * determining ions
+     *
+     * @throws InterruptedException exception thrown if a threading error
+     * occurred
+     */
+    void matchWindow(final double windowMin, final double windowMax, final double[] rankedMz, final int[] matches, final double[][] siteDeterminingMz) throws InterruptedException {
+
+        final int nRanks = rankedMz.length;
+        double lowestMz = rankedMz[0], highestMz = rankedMz[0];
+        for (double mz : rankedMz) {
+            lowestMz = Math.min(lowestMz, mz);
+            highestMz = Math.max(highestMz, mz);
+        }
+        double margin = getMargin(highestMz);
+
+        // Only the ions which can reach the window are inspected
+        int nCandidates = 0, nSiteDeterminingCandidates = 0;
+        final int[] candidates = new int[nIons];
+        final int[] siteDeterminingCandidates = new int[nIons];
+        for (int i = 0; i < nIons; i++) {
+            if (ionMaxMz[i] >= lowestMz - margin && ionMinMz[i] <= highestMz + margin) {
+                candidates[nCandidates++] = i;
+            }
+            if (siteDetermining[i] && ionMaxMz[i] > windowMin && ionMinMz[i] <= windowMax) {
+                siteDeterminingCandidates[nSiteDeterminingCandidates++] = i;
+            }
+        }
+        final int finalNCandidates = nCandidates, finalNSiteDeterminingCandidates = nSiteDeterminingCandidates;
+
+        processProfiles(new ProfileProcessor() {
+            @Override
+            public void process(int from, int to) {
+                double[] buffer = new double[finalNSiteDeterminingCandidates];
+                for (int profile = from; profile < to; profile++) {
+                    int[] sites = profileSites[profile];
+                    int offset = profile * nRanks;
+                    for (int i = 0; i < finalNCandidates; i++) {
+                        int ion = candidates[i];
+                        double mz = getMz(ion, getCoverage(sites, ion));
+                        for (int rank = 0; rank < nRanks; rank++) {
+                            if (matches(rankedMz[rank], mz)) {
+                                matches[offset + rank]++;
+                                break;
+                            }
+                        }
+                    }
+                    for (int rank = 1; rank < nRanks; rank++) {
+                        matches[offset + rank] += matches[offset + rank - 1];
+                    }
+                    int nMz = 0;
+                    for (int i = 0; i < finalNSiteDeterminingCandidates; i++) {
+                        int ion = siteDeterminingCandidates[i];
+                        double mz = getMz(ion, getCoverage(sites, ion));
+                        if (mz > windowMin && mz <= windowMax) {
+                            buffer[nMz++] = mz;
+                        }
+                    }
+                    if (nMz > 0) {
+                        Arrays.sort(buffer, 0, nMz);
+                        int nDistinct = 1;
+                        for (int i = 1; i < nMz; i++) {
+                            if (buffer[i] != buffer[nDistinct - 1]) {
+                                buffer[nDistinct++] = buffer[i];
+                            }
+                        }
+                        siteDeterminingMz[profile] = Arrays.copyOf(buffer, nDistinct);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the number of ions of every profile matched by the given peaks.
+     *
+     * @param peakMz the m/z of the peaks in increasing order
+     *
+     * @return the number of ions of every profile matched by the given peaks
+     *
+     * @throws InterruptedException exception thrown if a threading error
+     * occurred
+     */
+    int[] countMatches(final double[] peakMz) throws InterruptedException {
+        final int[] result = new int[profileSites.length];
+        processProfiles(new ProfileProcessor() {
+            @Override
+            public void process(int from, int to) {
+                for (int profile = from; profile < to; profile++) {
+                    int[] sites = profileSites[profile];
+                    int count = 0;
+                    for (int ion = 0; ion < nIons; ion++) {
+                        double mz = getMz(ion, getCoverage(sites, ion));
+                        double margin = getMargin(mz);
+                        for (int i = getLowerBound(peakMz, mz - margin); i < peakMz.length && peakMz[i] <= mz + margin; i++) {
+                            if (matches(peakMz[i], mz)) {
+                                count++;
+                                break;
+                            }
+                        }
+                    }
+                    result[profile] = count;
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Returns the number of the given modification sites carried by an ion.
+     *
+     * @param sites the modification sites, 1 is the first amino acid
+     * @param ion the index of the ion
+     *
+     * @return the number of modification sites carried by the ion
+     */
+    private int getCoverage(int[] sites, int ion) {
+        int number = ionNumbers[ion];
+        int coverage = 0;
+        if (ionForward[ion]) {
+            for (int site : sites) {
+                if (site <= number) {
+                    coverage++;
+                }
+            }
+        } else {
+            int firstResidue = sequenceLength - number + 1;
+            for (int site : sites) {
+                if (site >= firstResidue) {
+                    coverage++;
+                }
+            }
+        }
+        return coverage;
+    }
+
+    /**
+     * Returns the m/z of an ion carrying the given number of modifications,
+     * computed like in the Ion class.
+     *
+     * @param ion the index of the ion
+     * @param coverage the number of modifications carried by the ion
+     *
+     * @return the m/z of the ion
+     */
+    private double getMz(int ion, int coverage) {
+        double mass = ionMasses[ion] + ptmMass * (coverage - referenceCoverage[ion]);
+        int charge = ionCharges[ion];
+        double mz = mass + PROTON;
+        if (charge > 1) {
+            mz = (mz + (charge - 1) * PROTON) / charge;
+        }
+        return mz;
+    }
+
+    /**
+     * Indicates whether a peak matches an ion, the error is computed like in
+     * the SpectrumIndex.
+     *
+     * @param peakMz the m/z of the peak
+     * @param mz the m/z of the ion
+     *
+     * @return a boolean indicating whether the peak matches the ion
+     */
+    private boolean matches(double peakMz, double mz) {
+        double error = ppm ? 1000000 * (peakMz - mz) / mz : peakMz - mz;
+        return Math.abs(error) <= tolerance;
+    }
+
+    /**
+     * Returns an m/z margin larger than the tolerance around the given m/z.
+     *
+     * @param mz the m/z
+     *
+     * @return an m/z margin larger than the tolerance
+     */
+    private double getMargin(double mz) {
+        return ppm ? 2 * tolerance * mz / 1000000 : 2 * tolerance;
+    }
+
+    /**
+     * Returns the index of the first value greater than or equal to the given
+     * value.
+     *
+     * @param values the values in increasing order
+     * @param value the value
+     *
+     * @return the index of the first value greater than or equal to the given
+     * value, the number of values if none
+     */
+    private static int getLowerBound(double[] values, double value) {
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (values[middle] < value) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Processes all profiles in batches, on the pool if any.
+     *
+     * @param processor the processor
+     *
+     * @throws InterruptedException exception thrown if a threading error
+     * occurred
+     */
+    private void processProfiles(final ProfileProcessor processor) throws InterruptedException {
+        int nProfiles = profileSites.length;
+        if (pool == null || nProfiles <= PROFILE_BATCH_SIZE) {
+            processor.process(0, nProfiles);
+            return;
+        }
+        ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int from = 0; from < nProfiles; from += PROFILE_BATCH_SIZE) {
+            final int batchStart = from;
+            final int batchEnd = Math.min(from + PROFILE_BATCH_SIZE, nProfiles);
+            futures.add(pool.submit(new Runnable() {
+                @Override
+                public void run() {
+                    processor.process(batchStart, batchEnd);
+                }
+            }));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalArgumentException("An error occurred while matching the modification profiles.", e.getCause());
+        }
+    }
+
+    /**
+     * Processes a batch of profiles.
+     */
+    private interface ProfileProcessor {
+
+        /**
+         * Processes the profiles of the given range.
+         *
+         * @param from the index of the first profile
+         * @param to the index after the last profile
+         */
+        void process(int from, int to);
+    }
+}
@@ -2,38 +2,41 @@ package com.compomics.util.experiment.identification.ptm.ptmscores;
 
 import com.compomics.util.Util;
 import com.compomics.util.experiment.biology.Ion;
-import com.compomics.util.experiment.biology.IonFactory;
 import com.compomics.util.experiment.biology.NeutralLoss;
 import com.compomics.util.experiment.biology.PTM;
 import com.compomics.util.experiment.biology.Peptide;
 import com.compomics.util.experiment.identification.spectrum_annotation.NeutralLossesMap;
-import com.compomics.util.experiment.identification.matches.IonMatch;
 import com.compomics.util.experiment.identification.matches.ModificationMatch;
 import com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators.PeptideSpectrumAnnotator;
 import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
+import com.compomics.util.experiment.massspectrometry.PeakArray;
 import com.compomics.util.experiment.massspectrometry.Peak;
-import com.compomics.util.experiment.massspectrometry.Spectrum;
 import com.compomics.util.math.statistics.distributions.BinomialDistribution;
 import com.compomics.util.experiment.identification.spectrum_annotation.AnnotationSettings;
 import com.compomics.util.preferences.SequenceMatchingPreferences;
 import com.compomics.util.experiment.identification.spectrum_annotation.SpecificAnnotationSettings;
-import com.compomics.util.maps.KeyUtils;
 import com.compomics.util.math.BasicMathFunctions;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import org.apache.commons.math.MathException;
 import org.apache.commons.math.util.FastMath;
 
 /**
  * This class estimates the PhosphoRS score as described in
- * http://www.ncbi.nlm.nih.gov/pubmed/22073976. Warning: the calculation in its
- * present form is very slow for multiply modified peptides, peptides with many
- * modification sites, and noisy spectra. Typically, avoid scoring deamidation
- * sites.
+ * http://www.ncbi.nlm.nih.gov/pubmed/22073976. The fragment ions are computed
+ * once and shifted for every modification profile, the profiles can be scored
+ * on multiple threads. Warning: the number of profiles grows combinatorially
+ * with the number of modifications and modification sites, the calculation
+ * remains slow for multiply modified peptides with many modification sites.
+ * Typically, avoid scoring deamidation sites.
  *
  * @author Marc Vaudel
  */
@@ -111,6 +114,62 @@ public class PhosphoRS {
             SpecificAnnotationSettings specificAnnotationSettings, boolean accountNeutralLosses, SequenceMatchingPreferences sequenceMatchingPreferences,
             SequenceMatchingPreferences ptmSequenceMatchingPreferences, PeptideSpectrumAnnotator spectrumAnnotator)
             throws IOException, InterruptedException, ClassNotFoundException, SQLException, MathException {
+        return getSequenceProbabilities(peptide, ptms, spectrum, annotationSettings, specificAnnotationSettings, accountNeutralLosses, sequenceMatchingPreferences,
+                ptmSequenceMatchingPreferences, spectrumAnnotator, 1);
+    }
+
+    /**
+     * Returns the PhosphoRS sequence probabilities for the PTM possible
+     * locations. 1 is the first amino acid. The N-terminus is indexed 0 and the
+     * C-terminus with the peptide length+1. Note that PTMs found on peptides
+     * must be loaded in the PTM factory
+     * (com.compomics.util.experiment.biology.PTMFactory), and if the scoring
+     * involves protein terminal PTMs, the protein sequences must be loaded in
+     * the sequence factory
+     * (com.compomics.util.experiment.identification.SequenceFactory) and
+     * indexed using the protein tree (see getDefaultProteinTree in
+     * SequenceFactory). PTMs of same mass should be scored together and given
+     * in the PTMs list. Neutral losses of mass equal to the mass of the PTM
+     * will be ignored. Neutral losses to be accounted for should be given in
+     * the SpecificAnnotationSettings and will be ignored if
+     * accountNeutralLosses is false.
+     *
+     * @param peptide the peptide of interest
+     * @param ptms the PTMs to score, for instance different phosphorylations
+     * (the PTMs are considered as indistinguishable, i.e. of same mass)
+     * @param spectrum the corresponding spectrum
+     * @param annotationSettings the global annotation settings
+     * @param specificAnnotationSettings the annotation settings specific to
+     * this peptide and spectrum
+     * @param accountNeutralLosses a boolean indicating whether or not the
+     * calculation shall account for neutral losses.
+     * @param sequenceMatchingPreferences the sequence matching preferences for
+     * peptide to protein mapping
+     * @param ptmSequenceMatchingPreferences the sequence matching preferences
+     * for PTM to peptide mapping
+     * @param spectrumAnnotator the peptide spectrum annotator to use for
+     * spectrum annotation, can be null
+     * @param nThreads the number of threads to use to score the modification
+     * profiles
+     *
+     * @return a map site &gt; phosphoRS site probability
+     *
+     * @throws java.io.IOException exception thrown whenever an error occurred
+     * while reading or writing a file
+     * @throws java.lang.InterruptedException exception thrown whenever a
+     * threading issue occurred while scoring the PTM
+     * @throws java.lang.ClassNotFoundException exception thrown whenever an
+     * error occurred while deserializing an object from the protein tree (the
+     * protein sequence index)
+     * @throws java.sql.SQLException exception thrown whenever an error occurred
+     * while interacting with the protein tree
+     * @throws org.apache.commons.math.MathException exception thrown whenever a
+     * math error occurred while computing the score.
+     */
+    public static HashMap<Integer, Double> getSequenceProbabilities(Peptide peptide, ArrayList<PTM> ptms, MSnSpectrum spectrum, AnnotationSettings annotationSettings,
+            SpecificAnnotationSettings specificAnnotationSettings, boolean accountNeutralLosses, SequenceMatchingPreferences sequenceMatchingPreferences,
+            SequenceMatchingPreferences ptmSequenceMatchingPreferences, PeptideSpectrumAnnotator spectrumAnnotator, int nThreads)
+            throws IOException, InterruptedException, ClassNotFoundException, SQLException, MathException {
 
         if (ptms.isEmpty()) {
             throw new IllegalArgumentException("No PTM given for PhosphoRS calculation.");
@@ -182,271 +241,305 @@ public class PhosphoRS {
         }
         Collections.sort(possibleSites);
 
-        HashMap<String, Double> profileToScoreMap = new HashMap<String, Double>(possibleSites.size());
-        HashMap<String, ArrayList<Integer>> profileToSitesMap = new HashMap<String, ArrayList<Integer>>(possibleSites.size());
+        HashMap<Integer, Double> scores = new HashMap<Integer, Double>(possibleSites.size());
 
         if (possibleSites.size() > nPTM) {
 
             spectrum = filterSpectrum(spectrum, scoringAnnotationSetttings);
 
-            Peptide noModPeptide = Peptide.getNoModPeptide(peptide, ptms);
+            // The fragment ions are computed for the first profile and shifted for the others
             ArrayList<ArrayList<Integer>> possibleProfiles = getPossibleModificationProfiles(possibleSites, nPTM);
-            ArrayList<String> possibleProfileKeys = new ArrayList<String>(possibleProfiles.size());
-            for (ArrayList<Integer> profile : possibleProfiles) {
-                String profileKey = KeyUtils.getKey(profile);
-                possibleProfileKeys.add(profileKey);
-                profileToSitesMap.put(profileKey, profile);
+            int nProfiles = possibleProfiles.size();
+            int[][] profileSites = new int[nProfiles][];
+            for (int i = 0; i < nProfiles; i++) {
+                profileSites[i] = getSiteIndexes(possibleProfiles.get(i), peptideLength);
+            }
+            Peptide referencePeptide = Peptide.getNoModPeptide(peptide, ptms);
+            String representativePTM = ptms.get(0).getName();
+            for (int site : profileSites[0]) {
+                referencePeptide.addModificationMatch(new ModificationMatch(representativePTM, true, site));
             }
 
-            HashMap<String, Peptide> profileToPeptide = getPossiblePeptidesMap(peptide, ptms, possibleProfiles);
-            HashMap<String, HashMap<Integer, HashMap<Integer, ArrayList<Ion>>>> profileToPossibleFragments = getPossiblePeptideFragments(profileToPeptide, scoringAnnotationSetttings);
-            HashMap<String, Integer> profileToN = getPossiblePeptideToN(profileToPeptide, profileToPossibleFragments, spectrumAnnotator, scoringAnnotationSetttings);
-
-            HashMap<Double, ArrayList<String>> siteDeterminingIonsMap = getSiteDeterminingIons(noModPeptide, possibleProfiles, ptms, spectrumAnnotator, scoringAnnotationSetttings);
-            ArrayList<Double> siteDeterminingIons = new ArrayList<Double>(siteDeterminingIonsMap.keySet());
-
-            double minMz = spectrum.getMinMz(), maxMz = spectrum.getMaxMz(), tempMax;
+            ExecutorService pool = nThreads > 1 ? Executors.newFixedThreadPool(nThreads) : null;
+            try {
+                ModificationProfileLadder ladder = new ModificationProfileLadder(referencePeptide, ptmMass, getSiteIndexes(possibleSites, peptideLength),
+                        profileSites, spectrumAnnotator, scoringAnnotationSetttings, pool);
+                int n = ladder.getNIons();
+
+                // Retain the peaks of every window at the depth best separating the profiles
+                PeakArray peaks = spectrum.getPeaks();
+                double[] mzArray = peaks.getMzArray();
+                double[] intensities = peaks.getIntensityArray();
+                boolean[] retainedPeaks = new boolean[peaks.size()];
+                int nRetainedPeaks = 0;
+                double minMz = spectrum.getMinMz(), maxMz = spectrum.getMaxMz(), tempMax;
+                double d = specificAnnotationSettings.getFragmentIonAccuracy();
+                double dOverW = d / WINDOW_SIZE;
+                dOverW = -FastMath.log10(dOverW);
+                int nDecimals = ((int) dOverW) + 1;
+                double halfWindow = WINDOW_SIZE / 2;
+
+                while (minMz < maxMz) {
+
+                    tempMax = minMz + WINDOW_SIZE;
+
+                    if (specificAnnotationSettings.isFragmentIonPpm()) {
+                        Double refMz = minMz + halfWindow;
+                        d = specificAnnotationSettings.getFragmentIonAccuracyInDa(refMz);
+                        dOverW = d / WINDOW_SIZE;
+                        dOverW = -FastMath.log10(dOverW);
+                        nDecimals = ((int) dOverW) + 1;
+                    }
 
-            HashMap<Double, Peak> reducedSpectrum = new HashMap<Double, Peak>();
+                    int[] rankedPeaks = getRankedPeaks(mzArray, intensities, peaks.getLowerBound(minMz), peaks.getLowerBound(tempMax));
 
-            double d = specificAnnotationSettings.getFragmentIonAccuracy();
-            double dOverW = d / WINDOW_SIZE;
-            dOverW = -FastMath.log10(dOverW);
-            int nDecimals = ((int) dOverW) + 1;
-            double halfWindow = WINDOW_SIZE / 2;
+                    if (rankedPeaks.length > 0) {
+                        int depth = getWindowDepth(ladder, n, minMz, tempMax, mzArray, rankedPeaks, d, nDecimals);
+                        for (int i = 0; i < depth; i++) {
+                            retainedPeaks[rankedPeaks[i]] = true;
+                        }
+                        nRetainedPeaks += depth;
+                    }
 
-            while (minMz < maxMz) {
+                    minMz = tempMax;
+                }
 
-                tempMax = minMz + WINDOW_SIZE;
+                double[] phosphoRsMz = new double[nRetainedPeaks];
+                int nPeaks = 0;
+                for (int i = 0; i < retainedPeaks.length; i++) {
+                    if (retainedPeaks[i]) {
+                        phosphoRsMz[nPeaks++] = mzArray[i];
+                    }
+                }
 
+                double w = spectrum.getMaxMz() - spectrum.getMinMz();
                 if (specificAnnotationSettings.isFragmentIonPpm()) {
-                    Double refMz = minMz + halfWindow;
+                    Double refMz = spectrum.getMinMz() + (w / 2);
                     d = specificAnnotationSettings.getFragmentIonAccuracyInDa(refMz);
-                    dOverW = d / WINDOW_SIZE;
-                    dOverW = -FastMath.log10(dOverW);
-                    nDecimals = ((int) dOverW) + 1;
+                }
+                dOverW = d / w;
+                dOverW = -FastMath.log10(dOverW);
+                nDecimals = ((int) dOverW) + 1;
+                double currentP = getp(nRetainedPeaks, w, d, nDecimals);
+                int[] profileMatches = ladder.countMatches(phosphoRsMz);
+                double[] pInv = new double[nProfiles];
+                double pInvTotal = 0.0;
+
+                for (int i = 0; i < nProfiles; i++) {
+                    double bigP = getPhosphoRsScoreP(currentP, n, profileMatches[i]);
+                    BasicMathFunctions.checkProbabilityRange(bigP);
+                    pInv[i] = 1.0 / bigP;
+                    pInvTotal += pInv[i];
+                }
+                if (pInvTotal <= 0) {
+                    throw new IllegalArgumentException("PhosphoRS probability <= 0.");
                 }
 
-                HashMap<Double, Peak> extractedPeakList = spectrum.getSubSpectrum(minMz, tempMax);
-
-                if (!extractedPeakList.isEmpty()) {
-
-                    MSnSpectrum tempSpectrum = new MSnSpectrum(spectrum.getLevel(), spectrum.getPrecursor(), spectrum.getSpectrumTitle()
-                            + "_PhosphoRS_minMZ_" + minMz, extractedPeakList, spectrum.getFileName());
-
-                    ArrayList<MSnSpectrum> spectra = getReducedSpectra(tempSpectrum);
-
-                    HashMap<String, HashSet<Double>> profileToSiteDeterminingIonsMz = new HashMap<String, HashSet<Double>>(siteDeterminingIons.size());
-                    for (double ionMz : siteDeterminingIons) {
-                        if (ionMz > minMz && ionMz <= tempMax) {
-                            ArrayList<String> profiles = siteDeterminingIonsMap.get(ionMz);
-                            for (String profileKey : profiles) {
-                                HashSet<Double> mzs = profileToSiteDeterminingIonsMz.get(profileKey);
-                                if (mzs == null) {
-                                    mzs = new HashSet<Double>(1);
-                                    profileToSiteDeterminingIonsMz.put(profileKey, mzs);
-                                }
-                                mzs.add(ionMz);
-                            }
+                for (int i = 0; i < nProfiles; i++) {
+                    double phosphoRsProbability = pInv[i] / pInvTotal;
+                    BasicMathFunctions.checkProbabilityRange(phosphoRsProbability);
+                    phosphoRsProbability *= 100; //in percent
+                    for (Integer site : possibleProfiles.get(i)) {
+                        Double previousScore = scores.get(site);
+                        if (previousScore == null) {
+                            scores.put(site, phosphoRsProbability);
+                        } else {
+                            scores.put(site, previousScore + phosphoRsProbability);
                         }
                     }
+                }
+            } finally {
+                if (pool != null) {
+                    pool.shutdownNow();
+                }
+            }
 
-                    if (!profileToSiteDeterminingIonsMz.isEmpty()) {
-
-                        ArrayList<ArrayList<Double>> deltas = new ArrayList<ArrayList<Double>>(spectra.size());
-                        int nDeltas = 0;
-
-                        for (MSnSpectrum currentSpectrum : spectra) {
-                            ArrayList<Double> bigPs = new ArrayList<Double>(possibleProfileKeys.size());
-                            ArrayList<Double> currentDeltas = new ArrayList<Double>(possibleProfileKeys.size());
-                            ArrayList<HashSet<Double>> scored = new ArrayList<HashSet<Double>>(possibleProfileKeys.size());
-                            boolean profileWithNoSiteDeterminingIonsScored = false;
-                            double currentP = getp(currentSpectrum, WINDOW_SIZE, d, nDecimals);
-                            for (String profileKey : possibleProfileKeys) {
-                                HashSet<Double> tempSiteDeterminingIons = profileToSiteDeterminingIonsMz.get(profileKey);
-                                if (tempSiteDeterminingIons == null) {
-                                    if (!profileWithNoSiteDeterminingIonsScored) {
-                                        profileWithNoSiteDeterminingIonsScored = true;
-                                        Peptide tempPeptide = profileToPeptide.get(profileKey);
-                                        HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> possibleFragmentIons = profileToPossibleFragments.get(profileKey);
-                                        Integer n = profileToN.get(profileKey);
-                                        Double bigP = getPhosphoRsScoreP(tempPeptide, possibleFragmentIons, currentSpectrum, currentP, n, spectrumAnnotator, annotationSettings, scoringAnnotationSetttings);
-                                        BasicMathFunctions.checkProbabilityRange(bigP);
-                                        bigPs.add(bigP);
-                                    }
-                                } else {
-                                    boolean alreadyScored = false;
-                                    for (HashSet<Double> scoredIons : scored) {
-                                        if (Util.sameSets(tempSiteDeterminingIons, scoredIons)) {
-                                            alreadyScored = true;
-                                            break;
-                                        }
-                                    }
-                                    if (!alreadyScored) {
-                                        Peptide tempPeptide = profileToPeptide.get(profileKey);
-                                        Integer n = profileToN.get(profileKey);
-                                        HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> possibleFragmentIons = profileToPossibleFragments.get(profileKey);
-                                        Double bigP = getPhosphoRsScoreP(tempPeptide, possibleFragmentIons, currentSpectrum, currentP, n, spectrumAnnotator, annotationSettings, scoringAnnotationSetttings);
-                                        BasicMathFunctions.checkProbabilityRange(bigP);
-                                        bigPs.add(bigP);
-                                        scored.add(tempSiteDeterminingIons);
-                                    }
-                                }
-                            }
-                            Collections.sort(bigPs);
-                            for (int j = 0; j < bigPs.size() - 1; j++) {
-                                Double pJ = bigPs.get(j);
-                                Double pJPlusOne = bigPs.get(j + 1);
-                                Double delta = pJ / pJPlusOne;
-                                currentDeltas.add(delta);
-                            }
-                            if (currentDeltas.size() > nDeltas) {
-                                nDeltas = currentDeltas.size();
-                            }
-                            deltas.add(currentDeltas);
-                        }
-
-                        int bestI = 0;
-                        Double largestDelta = 0.0;
-
-                        for (int j = 0; j < nDeltas && largestDelta == 0.0; j++) {
-                            for (int i = 0; i < deltas.size(); i++) {
-                                ArrayList<Double> tempDeltas = deltas.get(i);
-                                if (j < tempDeltas.size() && tempDeltas.get(j) > largestDelta) {
-                                    largestDelta = tempDeltas.get(j);
-                                    bestI = i;
-                                }
-                            }
-                        }
-
-                        if (bestI < MIN_DEPTH - 1 && MIN_DEPTH -1 < spectra.size()) {
-                            bestI = MIN_DEPTH - 1;
-                        }
-                        if (bestI > MAX_DEPTH - 1) {
-                            bestI = MAX_DEPTH - 1;
-                        }
-
-                        reducedSpectrum.putAll(spectra.get(bestI).getPeakMap());
-
-                    } else {
+        } else if (possibleSites.size() == nPTM) {
+            for (Integer site : possibleSites) {
+                scores.put(site, 100.0);
+            }
+        } else {
+            throw new IllegalArgumentException("Found less potential modification sites than PTMs during PhosphoRS calculation. Peptide key: " + peptide.getKey());
+        }
 
-                        Double bestP = 0.0;
-                        int bestI = 0;
+        for (int site : possibleSites) {
+            if (!scores.keySet().contains(site)) {
+                throw new IllegalArgumentException("Site " + site + " not scored for modification " + ptmMass + " in spectrum " + spectrum.getSpectrumTitle() + " of file " + spectrum.getFileName() + ".");
+            }
+        }
 
-                        HashMap<Integer, ArrayList<Ion>> expectedFragmentIons = spectrumAnnotator.getExpectedIons(scoringAnnotationSetttings, peptide);
-                        int nExpectedFragmentIons = 0;
-                        for (ArrayList<Ion> expectedIons : expectedFragmentIons.values()) {
-                            nExpectedFragmentIons += expectedIons.size();
-                        }
-                        IonFactory fragmentFactory = IonFactory.getInstance();
-                        HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> possibleFragmentIons = fragmentFactory.getFragmentIons(peptide, scoringAnnotationSetttings);
-                        for (int i = 0; i < spectra.size(); i++) {
-                            MSnSpectrum currentSpectrum = spectra.get(i);
-                            double currentP = getp(currentSpectrum, WINDOW_SIZE, d, nDecimals);
-                            Double bigP = getPhosphoRsScoreP(peptide, possibleFragmentIons, currentSpectrum, currentP, nExpectedFragmentIons, spectrumAnnotator, annotationSettings, scoringAnnotationSetttings);
-                            BasicMathFunctions.checkProbabilityRange(bigP);
-                            if (bigP < bestP) {
-                                bestP = bigP;
-                                bestI = i;
-                            }
-                        }
+        return scores;
+    }
 
-                        reducedSpectrum.putAll(spectra.get(bestI).getPeakMap());
-                    }
+    /**
+     * Returns the number of peaks of a window to retain, i.e. the depth
+     * maximizing the difference between the scores of the profiles having
+     * different site determining ions in the window. Profiles having the same
+     * site determining ions are scored once.
+     *
+     * @param ladder the fragment ions of the profiles
+     * @param n the number of expected ions
+     * @param windowMin the minimal m/z of the window
+     * @param windowMax the maximal m/z of the window
+     * @param mzArray the m/z of the peaks of the spectrum
+     * @param rankedPeaks the indexes of the peaks of the window by decreasing
+     * intensity
+     * @param d the m/z tolerance in daltons
+     * @param nDecimals the number of decimals to use for p
+     *
+     * @return the number of peaks of the window to retain
+     *
+     * @throws java.lang.InterruptedException exception thrown if the thread is
+     * interrupted
+     * @throws org.apache.commons.math.MathException exception thrown if a math
+     * exception occurred
+     */
+    private static int getWindowDepth(ModificationProfileLadder ladder, int n, double windowMin, double windowMax, double[] mzArray, int[] rankedPeaks, double d, int nDecimals)
+            throws InterruptedException, MathException {
+
+        int nRanks = rankedPeaks.length;
+        double[] rankedMz = new double[nRanks];
+        for (int i = 0; i < nRanks; i++) {
+            rankedMz[i] = mzArray[rankedPeaks[i]];
+        }
+        int nProfiles = ladder.getNProfiles();
+        int[] matches = new int[nProfiles * nRanks];
+        double[][] siteDeterminingMz = new double[nProfiles][];
+        ladder.matchWindow(windowMin, windowMax, rankedMz, matches, siteDeterminingMz);
+
+        // One profile per set of site determining ions, and one for the profiles without
+        ArrayList<Integer> scoredProfiles = new ArrayList<Integer>();
+        HashSet<String> scoredIons = new HashSet<String>();
+        boolean profileWithNoSiteDeterminingIonsScored = false;
+        for (int i = 0; i < nProfiles; i++) {
+            if (siteDeterminingMz[i] == null) {
+                if (!profileWithNoSiteDeterminingIonsScored) {
+                    profileWithNoSiteDeterminingIonsScored = true;
+                    scoredProfiles.add(i);
                 }
-
-                minMz = tempMax;
+            } else if (scoredIons.add(Arrays.toString(siteDeterminingMz[i]))) {
+                scoredProfiles.add(i);
             }
+        }
+        if (scoredIons.isEmpty()) {
+            // No site determining ion in this window, the most intense peak is retained
+            return 1;
+        }
 
-            MSnSpectrum phosphoRsSpectrum = new MSnSpectrum(spectrum.getLevel(), spectrum.getPrecursor(), spectrum.getSpectrumTitle() + "_phosphoRS", reducedSpectrum, spectrum.getFileName());
-
-            double w = spectrum.getMaxMz() - spectrum.getMinMz();
-            if (specificAnnotationSettings.isFragmentIonPpm()) {
-                Double refMz = spectrum.getMinMz() + (w / 2);
-                d = specificAnnotationSettings.getFragmentIonAccuracyInDa(refMz);
-            }
-            dOverW = d / w;
-            dOverW = -FastMath.log10(dOverW);
-            nDecimals = ((int) dOverW) + 1;
-            double currentP = getp(phosphoRsSpectrum, w, d, nDecimals);
-            HashMap<String, Double> pInvMap = new HashMap<String, Double>(possibleProfileKeys.size());
-            Double pInvTotal = 0.0;
-
-            for (String profileKey : possibleProfileKeys) {
-                Peptide tempPeptide = profileToPeptide.get(profileKey);
-                Integer n = profileToN.get(profileKey);
-                HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> possibleFragmentIons = profileToPossibleFragments.get(profileKey);
-                Double bigP = getPhosphoRsScoreP(tempPeptide, possibleFragmentIons, phosphoRsSpectrum, currentP, n, spectrumAnnotator, annotationSettings, scoringAnnotationSetttings);
+        int nScored = scoredProfiles.size();
+        int nDeltas = nScored - 1;
+        double[][] deltas = new double[nRanks][nDeltas];
+        double[] bigPs = new double[nScored];
+        for (int i = 0; i < nRanks; i++) {
+            double currentP = getp(i + 1, WINDOW_SIZE, d, nDecimals);
+            for (int j = 0; j < nScored; j++) {
+                int k = matches[scoredProfiles.get(j) * nRanks + i];
+                double bigP = getPhosphoRsScoreP(currentP, n, k);
                 BasicMathFunctions.checkProbabilityRange(bigP);
-                Double pInv = 1.0 / bigP;
-                pInvMap.put(profileKey, pInv);
-                pInvTotal += pInv;
+                bigPs[j] = bigP;
             }
-            if (pInvTotal <= 0) {
-                throw new IllegalArgumentException("PhosphoRS probability <= 0.");
+            Arrays.sort(bigPs);
+            for (int j = 0; j < nDeltas; j++) {
+                deltas[i][j] = bigPs[j] / bigPs[j + 1];
             }
+        }
 
-            for (String profileKey : possibleProfileKeys) {
-                Double phosphoRsProbability = pInvMap.get(profileKey) / pInvTotal; //in percent
-                BasicMathFunctions.checkProbabilityRange(phosphoRsProbability);
-                phosphoRsProbability *= 100;
-                profileToScoreMap.put(profileKey, phosphoRsProbability);
+        int bestI = 0;
+        double largestDelta = 0.0;
+
+        for (int j = 0; j < nDeltas && largestDelta == 0.0; j++) {
+            for (int i = 0; i < nRanks; i++) {
+                if (deltas[i][j] > largestDelta) {
+                    largestDelta = deltas[i][j];
+                    bestI = i;
+                }
             }
+        }
 
-        } else if (possibleSites.size() == nPTM) {
-            String profileKey = KeyUtils.getKey(possibleSites);
-            profileToScoreMap.put(profileKey, 100.0);
-            profileToSitesMap.put(profileKey, possibleSites);
-        } else {
-            throw new IllegalArgumentException("Found less potential modification sites than PTMs during PhosphoRS calculation. Peptide key: " + peptide.getKey());
+        if (bestI < MIN_DEPTH - 1 && MIN_DEPTH - 1 < nRanks) {
+            bestI = MIN_DEPTH - 1;
+        }
+        if (bestI > MAX_DEPTH - 1) {
+            bestI = MAX_DEPTH - 1;
         }
 
-        HashMap<Integer, Double> scores = new HashMap<Integer, Double>();
-        for (String profile : profileToScoreMap.keySet()) {
-            Double score = profileToScoreMap.get(profile);
-            ArrayList<Integer> sites = profileToSitesMap.get(profile);
-            for (Integer site : sites) {
-                Double previousScore = scores.get(site);
-                if (previousScore == null) {
-                    scores.put(site, score);
-                } else {
-                    Double newScore = score + previousScore;
-                    scores.put(site, newScore);
-                }
+        return bestI + 1;
+    }
+
+    /**
+     * Returns the indexes of the most intense peaks of a window by decreasing
+     * intensity, up to MAX_DEPTH + 1 peaks. Peaks of same intensity are ranked
+     * by increasing m/z.
+     *
+     * @param mzArray the m/z of the peaks
+     * @param intensities the intensities of the peaks
+     * @param from the index of the first peak of the window
+     * @param to the index after the last peak of the window
+     *
+     * @return the indexes of the most intense peaks of the window
+     */
+    private static int[] getRankedPeaks(double[] mzArray, final double[] intensities, int from, int to) {
+        Integer[] indexes = new Integer[to - from];
+        for (int i = from; i < to; i++) {
+            indexes[i - from] = i;
+        }
+        Arrays.sort(indexes, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return Double.compare(intensities[o2], intensities[o1]);
             }
+        });
+        int[] result = new int[Math.min(indexes.length, MAX_DEPTH + 1)];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = indexes[i];
         }
+        return result;
+    }
 
-        for (int site : possibleSites) {
-            if (!scores.keySet().contains(site)) {
-                throw new IllegalArgumentException("Site " + site + " not scored for modification " + ptmMass + " in spectrum " + spectrum.getSpectrumTitle() + " of file " + spectrum.getFileName() + ".");
+    /**
+     * Returns the indexes on the sequence of the given modification sites. 1
+     * is the first amino acid, the termini are placed on the terminal amino
+     * acids.
+     *
+     * @param sites the modification sites, the N-terminus is indexed 0 and the
+     * C-terminus with the peptide length+1
+     * @param peptideLength the length of the peptide
+     *
+     * @return the indexes on the sequence of the modification sites
+     */
+    private static int[] getSiteIndexes(ArrayList<Integer> sites, int peptideLength) {
+        int[] result = new int[sites.size()];
+        for (int i = 0; i < result.length; i++) {
+            int site = sites.get(i);
+            if (site == 0) {
+                site = 1;
+            } else if (site == peptideLength + 1) {
+                site = peptideLength;
             }
+            result[i] = site;
         }
-
-        return scores;
+        return result;
     }
 
     /**
-     * Returns the PhosphoRS score of the given peptide on the given spectrum.
-     * This method returns P and not -10.log(P).
+     * Returns the PhosphoRS score of a profile given the number of matched
+     * ions. This method returns P and not -10.log(P).
      *
-     * @param peptide the peptide of interest
-     * @param spectrum the spectrum of interest
      * @param p the probability for a calculated fragment matching one of the
      * experimental masses by chance as estimated by PhosphoRS
      * @param n the number of expected ions
-     * @param spectrumAnnotator spectrum annotator
-     * @param annotationSettings the global annotation settings
-     * @param scoringAnnotationSettings the annotation settings specific to this
-     * peptide and spectrum
+     * @param k the number of matched ions
      *
      * @return the phosphoRS score
-     * 
-     * @throws java.lang.InterruptedException exception thrown if the thread is
-     * interrupted
-     * @throws org.apache.commons.math.MathException exception thrown if a math exception occurred
+     *
+     * @throws org.apache.commons.math.MathException exception thrown if a math
+     * exception occurred
      */
-    private static Double getPhosphoRsScoreP(Peptide peptide, HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> possiblePeptideFragments, MSnSpectrum spectrum, double p, int n, PeptideSpectrumAnnotator spectrumAnnotator,
-            AnnotationSettings annotationSettings, SpecificAnnotationSettings scoringAnnotationSettings) throws MathException, InterruptedException {
+    private static double getPhosphoRsScoreP(double p, int n, int k) throws MathException {
+
+        if (k == 0) {
+            return 1.0;
+        }
 
         BinomialDistribution distribution = null;
         HashMap<Integer, BinomialDistribution> distributionsAtP = distributionCache.get(p);
@@ -459,24 +552,12 @@ public class PhosphoRS {
             inCache = false;
         }
 
-        ArrayList<IonMatch> matches = spectrumAnnotator.getSpectrumAnnotation(annotationSettings, scoringAnnotationSettings, spectrum, peptide, possiblePeptideFragments, false);
-        int k = 0;
-        for (IonMatch ionMatch : matches) {
-            if (ionMatch.ion.getType() == Ion.IonType.PEPTIDE_FRAGMENT_ION) {
-                k++;
-            }
-        }
-        if (k == 0) {
-            return 1.0;
-        }
-
         Double result = distribution.getDescendingCumulativeProbabilityAt((double) k);
         if (!inCache && !distribution.isCacheEmpty()) {
             addDistributionToCache(p, n, distribution);
         }
         return result;
     }
-
     /**
      * Adds a distribution to the cache and manages the cache size.
      *
@@ -505,7 +586,7 @@ public class PhosphoRS {
      * The probability p for a calculated fragment matching one of the
      * experimental masses by chance as estimated in the PhosphoRS algorithm.
      *
-     * @param spectrum the spectrum studied
+     * @param nPeaks the number of peaks in the spectrum studied
      * @param w the m/z range considered
      * @param d the m/z tolerance in daltons
      * @param nDecimals the number of decimals to use
@@ -513,11 +594,11 @@ public class PhosphoRS {
      * @return the probability p for a calculated fragment matching one of the
      * experimental masses by chance as estimated in the PhosphoRS algorithm.
      */
-    private static double getp(Spectrum spectrum, double w, double d, int nDecimals) {
+    private static double getp(int nPeaks, double w, double d, int nDecimals) {
         if (w == 0.0) {
             return 1.0;
         }
-        int N = spectrum.getPeakMap().size();
+        int N = nPeaks;
         if (N <= 1) {
             return 1.0;
         }
@@ -529,93 +610,6 @@ public class PhosphoRS {
         return roundedP;
     }
 
-    /**
-     * Returns a map of the different possible peptides for the different
-     * profiles.
-     *
-     * @param peptide the peptide of interest
-     * @param ptms the PTMs to score
-     * @param possibleProfiles the different profiles
-     *
-     * @return a map of the different peptides for the different profiles
-     *
-     * @throws IOException exception thrown whenever an error occurred while
-     * reading a protein sequence
-     * @throws InterruptedException exception thrown whenever an error occurred
-     * while reading a protein sequence
-     * @throws ClassNotFoundException if a ClassNotFoundException occurs
-     * @throws SQLException if an SQLException occurs
-     */
-    private static HashMap<String, Peptide> getPossiblePeptidesMap(Peptide peptide, ArrayList<PTM> ptms, ArrayList<ArrayList<Integer>> possibleProfiles) throws IOException, SQLException, ClassNotFoundException, InterruptedException {
-
-        String representativePTM = ptms.get(0).getName();
-        HashMap<String, Peptide> result = new HashMap<String, Peptide>(possibleProfiles.size());
-        int peptideLength = peptide.getSequence().length();
-        for (ArrayList<Integer> profile : possibleProfiles) {
-            Peptide tempPeptide = Peptide.getNoModPeptide(peptide, ptms);
-            for (int pos : profile) {
-                int index = pos;
-                if (index == 0) {
-                    index = 1;
-                } else if (index == peptideLength + 1) {
-                    index = peptideLength;
-                }
-                tempPeptide.addModificationMatch(new ModificationMatch(representativePTM, true, index));
-            }
-            String profileKey = KeyUtils.getKey(profile);
-            result.put(profileKey, tempPeptide);
-        }
-        return result;
-    }
-
-    /**
-     * Returns a map of the number of possible fragment ions for every peptide
-     * indexed by the corresponding profile.
-     *
-     * @param possiblePeptides map of the possible peptides for every profile
-     * @param possiblePeptideFragments the possible peptide fragments for every
-     * peptide
-     * @param spectrumAnnotator the spectrum annotator
-     * @param scoringAnnotationSetttings the spectrum scoring annotation
-     * settings
-     *
-     * @return a map of the number of possible fragment ions for every peptide
-     */
-    private static HashMap<String, Integer> getPossiblePeptideToN(HashMap<String, Peptide> possiblePeptides, HashMap<String, HashMap<Integer, HashMap<Integer, ArrayList<Ion>>>> possiblePeptideFragments, PeptideSpectrumAnnotator spectrumAnnotator, SpecificAnnotationSettings scoringAnnotationSetttings) {
-        HashMap<String, Integer> result = new HashMap<String, Integer>(possiblePeptides.size());
-        for (String profileKey : possiblePeptides.keySet()) {
-            Peptide peptide = possiblePeptides.get(profileKey);
-            HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> fragmentsForProfile = possiblePeptideFragments.get(profileKey);
-            HashMap<Integer, ArrayList<Ion>> expectedFragmentIons = spectrumAnnotator.getExpectedIons(scoringAnnotationSetttings, peptide, fragmentsForProfile);
-            int n = 0;
-            for (ArrayList<Ion> ions : expectedFragmentIons.values()) {
-                n += ions.size();
-            }
-            result.put(profileKey, n);
-        }
-        return result;
-    }
-
-    /**
-     * Returns a map of the possible ions for every peptide of every profile.
-     *
-     * @param possiblePeptides map of the possible peptides for every profile
-     * @param scoringAnnotationSetttings the spectrum scoring annotation
-     * settings
-     *
-     * @return a map of the possible ions for every peptide of every profile
-     */
-    private static HashMap<String, HashMap<Integer, HashMap<Integer, ArrayList<Ion>>>> getPossiblePeptideFragments(HashMap<String, Peptide> possiblePeptides, SpecificAnnotationSettings scoringAnnotationSetttings) {
-        HashMap<String, HashMap<Integer, HashMap<Integer, ArrayList<Ion>>>> result = new HashMap<String, HashMap<Integer, HashMap<Integer, ArrayList<Ion>>>>(possiblePeptides.size());
-        IonFactory fragmentFactory = IonFactory.getInstance();
-        for (String profileKey : possiblePeptides.keySet()) {
-            Peptide peptide = possiblePeptides.get(profileKey);
-            HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> possibleFragmentIons = fragmentFactory.getFragmentIons(peptide, scoringAnnotationSetttings);
-            result.put(profileKey, possibleFragmentIons);
-        }
-        return result;
-    }
-
     /**
      * Returns the possible modification profiles given the possible sites and
      * number of modifications. Sites are sorted in increasing order.
@@ -655,141 +649,6 @@ public class PhosphoRS {
         return result;
     }
 
-    /**
-     * Returns a map of all potential site determining ions indexed by their
-     * m/z.
-     *
-     * @param noModPeptide the version of the peptide which does not contain the
-     * modification of interest
-     * @param possibleProfiles the possible modification profiles to inspect
-     * @param ptms the PTMs scored
-     * @param spectrumAnnotator the spectrum annotator used throughout the
-     * scoring
-     * @param scoringAnnotationSetttings the annotation settings specific to
-     * this peptide and spectrum
-     *
-     * @return a map of all potential site determining ions indexed by their m/z
-     */
-    private static HashMap<Double, ArrayList<String>> getSiteDeterminingIons(Peptide noModPeptide, ArrayList<ArrayList<Integer>> possibleProfiles, ArrayList<PTM> ptms, PeptideSpectrumAnnotator spectrumAnnotator, SpecificAnnotationSettings scoringAnnotationSetttings) {
-
-        String sequence = noModPeptide.getSequence();
-        Peptide peptide = new Peptide(sequence, noModPeptide.getModificationMatches());
-        int sequenceLength = sequence.length();
-        String representativePTM = ptms.get(0).getName();
-
-        HashMap<Double, ArrayList<String>> siteDeterminingIons = new HashMap<Double, ArrayList<String>>();
-        HashMap<Double, ArrayList<String>> commonIons = new HashMap<Double, ArrayList<String>>();
-
-        for (ArrayList<Integer> modificationProfile : possibleProfiles) {
-
-            for (int pos : modificationProfile) {
-                int position;
-                if (pos == 0) {
-                    position = 1;
-                } else if (pos == sequenceLength + 1) {
-                    position = sequenceLength;
-                } else {
-                    position = pos;
-                }
-                peptide.addModificationMatch(new ModificationMatch(representativePTM, true, position));
-            }
-
-            HashSet<Double> mzs = new HashSet<Double>(2);
-
-            for (ArrayList<Ion> ions : spectrumAnnotator.getExpectedIons(scoringAnnotationSetttings, peptide).values()) {
-                for (Ion ion : ions) {
-                    if (ion.getType() == Ion.IonType.PEPTIDE_FRAGMENT_ION) {
-                        for (int charge : scoringAnnotationSetttings.getSelectedCharges()) {
-                            double mz = ion.getTheoreticMz(charge);
-                            mzs.add(mz);
-                        }
-                    }
-                }
-            }
-
-            String profileKey = KeyUtils.getKey(modificationProfile);
-            for (double mz : mzs) {
-                if (commonIons.isEmpty()) {
-                    ArrayList<String> profiles = new ArrayList<String>(2);
-                    commonIons.put(mz, profiles);
-                    profiles.add(profileKey);
-                } else if (!commonIons.containsKey(mz)) {
-                    ArrayList<String> profiles = siteDeterminingIons.get(mz);
-                    if (profiles == null) {
-                        profiles = new ArrayList<String>(2);
-                        siteDeterminingIons.put(mz, profiles);
-                    }
-                    profiles.add(profileKey);
-                }
-            }
-
-            for (double mz : new HashSet<Double>(commonIons.keySet())) {
-                if (!mzs.contains(mz)) {
-                    siteDeterminingIons.put(mz, commonIons.get(mz));
-                    commonIons.remove(mz);
-                } else {
-                    commonIons.get(mz).add(profileKey);
-                }
-            }
-        }
-
-        return siteDeterminingIons;
-    }
-
-    /**
-     * Returns a list of spectra containing only the most intense ions. The
-     * index of the spectrum in the list corresponds to the increasing number of
-     * peaks, ie the depth, starting with depth 1.
-     *
-     * @param spectrum the spectrum of interest
-     *
-     * @return a list of spectra containing only the most intense ions.
-     */
-    private static ArrayList<MSnSpectrum> getReducedSpectra(MSnSpectrum spectrum) {
-
-        if (spectrum.isEmpty()) {
-            throw new IllegalArgumentException("Attempting to extract peaks from an empty spectrum.");
-        }
-
-        ArrayList<MSnSpectrum> reducedSpectra = new ArrayList<MSnSpectrum>(MAX_DEPTH);
-        HashMap<Double, ArrayList<Peak>> intensityToPeakMap = new HashMap<Double, ArrayList<Peak>>(spectrum.getPeakMap().size());
-
-        for (Peak peak : spectrum.getPeakList()) {
-            double intensity = peak.intensity;
-            ArrayList<Peak> peaks = intensityToPeakMap.get(intensity);
-            if (peaks == null) {
-                peaks = new ArrayList<Peak>();
-                intensityToPeakMap.put(intensity, peaks);
-            }
-            peaks.add(peak);
-        }
-
-        ArrayList<Double> intensities = new ArrayList<Double>(intensityToPeakMap.keySet());
-        Collections.sort(intensities, Collections.reverseOrder());
-        int depth = 0;
-
-        HashMap<Double, Peak> mzToPeak = new HashMap<Double, Peak>(1);
-
-        for (double intensity : intensities) {
-            for (Peak peak : intensityToPeakMap.get(intensity)) {
-                mzToPeak.put(peak.mz, peak);
-                depth++;
-                reducedSpectra.add(new MSnSpectrum(spectrum.getLevel(), spectrum.getPrecursor(), spectrum.getSpectrumTitle() + "_" + depth, mzToPeak, spectrum.getFileName()));
-                if (depth > MAX_DEPTH) {
-                    break;
-                }
-                HashMap<Double, Peak> newMzToPeak = new HashMap<Double, Peak>(depth + 1);
-                newMzToPeak.putAll(mzToPeak);
-                mzToPeak = newMzToPeak;
-            }
-            if (depth > MAX_DEPTH) {
-                break;
-            }
-        }
-
-        return reducedSpectra;
-    }
-
     /**
      * Filters the spectrum so that p is lower or equal to 1 by retaining the
      * most intense peaks in a window of 10 times the ms2 tolerance.
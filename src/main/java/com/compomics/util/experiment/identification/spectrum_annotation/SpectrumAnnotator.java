@@ -14,7 +14,9 @@ import com.compomics.util.experiment.identification.spectrum_annotation.spectrum
 import com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators.TagSpectrumAnnotator;
 import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
 import com.compomics.util.experiment.massspectrometry.Peak;
+import com.compomics.util.experiment.massspectrometry.PeakArray;
 import com.compomics.util.experiment.massspectrometry.Spectrum;
+import com.compomics.util.experiment.massspectrometry.indexes.SortedMzIndex;
 import com.compomics.util.experiment.massspectrometry.indexes.SpectrumIndex;
 import com.compomics.util.gui.interfaces.SpectrumAnnotation;
 import com.compomics.util.gui.spectrum.DefaultSpectrumAnnotation;
@@ -74,6 +76,12 @@ public abstract class SpectrumAnnotator {
      * The theoretic fragment ions.
      */
     protected HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> theoreticalFragmentIons;
+    /**
+     * Indicates whether the theoretic fragment ions are shared with other
+     * annotators via the fragment ion cache, they are then copied before
+     * applying mass shifts.
+     */
+    protected boolean theoreticalFragmentIonsShared = false;
     /**
      * The Fragment factory which will generate the fragment ions.
      */
@@ -170,15 +178,25 @@ public abstract class SpectrumAnnotator {
         double fragmentMz = theoreticIon.getTheoreticMz(inspectedCharge);
 
         // Get the peaks matching the desired m/z
-        ArrayList<Peak> matchedPeaks = spectrumIndex.getMatchingPeaks(fragmentMz);
+        SortedMzIndex mzIndex = spectrumIndex.getMzIndex();
+        int start = mzIndex.getStart(fragmentMz);
+        int end = mzIndex.getEnd(fragmentMz, start);
 
-        if (matchedPeaks.isEmpty()) {
+        if (start == end) {
             return null;
         }
 
         // Select the most accurate or most intense according to the annotation settings
         IonMatch ionMatch = new IonMatch(null, theoreticIon, inspectedCharge);
-        ionMatch.peak = (matchedPeaks.size() == 1) ? matchedPeaks.get(0) : getBestPeak(matchedPeaks, ionMatch);
+        if (end - start == 1) {
+            ionMatch.peak = spectrumIndex.getPeak(start);
+        } else {
+            ArrayList<Peak> matchedPeaks = new ArrayList<Peak>(end - start);
+            for (int i = start; i < end; i++) {
+                matchedPeaks.add(spectrumIndex.getPeak(i));
+            }
+            ionMatch.peak = getBestPeak(matchedPeaks, ionMatch);
+        }
         return ionMatch;
     }
 
@@ -252,7 +270,7 @@ public abstract class SpectrumAnnotator {
 
             // Create new index
             //if (spectrumIndex == null || spectrumIndex.intensityLimit != intensityLimit) { // @TODO: see if this if can/should be readded? results in the accuracy slider not updating the plot though
-                spectrumIndex = new SpectrumIndex(spectrum.getPeakMap(), intensityLimit, mzTolerance, isPpm);
+                spectrumIndex = new SpectrumIndex(spectrum.getPeaks(), intensityLimit, mzTolerance, isPpm);
                 spectrum.addUrParam(spectrumIndex);
             //}
         }
@@ -504,11 +522,47 @@ public abstract class SpectrumAnnotator {
         updateMassShifts();
     }
 
+    /**
+     * Returns a copy of the given fragment ions where the peptide fragment
+     * ions are new objects which can be modified, the other ions are not
+     * copied.
+     *
+     * @param fragmentIons the fragment ions
+     *
+     * @return a copy of the fragment ions
+     */
+    private static HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> copyPeptideFragmentIons(HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> fragmentIons) {
+        HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> result = new HashMap<Integer, HashMap<Integer, ArrayList<Ion>>>(fragmentIons.size());
+        for (Integer ionType : fragmentIons.keySet()) {
+            HashMap<Integer, ArrayList<Ion>> ionsMap = fragmentIons.get(ionType);
+            HashMap<Integer, ArrayList<Ion>> newIonsMap = new HashMap<Integer, ArrayList<Ion>>(ionsMap.size());
+            for (Integer subType : ionsMap.keySet()) {
+                ArrayList<Ion> ions = ionsMap.get(subType);
+                ArrayList<Ion> newIons = new ArrayList<Ion>(ions.size());
+                for (Ion ion : ions) {
+                    if (ionType == IonType.PEPTIDE_FRAGMENT_ION.index) {
+                        PeptideFragmentIon peptideFragmentIon = (PeptideFragmentIon) ion;
+                        newIons.add(new PeptideFragmentIon(subType, peptideFragmentIon.getNumber(), peptideFragmentIon.getTheoreticMass(), peptideFragmentIon.getNeutralLosses()));
+                    } else {
+                        newIons.add(ion);
+                    }
+                }
+                newIonsMap.put(subType, newIons);
+            }
+            result.put(ionType, newIonsMap);
+        }
+        return result;
+    }
+
     /**
      * Updates the mass shifts.
      */
     protected void updateMassShifts() {
         if (theoreticalFragmentIons != null) {
+            if (theoreticalFragmentIonsShared) {
+                theoreticalFragmentIons = copyPeptideFragmentIons(theoreticalFragmentIons);
+                theoreticalFragmentIonsShared = false;
+            }
             HashMap<Integer, ArrayList<Ion>> peptideFragmentIons = theoreticalFragmentIons.get(IonType.PEPTIDE_FRAGMENT_ION.index);
             ArrayList<Ion> ions = peptideFragmentIons.get(PeptideFragmentIon.A_ION);
             if (ions != null) {
@@ -728,13 +782,13 @@ public abstract class SpectrumAnnotator {
     public static ArrayList<IonMatch> matchReporterIon(Ion theoreticIon, int charge, Spectrum spectrum, double massTolerance) throws InterruptedException {
         ArrayList<IonMatch> result = new ArrayList<IonMatch>(1);
         double targetMass = theoreticIon.getTheoreticMz(charge);
-        for (double mz : spectrum.getOrderedMzValues()) {
-            if (Math.abs(mz - targetMass) <= massTolerance) {
-                result.add(new IonMatch(spectrum.getPeakMap().get(mz), theoreticIon, charge));
-            }
+        PeakArray peaks = spectrum.getPeaks();
+        for (int i = peaks.getLowerBound(targetMass - massTolerance); i < peaks.size(); i++) {
+            double mz = peaks.getMz(i);
             if (mz > targetMass + massTolerance) {
                 break;
             }
+            result.add(new IonMatch(new Peak(mz, peaks.getIntensity(i)), theoreticIon, charge));
         }
         return result;
     }
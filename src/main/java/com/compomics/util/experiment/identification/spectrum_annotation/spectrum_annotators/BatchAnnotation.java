@@ -0,0 +1,162 @@
+package com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators;
+
+import com.compomics.util.experiment.biology.Ion;
+import com.compomics.util.experiment.identification.matches.IonMatch;
+import com.compomics.util.experiment.massspectrometry.Peak;
+import java.util.ArrayList;
+
+/**
+ * The annotations of a batch of peptide spectrum matches stored in arrays.
+ * The ion matches of the peptide spectrum match of index i are stored between
+ * the offsets i (inclusive) and i+1 (exclusive).
+ *
+ * @author Marc Vaudel
+ */
+public class BatchAnnotation {
+
+    /**
+     * The index of the first ion match of every peptide spectrum match, the
+     * last value is the total number of ion matches.
+     */
+    private final int[] offsets;
+    /**
+     * The matched ions.
+     */
+    private final Ion[] ions;
+    /**
+     * The charges of the matched ions.
+     */
+    private final int[] charges;
+    /**
+     * The theoretic m/z of the matched ions.
+     */
+    private final double[] theoreticMzs;
+    /**
+     * The matched peaks.
+     */
+    private final Peak[] peaks;
+
+    /**
+     * Constructor.
+     *
+     * @param offsets the index of the first ion match of every peptide
+     * spectrum match followed by the total number of ion matches
+     * @param ions the matched ions
+     * @param charges the charges of the matched ions
+     * @param theoreticMzs the theoretic m/z of the matched ions
+     * @param peaks the matched peaks
+     */
+    public BatchAnnotation(int[] offsets, Ion[] ions, int[] charges, double[] theoreticMzs, Peak[] peaks) {
+        this.offsets = offsets;
+        this.ions = ions;
+        this.charges = charges;
+        this.theoreticMzs = theoreticMzs;
+        this.peaks = peaks;
+    }
+
+    /**
+     * Returns the number of peptide spectrum matches in the batch.
+     *
+     * @return the number of peptide spectrum matches in the batch
+     */
+    public int size() {
+        return offsets.length - 1;
+    }
+
+    /**
+     * Returns the index of the first ion match of the given peptide spectrum
+     * match.
+     *
+     * @param psmIndex the index of the peptide spectrum match in the batch
+     *
+     * @return the index of the first ion match
+     */
+    public int getStart(int psmIndex) {
+        return offsets[psmIndex];
+    }
+
+    /**
+     * Returns the index after the last ion match of the given peptide spectrum
+     * match.
+     *
+     * @param psmIndex the index of the peptide spectrum match in the batch
+     *
+     * @return the index after the last ion match
+     */
+    public int getEnd(int psmIndex) {
+        return offsets[psmIndex + 1];
+    }
+
+    /**
+     * Returns the number of ion matches of the given peptide spectrum match.
+     *
+     * @param psmIndex the index of the peptide spectrum match in the batch
+     *
+     * @return the number of ion matches
+     */
+    public int getNIonMatches(int psmIndex) {
+        return offsets[psmIndex + 1] - offsets[psmIndex];
+    }
+
+    /**
+     * Returns the ion of the given ion match.
+     *
+     * @param matchIndex the index of the ion match
+     *
+     * @return the ion
+     */
+    public Ion getIon(int matchIndex) {
+        return ions[matchIndex];
+    }
+
+    /**
+     * Returns the charge of the given ion match.
+     *
+     * @param matchIndex the index of the ion match
+     *
+     * @return the charge
+     */
+    public int getCharge(int matchIndex) {
+        return charges[matchIndex];
+    }
+
+    /**
+     * Returns the theoretic m/z of the given ion match.
+     *
+     * @param matchIndex the index of the ion match
+     *
+     * @return the theoretic m/z
+     */
+    public double getTheoreticMz(int matchIndex) {
+        return theoreticMzs[matchIndex];
+    }
+
+    /**
+     * Returns the peak of the given ion match.
+     *
+     * @param matchIndex the index of the ion match
+     *
+     * @return the peak
+     */
+    public Peak getPeak(int matchIndex) {
+        return peaks[matchIndex];
+    }
+
+    /**
+     * Returns the ion matches of the given peptide spectrum match as a list of
+     * ion matches like the PeptideSpectrumAnnotator.
+     *
+     * @param psmIndex the index of the peptide spectrum match in the batch
+     *
+     * @return the ion matches
+     */
+    public ArrayList<IonMatch> getIonMatches(int psmIndex) {
+        int start = offsets[psmIndex];
+        int end = offsets[psmIndex + 1];
+        ArrayList<IonMatch> result = new ArrayList<IonMatch>(end - start);
+        for (int i = start; i < end; i++) {
+            result.add(new IonMatch(peaks[i], ions[i], charges[i]));
+        }
+        return result;
+    }
+}
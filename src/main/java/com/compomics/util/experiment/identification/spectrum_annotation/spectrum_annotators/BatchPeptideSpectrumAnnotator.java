@@ -0,0 +1,435 @@
+package com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators;
+
+import com.compomics.util.experiment.biology.Ion;
+import com.compomics.util.experiment.biology.IonFactory;
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.biology.ions.FragmentIonLadder;
+import com.compomics.util.experiment.identification.spectrum_annotation.AnnotationSettings;
+import com.compomics.util.experiment.identification.spectrum_annotation.NeutralLossesMap;
+import com.compomics.util.experiment.identification.spectrum_annotation.SpecificAnnotationSettings;
+import com.compomics.util.experiment.identification.spectrum_annotation.SpectrumAnnotator.TiesResolution;
+import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
+import com.compomics.util.experiment.massspectrometry.Peak;
+import com.compomics.util.experiment.massspectrometry.indexes.SortedMzIndex;
+import com.compomics.util.experiment.massspectrometry.indexes.SpectrumIndex;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.math.MathException;
+
+/**
+ * Annotates batches of peptide spectrum matches in parallel. The annotator
+ * keeps no state between calls and can be used by multiple threads. The
+ * fragment ions are taken from the fragment ion cache of the ion factory and
+ * the spectrum indexes are shared between the matches of the same spectrum.
+ * The matches are annotated like the PeptideSpectrumAnnotator without mass
+ * shifts.
+ *
+ * @author Marc Vaudel
+ */
+public class BatchPeptideSpectrumAnnotator {
+
+    /**
+     * The number of peptide spectrum matches annotated per task.
+     */
+    private static final int BATCH_SIZE = 100;
+    /**
+     * Annotator used only for its stateless validation of charges and neutral
+     * losses.
+     */
+    private final PeptideSpectrumAnnotator validator = new PeptideSpectrumAnnotator();
+
+    /**
+     * Constructor.
+     */
+    public BatchPeptideSpectrumAnnotator() {
+
+    }
+
+    /**
+     * Annotates the given peptide spectrum matches. The lists must have the
+     * same size, the precursor charge is taken from the specific annotation
+     * settings.
+     *
+     * Note that, except for +1 precursors, fragments ions will be expected to
+     * have a charge strictly smaller than the precursor ion charge.
+     *
+     * @param annotationSettings the annotation settings
+     * @param spectra the spectra
+     * @param peptides the peptides
+     * @param specificAnnotationSettings the specific annotation settings of
+     * every match
+     * @param useIntensityFilter boolean indicating whether intensity filters
+     * should be used
+     * @param nThreads the number of threads to use
+     *
+     * @return the annotations of the matches in the order of the lists
+     *
+     * @throws java.lang.InterruptedException exception thrown if a threading
+     * error occurred when estimating the noise level
+     * @throws org.apache.commons.math.MathException exception thrown if a math
+     * exception occurred when estimating the noise level
+     */
+    public BatchAnnotation annotate(final AnnotationSettings annotationSettings, final ArrayList<MSnSpectrum> spectra, final ArrayList<Peptide> peptides,
+            final ArrayList<SpecificAnnotationSettings> specificAnnotationSettings, final boolean useIntensityFilter, int nThreads) throws InterruptedException, MathException {
+
+        final int nPsms = spectra.size();
+        if (peptides.size() != nPsms || specificAnnotationSettings.size() != nPsms) {
+            throw new IllegalArgumentException("The numbers of spectra (" + nPsms + "), peptides (" + peptides.size() + ") and settings (" + specificAnnotationSettings.size() + ") differ.");
+        }
+
+        // One index per spectrum and tolerance
+        final int[] psmIndexes = new int[nPsms];
+        final ArrayList<Integer> indexedPsms = new ArrayList<Integer>();
+        HashMap<String, Integer> indexesMap = new HashMap<String, Integer>();
+        for (int i = 0; i < nPsms; i++) {
+            SpecificAnnotationSettings psmSettings = specificAnnotationSettings.get(i);
+            String indexKey = spectra.get(i).getSpectrumKey() + "_" + psmSettings.getFragmentIonAccuracy() + "_" + psmSettings.isFragmentIonPpm();
+            Integer index = indexesMap.get(indexKey);
+            if (index == null) {
+                index = indexedPsms.size();
+                indexesMap.put(indexKey, index);
+                indexedPsms.add(i);
+            }
+            psmIndexes[i] = index;
+        }
+
+        final SpectrumIndex[] spectrumIndexes = new SpectrumIndex[indexedPsms.size()];
+        final int nChunks = nPsms / BATCH_SIZE + 1;
+        final int[][] chunkOffsets = new int[nChunks][];
+        final Ion[][] chunkIons = new Ion[nChunks][];
+        final int[][] chunkCharges = new int[nChunks][];
+        final double[][] chunkMzs = new double[nChunks][];
+        final Peak[][] chunkPeaks = new Peak[nChunks][];
+
+        nThreads = Math.max(1, Math.min(nThreads, nChunks));
+        ExecutorService pool = nThreads > 1 ? Executors.newFixedThreadPool(nThreads) : null;
+
+        try {
+
+            // Build the spectrum indexes
+            final AtomicInteger nextIndex = new AtomicInteger(0);
+            ArrayList<Callable<Object>> indexTasks = new ArrayList<Callable<Object>>(nThreads);
+            for (int thread = 0; thread < nThreads; thread++) {
+                indexTasks.add(new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        int index;
+                        while ((index = nextIndex.getAndIncrement()) < spectrumIndexes.length) {
+                            int psm = indexedPsms.get(index);
+                            MSnSpectrum spectrum = spectra.get(psm);
+                            SpecificAnnotationSettings psmSettings = specificAnnotationSettings.get(psm);
+                            double intensityLimit = 0.0;
+                            if (useIntensityFilter) {
+                                synchronized (spectrum) {
+                                    intensityLimit = spectrum.getIntensityLimit(annotationSettings.getIntensityThresholdType(), annotationSettings.getAnnotationIntensityLimit());
+                                }
+                            }
+                            spectrumIndexes[index] = new SpectrumIndex(spectrum.getPeaks(), intensityLimit, psmSettings.getFragmentIonAccuracy(), psmSettings.isFragmentIonPpm());
+                        }
+                        return null;
+                    }
+                });
+            }
+            run(indexTasks, pool);
+
+            // Annotate the matches, every thread annotates the next chunk in its own buffer
+            final AtomicInteger nextChunk = new AtomicInteger(0);
+            ArrayList<Callable<Object>> annotationTasks = new ArrayList<Callable<Object>>(nThreads);
+            for (int thread = 0; thread < nThreads; thread++) {
+                annotationTasks.add(new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        AnnotationBuffer buffer = new AnnotationBuffer();
+                        int chunk;
+                        while ((chunk = nextChunk.getAndIncrement()) < nChunks) {
+                            int start = chunk * BATCH_SIZE;
+                            int end = Math.min(start + BATCH_SIZE, nPsms);
+                            int[] offsets = new int[end - start + 1];
+                            buffer.clear();
+                            for (int i = start; i < end; i++) {
+                                offsets[i - start] = buffer.size;
+                                annotate(annotationSettings.getTiesResolution(), peptides.get(i), specificAnnotationSettings.get(i), spectrumIndexes[psmIndexes[i]], buffer);
+                            }
+                            offsets[end - start] = buffer.size;
+                            chunkOffsets[chunk] = offsets;
+                            chunkIons[chunk] = Arrays.copyOf(buffer.ions, buffer.size);
+                            chunkCharges[chunk] = Arrays.copyOf(buffer.charges, buffer.size);
+                            chunkMzs[chunk] = Arrays.copyOf(buffer.theoreticMzs, buffer.size);
+                            chunkPeaks[chunk] = Arrays.copyOf(buffer.peaks, buffer.size);
+                        }
+                        return null;
+                    }
+                });
+            }
+            run(annotationTasks, pool);
+
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+        }
+
+        // Gather the chunks
+        int nMatches = 0;
+        for (int chunk = 0; chunk < nChunks; chunk++) {
+            nMatches += chunkIons[chunk].length;
+        }
+        int[] offsets = new int[nPsms + 1];
+        Ion[] ions = new Ion[nMatches];
+        int[] charges = new int[nMatches];
+        double[] theoreticMzs = new double[nMatches];
+        Peak[] peaks = new Peak[nMatches];
+        int matchOffset = 0;
+        for (int chunk = 0; chunk < nChunks; chunk++) {
+            int[] psmOffsets = chunkOffsets[chunk];
+            int start = chunk * BATCH_SIZE;
+            for (int i = 0; i < psmOffsets.length - 1; i++) {
+                offsets[start + i] = matchOffset + psmOffsets[i];
+            }
+            int chunkSize = chunkIons[chunk].length;
+            System.arraycopy(chunkIons[chunk], 0, ions, matchOffset, chunkSize);
+            System.arraycopy(chunkCharges[chunk], 0, charges, matchOffset, chunkSize);
+            System.arraycopy(chunkMzs[chunk], 0, theoreticMzs, matchOffset, chunkSize);
+            System.arraycopy(chunkPeaks[chunk], 0, peaks, matchOffset, chunkSize);
+            matchOffset += chunkSize;
+        }
+        offsets[nPsms] = nMatches;
+
+        return new BatchAnnotation(offsets, ions, charges, theoreticMzs, peaks);
+    }
+
+    /**
+     * Annotates a peptide spectrum match and adds the ion matches to the
+     * buffer.
+     *
+     * @param tiesResolution the method used to resolve ties
+     * @param peptide the peptide
+     * @param specificAnnotationSettings the specific annotation settings
+     * @param spectrumIndex the index of the spectrum
+     * @param buffer the buffer where to add the ion matches
+     */
+    private void annotate(TiesResolution tiesResolution, Peptide peptide, SpecificAnnotationSettings specificAnnotationSettings, SpectrumIndex spectrumIndex, AnnotationBuffer buffer) {
+
+        int precursorCharge = specificAnnotationSettings.getPrecursorCharge();
+        boolean ppm = specificAnnotationSettings.isFragmentIonPpm();
+        SortedMzIndex mzIndex = spectrumIndex.getMzIndex();
+        NeutralLossesMap neutralLossesMap = specificAnnotationSettings.getNeutralLossesMap();
+        FragmentIonLadder ladder = IonFactory.getInstance().getFragmentIonLadder(peptide, specificAnnotationSettings);
+
+        ArrayList<Integer> precursorCharges = new ArrayList<Integer>(precursorCharge);
+        for (int i = 1; i <= precursorCharge; i++) {
+            precursorCharges.add(i);
+        }
+
+        HashMap<Ion.IonType, HashSet<Integer>> ionTypes = specificAnnotationSettings.getIonTypes();
+        for (Ion.IonType ionType : ionTypes.keySet()) {
+            ArrayList<Integer> ionPossibleCharges = (ionType == Ion.IonType.PRECURSOR_ION) ? precursorCharges : specificAnnotationSettings.getSelectedCharges();
+            for (int subType : ionTypes.get(ionType)) {
+                List<Ion> ions = ladder.getIons(ionType.index, subType);
+                if (ions.isEmpty()) {
+                    continue;
+                }
+                double[][] mzColumns = new double[ionPossibleCharges.size()][];
+                for (int j = 0; j < mzColumns.length; j++) {
+                    mzColumns[j] = ladder.getMz(ionType.index, subType, ionPossibleCharges.get(j));
+                }
+                for (int i = 0; i < ions.size(); i++) {
+                    Ion ion = ions.get(i);
+                    if (validator.lossesValidated(neutralLossesMap, ion)) {
+                        for (int j = 0; j < mzColumns.length; j++) {
+                            int charge = ionPossibleCharges.get(j);
+                            if (validator.chargeValidated(ion, charge, precursorCharge)) {
+                                double fragmentMz = mzColumns[j][i];
+                                int start = mzIndex.getStart(fragmentMz);
+                                int end = mzIndex.getEnd(fragmentMz, start);
+                                if (start < end) {
+                                    Peak peak = (end - start == 1) ? spectrumIndex.getPeak(start) : getBestPeak(spectrumIndex, start, end, fragmentMz, ppm, tiesResolution);
+                                    buffer.add(ion, charge, fragmentMz, peak);
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the peak to retain of the matched peaks according to the ties
+     * resolution setting, see SpectrumAnnotator.getBestPeak.
+     *
+     * @param spectrumIndex the index of the spectrum
+     * @param start the index of the first matched peak
+     * @param end the index after the last matched peak
+     * @param fragmentMz the theoretic m/z of the ion
+     * @param ppm boolean indicating whether the error is in ppm
+     * @param tiesResolution the method used to resolve ties
+     *
+     * @return the peak to retain
+     */
+    private static Peak getBestPeak(SpectrumIndex spectrumIndex, int start, int end, double fragmentMz, boolean ppm, TiesResolution tiesResolution) {
+        Peak bestPeak = null;
+        double bestPeakError = 0.0;
+        switch (tiesResolution) {
+            case mostAccurateMz:
+                for (int i = start; i < end; i++) {
+                    Peak peak = spectrumIndex.getPeak(i);
+                    double peakError = Math.abs(getError(peak, fragmentMz, ppm));
+                    if (bestPeak == null) {
+                        bestPeak = peak;
+                        bestPeakError = peakError;
+                    } else if (peakError < bestPeakError) {
+                        bestPeak = peak;
+                        bestPeakError = peakError;
+                    } else if (peakError == bestPeakError && peak.intensity > bestPeak.intensity) {
+                        bestPeak = peak;
+                    }
+                }
+                return bestPeak;
+            case mostIntense:
+                for (int i = start; i < end; i++) {
+                    Peak peak = spectrumIndex.getPeak(i);
+                    if (bestPeak == null || peak.intensity > bestPeak.intensity) {
+                        bestPeak = peak;
+                    } else if (peak.intensity == bestPeak.intensity) {
+                        if (Math.abs(getError(peak, fragmentMz, ppm)) < Math.abs(getError(bestPeak, fragmentMz, ppm))) {
+                            bestPeak = peak;
+                        }
+                    }
+                }
+                return bestPeak;
+            default:
+                throw new UnsupportedOperationException("Ties resolution method " + tiesResolution + " not implemented.");
+        }
+    }
+
+    /**
+     * Returns the error between a peak and a theoretic m/z like the IonMatch.
+     *
+     * @param peak the peak
+     * @param fragmentMz the theoretic m/z
+     * @param ppm boolean indicating whether the error should be in ppm
+     *
+     * @return the error
+     */
+    private static double getError(Peak peak, double fragmentMz, boolean ppm) {
+        if (ppm) {
+            return ((peak.mz - fragmentMz) * 1000000) / fragmentMz;
+        }
+        return peak.mz - fragmentMz;
+    }
+
+    /**
+     * Runs the given tasks in the pool, or in the current thread if the pool
+     * is null.
+     *
+     * @param tasks the tasks to run
+     * @param pool the pool, can be null
+     *
+     * @throws java.lang.InterruptedException exception thrown if a threading
+     * error occurred when estimating the noise level
+     * @throws org.apache.commons.math.MathException exception thrown if a math
+     * exception occurred when estimating the noise level
+     */
+    private static void run(ArrayList<Callable<Object>> tasks, ExecutorService pool) throws InterruptedException, MathException {
+        try {
+            if (pool == null) {
+                for (Callable<Object> task : tasks) {
+                    task.call();
+                }
+            } else {
+                ArrayList<Future<Object>> futures = new ArrayList<Future<Object>>(tasks.size());
+                for (Callable<Object> task : tasks) {
+                    futures.add(pool.submit(task));
+                }
+                for (Future<Object> future : futures) {
+                    try {
+                        future.get();
+                    } catch (ExecutionException e) {
+                        Throwable cause = e.getCause();
+                        if (cause instanceof Exception) {
+                            throw (Exception) cause;
+                        }
+                        throw new IllegalArgumentException("An error occurred while annotating the spectra.", cause);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (MathException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalArgumentException("An error occurred while annotating the spectra.", e);
+        }
+    }
+
+    /**
+     * Growable buffer of ion matches used by a thread.
+     */
+    private static class AnnotationBuffer {
+
+        /**
+         * The matched ions.
+         */
+        private Ion[] ions = new Ion[256];
+        /**
+         * The charges of the matched ions.
+         */
+        private int[] charges = new int[256];
+        /**
+         * The theoretic m/z of the matched ions.
+         */
+        private double[] theoreticMzs = new double[256];
+        /**
+         * The matched peaks.
+         */
+        private Peak[] peaks = new Peak[256];
+        /**
+         * The number of ion matches in the buffer.
+         */
+        private int size = 0;
+
+        /**
+         * Adds an ion match.
+         *
+         * @param ion the ion
+         * @param charge the charge
+         * @param theoreticMz the theoretic m/z
+         * @param peak the peak
+         */
+        private void add(Ion ion, int charge, double theoreticMz, Peak peak) {
+            if (size == ions.length) {
+                int capacity = 2 * size;
+                ions = Arrays.copyOf(ions, capacity);
+                charges = Arrays.copyOf(charges, capacity);
+                theoreticMzs = Arrays.copyOf(theoreticMzs, capacity);
+                peaks = Arrays.copyOf(peaks, capacity);
+            }
+            ions[size] = ion;
+            charges[size] = charge;
+            theoreticMzs[size] = theoreticMz;
+            peaks[size] = peak;
+            size++;
+        }
+
+        /**
+         * Empties the buffer and releases the references to ions and peaks.
+         */
+        private void clear() {
+            Arrays.fill(ions, 0, size, null);
+            Arrays.fill(peaks, 0, size, null);
+            size = 0;
+        }
+    }
+}
@@ -78,9 +78,11 @@ public class PeptideSpectrumAnnotator extends SpectrumAnnotator {
             this.peptide = peptide;
             this.precursorCharge = precursorCharge;
             if (possibleFragmentIons == null) {
-                theoreticalFragmentIons = fragmentFactory.getFragmentIons(peptide, specificAnnotationSettings);
+                theoreticalFragmentIons = fragmentFactory.getFragmentIonLadder(peptide, specificAnnotationSettings).getFragmentIons();
+                theoreticalFragmentIonsShared = true;
             } else {
                 theoreticalFragmentIons = possibleFragmentIons;
+                theoreticalFragmentIonsShared = false;
             }
             if (massShift != 0 || massShiftNTerm != 0 || massShiftCTerm != 0) {
                 updateMassShifts();
@@ -31,10 +31,10 @@ public class PeptideAssumption extends SpectrumIdentificationAssumption {
      * identification
      * @param score the score, typically a search engine e-value (whether the
      * score is ascending or descending can be known from the SearchEngine
-     * class)
+     * class), null if not set
      * @param identificationFile the identification file
      */
-    public PeptideAssumption(Peptide aPeptide, int rank, int advocate, Charge identificationCharge, double score, String identificationFile) {
+    public PeptideAssumption(Peptide aPeptide, int rank, int advocate, Charge identificationCharge, Double score, String identificationFile) {
         this.peptide = aPeptide;
         super.rank = rank;
         super.advocate = advocate;
@@ -0,0 +1,481 @@
+package com.compomics.util.experiment.io.identifications;
+
+import com.compomics.util.experiment.identification.Identification;
+import com.compomics.util.experiment.identification.identification_parameters.SearchParameters;
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.preferences.SequenceMatchingPreferences;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Imports identification files into an identification. The files are parsed
+ * on a pool of threads, the spectrum matches are merged per spectrum key and
+ * passed by batches to a single thread writing them to the identification.
+ * The number of batches waiting to be written is bounded, when the writer
+ * falls behind the parsing threads wait.
+ *
+ * @author Marc Vaudel
+ */
+public class IdfileImportPipeline {
+
+    /**
+     * The default number of distinct spectrum matches per batch.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 10000;
+    /**
+     * The default number of batches waiting to be written.
+     */
+    public static final int DEFAULT_QUEUE_SIZE = 4;
+    /**
+     * The interval in milliseconds at which the progress is updated and the
+     * cancellation checked.
+     */
+    private static final long PROGRESS_INTERVAL = 100;
+    /**
+     * The identification where to add the spectrum matches.
+     */
+    private final Identification identification;
+    /**
+     * The search parameters.
+     */
+    private final SearchParameters searchParameters;
+    /**
+     * The sequence matching preferences.
+     */
+    private final SequenceMatchingPreferences sequenceMatchingPreferences;
+    /**
+     * Boolean indicating whether peptides with amino acid ambiguities should
+     * be expanded.
+     */
+    private final boolean expandAaCombinations;
+    /**
+     * The number of threads parsing the files.
+     */
+    private final int nThreads;
+    /**
+     * The number of distinct spectrum matches per batch.
+     */
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    /**
+     * The number of batches waiting to be written.
+     */
+    private int queueSize = DEFAULT_QUEUE_SIZE;
+
+    /**
+     * Constructor.
+     *
+     * @param identification the identification where to add the spectrum
+     * matches
+     * @param searchParameters the search parameters
+     * @param sequenceMatchingPreferences the sequence matching preferences
+     * @param expandAaCombinations if true, a peptide assumption will be
+     * created for all possible amino acid combination for peptide sequences
+     * containing an ambiguity like an X
+     * @param nThreads the number of threads parsing the files
+     */
+    public IdfileImportPipeline(Identification identification, SearchParameters searchParameters, SequenceMatchingPreferences sequenceMatchingPreferences,
+            boolean expandAaCombinations, int nThreads) {
+        this.identification = identification;
+        this.searchParameters = searchParameters;
+        this.sequenceMatchingPreferences = sequenceMatchingPreferences;
+        this.expandAaCombinations = expandAaCombinations;
+        this.nThreads = Math.max(nThreads, 1);
+    }
+
+    /**
+     * Sets the number of distinct spectrum matches per batch.
+     *
+     * @param batchSize the number of distinct spectrum matches per batch
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("The batch size must be strictly positive.");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Sets the number of batches waiting to be written.
+     *
+     * @param queueSize the number of batches waiting to be written
+     */
+    public void setQueueSize(int queueSize) {
+        if (queueSize <= 0) {
+            throw new IllegalArgumentException("The queue size must be strictly positive.");
+        }
+        this.queueSize = queueSize;
+    }
+
+    /**
+     * Imports the given identification files. The import stops when the run
+     * is canceled in the waiting handler, the spectrum matches parsed before
+     * the cancellation are written to the identification.
+     *
+     * @param idFiles the identification files to import
+     * @param waitingHandler a waiting handler displaying the progress (can be
+     * null). The secondary progress counts the files imported and the
+     * throughput of every stage is appended to the report.
+     *
+     * @return the throughput statistics of the import
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading a file or writing to the database
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the database
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing a match from the database
+     * @throws InterruptedException exception thrown whenever a threading
+     * error occurred
+     */
+    public IdfileImportStatistics importFiles(Collection<File> idFiles, WaitingHandler waitingHandler)
+            throws IOException, SQLException, ClassNotFoundException, InterruptedException {
+
+        IdfileImportStatistics statistics = new IdfileImportStatistics();
+
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+            waitingHandler.setMaxSecondaryProgressCounter(idFiles.size());
+            waitingHandler.setSecondaryProgressCounter(0);
+        }
+
+        BlockingQueue<ArrayList<SpectrumMatch>> batchQueue = new ArrayBlockingQueue<ArrayList<SpectrumMatch>>(queueSize);
+        ExecutorService writerPool = Executors.newSingleThreadExecutor();
+        ExecutorService parserPool = Executors.newFixedThreadPool(Math.max(Math.min(nThreads, idFiles.size()), 1));
+
+        try {
+            Future<?> writerFuture = writerPool.submit(new Writer(batchQueue, statistics));
+            SpectrumMatchMerger merger = new SpectrumMatchMerger(batchQueue, writerFuture, statistics);
+
+            ArrayList<Future<?>> parserFutures = new ArrayList<Future<?>>(idFiles.size());
+            for (File idFile : idFiles) {
+                parserFutures.add(parserPool.submit(new Parser(idFile, merger, statistics)));
+            }
+
+            try {
+                for (Future<?> future : parserFutures) {
+                    while (true) {
+                        try {
+                            future.get(PROGRESS_INTERVAL, TimeUnit.MILLISECONDS);
+                            break;
+                        } catch (TimeoutException e) {
+                            if (writerFuture.isDone()) {
+                                writerFuture.get();
+                                throw new IllegalStateException("The spectrum matches writer stopped unexpectedly.");
+                            }
+                            if (waitingHandler != null) {
+                                waitingHandler.setSecondaryProgressCounter((int) statistics.getnFiles());
+                                if (waitingHandler.isRunCanceled()) {
+                                    cancel(parserPool, merger, writerFuture);
+                                    return statistics;
+                                }
+                            }
+                        }
+                    }
+                }
+                statistics.getParsing().setFinished();
+
+                merger.flush(true);
+                statistics.getMerging().setFinished();
+
+                merger.submit(new ArrayList<SpectrumMatch>(0));
+                writerFuture.get();
+                statistics.getWriting().setFinished();
+
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                } else if (cause instanceof SQLException) {
+                    throw (SQLException) cause;
+                } else if (cause instanceof ClassNotFoundException) {
+                    throw (ClassNotFoundException) cause;
+                } else if (cause instanceof InterruptedException) {
+                    throw (InterruptedException) cause;
+                } else if (cause instanceof IllegalArgumentException) {
+                    throw (IllegalArgumentException) cause;
+                }
+                throw new IllegalArgumentException("An error occurred while importing the identification files.", cause);
+            }
+        } finally {
+            parserPool.shutdownNow();
+            writerPool.shutdownNow();
+        }
+
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounter((int) statistics.getnFiles());
+            waitingHandler.appendReport(statistics.getParsing().toString() + ".", true, true);
+            waitingHandler.appendReport(statistics.getMerging().toString() + ".", true, true);
+            waitingHandler.appendReport(statistics.getWriting().toString() + ".", true, true);
+        }
+
+        return statistics;
+    }
+
+    /**
+     * Stops the parsing and writes the spectrum matches already parsed.
+     *
+     * @param parserPool the pool of the parsing threads
+     * @param merger the spectrum match merger
+     * @param writerFuture the future of the writer
+     *
+     * @throws InterruptedException exception thrown if the thread is
+     * interrupted while waiting for the parsers or the writer
+     * @throws ExecutionException exception thrown if the writer failed
+     */
+    private void cancel(ExecutorService parserPool, SpectrumMatchMerger merger, Future<?> writerFuture) throws InterruptedException, ExecutionException {
+
+        // the parsers stop at the next match, they are not interrupted to avoid losing a batch being submitted
+        merger.cancel();
+        parserPool.shutdown();
+        while (!parserPool.awaitTermination(PROGRESS_INTERVAL, TimeUnit.MILLISECONDS)) {
+            if (writerFuture.isDone()) {
+                writerFuture.get();
+                throw new IllegalStateException("The spectrum matches writer stopped unexpectedly.");
+            }
+        }
+
+        merger.flush(true);
+        merger.submit(new ArrayList<SpectrumMatch>(0));
+        writerFuture.get();
+    }
+
+    /**
+     * Merges the spectrum matches parsed by the different threads and passes
+     * them by batches to the writer. Matches of the same spectrum found in
+     * the same batch are merged, matches of a spectrum spanning several
+     * batches are merged by the identification.
+     */
+    private class SpectrumMatchMerger implements SpectrumMatchListener {
+
+        /**
+         * The queue of the batches to write.
+         */
+        private final BlockingQueue<ArrayList<SpectrumMatch>> batchQueue;
+        /**
+         * The future of the writer.
+         */
+        private final Future<?> writerFuture;
+        /**
+         * The throughput statistics.
+         */
+        private final IdfileImportStatistics statistics;
+        /**
+         * The spectrum matches of the current batch indexed by key.
+         */
+        private ConcurrentHashMap<String, SpectrumMatch> currentBatch;
+        /**
+         * Lock shared by the threads merging matches and exclusive for the
+         * thread closing the batch.
+         */
+        private final ReentrantReadWriteLock batchLock = new ReentrantReadWriteLock();
+        /**
+         * Boolean indicating whether the import was canceled.
+         */
+        private volatile boolean canceled = false;
+
+        /**
+         * Constructor.
+         *
+         * @param batchQueue the queue of the batches to write
+         * @param writerFuture the future of the writer
+         * @param statistics the throughput statistics
+         */
+        public SpectrumMatchMerger(BlockingQueue<ArrayList<SpectrumMatch>> batchQueue, Future<?> writerFuture, IdfileImportStatistics statistics) {
+            this.batchQueue = batchQueue;
+            this.writerFuture = writerFuture;
+            this.statistics = statistics;
+            this.currentBatch = new ConcurrentHashMap<String, SpectrumMatch>(2 * batchSize, 0.75f, nThreads);
+        }
+
+        /**
+         * Cancels the import, the matches parsed afterwards are rejected and
+         * stop the parsers.
+         */
+        public void cancel() {
+            canceled = true;
+        }
+
+        @Override
+        public void spectrumMatchParsed(SpectrumMatch spectrumMatch) throws InterruptedException {
+
+            if (canceled) {
+                throw new InterruptedException("Import canceled.");
+            }
+
+            statistics.getParsing().addItems(1);
+
+            int size;
+            batchLock.readLock().lock();
+            try {
+                SpectrumMatch previousMatch = currentBatch.putIfAbsent(spectrumMatch.getKey(), spectrumMatch);
+                if (previousMatch != null) {
+                    synchronized (previousMatch) {
+                        SpectrumMatchCollector.addHits(previousMatch, spectrumMatch);
+                    }
+                }
+                size = currentBatch.size();
+            } finally {
+                batchLock.readLock().unlock();
+            }
+
+            if (size >= batchSize) {
+                flush(false);
+            }
+        }
+
+        /**
+         * Passes the current batch to the writer.
+         *
+         * @param force if false, the batch is only passed if it is full
+         *
+         * @throws InterruptedException exception thrown if the thread is
+         * interrupted while waiting for the writer
+         */
+        public void flush(boolean force) throws InterruptedException {
+
+            ArrayList<SpectrumMatch> batch = null;
+            batchLock.writeLock().lock();
+            try {
+                if (force && !currentBatch.isEmpty() || currentBatch.size() >= batchSize) {
+                    batch = new ArrayList<SpectrumMatch>(currentBatch.values());
+                    currentBatch = new ConcurrentHashMap<String, SpectrumMatch>(2 * batchSize, 0.75f, nThreads);
+                }
+            } finally {
+                batchLock.writeLock().unlock();
+            }
+
+            if (batch != null) {
+                statistics.getMerging().addItems(batch.size());
+                submit(batch);
+            }
+        }
+
+        /**
+         * Puts a batch in the writing queue, waits if the queue is full. An
+         * empty batch stops the writer.
+         *
+         * @param batch the batch to write
+         *
+         * @throws InterruptedException exception thrown if the thread is
+         * interrupted while waiting for the writer
+         */
+        public void submit(ArrayList<SpectrumMatch> batch) throws InterruptedException {
+            while (!batchQueue.offer(batch, PROGRESS_INTERVAL, TimeUnit.MILLISECONDS)) {
+                if (writerFuture.isDone()) {
+                    throw new IllegalStateException("The spectrum matches writer stopped unexpectedly.");
+                }
+            }
+        }
+    }
+
+    /**
+     * Callable parsing an identification file.
+     */
+    private class Parser implements Callable<Object> {
+
+        /**
+         * The identification file.
+         */
+        private final File idFile;
+        /**
+         * The listener receiving the spectrum matches.
+         */
+        private final SpectrumMatchListener spectrumMatchListener;
+        /**
+         * The throughput statistics.
+         */
+        private final IdfileImportStatistics statistics;
+
+        /**
+         * Constructor.
+         *
+         * @param idFile the identification file
+         * @param spectrumMatchListener the listener receiving the spectrum
+         * matches
+         * @param statistics the throughput statistics
+         */
+        public Parser(File idFile, SpectrumMatchListener spectrumMatchListener, IdfileImportStatistics statistics) {
+            this.idFile = idFile;
+            this.spectrumMatchListener = spectrumMatchListener;
+            this.statistics = statistics;
+        }
+
+        @Override
+        public Object call() throws Exception {
+            IdfileReader idfileReader = IdfileReaderFactory.getInstance().getFileReader(idFile);
+            if (idfileReader == null) {
+                throw new IllegalArgumentException("Identification file format of " + idFile.getName() + " not supported.");
+            }
+            try {
+                if (idfileReader instanceof StreamingIdfileReader) {
+                    ((StreamingIdfileReader) idfileReader).streamSpectrumMatches(null, searchParameters, sequenceMatchingPreferences, expandAaCombinations, spectrumMatchListener);
+                } else {
+                    for (SpectrumMatch spectrumMatch : idfileReader.getAllSpectrumMatches(null, searchParameters, sequenceMatchingPreferences, expandAaCombinations)) {
+                        spectrumMatchListener.spectrumMatchParsed(spectrumMatch);
+                    }
+                }
+            } finally {
+                idfileReader.close();
+            }
+            statistics.addFile();
+            return null;
+        }
+    }
+
+    /**
+     * Callable writing the batches of spectrum matches to the identification
+     * until an empty batch is found.
+     */
+    private class Writer implements Callable<Object> {
+
+        /**
+         * The queue of the batches to write.
+         */
+        private final BlockingQueue<ArrayList<SpectrumMatch>> batchQueue;
+        /**
+         * The throughput statistics.
+         */
+        private final IdfileImportStatistics statistics;
+
+        /**
+         * Constructor.
+         *
+         * @param batchQueue the queue of the batches to write
+         * @param statistics the throughput statistics
+         */
+        public Writer(BlockingQueue<ArrayList<SpectrumMatch>> batchQueue, IdfileImportStatistics statistics) {
+            this.batchQueue = batchQueue;
+            this.statistics = statistics;
+        }
+
+        @Override
+        public Object call() throws Exception {
+            while (true) {
+                ArrayList<SpectrumMatch> batch = batchQueue.take();
+                if (batch.isEmpty()) {
+                    return null;
+                }
+                for (SpectrumMatch spectrumMatch : batch) {
+                    identification.addSpectrumMatch(spectrumMatch);
+                    statistics.getWriting().addItems(1);
+                }
+                statistics.addBatch();
+            }
+        }
+    }
+}
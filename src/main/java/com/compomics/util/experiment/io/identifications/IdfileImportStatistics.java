@@ -0,0 +1,191 @@
+package com.compomics.util.experiment.io.identifications;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput counters of the stages of an identification files import.
+ *
+ * @author Marc Vaudel
+ */
+public class IdfileImportStatistics {
+
+    /**
+     * The parsing of the identification files, counted in spectrum matches
+     * parsed.
+     */
+    private final Stage parsing = new Stage("Parsing");
+    /**
+     * The merging of the spectrum matches, counted in distinct spectrum
+     * matches passed to the writer.
+     */
+    private final Stage merging = new Stage("Merging");
+    /**
+     * The writing of the spectrum matches to the identification, counted in
+     * spectrum matches written.
+     */
+    private final Stage writing = new Stage("Writing");
+    /**
+     * The number of files imported.
+     */
+    private final AtomicLong nFiles = new AtomicLong();
+    /**
+     * The number of batches written.
+     */
+    private final AtomicLong nBatches = new AtomicLong();
+
+    /**
+     * Registers the import of a file.
+     */
+    public void addFile() {
+        nFiles.incrementAndGet();
+    }
+
+    /**
+     * Registers the writing of a batch.
+     */
+    public void addBatch() {
+        nBatches.incrementAndGet();
+    }
+
+    /**
+     * Returns the number of files imported.
+     *
+     * @return the number of files imported
+     */
+    public long getnFiles() {
+        return nFiles.get();
+    }
+
+    /**
+     * Returns the number of batches written.
+     *
+     * @return the number of batches written
+     */
+    public long getnBatches() {
+        return nBatches.get();
+    }
+
+    /**
+     * Returns the parsing stage.
+     *
+     * @return the parsing stage
+     */
+    public Stage getParsing() {
+        return parsing;
+    }
+
+    /**
+     * Returns the merging stage.
+     *
+     * @return the merging stage
+     */
+    public Stage getMerging() {
+        return merging;
+    }
+
+    /**
+     * Returns the writing stage.
+     *
+     * @return the writing stage
+     */
+    public Stage getWriting() {
+        return writing;
+    }
+
+    @Override
+    public String toString() {
+        return nFiles.get() + " files imported in " + nBatches.get() + " batches. " + parsing + ". " + merging + ". " + writing + ".";
+    }
+
+    /**
+     * Counter of the items processed by a stage.
+     */
+    public static class Stage {
+
+        /**
+         * The name of the stage.
+         */
+        private final String name;
+        /**
+         * The number of items processed.
+         */
+        private final AtomicLong nItems = new AtomicLong();
+        /**
+         * The start time in nanoseconds.
+         */
+        private final long startTime = System.nanoTime();
+        /**
+         * The end time in nanoseconds, -1 while running.
+         */
+        private volatile long endTime = -1;
+
+        /**
+         * Constructor.
+         *
+         * @param name the name of the stage
+         */
+        public Stage(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Adds processed items.
+         *
+         * @param n the number of items
+         */
+        public void addItems(long n) {
+            nItems.addAndGet(n);
+        }
+
+        /**
+         * Sets the end of the stage.
+         */
+        public void setFinished() {
+            endTime = System.nanoTime();
+        }
+
+        /**
+         * Returns the name of the stage.
+         *
+         * @return the name of the stage
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the number of items processed so far.
+         *
+         * @return the number of items processed so far
+         */
+        public long getnItems() {
+            return nItems.get();
+        }
+
+        /**
+         * Returns the time elapsed since the start of the import, until the
+         * end of the stage if finished.
+         *
+         * @return the elapsed time in seconds
+         */
+        public double getElapsedTime() {
+            long end = endTime == -1 ? System.nanoTime() : endTime;
+            return (end - startTime) / 1e9;
+        }
+
+        /**
+         * Returns the number of items processed per second.
+         *
+         * @return the number of items processed per second
+         */
+        public double getThroughput() {
+            double elapsedTime = getElapsedTime();
+            return elapsedTime > 0 ? nItems.get() / elapsedTime : 0;
+        }
+
+        @Override
+        public String toString() {
+            return name + ": " + getnItems() + " spectrum matches in " + getElapsedTime() + " seconds (" + ((long) getThroughput()) + " matches/s)";
+        }
+    }
+}
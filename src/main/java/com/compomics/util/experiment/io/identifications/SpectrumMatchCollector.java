@@ -0,0 +1,71 @@
+package com.compomics.util.experiment.io.identifications;
+
+import com.compomics.util.experiment.identification.SpectrumIdentificationAssumption;
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+
+/**
+ * Spectrum match listener collecting the spectrum matches in a list. Matches
+ * passed several times for the same spectrum are merged.
+ *
+ * @author Marc Vaudel
+ */
+public class SpectrumMatchCollector implements SpectrumMatchListener {
+
+    /**
+     * The spectrum matches in the order of parsing.
+     */
+    private final LinkedList<SpectrumMatch> spectrumMatches = new LinkedList<SpectrumMatch>();
+    /**
+     * The spectrum matches indexed by spectrum key.
+     */
+    private final HashMap<String, SpectrumMatch> spectrumMatchesMap = new HashMap<String, SpectrumMatch>();
+
+    /**
+     * Constructor.
+     */
+    public SpectrumMatchCollector() {
+    }
+
+    @Override
+    public void spectrumMatchParsed(SpectrumMatch spectrumMatch) {
+        SpectrumMatch previousMatch = spectrumMatchesMap.get(spectrumMatch.getKey());
+        if (previousMatch == null) {
+            spectrumMatchesMap.put(spectrumMatch.getKey(), spectrumMatch);
+            spectrumMatches.add(spectrumMatch);
+        } else {
+            addHits(previousMatch, spectrumMatch);
+        }
+    }
+
+    /**
+     * Adds the hits of a spectrum match to another match of the same
+     * spectrum.
+     *
+     * @param previousMatch the match receiving the hits
+     * @param spectrumMatch the match providing the hits
+     */
+    static void addHits(SpectrumMatch previousMatch, SpectrumMatch spectrumMatch) {
+        HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptionsMap = spectrumMatch.getAssumptionsMap();
+        if (assumptionsMap != null) {
+            for (Integer advocateId : assumptionsMap.keySet()) {
+                for (ArrayList<SpectrumIdentificationAssumption> assumptions : assumptionsMap.get(advocateId).values()) {
+                    for (SpectrumIdentificationAssumption assumption : assumptions) {
+                        previousMatch.addHit(advocateId, assumption, false);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the spectrum matches in the order of parsing.
+     *
+     * @return the spectrum matches
+     */
+    public LinkedList<SpectrumMatch> getSpectrumMatches() {
+        return spectrumMatches;
+    }
+}
@@ -0,0 +1,31 @@
+package com.compomics.util.experiment.io.identifications;
+
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import java.io.IOException;
+import java.sql.SQLException;
+
+/**
+ * Listener receiving the spectrum matches of an identification file as they
+ * are parsed. The parsing waits for the listener to return, a slow consumer
+ * therefore slows down the parsing instead of matches accumulating in
+ * memory. If the hits of a spectrum are not contiguous in the file, the
+ * spectrum can be passed in several matches with the same key. These are
+ * merged when added to an Identification.
+ *
+ * @author Marc Vaudel
+ */
+public interface SpectrumMatchListener {
+
+    /**
+     * Called when a spectrum match has been parsed. The match is complete, it
+     * will not be modified by the reader afterwards.
+     *
+     * @param spectrumMatch the spectrum match
+     *
+     * @throws IOException if an IOException occurs
+     * @throws SQLException if an SQLException occurs
+     * @throws ClassNotFoundException if a ClassNotFoundException occurs
+     * @throws InterruptedException if an InterruptedException occurs
+     */
+    public void spectrumMatchParsed(SpectrumMatch spectrumMatch) throws IOException, SQLException, ClassNotFoundException, InterruptedException;
+}
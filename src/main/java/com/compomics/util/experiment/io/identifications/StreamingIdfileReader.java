@@ -0,0 +1,48 @@
+package com.compomics.util.experiment.io.identifications;
+
+import com.compomics.util.experiment.identification.identification_parameters.SearchParameters;
+import com.compomics.util.preferences.SequenceMatchingPreferences;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.IOException;
+import java.sql.SQLException;
+import javax.xml.bind.JAXBException;
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * Interface for the parsers of identification files which can pass the
+ * spectrum matches to a listener while parsing the file.
+ *
+ * @author Marc Vaudel
+ */
+public interface StreamingIdfileReader extends IdfileReader {
+
+    /**
+     * Parses the identifications from an identification file and passes the
+     * spectrum matches to the given listener as soon as they are complete.
+     * Contrary to getAllSpectrumMatches, the matches are not kept in memory
+     * by the reader unless the format requires the whole file to be parsed
+     * to complete a match. It is very important to close the file reader
+     * after creation.
+     *
+     * @param waitingHandler a waiting handler displaying the progress (can be
+     * null). The secondary progress methods will be called.
+     * @param searchParameters the search parameters
+     * @param sequenceMatchingPreferences the sequence matching preferences to
+     * use for the creation of the secondary maps
+     * @param expandAaCombinations if true, a peptide assumption (not
+     * implemented for tag assumptions) will be created for all possible amino
+     * acid combination for peptide sequences containing an ambiguity like an X
+     * @param spectrumMatchListener the listener receiving the spectrum matches
+     *
+     * @throws IOException if an IOException occurs
+     * @throws IllegalArgumentException if an IllegalArgumentException occurs
+     * @throws SQLException if an SQLException occurs
+     * @throws ClassNotFoundException if a ClassNotFoundException occurs
+     * @throws InterruptedException if an InterruptedException occurs
+     * @throws JAXBException if a JAXBException occurs
+     * @throws XmlPullParserException if an XmlPullParserException occurs
+     */
+    public void streamSpectrumMatches(WaitingHandler waitingHandler, SearchParameters searchParameters, SequenceMatchingPreferences sequenceMatchingPreferences, boolean expandAaCombinations,
+            SpectrumMatchListener spectrumMatchListener)
+            throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException, JAXBException, XmlPullParserException;
+}
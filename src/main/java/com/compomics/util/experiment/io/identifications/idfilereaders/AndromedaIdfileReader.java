@@ -8,7 +8,9 @@ import com.compomics.util.experiment.identification.spectrum_assumptions.Peptide
 import com.compomics.util.experiment.identification.identification_parameters.SearchParameters;
 import com.compomics.util.experiment.identification.matches.ModificationMatch;
 import com.compomics.util.experiment.identification.matches.SpectrumMatch;
-import com.compomics.util.experiment.io.identifications.IdfileReader;
+import com.compomics.util.experiment.io.identifications.SpectrumMatchCollector;
+import com.compomics.util.experiment.io.identifications.SpectrumMatchListener;
+import com.compomics.util.experiment.io.identifications.StreamingIdfileReader;
 import com.compomics.util.experiment.massspectrometry.Charge;
 import com.compomics.util.experiment.massspectrometry.Spectrum;
 import com.compomics.util.experiment.personalization.ExperimentObject;
@@ -31,7 +33,7 @@ import uk.ac.ebi.pride.tools.braf.BufferedRandomAccessFile;
  *
  * @author Marc Vaudel
  */
-public class AndromedaIdfileReader extends ExperimentObject implements IdfileReader {
+public class AndromedaIdfileReader extends ExperimentObject implements StreamingIdfileReader {
 
     /**
      * The Andromeda result file to parse.
@@ -75,11 +77,18 @@ public class AndromedaIdfileReader extends ExperimentObject implements IdfileRea
     public LinkedList<SpectrumMatch> getAllSpectrumMatches(WaitingHandler waitingHandler, SearchParameters searchParameters,
             SequenceMatchingPreferences sequenceMatchingPreferences, boolean expandAaCombinations)
             throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException, JAXBException {
+        SpectrumMatchCollector spectrumMatchCollector = new SpectrumMatchCollector();
+        streamSpectrumMatches(waitingHandler, searchParameters, sequenceMatchingPreferences, expandAaCombinations, spectrumMatchCollector);
+        return spectrumMatchCollector.getSpectrumMatches();
+    }
+
+    @Override
+    public void streamSpectrumMatches(WaitingHandler waitingHandler, SearchParameters searchParameters,
+            SequenceMatchingPreferences sequenceMatchingPreferences, boolean expandAaCombinations, SpectrumMatchListener spectrumMatchListener)
+            throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException, JAXBException {
 
         String mgfFile = Util.removeExtension(fileName) + ".mgf"; //@TODO: make this generic?
 
-        LinkedList<SpectrumMatch> result = new LinkedList<SpectrumMatch>();
-        HashMap<String, SpectrumMatch> spectrumMatchesMap = new HashMap<String, SpectrumMatch>();
         BufferedRandomAccessFile bufferedRandomAccessFile = new BufferedRandomAccessFile(resultsFile, "r", 1024 * 100);
         if (waitingHandler != null) {
             waitingHandler.setMaxSecondaryProgressCounter(100);
@@ -88,7 +97,7 @@ public class AndromedaIdfileReader extends ExperimentObject implements IdfileRea
         String line, title = null;
         SpectrumMatch spectrumMatch = null;
         int rank = 0;
-        boolean firstSpectrum = false;
+        boolean firstSpectrum = false, newBlock = false;
         while ((line = bufferedRandomAccessFile.readLine()) != null) {
             if (line.startsWith(">")) {
                 if (!firstSpectrum) {
@@ -97,20 +106,21 @@ public class AndromedaIdfileReader extends ExperimentObject implements IdfileRea
                 title = line.substring(1);
                 // remove any html from the title
                 title = URLDecoder.decode(title, "utf-8");
-                spectrumMatch = null;
+                if (spectrumMatch != null && !spectrumMatch.getKey().equals(Spectrum.getSpectrumKey(mgfFile, title))) {
+                    spectrumMatchListener.spectrumMatchParsed(spectrumMatch);
+                    spectrumMatch = null;
+                }
+                newBlock = true;
                 long currentIndex = bufferedRandomAccessFile.getFilePointer();
                 if (waitingHandler != null) {
                     waitingHandler.setSecondaryProgressCounter((int) (currentIndex / progressUnit));
                 }
             } else if (firstSpectrum) {
-                if (spectrumMatch == null) {
-                    String spectrumKey = Spectrum.getSpectrumKey(mgfFile, title);
-                    spectrumMatch = spectrumMatchesMap.get(spectrumKey);
+                if (newBlock) {
                     rank = 0; // the rank is here per charge
+                    newBlock = false;
                     if (spectrumMatch == null) {
                         spectrumMatch = new SpectrumMatch(Spectrum.getSpectrumKey(mgfFile, title));
-                        result.add(spectrumMatch);
-                        spectrumMatchesMap.put(spectrumKey, spectrumMatch);
                     }
                 }
                 rank++;
@@ -138,7 +148,9 @@ public class AndromedaIdfileReader extends ExperimentObject implements IdfileRea
             }
         }
 
-        return result;
+        if (spectrumMatch != null) {
+            spectrumMatchListener.spectrumMatchParsed(spectrumMatch);
+        }
     }
 
     /**
@@ -13,7 +13,9 @@ import com.compomics.util.experiment.identification.amino_acid_tags.Tag;
 import com.compomics.util.experiment.identification.identification_parameters.tool_specific.DirecTagParameters;
 import com.compomics.util.experiment.identification.protein_inference.PeptideMapperType;
 import com.compomics.util.experiment.identification.protein_inference.proteintree.ProteinTree;
-import com.compomics.util.experiment.io.identifications.IdfileReader;
+import com.compomics.util.experiment.io.identifications.SpectrumMatchCollector;
+import com.compomics.util.experiment.io.identifications.SpectrumMatchListener;
+import com.compomics.util.experiment.io.identifications.StreamingIdfileReader;
 import com.compomics.util.experiment.massspectrometry.Charge;
 import com.compomics.util.experiment.massspectrometry.Spectrum;
 import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
@@ -38,7 +40,7 @@ import uk.ac.ebi.pride.tools.braf.BufferedRandomAccessFile;
  *
  * @author Marc Vaudel
  */
-public class DirecTagIdfileReader extends ExperimentObject implements IdfileReader {
+public class DirecTagIdfileReader extends ExperimentObject implements StreamingIdfileReader {
 
     /**
      * The name of the tags generator used to create the file.
@@ -454,6 +456,15 @@ public class DirecTagIdfileReader extends ExperimentObject implements IdfileRead
     public LinkedList<SpectrumMatch> getAllSpectrumMatches(WaitingHandler waitingHandler, SearchParameters searchParameters,
             SequenceMatchingPreferences sequenceMatchingPreferences, boolean expandAaCombinations)
             throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException, JAXBException {
+        SpectrumMatchCollector spectrumMatchCollector = new SpectrumMatchCollector();
+        streamSpectrumMatches(waitingHandler, searchParameters, sequenceMatchingPreferences, expandAaCombinations, spectrumMatchCollector);
+        return spectrumMatchCollector.getSpectrumMatches();
+    }
+
+    @Override
+    public void streamSpectrumMatches(WaitingHandler waitingHandler, SearchParameters searchParameters,
+            SequenceMatchingPreferences sequenceMatchingPreferences, boolean expandAaCombinations, SpectrumMatchListener spectrumMatchListener)
+            throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException, JAXBException {
 
         direcTagParameters = (DirecTagParameters) searchParameters.getAlgorithmSpecificParameters().get(Advocate.direcTag.getIndex());
 
@@ -484,7 +495,6 @@ public class DirecTagIdfileReader extends ExperimentObject implements IdfileRead
             waitingHandler.setSecondaryProgressCounter(0);
         }
 
-        LinkedList<SpectrumMatch> result = new LinkedList<SpectrumMatch>();
         int sCpt = 0;
         Integer sIdColumnIndex = spectrumLineContent.get("ID");
         Integer chargeColumnIndex = spectrumLineContent.get("Charge");
@@ -510,8 +520,7 @@ public class DirecTagIdfileReader extends ExperimentObject implements IdfileRead
                     }
                     if (!sId.equals(lastId)) {
                         if (currentMatch != null && currentMatch.hasAssumption()) {
-
-                            result.add(currentMatch);
+                            spectrumMatchListener.spectrumMatchParsed(currentMatch);
                         }
                         int utilitiesId = sId + 1; // first spectrum is 1 in utilities
                         String spectrumTitle = utilitiesId + "";
@@ -535,13 +544,11 @@ public class DirecTagIdfileReader extends ExperimentObject implements IdfileRead
             }
 
             if (currentMatch != null && currentMatch.hasAssumption()) {
-
-                result.add(currentMatch);
+                spectrumMatchListener.spectrumMatchParsed(currentMatch);
             }
         } finally {
             reader.close();
         }
-        return result;
     }
 
     /**
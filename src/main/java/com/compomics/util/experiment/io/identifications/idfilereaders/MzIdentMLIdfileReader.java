@@ -8,7 +8,9 @@ import com.compomics.util.experiment.identification.spectrum_assumptions.Peptide
 import com.compomics.util.experiment.identification.identification_parameters.SearchParameters;
 import com.compomics.util.experiment.identification.matches.ModificationMatch;
 import com.compomics.util.experiment.identification.matches.SpectrumMatch;
-import com.compomics.util.experiment.io.identifications.IdfileReader;
+import com.compomics.util.experiment.io.identifications.SpectrumMatchCollector;
+import com.compomics.util.experiment.io.identifications.SpectrumMatchListener;
+import com.compomics.util.experiment.io.identifications.StreamingIdfileReader;
 import com.compomics.util.experiment.massspectrometry.Charge;
 import com.compomics.util.experiment.massspectrometry.Spectrum;
 import com.compomics.util.experiment.personalization.ExperimentObject;
@@ -51,7 +53,7 @@ import uk.ac.ebi.jmzidml.xml.io.MzIdentMLUnmarshaller;
  * @author Harald Barsnes
  * @author Marc Vaudel
  */
-public class MzIdentMLIdfileReader extends ExperimentObject implements IdfileReader {
+public class MzIdentMLIdfileReader extends ExperimentObject implements StreamingIdfileReader {
 
     /**
      * Enum for the raw value to e-value conversion.
@@ -219,12 +221,19 @@ public class MzIdentMLIdfileReader extends ExperimentObject implements IdfileRea
     public LinkedList<SpectrumMatch> getAllSpectrumMatches(WaitingHandler waitingHandler, SearchParameters searchParameters,
             SequenceMatchingPreferences sequenceMatchingPreferences, boolean expandAaCombinations)
             throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException, JAXBException {
+        SpectrumMatchCollector spectrumMatchCollector = new SpectrumMatchCollector();
+        streamSpectrumMatches(waitingHandler, searchParameters, sequenceMatchingPreferences, expandAaCombinations, spectrumMatchCollector);
+        return spectrumMatchCollector.getSpectrumMatches();
+    }
+
+    @Override
+    public void streamSpectrumMatches(WaitingHandler waitingHandler, SearchParameters searchParameters,
+            SequenceMatchingPreferences sequenceMatchingPreferences, boolean expandAaCombinations, SpectrumMatchListener spectrumMatchListener)
+            throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException, JAXBException {
 
         this.sequenceMatchingPreferences = sequenceMatchingPreferences;
         this.expandAaCombinations = expandAaCombinations;
 
-        LinkedList<SpectrumMatch> result = new LinkedList<SpectrumMatch>();
-
         if (useCustomParser) {
 
             // set the waiting handler max value
@@ -248,7 +257,7 @@ public class MzIdentMLIdfileReader extends ExperimentObject implements IdfileRea
                 waitingHandler.setMaxSecondaryProgressCounter(lineCounter);
             }
 
-            return parseFile(waitingHandler);
+            parseFile(waitingHandler, spectrumMatchListener);
         } else {
 
             DataCollection dataCollection = unmarshaller.unmarshal(DataCollection.class);
@@ -453,7 +462,7 @@ public class MzIdentMLIdfileReader extends ExperimentObject implements IdfileRea
                         waitingHandler.increaseSecondaryProgressCounter();
                     }
 
-                    result.add(currentMatch);
+                    spectrumMatchListener.spectrumMatchParsed(currentMatch);
                 }
 
                 if (waitingHandler != null) {
@@ -463,8 +472,6 @@ public class MzIdentMLIdfileReader extends ExperimentObject implements IdfileRea
                 }
             }
         }
-
-        return result;
     }
 
     /**
@@ -530,20 +537,31 @@ public class MzIdentMLIdfileReader extends ExperimentObject implements IdfileRea
      * Main method for testing purposes only.
      *
      * @param args the command line arguments
+     *
+     * @throws Exception thrown if an exception occurs
      */
-    public static void main(String[] args) {
+    public static void main(String[] args) throws Exception {
         MzIdentMLIdfileReader temp = new MzIdentMLIdfileReader();
-        temp.parseFile(null);
+        temp.parseFile(null, new SpectrumMatchCollector());
     }
 
     /**
-     * Parse the mzid file.
+     * Parse the mzid file. Exceptions thrown by the listener are passed on,
+     * other exceptions are printed and stop the parsing.
+     *
+     * @param waitingHandler the waiting handler
+     * @param spectrumMatchListener the listener receiving the spectrum
+     * matches
      *
-     * @return the list of spectrum matches
+     * @throws IOException if an IOException occurs in the listener
+     * @throws SQLException if an SQLException occurs in the listener
+     * @throws ClassNotFoundException if a ClassNotFoundException occurs in the
+     * listener
+     * @throws InterruptedException if an InterruptedException occurs in the
+     * listener
      */
-    private LinkedList<SpectrumMatch> parseFile(WaitingHandler waitingHandler) {
-
-        LinkedList<SpectrumMatch> result = new LinkedList<SpectrumMatch>();
+    private void parseFile(WaitingHandler waitingHandler, SpectrumMatchListener spectrumMatchListener)
+            throws IOException, SQLException, ClassNotFoundException, InterruptedException {
 
         try {
             // create the pull parser
@@ -582,7 +600,7 @@ public class MzIdentMLIdfileReader extends ExperimentObject implements IdfileRea
                 } else if (type == XmlPullParser.START_TAG && parser.getName().equals("ModificationParams")) {
                     parseFixedPtms(parser);
                 } else if (type == XmlPullParser.START_TAG && parser.getName().equals("SpectrumIdentificationResult")) {
-                    parsePsm(parser, result);
+                    parsePsm(parser, spectrumMatchListener);
                 }
 
                 type = parser.next();
@@ -594,11 +612,21 @@ public class MzIdentMLIdfileReader extends ExperimentObject implements IdfileRea
 
             br.close();
 
+        } catch (ListenerException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            } else if (cause instanceof ClassNotFoundException) {
+                throw (ClassNotFoundException) cause;
+            } else if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            }
+            throw new IllegalArgumentException(cause);
         } catch (Exception e) {
             e.printStackTrace();
         }
-
-        return result;
     }
 
     /**
@@ -998,10 +1026,10 @@ public class MzIdentMLIdfileReader extends ExperimentObject implements IdfileRea
      * Parse a PSM object.
      *
      * @param parser the XML parser
-     * @param result the list to add the extracted PSM to
+     * @param spectrumMatchListener the listener receiving the extracted PSM
      * @throws Exception thrown if an exception occurs
      */
-    private void parsePsm(XmlPullParser parser, LinkedList<SpectrumMatch> result) throws Exception {
+    private void parsePsm(XmlPullParser parser, SpectrumMatchListener spectrumMatchListener) throws Exception {
 
         String spectraDataRef = null;
         String spectrumId = null;
@@ -1257,7 +1285,11 @@ public class MzIdentMLIdfileReader extends ExperimentObject implements IdfileRea
             currentMatch.setKey(Spectrum.getSpectrumKey(spectrumFileName, spectrumTitle)); // @TOOD: can spectrumID be used if spectrumTitle is missing...?
         }
 
-        result.add(currentMatch);
+        try {
+            spectrumMatchListener.spectrumMatchParsed(currentMatch);
+        } catch (Exception e) {
+            throw new ListenerException(e);
+        }
     }
 
     /**
@@ -1824,4 +1856,20 @@ public class MzIdentMLIdfileReader extends ExperimentObject implements IdfileRea
             return modifications;
         }
     }
+
+    /**
+     * Exception wrapping an exception thrown by the spectrum match listener,
+     * used to distinguish it from parsing exceptions.
+     */
+    private static class ListenerException extends Exception {
+
+        /**
+         * Constructor.
+         *
+         * @param cause the exception thrown by the listener
+         */
+        public ListenerException(Exception cause) {
+            super(cause);
+        }
+    }
 }
@@ -9,7 +9,9 @@ import com.compomics.util.experiment.identification.identification_parameters.to
 import com.compomics.util.experiment.identification.matches.ModificationMatch;
 import com.compomics.util.experiment.identification.matches.SpectrumMatch;
 import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
-import com.compomics.util.experiment.io.identifications.IdfileReader;
+import com.compomics.util.experiment.io.identifications.SpectrumMatchCollector;
+import com.compomics.util.experiment.io.identifications.SpectrumMatchListener;
+import com.compomics.util.experiment.io.identifications.StreamingIdfileReader;
 import com.compomics.util.experiment.massspectrometry.Charge;
 import com.compomics.util.experiment.massspectrometry.Spectrum;
 import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
@@ -31,7 +33,7 @@ import uk.ac.ebi.pride.tools.braf.BufferedRandomAccessFile;
  *
  * @author Harald Barsnes
  */
-public class NovorIdfileReader extends ExperimentObject implements IdfileReader {
+public class NovorIdfileReader extends ExperimentObject implements StreamingIdfileReader {
 
     /**
      * The software name.
@@ -125,6 +127,15 @@ public class NovorIdfileReader extends ExperimentObject implements IdfileReader
     public LinkedList<SpectrumMatch> getAllSpectrumMatches(WaitingHandler waitingHandler, SearchParameters searchParameters,
             SequenceMatchingPreferences sequenceMatchingPreferences, boolean expandAaCombinations)
             throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException, JAXBException {
+        SpectrumMatchCollector spectrumMatchCollector = new SpectrumMatchCollector();
+        streamSpectrumMatches(waitingHandler, searchParameters, sequenceMatchingPreferences, expandAaCombinations, spectrumMatchCollector);
+        return spectrumMatchCollector.getSpectrumMatches();
+    }
+
+    @Override
+    public void streamSpectrumMatches(WaitingHandler waitingHandler, SearchParameters searchParameters,
+            SequenceMatchingPreferences sequenceMatchingPreferences, boolean expandAaCombinations, SpectrumMatchListener spectrumMatchListener)
+            throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException, JAXBException {
 
 //        int tagMapKeyLength = 0;
 //        if (sequenceMatchingPreferences != null) {
@@ -134,8 +145,6 @@ public class NovorIdfileReader extends ExperimentObject implements IdfileReader
 //        }
         NovorParameters novorParameters = (NovorParameters) searchParameters.getIdentificationAlgorithmParameter(Advocate.novor.getIndex());
 
-        LinkedList<SpectrumMatch> result = new LinkedList<SpectrumMatch>();
-
         BufferedRandomAccessFile bufferedRandomAccessFile = new BufferedRandomAccessFile(novorCsvFile, "r", 1024 * 100);
 
         if (waitingHandler != null) {
@@ -277,7 +286,7 @@ public class NovorIdfileReader extends ExperimentObject implements IdfileReader
 
                     // add the previous match, if any
                     if (currentMatch != null) {
-                        result.add(currentMatch);
+                        spectrumMatchListener.spectrumMatchParsed(currentMatch);
                     }
 
                     currentMatch = new SpectrumMatch(Spectrum.getSpectrumKey(spectrumFileName, spectrumTitle));
@@ -409,12 +418,10 @@ public class NovorIdfileReader extends ExperimentObject implements IdfileReader
 
         // add the last match, if any
         if (currentMatch != null) {
-            result.add(currentMatch);
+            spectrumMatchListener.spectrumMatchParsed(currentMatch);
         }
 
         bufferedRandomAccessFile.close();
-
-        return result;
     }
 
     @Override
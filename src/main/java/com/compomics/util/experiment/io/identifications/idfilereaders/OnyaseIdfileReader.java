@@ -8,7 +8,9 @@ import com.compomics.util.experiment.identification.identification_parameters.Se
 import com.compomics.util.experiment.identification.matches.ModificationMatch;
 import com.compomics.util.experiment.identification.matches.SpectrumMatch;
 import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
-import com.compomics.util.experiment.io.identifications.IdfileReader;
+import com.compomics.util.experiment.io.identifications.SpectrumMatchCollector;
+import com.compomics.util.experiment.io.identifications.SpectrumMatchListener;
+import com.compomics.util.experiment.io.identifications.StreamingIdfileReader;
 import com.compomics.util.experiment.massspectrometry.Charge;
 import com.compomics.util.experiment.massspectrometry.Spectrum;
 import com.compomics.util.preferences.SequenceMatchingPreferences;
@@ -35,7 +37,7 @@ import javax.xml.bind.JAXBException;
  *
  * @author Marc Vaudel
  */
-public class OnyaseIdfileReader implements IdfileReader {
+public class OnyaseIdfileReader implements StreamingIdfileReader {
 
     /**
      * The columns separator.
@@ -160,6 +162,15 @@ public class OnyaseIdfileReader implements IdfileReader {
     public LinkedList<SpectrumMatch> getAllSpectrumMatches(WaitingHandler waitingHandler, SearchParameters searchParameters,
             SequenceMatchingPreferences sequenceMatchingPreferences, boolean expandAaCombinations)
             throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException, JAXBException {
+        SpectrumMatchCollector spectrumMatchCollector = new SpectrumMatchCollector();
+        streamSpectrumMatches(waitingHandler, searchParameters, sequenceMatchingPreferences, expandAaCombinations, spectrumMatchCollector);
+        return spectrumMatchCollector.getSpectrumMatches();
+    }
+
+    @Override
+    public void streamSpectrumMatches(WaitingHandler waitingHandler, SearchParameters searchParameters,
+            SequenceMatchingPreferences sequenceMatchingPreferences, boolean expandAaCombinations, SpectrumMatchListener spectrumMatchListener)
+            throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException, JAXBException {
 
         HashMap<String, SpectrumMatch> spectrumMatchesMap = new HashMap<String, SpectrumMatch>();
 
@@ -197,7 +208,7 @@ public class OnyaseIdfileReader implements IdfileReader {
             }
         }
 
-        LinkedList<SpectrumMatch> result = new LinkedList<SpectrumMatch>();
+        // the hits of a spectrum can be spread over the file, the ranks are set and the matches passed on at the end
         for (SpectrumMatch spectrumMatch : spectrumMatchesMap.values()) {
             HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> assumptionsMap = spectrumMatch.getAllAssumptions(Advocate.onyaseEngine.getIndex());
             ArrayList<Double> eValues = new ArrayList<Double>(assumptionsMap.keySet());
@@ -212,10 +223,8 @@ public class OnyaseIdfileReader implements IdfileReader {
                 }
                 rank = cpt;
             }
-            result.add(spectrumMatch);
+            spectrumMatchListener.spectrumMatchParsed(spectrumMatch);
         }
-
-        return result;
     }
 
     /**
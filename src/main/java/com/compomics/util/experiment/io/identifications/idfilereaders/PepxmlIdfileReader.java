@@ -11,7 +11,9 @@ import com.compomics.util.experiment.identification.identification_parameters.Se
 import com.compomics.util.experiment.identification.SpectrumIdentificationAssumption;
 import com.compomics.util.experiment.identification.matches.ModificationMatch;
 import com.compomics.util.experiment.identification.matches.SpectrumMatch;
-import com.compomics.util.experiment.io.identifications.IdfileReader;
+import com.compomics.util.experiment.io.identifications.SpectrumMatchCollector;
+import com.compomics.util.experiment.io.identifications.SpectrumMatchListener;
+import com.compomics.util.experiment.io.identifications.StreamingIdfileReader;
 import com.compomics.util.experiment.massspectrometry.Charge;
 import com.compomics.util.experiment.massspectrometry.Spectrum;
 import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
@@ -37,10 +39,10 @@ import org.xmlpull.v1.XmlPullParserFactory;
  * @author Marc Vaudel
  * @author Harald Barsnes
  */
-public class PepxmlIdfileReader implements IdfileReader {
+public class PepxmlIdfileReader implements StreamingIdfileReader {
 
     /**
-     * List of the spectrum matches in the file.
+     * List of the spectrum matches in the file, null if not parsed in a list.
      */
     private LinkedList<SpectrumMatch> spectrumMatches = null;
     /**
@@ -107,6 +109,8 @@ public class PepxmlIdfileReader implements IdfileReader {
      * be expanded
      * @param overwriteExtension if true, the extension of the input file will
      * be overwritten to mgf
+     * @param spectrumMatchListener the listener receiving the spectrum
+     * matches
      *
      * @throws XmlPullParserException
      * @throws FileNotFoundException
@@ -115,7 +119,7 @@ public class PepxmlIdfileReader implements IdfileReader {
      * @throws ClassNotFoundException
      * @throws InterruptedException
      */
-    private void parseFile(WaitingHandler waitingHandler, boolean expandAaCombinations, boolean overwriteExtension)
+    private void parseFile(WaitingHandler waitingHandler, boolean expandAaCombinations, boolean overwriteExtension, SpectrumMatchListener spectrumMatchListener)
             throws XmlPullParserException, FileNotFoundException, IOException, SQLException, ClassNotFoundException, InterruptedException {
 
         // Create the pull parser.
@@ -133,8 +137,8 @@ public class PepxmlIdfileReader implements IdfileReader {
             int type;
             boolean hasMatch = false;
 
-            HashMap<String, SpectrumMatch> spectrumMatchesMap = new HashMap<String, SpectrumMatch>();
-            spectrumMatches = new LinkedList<SpectrumMatch>();
+            // the last match parsed, kept until the next spectrum query in case it concerns the same spectrum
+            SpectrumMatch previousMatch = null;
             SpectrumMatch currentMatch = null;
             Integer currentCharge = null;
 
@@ -153,9 +157,14 @@ public class PepxmlIdfileReader implements IdfileReader {
                 }
                 if (type == XmlPullParser.START_TAG && tagName.equals("spectrum_query")) {
                     currentMatch = parseSpectrumQuery(parser);
-                    SpectrumMatch previousMatch = spectrumMatchesMap.get(currentMatch.getKey());
                     if (previousMatch != null) {
-                        currentMatch = previousMatch;
+                        if (previousMatch.getKey().equals(currentMatch.getKey())) {
+                            currentMatch = previousMatch;
+                            hasMatch = true;
+                        } else {
+                            spectrumMatchListener.spectrumMatchParsed(previousMatch);
+                        }
+                        previousMatch = null;
                     }
                     for (int i = 0; i < parser.getAttributeCount(); i++) {
                         String attributeName = parser.getAttributeName(i);
@@ -238,11 +247,7 @@ public class PepxmlIdfileReader implements IdfileReader {
                 }
                 if (type == XmlPullParser.END_TAG && tagName.equals("spectrum_query")) {
                     if (hasMatch) {
-                        String key = currentMatch.getKey();
-                        if (!spectrumMatchesMap.containsKey(key)) {
-                            spectrumMatchesMap.put(key, currentMatch);
-                            spectrumMatches.add(currentMatch);
-                        }
+                        previousMatch = currentMatch;
                         hasMatch = false;
                         currentMatch = null;
                         currentCharge = null;
@@ -253,7 +258,9 @@ public class PepxmlIdfileReader implements IdfileReader {
                 }
             }
 
-            spectrumMatchesMap.clear();
+            if (previousMatch != null) {
+                spectrumMatchListener.spectrumMatchParsed(previousMatch);
+            }
 
         } finally {
             br.close();
@@ -688,11 +695,26 @@ public class PepxmlIdfileReader implements IdfileReader {
             SequenceMatchingPreferences sequenceMatchingPreferences, boolean expandAaCombinations) throws IOException, IllegalArgumentException,
             SQLException, ClassNotFoundException, InterruptedException, JAXBException, XmlPullParserException {
         if (spectrumMatches == null) {
-            parseFile(waitingHandler, expandAaCombinations, true);
+            SpectrumMatchCollector spectrumMatchCollector = new SpectrumMatchCollector();
+            parseFile(waitingHandler, expandAaCombinations, true, spectrumMatchCollector);
+            spectrumMatches = spectrumMatchCollector.getSpectrumMatches();
         }
         return spectrumMatches;
     }
 
+    @Override
+    public void streamSpectrumMatches(WaitingHandler waitingHandler, SearchParameters searchParameters,
+            SequenceMatchingPreferences sequenceMatchingPreferences, boolean expandAaCombinations, SpectrumMatchListener spectrumMatchListener)
+            throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException, JAXBException, XmlPullParserException {
+        if (spectrumMatches != null) {
+            for (SpectrumMatch spectrumMatch : spectrumMatches) {
+                spectrumMatchListener.spectrumMatchParsed(spectrumMatch);
+            }
+        } else {
+            parseFile(waitingHandler, expandAaCombinations, true, spectrumMatchListener);
+        }
+    }
+
     @Override
     public boolean hasDeNovoTags() {
         return false;
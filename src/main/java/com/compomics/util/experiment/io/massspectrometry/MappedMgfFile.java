@@ -0,0 +1,497 @@
+package com.compomics.util.experiment.io.massspectrometry;
+
+import com.compomics.util.experiment.massspectrometry.Charge;
+import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
+import com.compomics.util.experiment.massspectrometry.PeakArray;
+import com.compomics.util.experiment.massspectrometry.Precursor;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Method;
+import java.net.URLDecoder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Memory mapped access to the spectra of an mgf file. The file is mapped in
+ * overlapping windows and the spectra are parsed directly from the mapped
+ * bytes using the indexes of the MgfIndex. No state is shared between reads,
+ * spectra can hence be read concurrently by multiple threads.
+ *
+ * @author Marc Vaudel
+ */
+public class MappedMgfFile {
+
+    /**
+     * The distance between the starts of two windows.
+     */
+    private static final long WINDOW_STEP = 1L << 30;
+    /**
+     * The overlap of consecutive windows, spectra starting in a window and
+     * longer than the overlap are mapped on demand.
+     */
+    private static final long WINDOW_OVERLAP = 1L << 24;
+    /**
+     * Powers of ten which are exactly represented as doubles.
+     */
+    private static final double[] POWERS_OF_TEN = new double[]{1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+        1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+    /**
+     * The mgf file.
+     */
+    private final File mgfFile;
+    /**
+     * The random access file.
+     */
+    private final RandomAccessFile randomAccessFile;
+    /**
+     * The channel of the file.
+     */
+    private final FileChannel channel;
+    /**
+     * The length of the file.
+     */
+    private final long fileLength;
+    /**
+     * The mapped windows, null when the file is closed.
+     */
+    private volatile MappedByteBuffer[] windows;
+
+    /**
+     * Constructor.
+     *
+     * @param mgfFile the mgf file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * mapping the file
+     */
+    public MappedMgfFile(File mgfFile) throws IOException {
+        this.mgfFile = mgfFile;
+        randomAccessFile = new RandomAccessFile(mgfFile, "r");
+        channel = randomAccessFile.getChannel();
+        fileLength = channel.size();
+        int nWindows = (int) (fileLength / WINDOW_STEP) + 1;
+        windows = new MappedByteBuffer[nWindows];
+        for (int i = 0; i < nWindows; ++i) {
+            long start = i * WINDOW_STEP;
+            long size = Math.min(WINDOW_STEP + WINDOW_OVERLAP, fileLength - start);
+            windows[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+        }
+    }
+
+    /**
+     * Returns the mgf file.
+     *
+     * @return the mgf file
+     */
+    public File getFile() {
+        return mgfFile;
+    }
+
+    /**
+     * Closes the file and releases the mapped windows. Where the JVM allows
+     * it, the windows are unmapped directly, otherwise they are released by
+     * the garbage collector.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * closing the file
+     */
+    public void close() throws IOException {
+        MappedByteBuffer[] mappedWindows = windows;
+        windows = null;
+        randomAccessFile.close();
+        if (mappedWindows != null) {
+            for (MappedByteBuffer window : mappedWindows) {
+                unmap(window);
+            }
+        }
+    }
+
+    /**
+     * Unmaps the given buffer using the cleaner of the JVM if available. The
+     * buffer must not be accessed anymore after this call.
+     *
+     * @param buffer the buffer to unmap
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null) {
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (Exception e) {
+            // unmapping not supported by this JVM, the buffer is released by the garbage collector
+        }
+    }
+
+    /**
+     * Returns the spectrum starting at the given index.
+     *
+     * @param index the index of the spectrum in the file, as found in the
+     * MgfIndex
+     * @param fileName the name of the mgf file
+     *
+     * @return the spectrum
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     * @throws IllegalArgumentException exception thrown whenever the spectrum
+     * could not be parsed
+     */
+    public MSnSpectrum getSpectrum(long index, String fileName) throws IOException, IllegalArgumentException {
+        return (MSnSpectrum) parse(index, fileName, false);
+    }
+
+    /**
+     * Returns the precursor of the spectrum starting at the given index.
+     *
+     * @param index the index of the spectrum in the file, as found in the
+     * MgfIndex
+     * @param fileName the name of the mgf file
+     *
+     * @return the precursor of the spectrum
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     * @throws IllegalArgumentException exception thrown whenever the spectrum
+     * could not be parsed
+     */
+    public Precursor getPrecursor(long index, String fileName) throws IOException, IllegalArgumentException {
+        return (Precursor) parse(index, fileName, true);
+    }
+
+    /**
+     * Parses the spectrum or the precursor starting at the given index.
+     *
+     * @param index the index of the spectrum in the file
+     * @param fileName the name of the mgf file
+     * @param precursorOnly if true only the precursor is parsed
+     *
+     * @return the spectrum or the precursor
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    private Object parse(long index, String fileName, boolean precursorOnly) throws IOException {
+
+        MappedByteBuffer[] currentWindows = windows;
+        if (currentWindows == null) {
+            throw new IOException("File " + mgfFile.getName() + " was closed.");
+        }
+        int windowIndex = (int) (index / WINDOW_STEP);
+        long windowStart = windowIndex * WINDOW_STEP;
+        MappedByteBuffer buffer = currentWindows[windowIndex];
+        Object result = parse(buffer, (int) (index - windowStart), windowStart + buffer.limit() >= fileLength, fileName, precursorOnly);
+
+        // spectrum exceeding the overlap of the windows
+        long mappedLength = WINDOW_STEP + WINDOW_OVERLAP;
+        while (result == null && windowStart + buffer.limit() < fileLength && buffer.limit() < Integer.MAX_VALUE) {
+            mappedLength = 2 * mappedLength;
+            windowStart = index;
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, index, Math.min(Math.min(mappedLength, Integer.MAX_VALUE), fileLength - index));
+            result = parse(buffer, 0, windowStart + buffer.limit() >= fileLength, fileName, precursorOnly);
+        }
+        if (result == null) {
+            throw new IllegalArgumentException("End of the file reached before encountering the tag \"END IONS\". File: " + fileName + ".");
+        }
+        return result;
+    }
+
+    /**
+     * Parses the spectrum or the precursor starting at the given position of
+     * the buffer.
+     *
+     * @param buffer the buffer
+     * @param position the start position
+     * @param fileEnd indicates whether the buffer ends at the end of the file
+     * @param fileName the name of the mgf file
+     * @param precursorOnly if true only the precursor is parsed
+     *
+     * @return the spectrum or the precursor, null if the end of the buffer was
+     * reached before the end of the spectrum
+     */
+    private Object parse(MappedByteBuffer buffer, int position, boolean fileEnd, String fileName, boolean precursorOnly) {
+
+        int limit = buffer.limit();
+        SpectrumHeader header = new SpectrumHeader();
+        double[] mz = new double[256];
+        double[] intensity = new double[256];
+        int nPeaks = 0;
+        double[] value = new double[1];
+
+        while (position < limit) {
+
+            int lineEnd = position;
+            while (lineEnd < limit && buffer.get(lineEnd) != '\n') {
+                ++lineEnd;
+            }
+            if (lineEnd == limit && !fileEnd) {
+                return null;
+            }
+            int end = lineEnd;
+            if (end > position && buffer.get(end - 1) == '\r') {
+                --end;
+            }
+
+            if (end > position) {
+                byte first = buffer.get(position);
+                if (first >= '0' && first <= '9' || first == '.' || first == '-' || first == '+') {
+                    if (precursorOnly) {
+                        return header.getPrecursor();
+                    }
+                    int next = parseNumber(buffer, position, end, value);
+                    if (next > position && next < end && isWhiteSpace(buffer.get(next))) {
+                        double peakMz = value[0];
+                        while (next < end && isWhiteSpace(buffer.get(next))) {
+                            ++next;
+                        }
+                        int intensityEnd = parseNumber(buffer, next, end, value);
+                        if (intensityEnd > next && (intensityEnd == end || isWhiteSpace(buffer.get(intensityEnd)))) {
+                            if (nPeaks == mz.length) {
+                                mz = Arrays.copyOf(mz, 2 * nPeaks);
+                                intensity = Arrays.copyOf(intensity, 2 * nPeaks);
+                            }
+                            mz[nPeaks] = peakMz;
+                            intensity[nPeaks] = value[0];
+                            ++nPeaks;
+                        }
+                    }
+                } else {
+                    String line = getString(buffer, position, end);
+                    if (line.startsWith("END IONS")) {
+                        if (precursorOnly) {
+                            return header.getPrecursor();
+                        }
+                        PeakArray peaks = PeakArray.fromArrays(mz, intensity, nPeaks);
+                        MSnSpectrum msnSpectrum = new MSnSpectrum(2, header.getPrecursor(), header.spectrumTitle, peaks, fileName);
+                        msnSpectrum.setScanNumber(header.scanNumber);
+                        return msnSpectrum;
+                    } else if (precursorOnly && !line.contains("#") && !line.contains("=")) {
+                        return header.getPrecursor();
+                    }
+                    header.parseLine(line);
+                }
+            }
+            position = lineEnd + 1;
+        }
+        return null;
+    }
+
+    /**
+     * Parses a decimal number and stores it in the first cell of the given
+     * array. Numbers which cannot be converted exactly by the fast path are
+     * parsed using Double.parseDouble.
+     *
+     * @param buffer the buffer
+     * @param start the start of the number
+     * @param end the end of the line
+     * @param value the array where to store the value
+     *
+     * @return the position after the number, start if no number was found
+     */
+    private static int parseNumber(MappedByteBuffer buffer, int start, int end, double[] value) {
+
+        int position = start;
+        boolean negative = false;
+        byte b = position < end ? buffer.get(position) : 0;
+        if (b == '-' || b == '+') {
+            negative = b == '-';
+            ++position;
+        }
+        long mantissa = 0;
+        int nDigits = 0;
+        int exponent = 0;
+        boolean digitFound = false;
+        boolean decimalPoint = false;
+        while (position < end) {
+            b = buffer.get(position);
+            if (b >= '0' && b <= '9') {
+                digitFound = true;
+                if (nDigits < 18) {
+                    mantissa = 10 * mantissa + (b - '0');
+                    if (mantissa > 0) {
+                        ++nDigits;
+                    }
+                    if (decimalPoint) {
+                        --exponent;
+                    }
+                } else {
+                    nDigits = 19;
+                }
+            } else if (b == '.' && !decimalPoint) {
+                decimalPoint = true;
+            } else {
+                break;
+            }
+            ++position;
+        }
+        if (!digitFound) {
+            return start;
+        }
+        boolean exact = nDigits <= 15;
+        if (position < end && (buffer.get(position) == 'e' || buffer.get(position) == 'E')) {
+            int exponentPosition = position + 1;
+            boolean negativeExponent = false;
+            if (exponentPosition < end && (buffer.get(exponentPosition) == '-' || buffer.get(exponentPosition) == '+')) {
+                negativeExponent = buffer.get(exponentPosition) == '-';
+                ++exponentPosition;
+            }
+            int explicitExponent = 0;
+            int nExponentDigits = 0;
+            while (exponentPosition < end && buffer.get(exponentPosition) >= '0' && buffer.get(exponentPosition) <= '9') {
+                if (explicitExponent < 10000) {
+                    explicitExponent = 10 * explicitExponent + (buffer.get(exponentPosition) - '0');
+                }
+                ++nExponentDigits;
+                ++exponentPosition;
+            }
+            if (nExponentDigits > 0) {
+                exponent += negativeExponent ? -explicitExponent : explicitExponent;
+                position = exponentPosition;
+            }
+        }
+        if (exact && exponent >= -22 && exponent <= 22) {
+            double result = exponent >= 0 ? mantissa * POWERS_OF_TEN[exponent] : mantissa / POWERS_OF_TEN[-exponent];
+            value[0] = negative ? -result : result;
+        } else {
+            value[0] = Double.parseDouble(getString(buffer, start, position));
+        }
+        return position;
+    }
+
+    /**
+     * Indicates whether a byte is a white space character as matched by the
+     * regular expression \s: space, tab, line feed, vertical tab, form feed
+     * or carriage return.
+     *
+     * @param b the byte
+     *
+     * @return true if the byte is a white space character
+     */
+    private static boolean isWhiteSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == 0x0B || b == '\f' || b == '\r';
+    }
+
+    /**
+     * Returns the given bytes as string, one character per byte.
+     *
+     * @param buffer the buffer
+     * @param start the start position
+     * @param end the end position
+     *
+     * @return the string
+     */
+    private static String getString(MappedByteBuffer buffer, int start, int end) {
+        char[] chars = new char[end - start];
+        for (int i = start; i < end; ++i) {
+            chars[i - start] = (char) (buffer.get(i) & 0xFF);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * The header values of a spectrum.
+     */
+    private static class SpectrumHeader {
+
+        /**
+         * The precursor m/z.
+         */
+        double precursorMz = 0;
+        /**
+         * The precursor intensity.
+         */
+        double precursorIntensity = 0;
+        /**
+         * The retention time.
+         */
+        double rt = -1.0;
+        /**
+         * The start of the retention time window.
+         */
+        double rt1 = -1;
+        /**
+         * The end of the retention time window.
+         */
+        double rt2 = -1;
+        /**
+         * The precursor charges.
+         */
+        ArrayList<Charge> precursorCharges = new ArrayList<Charge>(1);
+        /**
+         * The scan number.
+         */
+        String scanNumber = "";
+        /**
+         * The spectrum title.
+         */
+        String spectrumTitle = "";
+
+        /**
+         * Parses a header line.
+         *
+         * @param line the line
+         *
+         * @throws IllegalArgumentException exception thrown whenever the title
+         * or the retention time could not be parsed
+         */
+        void parseLine(String line) throws IllegalArgumentException {
+            if (line.startsWith("TITLE")) {
+                spectrumTitle = line.substring(line.indexOf('=') + 1);
+                try {
+                    spectrumTitle = URLDecoder.decode(spectrumTitle, "utf-8");
+                } catch (UnsupportedEncodingException e) {
+                    throw new IllegalArgumentException("UTF-8 encoding not supported.", e);
+                }
+            } else if (line.startsWith("CHARGE")) {
+                precursorCharges = MgfReader.parseCharges(line);
+            } else if (line.startsWith("PEPMASS")) {
+                String temp = line.substring(line.indexOf("=") + 1);
+                String[] values = temp.split("\\s");
+                precursorMz = Double.parseDouble(values[0]);
+                if (values.length > 1) {
+                    precursorIntensity = Double.parseDouble(values[1]);
+                } else {
+                    precursorIntensity = 0.0;
+                }
+            } else if (line.startsWith("RTINSECONDS")) {
+                String rtInput = line.substring(line.indexOf('=') + 1);
+                try {
+                    String[] rtWindow = rtInput.split("-");
+                    if (rtWindow.length == 1) {
+                        String tempRt = rtWindow[0];
+                        // possible fix for values like RTINSECONDS=PT121.250000S
+                        if (tempRt.startsWith("PT") && tempRt.endsWith("S")) {
+                            tempRt = tempRt.substring(2, tempRt.length() - 1);
+                        }
+                        rt = new Double(tempRt);
+                    } else if (rtWindow.length == 2 && !rtWindow[0].equals("")) {
+                        rt1 = new Double(rtWindow[0]);
+                        rt2 = new Double(rtWindow[1]);
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Cannot parse retention time: " + rtInput + " in spectrum " + spectrumTitle + ".", e);
+                }
+            } else if (line.startsWith("SCANS")) {
+                scanNumber = line.substring(line.indexOf('=') + 1);
+            }
+        }
+
+        /**
+         * Returns the precursor.
+         *
+         * @return the precursor
+         */
+        Precursor getPrecursor() {
+            if (rt1 != -1 && rt2 != -1) {
+                return new Precursor(precursorMz, precursorIntensity, precursorCharges, rt1, rt2);
+            }
+            return new Precursor(rt, precursorMz, precursorIntensity, precursorCharges);
+        }
+    }
+}
@@ -1,12 +1,25 @@
 package com.compomics.util.experiment.io.massspectrometry;
 
 import com.compomics.util.experiment.personalization.ExperimentObject;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 
 /**
  * This class contains the indexes of an mgf file after indexing mapped with the
- * title of the spectrum.
+ * title of the spectrum. The offsets and precursor information of the spectra
+ * are stored in primitive arrays in the order of the file, spectra are found
+ * by title using a binary search on the titles.
  *
  * @author Marc Vaudel
  * @author Harald Barsnes
@@ -14,26 +27,47 @@ import java.util.HashMap;
 public class MgfIndex extends ExperimentObject {
 
     /**
-     * The map of all indexes: spectrum title &gt; index in the file.
+     * The magic number of the binary index files.
      */
-    private HashMap<String, Long> indexMap;
+    public static final int MAGIC = 0x4D474649;
     /**
-     * A map of all the spectrum titles and which rank they have in the file,
-     * i.e., the first spectrum has rank 0, the second rank 1, etc.
+     * The version of the binary index files.
      */
-    private HashMap<String, Integer> spectrumNumberIndexMap;
+    public static final int VERSION = 1;
     /**
-     * List of spectrum titles.
+     * The spectrum titles in the order of the file.
      */
-    private ArrayList<String> spectrumTitles = null;
+    private String[] spectrumTitles;
     /**
-     * Map of duplicated spectrum titles and how often they are duplicated.
+     * The indexes of the spectra sorted by title.
      */
-    private HashMap<String, Integer> duplicatedSpectrumTitles = null;
+    private int[] titleOrder;
+    /**
+     * The index in the file of every spectrum, i.e., the position after the
+     * begin ions tag.
+     */
+    private long[] offsets;
+    /**
+     * The precursor m/z of every spectrum, NaN if not set.
+     */
+    private double[] precursorMzs;
     /**
-     * Map of the precursor mz values.
+     * The first precursor charge of every spectrum, 0 if not set.
      */
-    private HashMap<Integer, Double> precursorMzMap = null;
+    private int[] precursorCharges;
+    /**
+     * The precursor retention time of every spectrum, the center of the
+     * window for retention time windows, NaN if not set.
+     */
+    private double[] precursorRts;
+    /**
+     * The spectrum titles as list, created when needed.
+     */
+    private ArrayList<String> spectrumTitlesList = null;
+    /**
+     * Map of duplicated spectrum titles and how often they are duplicated.
+     */
+    private HashMap<String, Integer> duplicatedSpectrumTitles = null;
     /**
      * The name of the indexed file.
      */
@@ -107,11 +141,58 @@ public class MgfIndex extends ExperimentObject {
     public MgfIndex(ArrayList<String> spectrumTitles, HashMap<String, Long> indexMap, HashMap<String, Integer> spectrumNumberIndexMap, HashMap<Integer, Double> precursorMzMap,
             String fileName, double minRT, double maxRT, double maxMz, double maxIntensity, int maxCharge, int maxPeakCount, boolean peakPicked, boolean precursorChargesMissing,
             long lastModified) {
-        this.spectrumTitles = spectrumTitles;
-        this.duplicatedSpectrumTitles = null; //information not provided
-        this.indexMap = indexMap;
-        this.spectrumNumberIndexMap = spectrumNumberIndexMap;
-        this.precursorMzMap = precursorMzMap;
+        this(spectrumTitles, null, indexMap, spectrumNumberIndexMap, precursorMzMap, fileName, minRT, maxRT, maxMz, maxIntensity, maxCharge, maxPeakCount,
+                peakPicked, precursorChargesMissing, lastModified, spectrumTitles.size());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param spectrumTitles an ordered list of all spectrum titles
+     * @param duplicatedSpectrumTitles a map of duplicated spectrum titles, and
+     * how often each title is duplicated
+     * @param indexMap map of all indexes: spectrum title &gt; index in the file
+     * @param spectrumNumberIndexMap map of all spectrum index: spectrum title
+     * &gt; spectrum index in the file
+     * @param precursorMzMap map of the precursor mz values: spectrum index &gt;
+     * precursor mz
+     * @param fileName the mgf file name
+     * @param maxRT the maximum retention time
+     * @param minRT the minimum retention tome
+     * @param maxMz the maximum m/z value
+     * @param maxIntensity the maximum precursor intensity
+     * @param maxCharge the maximum peak precursor charge
+     * @param maxPeakCount the maximum peak count
+     * @param peakPicked indicates if the spectra seem to be peak picked or not
+     * @param precursorChargesMissing indicates if at least one spectrum is
+     * missing the precursor charge tag
+     * @param lastModified a long indicating the last time the indexed file was
+     * modified
+     * @param spectrumCount the number of spectra in the file counted by the
+     * number of begin ion tags
+     */
+    public MgfIndex(ArrayList<String> spectrumTitles, HashMap<String, Integer> duplicatedSpectrumTitles, HashMap<String, Long> indexMap, HashMap<String, Integer> spectrumNumberIndexMap,
+            HashMap<Integer, Double> precursorMzMap, String fileName, double minRT, double maxRT, double maxMz, double maxIntensity, int maxCharge, int maxPeakCount,
+            boolean peakPicked, boolean precursorChargesMissing, long lastModified, int spectrumCount) {
+
+        int nSpectra = spectrumTitles.size();
+        String[] titles = new String[nSpectra];
+        long[] titleOffsets = new long[nSpectra];
+        double[] mzs = new double[nSpectra];
+        for (int i = 0; i < nSpectra; i++) {
+            String title = spectrumTitles.get(i);
+            titles[i] = title;
+            titleOffsets[i] = indexMap.get(title);
+            Integer spectrumNumber = spectrumNumberIndexMap == null ? null : spectrumNumberIndexMap.get(title);
+            Double mz = spectrumNumber == null || precursorMzMap == null ? null : precursorMzMap.get(spectrumNumber);
+            mzs[i] = mz == null ? Double.NaN : mz;
+        }
+        int[] charges = new int[nSpectra];
+        double[] rts = new double[nSpectra];
+        Arrays.fill(rts, Double.NaN);
+
+        setColumns(titles, titleOffsets, mzs, charges, rts);
+        this.duplicatedSpectrumTitles = duplicatedSpectrumTitles;
         this.fileName = fileName;
         this.maxRT = maxRT;
         this.minRT = minRT;
@@ -122,19 +203,21 @@ public class MgfIndex extends ExperimentObject {
         this.peakPicked = peakPicked;
         this.precursorChargesMissing = precursorChargesMissing;
         this.lastModified = lastModified;
+        this.spectrumCount = spectrumCount;
     }
 
     /**
      * Constructor.
      *
-     * @param spectrumTitles an ordered list of all spectrum titles
+     * @param spectrumTitles the spectrum titles in the order of the file
      * @param duplicatedSpectrumTitles a map of duplicated spectrum titles, and
      * how often each title is duplicated
-     * @param indexMap map of all indexes: spectrum title &gt; index in the file
-     * @param spectrumNumberIndexMap map of all spectrum index: spectrum title
-     * &gt; spectrum index in the file
-     * @param precursorMzMap map of the precursor mz values: spectrum index &gt;
-     * precursor mz
+     * @param offsets the index of every spectrum in the file
+     * @param precursorMzs the precursor m/z of every spectrum, NaN if not set
+     * @param precursorCharges the first precursor charge of every spectrum, 0
+     * if not set
+     * @param precursorRts the precursor retention time of every spectrum, NaN
+     * if not set
      * @param fileName the mgf file name
      * @param maxRT the maximum retention time
      * @param minRT the minimum retention tome
@@ -150,14 +233,11 @@ public class MgfIndex extends ExperimentObject {
      * @param spectrumCount the number of spectra in the file counted by the
      * number of begin ion tags
      */
-    public MgfIndex(ArrayList<String> spectrumTitles, HashMap<String, Integer> duplicatedSpectrumTitles, HashMap<String, Long> indexMap, HashMap<String, Integer> spectrumNumberIndexMap,
-            HashMap<Integer, Double> precursorMzMap, String fileName, double minRT, double maxRT, double maxMz, double maxIntensity, int maxCharge, int maxPeakCount,
+    public MgfIndex(String[] spectrumTitles, HashMap<String, Integer> duplicatedSpectrumTitles, long[] offsets, double[] precursorMzs, int[] precursorCharges,
+            double[] precursorRts, String fileName, double minRT, double maxRT, double maxMz, double maxIntensity, int maxCharge, int maxPeakCount,
             boolean peakPicked, boolean precursorChargesMissing, long lastModified, int spectrumCount) {
-        this.spectrumTitles = spectrumTitles;
+        setColumns(spectrumTitles, offsets, precursorMzs, precursorCharges, precursorRts);
         this.duplicatedSpectrumTitles = duplicatedSpectrumTitles;
-        this.indexMap = indexMap;
-        this.spectrumNumberIndexMap = spectrumNumberIndexMap;
-        this.precursorMzMap = precursorMzMap;
         this.fileName = fileName;
         this.maxRT = maxRT;
         this.minRT = minRT;
@@ -171,6 +251,66 @@ public class MgfIndex extends ExperimentObject {
         this.spectrumCount = spectrumCount;
     }
 
+    /**
+     * Sets the columns of the index and sorts the spectra by title.
+     *
+     * @param spectrumTitles the spectrum titles in the order of the file
+     * @param offsets the index of every spectrum in the file
+     * @param precursorMzs the precursor m/z of every spectrum
+     * @param precursorCharges the precursor charge of every spectrum
+     * @param precursorRts the precursor retention time of every spectrum
+     */
+    private void setColumns(final String[] spectrumTitles, long[] offsets, double[] precursorMzs, int[] precursorCharges, double[] precursorRts) {
+
+        this.spectrumTitles = spectrumTitles;
+        this.offsets = offsets;
+        this.precursorMzs = precursorMzs;
+        this.precursorCharges = precursorCharges;
+        this.precursorRts = precursorRts;
+
+        Integer[] order = new Integer[spectrumTitles.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return spectrumTitles[o1].compareTo(spectrumTitles[o2]);
+            }
+        });
+        titleOrder = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            titleOrder[i] = order[i];
+        }
+    }
+
+    /**
+     * Returns the position of the given spectrum in the file order, -1 if not
+     * found. If the title is found multiple times, the last occurrence in the
+     * file is returned.
+     *
+     * @param spectrumTitle the title of the spectrum
+     *
+     * @return the position of the given spectrum
+     */
+    private int find(String spectrumTitle) {
+        // upper bound of the title, the sort is stable so that duplicates are in file order
+        int low = 0;
+        int high = titleOrder.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (spectrumTitles[titleOrder[middle]].compareTo(spectrumTitle) <= 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        if (low > 0 && spectrumTitles[titleOrder[low - 1]].equals(spectrumTitle)) {
+            return titleOrder[low - 1];
+        }
+        return -1;
+    }
+
     /**
      * Returns the index corresponding to the desired spectrum.
      *
@@ -178,35 +318,28 @@ public class MgfIndex extends ExperimentObject {
      * @return the corresponding index
      */
     public Long getIndex(String spectrumTitle) {
-        return indexMap.get(spectrumTitle);
+        int spectrumIndex = find(spectrumTitle);
+        if (spectrumIndex == -1) {
+            return null;
+        }
+        return offsets[spectrumIndex];
     }
 
     /**
      * Returns the spectrum index corresponding to the desired spectrum, i.e.,
-     * returns 0 for the first spectrum in the file, 1 for the second, etc. Null
-     * map is not set, and -1 if not found.
+     * returns 0 for the first spectrum in the file, 1 for the second, etc, and
+     * -1 if not found.
      *
      * @param spectrumTitle the desired spectrum
      * @return the corresponding spectrum index
      */
     public Integer getSpectrumIndex(String spectrumTitle) {
-
-        if (spectrumNumberIndexMap == null) {
-            return null;
-        }
-
-        Integer index = spectrumNumberIndexMap.get(spectrumTitle);
-
-        if (index == null) {
-            return -1;
-        } else {
-            return index;
-        }
+        return find(spectrumTitle);
     }
 
     /**
      * Returns the precursor mz for the spectrum at the given index. Returns
-     * null if the map is not set, or the value cannot be found.
+     * null if the value cannot be found.
      *
      * @param spectrumIndex the index of the spectrum, 0 for the first spectrum
      * in the file, 1 for the second, etc
@@ -214,17 +347,47 @@ public class MgfIndex extends ExperimentObject {
      */
     public Double getPrecursorMz(int spectrumIndex) {
 
-        if (precursorMzMap == null) {
+        if (spectrumIndex < 0 || spectrumIndex >= precursorMzs.length || Double.isNaN(precursorMzs[spectrumIndex])) {
             return null;
         }
 
-        Double mz = precursorMzMap.get(spectrumIndex);
+        return precursorMzs[spectrumIndex];
+    }
 
-        if (mz == null) {
-            return null;
-        } else {
-            return mz;
-        }
+    /**
+     * Returns the first precursor charge of the spectrum at the given index, 0
+     * if not set.
+     *
+     * @param spectrumIndex the index of the spectrum, 0 for the first spectrum
+     * in the file, 1 for the second, etc
+     * @return the precursor charge
+     */
+    public int getPrecursorCharge(int spectrumIndex) {
+        return precursorCharges[spectrumIndex];
+    }
+
+    /**
+     * Returns the precursor retention time of the spectrum at the given
+     * index, the center of the window for retention time windows, NaN if not
+     * set.
+     *
+     * @param spectrumIndex the index of the spectrum, 0 for the first spectrum
+     * in the file, 1 for the second, etc
+     * @return the precursor retention time
+     */
+    public double getPrecursorRt(int spectrumIndex) {
+        return precursorRts[spectrumIndex];
+    }
+
+    /**
+     * Returns the index in the file of the spectrum at the given index.
+     *
+     * @param spectrumIndex the index of the spectrum, 0 for the first spectrum
+     * in the file, 1 for the second, etc
+     * @return the index in the file
+     */
+    public long getIndex(int spectrumIndex) {
+        return offsets[spectrumIndex];
     }
 
     /**
@@ -236,7 +399,7 @@ public class MgfIndex extends ExperimentObject {
      * @return the title of the spectrum of interest
      */
     public String getSpectrumTitle(int number) {
-        return spectrumTitles.get(number);
+        return spectrumTitles[number];
     }
 
     /**
@@ -248,7 +411,7 @@ public class MgfIndex extends ExperimentObject {
      * this index
      */
     public boolean containsSpectrum(String spectrumTitle) {
-        return indexMap.containsKey(spectrumTitle);
+        return find(spectrumTitle) != -1;
     }
 
     /**
@@ -257,11 +420,10 @@ public class MgfIndex extends ExperimentObject {
      * @return an ordered list of all spectrum titles
      */
     public ArrayList<String> getSpectrumTitles() {
-        if (spectrumTitles != null) {
-            return spectrumTitles;
-        } else {
-            return new ArrayList<String>(indexMap.keySet());
+        if (spectrumTitlesList == null) {
+            spectrumTitlesList = new ArrayList<String>(Arrays.asList(spectrumTitles));
         }
+        return spectrumTitlesList;
     }
 
     /**
@@ -397,7 +559,7 @@ public class MgfIndex extends ExperimentObject {
      */
     public int getNSpectra() {
         if (spectrumCount == null) {
-            spectrumCount = spectrumTitles.size();
+            spectrumCount = spectrumTitles.length;
         }
         return spectrumCount;
     }
@@ -453,4 +615,270 @@ public class MgfIndex extends ExperimentObject {
     public void setPrecursorChargesMissing(Boolean precursorChargesMissing) {
         this.precursorChargesMissing = precursorChargesMissing;
     }
+
+    /**
+     * Writes the index to the given file in a binary format which can be read
+     * back using read(File). The index is written to a temporary file which
+     * replaces the destination file once complete.
+     *
+     * @param file the destination file
+     *
+     * @throws IOException exception thrown if an error occurred while writing
+     * the file
+     */
+    public void write(File file) throws IOException {
+
+        File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        FileOutputStream fos = new FileOutputStream(tempFile);
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(fos));
+        boolean written = false;
+        try {
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeLong(lastModified == null ? -1 : lastModified);
+            writeString(dos, fileName == null ? "" : fileName);
+            writeDouble(dos, minRT);
+            writeDouble(dos, maxRT);
+            writeDouble(dos, maxMz);
+            writeDouble(dos, maxIntensity);
+            writeInteger(dos, maxCharge);
+            writeInteger(dos, maxPeakCount);
+            writeInteger(dos, peakPicked == null ? null : peakPicked ? 1 : 0);
+            writeInteger(dos, precursorChargesMissing == null ? null : precursorChargesMissing ? 1 : 0);
+            writeInteger(dos, spectrumCount);
+
+            int nSpectra = spectrumTitles.length;
+            dos.writeInt(nSpectra);
+            for (long offset : offsets) {
+                dos.writeLong(offset);
+            }
+            for (double mz : precursorMzs) {
+                dos.writeDouble(mz);
+            }
+            for (int charge : precursorCharges) {
+                dos.writeInt(charge);
+            }
+            for (double rt : precursorRts) {
+                dos.writeDouble(rt);
+            }
+            for (int index : titleOrder) {
+                dos.writeInt(index);
+            }
+
+            byte[][] titleBytes = new byte[nSpectra][];
+            int titlesLength = 0;
+            for (int i = 0; i < nSpectra; i++) {
+                titleBytes[i] = spectrumTitles[i].getBytes("UTF-8");
+                titlesLength += titleBytes[i].length;
+                dos.writeInt(titlesLength);
+            }
+            for (byte[] title : titleBytes) {
+                dos.write(title);
+            }
+
+            if (duplicatedSpectrumTitles == null) {
+                dos.writeInt(-1);
+            } else {
+                dos.writeInt(duplicatedSpectrumTitles.size());
+                for (String title : duplicatedSpectrumTitles.keySet()) {
+                    writeString(dos, title);
+                    dos.writeInt(duplicatedSpectrumTitles.get(title));
+                }
+            }
+            dos.flush();
+            fos.getFD().sync();
+            written = true;
+        } finally {
+            dos.close();
+            if (!written) {
+                tempFile.delete();
+            }
+        }
+
+        if (file.exists() && !file.delete()) {
+            tempFile.delete();
+            throw new IOException("Could not replace " + file.getAbsolutePath() + ".");
+        }
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException("Could not move " + tempFile.getAbsolutePath() + " to " + file.getAbsolutePath() + ".");
+        }
+    }
+
+    /**
+     * Reads an index written using write(File). The file is mapped in memory
+     * and the columns are copied in bulk.
+     *
+     * @param file the index file
+     *
+     * @return the index
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the file or if the file is not a binary mgf index
+     */
+    public static MgfIndex read(File file) throws IOException {
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (buffer.remaining() < 8 || buffer.getInt() != MAGIC) {
+                throw new IOException("File " + file.getName() + " is not a binary mgf index.");
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("Version " + version + " of the mgf index file " + file.getName() + " not supported.");
+            }
+
+            MgfIndex mgfIndex = new MgfIndex();
+            long lastModified = buffer.getLong();
+            mgfIndex.lastModified = lastModified == -1 ? null : lastModified;
+            mgfIndex.fileName = readString(buffer);
+            mgfIndex.minRT = readDouble(buffer);
+            mgfIndex.maxRT = readDouble(buffer);
+            mgfIndex.maxMz = readDouble(buffer);
+            mgfIndex.maxIntensity = readDouble(buffer);
+            mgfIndex.maxCharge = readInteger(buffer);
+            mgfIndex.maxPeakCount = readInteger(buffer);
+            Integer peakPicked = readInteger(buffer);
+            mgfIndex.peakPicked = peakPicked == null ? null : peakPicked == 1;
+            Integer precursorChargesMissing = readInteger(buffer);
+            mgfIndex.precursorChargesMissing = precursorChargesMissing == null ? null : precursorChargesMissing == 1;
+            mgfIndex.spectrumCount = readInteger(buffer);
+
+            int nSpectra = buffer.getInt();
+            mgfIndex.offsets = new long[nSpectra];
+            buffer.asLongBuffer().get(mgfIndex.offsets);
+            buffer.position(buffer.position() + 8 * nSpectra);
+            mgfIndex.precursorMzs = new double[nSpectra];
+            buffer.asDoubleBuffer().get(mgfIndex.precursorMzs);
+            buffer.position(buffer.position() + 8 * nSpectra);
+            mgfIndex.precursorCharges = new int[nSpectra];
+            buffer.asIntBuffer().get(mgfIndex.precursorCharges);
+            buffer.position(buffer.position() + 4 * nSpectra);
+            mgfIndex.precursorRts = new double[nSpectra];
+            buffer.asDoubleBuffer().get(mgfIndex.precursorRts);
+            buffer.position(buffer.position() + 8 * nSpectra);
+            mgfIndex.titleOrder = new int[nSpectra];
+            buffer.asIntBuffer().get(mgfIndex.titleOrder);
+            buffer.position(buffer.position() + 4 * nSpectra);
+
+            int[] titleEnds = new int[nSpectra];
+            buffer.asIntBuffer().get(titleEnds);
+            buffer.position(buffer.position() + 4 * nSpectra);
+            byte[] titleBytes = new byte[nSpectra == 0 ? 0 : titleEnds[nSpectra - 1]];
+            buffer.get(titleBytes);
+            mgfIndex.spectrumTitles = new String[nSpectra];
+            int titleStart = 0;
+            for (int i = 0; i < nSpectra; i++) {
+                mgfIndex.spectrumTitles[i] = new String(titleBytes, titleStart, titleEnds[i] - titleStart, "UTF-8");
+                titleStart = titleEnds[i];
+            }
+
+            int nDuplicates = buffer.getInt();
+            if (nDuplicates >= 0) {
+                mgfIndex.duplicatedSpectrumTitles = new HashMap<String, Integer>(nDuplicates);
+                for (int i = 0; i < nDuplicates; i++) {
+                    String title = readString(buffer);
+                    mgfIndex.duplicatedSpectrumTitles.put(title, buffer.getInt());
+                }
+            }
+
+            return mgfIndex;
+
+        } catch (RuntimeException e) {
+            throw new IOException("An error occurred while reading the mgf index file " + file.getName() + ".", e);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Empty constructor used when reading an index from a file.
+     */
+    private MgfIndex() {
+    }
+
+    /**
+     * Writes a nullable double to the given stream.
+     *
+     * @param dos the stream
+     * @param value the value
+     *
+     * @throws IOException exception thrown if an error occurred while writing
+     */
+    private static void writeDouble(DataOutputStream dos, Double value) throws IOException {
+        dos.writeBoolean(value != null);
+        dos.writeDouble(value == null ? 0.0 : value);
+    }
+
+    /**
+     * Writes a nullable integer to the given stream.
+     *
+     * @param dos the stream
+     * @param value the value
+     *
+     * @throws IOException exception thrown if an error occurred while writing
+     */
+    private static void writeInteger(DataOutputStream dos, Integer value) throws IOException {
+        dos.writeBoolean(value != null);
+        dos.writeInt(value == null ? 0 : value);
+    }
+
+    /**
+     * Reads a nullable double written using writeDouble.
+     *
+     * @param buffer the buffer to read from
+     *
+     * @return the value
+     */
+    private static Double readDouble(ByteBuffer buffer) {
+        boolean set = buffer.get() != 0;
+        double value = buffer.getDouble();
+        return set ? value : null;
+    }
+
+    /**
+     * Reads a nullable integer written using writeInteger.
+     *
+     * @param buffer the buffer to read from
+     *
+     * @return the value
+     */
+    private static Integer readInteger(ByteBuffer buffer) {
+        boolean set = buffer.get() != 0;
+        int value = buffer.getInt();
+        return set ? value : null;
+    }
+
+    /**
+     * Writes a string to the given stream as UTF-8 preceded by its length in
+     * bytes.
+     *
+     * @param dos the stream
+     * @param value the string
+     *
+     * @throws IOException exception thrown if an error occurred while writing
+     */
+    private static void writeString(DataOutputStream dos, String value) throws IOException {
+        byte[] bytes = value.getBytes("UTF-8");
+        dos.writeInt(bytes.length);
+        dos.write(bytes);
+    }
+
+    /**
+     * Reads a string written using writeString.
+     *
+     * @param buffer the buffer to read from
+     *
+     * @return the string
+     *
+     * @throws IOException exception thrown if the encoding is not supported
+     */
+    private static String readString(ByteBuffer buffer) throws IOException {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, "UTF-8");
+    }
 }
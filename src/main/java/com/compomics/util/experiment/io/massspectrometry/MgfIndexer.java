@@ -0,0 +1,852 @@
+package com.compomics.util.experiment.io.massspectrometry;
+
+import com.compomics.util.experiment.massspectrometry.Charge;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Indexes mgf files in parallel. The file is split in parts starting at begin
+ * ions tags, the parts are scanned on a thread pool and the results merged in
+ * the order of the file.
+ *
+ * @author Marc Vaudel
+ */
+public class MgfIndexer {
+
+    /**
+     * The size of the read buffers.
+     */
+    private static final int BUFFER_SIZE = 1 << 20;
+    /**
+     * The default minimal size of a part of the file.
+     */
+    public static final long MIN_PART_SIZE = 16L << 20;
+    /**
+     * The number of parts per thread.
+     */
+    private static final int PARTS_PER_THREAD = 4;
+    /**
+     * The interval in milliseconds at which the progress is updated.
+     */
+    private static final long PROGRESS_INTERVAL = 200;
+    /**
+     * The begin ions tag.
+     */
+    private static final byte[] BEGIN_IONS = getBytes("BEGIN IONS");
+    /**
+     * The end ions tag.
+     */
+    private static final byte[] END_IONS = getBytes("END IONS");
+    /**
+     * The title tag.
+     */
+    private static final byte[] TITLE = getBytes("TITLE");
+    /**
+     * The charge tag.
+     */
+    private static final byte[] CHARGE = getBytes("CHARGE");
+    /**
+     * The precursor m/z tag.
+     */
+    private static final byte[] PEPMASS = getBytes("PEPMASS");
+    /**
+     * The retention time tag.
+     */
+    private static final byte[] RTINSECONDS = getBytes("RTINSECONDS");
+
+    /**
+     * Empty default constructor.
+     */
+    public MgfIndexer() {
+    }
+
+    /**
+     * Returns the index of all spectra in the given mgf file.
+     *
+     * @param mgfFile the mgf file
+     * @param nThreads the number of threads to use
+     * @param waitingHandler a waiting handler showing the progress, can be
+     * null
+     *
+     * @return the index of all spectra
+     *
+     * @throws IOException exception thrown whenever an error occurs while
+     * reading the file
+     */
+    public static MgfIndex getIndex(File mgfFile, int nThreads, WaitingHandler waitingHandler) throws IOException {
+        return getIndex(mgfFile, nThreads, MIN_PART_SIZE, waitingHandler);
+    }
+
+    /**
+     * Returns the index of all spectra in the given mgf file.
+     *
+     * @param mgfFile the mgf file
+     * @param nThreads the number of threads to use
+     * @param minPartSize the minimal size in bytes of the parts of the file
+     * indexed separately
+     * @param waitingHandler a waiting handler showing the progress, can be
+     * null
+     *
+     * @return the index of all spectra
+     *
+     * @throws IOException exception thrown whenever an error occurs while
+     * reading the file
+     */
+    public static MgfIndex getIndex(File mgfFile, int nThreads, long minPartSize, WaitingHandler waitingHandler) throws IOException {
+
+        if (minPartSize <= 0) {
+            throw new IllegalArgumentException("The minimal part size should be a positive number.");
+        }
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+            waitingHandler.setMaxSecondaryProgressCounter(100);
+            waitingHandler.setSecondaryProgressCounter(0);
+        }
+
+        RandomAccessFile raf = new RandomAccessFile(mgfFile, "r");
+        ArrayList<Part> parts = new ArrayList<Part>();
+        try {
+            FileChannel channel = raf.getChannel();
+            long length = channel.size();
+            nThreads = Math.max(nThreads, 1);
+            int nParts = (int) Math.max(1, Math.min(PARTS_PER_THREAD * nThreads, length / minPartSize));
+
+            // split the file at begin ions tags
+            ArrayList<Long> boundaries = new ArrayList<Long>(nParts + 1);
+            boundaries.add(0L);
+            for (int i = 1; i < nParts; i++) {
+                long boundary = getSpectrumStart(channel, i * (length / nParts), length);
+                if (boundary > boundaries.get(boundaries.size() - 1) && boundary < length) {
+                    boundaries.add(boundary);
+                }
+            }
+            boundaries.add(length);
+
+            AtomicLong progress = new AtomicLong(0);
+            ExecutorService pool = Executors.newFixedThreadPool(Math.min(nThreads, boundaries.size() - 1));
+            ArrayList<Future<Part>> futures = new ArrayList<Future<Part>>(boundaries.size() - 1);
+            try {
+                for (int i = 0; i < boundaries.size() - 1; i++) {
+                    futures.add(pool.submit(new PartIndexer(channel, boundaries.get(i), boundaries.get(i + 1), progress, waitingHandler)));
+                }
+                long progressUnit = Math.max(length / 100, 1);
+                for (Future<Part> future : futures) {
+                    while (true) {
+                        try {
+                            parts.add(future.get(PROGRESS_INTERVAL, TimeUnit.MILLISECONDS));
+                            break;
+                        } catch (TimeoutException e) {
+                            if (waitingHandler != null) {
+                                waitingHandler.setSecondaryProgressCounter((int) (progress.get() / progressUnit));
+                            }
+                        }
+                    }
+                }
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                } else if (cause instanceof IllegalArgumentException) {
+                    throw (IllegalArgumentException) cause;
+                }
+                throw new IllegalArgumentException("An error occurred while indexing " + mgfFile.getName() + ".", cause);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while indexing " + mgfFile.getName() + ".");
+            } finally {
+                pool.shutdownNow();
+            }
+        } finally {
+            raf.close();
+        }
+
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+        }
+
+        return merge(mgfFile, parts, waitingHandler);
+    }
+
+    /**
+     * Merges the parts of the index in the order of the file. Duplicate
+     * spectrum titles are renamed by appending the number of the duplicate.
+     *
+     * @param mgfFile the mgf file
+     * @param parts the indexed parts in the order of the file
+     * @param waitingHandler a waiting handler where to report duplicate
+     * titles, can be null
+     *
+     * @return the index of the file
+     */
+    private static MgfIndex merge(File mgfFile, ArrayList<Part> parts, WaitingHandler waitingHandler) {
+
+        int nSpectra = 0;
+        int spectrumCount = 0;
+        double maxRT = -1, minRT = Double.MAX_VALUE, maxMz = -1, maxIntensity = 0;
+        int maxCharge = 0, maxPeakCount = 0;
+        boolean peakPicked = true;
+        boolean precursorChargesMissing = false;
+        for (Part part : parts) {
+            nSpectra += part.nSpectra;
+            spectrumCount += part.spectrumCount;
+            maxRT = Math.max(maxRT, part.maxRT);
+            minRT = Math.min(minRT, part.minRT);
+            maxMz = Math.max(maxMz, part.maxMz);
+            maxIntensity = Math.max(maxIntensity, part.maxIntensity);
+            maxCharge = Math.max(maxCharge, part.maxCharge);
+            maxPeakCount = Math.max(maxPeakCount, part.maxPeakCount);
+            peakPicked = peakPicked && part.peakPicked;
+            precursorChargesMissing = precursorChargesMissing || part.precursorChargesMissing;
+        }
+        if (minRT == Double.MAX_VALUE) {
+            minRT = 0;
+        }
+
+        String[] titles = new String[nSpectra];
+        long[] offsets = new long[nSpectra];
+        double[] precursorMzs = new double[nSpectra];
+        int[] precursorCharges = new int[nSpectra];
+        double[] precursorRts = new double[nSpectra];
+        int position = 0;
+        for (Part part : parts) {
+            System.arraycopy(part.offsets, 0, offsets, position, part.nSpectra);
+            System.arraycopy(part.precursorMzs, 0, precursorMzs, position, part.nSpectra);
+            System.arraycopy(part.precursorCharges, 0, precursorCharges, position, part.nSpectra);
+            System.arraycopy(part.precursorRts, 0, precursorRts, position, part.nSpectra);
+            for (String title : part.titles) {
+                titles[position++] = title;
+            }
+        }
+
+        HashSet<String> titlesSet = new HashSet<String>(2 * nSpectra);
+        HashMap<String, Integer> duplicateTitles = new HashMap<String, Integer>();
+        for (int i = 0; i < nSpectra; i++) {
+            String title = titles[i];
+            Integer nDuplicates = duplicateTitles.get(title);
+            if (nDuplicates != null || titlesSet.contains(title)) {
+                if (nDuplicates == null) {
+                    nDuplicates = 0;
+                    if (waitingHandler != null) {
+                        waitingHandler.appendReport("Warning: Spectrum title " + title + " is not unique in " + mgfFile.getName() + "!", true, true);
+                    }
+                }
+                duplicateTitles.put(title, ++nDuplicates);
+                title += "_" + nDuplicates;
+                titles[i] = title;
+            }
+            titlesSet.add(title);
+        }
+
+        return new MgfIndex(titles, duplicateTitles, offsets, precursorMzs, precursorCharges, precursorRts, mgfFile.getName(), minRT, maxRT,
+                maxMz, maxIntensity, maxCharge, maxPeakCount, peakPicked, precursorChargesMissing, mgfFile.lastModified(), spectrumCount);
+    }
+
+    /**
+     * Returns the position of the first begin ions line starting at or after
+     * the given position.
+     *
+     * @param channel the channel of the file
+     * @param position the position where to start looking
+     * @param length the length of the file
+     *
+     * @return the position of the first begin ions line, the length of the
+     * file if none
+     *
+     * @throws IOException exception thrown whenever an error occurs while
+     * reading the file
+     */
+    private static long getSpectrumStart(FileChannel channel, long position, long length) throws IOException {
+
+        // start at the beginning of the line containing the position
+        LineReader lineReader = new LineReader(channel, position - 1, length);
+        if (position > 0 && !lineReader.nextLine()) {
+            return length;
+        }
+        while (lineReader.nextLine()) {
+            if (lineReader.equals(BEGIN_IONS)) {
+                return lineReader.getLinePosition();
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Returns the bytes of a string, one byte per character.
+     *
+     * @param string the string
+     *
+     * @return the bytes of the string
+     */
+    private static byte[] getBytes(String string) {
+        byte[] bytes = new byte[string.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) string.charAt(i);
+        }
+        return bytes;
+    }
+
+    /**
+     * Reads the lines of a part of a file using positional reads.
+     */
+    private static class LineReader {
+
+        /**
+         * The channel of the file.
+         */
+        private final FileChannel channel;
+        /**
+         * The end of the part, lines starting at or after the end are not
+         * returned.
+         */
+        private final long end;
+        /**
+         * The buffer.
+         */
+        private byte[] buffer = new byte[BUFFER_SIZE];
+        /**
+         * The position in the file of the first byte of the buffer.
+         */
+        private long bufferPosition;
+        /**
+         * The number of bytes in the buffer.
+         */
+        private int bufferLength = 0;
+        /**
+         * The start of the next line in the buffer.
+         */
+        private int offset = 0;
+        /**
+         * The position in the buffer where to continue looking for a line
+         * end.
+         */
+        private int scan = 0;
+        /**
+         * Indicates whether the end of the file was reached.
+         */
+        private boolean endOfFile = false;
+        /**
+         * The start of the current line in the buffer.
+         */
+        int lineStart;
+        /**
+         * The end of the current line in the buffer, line break excluded.
+         */
+        int lineEnd;
+
+        /**
+         * Constructor.
+         *
+         * @param channel the channel of the file
+         * @param start the position of the first line
+         * @param end the end of the part
+         */
+        LineReader(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.bufferPosition = Math.max(start, 0);
+            this.end = end;
+        }
+
+        /**
+         * Moves to the next line.
+         *
+         * @return true if a line was found
+         *
+         * @throws IOException exception thrown whenever an error occurs while
+         * reading the file
+         */
+        boolean nextLine() throws IOException {
+            while (true) {
+                if (bufferPosition + offset >= end) {
+                    return false;
+                }
+                for (; scan < bufferLength; scan++) {
+                    if (buffer[scan] == '\n') {
+                        setLine(scan);
+                        offset = ++scan;
+                        return true;
+                    }
+                }
+                if (endOfFile) {
+                    if (offset < bufferLength) {
+                        setLine(bufferLength);
+                        offset = bufferLength;
+                        return true;
+                    }
+                    return false;
+                }
+                fill();
+            }
+        }
+
+        /**
+         * Sets the current line.
+         *
+         * @param lineBreak the position of the line break in the buffer
+         */
+        private void setLine(int lineBreak) {
+            lineStart = offset;
+            lineEnd = lineBreak;
+            if (lineEnd > lineStart && buffer[lineEnd - 1] == '\r') {
+                lineEnd--;
+            }
+        }
+
+        /**
+         * Reads more bytes from the file, keeping the bytes of the current
+         * line.
+         *
+         * @throws IOException exception thrown whenever an error occurs while
+         * reading the file
+         */
+        private void fill() throws IOException {
+            if (offset > 0) {
+                System.arraycopy(buffer, offset, buffer, 0, bufferLength - offset);
+                bufferPosition += offset;
+                bufferLength -= offset;
+                scan -= offset;
+                offset = 0;
+            }
+            if (bufferLength == buffer.length) {
+                buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+            }
+            int read = channel.read(ByteBuffer.wrap(buffer, bufferLength, buffer.length - bufferLength), bufferPosition + bufferLength);
+            if (read == -1) {
+                endOfFile = true;
+            } else {
+                bufferLength += read;
+            }
+        }
+
+        /**
+         * Returns the position in the file of the current line.
+         *
+         * @return the position in the file of the current line
+         */
+        long getLinePosition() {
+            return bufferPosition + lineStart;
+        }
+
+        /**
+         * Returns the position in the file of the next line.
+         *
+         * @return the position in the file of the next line
+         */
+        long getNextLinePosition() {
+            return bufferPosition + offset;
+        }
+
+        /**
+         * Indicates whether the current line is equal to the given bytes.
+         *
+         * @param bytes the bytes
+         *
+         * @return a boolean indicating whether the current line is equal to
+         * the given bytes
+         */
+        boolean equals(byte[] bytes) {
+            return lineEnd - lineStart == bytes.length && startsWith(bytes);
+        }
+
+        /**
+         * Indicates whether the current line starts with the given bytes.
+         *
+         * @param bytes the bytes
+         *
+         * @return a boolean indicating whether the current line starts with
+         * the given bytes
+         */
+        boolean startsWith(byte[] bytes) {
+            if (lineEnd - lineStart < bytes.length) {
+                return false;
+            }
+            for (int i = 0; i < bytes.length; i++) {
+                if (buffer[lineStart + i] != bytes[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Returns the current line as string, one character per byte.
+         *
+         * @return the current line
+         */
+        String getLine() {
+            char[] chars = new char[lineEnd - lineStart];
+            for (int i = lineStart; i < lineEnd; i++) {
+                chars[i - lineStart] = (char) (buffer[i] & 0xFF);
+            }
+            return new String(chars);
+        }
+
+        /**
+         * Returns the intensity of the current line if it is a peak line: NaN
+         * if the line is not a peak, 0 if the intensity is zero, 1 otherwise.
+         * Like when splitting the line on white spaces, the intensity is the
+         * second field and the first field is empty if the line starts with a
+         * white space.
+         *
+         * @return NaN if the line is not a peak, 0 if the intensity is zero, 1
+         * otherwise
+         */
+        double getPeakIntensity() {
+            int i = lineStart;
+            while (i < lineEnd && !isWhiteSpace(buffer[i])) {
+                i++;
+            }
+            while (i < lineEnd && isWhiteSpace(buffer[i])) {
+                i++;
+            }
+            int start = i;
+            while (i < lineEnd && !isWhiteSpace(buffer[i])) {
+                i++;
+            }
+            int end = i;
+            if (start == end) {
+                return Double.NaN;
+            }
+
+            // simple decimal numbers
+            int j = start;
+            if (buffer[j] == '-' || buffer[j] == '+') {
+                j++;
+            }
+            boolean digits = false, zero = true, point = false;
+            for (; j < end; j++) {
+                byte b = buffer[j];
+                if (b >= '0' && b <= '9') {
+                    digits = true;
+                    zero = zero && b == '0';
+                } else if (b == '.' && !point) {
+                    point = true;
+                } else {
+                    break;
+                }
+            }
+            if (digits && j < end && (buffer[j] == 'e' || buffer[j] == 'E')) {
+                int k = j + 1;
+                if (k < end && (buffer[k] == '-' || buffer[k] == '+')) {
+                    k++;
+                }
+                int exponentStart = k;
+                while (k < end && buffer[k] >= '0' && buffer[k] <= '9') {
+                    k++;
+                }
+                if (k > exponentStart) {
+                    j = k;
+                }
+            }
+            if (digits && j == end) {
+                return zero ? 0 : 1;
+            }
+
+            // other formats supported by Java
+            char[] chars = new char[end - start];
+            for (int k = start; k < end; k++) {
+                chars[k - start] = (char) (buffer[k] & 0xFF);
+            }
+            try {
+                return Double.parseDouble(new String(chars)) == 0 ? 0 : 1;
+            } catch (NumberFormatException e) {
+                return Double.NaN;
+            }
+        }
+
+        /**
+         * Indicates whether the given byte is a white space.
+         *
+         * @param b the byte
+         *
+         * @return a boolean indicating whether the given byte is a white space
+         */
+        private static boolean isWhiteSpace(byte b) {
+            return b == ' ' || b == '\t' || b == '\f' || b == 0x0B;
+        }
+    }
+
+    /**
+     * The index of a part of the file.
+     */
+    private static class Part {
+
+        /**
+         * The number of spectra with a title.
+         */
+        int nSpectra = 0;
+        /**
+         * The titles of the spectra.
+         */
+        ArrayList<String> titles = new ArrayList<String>();
+        /**
+         * The index of the spectra in the file.
+         */
+        long[] offsets = new long[256];
+        /**
+         * The precursor m/z of the spectra.
+         */
+        double[] precursorMzs = new double[256];
+        /**
+         * The first precursor charge of the spectra.
+         */
+        int[] precursorCharges = new int[256];
+        /**
+         * The precursor retention time of the spectra.
+         */
+        double[] precursorRts = new double[256];
+        /**
+         * The number of begin ions tags.
+         */
+        int spectrumCount = 0;
+        /**
+         * The maximal retention time.
+         */
+        double maxRT = -1;
+        /**
+         * The minimal retention time.
+         */
+        double minRT = Double.MAX_VALUE;
+        /**
+         * The maximal precursor m/z.
+         */
+        double maxMz = -1;
+        /**
+         * The maximal precursor intensity.
+         */
+        double maxIntensity = 0;
+        /**
+         * The maximal precursor charge.
+         */
+        int maxCharge = 0;
+        /**
+         * The maximal peak count.
+         */
+        int maxPeakCount = 0;
+        /**
+         * Indicates whether all peaks have a non-zero intensity.
+         */
+        boolean peakPicked = true;
+        /**
+         * Indicates whether a spectrum is missing the charge tag.
+         */
+        boolean precursorChargesMissing = false;
+
+        /**
+         * Adds a spectrum.
+         *
+         * @param title the title of the spectrum
+         * @param offset the index of the spectrum in the file
+         * @param precursorMz the precursor m/z
+         * @param precursorCharge the precursor charge
+         * @param precursorRt the precursor retention time
+         */
+        void add(String title, long offset, double precursorMz, int precursorCharge, double precursorRt) {
+            if (nSpectra == offsets.length) {
+                int newLength = 2 * nSpectra;
+                offsets = Arrays.copyOf(offsets, newLength);
+                precursorMzs = Arrays.copyOf(precursorMzs, newLength);
+                precursorCharges = Arrays.copyOf(precursorCharges, newLength);
+                precursorRts = Arrays.copyOf(precursorRts, newLength);
+            }
+            titles.add(title);
+            offsets[nSpectra] = offset;
+            precursorMzs[nSpectra] = precursorMz;
+            precursorCharges[nSpectra] = precursorCharge;
+            precursorRts[nSpectra] = precursorRt;
+            nSpectra++;
+        }
+    }
+
+    /**
+     * Indexes a part of the file.
+     */
+    private static class PartIndexer implements Callable<Part> {
+
+        /**
+         * The channel of the file.
+         */
+        private final FileChannel channel;
+        /**
+         * The start of the part.
+         */
+        private final long start;
+        /**
+         * The end of the part.
+         */
+        private final long end;
+        /**
+         * The number of bytes indexed by all parts.
+         */
+        private final AtomicLong progress;
+        /**
+         * The waiting handler, used to check whether the indexing was
+         * canceled.
+         */
+        private final WaitingHandler waitingHandler;
+
+        /**
+         * Constructor.
+         *
+         * @param channel the channel of the file
+         * @param start the start of the part
+         * @param end the end of the part
+         * @param progress the number of bytes indexed by all parts
+         * @param waitingHandler the waiting handler, can be null
+         */
+        PartIndexer(FileChannel channel, long start, long end, AtomicLong progress, WaitingHandler waitingHandler) {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+            this.progress = progress;
+            this.waitingHandler = waitingHandler;
+        }
+
+        @Override
+        public Part call() throws IOException {
+
+            Part part = new Part();
+            LineReader lineReader = new LineReader(channel, start, end);
+            long reported = start;
+
+            boolean insideSpectrum = false;
+            boolean chargeTagFound = false;
+            long currentIndex = 0;
+            int peakCount = 0;
+            String title = null;
+            int spectrumIndex = -1;
+            double precursorMz = Double.NaN;
+            int precursorCharge = 0;
+            double precursorRt = Double.NaN;
+
+            while (lineReader.nextLine()) {
+
+                if (lineReader.equals(BEGIN_IONS)) {
+                    insideSpectrum = true;
+                    chargeTagFound = false;
+                    currentIndex = lineReader.getNextLinePosition();
+                    part.spectrumCount++;
+                    peakCount = 0;
+                    spectrumIndex = -1;
+                    precursorMz = Double.NaN;
+                    precursorCharge = 0;
+                    precursorRt = Double.NaN;
+                    progress.addAndGet(currentIndex - reported);
+                    reported = currentIndex;
+                    if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                        break;
+                    }
+                } else if (lineReader.startsWith(TITLE)) {
+                    String line = lineReader.getLine();
+                    title = line.substring(line.indexOf('=') + 1);
+                    if (title.indexOf('%') >= 0 || title.indexOf('+') >= 0) {
+                        try {
+                            title = URLDecoder.decode(title, "utf-8");
+                        } catch (UnsupportedEncodingException e) {
+                            throw new IllegalArgumentException("UTF-8 encoding not supported.", e);
+                        }
+                    }
+                    spectrumIndex = part.nSpectra;
+                    part.add(title, currentIndex, precursorMz, precursorCharge, precursorRt);
+                } else if (lineReader.startsWith(CHARGE)) {
+                    ArrayList<Charge> charges = MgfReader.parseCharges(lineReader.getLine());
+                    for (Charge charge : charges) {
+                        if (charge.value > part.maxCharge) {
+                            part.maxCharge = charge.value;
+                        }
+                    }
+                    if (insideSpectrum) {
+                        precursorCharge = charges.get(0).value;
+                        if (spectrumIndex != -1) {
+                            part.precursorCharges[spectrumIndex] = precursorCharge;
+                        }
+                    }
+                    chargeTagFound = true;
+                } else if (lineReader.startsWith(PEPMASS)) {
+                    String line = lineReader.getLine();
+                    String[] values = line.substring(line.indexOf("=") + 1).split("\\s");
+                    precursorMz = Double.parseDouble(values[0]);
+                    if (precursorMz > part.maxMz) {
+                        part.maxMz = precursorMz;
+                    }
+                    if (values.length > 1) {
+                        double precursorIntensity = Double.parseDouble(values[1]);
+                        if (precursorIntensity > part.maxIntensity) {
+                            part.maxIntensity = precursorIntensity;
+                        }
+                    }
+                    if (spectrumIndex != -1) {
+                        part.precursorMzs[spectrumIndex] = precursorMz;
+                    }
+                } else if (lineReader.startsWith(RTINSECONDS)) {
+                    String line = lineReader.getLine();
+                    String rtInput = "";
+                    try {
+                        rtInput = line.substring(line.indexOf('=') + 1);
+                        String[] rtWindow = rtInput.split("-");
+                        if (rtWindow.length == 1) {
+                            String tempRt = rtWindow[0];
+                            // possible fix for values like RTINSECONDS=PT121.250000S
+                            if (tempRt.startsWith("PT") && tempRt.endsWith("S")) {
+                                tempRt = tempRt.substring(2, tempRt.length() - 1);
+                            }
+                            precursorRt = Double.parseDouble(tempRt);
+                            part.maxRT = Math.max(part.maxRT, precursorRt);
+                            part.minRT = Math.min(part.minRT, precursorRt);
+                        } else if (rtWindow.length == 2 && !rtWindow[0].equals("")) {
+                            double rt1 = Double.parseDouble(rtWindow[0]);
+                            double rt2 = Double.parseDouble(rtWindow[1]);
+                            part.maxRT = Math.max(part.maxRT, Math.max(rt1, rt2));
+                            part.minRT = Math.min(part.minRT, Math.min(rt1, rt2));
+                            precursorRt = (rt1 + rt2) / 2;
+                        }
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("Cannot parse retention time: " + rtInput);
+                    }
+                    if (spectrumIndex != -1) {
+                        part.precursorRts[spectrumIndex] = precursorRt;
+                    }
+                } else if (lineReader.startsWith(END_IONS)) {
+                    insideSpectrum = false;
+                    if (title != null && peakCount > part.maxPeakCount) {
+                        part.maxPeakCount = peakCount;
+                    }
+                    title = null;
+                    if (!chargeTagFound) {
+                        part.precursorChargesMissing = true;
+                    }
+                } else if (insideSpectrum && lineReader.lineEnd > lineReader.lineStart) {
+                    double intensity = lineReader.getPeakIntensity();
+                    if (!Double.isNaN(intensity)) {
+                        if (intensity == 0) {
+                            part.peakPicked = false;
+                        }
+                        peakCount++;
+                    }
+                }
+            }
+
+            progress.addAndGet(end - reported);
+
+            return part;
+        }
+    }
+}
@@ -3,7 +3,7 @@ package com.compomics.util.experiment.io.massspectrometry.export;
 import com.compomics.util.experiment.io.massspectrometry.MgfFileIterator;
 import com.compomics.util.experiment.massspectrometry.Charge;
 import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
-import com.compomics.util.experiment.massspectrometry.Peak;
+import com.compomics.util.experiment.massspectrometry.PeakArray;
 import com.compomics.util.experiment.massspectrometry.Precursor;
 import java.io.BufferedWriter;
 import java.io.File;
@@ -11,7 +11,6 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashMap;
 
 /**
  * This converter writes spectrum files in MS2 format.
@@ -114,10 +113,9 @@ public class Ms2Exporter {
             bw.newLine();
         }
 
-        HashMap<Double, Peak> peakMap = spectrum.getPeakMap();
-        for (double mz : spectrum.getOrderedMzValues()) {
-            Peak peak = peakMap.get(mz);
-            bw.write(peak.mz + " " + peak.intensity);
+        PeakArray peaks = spectrum.getPeaks();
+        for (int i = 0; i < peaks.size(); i++) {
+            bw.write(peaks.getMz(i) + " " + peaks.getIntensity(i));
             bw.newLine();
         }
 
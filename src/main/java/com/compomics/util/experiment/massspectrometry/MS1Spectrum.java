@@ -30,14 +30,25 @@ public class MS1Spectrum extends Spectrum {
      */
     public MS1Spectrum(String fileName, String spectrumTitle, double scanStartTime, HashMap<Double, Peak> spectrum) {
         this.spectrumTitle = spectrumTitle;
-        this.peakList = spectrum;
+        this.peaks = PeakArray.fromPeaks(spectrum.values());
         this.fileName = fileName;
         this.scanStartTime = scanStartTime;
         this.level = 1;
     }
 
-    @Override
-    public void removePeakList() {
-        this.peakList.clear();
+    /**
+     * Constructor for an MS1 spectrum.
+     *
+     * @param spectrumTitle     title of the spectrum
+     * @param peaks             the peaks
+     * @param fileName          name of the file
+     * @param scanStartTime     scan start time
+     */
+    public MS1Spectrum(String fileName, String spectrumTitle, double scanStartTime, PeakArray peaks) {
+        this.spectrumTitle = spectrumTitle;
+        this.peaks = peaks;
+        this.fileName = fileName;
+        this.scanStartTime = scanStartTime;
+        this.level = 1;
     }
 }
@@ -55,7 +55,24 @@ public class MSnSpectrum extends Spectrum {
         this.level = level;
         this.precursor = precursor;
         this.spectrumTitle = spectrumTitle;
-        this.peakList = peakMap;
+        this.peaks = PeakArray.fromPeaks(peakMap.values());
+        this.fileName = fileName;
+    }
+
+    /**
+     * Constructor for the spectrum.
+     *
+     * @param level MS level
+     * @param precursor precursor
+     * @param spectrumTitle spectrum title
+     * @param peaks the peaks
+     * @param fileName file name
+     */
+    public MSnSpectrum(int level, Precursor precursor, String spectrumTitle, PeakArray peaks, String fileName) {
+        this.level = level;
+        this.precursor = precursor;
+        this.spectrumTitle = spectrumTitle;
+        this.peaks = peaks;
         this.fileName = fileName;
     }
 
@@ -73,7 +90,7 @@ public class MSnSpectrum extends Spectrum {
         this.level = level;
         this.precursor = precursor;
         this.spectrumTitle = spectrumTitle;
-        this.peakList = peakMap;
+        this.peaks = PeakArray.fromPeaks(peakMap.values());
         this.fileName = fileName;
         this.scanStartTime = scanStartTime;
     }
@@ -157,15 +174,8 @@ public class MSnSpectrum extends Spectrum {
             results.append("SCANS=").append(scanNumber).append(lineBreak);
         }
 
-        // add the values to a tree map to get them sorted in mz    
-        TreeMap<Double, Double> sortedPeakList = new TreeMap<Double, Double>();
-
-        for (Peak peak : peakList.values()) {
-            sortedPeakList.put(peak.mz, peak.intensity);
-        }
-
-        for (Map.Entry<Double, Double> entry : sortedPeakList.entrySet()) {
-            results.append(entry.getKey()).append(" ").append(entry.getValue()).append(lineBreak);
+        for (int i = 0; i < peaks.size(); i++) {
+            results.append(peaks.getMz(i)).append(" ").append(peaks.getIntensity(i)).append(lineBreak);
         }
 
         results.append("END IONS").append(lineBreak).append(lineBreak);
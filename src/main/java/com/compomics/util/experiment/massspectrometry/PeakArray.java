@@ -0,0 +1,302 @@
+package com.compomics.util.experiment.massspectrometry;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * Immutable list of peaks stored in two primitive arrays sorted by increasing
+ * m/z. Peaks with the same m/z are not allowed, when building the array from
+ * peaks with identical m/z only the last one is retained, as when indexing
+ * the peaks by m/z in a map.
+ *
+ * @author Marc Vaudel
+ */
+public final class PeakArray implements Serializable {
+
+    /**
+     * The version UID for Serialization/Deserialization compatibility.
+     */
+    static final long serialVersionUID = 3254735297845126473L;
+    /**
+     * An empty peak array.
+     */
+    public static final PeakArray EMPTY = new PeakArray(new double[0], new double[0]);
+    /**
+     * The m/z of the peaks in increasing order.
+     */
+    private final double[] mz;
+    /**
+     * The intensity of the peaks.
+     */
+    private final double[] intensity;
+
+    /**
+     * Constructor. The arrays are used as provided and must be sorted by m/z
+     * without duplicate.
+     *
+     * @param mz the m/z of the peaks in increasing order
+     * @param intensity the intensity of the peaks
+     */
+    private PeakArray(double[] mz, double[] intensity) {
+        this.mz = mz;
+        this.intensity = intensity;
+    }
+
+    /**
+     * Returns a peak array containing the first peaks of the given arrays.
+     * The values are copied and sorted by m/z if needed.
+     *
+     * @param mz the m/z of the peaks
+     * @param intensity the intensity of the peaks
+     * @param nPeaks the number of peaks to take from the arrays
+     *
+     * @return a peak array containing the given peaks
+     */
+    public static PeakArray fromArrays(double[] mz, double[] intensity, int nPeaks) {
+
+        if (nPeaks > mz.length || nPeaks > intensity.length) {
+            throw new IllegalArgumentException("Attempting to create a peak list of " + nPeaks + " peaks from arrays of length " + mz.length + " and " + intensity.length + ".");
+        }
+        if (nPeaks == 0) {
+            return EMPTY;
+        }
+
+        boolean sorted = true;
+        for (int i = 1; i < nPeaks; i++) {
+            if (mz[i] <= mz[i - 1]) {
+                sorted = false;
+                break;
+            }
+        }
+        if (sorted) {
+            return new PeakArray(Arrays.copyOf(mz, nPeaks), Arrays.copyOf(intensity, nPeaks));
+        }
+
+        // sort the indexes, the sort is stable so that the last duplicate comes last
+        final double[] unsortedMz = mz;
+        Integer[] order = new Integer[nPeaks];
+        for (int i = 0; i < nPeaks; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return Double.compare(unsortedMz[o1], unsortedMz[o2]);
+            }
+        });
+
+        double[] sortedMz = new double[nPeaks];
+        double[] sortedIntensity = new double[nPeaks];
+        int size = 0;
+        for (int i = 0; i < nPeaks; i++) {
+            int index = order[i];
+            if (size > 0 && sortedMz[size - 1] == mz[index]) {
+                size--;
+            }
+            sortedMz[size] = mz[index];
+            sortedIntensity[size] = intensity[index];
+            size++;
+        }
+        if (size < nPeaks) {
+            sortedMz = Arrays.copyOf(sortedMz, size);
+            sortedIntensity = Arrays.copyOf(sortedIntensity, size);
+        }
+        return new PeakArray(sortedMz, sortedIntensity);
+    }
+
+    /**
+     * Returns a peak array containing the given peaks.
+     *
+     * @param mz the m/z of the peaks
+     * @param intensity the intensity of the peaks
+     *
+     * @return a peak array containing the given peaks
+     */
+    public static PeakArray fromArrays(double[] mz, double[] intensity) {
+        if (mz.length != intensity.length) {
+            throw new IllegalArgumentException("The m/z and intensity arrays have different lengths: " + mz.length + " and " + intensity.length + ".");
+        }
+        return fromArrays(mz, intensity, mz.length);
+    }
+
+    /**
+     * Returns a peak array containing the given peaks.
+     *
+     * @param peaks the peaks
+     *
+     * @return a peak array containing the given peaks
+     */
+    public static PeakArray fromPeaks(Collection<Peak> peaks) {
+        double[] mz = new double[peaks.size()];
+        double[] intensity = new double[peaks.size()];
+        int i = 0;
+        for (Peak peak : peaks) {
+            mz[i] = peak.mz;
+            intensity[i] = peak.intensity;
+            i++;
+        }
+        return fromArrays(mz, intensity, i);
+    }
+
+    /**
+     * Returns a peak array with the same m/z values and the given
+     * intensities.
+     *
+     * @param newIntensities the new intensities
+     *
+     * @return a peak array with the same m/z values and the given intensities
+     */
+    public PeakArray withIntensities(double[] newIntensities) {
+        if (newIntensities.length != mz.length) {
+            throw new IllegalArgumentException("Attempting to set " + newIntensities.length + " intensities to " + mz.length + " peaks.");
+        }
+        return new PeakArray(mz, newIntensities.clone());
+    }
+
+    /**
+     * Returns the number of peaks.
+     *
+     * @return the number of peaks
+     */
+    public int size() {
+        return mz.length;
+    }
+
+    /**
+     * Returns the m/z of the peak at the given index.
+     *
+     * @param index the index of the peak
+     *
+     * @return the m/z of the peak
+     */
+    public double getMz(int index) {
+        return mz[index];
+    }
+
+    /**
+     * Returns the intensity of the peak at the given index.
+     *
+     * @param index the index of the peak
+     *
+     * @return the intensity of the peak
+     */
+    public double getIntensity(int index) {
+        return intensity[index];
+    }
+
+    /**
+     * Returns the m/z of the peaks in increasing order. The array is backing
+     * this peak list and must not be modified.
+     *
+     * @return the m/z of the peaks
+     */
+    public double[] getMzArray() {
+        return mz;
+    }
+
+    /**
+     * Returns the intensities of the peaks in increasing m/z order. The array
+     * is backing this peak list and must not be modified.
+     *
+     * @return the intensities of the peaks
+     */
+    public double[] getIntensityArray() {
+        return intensity;
+    }
+
+    /**
+     * Returns the index of the peak at the given m/z.
+     *
+     * @param peakMz the m/z of the peak
+     *
+     * @return the index of the peak, -1 if not found
+     */
+    public int indexOf(double peakMz) {
+        int index = Arrays.binarySearch(mz, peakMz);
+        return index >= 0 ? index : -1;
+    }
+
+    /**
+     * Returns the index of the first peak with an m/z greater than or equal
+     * to the given value.
+     *
+     * @param minMz the minimal m/z
+     *
+     * @return the index of the first peak with an m/z greater than or equal
+     * to the given value, the number of peaks if none
+     */
+    public int getLowerBound(double minMz) {
+        int low = 0;
+        int high = mz.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (mz[middle] < minMz) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the index of the first peak with an m/z strictly greater than
+     * the given value.
+     *
+     * @param maxMz the maximal m/z
+     *
+     * @return the index of the first peak with an m/z strictly greater than
+     * the given value, the number of peaks if none
+     */
+    public int getUpperBound(double maxMz) {
+        int low = 0;
+        int high = mz.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (mz[middle] <= maxMz) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the index of the most intense peak with an m/z within the given
+     * window, inclusive.
+     *
+     * @param minMz the minimal m/z
+     * @param maxMz the maximal m/z
+     *
+     * @return the index of the most intense peak, -1 if no peak is found
+     */
+    public int getMostIntensePeak(double minMz, double maxMz) {
+        int result = -1;
+        double maxIntensity = -1;
+        for (int i = getLowerBound(minMz); i < mz.length && mz[i] <= maxMz; i++) {
+            if (intensity[i] > maxIntensity) {
+                maxIntensity = intensity[i];
+                result = i;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the peaks in a map indexed by m/z. This method creates a new
+     * map and new peaks at every call, it should only be used by legacy code.
+     *
+     * @return the peaks in a map indexed by m/z
+     */
+    public HashMap<Double, Peak> getPeakMap() {
+        HashMap<Double, Peak> peakMap = new HashMap<Double, Peak>(2 * mz.length);
+        for (int i = 0; i < mz.length; i++) {
+            peakMap.put(mz[i], new Peak(mz[i], intensity[i]));
+        }
+        return peakMap;
+    }
+}
@@ -45,10 +45,21 @@ public class SimpleNoiseDistribution {
      * @throws MathException thrown if a math error occurs
      */
     public SimpleNoiseDistribution(HashMap<Double, Peak> peakList) throws MathException {
+        this(PeakArray.fromPeaks(peakList.values()).getIntensityArray());
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param intensities the intensities of the peaks
+     * 
+     * @throws MathException thrown if a math error occurs
+     */
+    public SimpleNoiseDistribution(double[] intensities) throws MathException {
 
-        ArrayList<Double> intensitiesLog = new ArrayList<Double>(peakList.size());
-        for (Peak peak : peakList.values()) {
-            double log = FastMath.log10(peak.intensity);
+        ArrayList<Double> intensitiesLog = new ArrayList<Double>(intensities.length);
+        for (double intensity : intensities) {
+            double log = FastMath.log10(intensity);
             intensitiesLog.add(log);
         }
         Collections.sort(intensitiesLog);
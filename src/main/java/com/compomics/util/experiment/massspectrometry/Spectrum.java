@@ -4,6 +4,8 @@ import com.compomics.util.experiment.identification.matches.IonMatch;
 import com.compomics.util.experiment.identification.spectrum_annotation.AnnotationSettings;
 import com.compomics.util.experiment.personalization.ExperimentObject;
 import com.compomics.util.math.BasicMathFunctions;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -37,9 +39,16 @@ public abstract class Spectrum extends ExperimentObject {
      */
     protected int level;
     /**
-     * mz indexed Peak list.
+     * The peaks sorted by m/z.
      */
-    protected HashMap<Double, Peak> peakList;
+    protected PeakArray peaks = PeakArray.EMPTY;
+    /**
+     * Mz indexed Peak map, only used to read spectra serialized before the
+     * peaks were stored in a PeakArray.
+     *
+     * @deprecated use the peaks attribute instead
+     */
+    private HashMap<Double, Peak> peakList = null;
     /**
      * Intensity indexed Peak map.
      */
@@ -61,33 +70,16 @@ public abstract class Spectrum extends ExperimentObject {
      * The peak list as an array directly plottable by JFreeChart.
      */
     private double[][] jFreePeakList = null;
-    /**
-     * The mz values as array. Null until set by the getter.
-     */
-    private double[] mzValuesAsArray = null;
-    /**
-     * The mz values sorted in acceding order as array. Null until set by the
-     * getter.
-     */
-    private double[] mzValuesOrderedAsArray = null;
     /**
      * The peak list as an array list formatted as text, e.g. [[303.17334
      * 3181.14],[318.14542 37971.93], ... ].
      */
     private String peakListAsString = null;
-    /**
-     * The intensity values as array. Null until set by the getter.
-     */
-    private double[] intensityValuesAsArray = null;
     /**
      * The intensity values as array normalized against the most intense peak.
      * Null until set by the getter.
      */
     private double[] intensityValuesNormaizedAsArray = null; // @TODO: correct typo
-    /**
-     * The mz and intensity values as array. Null until set by the getter.
-     */
-    private double[][] mzAndIntensityAsArray = null;
     /**
      * The total intensity.
      */
@@ -96,14 +88,6 @@ public abstract class Spectrum extends ExperimentObject {
      * The maximal intensity.
      */
     private Double maxIntensity;
-    /**
-     * The maximal m/z.
-     */
-    private Double maxMz;
-    /**
-     * The minimal m/z.
-     */
-    private Double minMz;
     /**
      * Mutex for the setting of the attributes in cache.
      */
@@ -202,15 +186,8 @@ public abstract class Spectrum extends ExperimentObject {
         if (jFreePeakList == null) {
             mutex.acquire();
             if (jFreePeakList == null) {
-                double[] mz = new double[peakList.size()];
-                double[] intensity = new double[peakList.size()];
-                int cpt = 0;
-                for (Peak currentPeak : peakList.values()) {
-                    mz[cpt] = currentPeak.mz;
-                    intensity[cpt] = currentPeak.intensity;
-                    cpt++;
-                }
-
+                double[] mz = peaks.getMzArray();
+                double[] intensity = peaks.getIntensityArray();
                 jFreePeakList = new double[6][mz.length];
                 jFreePeakList[0] = mz;
                 jFreePeakList[1] = mz;
@@ -225,25 +202,38 @@ public abstract class Spectrum extends ExperimentObject {
     }
 
     /**
-     * Returns a peak map where peaks are indexed by their m/z.
+     * Returns the peaks of the spectrum sorted by m/z.
+     *
+     * @return the peaks of the spectrum
+     */
+    public PeakArray getPeaks() {
+        return peaks;
+    }
+
+    /**
+     * Returns a peak map where peaks are indexed by their m/z. The map is
+     * created at every call and changes to the map are not reflected in the
+     * spectrum, it should only be used by legacy code.
      *
      * @return a peak map
      */
     public HashMap<Double, Peak> getPeakMap() {
-        return peakList;
+        return peaks.getPeakMap();
     }
 
     /**
-     * Adds a peak to the spectrum peak list.
+     * Adds a peak to the spectrum peak list. The peak list is copied at every
+     * call, use setPeaks to add multiple peaks.
      *
      * @param aPeak the peak to add
      */
     public synchronized void addPeak(Peak aPeak) {
-        if (peakList == null) {
-            peakList = new HashMap<Double, Peak>();
-        }
-        this.peakList.put(aPeak.mz, aPeak);
-        resetSavedData();
+        int nPeaks = peaks.size();
+        double[] mz = Arrays.copyOf(peaks.getMzArray(), nPeaks + 1);
+        double[] intensity = Arrays.copyOf(peaks.getIntensityArray(), nPeaks + 1);
+        mz[nPeaks] = aPeak.mz;
+        intensity[nPeaks] = aPeak.intensity;
+        setPeaks(PeakArray.fromArrays(mz, intensity));
     }
 
     /**
@@ -252,18 +242,16 @@ public abstract class Spectrum extends ExperimentObject {
      * @param peaks the peaks to set
      */
     public synchronized void setPeaks(ArrayList<Peak> peaks) {
+        setPeaks(PeakArray.fromPeaks(peaks));
+    }
 
-        if (peakList != null) {
-            this.peakList.clear();
-        } else {
-            peakList = new HashMap<Double, Peak>();
-        }
-
-        for (Peak p : peaks) {
-            double mz = p.mz;
-            peakList.put(mz, p);
-        }
-
+    /**
+     * Set the peaks.
+     *
+     * @param peaks the peaks to set
+     */
+    public synchronized void setPeaks(PeakArray peaks) {
+        this.peaks = peaks;
         resetSavedData();
     }
 
@@ -313,12 +301,13 @@ public abstract class Spectrum extends ExperimentObject {
     }
 
     /**
-     * Returns the peak list.
+     * Returns the peak list. The peaks are created at every call, this method
+     * should only be used by legacy code.
      *
      * @return the peak list
      */
     public Collection<Peak> getPeakList() {
-        return peakList.values();
+        return getPeakMap().values();
     }
 
     /**
@@ -327,8 +316,7 @@ public abstract class Spectrum extends ExperimentObject {
      * @param peakList HashSet of peaks containing the peaks of the spectrum
      */
     public synchronized void setPeakList(HashMap<Double, Peak> peakList) {
-        this.peakList = peakList;
-        resetSavedData();
+        setPeaks(PeakArray.fromPeaks(peakList.values()));
     }
 
     /**
@@ -344,24 +332,21 @@ public abstract class Spectrum extends ExperimentObject {
 
         if (peakListAsString == null) {
 
-            double[] mzValues = getOrderedMzValues();
             mutex.acquire();
 
             StringBuilder sb = new StringBuilder();
             sb.append("[");
 
-            for (double mzValue : mzValues) {
+            for (int i = 0; i < peaks.size(); i++) {
 
                 if (sb.length() > 1) {
                     sb.append(",");
                 }
 
-                Peak currentPeak = peakList.get(mzValue);
-
                 sb.append("[");
-                sb.append(currentPeak.mz);
+                sb.append(peaks.getMz(i));
                 sb.append(",");
-                sb.append(currentPeak.intensity);
+                sb.append(peaks.getIntensity(i));
                 sb.append("]");
             }
 
@@ -397,14 +382,12 @@ public abstract class Spectrum extends ExperimentObject {
      * consumption of the model.
      */
     public synchronized void removePeakList() {
-        if (peakList != null) {
-            peakList.clear();
-        }
+        setPeaks(PeakArray.EMPTY);
     }
 
     /**
-     * Returns the mz values as an array. Note: the array is not necessarily
-     * ordered.
+     * Returns the mz values as an array in increasing order. The array must
+     * not be modified.
      *
      * @return the mz values as an array
      *
@@ -412,55 +395,35 @@ public abstract class Spectrum extends ExperimentObject {
      * interrupted
      */
     public double[] getMzValuesAsArray() throws InterruptedException {
-
-        if (mzValuesAsArray == null) {
-            mutex.acquire();
-            if (mzValuesAsArray == null) {
-                mzValuesAsArray = new double[peakList.size()];
-                int counter = 0;
-                for (double currentMz : peakList.keySet()) {
-                    mzValuesAsArray[counter++] = currentMz;
-                }
-            }
-            mutex.release();
-        }
-
-        return mzValuesAsArray;
+        return peaks.getMzArray();
     }
 
     /**
-     * Returns a list of the m/z values sorted in ascending order.
+     * Returns a list of the m/z values sorted in ascending order. The array
+     * must not be modified.
      *
      * @return a list of the m/z values sorted in ascending order
      *
-     * @throws java.lang.InterruptedException thrown if the thread is
+     * @throws java.lang.InterruptedException exception thrown if the thread is
      * interrupted
      */
     public double[] getOrderedMzValues() throws InterruptedException {
-        if (mzValuesOrderedAsArray == null) {
-            getMzValuesAsArray();
-            if (mzValuesOrderedAsArray == null) {
-                mutex.acquire();
-                mzValuesOrderedAsArray = mzValuesAsArray.clone();
-                Arrays.sort(mzValuesOrderedAsArray);
-                mutex.release();
-            }
-        }
-        return mzValuesOrderedAsArray;
+        return peaks.getMzArray();
     }
 
     /**
-     * Setter for the intensityValuesAsArray.
+     * Setter for the intensityValuesAsArray. The array must contain the
+     * intensities of the peaks in increasing m/z order.
      *
      * @param intensityValuesAsArray the intensity values array
      */
     public synchronized void setIntensityValuesAsArray(double[] intensityValuesAsArray) {
-        this.intensityValuesAsArray = intensityValuesAsArray;
-        removePeakList();
+        setPeaks(peaks.withIntensities(intensityValuesAsArray));
     }
 
     /**
-     * Returns the intensity values as an array.
+     * Returns the intensity values as an array in increasing m/z order. The
+     * array must not be modified.
      *
      * @return the intensity values as an array
      *
@@ -468,20 +431,7 @@ public abstract class Spectrum extends ExperimentObject {
      * interrupted
      */
     public double[] getIntensityValuesAsArray() throws InterruptedException {
-
-        if (intensityValuesAsArray == null || (intensityValuesAsArray.length != peakList.size())) {
-            mutex.acquire();
-            if (intensityValuesAsArray == null || (intensityValuesAsArray.length != peakList.size())) {
-                intensityValuesAsArray = new double[peakList.size()];
-                int counter = 0;
-                for (Peak currentPeak : peakList.values()) {
-                    intensityValuesAsArray[counter++] = currentPeak.intensity;
-                }
-            }
-            mutex.release();
-        }
-
-        return intensityValuesAsArray;
+        return peaks.getIntensityArray();
     }
 
     /**
@@ -501,23 +451,16 @@ public abstract class Spectrum extends ExperimentObject {
 
             if (intensityValuesNormaizedAsArray == null) {
 
-                intensityValuesNormaizedAsArray = new double[peakList.size()];
-
-                double highestIntensity = 0.0;
-                int counter = 0;
-
-                for (Peak currentPeak : peakList.values()) {
-                    intensityValuesNormaizedAsArray[counter++] = currentPeak.intensity;
-                    if (currentPeak.intensity > highestIntensity) {
-                        highestIntensity = currentPeak.intensity;
-                    }
-                }
+                double[] normalizedIntensities = peaks.getIntensityArray().clone();
+                double highestIntensity = getMaxIntensity();
 
                 if (highestIntensity > 0) {
-                    for (int i = 0; i < intensityValuesNormaizedAsArray.length; i++) {
-                        intensityValuesNormaizedAsArray[i] = intensityValuesNormaizedAsArray[i] / highestIntensity * 100;
+                    for (int i = 0; i < normalizedIntensities.length; i++) {
+                        normalizedIntensities[i] = normalizedIntensities[i] / highestIntensity * 100;
                     }
                 }
+
+                intensityValuesNormaizedAsArray = normalizedIntensities;
             }
 
             mutex.release();
@@ -528,7 +471,7 @@ public abstract class Spectrum extends ExperimentObject {
 
     /**
      * Returns the m/z and intensity values as an array in increasing order
-     * sorted on m/z value.
+     * sorted on m/z value. The arrays must not be modified.
      *
      * @return the m/z and intensity values as an array
      *
@@ -536,29 +479,7 @@ public abstract class Spectrum extends ExperimentObject {
      * interrupted
      */
     public double[][] getMzAndIntensityAsArray() throws InterruptedException {
-
-        if (mzAndIntensityAsArray == null) {
-
-            double[] orderedMzValues = getOrderedMzValues();
-            mutex.acquire();
-
-            if (mzAndIntensityAsArray == null) {
-
-                mzAndIntensityAsArray = new double[2][peakList.size()];
-                int counter = 0;
-
-                for (double mz : orderedMzValues) {
-                    Peak currentPeak = peakList.get(mz);
-                    mzAndIntensityAsArray[0][counter] = currentPeak.mz;
-                    mzAndIntensityAsArray[1][counter] = currentPeak.intensity;
-                    counter++;
-                }
-            }
-
-            mutex.release();
-        }
-
-        return mzAndIntensityAsArray;
+        return new double[][]{peaks.getMzArray(), peaks.getIntensityArray()};
     }
 
     /**
@@ -573,18 +494,13 @@ public abstract class Spectrum extends ExperimentObject {
 
         if (totalIntensity == null) {
 
-            mutex.acquire();
-
-            if (totalIntensity == null) {
+            double result = 0.0;
 
-                totalIntensity = 0.0;
-
-                for (Peak currentPeak : peakList.values()) {
-                    totalIntensity += currentPeak.intensity;
-                }
+            for (double intensity : peaks.getIntensityArray()) {
+                result += intensity;
             }
 
-            mutex.release();
+            totalIntensity = result;
         }
 
         return totalIntensity;
@@ -602,20 +518,15 @@ public abstract class Spectrum extends ExperimentObject {
 
         if (maxIntensity == null) {
 
-            mutex.acquire();
-
-            if (maxIntensity == null) {
+            double result = 0.0;
 
-                maxIntensity = 0.0;
-
-                for (Peak currentPeak : peakList.values()) {
-                    if (currentPeak.intensity > maxIntensity) {
-                        maxIntensity = currentPeak.intensity;
-                    }
+            for (double intensity : peaks.getIntensityArray()) {
+                if (intensity > result) {
+                    result = intensity;
                 }
             }
 
-            mutex.release();
+            maxIntensity = result;
         }
 
         return maxIntensity;
@@ -630,23 +541,8 @@ public abstract class Spectrum extends ExperimentObject {
      * interrupted
      */
     public double getMaxMz() throws InterruptedException {
-
-        if (maxMz == null) {
-
-            mutex.acquire();
-            if (maxMz == null) {
-
-                if (peakList.keySet().isEmpty()) {
-                    maxMz = 0.0;
-                } else {
-                    maxMz = Collections.max(peakList.keySet());
-                }
-            }
-
-            mutex.release();
-        }
-
-        return maxMz;
+        int nPeaks = peaks.size();
+        return nPeaks == 0 ? 0.0 : peaks.getMz(nPeaks - 1);
     }
 
     /**
@@ -658,23 +554,7 @@ public abstract class Spectrum extends ExperimentObject {
      * interrupted
      */
     public double getMinMz() throws InterruptedException {
-
-        if (minMz == null) {
-
-            mutex.acquire();
-
-            if (minMz == null) {
-                if (peakList.keySet().isEmpty()) {
-                    minMz = 0.0;
-                } else {
-                    minMz = Collections.min(peakList.keySet());
-                }
-            }
-
-            mutex.release();
-        }
-
-        return minMz;
+        return peaks.size() == 0 ? 0.0 : peaks.getMz(0);
     }
 
     /**
@@ -690,9 +570,9 @@ public abstract class Spectrum extends ExperimentObject {
 
         ArrayList<Double> peakIntensities = new ArrayList<Double>();
 
-        for (Peak currentPeak : peakList.values()) {
-            if (currentPeak.intensity > threshold) {
-                peakIntensities.add(currentPeak.intensity);
+        for (double intensity : peaks.getIntensityArray()) {
+            if (intensity > threshold) {
+                peakIntensities.add(intensity);
             }
         }
 
@@ -751,14 +631,12 @@ public abstract class Spectrum extends ExperimentObject {
 
             case percentile:
 
-                ArrayList<Double> intensities = new ArrayList<Double>(peakList.size());
+                // Skip the low mass region of the spectrum @TODO: skip precursor as well
+                int firstIndex = peaks.getUpperBound(200);
+                ArrayList<Double> intensities = new ArrayList<Double>(peaks.size() - firstIndex);
 
-                for (Peak peak : peakList.values()) {
-                    double mz = peak.mz;
-                    // Skip the low mass region of the spectrum @TODO: skip precursor as well
-                    if (mz > 200) {
-                        intensities.add(peak.intensity);
-                    }
+                for (int i = firstIndex; i < peaks.size(); i++) {
+                    intensities.add(peaks.getIntensity(i));
                 }
 
                 if (intensities.isEmpty()) {
@@ -781,13 +659,13 @@ public abstract class Spectrum extends ExperimentObject {
      */
     public HashMap<Double, Peak> getRecalibratedPeakList(HashMap<Double, Double> mzCorrections) {
 
-        HashMap<Double, Peak> result = new HashMap<Double, Peak>(peakList.size());
+        HashMap<Double, Peak> result = new HashMap<Double, Peak>(peaks.size());
         ArrayList<Double> keys = new ArrayList<Double>(mzCorrections.keySet());
         Collections.sort(keys);
 
-        for (Peak peak : peakList.values()) {
+        for (int j = 0; j < peaks.size(); j++) {
 
-            double fragmentMz = peak.mz;
+            double fragmentMz = peaks.getMz(j);
             double key1 = keys.get(0);
             double correction = 0.0;
 
@@ -822,7 +700,7 @@ public abstract class Spectrum extends ExperimentObject {
                 }
             }
 
-            result.put(peak.mz - correction, new Peak(peak.mz - correction, peak.intensity));
+            result.put(fragmentMz - correction, new Peak(fragmentMz - correction, peaks.getIntensity(j)));
         }
 
         return result;
@@ -836,7 +714,7 @@ public abstract class Spectrum extends ExperimentObject {
      * @return a peak list which does not contain the peak matched
      */
     public HashMap<Double, Peak> getDesignaledPeakList(ArrayList<IonMatch> matches) {
-        HashMap<Double, Peak> result = new HashMap<Double, Peak>(peakList);
+        HashMap<Double, Peak> result = getPeakMap();
         for (IonMatch ionMatch : matches) {
             result.remove(ionMatch.peak.mz);
         }
@@ -858,12 +736,12 @@ public abstract class Spectrum extends ExperimentObject {
      */
     public HashMap<Double, Peak> getSubSpectrum(double mzMin, double mzMax) throws InterruptedException {
         HashMap<Double, Peak> result = new HashMap<Double, Peak>();
-        for (double mz : getOrderedMzValues()) {
-            if (mz >= mzMin && mz < mzMax) {
-                result.put(mz, peakList.get(mz));
-            } else if (mz >= mzMax) {
+        for (int i = peaks.getLowerBound(mzMin); i < peaks.size(); i++) {
+            double mz = peaks.getMz(i);
+            if (mz >= mzMax) {
                 break;
             }
+            result.put(mz, new Peak(mz, peaks.getIntensity(i)));
         }
         return result;
     }
@@ -885,11 +763,11 @@ public abstract class Spectrum extends ExperimentObject {
 
             if (intensityPeakMap == null) {
 
-                intensityPeakMap = new HashMap<Double, ArrayList<Peak>>(peakList.size());
+                intensityPeakMap = new HashMap<Double, ArrayList<Peak>>(peaks.size());
 
-                for (Peak peak : peakList.values()) {
+                for (int i = 0; i < peaks.size(); i++) {
 
-                    double intensity = peak.intensity;
+                    double intensity = peaks.getIntensity(i);
                     ArrayList<Peak> peaksAtIntensity = intensityPeakMap.get(intensity);
 
                     if (peaksAtIntensity == null) {
@@ -897,7 +775,7 @@ public abstract class Spectrum extends ExperimentObject {
                         intensityPeakMap.put(intensity, peaksAtIntensity);
                     }
 
-                    peaksAtIntensity.add(peak);
+                    peaksAtIntensity.add(new Peak(peaks.getMz(i), intensity));
                 }
             }
 
@@ -913,10 +791,7 @@ public abstract class Spectrum extends ExperimentObject {
      * @return the number of peaks in the spectrum
      */
     public int getNPeaks() {
-        if (peakList == null) {
-            return 0;
-        }
-        return peakList.size();
+        return peaks.size();
     }
 
     /**
@@ -928,22 +803,40 @@ public abstract class Spectrum extends ExperimentObject {
         return getNPeaks() == 0;
     }
 
+    /**
+     * Reads the spectrum from a stream and converts the peak map of spectra
+     * serialized with older versions to a PeakArray.
+     *
+     * @param in the stream to read from
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the stream
+     * @throws ClassNotFoundException exception thrown whenever a class of the
+     * serialized object could not be found
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (peakList != null) {
+            peaks = PeakArray.fromPeaks(peakList.values());
+            peakList = null;
+        } else if (peaks == null) {
+            peaks = PeakArray.EMPTY;
+        }
+        if (mutex == null) {
+            mutex = new Semaphore(1);
+        }
+    }
+
     /**
      * Resets all the saved values to null. Used after altering the peak data.
      */
     private void resetSavedData() {
         jFreePeakList = null;
         peakListAsString = null;
-        mzValuesAsArray = null;
-        mzValuesOrderedAsArray = null;
-        intensityValuesAsArray = null;
         intensityValuesNormaizedAsArray = null;
         binnedCumulativeFunction = null;
-        mzAndIntensityAsArray = null;
         totalIntensity = null;
         maxIntensity = null;
-        maxMz = null;
-        minMz = null;
         intensityPeakMap = null;
         intensityLimit = null;
         intensityThresholdType = null;
@@ -963,7 +856,7 @@ public abstract class Spectrum extends ExperimentObject {
         if (binnedCumulativeFunction == null) {
             mutex.acquire();
             if (binnedCumulativeFunction == null) {
-                binnedCumulativeFunction = new SimpleNoiseDistribution(peakList);
+                binnedCumulativeFunction = new SimpleNoiseDistribution(peaks.getIntensityArray());
             }
             mutex.release();
         }
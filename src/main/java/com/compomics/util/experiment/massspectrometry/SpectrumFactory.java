@@ -1,15 +1,16 @@
 package com.compomics.util.experiment.massspectrometry;
 
+import com.compomics.util.experiment.io.massspectrometry.MappedMgfFile;
 import com.compomics.util.experiment.io.massspectrometry.MgfIndex;
 import com.compomics.util.experiment.io.massspectrometry.MgfReader;
 import com.compomics.util.experiment.io.massspectrometry.MspReader;
 import com.compomics.util.waiting.WaitingHandler;
-import com.compomics.util.io.SerializationUtils;
 import java.io.*;
 import java.net.URLDecoder;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingDeque;
 import uk.ac.ebi.jmzml.model.mzml.BinaryDataArray;
 import uk.ac.ebi.jmzml.model.mzml.CVParam;
@@ -35,11 +36,11 @@ public class SpectrumFactory {
     /**
      * Map of already loaded spectra.
      */
-    private HashMap<String, HashMap<String, Spectrum>> currentSpectrumMap = new HashMap<String, HashMap<String, Spectrum>>();
+    private ConcurrentHashMap<String, ConcurrentHashMap<String, Spectrum>> currentSpectrumMap = new ConcurrentHashMap<String, ConcurrentHashMap<String, Spectrum>>();
     /**
      * Map of already loaded precursors.
      */
-    private HashMap<String, HashMap<String, Precursor>> loadedPrecursorsMap = new HashMap<String, HashMap<String, Precursor>>();
+    private ConcurrentHashMap<String, ConcurrentHashMap<String, Precursor>> loadedPrecursorsMap = new ConcurrentHashMap<String, ConcurrentHashMap<String, Precursor>>();
     /**
      * Maximal number of spectra in cache. By default 1000000, which corresponds to approx. 110MB.
      */
@@ -53,14 +54,19 @@ public class SpectrumFactory {
      */
     private HashMap<String, File> filesMap = new HashMap<String, File>();
     /**
-     * Map of the random access files of the loaded mgf files (filename &gt;
+     * Map of the random access files of the loaded msp files (filename &gt;
      * random access file).
      */
     private HashMap<String, BufferedRandomAccessFile> mgfRandomAccessFilesMap = new HashMap<String, BufferedRandomAccessFile>();
+    /**
+     * Map of the memory mapped mgf files (filename &gt; mapped file). Spectra
+     * are read from these files without locking the factory.
+     */
+    private ConcurrentHashMap<String, MappedMgfFile> mgfMappedFilesMap = new ConcurrentHashMap<String, MappedMgfFile>();
     /**
      * Map of the mgf indexes (fileName &gt; mgf index).
      */
-    private HashMap<String, MgfIndex> mgfIndexesMap = new HashMap<String, MgfIndex>();
+    private ConcurrentHashMap<String, MgfIndex> mgfIndexesMap = new ConcurrentHashMap<String, MgfIndex>();
     /**
      * Map of the mzML unmarshallers (fileName &gt; unmarshaller).
      */
@@ -117,6 +123,7 @@ public class SpectrumFactory {
         loadedSpectra.clear();
         filesMap.clear();
         mgfRandomAccessFilesMap.clear();
+        mgfMappedFilesMap.clear();
         mgfIndexesMap.clear();
         mzMLUnmarshallers.clear();
         idToSpectrumName.clear();
@@ -226,7 +233,11 @@ public class SpectrumFactory {
                 throw new IllegalArgumentException("An error occurred while indexing " + spectrumFile.getAbsolutePath());
             }
 
-            mgfRandomAccessFilesMap.put(fileName, new BufferedRandomAccessFile(spectrumFile, "r", 1024 * 100));
+            if (fileName.toLowerCase().endsWith(".mgf")) {
+                mgfMappedFilesMap.put(fileName, new MappedMgfFile(spectrumFile));
+            } else {
+                mgfRandomAccessFilesMap.put(fileName, new BufferedRandomAccessFile(spectrumFile, "r", 1024 * 100));
+            }
             mgfIndexesMap.put(fileName, mgfIndex);
 
         } else if (fileName.toLowerCase().endsWith(".mzml")) {
@@ -281,23 +292,112 @@ public class SpectrumFactory {
      * not parsed correctly
      */
     public Precursor getPrecursor(String fileName, String spectrumTitle, boolean save) throws IOException, MzMLUnmarshallerException {
-        HashMap<String, Spectrum> fileSpectrumMap = currentSpectrumMap.get(fileName);
+        ConcurrentHashMap<String, Spectrum> fileSpectrumMap = currentSpectrumMap.get(fileName);
         if (fileSpectrumMap != null) {
             Spectrum spectrum = fileSpectrumMap.get(spectrumTitle);
             if (spectrum != null) {
                 return ((MSnSpectrum) spectrum).getPrecursor();
             }
         }
-        HashMap<String, Precursor> filePrecursorMap = loadedPrecursorsMap.get(fileName);
+        ConcurrentHashMap<String, Precursor> filePrecursorMap = loadedPrecursorsMap.get(fileName);
         if (filePrecursorMap != null) {
             Precursor currentPrecursor = filePrecursorMap.get(spectrumTitle);
             if (currentPrecursor != null) {
                 return currentPrecursor;
             }
         }
+        if (fileName.toLowerCase().endsWith(".mgf")) {
+            return getMgfPrecursor(fileName, spectrumTitle, save);
+        }
         return getPrecursor(fileName, spectrumTitle, save, 1);
     }
 
+    /**
+     * Returns the precursor of the desired spectrum from a memory mapped mgf
+     * file. The file is read without locking the factory.
+     *
+     * @param fileName the name of the mgf file
+     * @param spectrumTitle the title of the spectrum
+     * @param save if true the precursor will be saved in cache
+     *
+     * @return the corresponding precursor
+     *
+     * @throws IOException exception thrown whenever the file was not parsed
+     * correctly
+     */
+    private Precursor getMgfPrecursor(String fileName, String spectrumTitle, boolean save) throws IOException {
+        return getMgfPrecursor(fileName, spectrumTitle, save, 1);
+    }
+
+    /**
+     * Returns the precursor of the desired spectrum from a memory mapped mgf
+     * file. The file is read without locking the factory. It can be that the
+     * IO is busy (especially when working on distant servers) thus returning
+     * an error. The method will then retry after waiting waitingTime
+     * milliseconds. The waitingTime is doubled for the next try. The method
+     * throws an exception after timeout (see timeOut attribute).
+     *
+     * @param fileName the name of the mgf file
+     * @param spectrumTitle the title of the spectrum
+     * @param save if true the precursor will be saved in cache
+     * @param waitingTime the waiting time before retry
+     *
+     * @return the corresponding precursor
+     *
+     * @throws IOException exception thrown whenever the file was not parsed
+     * correctly
+     */
+    private Precursor getMgfPrecursor(String fileName, String spectrumTitle, boolean save, long waitingTime) throws IOException {
+
+        MgfIndex mgfIndex = mgfIndexesMap.get(fileName);
+        MappedMgfFile mappedMgfFile = mgfMappedFilesMap.get(fileName);
+        if (mgfIndex == null || mappedMgfFile == null) {
+            throw new IOException("Mgf file not found: \'" + fileName + "\'.");
+        }
+
+        // a special fix for mgf files with strange titles...
+        spectrumTitle = fixMgfTitle(spectrumTitle, fileName);
+
+        Long index = mgfIndex.getIndex(spectrumTitle);
+        if (index == null) {
+            throw new IOException("Spectrum \'" + spectrumTitle + "\' in mgf file \'" + fileName + "\' not found.");
+        }
+        Precursor currentPrecursor;
+        try {
+            currentPrecursor = mappedMgfFile.getPrecursor(index, fileName);
+        } catch (Exception e) {
+            if (waitingTime < timeOut) {
+                try {
+                    Thread.sleep(waitingTime);
+                } catch (InterruptedException ie) {
+                }
+                return getMgfPrecursor(fileName, spectrumTitle, save, 2 * waitingTime);
+            } else {
+                throw new IllegalArgumentException("Error while loading precursor of spectrum " + spectrumTitle + " of file " + fileName + ".", e);
+            }
+        }
+        if (save) {
+            savePrecursor(fileName, spectrumTitle, currentPrecursor);
+        }
+        return currentPrecursor;
+    }
+
+    /**
+     * Saves a precursor in cache.
+     *
+     * @param fileName the name of the spectrum file
+     * @param spectrumTitle the title of the spectrum
+     * @param precursor the precursor
+     */
+    private synchronized void savePrecursor(String fileName, String spectrumTitle, Precursor precursor) {
+        ConcurrentHashMap<String, Precursor> fileMap = loadedPrecursorsMap.get(fileName);
+        if (fileMap == null) {
+            fileMap = new ConcurrentHashMap<String, Precursor>();
+            loadedPrecursorsMap.put(fileName, fileMap);
+        }
+        fileMap.put(spectrumTitle, precursor);
+    }
+
     /**
      * Returns the precursor of the desired spectrum. The value will be saved in
      * cache.
@@ -627,30 +727,7 @@ public class SpectrumFactory {
         Precursor currentPrecursor = null;
 
         if (fileName.toLowerCase().endsWith(".mgf")) {
-
-            // a special fix for mgf files with strange titles...
-            spectrumTitle = fixMgfTitle(spectrumTitle, fileName);
-
-            if (mgfIndexesMap.get(fileName) == null) {
-                throw new IOException("Mgf file not found: \'" + fileName + "\'.");
-            }
-            if (mgfIndexesMap.get(fileName).getIndex(spectrumTitle) == null) {
-                throw new IOException("Spectrum \'" + spectrumTitle + "\' in mgf file \'" + fileName + "\' not found.");
-            }
-            try {
-                currentPrecursor = MgfReader.getPrecursor(mgfRandomAccessFilesMap.get(fileName), mgfIndexesMap.get(fileName).getIndex(spectrumTitle), fileName);
-            } catch (Exception e) {
-                if (waitingTime < timeOut) {
-                    try {
-                        wait(waitingTime);
-                    } catch (InterruptedException ie) {
-                    }
-                    return getPrecursor(fileName, spectrumTitle, save, 2 * waitingTime);
-                } else {
-                    e.printStackTrace();
-                    throw new IllegalArgumentException("Error while loading precursor of spectrum " + spectrumTitle + " of file " + fileName + ".");
-                }
-            }
+            return getMgfPrecursor(fileName, spectrumTitle, save);
         } else if(fileName.toLowerCase().endsWith(".msp")) {
 
             // a special fix for mgf files with strange titles...
@@ -726,12 +803,7 @@ public class SpectrumFactory {
             throw new IllegalArgumentException("Spectrum file format not supported.");
         }
         if (save) {
-            HashMap<String, Precursor> fileMap = loadedPrecursorsMap.get(fileName);
-            if (fileMap == null) {
-                fileMap = new HashMap<String, Precursor>();
-                loadedPrecursorsMap.put(fileName, fileMap);
-            }
-            fileMap.put(spectrumTitle, currentPrecursor);
+            savePrecursor(fileName, spectrumTitle, currentPrecursor);
         }
 
         return currentPrecursor;
@@ -769,16 +841,89 @@ public class SpectrumFactory {
      * occurred while parsing the mzML file
      */
     public Spectrum getSpectrum(String spectrumFile, String spectrumTitle, boolean toCacheSpectrum) throws IOException, MzMLUnmarshallerException {
-        HashMap<String, Spectrum> fileMap = currentSpectrumMap.get(spectrumFile);
+        ConcurrentHashMap<String, Spectrum> fileMap = currentSpectrumMap.get(spectrumFile);
         if (fileMap != null) {
             Spectrum currentSpectrum = fileMap.get(spectrumTitle);
             if (currentSpectrum != null) {
                 return currentSpectrum;
             }
         }
+        if (spectrumFile.toLowerCase().endsWith(".mgf")) {
+            return getMgfSpectrum(spectrumFile, spectrumTitle, toCacheSpectrum);
+        }
         return getSpectrum(spectrumFile, spectrumTitle, toCacheSpectrum, 1);
     }
 
+    /**
+     * Returns the desired spectrum from a memory mapped mgf file. The file is
+     * read without locking the factory, only the update of the cache is
+     * synchronized.
+     *
+     * @param spectrumFile the name of the mgf file
+     * @param spectrumTitle the title of the desired spectrum
+     * @param toCacheSpectrum option to cache or not the spectrum
+     *
+     * @return the desired spectrum
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    private Spectrum getMgfSpectrum(String spectrumFile, String spectrumTitle, boolean toCacheSpectrum) throws IOException {
+        return getMgfSpectrum(spectrumFile, spectrumTitle, toCacheSpectrum, 1);
+    }
+
+    /**
+     * Returns the desired spectrum from a memory mapped mgf file. The file is
+     * read without locking the factory, only the update of the cache is
+     * synchronized. It can be that the IO is busy (especially when working on
+     * distant servers) thus returning an error. The method will then retry
+     * after waiting waitingTime milliseconds. The waitingTime is doubled for
+     * the next try. The method throws an exception after timeout (see timeOut
+     * attribute).
+     *
+     * @param spectrumFile the name of the mgf file
+     * @param spectrumTitle the title of the desired spectrum
+     * @param toCacheSpectrum option to cache or not the spectrum
+     * @param waitingTime the waiting time before retry
+     *
+     * @return the desired spectrum
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    private Spectrum getMgfSpectrum(String spectrumFile, String spectrumTitle, boolean toCacheSpectrum, long waitingTime) throws IOException {
+
+        MgfIndex mgfIndex = mgfIndexesMap.get(spectrumFile);
+        MappedMgfFile mappedMgfFile = mgfMappedFilesMap.get(spectrumFile);
+        if (mgfIndex == null || mappedMgfFile == null) {
+            throw new FileNotFoundException("Mgf file not found: \'" + spectrumFile + "\'!");
+        }
+
+        // a special fix for mgf files with strange titles...
+        spectrumTitle = fixMgfTitle(spectrumTitle, spectrumFile);
+
+        Long index = mgfIndex.getIndex(spectrumTitle);
+        if (index == null) {
+            throw new IOException("Spectrum \'" + spectrumTitle + "\' in mgf file \'" + spectrumFile + "\' not found!");
+        }
+        Spectrum currentSpectrum;
+        try {
+            currentSpectrum = mappedMgfFile.getSpectrum(index, spectrumFile);
+        } catch (Exception e) {
+            if (waitingTime < timeOut) {
+                try {
+                    Thread.sleep(waitingTime);
+                } catch (InterruptedException ie) {
+                }
+                return getMgfSpectrum(spectrumFile, spectrumTitle, toCacheSpectrum, 2 * waitingTime);
+            } else {
+                throw new IllegalArgumentException("Error while loading spectrum " + spectrumTitle + " of file " + spectrumFile + ".", e);
+            }
+        }
+        cacheSpectrum(spectrumFile, spectrumTitle, currentSpectrum, toCacheSpectrum);
+        return currentSpectrum;
+    }
+
     /**
      * Returns the desired spectrum.
      *
@@ -869,30 +1014,7 @@ public class SpectrumFactory {
         Spectrum currentSpectrum = null;
 
         if (spectrumFile.toLowerCase().endsWith(".mgf")) {
-
-            // a special fix for mgf files with strange titles...
-            spectrumTitle = fixMgfTitle(spectrumTitle, spectrumFile);
-
-            if (mgfIndexesMap.get(spectrumFile) == null) {
-                throw new FileNotFoundException("Mgf file not found: \'" + spectrumFile + "\'!");
-            }
-            if (mgfIndexesMap.get(spectrumFile).getIndex(spectrumTitle) == null) {
-                throw new IOException("Spectrum \'" + spectrumTitle + "\' in mgf file \'" + spectrumFile + "\' not found!");
-            }
-            try {
-                currentSpectrum = MgfReader.getSpectrum(mgfRandomAccessFilesMap.get(spectrumFile), mgfIndexesMap.get(spectrumFile).getIndex(spectrumTitle), spectrumFile);
-            } catch (Exception e) {
-                if (waitingTime < timeOut) {
-                    try {
-                        wait(waitingTime);
-                    } catch (InterruptedException ie) {
-                    }
-                    return getSpectrum(spectrumFile, spectrumTitle, toCacheSpectrum, 2 * waitingTime);
-                } else {
-                    e.printStackTrace();
-                    throw new IllegalArgumentException("Error while loading spectrum " + spectrumTitle + " of file " + spectrumFile + ".");
-                }
-            }
+            return getMgfSpectrum(spectrumFile, spectrumTitle, toCacheSpectrum);
         }else if(spectrumFile.toLowerCase().endsWith(".msp")) {
 
             // a special fix for mgf files with strange titles...
@@ -968,26 +1090,44 @@ public class SpectrumFactory {
             Number[] mzNumbers = mzBinaryDataArray.getBinaryDataAsNumberArray();
             BinaryDataArray intBinaryDataArray = (BinaryDataArray) bdal.get(1);
             Number[] intNumbers = intBinaryDataArray.getBinaryDataAsNumberArray();
-            HashMap<Double, Peak> peakList = new HashMap<Double, Peak>();
+            double[] mzValues = new double[mzNumbers.length];
+            double[] intensityValues = new double[mzNumbers.length];
             for (int i = 0; i < mzNumbers.length; i++) {
-                peakList.put(mzNumbers[i].doubleValue(), new Peak(mzNumbers[i].doubleValue(), intNumbers[i].doubleValue(), scanTime));
+                mzValues[i] = mzNumbers[i].doubleValue();
+                intensityValues[i] = intNumbers[i].doubleValue();
             }
+            PeakArray peaks = PeakArray.fromArrays(mzValues, intensityValues);
             if (level == 1) {
-                currentSpectrum = new MS1Spectrum(spectrumFile, spectrumTitle, scanTime, peakList);
+                currentSpectrum = new MS1Spectrum(spectrumFile, spectrumTitle, scanTime, peaks);
             } else {
                 //@TODO: is this the correct way to set the precursor..?
                 ArrayList<Charge> charges = new ArrayList<Charge>();
                 charges.add(new Charge(Charge.PLUS, chargePrec));
                 Precursor precursor = new Precursor(scanTime, mzPrec, charges);
-                currentSpectrum = new MSnSpectrum(level, precursor, spectrumTitle, peakList, spectrumFile, scanTime);
+                currentSpectrum = new MSnSpectrum(level, precursor, spectrumTitle, peaks, spectrumFile);
+                currentSpectrum.setScanStartTime(scanTime);
             }
         } else {
             throw new IllegalArgumentException("Spectrum file format not supported.");
         }
+        cacheSpectrum(spectrumFile, spectrumTitle, currentSpectrum, toCacheSpectrum);
+        return currentSpectrum;
+    }
+
+    /**
+     * Registers a loaded spectrum and stores it in cache if needed. The
+     * oldest spectrum is removed when the cache is full.
+     *
+     * @param spectrumFile the name of the file containing the spectrum
+     * @param spectrumTitle the title of the spectrum
+     * @param currentSpectrum the spectrum
+     * @param toCacheSpectrum option to cache or not the spectrum
+     */
+    private synchronized void cacheSpectrum(String spectrumFile, String spectrumTitle, Spectrum currentSpectrum, boolean toCacheSpectrum) {
         if (loadedSpectra.size() == nSpectraCache) {
             String tempKey = loadedSpectra.pollFirst();
             String tempFile = Spectrum.getSpectrumFile(tempKey);
-            HashMap<String, Spectrum> fileMap = currentSpectrumMap.get(tempFile);
+            ConcurrentHashMap<String, Spectrum> fileMap = currentSpectrumMap.get(tempFile);
             if (fileMap != null) {
                 String tempTitle = Spectrum.getSpectrumTitle(tempKey);
                 fileMap.remove(tempTitle);
@@ -995,20 +1135,20 @@ public class SpectrumFactory {
         }
         // @TODO: currentSpectrumMap is currently growing forever. Its growth should be limited in some way.
         if (toCacheSpectrum){
-            HashMap<String, Spectrum> fileMap = currentSpectrumMap.get(spectrumFile);
+            ConcurrentHashMap<String, Spectrum> fileMap = currentSpectrumMap.get(spectrumFile);
             if (fileMap == null) {
-                fileMap = new HashMap<String, Spectrum>();
+                fileMap = new ConcurrentHashMap<String, Spectrum>();
                 currentSpectrumMap.put(spectrumFile, fileMap);
             }
             fileMap.put(spectrumTitle, currentSpectrum);
         }
         String spectrumKey = Spectrum.getSpectrumKey(spectrumFile, spectrumTitle);
         loadedSpectra.add(spectrumKey);
-        return currentSpectrum;
     }
 
     /**
-     * Writes the given mgf file index in the given directory.
+     * Writes the given mgf file index in the given directory using the binary
+     * index format.
      *
      * @param mgfIndex the mgf file index
      * @param directory the destination directory
@@ -1017,11 +1157,12 @@ public class SpectrumFactory {
      */
     public void writeIndex(MgfIndex mgfIndex, File directory) throws IOException {
         File indexFile = new File(directory, getIndexName(mgfIndex.getFileName()));
-        SerializationUtils.writeObject(mgfIndex, indexFile);
+        mgfIndex.write(indexFile);
     }
 
     /**
-     * Deserializes the index of an mgf file.
+     * Reads the index of an mgf file. Index files written with previous
+     * versions are not supported and need to be recreated.
      *
      * @param mgfIndex the mgf index cui file
      * @return the corresponding mgf index object
@@ -1033,7 +1174,7 @@ public class SpectrumFactory {
      * occurred while deserializing the object
      */
     public MgfIndex getIndex(File mgfIndex) throws FileNotFoundException, IOException, ClassNotFoundException {
-        return (MgfIndex) SerializationUtils.readObject(mgfIndex);
+        return MgfIndex.read(mgfIndex);
     }
 
     /**
@@ -1046,6 +1187,9 @@ public class SpectrumFactory {
         for (BufferedRandomAccessFile randomAccessFile : mgfRandomAccessFilesMap.values()) {
             randomAccessFile.close();
         }
+        for (MappedMgfFile mappedMgfFile : mgfMappedFilesMap.values()) {
+            mappedMgfFile.close();
+        }
     }
 
     /**
@@ -1054,7 +1198,9 @@ public class SpectrumFactory {
      * @return a list of loaded mgf files
      */
     public ArrayList<String> getMgfFileNames() {
-        return new ArrayList<String>(mgfRandomAccessFilesMap.keySet());
+        ArrayList<String> fileNames = new ArrayList<String>(mgfMappedFilesMap.keySet());
+        fileNames.addAll(mgfRandomAccessFilesMap.keySet());
+        return fileNames;
     }
 
     /**
@@ -0,0 +1,298 @@
+package com.compomics.util.experiment.massspectrometry;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
+
+/**
+ * Reads the spectra of a list of spectrum keys ahead of their use. The keys
+ * are split in windows which are read on a background thread, the spectra of
+ * a window are read in the order of the files to make the reading sequential.
+ * The prefetcher reads at most a given number of windows ahead of the
+ * position of the consumers, spectra left behind by the consumers are
+ * discarded. Spectra which are not prefetched are read from the spectrum
+ * factory.
+ *
+ * @author Marc Vaudel
+ */
+public class SpectrumPrefetcher {
+
+    /**
+     * The default number of spectra per window.
+     */
+    public static final int DEFAULT_WINDOW_SIZE = 256;
+    /**
+     * The default number of windows read ahead of the consumers.
+     */
+    public static final int DEFAULT_WINDOWS_AHEAD = 2;
+    /**
+     * The spectrum factory.
+     */
+    private final SpectrumFactory spectrumFactory = SpectrumFactory.getInstance();
+    /**
+     * The keys of the spectra in the order of use.
+     */
+    private final List<String> spectrumKeys;
+    /**
+     * The number of spectra per window.
+     */
+    private final int windowSize;
+    /**
+     * The number of windows read ahead of the consumers.
+     */
+    private final int windowsAhead;
+    /**
+     * The spectra read and not yet used.
+     */
+    private final HashMap<String, Spectrum> buffer = new HashMap<String, Spectrum>();
+    /**
+     * The keys of the spectra to be read.
+     */
+    private final HashSet<String> pendingKeys;
+    /**
+     * The highest position reached by the consumers in the list of keys.
+     */
+    private int position = -1;
+    /**
+     * The position until which the spectra were discarded from the buffer.
+     */
+    private int discardedPosition = 0;
+    /**
+     * Boolean indicating whether the prefetching was stopped.
+     */
+    private boolean closed = false;
+    /**
+     * The prefetching thread.
+     */
+    private Thread thread = null;
+    /**
+     * The error which stopped the prefetching thread, null if none.
+     */
+    private Throwable failure = null;
+
+    /**
+     * Constructor.
+     *
+     * @param spectrumKeys the keys of the spectra in the order of use
+     */
+    public SpectrumPrefetcher(List<String> spectrumKeys) {
+        this(spectrumKeys, DEFAULT_WINDOW_SIZE, DEFAULT_WINDOWS_AHEAD);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param spectrumKeys the keys of the spectra in the order of use
+     * @param windowSize the number of spectra per window
+     * @param windowsAhead the number of windows read ahead of the consumers
+     */
+    public SpectrumPrefetcher(List<String> spectrumKeys, int windowSize, int windowsAhead) {
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("The window size must be strictly positive.");
+        }
+        this.spectrumKeys = spectrumKeys;
+        this.windowSize = windowSize;
+        this.windowsAhead = Math.max(windowsAhead, 1);
+        this.pendingKeys = new HashSet<String>(spectrumKeys);
+    }
+
+    /**
+     * Starts the prefetching thread.
+     */
+    public synchronized void start() {
+        if (thread != null) {
+            throw new IllegalStateException("Prefetching already started.");
+        }
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    prefetch();
+                } catch (Throwable t) {
+                    setFailure(t);
+                } finally {
+                    prefetchingDone();
+                }
+            }
+        }, "Spectrum prefetching");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Records the error which stopped the prefetching thread.
+     *
+     * @param t the error
+     */
+    private synchronized void setFailure(Throwable t) {
+        failure = t;
+    }
+
+    /**
+     * Releases the consumers waiting for spectra once the prefetching thread
+     * stops.
+     */
+    private synchronized void prefetchingDone() {
+        pendingKeys.clear();
+        notifyAll();
+    }
+
+    /**
+     * Stops the prefetching and clears the buffer. Spectra requested after
+     * closing are read from the spectrum factory.
+     */
+    public synchronized void close() {
+        closed = true;
+        buffer.clear();
+        pendingKeys.clear();
+        notifyAll();
+    }
+
+    /**
+     * Sets the position of a consumer in the list of keys. Spectra of keys
+     * before the previous window are discarded.
+     *
+     * @param newPosition the index of the key being processed by a consumer
+     */
+    public synchronized void setPosition(int newPosition) {
+        if (newPosition > position) {
+            position = newPosition;
+            int discardLimit = Math.min(position - windowSize, spectrumKeys.size());
+            for (; discardedPosition < discardLimit; discardedPosition++) {
+                buffer.remove(spectrumKeys.get(discardedPosition));
+            }
+            notifyAll();
+        }
+    }
+
+    /**
+     * Returns the spectrum of the given key. If the spectrum is being
+     * prefetched the method waits for it, otherwise the spectrum is read
+     * from the spectrum factory without caching. The spectrum is removed from
+     * the buffer. If the prefetching thread failed, the failure is thrown to
+     * the consumers requesting spectra which are not in the buffer.
+     *
+     * @param spectrumKey the key of the spectrum
+     *
+     * @return the spectrum
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     * @throws MzMLUnmarshallerException exception thrown whenever an error
+     * occurred while parsing the mzML file
+     * @throws InterruptedException exception thrown if the thread is
+     * interrupted while waiting for the spectrum
+     * @throws IllegalArgumentException exception thrown if the prefetching
+     * thread failed
+     */
+    public Spectrum getSpectrum(String spectrumKey) throws IOException, MzMLUnmarshallerException, InterruptedException {
+        synchronized (this) {
+            while (true) {
+                Spectrum spectrum = buffer.remove(spectrumKey);
+                if (spectrum != null) {
+                    return spectrum;
+                }
+                if (failure != null) {
+                    throw new IllegalArgumentException("An error occurred while prefetching the spectra.", failure);
+                }
+                if (thread == null || !pendingKeys.contains(spectrumKey)) {
+                    break;
+                }
+                wait();
+            }
+        }
+        return spectrumFactory.getSpectrum(spectrumKey, false);
+    }
+
+    /**
+     * Reads the spectra window by window.
+     */
+    private void prefetch() {
+
+        int nKeys = spectrumKeys.size();
+
+        for (int windowStart = 0; windowStart < nKeys; windowStart += windowSize) {
+
+            synchronized (this) {
+                try {
+                    while (!closed && position < windowStart - windowsAhead * windowSize) {
+                        wait();
+                    }
+                } catch (InterruptedException e) {
+                    closed = true;
+                }
+                if (closed) {
+                    return;
+                }
+            }
+
+            int windowEnd = Math.min(windowStart + windowSize, nKeys);
+            for (String spectrumKey : getReadingOrder(windowStart, windowEnd)) {
+
+                Spectrum spectrum = null;
+                try {
+                    spectrum = spectrumFactory.getSpectrum(spectrumKey, false);
+                } catch (Exception e) {
+                    // the consumer will read the spectrum and get the exception
+                }
+
+                synchronized (this) {
+                    if (closed) {
+                        return;
+                    }
+                    if (pendingKeys.remove(spectrumKey) && spectrum != null && position < windowEnd + windowSize) {
+                        buffer.put(spectrumKey, spectrum);
+                    }
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the keys of the given window sorted by file and by position in
+     * the file.
+     *
+     * @param windowStart the index of the first key of the window
+     * @param windowEnd the index after the last key of the window
+     *
+     * @return the keys of the window in reading order
+     */
+    private ArrayList<String> getReadingOrder(int windowStart, int windowEnd) {
+
+        int windowLength = windowEnd - windowStart;
+        final String[] files = new String[windowLength];
+        final int[] indexes = new int[windowLength];
+        Integer[] order = new Integer[windowLength];
+
+        for (int i = 0; i < windowLength; i++) {
+            String spectrumKey = spectrumKeys.get(windowStart + i);
+            files[i] = Spectrum.getSpectrumFile(spectrumKey);
+            Integer index = spectrumFactory.getSpectrumIndex(Spectrum.getSpectrumTitle(spectrumKey), files[i]);
+            indexes[i] = index == null ? -1 : index;
+            order[i] = i;
+        }
+
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                int fileComparison = files[o1].compareTo(files[o2]);
+                if (fileComparison != 0) {
+                    return fileComparison;
+                }
+                return indexes[o1] < indexes[o2] ? -1 : indexes[o1] > indexes[o2] ? 1 : 0;
+            }
+        });
+
+        ArrayList<String> result = new ArrayList<String>(windowLength);
+        for (Integer i : order) {
+            result.add(spectrumKeys.get(windowStart + i));
+        }
+        return result;
+    }
+}
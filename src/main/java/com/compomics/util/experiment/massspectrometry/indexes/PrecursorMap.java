@@ -2,11 +2,14 @@ package com.compomics.util.experiment.massspectrometry.indexes;
 
 import com.compomics.util.experiment.massspectrometry.Precursor;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import org.apache.commons.math.util.FastMath;
 
 /**
- * This map stores the precursors indexed by mass.
+ * This map stores the precursors sorted by m/z.
  *
  * @author Marc Vaudel
  */
@@ -21,9 +24,13 @@ public class PrecursorMap {
      */
     boolean ppm;
     /**
-     * Map of the precursors by bin and m/z.
+     * The precursors sorted by increasing m/z.
      */
-    private HashMap<Integer, HashMap<Double, ArrayList<PrecursorWithTitle>>> precursorsMap = new HashMap<Integer, HashMap<Double, ArrayList<PrecursorWithTitle>>>();
+    private PrecursorWithTitle[] precursors;
+    /**
+     * The index of the m/z of the precursors.
+     */
+    private SortedMzIndex mzIndex;
     /**
      * An m/z anchor to determine the bins in ppm
      */
@@ -58,28 +65,27 @@ public class PrecursorMap {
         if (ppm) {
             scalingFactor = FastMath.log((1000000 - precursorTolerance) / (1000000 + precursorTolerance));
         }
+        PrecursorWithTitle[] sortedPrecursors = new PrecursorWithTitle[precursors.size()];
+        int i = 0;
         for (String spectrumTitle : precursors.keySet()) {
             Precursor precursor = precursors.get(spectrumTitle);
-            PrecursorWithTitle precursorWithTitle = new PrecursorWithTitle(precursor, spectrumTitle);
-            double mz = precursor.getMz();
-            if (minMz == null || mz < minMz) {
-                minMz = mz;
-            }
-            if (maxMz == null || mz > maxMz) {
-                maxMz = mz;
-            }
-            Integer bin = getBin(mz);
-            HashMap<Double, ArrayList<PrecursorWithTitle>> precursorsInBin = precursorsMap.get(bin);
-            if (precursorsInBin == null) {
-                precursorsInBin = new HashMap<Double, ArrayList<PrecursorWithTitle>>(2);
-                precursorsMap.put(bin, precursorsInBin);
-            }
-            ArrayList<PrecursorWithTitle> precursorsAtMz = precursorsInBin.get(mz);
-            if (precursorsAtMz == null) {
-                precursorsAtMz = new ArrayList<PrecursorWithTitle>(1);
-                precursorsInBin.put(mz, precursorsAtMz);
+            sortedPrecursors[i++] = new PrecursorWithTitle(precursor, spectrumTitle);
+        }
+        Arrays.sort(sortedPrecursors, new Comparator<PrecursorWithTitle>() {
+            @Override
+            public int compare(PrecursorWithTitle o1, PrecursorWithTitle o2) {
+                return Double.compare(o1.precursor.getMz(), o2.precursor.getMz());
             }
-            precursorsAtMz.add(precursorWithTitle);
+        });
+        double[] mz = new double[sortedPrecursors.length];
+        for (i = 0; i < sortedPrecursors.length; i++) {
+            mz[i] = sortedPrecursors[i].precursor.getMz();
+        }
+        this.precursors = sortedPrecursors;
+        this.mzIndex = new SortedMzIndex(mz, mz.length, precursorTolerance, ppm, true);
+        if (mz.length > 0) {
+            minMz = mz[0];
+            maxMz = mz[mz.length - 1];
         }
     }
 
@@ -126,80 +132,83 @@ public class PrecursorMap {
 
     /**
      * Returns a list containing the precursors matching the given m/z.
-     * TODO: check only one/two bins when possible
      *
      * @param referenceMz a mz to query
      *
      * @return a list containing the precursors matching the given m/z
      */
     public ArrayList<PrecursorWithTitle> getMatchingSpectra(double referenceMz) {
-        
-        int bin0 = getBin(referenceMz);
-        ArrayList<PrecursorWithTitle> result = new ArrayList<PrecursorWithTitle>(0);
-        HashMap<Double, ArrayList<PrecursorWithTitle>> binContent = precursorsMap.get(bin0 - 1);
-        if (binContent != null) {
-            for (Double precursorMz : binContent.keySet()) {
-                double error;
-                if (ppm) {
-                    error = 1000000 * (precursorMz - referenceMz) / referenceMz;
-                } else {
-                    error = precursorMz - referenceMz;
-                }
-                if (Math.abs(error) <= precursorTolerance) {
-                    result.addAll(binContent.get(precursorMz));
-                }
-            }
-        }
-        binContent = precursorsMap.get(bin0);
-        if (binContent != null) {
-            for (Double precursorMz : binContent.keySet()) {
-                double error;
-                if (ppm) {
-                    error = 1000000 * (precursorMz - referenceMz) / referenceMz;
-                } else {
-                    error = precursorMz - referenceMz;
-                }
-                if (Math.abs(error) <= precursorTolerance) {
-                    result.addAll(binContent.get(precursorMz));
-                }
-            }
-        }
-        binContent = precursorsMap.get(bin0 + 1);
-        if (binContent != null) {
-            for (Double precursorMz : binContent.keySet()) {
-                double error;
-                if (ppm) {
-                    error = 1000000 * (precursorMz - referenceMz) / referenceMz;
-                } else {
-                    error = precursorMz - referenceMz;
-                }
-                if (Math.abs(error) <= precursorTolerance) {
-                    result.addAll(binContent.get(precursorMz));
-                }
-            }
+        int start = mzIndex.getStart(referenceMz);
+        int end = mzIndex.getEnd(referenceMz, start);
+        ArrayList<PrecursorWithTitle> result = new ArrayList<PrecursorWithTitle>(end - start);
+        for (int i = start; i < end; i++) {
+            result.add(precursors[i]);
         }
         return result;
     }
 
     /**
-     * Returns the bins in the map.
+     * Returns the index of the m/z of the precursors. Precursors matching a
+     * query are found between the start and end given by the m/z index and
+     * can be retrieved using getPrecursor without allocating a list.
+     *
+     * @return the index of the m/z of the precursors
+     */
+    public SortedMzIndex getMzIndex() {
+        return mzIndex;
+    }
+
+    /**
+     * Returns the precursor at the given index, precursors are sorted by
+     * increasing m/z.
+     *
+     * @param index the index of the precursor
+     *
+     * @return the precursor at the given index
+     */
+    public PrecursorWithTitle getPrecursor(int index) {
+        return precursors[index];
+    }
+
+    /**
+     * Returns the bins in the map. The list is created every time the method
+     * is called.
      *
      * @return the bins in the map
      */
     public ArrayList<Integer> getBins() {
-        return new ArrayList<Integer>(precursorsMap.keySet());
+        LinkedHashSet<Integer> bins = new LinkedHashSet<Integer>();
+        for (int i = 0; i < mzIndex.size(); i++) {
+            bins.add(getBin(mzIndex.getMz(i)));
+        }
+        return new ArrayList<Integer>(bins);
     }
 
     /**
      * Returns the precursors at the given bin indexed by mass. Null if none
-     * found.
+     * found. The map is created every time the method is called.
      *
      * @param bin the bin number
      *
      * @return the precursors at the given bin
      */
     public HashMap<Double, ArrayList<PrecursorWithTitle>> getPrecursorsInBin(int bin) {
-        return precursorsMap.get(bin);
+        HashMap<Double, ArrayList<PrecursorWithTitle>> result = null;
+        for (int i = 0; i < mzIndex.size(); i++) {
+            double mz = mzIndex.getMz(i);
+            if (getBin(mz) == bin) {
+                if (result == null) {
+                    result = new HashMap<Double, ArrayList<PrecursorWithTitle>>(2);
+                }
+                ArrayList<PrecursorWithTitle> precursorsAtMz = result.get(mz);
+                if (precursorsAtMz == null) {
+                    precursorsAtMz = new ArrayList<PrecursorWithTitle>(1);
+                    result.put(mz, precursorsAtMz);
+                }
+                precursorsAtMz.add(precursors[i]);
+            }
+        }
+        return result;
     }
 
     /**
@@ -0,0 +1,340 @@
+package com.compomics.util.experiment.massspectrometry.indexes;
+
+import java.io.Serializable;
+
+/**
+ * Index of m/z values stored in a sorted primitive array. Matches are
+ * returned as ranges of indexes in the array, allowing the owner of the index
+ * to store its objects in arrays sorted the same way. Lookups use a binary
+ * search or, optionally, a table giving the start of buckets of m/z in
+ * constant time.
+ *
+ * @author Marc Vaudel
+ */
+public class SortedMzIndex implements Serializable {
+
+    /**
+     * The version UID for Serialization/Deserialization compatibility.
+     */
+    static final long serialVersionUID = -2816343402787305513L;
+    /**
+     * The minimal number of values for which the lookup table is used by
+     * default, smaller arrays are faster to search using binary search.
+     */
+    public static final int LOOKUP_TABLE_MIN_SIZE = 256;
+    /**
+     * The maximal number of buckets of the lookup table per value.
+     */
+    private static final int LOOKUP_TABLE_BUCKETS_PER_VALUE = 2;
+    /**
+     * The number of values scanned from the previous match before searching
+     * the index when querying sorted m/z.
+     */
+    private static final int SCAN_LIMIT = 8;
+    /**
+     * An empty array of m/z.
+     */
+    private static final double[] EMPTY = new double[0];
+    /**
+     * The m/z values in increasing order.
+     */
+    private final double[] mz;
+    /**
+     * The number of values in the index.
+     */
+    private final int size;
+    /**
+     * The m/z tolerance.
+     */
+    private final double tolerance;
+    /**
+     * Boolean indicating whether the m/z tolerance is in ppm.
+     */
+    private final boolean ppm;
+    /**
+     * Table of the index of the first value of every bucket, null if not
+     * used.
+     */
+    private final int[] lookupTable;
+    /**
+     * The lower m/z of the first bucket.
+     */
+    private final double lookupMin;
+    /**
+     * The inverse of the bucket width.
+     */
+    private final double lookupScale;
+
+    /**
+     * Constructor for an empty index.
+     *
+     * @param tolerance the m/z tolerance
+     * @param ppm boolean indicating whether the tolerance is in ppm
+     */
+    public SortedMzIndex(double tolerance, boolean ppm) {
+        this(EMPTY, 0, tolerance, ppm, false);
+    }
+
+    /**
+     * Constructor. The lookup table is used if the array contains at least
+     * LOOKUP_TABLE_MIN_SIZE values.
+     *
+     * @param mz the m/z values sorted in increasing order, the array is used as
+     * provided and must not be modified
+     * @param size the number of values to index from the array
+     * @param tolerance the m/z tolerance
+     * @param ppm boolean indicating whether the tolerance is in ppm
+     */
+    public SortedMzIndex(double[] mz, int size, double tolerance, boolean ppm) {
+        this(mz, size, tolerance, ppm, size >= LOOKUP_TABLE_MIN_SIZE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param mz the m/z values sorted in increasing order, the array is used as
+     * provided and must not be modified
+     * @param size the number of values to index from the array
+     * @param tolerance the m/z tolerance
+     * @param ppm boolean indicating whether the tolerance is in ppm
+     * @param useLookupTable boolean indicating whether a lookup table should
+     * be built
+     */
+    public SortedMzIndex(double[] mz, int size, double tolerance, boolean ppm, boolean useLookupTable) {
+
+        if (size > mz.length) {
+            throw new IllegalArgumentException("Attempting to index " + size + " values from an array of length " + mz.length + ".");
+        }
+        for (int i = 1; i < size; i++) {
+            if (mz[i] < mz[i - 1]) {
+                throw new IllegalArgumentException("m/z values not sorted at index " + i + ".");
+            }
+        }
+
+        this.mz = mz;
+        this.size = size;
+        this.tolerance = tolerance;
+        this.ppm = ppm;
+
+        double range = size > 0 ? mz[size - 1] - mz[0] : 0.0;
+        if (useLookupTable && size > 1 && range > 0) {
+
+            // Buckets should not be narrower than the tolerance window at the lowest m/z
+            double minWidth = ppm ? mz[0] * tolerance / 1000000 : tolerance;
+            int nBuckets = LOOKUP_TABLE_BUCKETS_PER_VALUE * size;
+            if (minWidth > 0 && range / minWidth < nBuckets) {
+                nBuckets = Math.max((int) (range / minWidth), 1);
+            }
+            lookupMin = mz[0];
+            lookupScale = nBuckets / range;
+            lookupTable = new int[nBuckets + 1];
+            int index = 0;
+            for (int bucket = 0; bucket <= nBuckets; bucket++) {
+                while (index < size && getBucket(mz[index]) < bucket) {
+                    index++;
+                }
+                lookupTable[bucket] = index;
+            }
+
+        } else {
+            lookupTable = null;
+            lookupMin = 0.0;
+            lookupScale = 0.0;
+        }
+    }
+
+    /**
+     * Returns the bucket of the lookup table for the given m/z. The m/z must
+     * be within the range of the index.
+     *
+     * @param value the m/z
+     *
+     * @return the bucket
+     */
+    private int getBucket(double value) {
+        return Math.min((int) ((value - lookupMin) * lookupScale), lookupTable.length - 1);
+    }
+
+    /**
+     * Returns the number of values in the index.
+     *
+     * @return the number of values in the index
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the m/z at the given index.
+     *
+     * @param index the index
+     *
+     * @return the m/z at the given index
+     */
+    public double getMz(int index) {
+        return mz[index];
+    }
+
+    /**
+     * Returns the m/z tolerance.
+     *
+     * @return the m/z tolerance
+     */
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    /**
+     * Indicates whether the m/z tolerance is in ppm.
+     *
+     * @return a boolean indicating whether the m/z tolerance is in ppm
+     */
+    public boolean isPpm() {
+        return ppm;
+    }
+
+    /**
+     * Indicates whether a lookup table is used.
+     *
+     * @return a boolean indicating whether a lookup table is used
+     */
+    public boolean hasLookupTable() {
+        return lookupTable != null;
+    }
+
+    /**
+     * Returns the index of the first value greater than or equal to the given
+     * m/z.
+     *
+     * @param minMz the minimal m/z
+     *
+     * @return the index of the first value greater than or equal to the given
+     * m/z, the size of the index if none
+     */
+    public int getLowerBound(double minMz) {
+
+        if (size == 0 || minMz <= mz[0]) {
+            return 0;
+        }
+        if (minMz > mz[size - 1]) {
+            return size;
+        }
+
+        if (lookupTable != null) {
+            int index = lookupTable[getBucket(minMz)];
+            while (mz[index] < minMz) {
+                index++;
+            }
+            return index;
+        }
+
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (mz[middle] < minMz) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the error between the value at the given index and the given
+     * m/z, in ppm or Da according to the tolerance.
+     *
+     * @param index the index of the value
+     * @param queryMz the queried m/z
+     *
+     * @return the error
+     */
+    private double getError(int index, double queryMz) {
+        if (ppm) {
+            return 1000000 * (mz[index] - queryMz) / queryMz;
+        } else {
+            return mz[index] - queryMz;
+        }
+    }
+
+    /**
+     * Returns the index of the first value matching the given m/z.
+     *
+     * @param queryMz the queried m/z
+     *
+     * @return the index of the first value matching the given m/z
+     */
+    public int getStart(double queryMz) {
+        double minMz = ppm ? queryMz - queryMz * tolerance / 1000000 : queryMz - tolerance;
+        return getStart(queryMz, getLowerBound(minMz));
+    }
+
+    /**
+     * Returns the index of the first value matching the given m/z starting
+     * from an approximate index. The error being monotonous along the array,
+     * the approximate index is corrected by inspecting its neighbors.
+     *
+     * @param queryMz the queried m/z
+     * @param index an index close to the first matching value
+     *
+     * @return the index of the first value matching the given m/z
+     */
+    private int getStart(double queryMz, int index) {
+        while (index > 0 && getError(index - 1, queryMz) >= -tolerance) {
+            index--;
+        }
+        while (index < size && getError(index, queryMz) < -tolerance) {
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * Returns the index after the last value matching the given m/z.
+     *
+     * @param queryMz the queried m/z
+     * @param start the index of the first value matching the given m/z as
+     * given by getStart
+     *
+     * @return the index after the last value matching the given m/z
+     */
+    public int getEnd(double queryMz, int start) {
+        int index = start;
+        while (index < size && getError(index, queryMz) <= tolerance) {
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * Returns the ranges of values matching the given m/z. The ranges are
+     * written in the given arrays where values matching the query at index i
+     * are between starts[i], inclusive, and ends[i], exclusive. When the
+     * queries are sorted in increasing order, the index is scanned only once.
+     *
+     * @param queryMzs the queried m/z
+     * @param nQueries the number of queries to take from the array
+     * @param starts the array where to write the start of the ranges
+     * @param ends the array where to write the end of the ranges
+     */
+    public void getRanges(double[] queryMzs, int nQueries, int[] starts, int[] ends) {
+        int start = 0;
+        for (int i = 0; i < nQueries; i++) {
+            double queryMz = queryMzs[i];
+            if (i > 0 && queryMz >= queryMzs[i - 1]) {
+                int limit = Math.min(start + SCAN_LIMIT, size);
+                while (start < limit && getError(start, queryMz) < -tolerance) {
+                    start++;
+                }
+                if (start == limit && limit < size) {
+                    start = getStart(queryMz);
+                }
+            } else {
+                start = getStart(queryMz);
+            }
+            starts[i] = start;
+            ends[i] = getEnd(queryMz, start);
+        }
+    }
+}
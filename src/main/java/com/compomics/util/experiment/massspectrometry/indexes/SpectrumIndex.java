@@ -1,14 +1,18 @@
 package com.compomics.util.experiment.massspectrometry.indexes;
 
 import com.compomics.util.experiment.massspectrometry.Peak;
+import com.compomics.util.experiment.massspectrometry.PeakArray;
 import com.compomics.util.experiment.personalization.UrParameter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.Set;
 import org.apache.commons.math.util.FastMath;
 
 /**
- * This map stores the fragment ions indexed by mass.
+ * This index stores the peaks of a spectrum sorted by m/z for the matching of
+ * fragment ions.
  *
  * @author Marc Vaudel
  */
@@ -23,9 +27,13 @@ public class SpectrumIndex implements UrParameter {
      */
     boolean ppm;
     /**
-     * Map of the precursors by bin and m/z.
+     * The peaks above the intensity limit sorted by increasing m/z.
      */
-    private HashMap<Integer, HashMap<Double, Peak>> peaksMap;
+    private Peak[] peaks;
+    /**
+     * The index of the m/z of the peaks.
+     */
+    private SortedMzIndex mzIndex;
     /**
      * An m/z anchor to determine the bins in ppm
      */
@@ -60,6 +68,8 @@ public class SpectrumIndex implements UrParameter {
      */
     public SpectrumIndex() {
         intensityLimit = 0.0;
+        peaks = new Peak[0];
+        mzIndex = new SortedMzIndex(0.0, false);
     }
 
     /**
@@ -73,31 +83,88 @@ public class SpectrumIndex implements UrParameter {
      */
     public SpectrumIndex(HashMap<Double, Peak> peaks, double intenstiyLimit, double tolerance, boolean ppm) {
         this.intensityLimit = intenstiyLimit;
-        this.peaksMap = new HashMap<Integer, HashMap<Double, Peak>>();
         this.precursorTolerance = tolerance;
         this.ppm = ppm;
         if (ppm) {
             scalingFactor = FastMath.log((1000000 - tolerance) / (1000000 + tolerance));
         }
-        totalIntensity = 0.0;
+        Peak[] sortedPeaks = new Peak[peaks.size()];
+        int nPeaks = 0;
         for (Peak peak : peaks.values()) {
             if (peak.intensity >= intenstiyLimit) {
-                totalIntensity += peak.intensity;
-                Integer bin = getBin(peak.mz);
-                if (binMax == null || bin > binMax) {
-                    binMax = bin;
-                }
-                if (binMin == null || bin < binMin) {
-                    binMin = bin;
-                }
-                HashMap<Double, Peak> peaksInBin = peaksMap.get(bin);
-                if (peaksInBin == null) {
-                    peaksInBin = new HashMap<Double, Peak>(4);
-                    peaksMap.put(bin, peaksInBin);
-                }
-                peaksInBin.put(peak.mz, peak);
+                sortedPeaks[nPeaks++] = peak;
+            }
+        }
+        Arrays.sort(sortedPeaks, 0, nPeaks, Peak.AscendingMzComparator);
+        double[] mz = new double[nPeaks];
+        for (int i = 0; i < nPeaks; i++) {
+            mz[i] = sortedPeaks[i].mz;
+        }
+        setPeaks(Arrays.copyOf(sortedPeaks, nPeaks), mz);
+    }
+
+    /**
+     * Builds a new index from the peaks of a spectrum. The peaks are already
+     * sorted and are only filtered according to their intensity.
+     *
+     * @param peakArray the peaks of the spectrum
+     * @param intenstiyLimit a lower limit for the intensity of the peaks to
+     * index
+     * @param tolerance the tolerance to use
+     * @param ppm boolean indicating whether the tolerance is in ppm
+     */
+    public SpectrumIndex(PeakArray peakArray, double intenstiyLimit, double tolerance, boolean ppm) {
+        this.intensityLimit = intenstiyLimit;
+        this.precursorTolerance = tolerance;
+        this.ppm = ppm;
+        if (ppm) {
+            scalingFactor = FastMath.log((1000000 - tolerance) / (1000000 + tolerance));
+        }
+        double[] peakMz = peakArray.getMzArray();
+        double[] peakIntensity = peakArray.getIntensityArray();
+        int nPeaks = 0;
+        for (int i = 0; i < peakIntensity.length; i++) {
+            if (peakIntensity[i] >= intenstiyLimit) {
+                nPeaks++;
+            }
+        }
+        Peak[] sortedPeaks = new Peak[nPeaks];
+        double[] mz;
+        if (nPeaks == peakMz.length) {
+            mz = peakMz;
+        } else {
+            mz = new double[nPeaks];
+        }
+        int index = 0;
+        for (int i = 0; i < peakIntensity.length; i++) {
+            if (peakIntensity[i] >= intenstiyLimit) {
+                sortedPeaks[index] = new Peak(peakMz[i], peakIntensity[i]);
+                mz[index] = peakMz[i];
+                index++;
             }
         }
+        setPeaks(sortedPeaks, mz);
+    }
+
+    /**
+     * Sets the peaks of the index and computes the bins and total intensity.
+     *
+     * @param sortedPeaks the peaks sorted by increasing m/z
+     * @param mz the m/z of the peaks
+     */
+    private void setPeaks(Peak[] sortedPeaks, double[] mz) {
+        this.peaks = sortedPeaks;
+        this.mzIndex = new SortedMzIndex(mz, sortedPeaks.length, precursorTolerance, ppm);
+        totalIntensity = 0.0;
+        for (Peak peak : sortedPeaks) {
+            totalIntensity += peak.intensity;
+        }
+        if (sortedPeaks.length > 0) {
+            int bin1 = getBin(mz[0]);
+            int bin2 = getBin(mz[mz.length - 1]);
+            binMin = Math.min(bin1, bin2);
+            binMax = Math.max(bin1, bin2);
+        }
     }
 
     /**
@@ -142,93 +209,96 @@ public class SpectrumIndex implements UrParameter {
     }
 
     /**
-     * Returns the peaks matching the given m/z. TODO: check only one/two bins
-     * when possible.
+     * Returns the peaks matching the given m/z.
      *
      * @param mz a m/z to query
      *
      * @return the peaks matching the given m/z
      */
     public ArrayList<Peak> getMatchingPeaks(double mz) {
-        int bin0;
-        if (ppm) {
-            bin0 = getBinPpm(mz);
-        } else {
-            bin0 = getBinAbsolute(mz);
-        }
-        ArrayList<Peak> result = new ArrayList<Peak>(0);
-        HashMap<Double, Peak> binContent = peaksMap.get(bin0 - 1);
-        if (binContent != null) {
-            for (Double peakMz : binContent.keySet()) {
-                double error;
-                if (ppm) {
-                    error = 1000000 * (peakMz - mz) / mz;
-                } else {
-                    error = peakMz - mz;
-                }
-                if (Math.abs(error) <= precursorTolerance) {
-                    result.add(binContent.get(peakMz));
-                }
-            }
-        }
-        binContent = peaksMap.get(bin0);
-        if (binContent != null) {
-            for (Double peakMz : binContent.keySet()) {
-                double error;
-                if (ppm) {
-                    error = 1000000 * (peakMz - mz) / mz;
-                } else {
-                    error = peakMz - mz;
-                }
-                if (Math.abs(error) <= precursorTolerance) {
-                    result.add(binContent.get(peakMz));
-                }
-            }
-        }
-        binContent = peaksMap.get(bin0 + 1);
-        if (binContent != null) {
-            for (Double peakMz : binContent.keySet()) {
-                double error;
-                if (ppm) {
-                    error = 1000000 * (peakMz - mz) / mz;
-                } else {
-                    error = peakMz - mz;
-                }
-                if (Math.abs(error) <= precursorTolerance) {
-                    result.add(binContent.get(peakMz));
-                }
-            }
+        int start = mzIndex.getStart(mz);
+        int end = mzIndex.getEnd(mz, start);
+        ArrayList<Peak> result = new ArrayList<Peak>(end - start);
+        for (int i = start; i < end; i++) {
+            result.add(peaks[i]);
         }
         return result;
     }
 
     /**
-     * Returns the bins in the map as a list. The list is created every time me method is called.
+     * Returns the index of the m/z of the peaks. Peaks matching a query are
+     * found between the start and end given by the m/z index and can be
+     * retrieved using getPeak without allocating a list.
      *
-     * @return the bins in the map
+     * @return the index of the m/z of the peaks
+     */
+    public SortedMzIndex getMzIndex() {
+        return mzIndex;
+    }
+
+    /**
+     * Returns the number of peaks in the index.
+     *
+     * @return the number of peaks in the index
+     */
+    public int size() {
+        return peaks.length;
+    }
+
+    /**
+     * Returns the peak at the given index, peaks are sorted by increasing m/z.
+     *
+     * @param index the index of the peak
+     *
+     * @return the peak at the given index
+     */
+    public Peak getPeak(int index) {
+        return peaks[index];
+    }
+
+    /**
+     * Returns the bins in the index as a list. The list is created every time
+     * the method is called.
+     *
+     * @return the bins in the index
      */
     public ArrayList<Integer> getBins() {
-        return new ArrayList<Integer>(peaksMap.keySet());
+        return new ArrayList<Integer>(getRawBins());
     }
 
     /**
-     * Returns the bins in the map as collection of keys from the map.
+     * Returns the bins in the index. The set is created every time the method
+     * is called.
      *
-     * @return the bins in the map
+     * @return the bins in the index
      */
     public Set<Integer> getRawBins() {
-        return peaksMap.keySet();
+        LinkedHashSet<Integer> bins = new LinkedHashSet<Integer>();
+        for (Peak peak : peaks) {
+            bins.add(getBin(peak.mz));
+        }
+        return bins;
     }
 
     /**
      * Returns the peaks at the given bin indexed by m/z. Null if none found.
+     * The map is created every time the method is called.
      *
      * @param bin the bin number
      *
      * @return the peaks at the given bin
      */
     public HashMap<Double, Peak> getPeaksInBin(Integer bin) {
-        return peaksMap.get(bin);
+        HashMap<Double, Peak> result = null;
+        for (Peak peak : peaks) {
+            if (getBin(peak.mz) == bin) {
+                if (result == null) {
+                    result = new HashMap<Double, Peak>(4);
+                }
+                result.put(peak.mz, peak);
+            }
+        }
+        return result;
     }
 
     /**
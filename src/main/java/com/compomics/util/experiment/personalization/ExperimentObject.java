@@ -65,6 +65,16 @@ public abstract class ExperimentObject implements Serializable, Cloneable {
         return urParams.get(parameter.getParameterKey());
     }
     
+    /**
+     * Returns the user refinement parameters indexed by parameter key. Null if
+     * none.
+     *
+     * @return the user refinement parameters
+     */
+    public HashMap<String, UrParameter> getUrParams() {
+        return urParams;
+    }
+
     /**
      * Clears the loaded parameters.
      */
@@ -0,0 +1,233 @@
+package com.compomics.util.maps;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Set of non-negative integers stored in a primitive open addressing table.
+ * This set is not thread safe.
+ *
+ * @author Marc Vaudel
+ */
+public class IntHashSet implements Serializable {
+
+    /**
+     * The version UID for serialization/deserialization compatibility.
+     */
+    static final long serialVersionUID = -3487596213404412093L;
+    /**
+     * Value of the empty slots.
+     */
+    private static final int EMPTY = -1;
+    /**
+     * The minimal capacity of the table.
+     */
+    private static final int MIN_CAPACITY = 4;
+    /**
+     * The table of values, the capacity is a power of two.
+     */
+    private int[] table;
+    /**
+     * The number of values in the set.
+     */
+    private int size = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param expectedSize the expected number of values
+     */
+    public IntHashSet(int expectedSize) {
+        table = new int[getCapacity(expectedSize)];
+        Arrays.fill(table, EMPTY);
+    }
+
+    /**
+     * Constructor for an empty set.
+     */
+    public IntHashSet() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * Returns the table capacity needed to hold the given number of values
+     * with a load factor of at most one half.
+     *
+     * @param nValues the number of values
+     *
+     * @return the capacity of the table
+     */
+    private static int getCapacity(int nValues) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < 2 * nValues) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    /**
+     * Returns the first slot to probe for the given value.
+     *
+     * @param value the value
+     * @param mask the mask of the table
+     *
+     * @return the first slot to probe
+     */
+    private static int getSlot(int value, int mask) {
+        int hash = value * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    /**
+     * Adds a value to the set.
+     *
+     * @param value the value, must be non-negative
+     *
+     * @return true if the value was not already in the set
+     */
+    public boolean add(int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative value " + value + " cannot be added to the set.");
+        }
+        int mask = table.length - 1;
+        int slot = getSlot(value, mask);
+        int current;
+        while ((current = table[slot]) != EMPTY) {
+            if (current == value) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = value;
+        size++;
+        if (2 * size > table.length) {
+            rehash(table.length << 1);
+        }
+        return true;
+    }
+
+    /**
+     * Indicates whether the set contains the given value.
+     *
+     * @param value the value
+     *
+     * @return true if the set contains the value
+     */
+    public boolean contains(int value) {
+        if (value < 0) {
+            return false;
+        }
+        int mask = table.length - 1;
+        int slot = getSlot(value, mask);
+        int current;
+        while ((current = table[slot]) != EMPTY) {
+            if (current == value) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * Removes a value from the set.
+     *
+     * @param value the value
+     *
+     * @return true if the value was in the set
+     */
+    public boolean remove(int value) {
+        if (value < 0) {
+            return false;
+        }
+        int mask = table.length - 1;
+        int slot = getSlot(value, mask);
+        int current;
+        while ((current = table[slot]) != value) {
+            if (current == EMPTY) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        // shift back the following values of the cluster to keep the probe sequences unbroken
+        int gap = slot;
+        int next = (gap + 1) & mask;
+        while ((current = table[next]) != EMPTY) {
+            int home = getSlot(current, mask);
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                table[gap] = current;
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        table[gap] = EMPTY;
+        size--;
+        return true;
+    }
+
+    /**
+     * Rebuilds the table with the given capacity.
+     *
+     * @param capacity the new capacity, a power of two
+     */
+    private void rehash(int capacity) {
+        int[] oldTable = table;
+        table = new int[capacity];
+        Arrays.fill(table, EMPTY);
+        int mask = capacity - 1;
+        for (int value : oldTable) {
+            if (value != EMPTY) {
+                int slot = getSlot(value, mask);
+                while (table[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = value;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of values in the set.
+     *
+     * @return the number of values in the set
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Indicates whether the set is empty.
+     *
+     * @return true if the set is empty
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Removes all values from the set.
+     */
+    public void clear() {
+        if (table.length > MIN_CAPACITY) {
+            table = new int[MIN_CAPACITY];
+        }
+        Arrays.fill(table, EMPTY);
+        size = 0;
+    }
+
+    /**
+     * Returns the values of the set in an array, in no particular order.
+     *
+     * @return the values of the set
+     */
+    public int[] toArray() {
+        int[] result = new int[size];
+        int i = 0;
+        for (int value : table) {
+            if (value != EMPTY) {
+                result[i++] = value;
+            }
+        }
+        return result;
+    }
+}
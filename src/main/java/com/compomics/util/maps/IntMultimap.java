@@ -0,0 +1,146 @@
+package com.compomics.util.maps;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Map of dense non-negative integer keys to sets of non-negative integer
+ * values. This map is not thread safe.
+ *
+ * @author Marc Vaudel
+ */
+public class IntMultimap implements Serializable {
+
+    /**
+     * The version UID for serialization/deserialization compatibility.
+     */
+    static final long serialVersionUID = 2093658715302743191L;
+    /**
+     * The sets of values indexed by key, null if none.
+     */
+    private IntHashSet[] sets;
+
+    /**
+     * Constructor.
+     *
+     * @param expectedSize the expected number of keys
+     */
+    public IntMultimap(int expectedSize) {
+        sets = new IntHashSet[Math.max(expectedSize, 4)];
+    }
+
+    /**
+     * Constructor for an empty map.
+     */
+    public IntMultimap() {
+        this(1024);
+    }
+
+    /**
+     * Adds a value for the given key.
+     *
+     * @param key the key, must be non-negative
+     * @param value the value, must be non-negative
+     *
+     * @return true if the value was not already mapped to the key
+     */
+    public boolean put(int key, int value) {
+        if (key >= sets.length) {
+            sets = Arrays.copyOf(sets, Math.max(2 * sets.length, key + 1));
+        }
+        IntHashSet values = sets[key];
+        if (values == null) {
+            values = new IntHashSet(1);
+            sets[key] = values;
+        }
+        return values.add(value);
+    }
+
+    /**
+     * Returns the values of the given key, null if none. The returned set is
+     * backed by the map.
+     *
+     * @param key the key
+     *
+     * @return the values of the key
+     */
+    public IntHashSet get(int key) {
+        if (key < 0 || key >= sets.length) {
+            return null;
+        }
+        return sets[key];
+    }
+
+    /**
+     * Indicates whether the given value is mapped to the given key.
+     *
+     * @param key the key
+     * @param value the value
+     *
+     * @return true if the value is mapped to the key
+     */
+    public boolean contains(int key, int value) {
+        IntHashSet values = get(key);
+        return values != null && values.contains(value);
+    }
+
+    /**
+     * Removes a value from the given key. The key is removed when it has no
+     * value left.
+     *
+     * @param key the key
+     * @param value the value
+     *
+     * @return true if the value was mapped to the key
+     */
+    public boolean remove(int key, int value) {
+        IntHashSet values = get(key);
+        if (values == null || !values.remove(value)) {
+            return false;
+        }
+        if (values.isEmpty()) {
+            sets[key] = null;
+        }
+        return true;
+    }
+
+    /**
+     * Removes a key and all its values.
+     *
+     * @param key the key
+     */
+    public void removeAll(int key) {
+        if (key >= 0 && key < sets.length) {
+            sets[key] = null;
+        }
+    }
+
+    /**
+     * Returns the keys having at least one value, in ascending order.
+     *
+     * @return the keys having at least one value
+     */
+    public int[] getKeys() {
+        int nKeys = 0;
+        for (IntHashSet values : sets) {
+            if (values != null) {
+                nKeys++;
+            }
+        }
+        int[] keys = new int[nKeys];
+        int i = 0;
+        for (int key = 0; key < sets.length; key++) {
+            if (sets[key] != null) {
+                keys[i++] = key;
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Removes all keys.
+     */
+    public void clear() {
+        Arrays.fill(sets, null);
+    }
+}
@@ -0,0 +1,280 @@
+package com.compomics.util.maps;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Dictionary assigning dense integer ids to string keys. The keys are stored
+ * once as UTF-8 bytes in a single byte array and the ids can be used in
+ * primitive sets and maps instead of the strings. Ids are attributed in order
+ * of addition starting from 0 and are never removed. This class is thread
+ * safe: only the additions are synchronized, the arrays are replaced and not
+ * modified when they grow and the number of keys is published last so that
+ * the lookups need no lock.
+ *
+ * @author Marc Vaudel
+ */
+public class KeyDictionary implements Serializable {
+
+    /**
+     * The version UID for serialization/deserialization compatibility.
+     */
+    static final long serialVersionUID = 6412809316548172395L;
+    /**
+     * The encoding of the keys.
+     */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    /**
+     * The bytes of the keys one after the other.
+     */
+    private volatile byte[] arena;
+    /**
+     * The number of bytes used in the arena.
+     */
+    private int arenaSize = 0;
+    /**
+     * The start of every key in the arena, the end of a key is the start of
+     * the next one.
+     */
+    private volatile int[] offsets;
+    /**
+     * The hash of every key.
+     */
+    private volatile int[] hashes;
+    /**
+     * The number of keys. Written after the arrays when a key is added, the
+     * keys of larger ids are ignored by the lookups.
+     */
+    private volatile int size = 0;
+    /**
+     * Open addressing table of the ids plus one, 0 for empty slots. The
+     * capacity is a power of two.
+     */
+    private volatile int[] table;
+
+    /**
+     * Constructor.
+     *
+     * @param expectedSize the expected number of keys
+     */
+    public KeyDictionary(int expectedSize) {
+        expectedSize = Math.max(expectedSize, 4);
+        arena = new byte[16 * expectedSize];
+        offsets = new int[expectedSize + 1];
+        hashes = new int[expectedSize];
+        int capacity = 8;
+        while (capacity < 2 * expectedSize) {
+            capacity <<= 1;
+        }
+        table = new int[capacity];
+    }
+
+    /**
+     * Constructor for an empty dictionary.
+     */
+    public KeyDictionary() {
+        this(1024);
+    }
+
+    /**
+     * Returns the UTF-8 bytes of the given key.
+     *
+     * @param key the key
+     *
+     * @return the bytes of the key
+     */
+    private static byte[] getBytes(String key) {
+        int length = key.length();
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            char c = key.charAt(i);
+            if (c >= 0x80) {
+                return key.getBytes(UTF8);
+            }
+            bytes[i] = (byte) c;
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the hash of the given bytes.
+     *
+     * @param bytes the bytes
+     *
+     * @return the hash of the bytes
+     */
+    private static int getHash(byte[] bytes) {
+        int hash = Arrays.hashCode(bytes);
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Returns the slot of the table where the given key is or should be
+     * inserted. The keys of ids larger than or equal to the given number of
+     * keys are being added by another thread and are skipped.
+     *
+     * @param bytes the bytes of the key
+     * @param hash the hash of the key
+     * @param nKeys the number of keys, must be read before the table
+     * @param currentTable the table
+     *
+     * @return the slot of the key in the table
+     */
+    private int getSlot(byte[] bytes, int hash, int nKeys, int[] currentTable) {
+        int[] currentHashes = hashes;
+        int[] currentOffsets = offsets;
+        byte[] currentArena = arena;
+        int mask = currentTable.length - 1;
+        int slot = hash & mask;
+        int entry;
+        while ((entry = currentTable[slot]) != 0) {
+            int id = entry - 1;
+            if (id < nKeys && currentHashes[id] == hash && matches(currentOffsets, currentArena, id, bytes)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Indicates whether the key of the given id has the given bytes.
+     *
+     * @param currentOffsets the offsets of the keys
+     * @param currentArena the bytes of the keys
+     * @param id the id of the key
+     * @param bytes the bytes
+     *
+     * @return true if the key has the given bytes
+     */
+    private static boolean matches(int[] currentOffsets, byte[] currentArena, int id, byte[] bytes) {
+        int start = currentOffsets[id];
+        if (currentOffsets[id + 1] - start != bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            if (currentArena[start + i] != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds a key to the dictionary if not already present and returns its id.
+     *
+     * @param key the key
+     *
+     * @return the id of the key
+     */
+    public synchronized int add(String key) {
+        byte[] bytes = getBytes(key);
+        int hash = getHash(bytes);
+        int id = size;
+        int[] currentTable = table;
+        int slot = getSlot(bytes, hash, id, currentTable);
+        if (currentTable[slot] != 0) {
+            return currentTable[slot] - 1;
+        }
+        if (id == hashes.length) {
+            int capacity = Math.max(2 * id, 4);
+            offsets = Arrays.copyOf(offsets, capacity + 1);
+            hashes = Arrays.copyOf(hashes, capacity);
+        }
+        if (arenaSize + bytes.length > arena.length) {
+            arena = Arrays.copyOf(arena, Math.max(2 * arena.length, arenaSize + bytes.length));
+        }
+        System.arraycopy(bytes, 0, arena, arenaSize, bytes.length);
+        arenaSize += bytes.length;
+        offsets[id + 1] = arenaSize;
+        hashes[id] = hash;
+        currentTable[slot] = id + 1;
+        size = id + 1;
+        if (2 * (id + 1) > currentTable.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    /**
+     * Returns the id of the given key, -1 if not in the dictionary.
+     *
+     * @param key the key
+     *
+     * @return the id of the key
+     */
+    public int getId(String key) {
+        byte[] bytes = getBytes(key);
+        int nKeys = size;
+        int[] currentTable = table;
+        int entry = currentTable[getSlot(bytes, getHash(bytes), nKeys, currentTable)];
+        return entry > nKeys ? -1 : entry - 1;
+    }
+
+    /**
+     * Returns the key of the given id.
+     *
+     * @param id the id
+     *
+     * @return the key
+     */
+    public String getKey(int id) {
+        if (id < 0 || id >= size) {
+            throw new IllegalArgumentException("Key id " + id + " not found in the dictionary.");
+        }
+        int[] currentOffsets = offsets;
+        int start = currentOffsets[id];
+        return new String(arena, start, currentOffsets[id + 1] - start, UTF8);
+    }
+
+    /**
+     * Returns the number of keys in the dictionary.
+     *
+     * @return the number of keys in the dictionary
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Doubles the capacity of the table. The new table is filled before
+     * replacing the current one.
+     */
+    private void rehash() {
+        int[] newTable = new int[2 * table.length];
+        int mask = newTable.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = hashes[id] & mask;
+            while (newTable[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            newTable[slot] = id + 1;
+        }
+        table = newTable;
+    }
+
+    /**
+     * Releases the memory allocated in advance for new keys.
+     */
+    public synchronized void trimToSize() {
+        arena = Arrays.copyOf(arena, arenaSize);
+        offsets = Arrays.copyOf(offsets, size + 1);
+        hashes = Arrays.copyOf(hashes, size);
+    }
+
+    /**
+     * Trims the arrays before serialization.
+     *
+     * @param out the output stream
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the object
+     */
+    private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+        trimToSize();
+        out.defaultWriteObject();
+    }
+}
@@ -0,0 +1,257 @@
+package com.compomics.util.maps;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Set of string keys stored as ids of a key dictionary. Several sets can share
+ * the same dictionary, the strings are then stored only once. The iterator
+ * works on a snapshot of the set. This class is thread safe, the lookups
+ * share a read lock and only the modifications are exclusive.
+ *
+ * @author Marc Vaudel
+ */
+public class KeySet extends AbstractSet<String> implements Serializable {
+
+    /**
+     * The version UID for serialization/deserialization compatibility.
+     */
+    static final long serialVersionUID = -6020358746410237195L;
+    /**
+     * The dictionary of the keys.
+     */
+    private final KeyDictionary keyDictionary;
+    /**
+     * The ids of the keys in the set.
+     */
+    private final IntHashSet ids;
+    /**
+     * The lock of the ids.
+     */
+    private transient ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Constructor.
+     *
+     * @param keyDictionary the dictionary of the keys
+     * @param expectedSize the expected number of keys
+     */
+    public KeySet(KeyDictionary keyDictionary, int expectedSize) {
+        this.keyDictionary = keyDictionary;
+        this.ids = new IntHashSet(expectedSize);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param keyDictionary the dictionary of the keys
+     */
+    public KeySet(KeyDictionary keyDictionary) {
+        this(keyDictionary, 16);
+    }
+
+    /**
+     * Returns the dictionary of the keys.
+     *
+     * @return the dictionary of the keys
+     */
+    public KeyDictionary getKeyDictionary() {
+        return keyDictionary;
+    }
+
+    @Override
+    public boolean add(String key) {
+        return addId(keyDictionary.add(key));
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends String> keys) {
+        int[] keyIds = new int[keys.size()];
+        int i = 0;
+        for (String key : keys) {
+            keyIds[i++] = keyDictionary.add(key);
+        }
+        boolean modified = false;
+        lock.writeLock().lock();
+        try {
+            for (int id : keyIds) {
+                modified |= ids.add(id);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return modified;
+    }
+
+    /**
+     * Adds the key of the given id to the set.
+     *
+     * @param id the id of the key in the dictionary
+     *
+     * @return true if the key was not already in the set
+     */
+    public boolean addId(int id) {
+        lock.writeLock().lock();
+        try {
+            return ids.add(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean contains(Object key) {
+        if (!(key instanceof String)) {
+            return false;
+        }
+        return containsId(keyDictionary.getId((String) key));
+    }
+
+    /**
+     * Indicates whether the key of the given id is in the set.
+     *
+     * @param id the id of the key in the dictionary
+     *
+     * @return true if the key is in the set
+     */
+    public boolean containsId(int id) {
+        lock.readLock().lock();
+        try {
+            return ids.contains(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(Object key) {
+        if (!(key instanceof String)) {
+            return false;
+        }
+        return removeId(keyDictionary.getId((String) key));
+    }
+
+    /**
+     * Removes the key of the given id from the set.
+     *
+     * @param id the id of the key in the dictionary
+     *
+     * @return true if the key was in the set
+     */
+    public boolean removeId(int id) {
+        lock.writeLock().lock();
+        try {
+            return ids.remove(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return ids.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            ids.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the ids of the keys in the set, in no particular order.
+     *
+     * @return the ids of the keys in the set
+     */
+    public int[] getIds() {
+        lock.readLock().lock();
+        try {
+            return ids.toArray();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+
+        final int[] snapshot = getIds();
+
+        return new Iterator<String>() {
+
+            /**
+             * The index of the next key in the snapshot.
+             */
+            private int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                return index < snapshot.length;
+            }
+
+            @Override
+            public String next() {
+                if (index >= snapshot.length) {
+                    throw new NoSuchElementException();
+                }
+                return keyDictionary.getKey(snapshot[index++]);
+            }
+
+            @Override
+            public void remove() {
+                if (index == 0) {
+                    throw new IllegalStateException();
+                }
+                removeId(snapshot[index - 1]);
+            }
+        };
+    }
+
+    /**
+     * Writes the set while holding the read lock.
+     *
+     * @param out the output stream
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the object
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        lock.readLock().lock();
+        try {
+            out.defaultWriteObject();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Reads the set and creates its lock.
+     *
+     * @param in the input stream
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the object
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while casting the object
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        lock = new ReentrantReadWriteLock();
+    }
+}
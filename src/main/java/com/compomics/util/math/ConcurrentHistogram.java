@@ -0,0 +1,108 @@
+package com.compomics.util.math;
+
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread safe histogram of values rounded to a given number of decimals. The
+ * histogram covers a fixed range of values, values outside this range are
+ * counted in the bin at the border of the range, its size is therefore
+ * bounded.
+ *
+ * @author Marc Vaudel
+ */
+public class ConcurrentHistogram {
+
+    /**
+     * The number of bins per unit.
+     */
+    private final double binsPerUnit;
+    /**
+     * The index of the first bin on the rounded scale.
+     */
+    private final long firstBin;
+    /**
+     * The number of values in every bin.
+     */
+    private final AtomicIntegerArray counts;
+    /**
+     * The number of values in the histogram.
+     */
+    private final AtomicLong nValues = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param minValue the minimal value of the histogram
+     * @param maxValue the maximal value of the histogram
+     * @param nDecimals the number of decimals to round the values to
+     */
+    public ConcurrentHistogram(double minValue, double maxValue, int nDecimals) {
+        if (maxValue < minValue) {
+            throw new IllegalArgumentException("The maximal value of the histogram (" + maxValue + ") is lower than the minimal value (" + minValue + ").");
+        }
+        binsPerUnit = Math.pow(10, (double) nDecimals);
+        firstBin = Math.round(minValue * binsPerUnit);
+        long nBins = Math.round(maxValue * binsPerUnit) - firstBin + 1;
+        if (nBins > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many bins in the histogram (" + nBins + ").");
+        }
+        counts = new AtomicIntegerArray((int) nBins);
+    }
+
+    /**
+     * Adds a value to the histogram.
+     *
+     * @param value the value to add
+     */
+    public void add(double value) {
+        long index = Math.round(value * binsPerUnit) - firstBin;
+        if (index < 0) {
+            index = 0;
+        } else if (index >= counts.length()) {
+            index = counts.length() - 1;
+        }
+        counts.incrementAndGet((int) index);
+        nValues.incrementAndGet();
+    }
+
+    /**
+     * Indicates whether the histogram is empty.
+     *
+     * @return a boolean indicating whether the histogram is empty
+     */
+    public boolean isEmpty() {
+        return nValues.get() == 0;
+    }
+
+    /**
+     * Returns a snapshot of the histogram as a map, bin value to number of
+     * values, as used in the HistogramUtils class.
+     *
+     * @return a snapshot of the histogram
+     */
+    public HashMap<Double, Integer> getHistogram() {
+        HashMap<Double, Integer> result = new HashMap<Double, Integer>();
+        for (int i = 0; i < counts.length(); i++) {
+            int count = counts.get(i);
+            if (count > 0) {
+                result.put((firstBin + i) / binsPerUnit, count);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the median of the histogram, null if empty.
+     *
+     * @return the median of the histogram
+     */
+    public Double getMedianValue() {
+        HashMap<Double, Integer> histogram = getHistogram();
+        if (histogram.isEmpty()) {
+            return null;
+        }
+        return HistogramUtils.getMedianValue(histogram);
+    }
+}
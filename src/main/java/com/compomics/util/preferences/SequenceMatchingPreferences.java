@@ -119,6 +119,11 @@ public class SequenceMatchingPreferences implements Serializable {
      * The peptide mapper to use, FMI by default.
      */
     private PeptideMapperType peptideMapperType = PeptideMapperType.fm_index;
+    /**
+     * Boolean indicating whether the FM index should be built in large text
+     * mode, see FMIndex.
+     */
+    private Boolean fmIndexLargeText = false;
 
     /**
      * Constructor for empty preferences.
@@ -222,6 +227,30 @@ public class SequenceMatchingPreferences implements Serializable {
         this.peptideMapperType = peptideMapperEnum;
     }
 
+    /**
+     * Indicates whether the FM index should be built in large text mode,
+     * indexing the proteome in parts as large as possible.
+     *
+     * @return a boolean indicating whether the FM index should be built in
+     * large text mode
+     */
+    public boolean isFmIndexLargeText() {
+        if (fmIndexLargeText == null) { // Backward compatibility.
+            fmIndexLargeText = false;
+        }
+        return fmIndexLargeText;
+    }
+
+    /**
+     * Sets whether the FM index should be built in large text mode.
+     *
+     * @param fmIndexLargeText a boolean indicating whether the FM index
+     * should be built in large text mode
+     */
+    public void setFmIndexLargeText(boolean fmIndexLargeText) {
+        this.fmIndexLargeText = fmIndexLargeText;
+    }
+
     /**
      * Indicates whether another sequence matching preferences is the same as
      * this one.
@@ -239,6 +268,9 @@ public class SequenceMatchingPreferences implements Serializable {
         if (sequenceMatchingType != sequenceMatchingPreferences.getSequenceMatchingType()) {
             return false;
         }
+        if (isFmIndexLargeText() != sequenceMatchingPreferences.isFmIndexLargeText()) {
+            return false;
+        }
         if (hasLimitX() && sequenceMatchingPreferences.hasLimitX()) {
             double diff = Math.abs(limitX - sequenceMatchingPreferences.getLimitX());
             if (diff > 0.0000000000001) {
@@ -266,6 +298,9 @@ public class SequenceMatchingPreferences implements Serializable {
         StringBuilder output = new StringBuilder();
 
         output.append("Index: ").append(peptideMapperType).append(".").append(newLine);
+        if (isFmIndexLargeText()) {
+            output.append("Large text index: ").append(fmIndexLargeText).append(".").append(newLine);
+        }
         output.append("Method: ").append(sequenceMatchingType).append(".").append(newLine);
         output.append("Max share of x's: ").append(limitX).append(".").append(newLine);
 
@@ -0,0 +1,126 @@
+package com.compomics.util.test.experiment;
+
+import com.compomics.util.experiment.biology.Ion;
+import com.compomics.util.experiment.biology.IonFactory;
+import com.compomics.util.experiment.biology.NeutralLoss;
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.biology.ions.PeptideFragmentIon;
+import com.compomics.util.experiment.identification.matches.IonMatch;
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import com.compomics.util.experiment.identification.spectrum_annotation.AnnotationSettings;
+import com.compomics.util.experiment.identification.spectrum_annotation.SpecificAnnotationSettings;
+import com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators.BatchAnnotation;
+import com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators.BatchPeptideSpectrumAnnotator;
+import com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators.PeptideSpectrumAnnotator;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import com.compomics.util.experiment.massspectrometry.Charge;
+import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
+import com.compomics.util.experiment.massspectrometry.PeakArray;
+import com.compomics.util.experiment.massspectrometry.Precursor;
+import java.util.ArrayList;
+import java.util.Random;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Tests the batch annotation of peptide spectrum matches.
+ *
+ * @author Marc Vaudel
+ */
+public class BatchPeptideSpectrumAnnotatorTest extends TestCase {
+
+    /**
+     * Tests that the batch annotations equal the annotations of the peptide
+     * spectrum annotator with one and multiple threads.
+     *
+     * @throws Exception thrown if an error occurs
+     */
+    public void testBatchAnnotation() throws Exception {
+
+        Random random = new Random(11);
+        String aminoAcids = "ACDEFGHIKLMNPQRSTVWY";
+        ArrayList<Peptide> candidates = new ArrayList<Peptide>();
+        for (int i = 0; i < 20; i++) {
+            StringBuilder sequence = new StringBuilder();
+            for (int j = 0; j < 8 + random.nextInt(10); j++) {
+                sequence.append(aminoAcids.charAt(random.nextInt(aminoAcids.length())));
+            }
+            sequence.append('K');
+            ArrayList<ModificationMatch> modificationMatches = new ArrayList<ModificationMatch>();
+            int site = sequence.indexOf("M");
+            if (site != -1) {
+                modificationMatches.add(new ModificationMatch("Oxidation of M", true, site + 1));
+            }
+            candidates.add(new Peptide(sequence.toString(), modificationMatches));
+        }
+
+        AnnotationSettings annotationSettings = new AnnotationSettings();
+        ArrayList<MSnSpectrum> spectra = new ArrayList<MSnSpectrum>();
+        ArrayList<Peptide> peptides = new ArrayList<Peptide>();
+        ArrayList<SpecificAnnotationSettings> settings = new ArrayList<SpecificAnnotationSettings>();
+
+        for (int i = 0; i < 50; i++) {
+
+            // Spectrum containing fragment ions of one candidate and noise
+            Peptide peptide = candidates.get(random.nextInt(candidates.size()));
+            int nPeaks = 100;
+            double[] mz = new double[nPeaks + 2 * peptide.getSequence().length()];
+            double[] intensity = new double[mz.length];
+            int nMz = 0;
+            for (int subType : new int[]{PeptideFragmentIon.B_ION, PeptideFragmentIon.Y_ION}) {
+                for (Ion ion : IonFactory.getInstance().getFragmentIons(peptide).get(Ion.IonType.PEPTIDE_FRAGMENT_ION.index).get(subType)) {
+                    if (!ion.hasNeutralLosses() && random.nextDouble() < 0.8) {
+                        mz[nMz++] = ion.getTheoreticMz(1) + 0.01 * (random.nextDouble() - 0.5);
+                    }
+                }
+            }
+            while (nMz < mz.length) {
+                mz[nMz++] = 100 + 1500 * random.nextDouble();
+            }
+            for (int j = 0; j < intensity.length; j++) {
+                intensity[j] = 100 + 10000 * random.nextDouble();
+            }
+            Precursor precursor = new Precursor(0, (peptide.getMass() + 2 * 1.007276) / 2, new ArrayList<Charge>());
+            MSnSpectrum spectrum = new MSnSpectrum(2, precursor, "spectrum " + i, PeakArray.fromArrays(mz, intensity), "test.mgf");
+
+            // Annotate every spectrum with two peptides
+            for (Peptide candidate : new Peptide[]{peptide, candidates.get(random.nextInt(candidates.size()))}) {
+                SpecificAnnotationSettings specificAnnotationSettings = new SpecificAnnotationSettings(spectrum.getSpectrumKey(), new PeptideAssumption(candidate, new Charge(Charge.PLUS, 2 + random.nextInt(2))));
+                specificAnnotationSettings.addIonType(Ion.IonType.PEPTIDE_FRAGMENT_ION, PeptideFragmentIon.B_ION);
+                specificAnnotationSettings.addIonType(Ion.IonType.PEPTIDE_FRAGMENT_ION, PeptideFragmentIon.Y_ION);
+                specificAnnotationSettings.addIonType(Ion.IonType.PRECURSOR_ION);
+                specificAnnotationSettings.addSelectedCharge(1);
+                specificAnnotationSettings.addSelectedCharge(2);
+                specificAnnotationSettings.setFragmentIonAccuracy(0.05);
+                specificAnnotationSettings.addNeutralLoss(NeutralLoss.H2O);
+                spectra.add(spectrum);
+                peptides.add(candidate);
+                settings.add(specificAnnotationSettings);
+            }
+        }
+
+        BatchPeptideSpectrumAnnotator batchAnnotator = new BatchPeptideSpectrumAnnotator();
+        BatchAnnotation sequential = batchAnnotator.annotate(annotationSettings, spectra, peptides, settings, true, 1);
+        BatchAnnotation parallel = batchAnnotator.annotate(annotationSettings, spectra, peptides, settings, true, 4);
+        Assert.assertEquals(spectra.size(), sequential.size());
+        Assert.assertEquals(spectra.size(), parallel.size());
+
+        PeptideSpectrumAnnotator peptideSpectrumAnnotator = new PeptideSpectrumAnnotator();
+        int nMatches = 0;
+        for (int i = 0; i < spectra.size(); i++) {
+            ArrayList<IonMatch> expected = peptideSpectrumAnnotator.getSpectrumAnnotation(annotationSettings, settings.get(i), spectra.get(i), peptides.get(i));
+            for (BatchAnnotation batchAnnotation : new BatchAnnotation[]{sequential, parallel}) {
+                ArrayList<IonMatch> ionMatches = batchAnnotation.getIonMatches(i);
+                Assert.assertEquals(expected.size(), ionMatches.size());
+                for (int j = 0; j < expected.size(); j++) {
+                    Assert.assertSame(expected.get(j).ion, ionMatches.get(j).ion);
+                    Assert.assertEquals(expected.get(j).peak, ionMatches.get(j).peak);
+                    Assert.assertEquals(expected.get(j).charge, ionMatches.get(j).charge);
+                    Assert.assertEquals(expected.get(j).ion.getTheoreticMz(expected.get(j).charge), batchAnnotation.getTheoreticMz(batchAnnotation.getStart(i) + j), 0.0);
+                }
+            }
+            nMatches += expected.size();
+        }
+        Assert.assertTrue(nMatches > 0);
+    }
+}
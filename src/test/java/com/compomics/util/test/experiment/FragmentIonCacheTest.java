@@ -0,0 +1,137 @@
+package com.compomics.util.test.experiment;
+
+import com.compomics.util.experiment.biology.Ion;
+import com.compomics.util.experiment.biology.IonFactory;
+import com.compomics.util.experiment.biology.AminoAcidPattern;
+import com.compomics.util.experiment.biology.PTM;
+import com.compomics.util.experiment.biology.PTMFactory;
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.biology.ions.FragmentIonCache;
+import com.compomics.util.experiment.biology.ions.FragmentIonLadder;
+import com.compomics.util.experiment.biology.ions.PeptideFragmentIon;
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import com.compomics.util.experiment.identification.spectrum_annotation.SpecificAnnotationSettings;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import com.compomics.util.experiment.massspectrometry.Charge;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Tests the cache of fragment ion ladders.
+ *
+ * @author Marc Vaudel
+ */
+public class FragmentIonCacheTest extends TestCase {
+
+    /**
+     * Tests that the ladders equal the ions of the factory and that the cache
+     * is reused and bounded.
+     */
+    public void testFragmentIonCache() {
+
+        FragmentIonCache fragmentIonCache = new FragmentIonCache(2);
+
+        Peptide peptide = getPeptide();
+        SpecificAnnotationSettings specificAnnotationSettings = new SpecificAnnotationSettings("test", new PeptideAssumption(peptide, new Charge(Charge.PLUS, 2)));
+        specificAnnotationSettings.addIonType(Ion.IonType.PEPTIDE_FRAGMENT_ION, PeptideFragmentIon.B_ION);
+        specificAnnotationSettings.addIonType(Ion.IonType.PEPTIDE_FRAGMENT_ION, PeptideFragmentIon.Y_ION);
+
+        FragmentIonLadder ladder = fragmentIonCache.getFragmentIonLadder(peptide, null);
+        HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> expected = IonFactory.getInstance().getFragmentIons(peptide, null);
+        Assert.assertEquals(expected.keySet(), ladder.getFragmentIons().keySet());
+        for (int ionType : expected.keySet()) {
+            for (int subType : expected.get(ionType).keySet()) {
+                ArrayList<Ion> expectedIons = expected.get(ionType).get(subType);
+                double[] masses = ladder.getMasses(ionType, subType);
+                Assert.assertEquals(expectedIons.size(), masses.length);
+                for (int charge = 1; charge <= 3; charge++) {
+                    double[] mzs = ladder.getMz(ionType, subType, charge);
+                    for (int i = 0; i < masses.length; i++) {
+                        Assert.assertEquals(expectedIons.get(i).getTheoreticMass(), masses[i], 0.0);
+                        Assert.assertEquals(expectedIons.get(i).getTheoreticMz(charge), mzs[i], 0.0);
+                    }
+                }
+            }
+        }
+        Assert.assertEquals(0, ladder.getMz(Ion.IonType.TAG_FRAGMENT_ION.index, 0, 1).length);
+
+        // The same peptide in another object is found in cache, other settings are not
+        Assert.assertSame(ladder, fragmentIonCache.getFragmentIonLadder(getPeptide(), null));
+        FragmentIonLadder bAndY = fragmentIonCache.getFragmentIonLadder(getPeptide(), specificAnnotationSettings);
+        Assert.assertNotSame(ladder, bAndY);
+        Assert.assertEquals(0, bAndY.getIons(Ion.IonType.PEPTIDE_FRAGMENT_ION.index, PeptideFragmentIon.A_ION).size());
+        Assert.assertEquals(peptide.getSequence().length() - 1, bAndY.getIons(Ion.IonType.PEPTIDE_FRAGMENT_ION.index, PeptideFragmentIon.Y_ION).size());
+        Assert.assertEquals(1, fragmentIonCache.getHits());
+        Assert.assertEquals(2, fragmentIonCache.getMisses());
+
+        // The oldest ladder is evicted
+        fragmentIonCache.getFragmentIonLadder(new Peptide("PEPTIDEK", new ArrayList<ModificationMatch>()), null);
+        Assert.assertEquals(2, fragmentIonCache.size());
+        Assert.assertSame(bAndY, fragmentIonCache.getFragmentIonLadder(getPeptide(), specificAnnotationSettings));
+        Assert.assertNotSame(ladder, fragmentIonCache.getFragmentIonLadder(getPeptide(), null));
+        Assert.assertEquals(2, fragmentIonCache.size());
+
+        fragmentIonCache.clear();
+        Assert.assertEquals(0, fragmentIonCache.size());
+    }
+
+    /**
+     * Tests that the shared ions of the ladders cannot be modified, that
+     * copies can, and that the cache of the ion factory is emptied when the
+     * modifications change.
+     */
+    public void testSharedIons() {
+
+        IonFactory ionFactory = IonFactory.getInstance();
+        FragmentIonLadder ladder = ionFactory.getFragmentIonLadder(getPeptide(), null);
+        List<Ion> yIons = ladder.getIons(Ion.IonType.PEPTIDE_FRAGMENT_ION.index, PeptideFragmentIon.Y_ION);
+        Ion ion = yIons.get(0);
+        double mass = ion.getTheoreticMass();
+        try {
+            ion.setTheoreticMass(mass + 1);
+            fail("A shared ion could be modified.");
+        } catch (UnsupportedOperationException e) {
+            // the ion is read only
+        }
+        try {
+            yIons.clear();
+            fail("The shared ions could be removed.");
+        } catch (UnsupportedOperationException e) {
+            // the list is read only
+        }
+        HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> fragmentIons = ladder.getFragmentIons();
+        fragmentIons.get(Ion.IonType.PEPTIDE_FRAGMENT_ION.index).get(PeptideFragmentIon.Y_ION).clear();
+        Assert.assertFalse(ladder.getIons(Ion.IonType.PEPTIDE_FRAGMENT_ION.index, PeptideFragmentIon.Y_ION).isEmpty());
+        Ion newIon = ionFactory.getFragmentIons(getPeptide(), null).get(Ion.IonType.PEPTIDE_FRAGMENT_ION.index).get(PeptideFragmentIon.Y_ION).get(0);
+        Assert.assertFalse(newIon.isReadOnly());
+        newIon.setTheoreticMass(mass + 1);
+        Assert.assertEquals(mass, ladder.getMasses(Ion.IonType.PEPTIDE_FRAGMENT_ION.index, PeptideFragmentIon.Y_ION)[0], 0.0);
+
+        // Adding a modification empties the cache
+        Assert.assertTrue(ionFactory.getFragmentIonCache().size() > 0);
+        PTMFactory ptmFactory = PTMFactory.getInstance();
+        PTM ptm = new PTM(PTM.MODAA, "Cache test of S", "cts", ptmFactory.getPTM("Phosphorylation of S").getAtomChainAdded(), null, AminoAcidPattern.getAminoAcidPatternFromString("S"));
+        ptmFactory.addUserPTM(ptm);
+        try {
+            Assert.assertEquals(0, ionFactory.getFragmentIonCache().size());
+            Assert.assertNotSame(ladder, ionFactory.getFragmentIonLadder(getPeptide(), null));
+        } finally {
+            ptmFactory.removeUserPtm(ptm.getName());
+        }
+        Assert.assertEquals(0, ionFactory.getFragmentIonCache().size());
+    }
+
+    /**
+     * Returns a phosphorylated peptide.
+     *
+     * @return a phosphorylated peptide
+     */
+    private static Peptide getPeptide() {
+        ArrayList<ModificationMatch> modificationMatches = new ArrayList<ModificationMatch>();
+        modificationMatches.add(new ModificationMatch("Phosphorylation of S", true, 3));
+        return new Peptide("TESSAPEPTIDER", modificationMatches);
+    }
+}
@@ -0,0 +1,72 @@
+package com.compomics.util.test.experiment;
+
+import com.compomics.util.experiment.identification.psm_scoring.psm_scores.HyperScore;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Tests the estimation of the hyperscore e-values.
+ *
+ * @author Marc Vaudel
+ */
+public class HyperScoreEValueTest extends TestCase {
+
+    /**
+     * Tests that the interpolation of scores equals the interpolation of the
+     * corresponding histogram.
+     */
+    public void testInterpolationValues() {
+
+        int[] scores = new int[]{1, 1, 1, 1, 2, 2, 2, 3, 3, 4, 5, 7, 9, 12};
+        HashMap<Integer, Integer> histogram = new HashMap<Integer, Integer>();
+        histogram.put(1, 4);
+        histogram.put(2, 3);
+        histogram.put(3, 2);
+        histogram.put(4, 1);
+        histogram.put(5, 1);
+        histogram.put(7, 1);
+
+        HyperScore hyperScore = new HyperScore();
+        double[] fromScores = hyperScore.getInterpolationValues(scores, false);
+        double[] fromHistogram = hyperScore.getInterpolationValues(histogram, false);
+        Assert.assertEquals(fromHistogram[0], fromScores[0], 1e-12);
+        Assert.assertEquals(fromHistogram[1], fromScores[1], 1e-12);
+        Assert.assertNull(hyperScore.getInterpolationValues(new int[]{0, 3}, false));
+    }
+
+    /**
+     * Tests that the e-values estimated in parallel equal the e-values
+     * estimated sequentially.
+     *
+     * @throws Exception thrown if an error occurs
+     */
+    public void testParallelEValues() throws Exception {
+
+        Random random = new Random(42);
+        ArrayList<ArrayList<Double>> hyperScores = new ArrayList<ArrayList<Double>>();
+        for (int i = 0; i < 500; i++) {
+            ArrayList<Double> spectrumScores = new ArrayList<Double>();
+            int nCandidates = 1 + random.nextInt(200);
+            for (int j = 0; j < nCandidates; j++) {
+                spectrumScores.add(Math.exp(4 * random.nextDouble()));
+            }
+            hyperScores.add(spectrumScores);
+        }
+
+        HyperScore sequential = new HyperScore();
+        HyperScore parallel = new HyperScore();
+        ArrayList<HashMap<Double, Double>> eValueMaps = parallel.getEValueMaps(hyperScores, true, 4);
+
+        Assert.assertEquals(hyperScores.size(), eValueMaps.size());
+        for (int i = 0; i < hyperScores.size(); i++) {
+            Assert.assertEquals(sequential.getEValueMap(hyperScores.get(i)), eValueMaps.get(i));
+        }
+        Assert.assertEquals(sequential.getAs(), parallel.getAs());
+        Assert.assertEquals(sequential.getBs(), parallel.getBs());
+        Assert.assertEquals(sequential.getMendianA(), parallel.getMendianA());
+        Assert.assertNotNull(parallel.getMendianB());
+    }
+}
@@ -0,0 +1,132 @@
+package com.compomics.util.test.experiment;
+
+import com.compomics.util.experiment.biology.Ion;
+import com.compomics.util.experiment.biology.IonFactory;
+import com.compomics.util.experiment.biology.NeutralLoss;
+import com.compomics.util.experiment.biology.PTM;
+import com.compomics.util.experiment.biology.PTMFactory;
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.biology.ions.PeptideFragmentIon;
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import com.compomics.util.experiment.identification.ptm.ptmscores.PhosphoRS;
+import com.compomics.util.experiment.identification.spectrum_annotation.AnnotationSettings;
+import com.compomics.util.experiment.identification.spectrum_annotation.SpecificAnnotationSettings;
+import com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators.PeptideSpectrumAnnotator;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import com.compomics.util.experiment.massspectrometry.Charge;
+import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
+import com.compomics.util.experiment.massspectrometry.PeakArray;
+import com.compomics.util.experiment.massspectrometry.Precursor;
+import com.compomics.util.preferences.SequenceMatchingPreferences;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Tests the PhosphoRS scoring of a multiply phosphorylated peptide.
+ *
+ * @author Marc Vaudel
+ */
+public class PhosphoRSTest extends TestCase {
+
+    /**
+     * Tests that the site probabilities sum to the number of phosphorylations
+     * and that the scores do not depend on the number of threads. The 165
+     * profiles of the peptide are processed in a single batch.
+     *
+     * @throws Exception thrown if an error occurs
+     */
+    public void testSequenceProbabilities() throws Exception {
+
+        ArrayList<ModificationMatch> modificationMatches = new ArrayList<ModificationMatch>();
+        modificationMatches.add(new ModificationMatch("Phosphorylation of S", true, 2));
+        modificationMatches.add(new ModificationMatch("Phosphorylation of T", true, 7));
+        modificationMatches.add(new ModificationMatch("Phosphorylation of S", true, 15));
+        compareProbabilities(new Peptide("SSTSPSTSGSSPEKSTR", modificationMatches), 11);
+    }
+
+    /**
+     * Tests that the scores do not depend on the number of threads when the
+     * 680 profiles of the peptide are split in batches processed on the
+     * thread pool.
+     *
+     * @throws Exception thrown if an error occurs
+     */
+    public void testParallelProfiles() throws Exception {
+
+        ArrayList<ModificationMatch> modificationMatches = new ArrayList<ModificationMatch>();
+        modificationMatches.add(new ModificationMatch("Phosphorylation of S", true, 2));
+        modificationMatches.add(new ModificationMatch("Phosphorylation of T", true, 7));
+        modificationMatches.add(new ModificationMatch("Phosphorylation of S", true, 22));
+        compareProbabilities(new Peptide("SSTSPSTSGSSPEKSTRGSTPSSGTSPK", modificationMatches), 17);
+    }
+
+    /**
+     * Scores a peptide carrying three phosphorylations against a spectrum
+     * containing its fragment ions and noise using one and four threads, and
+     * compares the site probabilities.
+     *
+     * @param peptide the peptide
+     * @param nSites the number of possible sites
+     *
+     * @throws Exception thrown if an error occurs
+     */
+    private void compareProbabilities(Peptide peptide, int nSites) throws Exception {
+
+        PTMFactory ptmFactory = PTMFactory.getInstance();
+        ArrayList<PTM> ptms = new ArrayList<PTM>();
+        ptms.add(ptmFactory.getPTM("Phosphorylation of S"));
+        ptms.add(ptmFactory.getPTM("Phosphorylation of T"));
+
+        Charge charge = new Charge(Charge.PLUS, 3);
+
+        // Spectrum containing fragment ions of the peptide and noise
+        Random random = new Random(7);
+        ArrayList<Double> mzs = new ArrayList<Double>();
+        HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> fragmentIons = IonFactory.getInstance().getFragmentIons(peptide);
+        for (int subType : new int[]{PeptideFragmentIon.B_ION, PeptideFragmentIon.Y_ION}) {
+            for (Ion ion : fragmentIons.get(Ion.IonType.PEPTIDE_FRAGMENT_ION.index).get(subType)) {
+                if (random.nextDouble() < 0.7) {
+                    mzs.add(ion.getTheoreticMz(1) + 0.01 * (random.nextDouble() - 0.5));
+                }
+            }
+        }
+        for (int i = 0; i < 150; i++) {
+            mzs.add(150 + 1500 * random.nextDouble());
+        }
+        double[] mz = new double[mzs.size()];
+        double[] intensity = new double[mzs.size()];
+        for (int i = 0; i < mz.length; i++) {
+            mz[i] = mzs.get(i);
+            intensity[i] = 100 + 10000 * random.nextDouble();
+        }
+        Precursor precursor = new Precursor(0, (peptide.getMass() + 3 * 1.007276) / 3, new ArrayList<Charge>());
+        MSnSpectrum spectrum = new MSnSpectrum(2, precursor, "test", PeakArray.fromArrays(mz, intensity), "test.mgf");
+
+        AnnotationSettings annotationSettings = new AnnotationSettings();
+        SpecificAnnotationSettings specificAnnotationSettings = new SpecificAnnotationSettings(spectrum.getSpectrumKey(), new PeptideAssumption(peptide, charge));
+        specificAnnotationSettings.addIonType(Ion.IonType.PEPTIDE_FRAGMENT_ION, PeptideFragmentIon.B_ION);
+        specificAnnotationSettings.addIonType(Ion.IonType.PEPTIDE_FRAGMENT_ION, PeptideFragmentIon.Y_ION);
+        specificAnnotationSettings.addSelectedCharge(1);
+        specificAnnotationSettings.addSelectedCharge(2);
+        specificAnnotationSettings.setFragmentIonAccuracy(0.02);
+        specificAnnotationSettings.addNeutralLoss(NeutralLoss.H2O);
+        SequenceMatchingPreferences sequenceMatchingPreferences = SequenceMatchingPreferences.defaultStringMatching;
+
+        HashMap<Integer, Double> sequential = PhosphoRS.getSequenceProbabilities(peptide, ptms, spectrum, annotationSettings, specificAnnotationSettings,
+                true, sequenceMatchingPreferences, sequenceMatchingPreferences, new PeptideSpectrumAnnotator());
+        HashMap<Integer, Double> parallel = PhosphoRS.getSequenceProbabilities(peptide, ptms, spectrum, annotationSettings, specificAnnotationSettings,
+                true, sequenceMatchingPreferences, sequenceMatchingPreferences, new PeptideSpectrumAnnotator(), 4);
+
+        Assert.assertEquals(nSites, sequential.size());
+        double total = 0;
+        for (int site : sequential.keySet()) {
+            double probability = sequential.get(site);
+            Assert.assertEquals(probability, parallel.get(site), 1e-9);
+            total += probability;
+        }
+        Assert.assertEquals(300.0, total, 1e-6);
+    }
+}
@@ -0,0 +1,158 @@
+package com.compomics.util.test.experiment;
+
+import com.compomics.util.experiment.biology.Ion;
+import com.compomics.util.experiment.biology.IonFactory;
+import com.compomics.util.experiment.biology.NeutralLoss;
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.biology.ions.PeptideFragmentIon;
+import com.compomics.util.experiment.identification.identification_parameters.SearchParameters;
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import com.compomics.util.experiment.identification.psm_scoring.PsmScore;
+import com.compomics.util.experiment.identification.psm_scoring.PsmScoreEngine;
+import com.compomics.util.experiment.identification.psm_scoring.PsmScoresEstimator;
+import com.compomics.util.experiment.identification.spectrum_annotation.AnnotationSettings;
+import com.compomics.util.experiment.identification.spectrum_annotation.SpecificAnnotationSettings;
+import com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators.PeptideSpectrumAnnotator;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import com.compomics.util.experiment.massspectrometry.Charge;
+import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
+import com.compomics.util.experiment.massspectrometry.PeakArray;
+import com.compomics.util.experiment.massspectrometry.Precursor;
+import com.compomics.util.preferences.IdentificationParameters;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Random;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Compares the scores of the PSM score engine to the scores obtained from the
+ * spectrum annotation.
+ *
+ * @author Marc Vaudel
+ */
+public class PsmScoreEngineTest extends TestCase {
+
+    /**
+     * Tests the scores of a peptide matched against a spectrum containing
+     * fragment ions and noise.
+     *
+     * @throws Exception thrown if an error occurs
+     */
+    public void testScores() throws Exception {
+        Peptide peptide = new Peptide("PEPTIDEKLR", new ArrayList<ModificationMatch>());
+        Peptide shuffledPeptide = new Peptide("PEPITDEKRL", new ArrayList<ModificationMatch>());
+        compareScores(peptide, shuffledPeptide, false);
+    }
+
+    /**
+     * Tests the scores of a peptide carrying variable modifications.
+     *
+     * @throws Exception thrown if an error occurs
+     */
+    public void testModifiedPeptide() throws Exception {
+        ArrayList<ModificationMatch> modificationMatches = new ArrayList<ModificationMatch>();
+        modificationMatches.add(new ModificationMatch("Oxidation of M", true, 4));
+        modificationMatches.add(new ModificationMatch("Phosphorylation of S", true, 9));
+        Peptide peptide = new Peptide("PEPMIDEKSLR", modificationMatches);
+        ArrayList<ModificationMatch> shuffledModificationMatches = new ArrayList<ModificationMatch>();
+        shuffledModificationMatches.add(new ModificationMatch("Oxidation of M", true, 5));
+        shuffledModificationMatches.add(new ModificationMatch("Phosphorylation of S", true, 2));
+        Peptide shuffledPeptide = new Peptide("PSPEMIDEKLR", shuffledModificationMatches);
+        compareScores(peptide, shuffledPeptide, false);
+    }
+
+    /**
+     * Tests the scores when the annotation settings select neutral losses and
+     * ions not supported by the engine.
+     *
+     * @throws Exception thrown if an error occurs
+     */
+    public void testUnsupportedSettings() throws Exception {
+        ArrayList<ModificationMatch> modificationMatches = new ArrayList<ModificationMatch>();
+        modificationMatches.add(new ModificationMatch("Phosphorylation of S", true, 9));
+        Peptide peptide = new Peptide("PEPTIDEKSLR", modificationMatches);
+        Peptide shuffledPeptide = new Peptide("PEPITDEKRSL", new ArrayList<ModificationMatch>());
+        compareScores(peptide, shuffledPeptide, true);
+    }
+
+    /**
+     * Compares the scores of the engine to the scores of the estimator for a
+     * peptide and a shuffled peptide, scored against a spectrum containing
+     * fragment ions of the peptide and noise.
+     *
+     * @param peptide the peptide
+     * @param shuffledPeptide the shuffled peptide
+     * @param unsupportedIons if true, neutral losses and precursor ions are
+     * added to the annotation settings
+     *
+     * @throws Exception thrown if an error occurs
+     */
+    private void compareScores(Peptide peptide, Peptide shuffledPeptide, boolean unsupportedIons) throws Exception {
+
+        Charge charge = new Charge(Charge.PLUS, 3);
+        PeptideAssumption peptideAssumption = new PeptideAssumption(peptide, charge);
+
+        // Spectrum containing the singly charged b and y ions and noise
+        Random random = new Random(42);
+        ArrayList<Double> mzs = new ArrayList<Double>();
+        HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> fragmentIons = IonFactory.getInstance().getFragmentIons(peptide);
+        for (int subType : new int[]{PeptideFragmentIon.B_ION, PeptideFragmentIon.Y_ION}) {
+            for (Ion ion : fragmentIons.get(Ion.IonType.PEPTIDE_FRAGMENT_ION.index).get(subType)) {
+                if ((unsupportedIons || !ion.hasNeutralLosses()) && random.nextDouble() < 0.8) {
+                    mzs.add(ion.getTheoreticMz(1) + 0.01 * (random.nextDouble() - 0.5));
+                }
+            }
+        }
+        for (int i = 0; i < 50; i++) {
+            mzs.add(100 + 1000 * random.nextDouble());
+        }
+        Collections.sort(mzs);
+        double[] mz = new double[mzs.size()];
+        double[] intensity = new double[mzs.size()];
+        for (int i = 0; i < mz.length; i++) {
+            mz[i] = mzs.get(i);
+            intensity[i] = i % 7 == 0 ? 500 : 100 + 10000 * random.nextDouble();
+        }
+        double precursorMz = (peptide.getMass() + 3 * 1.007276) / 3 + 0.001;
+        Precursor precursor = new Precursor(0, precursorMz, new ArrayList<Charge>());
+        MSnSpectrum spectrum = new MSnSpectrum(2, precursor, "test", PeakArray.fromArrays(mz, intensity), "test.mgf");
+
+        SearchParameters searchParameters = new SearchParameters();
+        IdentificationParameters identificationParameters = new IdentificationParameters();
+        identificationParameters.setSearchParameters(searchParameters);
+        AnnotationSettings annotationSettings = new AnnotationSettings();
+        annotationSettings.setIntensityLimit(0.25);
+        identificationParameters.setAnnotationSettings(annotationSettings);
+        SpecificAnnotationSettings specificAnnotationSettings = new SpecificAnnotationSettings(spectrum.getSpectrumKey(), peptideAssumption);
+        specificAnnotationSettings.addIonType(Ion.IonType.PEPTIDE_FRAGMENT_ION, PeptideFragmentIon.B_ION);
+        specificAnnotationSettings.addIonType(Ion.IonType.PEPTIDE_FRAGMENT_ION, PeptideFragmentIon.Y_ION);
+        specificAnnotationSettings.addSelectedCharge(1);
+        specificAnnotationSettings.addSelectedCharge(2);
+        specificAnnotationSettings.setFragmentIonAccuracy(0.02);
+        if (unsupportedIons) {
+            specificAnnotationSettings.addNeutralLoss(NeutralLoss.H2O);
+            specificAnnotationSettings.addNeutralLoss(NeutralLoss.H3PO4);
+            specificAnnotationSettings.addIonType(Ion.IonType.PRECURSOR_ION);
+        }
+        Assert.assertEquals(!unsupportedIons, PsmScoreEngine.isSupported(specificAnnotationSettings));
+
+        // The same engine is used for the target and for a shuffled peptide
+        PsmScoresEstimator psmScoresEstimator = new PsmScoresEstimator();
+        PsmScoreEngine psmScoreEngine = new PsmScoreEngine();
+        for (Peptide candidate : new Peptide[]{peptide, shuffledPeptide}) {
+            psmScoreEngine.score(candidate, spectrum, identificationParameters, specificAnnotationSettings);
+            for (PsmScore psmScore : PsmScore.values()) {
+                if (psmScore != PsmScore.native_score) {
+                    double expected = psmScoresEstimator.getScore(candidate, charge.value, spectrum, identificationParameters,
+                            specificAnnotationSettings, new PeptideSpectrumAnnotator(), psmScore);
+                    Assert.assertEquals(psmScore.name, expected, psmScoreEngine.getScore(psmScore), 1e-9);
+                }
+            }
+            if (candidate == peptide) {
+                Assert.assertTrue(psmScoreEngine.getScore(PsmScore.hyperScore) > 0);
+            }
+        }
+    }
+}
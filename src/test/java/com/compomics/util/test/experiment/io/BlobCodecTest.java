@@ -0,0 +1,139 @@
+package com.compomics.util.test.experiment.io;
+
+import com.compomics.util.db.codec.BlobCodec;
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.Advocate;
+import com.compomics.util.experiment.identification.SpectrumIdentificationAssumption;
+import com.compomics.util.experiment.identification.codec.IdentificationCodecs;
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import com.compomics.util.experiment.identification.matches.PeptideMatch;
+import com.compomics.util.experiment.identification.matches.ProteinMatch;
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import com.compomics.util.experiment.massspectrometry.Charge;
+import com.compomics.util.experiment.refinementparameters.PepnovoAssumptionDetails;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Tests the encoding of the identification matches in database blobs.
+ *
+ * @author Marc Vaudel
+ */
+public class BlobCodecTest extends TestCase {
+
+    /**
+     * Tests the round trip of the matches with and without compression.
+     *
+     * @throws Exception thrown if an error occurs
+     */
+    public void testMatches() throws Exception {
+
+        BlobCodec blobCodec = new BlobCodec();
+        IdentificationCodecs.registerCodecs(blobCodec);
+
+        ArrayList<ModificationMatch> modifications = new ArrayList<ModificationMatch>();
+        modifications.add(new ModificationMatch("oxidation of m", true, 3));
+        Peptide peptide = new Peptide("PEMTIDE", modifications);
+        ArrayList<String> proteins = new ArrayList<String>();
+        proteins.add("P12345");
+        peptide.setParentProteins(proteins);
+
+        PeptideAssumption assumption = new PeptideAssumption(peptide, 1, Advocate.mascot.getIndex(), new Charge(Charge.PLUS, 2), 0.01, "test.dat");
+        assumption.setRawScore(45.2);
+        PepnovoAssumptionDetails details = new PepnovoAssumptionDetails();
+        details.setRankScore(12.3);
+        assumption.addUrParam(details);
+
+        SpectrumMatch spectrumMatch = new SpectrumMatch("file.mgf_cus_spectrum 1");
+        spectrumMatch.addHit(Advocate.mascot.getIndex(), assumption, false);
+        spectrumMatch.setBestPeptideAssumption(assumption);
+        spectrumMatch.setSpectrumNumber(12);
+
+        for (int threshold : new int[]{-1, 0}) {
+
+            blobCodec.setCompressionThreshold(threshold);
+
+            SpectrumMatch decoded = (SpectrumMatch) blobCodec.decode(blobCodec.encode(spectrumMatch));
+            Assert.assertEquals(spectrumMatch.getKey(), decoded.getKey());
+            Assert.assertEquals(12, decoded.getSpectrumNumber().intValue());
+            ArrayList<SpectrumIdentificationAssumption> assumptions = decoded.getAllAssumptions(Advocate.mascot.getIndex()).get(0.01);
+            Assert.assertEquals(1, assumptions.size());
+            PeptideAssumption decodedAssumption = (PeptideAssumption) assumptions.get(0);
+            Assert.assertTrue(decodedAssumption == decoded.getBestPeptideAssumption());
+            Assert.assertEquals(45.2, decodedAssumption.getRawScore());
+            Assert.assertEquals(2, decodedAssumption.getIdentificationCharge().value);
+            Assert.assertEquals("test.dat", decodedAssumption.getIdentificationFile());
+            Assert.assertEquals(12.3, ((PepnovoAssumptionDetails) decodedAssumption.getUrParam(details)).getRankScore());
+            Peptide decodedPeptide = decodedAssumption.getPeptide();
+            Assert.assertEquals(peptide.getKey(), decodedPeptide.getKey());
+            Assert.assertEquals("P12345", decodedPeptide.getParentProteinsNoRemapping().get(0));
+            Assert.assertTrue(decodedPeptide.getModificationMatches().get(0).isVariable());
+
+            PeptideMatch peptideMatch = new PeptideMatch(peptide, peptide.getKey());
+            peptideMatch.addSpectrumMatchKey(spectrumMatch.getKey());
+            PeptideMatch decodedPeptideMatch = (PeptideMatch) blobCodec.decode(blobCodec.encode(peptideMatch));
+            Assert.assertEquals(peptide.getKey(), decodedPeptideMatch.getKey());
+            Assert.assertEquals(spectrumMatch.getKey(), decodedPeptideMatch.getSpectrumMatchesKeys().get(0));
+
+            ProteinMatch proteinMatch = new ProteinMatch("P12345");
+            proteinMatch.addPeptideMatchKey(peptide.getKey());
+            proteinMatch.setMainMatch("P12345");
+            ProteinMatch decodedProteinMatch = (ProteinMatch) blobCodec.decode(blobCodec.encode(proteinMatch));
+            Assert.assertEquals("P12345", decodedProteinMatch.getKey());
+            Assert.assertEquals("P12345", decodedProteinMatch.getMainMatch());
+            Assert.assertEquals(1, decodedProteinMatch.getPeptideCount());
+        }
+    }
+
+    /**
+     * Tests the round trip of a peptide assumption without score.
+     *
+     * @throws Exception thrown if an error occurs
+     */
+    public void testNullScore() throws Exception {
+
+        BlobCodec blobCodec = new BlobCodec();
+        IdentificationCodecs.registerCodecs(blobCodec);
+
+        Peptide peptide = new Peptide("PEPTIDE", new ArrayList<ModificationMatch>());
+        PeptideAssumption assumption = new PeptideAssumption(peptide, 1, Advocate.mascot.getIndex(), new Charge(Charge.PLUS, 2), null, "test.dat");
+
+        SpectrumMatch spectrumMatch = new SpectrumMatch("file.mgf_cus_spectrum 1");
+        spectrumMatch.setBestPeptideAssumption(assumption);
+
+        PeptideAssumption decodedAssumption = ((SpectrumMatch) blobCodec.decode(blobCodec.encode(spectrumMatch))).getBestPeptideAssumption();
+        Assert.assertNull(decodedAssumption.getScore());
+        Assert.assertEquals(1, decodedAssumption.getRank());
+        Assert.assertEquals("test.dat", decodedAssumption.getIdentificationFile());
+    }
+
+    /**
+     * Tests the Java serialization fallback and the reading of blobs written
+     * using Java serialization only.
+     *
+     * @throws Exception thrown if an error occurs
+     */
+    public void testFallback() throws Exception {
+
+        BlobCodec blobCodec = new BlobCodec();
+
+        HashSet<String> set = new HashSet<String>();
+        set.add("test");
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bos);
+        oos.writeObject(set);
+        oos.close();
+        Assert.assertEquals(set, blobCodec.decode(bos.toByteArray()));
+
+        Assert.assertEquals(set, blobCodec.decode(blobCodec.encode(set)));
+        blobCodec.setCompressionThreshold(0);
+        Assert.assertEquals(set, blobCodec.decode(blobCodec.encode(set)));
+        Assert.assertNull(blobCodec.decode(blobCodec.encode(null)));
+    }
+}
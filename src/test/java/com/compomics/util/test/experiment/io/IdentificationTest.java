@@ -0,0 +1,203 @@
+package com.compomics.util.test.experiment.io;
+
+import com.compomics.util.Util;
+import com.compomics.util.db.ObjectsCache;
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.Identification;
+import com.compomics.util.experiment.identification.identifications.Ms2Identification;
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import com.compomics.util.experiment.identification.matches.PeptideMatch;
+import com.compomics.util.experiment.identification.matches.ProteinMatch;
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import com.compomics.util.experiment.massspectrometry.Charge;
+import com.compomics.util.experiment.massspectrometry.Spectrum;
+import com.compomics.util.gui.waiting.waitinghandlers.WaitingHandlerCLIImpl;
+import com.compomics.util.preferences.SequenceMatchingPreferences;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Tests the creation of the peptide and protein matches of an identification
+ * stored in the log structured store.
+ *
+ * @author Marc Vaudel
+ */
+public class IdentificationTest extends TestCase {
+
+    /**
+     * The sequences of the test peptides.
+     */
+    private static final String[] SEQUENCES = new String[]{"PEPTIDEK", "PEPTIDER", "TESTPEPK", "ANTHERPEPK", "LASTPEPR"};
+    /**
+     * The sequence matching preferences.
+     */
+    private static final SequenceMatchingPreferences SEQUENCE_MATCHING_PREFERENCES = SequenceMatchingPreferences.defaultStringMatching;
+
+    /**
+     * Tests that building the peptides and proteins using several threads
+     * gives the same matches as using a single thread.
+     *
+     * @throws Exception thrown if an error occurs
+     */
+    public void testBuildPeptidesAndProteins() throws Exception {
+
+        File folder = createFolder();
+        try {
+            Identification sequential = createIdentification(folder, "sequential");
+            Identification parallel = createIdentification(folder, "parallel");
+
+            for (Identification identification : new Identification[]{sequential, parallel}) {
+                addSpectrumMatches(identification, 0, 40, SEQUENCES.length);
+            }
+            sequential.buildPeptidesAndProteins(null, SEQUENCE_MATCHING_PREFERENCES, 1);
+            parallel.buildPeptidesAndProteins(null, SEQUENCE_MATCHING_PREFERENCES, 4);
+            compare(sequential, parallel);
+            Assert.assertEquals(SEQUENCES.length, parallel.getPeptideIdentification().size());
+            Assert.assertEquals(2, parallel.getProteinIdentification().size());
+            for (int i = 0; i < SEQUENCES.length; i++) {
+                String peptideKey = getPeptide(i).getMatchingKey(SEQUENCE_MATCHING_PREFERENCES);
+                String proteinKey = ProteinMatch.getProteinMatchKey(getPeptide(i));
+                Assert.assertEquals(8, parallel.getPeptideMatch(peptideKey).getSpectrumCount());
+                Assert.assertTrue(parallel.getProteinMatch(proteinKey).getPeptideMatchesKeys().contains(peptideKey));
+            }
+
+            try {
+                parallel.getProteinMap().clear();
+                fail("The protein map could be modified.");
+            } catch (UnsupportedOperationException e) {
+                // the protein map is a copy
+            }
+
+            sequential.close();
+            parallel.close();
+        } finally {
+            Util.deleteDir(folder);
+        }
+    }
+
+    /**
+     * Tests that no peptide or protein key is registered when the writing of
+     * the matches is canceled.
+     *
+     * @throws Exception thrown if an error occurs
+     */
+    public void testCancel() throws Exception {
+
+        File folder = createFolder();
+        try {
+            Identification identification = createIdentification(folder, "canceled");
+            addSpectrumMatches(identification, 0, 30, SEQUENCES.length);
+
+            // cancel when the first match is written
+            WaitingHandlerCLIImpl waitingHandler = new WaitingHandlerCLIImpl() {
+                @Override
+                public synchronized void increaseSecondaryProgressCounter() {
+                    setRunCanceled();
+                }
+            };
+            identification.buildPeptidesAndProteins(waitingHandler, SEQUENCE_MATCHING_PREFERENCES, 2);
+
+            Assert.assertTrue(identification.getPeptideIdentification().isEmpty());
+            Assert.assertTrue(identification.getProteinIdentification().isEmpty());
+            Assert.assertTrue(identification.getProteinMap().isEmpty());
+            identification.close();
+        } finally {
+            Util.deleteDir(folder);
+        }
+    }
+
+    /**
+     * Compares the peptide and protein matches of two identifications.
+     *
+     * @param expected the expected identification
+     * @param actual the identification to compare
+     *
+     * @throws Exception thrown if an error occurs
+     */
+    private static void compare(Identification expected, Identification actual) throws Exception {
+        Assert.assertEquals(new HashSet<String>(expected.getPeptideIdentification()), new HashSet<String>(actual.getPeptideIdentification()));
+        Assert.assertEquals(new HashSet<String>(expected.getProteinIdentification()), new HashSet<String>(actual.getProteinIdentification()));
+        Assert.assertEquals(expected.getProteinMap(), actual.getProteinMap());
+        for (String peptideKey : expected.getPeptideIdentification()) {
+            PeptideMatch expectedMatch = expected.getPeptideMatch(peptideKey);
+            PeptideMatch actualMatch = actual.getPeptideMatch(peptideKey);
+            Assert.assertEquals(new HashSet<String>(expectedMatch.getSpectrumMatchesKeys()), new HashSet<String>(actualMatch.getSpectrumMatchesKeys()));
+        }
+        for (String proteinKey : expected.getProteinIdentification()) {
+            ProteinMatch expectedMatch = expected.getProteinMatch(proteinKey);
+            ProteinMatch actualMatch = actual.getProteinMatch(proteinKey);
+            Assert.assertEquals(new HashSet<String>(expectedMatch.getPeptideMatchesKeys()), new HashSet<String>(actualMatch.getPeptideMatchesKeys()));
+        }
+    }
+
+    /**
+     * Creates an empty temporary folder.
+     *
+     * @return the folder
+     *
+     * @throws IOException thrown if an error occurs
+     */
+    private static File createFolder() throws IOException {
+        File folder = File.createTempFile("identification", "");
+        folder.delete();
+        folder.mkdirs();
+        return folder;
+    }
+
+    /**
+     * Creates an empty identification stored in the log structured store.
+     *
+     * @param folder the folder of the database
+     * @param reference the reference of the identification
+     *
+     * @return the identification
+     *
+     * @throws Exception thrown if an error occurs
+     */
+    private static Identification createIdentification(File folder, String reference) throws Exception {
+        ObjectsCache objectsCache = new ObjectsCache();
+        objectsCache.setAutomatedMemoryManagement(false);
+        objectsCache.setCacheSize(20);
+        Identification identification = new Ms2Identification(reference);
+        identification.establishConnection(folder.getAbsolutePath(), true, objectsCache, true);
+        return identification;
+    }
+
+    /**
+     * Adds spectrum matches to an identification.
+     *
+     * @param identification the identification
+     * @param from the index of the first spectrum
+     * @param to the index after the last spectrum
+     * @param nPeptides the number of peptides to distribute the spectra on
+     *
+     * @throws Exception thrown if an error occurs
+     */
+    private static void addSpectrumMatches(Identification identification, int from, int to, int nPeptides) throws Exception {
+        for (int i = from; i < to; i++) {
+            SpectrumMatch spectrumMatch = new SpectrumMatch(Spectrum.getSpectrumKey("test.mgf", "spectrum " + i));
+            spectrumMatch.setBestPeptideAssumption(new PeptideAssumption(getPeptide(i % nPeptides), 1, 0, new Charge(Charge.PLUS, 2), 0.01, "test.file"));
+            identification.addSpectrumMatch(spectrumMatch);
+        }
+    }
+
+    /**
+     * Returns a test peptide, the peptides share two proteins.
+     *
+     * @param index the index of the peptide
+     *
+     * @return the peptide
+     */
+    private static Peptide getPeptide(int index) {
+        Peptide peptide = new Peptide(SEQUENCES[index], new ArrayList<ModificationMatch>());
+        ArrayList<String> proteins = new ArrayList<String>();
+        proteins.add("PROTEIN" + index % 2);
+        peptide.setParentProteins(proteins);
+        return peptide;
+    }
+}
@@ -0,0 +1,166 @@
+package com.compomics.util.test.experiment.io;
+
+import com.compomics.util.Util;
+import com.compomics.util.db.store.LogStructuredStore;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Tests the log structured blob store.
+ *
+ * @author Marc Vaudel
+ */
+public class LogStructuredStoreTest extends TestCase {
+
+    /**
+     * Tests the storage of blobs, the recovery after an incomplete write and
+     * the compaction of the log.
+     *
+     * @throws Exception thrown if an error occurs
+     */
+    public void testStore() throws Exception {
+
+        File folder = File.createTempFile("logStructuredStore", "");
+        folder.delete();
+
+        try {
+            LogStructuredStore store = new LogStructuredStore(folder);
+            store.addTable("proteins");
+            store.addTable("peptides");
+
+            HashMap<String, byte[]> blobs = new HashMap<String, byte[]>();
+            for (int i = 0; i < 1000; i++) {
+                blobs.put("key" + i, ("value" + i).getBytes("UTF-8"));
+            }
+            store.putAll("proteins", blobs);
+            store.put("proteins", "key5", "updated".getBytes("UTF-8"));
+            store.delete("proteins", "key6");
+            store.put("peptides", "empty", new byte[0]);
+
+            Assert.assertEquals("updated", new String(store.get("proteins", "key5"), "UTF-8"));
+            Assert.assertNull(store.get("proteins", "key6"));
+            Assert.assertEquals(999, store.getAll("proteins", null).size());
+            Assert.assertTrue(store.getObsoleteLength() > 0);
+            store.close();
+
+            // simulate a crash during a write
+            File logFile = folder.listFiles()[0];
+            RandomAccessFile raf = new RandomAccessFile(logFile, "rw");
+            long length = raf.length();
+            raf.seek(length);
+            raf.write(new byte[]{0, 0, 0, 50, 1, 2});
+            raf.close();
+
+            store = new LogStructuredStore(folder);
+            Assert.assertEquals(length, store.getLogLength());
+            Assert.assertTrue(store.hasTable("peptides"));
+            Assert.assertEquals(0, store.get("peptides", "empty").length);
+            Assert.assertEquals("updated", new String(store.get("proteins", "key5"), "UTF-8"));
+            Assert.assertFalse(store.contains("proteins", "key6"));
+            Assert.assertEquals("value999", new String(store.get("proteins", "key999"), "UTF-8"));
+
+            store.compact();
+            Assert.assertTrue(store.getLogLength() < length);
+            Assert.assertEquals(0, store.getObsoleteLength());
+            Assert.assertEquals(1, folder.listFiles().length);
+            Assert.assertEquals("store.1.log", folder.listFiles()[0].getName());
+            Assert.assertEquals(999, store.getKeys("proteins").size());
+            Assert.assertEquals("updated", new String(store.get("proteins", "key5"), "UTF-8"));
+            store.close();
+
+            store = new LogStructuredStore(folder);
+            Assert.assertEquals(999, store.getKeys("proteins").size());
+            Assert.assertEquals("value999", new String(store.get("proteins", "key999"), "UTF-8"));
+            store.close();
+
+        } finally {
+            Util.deleteDir(folder);
+        }
+    }
+
+    /**
+     * Tests that a compaction interrupted before completion leaves the
+     * previous log intact and that the incomplete log is removed when
+     * opening the store.
+     *
+     * @throws Exception thrown if an error occurs
+     */
+    public void testInterruptedCompaction() throws Exception {
+
+        File folder = File.createTempFile("logStructuredStore", "");
+        folder.delete();
+
+        try {
+            LogStructuredStore store = new LogStructuredStore(folder);
+            store.addTable("proteins");
+            store.put("proteins", "key", "value".getBytes("UTF-8"));
+            store.close();
+
+            // simulate a crash while writing the compacted log
+            RandomAccessFile raf = new RandomAccessFile(new File(folder, "store.1.log.tmp"), "rw");
+            raf.writeInt(0x434C4F47);
+            raf.writeInt(1);
+            raf.write(new byte[]{0, 0, 0, 50, 1, 2});
+            raf.close();
+
+            store = new LogStructuredStore(folder);
+            Assert.assertEquals(1, folder.listFiles().length);
+            Assert.assertEquals("store.0.log", folder.listFiles()[0].getName());
+            Assert.assertEquals("value", new String(store.get("proteins", "key"), "UTF-8"));
+            store.close();
+
+        } finally {
+            Util.deleteDir(folder);
+        }
+    }
+
+    /**
+     * Tests that the store remains usable when the compacted log cannot be
+     * created.
+     *
+     * @throws Exception thrown if an error occurs
+     */
+    public void testFailedCompaction() throws Exception {
+
+        File folder = File.createTempFile("logStructuredStore", "");
+        folder.delete();
+
+        try {
+            LogStructuredStore store = new LogStructuredStore(folder);
+            store.addTable("proteins");
+            store.put("proteins", "key", "value".getBytes("UTF-8"));
+
+            // a folder in place of the compacted log makes the compaction fail
+            File blockingFolder = new File(folder, "store.1.log.tmp");
+            blockingFolder.mkdir();
+            new File(blockingFolder, "file").createNewFile();
+            try {
+                store.compact();
+                Assert.fail("The compaction should fail.");
+            } catch (IOException e) {
+                // expected
+            }
+
+            Assert.assertTrue(store.hasTable("proteins"));
+            Assert.assertEquals("value", new String(store.get("proteins", "key"), "UTF-8"));
+            store.put("proteins", "key2", "value2".getBytes("UTF-8"));
+            Util.deleteDir(blockingFolder);
+
+            store.compact();
+            Assert.assertEquals("value", new String(store.get("proteins", "key"), "UTF-8"));
+            Assert.assertEquals("value2", new String(store.get("proteins", "key2"), "UTF-8"));
+            store.close();
+
+            store = new LogStructuredStore(folder);
+            Assert.assertEquals(2, store.getKeys("proteins").size());
+            store.close();
+
+        } finally {
+            Util.deleteDir(folder);
+        }
+    }
+}
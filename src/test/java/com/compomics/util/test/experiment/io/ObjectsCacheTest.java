@@ -0,0 +1,359 @@
+package com.compomics.util.test.experiment.io;
+
+import com.compomics.util.Util;
+import com.compomics.util.db.ObjectsCache;
+import com.compomics.util.db.ObjectsDB;
+import com.compomics.util.gui.waiting.waitinghandlers.WaitingHandlerCLIImpl;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Tests the eviction of objects from the cache and their writing in the
+ * background.
+ *
+ * @author Marc Vaudel
+ */
+public class ObjectsCacheTest extends TestCase {
+
+    /**
+     * The name of the test database.
+     */
+    private static final String DB_NAME = "cacheTest";
+    /**
+     * The name of the test table.
+     */
+    private static final String TABLE_NAME = "objects";
+
+    /**
+     * Tests that the objects evicted while several threads add and read
+     * objects remain accessible and are all written to the database.
+     *
+     * @throws Exception thrown if an error occurs
+     */
+    public void testConcurrentEviction() throws Exception {
+
+        File folder = createFolder();
+        try {
+            final ObjectsCache objectsCache = new ObjectsCache();
+            objectsCache.setAutomatedMemoryManagement(false);
+            objectsCache.setCacheSize(50);
+            objectsCache.setBatchSize(20);
+            final TestObjectsDB objectsDB = new TestObjectsDB(folder.getAbsolutePath(), objectsCache);
+            objectsDB.addTable(TABLE_NAME);
+
+            final int nThreads = 4;
+            final int nObjects = 500;
+            final ArrayList<Throwable> errors = new ArrayList<Throwable>();
+            ArrayList<Thread> threads = new ArrayList<Thread>(nThreads);
+            for (int i = 0; i < nThreads; i++) {
+                final int threadIndex = i;
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            for (int j = 0; j < nObjects; j++) {
+                                String key = getKey(threadIndex, j);
+                                objectsCache.addObject(DB_NAME, TABLE_NAME, key, getValue(threadIndex, j, 0), true, true);
+                                if (j % 2 == 0) {
+                                    String previousKey = getKey(threadIndex, j / 2);
+                                    String newValue = getValue(threadIndex, j / 2, 1);
+                                    if (!objectsCache.updateObject(DB_NAME, TABLE_NAME, previousKey, newValue)) {
+                                        objectsDB.insertObject(TABLE_NAME, previousKey, newValue, false);
+                                    }
+                                }
+                                String readKey = getKey(threadIndex, j / 3);
+                                Assert.assertEquals(getValue(threadIndex, j / 3, 1), objectsDB.retrieveObject(TABLE_NAME, readKey, true, false));
+                            }
+                        } catch (Throwable e) {
+                            synchronized (errors) {
+                                errors.add(e);
+                            }
+                        }
+                    }
+                });
+                threads.add(thread);
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            if (!errors.isEmpty()) {
+                throw new IllegalStateException("Error while accessing the cache.", errors.get(0));
+            }
+
+            Assert.assertTrue(objectsCache.getEvictions() > 0);
+            objectsCache.saveCache(null, true);
+            Assert.assertTrue(objectsCache.isEmpty());
+
+            for (int i = 0; i < nThreads; i++) {
+                for (int j = 0; j < nObjects; j++) {
+                    String expected = getValue(i, j, 2 * j < nObjects ? 1 : 0);
+                    Assert.assertEquals(expected, objectsDB.retrieveObject(TABLE_NAME, getKey(i, j), true, false));
+                }
+            }
+            objectsDB.close();
+        } finally {
+            Util.deleteDir(folder);
+        }
+    }
+
+    /**
+     * Tests that the objects of batches which could not be written in the
+     * background are kept in the cache and that the first error is thrown.
+     *
+     * @throws Exception thrown if an error occurs
+     */
+    public void testFlushFailure() throws Exception {
+
+        File folder = createFolder();
+        try {
+            ObjectsCache objectsCache = new ObjectsCache();
+            objectsCache.setAutomatedMemoryManagement(false);
+            objectsCache.setCacheSize(10);
+            objectsCache.setBatchSize(5);
+            TestObjectsDB objectsDB = new TestObjectsDB(folder.getAbsolutePath(), objectsCache);
+            objectsDB.addTable(TABLE_NAME);
+            objectsDB.setFailing(true);
+
+            int nObjects = 100;
+            for (int i = 0; i < nObjects; i++) {
+                objectsCache.addObject(DB_NAME, TABLE_NAME, getKey(0, i), getValue(0, i, 0), true, false);
+            }
+            objectsCache.updateCache();
+
+            try {
+                objectsCache.waitForPendingWrites();
+                fail("The error of the background writer was not thrown.");
+            } catch (IOException e) {
+                Assert.assertEquals("Failure 1", e.getMessage());
+            }
+            boolean done = false;
+            while (!done) {
+                try {
+                    objectsCache.waitForPendingWrites();
+                    done = true;
+                } catch (IOException e) {
+                    // error of another batch
+                }
+            }
+            Assert.assertTrue(objectsDB.getFailures() > 1);
+            for (int i = 0; i < nObjects; i++) {
+                Assert.assertEquals(getValue(0, i, 0), objectsCache.getObject(DB_NAME, TABLE_NAME, getKey(0, i)));
+            }
+
+            objectsDB.setFailing(false);
+            objectsCache.saveCache(null, true);
+            Assert.assertTrue(objectsCache.isEmpty());
+            for (int i = 0; i < nObjects; i++) {
+                Assert.assertEquals(getValue(0, i, 0), objectsDB.retrieveObject(TABLE_NAME, getKey(0, i), true, false));
+            }
+            objectsDB.close();
+        } finally {
+            Util.deleteDir(folder);
+        }
+    }
+
+    /**
+     * Tests that the objects evicted by a canceled save are kept in the cache
+     * and saved at the next attempt.
+     *
+     * @throws Exception thrown if an error occurs
+     */
+    public void testCanceledSave() throws Exception {
+
+        File folder = createFolder();
+        try {
+            ObjectsCache objectsCache = new ObjectsCache();
+            objectsCache.setAutomatedMemoryManagement(false);
+            objectsCache.setCacheSize(1000);
+            TestObjectsDB objectsDB = new TestObjectsDB(folder.getAbsolutePath(), objectsCache);
+            objectsDB.addTable(TABLE_NAME);
+
+            int nObjects = 100;
+            for (int i = 0; i < nObjects; i++) {
+                objectsCache.addObject(DB_NAME, TABLE_NAME, getKey(0, i), getValue(0, i, 0), true, false);
+            }
+
+            WaitingHandlerCLIImpl waitingHandler = new WaitingHandlerCLIImpl();
+            waitingHandler.setRunCanceled();
+            objectsCache.saveCache(waitingHandler, true);
+            for (int i = 0; i < nObjects; i++) {
+                Assert.assertEquals(getValue(0, i, 0), objectsCache.getObject(DB_NAME, TABLE_NAME, getKey(0, i)));
+            }
+
+            objectsCache.saveCache(null, true);
+            Assert.assertTrue(objectsCache.isEmpty());
+            for (int i = 0; i < nObjects; i++) {
+                Assert.assertEquals(getValue(0, i, 0), objectsDB.retrieveObject(TABLE_NAME, getKey(0, i), true, false));
+            }
+            objectsDB.close();
+        } finally {
+            Util.deleteDir(folder);
+        }
+    }
+
+    /**
+     * Tests that the objects removed while being written are not put back in
+     * the cache when the writing fails.
+     *
+     * @throws Exception thrown if an error occurs
+     */
+    public void testRemoveDuringFailedWrite() throws Exception {
+
+        File folder = createFolder();
+        try {
+            ObjectsCache objectsCache = new ObjectsCache();
+            objectsCache.setAutomatedMemoryManagement(false);
+            objectsCache.setCacheSize(10);
+            objectsCache.setBatchSize(5);
+            TestObjectsDB objectsDB = new TestObjectsDB(folder.getAbsolutePath(), objectsCache);
+            objectsDB.addTable(TABLE_NAME);
+            objectsDB.setFailing(true);
+            objectsDB.setWriteDelay(20);
+
+            int nObjects = 100;
+            for (int i = 0; i < nObjects; i++) {
+                objectsCache.addObject(DB_NAME, TABLE_NAME, getKey(0, i), getValue(0, i, 0), true, false);
+            }
+            objectsCache.updateCache();
+            for (int i = 0; i < nObjects; i++) {
+                objectsCache.removeObject(DB_NAME, TABLE_NAME, getKey(0, i));
+            }
+
+            boolean done = false;
+            while (!done) {
+                try {
+                    objectsCache.waitForPendingWrites();
+                    done = true;
+                } catch (IOException e) {
+                    // error of a batch
+                }
+            }
+            Assert.assertTrue(objectsDB.getFailures() > 0);
+            for (int i = 0; i < nObjects; i++) {
+                Assert.assertNull(objectsCache.getObject(DB_NAME, TABLE_NAME, getKey(0, i)));
+            }
+            Assert.assertTrue(objectsCache.isEmpty());
+            objectsDB.setFailing(false);
+            objectsDB.close();
+        } finally {
+            Util.deleteDir(folder);
+        }
+    }
+
+    /**
+     * Creates an empty temporary folder.
+     *
+     * @return the folder
+     *
+     * @throws IOException thrown if an error occurs
+     */
+    private static File createFolder() throws IOException {
+        File folder = File.createTempFile("objectsCache", "");
+        folder.delete();
+        folder.mkdirs();
+        return folder;
+    }
+
+    /**
+     * Returns the key of a test object.
+     *
+     * @param threadIndex the index of the thread creating the object
+     * @param index the index of the object
+     *
+     * @return the key of the object
+     */
+    private static String getKey(int threadIndex, int index) {
+        return "key_" + threadIndex + "_" + index;
+    }
+
+    /**
+     * Returns the value of a test object.
+     *
+     * @param threadIndex the index of the thread creating the object
+     * @param index the index of the object
+     * @param version the version of the object
+     *
+     * @return the value of the object
+     */
+    private static String getValue(int threadIndex, int index, int version) {
+        return getKey(threadIndex, index) + "_v" + version;
+    }
+
+    /**
+     * Database backed by a log structured store whose writes can be made to
+     * fail.
+     */
+    private static class TestObjectsDB extends ObjectsDB {
+
+        /**
+         * Indicates whether the writes should fail.
+         */
+        private volatile boolean failing = false;
+        /**
+         * The number of failed writes.
+         */
+        private final AtomicInteger failures = new AtomicInteger();
+        /**
+         * The time in milliseconds taken by every write.
+         */
+        private volatile long writeDelay = 0;
+
+        /**
+         * Constructor.
+         *
+         * @param folder the folder of the database
+         * @param objectsCache the objects cache
+         *
+         * @throws Exception thrown if an error occurs
+         */
+        public TestObjectsDB(String folder, ObjectsCache objectsCache) throws Exception {
+            super(folder, DB_NAME, true, objectsCache, true);
+        }
+
+        /**
+         * Sets whether the writes should fail.
+         *
+         * @param failing a boolean indicating whether the writes should fail
+         */
+        public void setFailing(boolean failing) {
+            this.failing = failing;
+        }
+
+        /**
+         * Sets the time in milliseconds taken by every write.
+         *
+         * @param writeDelay the time in milliseconds taken by every write
+         */
+        public void setWriteDelay(long writeDelay) {
+            this.writeDelay = writeDelay;
+        }
+
+        /**
+         * Returns the number of failed writes.
+         *
+         * @return the number of failed writes
+         */
+        public int getFailures() {
+            return failures.get();
+        }
+
+        @Override
+        public void insertObjects(String tableName, HashMap<String, Object> objects, WaitingHandler waitingHandler) throws SQLException, IOException, InterruptedException {
+            if (writeDelay > 0) {
+                Thread.sleep(writeDelay);
+            }
+            if (failing) {
+                throw new IOException("Failure " + failures.incrementAndGet());
+            }
+            super.insertObjects(tableName, objects, waitingHandler);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.compomics.util.test.experiment.io;
+
+import com.compomics.util.Util;
+import com.compomics.util.db.ObjectsCache;
+import com.compomics.util.db.ObjectsDB;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Tests the loading of objects from a database backed by the log structured
+ * store.
+ *
+ * @author Marc Vaudel
+ */
+public class ObjectsDBTest extends TestCase {
+
+    /**
+     * The name of the test database.
+     */
+    private static final String DB_NAME = "objectsDBTest";
+    /**
+     * The name of the test table.
+     */
+    private static final String TABLE_NAME = "objects";
+    /**
+     * The number of objects in the test table.
+     */
+    private static final int N_OBJECTS = 1000;
+
+    /**
+     * Tests that loading the objects of a table on several threads loads the
+     * same objects in the cache as the sequential loading, for the entire
+     * table and for a selection of keys.
+     *
+     * @throws Exception thrown if an error occurs
+     */
+    public void testParallelLoading() throws Exception {
+
+        File folder = File.createTempFile("objectsDB", "");
+        folder.delete();
+        folder.mkdirs();
+        try {
+            ObjectsCache objectsCache = new ObjectsCache();
+            ObjectsDB objectsDB = new ObjectsDB(folder.getAbsolutePath(), DB_NAME, true, objectsCache, true);
+            objectsDB.addTable(TABLE_NAME);
+            HashMap<String, Object> objects = new HashMap<String, Object>(N_OBJECTS);
+            for (int i = 0; i < N_OBJECTS; i++) {
+                objects.put("key" + i, "value" + i);
+            }
+            objectsDB.insertObjects(TABLE_NAME, objects, null);
+            objectsDB.insertObject(TABLE_NAME, "key5", "updated", false);
+            objects.put("key5", "updated");
+            objectsDB.close();
+
+            ArrayList<String> someKeys = new ArrayList<String>();
+            for (int i = 0; i < N_OBJECTS; i += 7) {
+                someKeys.add("key" + i);
+            }
+            someKeys.add("missing");
+
+            for (boolean allKeys : new boolean[]{true, false}) {
+                HashMap<String, Object> sequential = load(folder, allKeys ? null : someKeys, 1);
+                HashMap<String, Object> parallel = load(folder, allKeys ? null : someKeys, 4);
+                Assert.assertEquals(sequential, parallel);
+                Assert.assertEquals(allKeys ? N_OBJECTS : someKeys.size() - 1, parallel.size());
+                for (String key : parallel.keySet()) {
+                    Assert.assertEquals(objects.get(key), parallel.get(key));
+                }
+            }
+        } finally {
+            Util.deleteDir(folder);
+        }
+    }
+
+    /**
+     * Opens the test database with an empty cache, loads objects in the cache
+     * and returns the objects found in the cache.
+     *
+     * @param folder the folder of the database
+     * @param keys the keys of the objects to load, null for the entire table
+     * @param nThreads the number of threads to use
+     *
+     * @return the objects found in the cache indexed by key
+     *
+     * @throws Exception thrown if an error occurs
+     */
+    private static HashMap<String, Object> load(File folder, ArrayList<String> keys, int nThreads) throws Exception {
+
+        ObjectsCache objectsCache = new ObjectsCache();
+        objectsCache.setAutomatedMemoryManagement(false);
+        objectsCache.setCacheSize(2 * N_OBJECTS);
+        ObjectsDB objectsDB = new ObjectsDB(folder.getAbsolutePath(), DB_NAME, false, objectsCache, true);
+        try {
+            if (keys == null) {
+                objectsDB.loadObjects(TABLE_NAME, null, false, nThreads);
+            } else {
+                objectsDB.loadObjects(TABLE_NAME, keys, null, false, nThreads);
+            }
+            HashMap<String, Object> result = new HashMap<String, Object>();
+            for (int i = 0; i < N_OBJECTS; i++) {
+                String key = "key" + i;
+                Object object = objectsCache.getObject(DB_NAME, TABLE_NAME, key);
+                if (object != null) {
+                    result.put(key, object);
+                }
+            }
+            return result;
+        } finally {
+            objectsDB.close();
+        }
+    }
+}
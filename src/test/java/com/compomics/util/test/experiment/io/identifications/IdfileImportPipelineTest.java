@@ -0,0 +1,339 @@
+package com.compomics.util.test.experiment.io.identifications;
+
+import com.compomics.util.experiment.identification.Identification;
+import com.compomics.util.experiment.identification.identification_parameters.SearchParameters;
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.experiment.io.identifications.IdfileImportPipeline;
+import com.compomics.util.experiment.io.identifications.IdfileReader;
+import com.compomics.util.experiment.io.identifications.IdfileReaderFactory;
+import com.compomics.util.experiment.io.identifications.SpectrumMatchCollector;
+import com.compomics.util.experiment.io.identifications.SpectrumMatchListener;
+import com.compomics.util.experiment.io.identifications.StreamingIdfileReader;
+import com.compomics.util.experiment.massspectrometry.Spectrum;
+import com.compomics.util.gui.waiting.waitinghandlers.WaitingHandlerCLIImpl;
+import com.compomics.util.preferences.SequenceMatchingPreferences;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import javax.xml.bind.JAXBException;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Tests the import of identification files through the import pipeline.
+ *
+ * @author Marc Vaudel
+ */
+public class IdfileImportPipelineTest extends TestCase {
+
+    /**
+     * The extension of the test identification files.
+     */
+    private static final String EXTENSION = ".pipelinetest";
+    /**
+     * The extension of the test identification files read by a reader which
+     * cannot stream the matches.
+     */
+    private static final String LIST_EXTENSION = ".pipelinelisttest";
+    /**
+     * Latch released when the matches of the file to cancel were parsed.
+     */
+    private static CountDownLatch parsedLatch;
+
+    @Override
+    protected void setUp() throws Exception {
+        IdfileReaderFactory.registerIdFileReader(LineIdfileReader.class, EXTENSION);
+        IdfileReaderFactory.registerIdFileReader(ListIdfileReader.class, LIST_EXTENSION);
+    }
+
+    /**
+     * Tests that the matches of several files parsed in parallel and written
+     * in small batches are all added to the identification.
+     *
+     * @throws Exception thrown if an error occurred
+     */
+    public void testImport() throws Exception {
+
+        ArrayList<File> idFiles = new ArrayList<File>();
+        HashSet<String> expectedKeys = new HashSet<String>();
+        try {
+            for (int i = 0; i < 3; i++) {
+                ArrayList<String> spectrumKeys = new ArrayList<String>();
+                for (int j = 0; j < 20; j++) {
+                    spectrumKeys.add(Spectrum.getSpectrumKey("test.mgf", "spectrum " + (10 * i + j)));
+                }
+                expectedKeys.addAll(spectrumKeys);
+                idFiles.add(writeFile(spectrumKeys, EXTENSION));
+            }
+
+            MemoryIdentification identification = new MemoryIdentification();
+            IdfileImportPipeline pipeline = new IdfileImportPipeline(identification, null, null, false, 2);
+            pipeline.setBatchSize(3);
+            pipeline.setQueueSize(1);
+            pipeline.importFiles(idFiles, null);
+
+            Assert.assertEquals(expectedKeys, identification.getSpectrumKeys());
+        } finally {
+            for (File idFile : idFiles) {
+                idFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Tests that the matches of readers which cannot stream the matches are
+     * imported from the list of all matches.
+     *
+     * @throws Exception thrown if an error occurred
+     */
+    public void testNonStreamingReader() throws Exception {
+
+        ArrayList<String> spectrumKeys = new ArrayList<String>();
+        for (int j = 0; j < 20; j++) {
+            spectrumKeys.add(Spectrum.getSpectrumKey("test.mgf", "spectrum " + j));
+        }
+        File idFile = writeFile(spectrumKeys, LIST_EXTENSION);
+        try {
+            MemoryIdentification identification = new MemoryIdentification();
+            IdfileImportPipeline pipeline = new IdfileImportPipeline(identification, null, null, false, 1);
+            pipeline.setBatchSize(3);
+            pipeline.importFiles(Collections.singletonList(idFile), null);
+
+            Assert.assertEquals(new HashSet<String>(spectrumKeys), identification.getSpectrumKeys());
+        } finally {
+            idFile.delete();
+        }
+    }
+
+    /**
+     * Tests that the matches parsed before the cancellation of the import are
+     * written to the identification.
+     *
+     * @throws Exception thrown if an error occurred
+     */
+    public void testCancel() throws Exception {
+
+        ArrayList<String> spectrumKeys = new ArrayList<String>();
+        for (int j = 0; j < 10; j++) {
+            spectrumKeys.add(Spectrum.getSpectrumKey("test.mgf", "spectrum " + j));
+        }
+        spectrumKeys.add(LineIdfileReader.REPEAT);
+        File idFile = writeFile(spectrumKeys, EXTENSION);
+        try {
+            parsedLatch = new CountDownLatch(1);
+            final WaitingHandlerCLIImpl waitingHandler = new WaitingHandlerCLIImpl();
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        parsedLatch.await();
+                    } catch (InterruptedException e) {
+                    }
+                    waitingHandler.setRunCanceled();
+                }
+            }).start();
+
+            MemoryIdentification identification = new MemoryIdentification();
+            IdfileImportPipeline pipeline = new IdfileImportPipeline(identification, null, null, false, 1);
+            pipeline.importFiles(Collections.singletonList(idFile), waitingHandler);
+
+            Assert.assertTrue(identification.getSpectrumKeys().containsAll(spectrumKeys.subList(0, 10)));
+        } finally {
+            idFile.delete();
+        }
+    }
+
+    /**
+     * Writes the given spectrum keys in a test identification file.
+     *
+     * @param spectrumKeys the spectrum keys
+     * @param extension the extension of the file
+     *
+     * @return the file
+     *
+     * @throws IOException thrown if an error occurred while writing the file
+     */
+    private static File writeFile(ArrayList<String> spectrumKeys, String extension) throws IOException {
+        File idFile = File.createTempFile("pipeline", extension);
+        BufferedWriter bw = new BufferedWriter(new FileWriter(idFile));
+        try {
+            for (String spectrumKey : spectrumKeys) {
+                bw.write(spectrumKey);
+                bw.newLine();
+            }
+        } finally {
+            bw.close();
+        }
+        return idFile;
+    }
+
+    /**
+     * Identification keeping track of the spectrum matches added in memory.
+     */
+    private static class MemoryIdentification extends Identification {
+
+        /**
+         * The keys of the spectrum matches added.
+         */
+        private final HashSet<String> spectrumKeys = new HashSet<String>();
+
+        @Override
+        public synchronized void addSpectrumMatch(SpectrumMatch newMatch) {
+            spectrumKeys.add(newMatch.getKey());
+        }
+
+        /**
+         * Returns the keys of the spectrum matches added.
+         *
+         * @return the keys of the spectrum matches added
+         */
+        public synchronized Set<String> getSpectrumKeys() {
+            return new HashSet<String>(spectrumKeys);
+        }
+    }
+
+    /**
+     * Test reader returning a match without hits for every line of the file.
+     */
+    public static class LineIdfileReader implements StreamingIdfileReader {
+
+        /**
+         * Line indicating that the reader should release the parsed latch and
+         * stream matches of the previous key until stopped.
+         */
+        public static final String REPEAT = "repeat";
+        /**
+         * The file to read.
+         */
+        private final File file;
+
+        /**
+         * Constructor.
+         *
+         * @param file the file to read
+         */
+        public LineIdfileReader(File file) {
+            this.file = file;
+        }
+
+        @Override
+        public LinkedList<SpectrumMatch> getAllSpectrumMatches(WaitingHandler waitingHandler, SearchParameters searchParameters)
+                throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException, JAXBException {
+            return getAllSpectrumMatches(waitingHandler, searchParameters, null, true);
+        }
+
+        @Override
+        public LinkedList<SpectrumMatch> getAllSpectrumMatches(WaitingHandler waitingHandler, SearchParameters searchParameters, SequenceMatchingPreferences sequenceMatchingPreferences,
+                boolean expandAaCombinations) throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException, JAXBException {
+            SpectrumMatchCollector spectrumMatchCollector = new SpectrumMatchCollector();
+            streamSpectrumMatches(waitingHandler, searchParameters, sequenceMatchingPreferences, expandAaCombinations, spectrumMatchCollector);
+            return spectrumMatchCollector.getSpectrumMatches();
+        }
+
+        @Override
+        public void streamSpectrumMatches(WaitingHandler waitingHandler, SearchParameters searchParameters, SequenceMatchingPreferences sequenceMatchingPreferences,
+                boolean expandAaCombinations, SpectrumMatchListener spectrumMatchListener) throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException, JAXBException {
+            BufferedReader br = new BufferedReader(new FileReader(file));
+            try {
+                String line, previousKey = null;
+                while ((line = br.readLine()) != null) {
+                    if (line.equals(REPEAT)) {
+                        parsedLatch.countDown();
+                        while (true) {
+                            spectrumMatchListener.spectrumMatchParsed(new SpectrumMatch(previousKey));
+                            Thread.sleep(10);
+                        }
+                    }
+                    spectrumMatchListener.spectrumMatchParsed(new SpectrumMatch(line));
+                    previousKey = line;
+                }
+            } finally {
+                br.close();
+            }
+        }
+
+        @Override
+        public String getExtension() {
+            return EXTENSION;
+        }
+
+        @Override
+        public void close() throws IOException {
+            // Does nothing.
+        }
+
+        @Override
+        public HashMap<String, ArrayList<String>> getSoftwareVersions() {
+            return null;
+        }
+
+        @Override
+        public boolean hasDeNovoTags() {
+            return false;
+        }
+    }
+
+    /**
+     * Test reader returning the matches of a LineIdfileReader as a list only.
+     */
+    public static class ListIdfileReader implements IdfileReader {
+
+        /**
+         * The reader parsing the file.
+         */
+        private final LineIdfileReader lineIdfileReader;
+
+        /**
+         * Constructor.
+         *
+         * @param file the file to read
+         */
+        public ListIdfileReader(File file) {
+            lineIdfileReader = new LineIdfileReader(file);
+        }
+
+        @Override
+        public LinkedList<SpectrumMatch> getAllSpectrumMatches(WaitingHandler waitingHandler, SearchParameters searchParameters)
+                throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException, JAXBException {
+            return lineIdfileReader.getAllSpectrumMatches(waitingHandler, searchParameters);
+        }
+
+        @Override
+        public LinkedList<SpectrumMatch> getAllSpectrumMatches(WaitingHandler waitingHandler, SearchParameters searchParameters, SequenceMatchingPreferences sequenceMatchingPreferences,
+                boolean expandAaCombinations) throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException, JAXBException {
+            return lineIdfileReader.getAllSpectrumMatches(waitingHandler, searchParameters, sequenceMatchingPreferences, expandAaCombinations);
+        }
+
+        @Override
+        public String getExtension() {
+            return LIST_EXTENSION;
+        }
+
+        @Override
+        public void close() throws IOException {
+            lineIdfileReader.close();
+        }
+
+        @Override
+        public HashMap<String, ArrayList<String>> getSoftwareVersions() {
+            return null;
+        }
+
+        @Override
+        public boolean hasDeNovoTags() {
+            return false;
+        }
+    }
+}
@@ -1,9 +1,14 @@
 package com.compomics.util.test.experiment.io.identifications;
 
+import com.compomics.util.experiment.identification.SpectrumIdentificationAssumption;
+import com.compomics.util.experiment.identification.spectrum_assumptions.TagAssumption;
+import com.compomics.util.experiment.io.identifications.SpectrumMatchListener;
 import com.compomics.util.experiment.io.identifications.idfilereaders.PepNovoIdfileReader;
 import com.compomics.util.experiment.identification.matches.SpectrumMatch;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedList;
 import junit.framework.TestCase;
 import org.junit.Before;
@@ -32,4 +37,54 @@ public class PepNovoIdfileReaderTest extends TestCase {
             }
         }
     }
+
+    @Test
+    public void testStreamSpectrumMatches() throws Exception {
+
+        LinkedList<SpectrumMatch> allSpectrumMatches = idfileReader.getAllSpectrumMatches(null, null);
+        idfileReader.close();
+
+        final LinkedList<SpectrumMatch> streamedMatches = new LinkedList<SpectrumMatch>();
+        idfileReader = new PepNovoIdfileReader(new File("src/test/resources/experiment/test.mgf.out"));
+        idfileReader.streamSpectrumMatches(null, null, null, false, new SpectrumMatchListener() {
+            @Override
+            public void spectrumMatchParsed(SpectrumMatch spectrumMatch) {
+                streamedMatches.add(spectrumMatch);
+            }
+        });
+
+        assertFalse(allSpectrumMatches.isEmpty());
+        assertEquals(allSpectrumMatches.size(), streamedMatches.size());
+        for (int i = 0; i < allSpectrumMatches.size(); i++) {
+            SpectrumMatch expected = allSpectrumMatches.get(i);
+            SpectrumMatch streamed = streamedMatches.get(i);
+            assertEquals(expected.getKey(), streamed.getKey());
+            assertEquals(getHits(expected), getHits(streamed));
+        }
+    }
+
+    /**
+     * Returns the hits of a spectrum match as strings indexed by advocate and
+     * score.
+     *
+     * @param spectrumMatch the spectrum match
+     *
+     * @return the hits of the spectrum match
+     */
+    private HashMap<Integer, HashMap<Double, ArrayList<String>>> getHits(SpectrumMatch spectrumMatch) {
+        HashMap<Integer, HashMap<Double, ArrayList<String>>> result = new HashMap<Integer, HashMap<Double, ArrayList<String>>>();
+        HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptionsMap = spectrumMatch.getAssumptionsMap();
+        for (Integer advocateId : assumptionsMap.keySet()) {
+            HashMap<Double, ArrayList<String>> advocateHits = new HashMap<Double, ArrayList<String>>();
+            for (Double score : assumptionsMap.get(advocateId).keySet()) {
+                ArrayList<String> hits = new ArrayList<String>();
+                for (SpectrumIdentificationAssumption assumption : assumptionsMap.get(advocateId).get(score)) {
+                    hits.add(((TagAssumption) assumption).getTag().asSequence() + " " + assumption.getRank() + " " + assumption.getIdentificationCharge().value);
+                }
+                advocateHits.put(score, hits);
+            }
+            result.put(advocateId, advocateHits);
+        }
+        return result;
+    }
 }
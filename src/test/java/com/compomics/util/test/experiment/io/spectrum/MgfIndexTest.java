@@ -0,0 +1,146 @@
+package com.compomics.util.test.experiment.io.spectrum;
+
+import com.compomics.util.experiment.io.massspectrometry.MgfIndex;
+import com.compomics.util.experiment.io.massspectrometry.MgfIndexer;
+import com.compomics.util.experiment.io.massspectrometry.MgfReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * This test case will test the indexing of mgf files and the binary index
+ * files.
+ *
+ * @author Marc Vaudel
+ */
+public class MgfIndexTest extends TestCase {
+
+    /**
+     * Tests the parallel indexing and the writing and reading of the index.
+     *
+     * @throws Exception thrown if an error occurred
+     */
+    public void testIndex() throws Exception {
+        File mgfFile = new File("src/test/resources/experiment/test.mgf");
+        MgfIndex mgfIndex = MgfReader.getIndexMap(mgfFile, 2, null);
+        testIndex(mgfIndex);
+
+        File indexFile = File.createTempFile("test", ".cui");
+        try {
+            mgfIndex.write(indexFile);
+            MgfIndex readIndex = MgfIndex.read(indexFile);
+            testIndex(readIndex);
+            Assert.assertEquals(mgfIndex.getIndex("controllerType=0 controllerNumber=1 scan=160"), readIndex.getIndex("controllerType=0 controllerNumber=1 scan=160"));
+            Assert.assertEquals(mgfFile.lastModified(), readIndex.getLastModified().longValue());
+        } finally {
+            indexFile.delete();
+        }
+    }
+
+    /**
+     * Tests that indexing a file split in many parts gives the same index as
+     * indexing it in one part, including titles duplicated across parts.
+     *
+     * @throws Exception thrown if an error occurred
+     */
+    public void testMultiPartIndex() throws Exception {
+
+        int nSpectra = 60;
+        long partSize = 256;
+        File mgfFile = File.createTempFile("multipart", ".mgf");
+        try {
+            BufferedWriter bw = new BufferedWriter(new FileWriter(mgfFile));
+            try {
+                for (int i = 0; i < nSpectra; i++) {
+                    bw.write("BEGIN IONS\n");
+                    bw.write("TITLE=scan=" + (i == 45 ? 5 : i) + "\n");
+                    bw.write("RTINSECONDS=" + (100 + i) + "\n");
+                    bw.write("PEPMASS=" + (500.5 + i) + " 1000.0\n");
+                    bw.write("CHARGE=" + (2 + i % 3) + "+\n");
+                    bw.write("200.1 10.0\n");
+                    bw.write("300.2 20.0\n");
+                    bw.write("END IONS\n");
+                }
+            } finally {
+                bw.close();
+            }
+            Assert.assertTrue(mgfFile.length() > 8 * partSize);
+
+            MgfIndex singlePart = MgfIndexer.getIndex(mgfFile, 1, Long.MAX_VALUE, null);
+            MgfIndex multiPart = MgfIndexer.getIndex(mgfFile, 4, partSize, null);
+
+            Assert.assertEquals(nSpectra, singlePart.getNSpectra());
+            Assert.assertEquals(nSpectra, multiPart.getNSpectra());
+            Assert.assertEquals(singlePart.getSpectrumTitles(), multiPart.getSpectrumTitles());
+            Assert.assertEquals("scan=5_1", multiPart.getSpectrumTitle(45));
+            Assert.assertEquals(1, multiPart.getDuplicatedSpectrumTitles().get("scan=5").intValue());
+            Assert.assertEquals(singlePart.getMinRT(), multiPart.getMinRT());
+            Assert.assertEquals(singlePart.getMaxRT(), multiPart.getMaxRT());
+            Assert.assertEquals(singlePart.getMaxCharge(), multiPart.getMaxCharge());
+
+            RandomAccessFile raf = new RandomAccessFile(mgfFile, "r");
+            try {
+                for (int i = 0; i < nSpectra; i++) {
+                    Assert.assertEquals(singlePart.getIndex(i), multiPart.getIndex(i));
+                    Assert.assertEquals(singlePart.getPrecursorMz(i), multiPart.getPrecursorMz(i));
+                    Assert.assertEquals(singlePart.getPrecursorCharge(i), multiPart.getPrecursorCharge(i));
+                    Assert.assertEquals(singlePart.getPrecursorRt(i), multiPart.getPrecursorRt(i));
+                    Assert.assertEquals(500.5 + i, multiPart.getPrecursorMz(i), 0.0);
+                    Assert.assertEquals(i, multiPart.getSpectrumIndex(multiPart.getSpectrumTitle(i)).intValue());
+                    raf.seek(multiPart.getIndex(i));
+                    Assert.assertEquals("TITLE=scan=" + (i == 45 ? 5 : i), raf.readLine());
+                }
+            } finally {
+                raf.close();
+            }
+        } finally {
+            mgfFile.delete();
+        }
+    }
+
+    /**
+     * Tests that the last occurrence of a duplicated title is returned.
+     */
+    public void testDuplicatedTitles() {
+        String[] titles = new String[]{"b", "a", "b", "c", "b", "a"};
+        int n = titles.length;
+        long[] offsets = new long[n];
+        for (int i = 0; i < n; i++) {
+            offsets[i] = 100 * i;
+        }
+        MgfIndex mgfIndex = new MgfIndex(titles, new HashMap<String, Integer>(), offsets, new double[n], new int[n], new double[n],
+                "test.mgf", 0, 0, 0, 0, 0, 0, true, false, 0, n);
+        Assert.assertEquals(5, mgfIndex.getSpectrumIndex("a").intValue());
+        Assert.assertEquals(4, mgfIndex.getSpectrumIndex("b").intValue());
+        Assert.assertEquals(3, mgfIndex.getSpectrumIndex("c").intValue());
+        Assert.assertEquals(400L, mgfIndex.getIndex("b").longValue());
+        Assert.assertEquals(-1, mgfIndex.getSpectrumIndex("0").intValue());
+        Assert.assertEquals(-1, mgfIndex.getSpectrumIndex("bb").intValue());
+        Assert.assertEquals(-1, mgfIndex.getSpectrumIndex("d").intValue());
+        Assert.assertTrue(mgfIndex.containsSpectrum("a"));
+    }
+
+    /**
+     * Checks the content of the index of the test file.
+     *
+     * @param mgfIndex the index
+     */
+    private void testIndex(MgfIndex mgfIndex) {
+        Assert.assertEquals(2, mgfIndex.getNSpectra());
+        Assert.assertEquals("test.mgf", mgfIndex.getFileName());
+        Assert.assertEquals(1, mgfIndex.getSpectrumIndex("controllerType=0 controllerNumber=1 scan=160").intValue());
+        Assert.assertEquals(-1, mgfIndex.getSpectrumIndex("controllerType=0 controllerNumber=1 scan=161").intValue());
+        Assert.assertNull(mgfIndex.getIndex("controllerType=0 controllerNumber=1 scan=161"));
+        Assert.assertEquals("controllerType=0 controllerNumber=1 scan=159", mgfIndex.getSpectrumTitle(0));
+        Assert.assertEquals(1060.86962890625, mgfIndex.getPrecursorMz(0));
+        Assert.assertEquals(2, mgfIndex.getPrecursorCharge(0));
+        Assert.assertEquals(218.6808, mgfIndex.getPrecursorRt(0));
+        Assert.assertTrue(Math.abs(mgfIndex.getPrecursorRt(1) - 218.855) < 0.0001);
+        Assert.assertEquals(218.0, mgfIndex.getMinRT());
+        Assert.assertEquals(219.71, mgfIndex.getMaxRT());
+    }
+}
@@ -0,0 +1,189 @@
+package com.compomics.util.test.experiment.sequences.digestion;
+
+import com.compomics.util.experiment.biology.EnzymeFactory;
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import com.compomics.util.experiment.identification.protein_sequences.digestion.DigestionBuffer;
+import com.compomics.util.experiment.identification.protein_sequences.digestion.IteratorFactory;
+import com.compomics.util.experiment.identification.protein_sequences.digestion.PeptideWithPosition;
+import com.compomics.util.experiment.identification.protein_sequences.digestion.ProteinDigester;
+import com.compomics.util.experiment.identification.protein_sequences.digestion.SequenceIterator;
+import com.compomics.util.preferences.DigestionPreferences;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.TreeSet;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Test for the protein digester.
+ *
+ * @author Marc Vaudel
+ */
+public class ProteinDigesterTest extends TestCase {
+
+    /**
+     * The sequence to digest.
+     */
+    private static final String TEST_SEQUENCE = "TESTKCTESCTKTEST";
+
+    /**
+     * Tests that the digester returns the same peptides as the sequence
+     * iterators.
+     *
+     * @throws Exception thrown if an error occurs
+     */
+    public void testDigestion() throws Exception {
+
+        ArrayList<String> fixedModifications = new ArrayList<String>();
+        fixedModifications.add("Carbamidomethylation of C");
+        fixedModifications.add("Acetylation of protein N-term");
+        fixedModifications.add("Pyrolidone from carbamidomethylated C");
+
+        for (ArrayList<String> modifications : new ArrayList[]{new ArrayList<String>(), fixedModifications}) {
+
+            IteratorFactory iteratorFactory = new IteratorFactory(modifications);
+
+            DigestionPreferences digestionPreferences = new DigestionPreferences();
+            digestionPreferences.setCleavagePreference(DigestionPreferences.CleavagePreference.wholeProtein);
+            compare(iteratorFactory, modifications, digestionPreferences, 0.0, Double.MAX_VALUE);
+
+            digestionPreferences.setCleavagePreference(DigestionPreferences.CleavagePreference.unSpecific);
+            compare(iteratorFactory, modifications, digestionPreferences, 0.0, Double.MAX_VALUE);
+            compare(iteratorFactory, modifications, digestionPreferences, 667.0, 2000.0);
+
+            digestionPreferences = DigestionPreferences.getDefaultPreferences();
+            compare(iteratorFactory, modifications, digestionPreferences, 0.0, Double.MAX_VALUE);
+            compare(iteratorFactory, modifications, digestionPreferences, 770.0, 771.0);
+            compare(iteratorFactory, modifications, digestionPreferences, 867.0, 868.0);
+            digestionPreferences.setnMissedCleavages("Trypsin", 0);
+            compare(iteratorFactory, modifications, digestionPreferences, 0.0, Double.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Tests the semi-specific digestion.
+     *
+     * @throws Exception thrown if an error occurs
+     */
+    public void testSemiSpecificDigestion() throws Exception {
+
+        DigestionPreferences digestionPreferences = DigestionPreferences.getDefaultPreferences();
+        digestionPreferences.setnMissedCleavages("Trypsin", 0);
+
+        digestionPreferences.setSpecificity("Trypsin", DigestionPreferences.Specificity.specificNTermOnly);
+        Assert.assertEquals(16, digest(new ArrayList<String>(), digestionPreferences, 0.0, Double.MAX_VALUE).size());
+
+        digestionPreferences.setSpecificity("Trypsin", DigestionPreferences.Specificity.specificCTermOnly);
+        Assert.assertEquals(16, digest(new ArrayList<String>(), digestionPreferences, 0.0, Double.MAX_VALUE).size());
+
+        digestionPreferences.setSpecificity("Trypsin", DigestionPreferences.Specificity.semiSpecific);
+        TreeSet<String> peptides = digest(new ArrayList<String>(), digestionPreferences, 0.0, Double.MAX_VALUE);
+        Assert.assertEquals(29, peptides.size());
+        HashSet<String> sequences = new HashSet<String>();
+        for (String key : peptides) {
+            sequences.add(key.substring(0, key.lastIndexOf('_')));
+        }
+        Assert.assertTrue(sequences.contains("5_CTES"));
+        Assert.assertTrue(sequences.contains("7_ESCTK"));
+        Assert.assertFalse(sequences.contains("7_ESC"));
+    }
+
+    /**
+     * Tests that digestion preferences with multiple enzymes are rejected.
+     */
+    public void testMultipleEnzymes() {
+
+        DigestionPreferences digestionPreferences = DigestionPreferences.getDefaultPreferences();
+        digestionPreferences.addEnzyme(EnzymeFactory.getInstance().getEnzyme("Lys-C"));
+        try {
+            new ProteinDigester(new ArrayList<String>(), digestionPreferences);
+            Assert.fail("Digestion preferences with two enzymes should be rejected.");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Compares the peptides obtained from the digester to those obtained from
+     * the sequence iterators.
+     *
+     * @param iteratorFactory the iterator factory
+     * @param fixedModifications the fixed modifications
+     * @param digestionPreferences the digestion preferences
+     * @param massMin the minimal mass
+     * @param massMax the maximal mass
+     *
+     * @throws InterruptedException exception thrown if a thread is interrupted
+     */
+    private void compare(IteratorFactory iteratorFactory, ArrayList<String> fixedModifications, DigestionPreferences digestionPreferences, double massMin, double massMax) throws InterruptedException {
+
+        TreeSet<String> expected = new TreeSet<String>();
+        SequenceIterator sequenceIterator = iteratorFactory.getSequenceIterator(TEST_SEQUENCE, digestionPreferences, massMin, massMax);
+        PeptideWithPosition peptideWithPosition;
+        while ((peptideWithPosition = sequenceIterator.getNextPeptide()) != null) {
+            expected.add(getKey(peptideWithPosition.getPosition(), peptideWithPosition.getPeptide()));
+        }
+
+        Assert.assertEquals(expected, digest(fixedModifications, digestionPreferences, massMin, massMax));
+    }
+
+    /**
+     * Digests the test sequence and returns the peptides as keys.
+     *
+     * @param fixedModifications the fixed modifications
+     * @param digestionPreferences the digestion preferences
+     * @param massMin the minimal mass
+     * @param massMax the maximal mass
+     *
+     * @return the peptides as keys
+     *
+     * @throws InterruptedException exception thrown if a thread is interrupted
+     */
+    private TreeSet<String> digest(ArrayList<String> fixedModifications, DigestionPreferences digestionPreferences, double massMin, double massMax) throws InterruptedException {
+
+        byte[] sequence = TEST_SEQUENCE.getBytes();
+        ProteinDigester proteinDigester = new ProteinDigester(fixedModifications, digestionPreferences);
+        DigestionBuffer buffer = new DigestionBuffer(2);
+        proteinDigester.digest(0, sequence, massMin, massMax, buffer);
+
+        TreeSet<String> result = new TreeSet<String>();
+        for (int i = 0; i < buffer.size(); i++) {
+            Peptide peptide = proteinDigester.getPeptide(sequence, buffer, i);
+            Assert.assertEquals(buffer.getMass(i), peptide.getMass(), 1e-9);
+            long modifications = 0L;
+            if (peptide.getModificationMatches() != null) {
+                for (ModificationMatch modificationMatch : peptide.getModificationMatches()) {
+                    modifications |= 1L << fixedModifications.indexOf(modificationMatch.getTheoreticPtm());
+                }
+            }
+            Assert.assertEquals(buffer.getFixedModifications(i), modifications);
+            Assert.assertTrue(result.add(getKey(buffer.getStart(i), peptide)));
+        }
+        return result;
+    }
+
+    /**
+     * Returns a key for the given peptide at the given position.
+     *
+     * @param position the position on the protein
+     * @param peptide the peptide
+     *
+     * @return a key for the peptide
+     *
+     * @throws InterruptedException exception thrown if a thread is interrupted
+     */
+    private static String getKey(int position, Peptide peptide) throws InterruptedException {
+        StringBuilder key = new StringBuilder();
+        key.append(position).append('_').append(peptide.getSequence());
+        if (peptide.getModificationMatches() != null) {
+            TreeSet<String> modifications = new TreeSet<String>();
+            for (ModificationMatch modificationMatch : peptide.getModificationMatches()) {
+                modifications.add(modificationMatch.getTheoreticPtm() + "@" + modificationMatch.getModificationSite());
+            }
+            key.append('_').append(modifications);
+        }
+        key.append('_').append(Math.round(1000000 * peptide.getMass()));
+        return key.toString();
+    }
+}
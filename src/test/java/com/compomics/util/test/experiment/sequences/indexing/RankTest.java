@@ -0,0 +1,60 @@
+package com.compomics.util.test.experiment.sequences.indexing;
+
+import com.compomics.util.experiment.identification.protein_inference.fm_index.BitRank;
+import com.compomics.util.experiment.identification.protein_inference.fm_index.Rank;
+import com.compomics.util.experiment.identification.protein_inference.fm_index.RankInterleaved;
+import java.util.Random;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Tests the rank implementations of the FM index against a naive count.
+ *
+ * @author Dominik Kopczynski
+ */
+public class RankTest extends TestCase {
+
+    /**
+     * Tests rank and select on random texts of various lengths and
+     * densities.
+     */
+    public void testRankSelect() {
+        Random random = new Random(42);
+        long[] alphabet = new long[]{0L, 1L << ('A' & 63)};
+        int[] lengths = new int[]{1, 63, 64, 65, 255, 256, 257, 447, 448, 449, 896, 10000};
+        double[] densities = new double[]{0.0, 0.1, 0.5, 1.0};
+        for (int length : lengths) {
+            for (double density : densities) {
+                byte[] text = new byte[length];
+                for (int i = 0; i < length; ++i) {
+                    text[i] = random.nextDouble() < density ? (byte) 'A' : (byte) 'C';
+                }
+                testRankSelect(text, new Rank(text, alphabet));
+                testRankSelect(text, new RankInterleaved(text, alphabet));
+            }
+        }
+    }
+
+    /**
+     * Compares a rank to a naive count over the text.
+     *
+     * @param text the text
+     * @param rank the rank
+     */
+    private void testRankSelect(byte[] text, BitRank rank) {
+        int ones = 0;
+        for (int i = 0; i < text.length; ++i) {
+            boolean one = text[i] == 'A';
+            if (one) {
+                ++ones;
+                Assert.assertEquals(i, rank.selectOne(ones));
+            }
+            Assert.assertEquals(one, rank.isOne(i));
+            Assert.assertEquals(ones, rank.getRankOne(i));
+            Assert.assertEquals(i + 1 - ones, rank.getRankZero(i));
+            Assert.assertEquals(ones, rank.getRank(i, false));
+        }
+        Assert.assertEquals(-1, rank.selectOne(ones + 1));
+        Assert.assertEquals(-1, rank.selectOne(0));
+    }
+}
@@ -0,0 +1,67 @@
+package com.compomics.util.test.experiment.sequences.indexing;
+
+import com.compomics.util.experiment.identification.protein_inference.fm_index.MatrixContent;
+import com.compomics.util.experiment.identification.protein_inference.fm_index.TagMappingCache;
+import java.util.ArrayList;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Test for the tag mapping cache of the FM index.
+ *
+ * @author Dominik Kopczynski
+ */
+public class TagMappingCacheTest extends TestCase {
+
+    /**
+     * Tests the retrieval of cached entries and the statistics.
+     */
+    public void testGetPut() {
+        TagMappingCache cache = new TagMappingCache();
+        ArrayList<MatrixContent> contents = getContents(3);
+
+        Assert.assertNull(cache.get(0, "TEST", 100.123456));
+        cache.put(0, "TEST", 100.123456, contents);
+        Assert.assertTrue(cache.get(0, "TEST", 100.123459) == contents);
+        Assert.assertNull(cache.get(0, "TEST", 100.1235));
+        Assert.assertNull(cache.get(1, "TEST", 100.123456));
+        Assert.assertNull(cache.get(0, "TSET", 100.123456));
+
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(4, cache.getMisses());
+        Assert.assertEquals(3, cache.getWeight());
+
+        cache.clear();
+        Assert.assertEquals(0, cache.size());
+        Assert.assertNull(cache.get(0, "TEST", 100.123456));
+    }
+
+    /**
+     * Tests that the weight of the cache stays bounded.
+     */
+    public void testEviction() {
+        long maxWeight = 6400;
+        TagMappingCache cache = new TagMappingCache(maxWeight);
+        for (int i = 0; i < 10000; ++i) {
+            cache.put(0, "PEPTIDE", i, getContents(2));
+        }
+        Assert.assertTrue(cache.getWeight() <= maxWeight);
+        Assert.assertEquals(10000 - cache.size(), cache.getEvictions());
+        Assert.assertNotNull(cache.get(0, "PEPTIDE", 9999));
+    }
+
+    /**
+     * Returns a list of matrix contents.
+     *
+     * @param n the number of matrix contents
+     *
+     * @return a list of matrix contents
+     */
+    private ArrayList<MatrixContent> getContents(int n) {
+        ArrayList<MatrixContent> contents = new ArrayList<MatrixContent>(n);
+        for (int i = 0; i < n; ++i) {
+            contents.add(new MatrixContent(i));
+        }
+        return contents;
+    }
+}
@@ -0,0 +1,75 @@
+package com.compomics.util.test.experiment.spectrum;
+
+import com.compomics.util.experiment.massspectrometry.Peak;
+import com.compomics.util.experiment.massspectrometry.PeakArray;
+import java.util.ArrayList;
+import java.util.HashMap;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Test for the array based peak list.
+ *
+ * @author Marc Vaudel
+ */
+public class PeakArrayTest extends TestCase {
+
+    /**
+     * Tests the sorting of the peaks and the removal of duplicate m/z.
+     */
+    public void testBuild() {
+
+        double[] mz = new double[]{500.2, 100.1, 300.3, 100.1, 200.5, 0.0};
+        double[] intensity = new double[]{5.0, 1.0, 3.0, 10.0, 2.0, 0.0};
+        PeakArray peaks = PeakArray.fromArrays(mz, intensity, 5);
+
+        Assert.assertEquals(4, peaks.size());
+        Assert.assertEquals(100.1, peaks.getMz(0));
+        Assert.assertEquals(10.0, peaks.getIntensity(0));
+        Assert.assertEquals(200.5, peaks.getMz(1));
+        Assert.assertEquals(300.3, peaks.getMz(2));
+        Assert.assertEquals(500.2, peaks.getMz(3));
+        Assert.assertEquals(5.0, peaks.getIntensity(3));
+
+        // the input arrays are not modified
+        Assert.assertEquals(500.2, mz[0]);
+
+        ArrayList<Peak> peakList = new ArrayList<Peak>();
+        peakList.add(new Peak(300.3, 3.0));
+        peakList.add(new Peak(100.1, 1.0));
+        PeakArray fromPeaks = PeakArray.fromPeaks(peakList);
+        Assert.assertEquals(2, fromPeaks.size());
+        Assert.assertEquals(100.1, fromPeaks.getMz(0));
+        Assert.assertEquals(3.0, fromPeaks.getIntensity(1));
+
+        Assert.assertEquals(0, PeakArray.fromArrays(new double[0], new double[0]).size());
+    }
+
+    /**
+     * Tests the binary search range queries.
+     */
+    public void testRangeQueries() {
+
+        double[] mz = new double[]{100.0, 200.0, 200.5, 300.0, 400.0};
+        double[] intensity = new double[]{1.0, 20.0, 15.0, 3.0, 4.0};
+        PeakArray peaks = PeakArray.fromArrays(mz, intensity);
+
+        Assert.assertEquals(0, peaks.getLowerBound(50.0));
+        Assert.assertEquals(1, peaks.getLowerBound(200.0));
+        Assert.assertEquals(2, peaks.getUpperBound(200.0));
+        Assert.assertEquals(3, peaks.getLowerBound(250.0));
+        Assert.assertEquals(5, peaks.getLowerBound(500.0));
+        Assert.assertEquals(5, peaks.getUpperBound(400.0));
+
+        Assert.assertEquals(2, peaks.indexOf(200.5));
+        Assert.assertEquals(-1, peaks.indexOf(200.4));
+
+        Assert.assertEquals(1, peaks.getMostIntensePeak(150.0, 350.0));
+        Assert.assertEquals(2, peaks.getMostIntensePeak(200.1, 350.0));
+        Assert.assertEquals(-1, peaks.getMostIntensePeak(410.0, 450.0));
+
+        HashMap<Double, Peak> peakMap = peaks.getPeakMap();
+        Assert.assertEquals(5, peakMap.size());
+        Assert.assertEquals(15.0, peakMap.get(200.5).intensity);
+    }
+}
@@ -0,0 +1,146 @@
+package com.compomics.util.test.experiment.spectrum;
+
+import com.compomics.util.experiment.massspectrometry.Spectrum;
+import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
+import com.compomics.util.experiment.massspectrometry.SpectrumPrefetcher;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Tests the prefetching of spectra.
+ *
+ * @author Marc Vaudel
+ */
+public class SpectrumPrefetcherTest extends TestCase {
+
+    /**
+     * Tests that the prefetched spectra are the spectra of the factory, also
+     * after closing the prefetcher.
+     *
+     * @throws Exception thrown if an error occurred
+     */
+    public void testPrefetching() throws Exception {
+
+        File tempFolder = File.createTempFile("prefetching", "");
+        tempFolder.delete();
+        tempFolder.mkdir();
+        File mgfFile = new File(tempFolder, "test.mgf");
+        try {
+            copy(new File("src/test/resources/experiment/test.mgf"), mgfFile);
+            SpectrumFactory spectrumFactory = SpectrumFactory.getInstance();
+            spectrumFactory.addSpectra(mgfFile);
+
+            ArrayList<String> spectrumKeys = new ArrayList<String>();
+            for (int i = 0; i < 5; i++) {
+                spectrumKeys.add(Spectrum.getSpectrumKey("test.mgf", "controllerType=0 controllerNumber=1 scan=" + (159 + i % 2)));
+            }
+
+            SpectrumPrefetcher prefetcher = new SpectrumPrefetcher(spectrumKeys, 1, 1);
+            prefetcher.start();
+            for (int i = 0; i < spectrumKeys.size(); i++) {
+                prefetcher.setPosition(i);
+                String spectrumKey = spectrumKeys.get(i);
+                Spectrum spectrum = prefetcher.getSpectrum(spectrumKey);
+                Assert.assertEquals(spectrumKey, spectrum.getSpectrumKey());
+                Assert.assertEquals(spectrumFactory.getSpectrum(spectrumKey, false).getPeakMap(), spectrum.getPeakMap());
+            }
+            prefetcher.close();
+            Assert.assertEquals(spectrumKeys.get(0), prefetcher.getSpectrum(spectrumKeys.get(0)).getSpectrumKey());
+
+            spectrumFactory.closeFiles();
+            spectrumFactory.clearFactory();
+        } finally {
+            for (File file : tempFolder.listFiles()) {
+                file.delete();
+            }
+            tempFolder.delete();
+        }
+    }
+
+    /**
+     * Tests that a failure of the prefetching thread is thrown to the
+     * consumers waiting for spectra.
+     *
+     * @throws Exception thrown if an error occurred
+     */
+    public void testFailure() throws Exception {
+
+        final RuntimeException error = new RuntimeException("Test failure.");
+        final CountDownLatch latch = new CountDownLatch(1);
+        final Thread testThread = Thread.currentThread();
+        final String spectrumKey = Spectrum.getSpectrumKey("test.mgf", "title");
+
+        // a list of keys failing when read by the prefetching thread
+        List<String> spectrumKeys = new AbstractList<String>() {
+            @Override
+            public String get(int index) {
+                if (Thread.currentThread() != testThread) {
+                    try {
+                        latch.await();
+                    } catch (InterruptedException e) {
+                    }
+                    throw error;
+                }
+                return spectrumKey;
+            }
+
+            @Override
+            public int size() {
+                return 1;
+            }
+        };
+
+        SpectrumPrefetcher prefetcher = new SpectrumPrefetcher(spectrumKeys, 1, 1);
+        prefetcher.start();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                }
+                latch.countDown();
+            }
+        }).start();
+
+        try {
+            prefetcher.getSpectrum(spectrumKey);
+            fail("The failure of the prefetching thread was not thrown.");
+        } catch (IllegalArgumentException e) {
+            Assert.assertSame(error, e.getCause());
+        }
+    }
+
+    /**
+     * Copies a file.
+     *
+     * @param source the file to copy
+     * @param destination the destination file
+     *
+     * @throws Exception thrown if an error occurred
+     */
+    private static void copy(File source, File destination) throws Exception {
+        FileInputStream in = new FileInputStream(source);
+        try {
+            FileOutputStream out = new FileOutputStream(destination);
+            try {
+                byte[] buffer = new byte[4096];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
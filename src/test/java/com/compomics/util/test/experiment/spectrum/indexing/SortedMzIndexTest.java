@@ -0,0 +1,96 @@
+package com.compomics.util.test.experiment.spectrum.indexing;
+
+import com.compomics.util.experiment.massspectrometry.Peak;
+import com.compomics.util.experiment.massspectrometry.PeakArray;
+import com.compomics.util.experiment.massspectrometry.indexes.SortedMzIndex;
+import com.compomics.util.experiment.massspectrometry.indexes.SpectrumIndex;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Tests the sorted m/z index.
+ *
+ * @author Marc Vaudel
+ */
+public class SortedMzIndexTest extends TestCase {
+
+    /**
+     * Tests that the matches of the index equal the values within tolerance
+     * in Da and ppm, with and without lookup table.
+     */
+    public void testMatches() {
+
+        Random random = new Random(42);
+        double[] mz = new double[1000];
+        for (int i = 0; i < mz.length; i++) {
+            mz[i] = 100 + 1900 * random.nextDouble();
+        }
+        mz[1] = mz[0];
+        Arrays.sort(mz);
+
+        double[] queries = new double[2000];
+        for (int i = 0; i < queries.length; i++) {
+            queries[i] = i % 4 == 0 ? mz[random.nextInt(mz.length)] + 0.01 : 50 + 2000 * random.nextDouble();
+        }
+        double[] sortedQueries = queries.clone();
+        Arrays.sort(sortedQueries);
+        int[] starts = new int[queries.length];
+        int[] ends = new int[queries.length];
+
+        for (boolean ppm : new boolean[]{false, true}) {
+            double tolerance = ppm ? 20.0 : 0.02;
+            for (boolean useLookupTable : new boolean[]{false, true}) {
+                SortedMzIndex mzIndex = new SortedMzIndex(mz, mz.length, tolerance, ppm, useLookupTable);
+                Assert.assertEquals(useLookupTable, mzIndex.hasLookupTable());
+                for (double[] queryMzs : new double[][]{queries, sortedQueries}) {
+                    mzIndex.getRanges(queryMzs, queryMzs.length, starts, ends);
+                    for (int i = 0; i < queryMzs.length; i++) {
+                        int start = mzIndex.getStart(queryMzs[i]);
+                        int end = mzIndex.getEnd(queryMzs[i], start);
+                        Assert.assertEquals(start, starts[i]);
+                        Assert.assertEquals(end, ends[i]);
+                        for (int j = 0; j < mz.length; j++) {
+                            double error = ppm ? 1000000 * (mz[j] - queryMzs[i]) / queryMzs[i] : mz[j] - queryMzs[i];
+                            Assert.assertEquals(Math.abs(error) <= tolerance, j >= start && j < end);
+                        }
+                    }
+                }
+            }
+        }
+
+        SortedMzIndex emptyIndex = new SortedMzIndex(0.02, false);
+        Assert.assertEquals(0, emptyIndex.getStart(500.0));
+        Assert.assertEquals(0, emptyIndex.getEnd(500.0, 0));
+    }
+
+    /**
+     * Tests that the spectrum index built from a peak array returns the same
+     * peaks as the index built from a peak map.
+     */
+    public void testSpectrumIndex() {
+
+        Random random = new Random(42);
+        double[] mz = new double[300];
+        double[] intensity = new double[mz.length];
+        for (int i = 0; i < mz.length; i++) {
+            mz[i] = 100 + 1900 * random.nextDouble();
+            intensity[i] = 1000 * random.nextDouble();
+        }
+        PeakArray peakArray = PeakArray.fromArrays(mz, intensity);
+
+        SpectrumIndex fromMap = new SpectrumIndex(peakArray.getPeakMap(), 100.0, 10.0, true);
+        SpectrumIndex fromArray = new SpectrumIndex(peakArray, 100.0, 10.0, true);
+        Assert.assertEquals(fromMap.size(), fromArray.size());
+        Assert.assertEquals(fromMap.getTotalIntensity(), fromArray.getTotalIntensity(), 1e-6);
+        Assert.assertEquals(fromMap.getBinMin(), fromArray.getBinMin());
+        Assert.assertEquals(fromMap.getBinMax(), fromArray.getBinMax());
+        for (int i = 0; i < mz.length; i++) {
+            ArrayList<Peak> expected = fromMap.getMatchingPeaks(mz[i]);
+            Assert.assertEquals(expected, fromArray.getMatchingPeaks(mz[i]));
+            Assert.assertEquals(intensity[i] >= 100.0, expected.contains(new Peak(mz[i], intensity[i])));
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.compomics.util.test.maps;
+
+import com.compomics.util.maps.IntMultimap;
+import com.compomics.util.maps.KeyDictionary;
+import com.compomics.util.maps.KeySet;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Random;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Tests the key dictionary and the key sets.
+ *
+ * @author Marc Vaudel
+ */
+public class KeySetTest extends TestCase {
+
+    /**
+     * Tests the attribution of ids to keys.
+     */
+    public void testKeyDictionary() {
+
+        KeyDictionary keyDictionary = new KeyDictionary(2);
+        ArrayList<String> keys = new ArrayList<String>();
+        for (int i = 0; i < 1000; i++) {
+            keys.add("file.mgf_cus_Spectrum " + i + (i % 7 == 0 ? " é中" : ""));
+        }
+        keys.add("");
+        for (int i = 0; i < keys.size(); i++) {
+            Assert.assertEquals(i, keyDictionary.add(keys.get(i)));
+        }
+        for (int i = 0; i < keys.size(); i++) {
+            Assert.assertEquals(i, keyDictionary.add(keys.get(i)));
+            Assert.assertEquals(i, keyDictionary.getId(keys.get(i)));
+            Assert.assertEquals(keys.get(i), keyDictionary.getKey(i));
+        }
+        Assert.assertEquals(keys.size(), keyDictionary.size());
+        Assert.assertEquals(-1, keyDictionary.getId("file.mgf_cus_Spectrum 1000"));
+    }
+
+    /**
+     * Tests that the key sets behave as hash sets.
+     *
+     * @throws Exception thrown if an error occurs
+     */
+    public void testKeySet() throws Exception {
+
+        KeyDictionary keyDictionary = new KeyDictionary();
+        KeySet keySet = new KeySet(keyDictionary);
+        KeySet otherSet = new KeySet(keyDictionary);
+        HashSet<String> expected = new HashSet<String>();
+        Random random = new Random(7);
+
+        for (int i = 0; i < 20000; i++) {
+            String key = "P" + random.nextInt(2000);
+            switch (random.nextInt(3)) {
+                case 0:
+                    Assert.assertEquals(expected.remove(key), keySet.remove(key));
+                    break;
+                default:
+                    Assert.assertEquals(expected.add(key), keySet.add(key));
+            }
+            otherSet.add(key);
+        }
+        Assert.assertEquals(expected, keySet);
+        Assert.assertEquals(otherSet.size(), keyDictionary.size());
+
+        Iterator<String> iterator = keySet.iterator();
+        while (iterator.hasNext()) {
+            String key = iterator.next();
+            if (key.endsWith("1")) {
+                iterator.remove();
+                expected.remove(key);
+            }
+        }
+        Assert.assertEquals(expected, keySet);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(keySet);
+        out.close();
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        KeySet readSet = (KeySet) in.readObject();
+        in.close();
+        Assert.assertEquals(expected, readSet);
+        readSet.add("new key");
+        Assert.assertTrue(readSet.contains("new key"));
+    }
+
+    /**
+     * Tests that the keys added by several threads are found by the threads
+     * looking them up concurrently.
+     *
+     * @throws Exception thrown if an error occurs
+     */
+    public void testConcurrentAccess() throws Exception {
+
+        final KeyDictionary keyDictionary = new KeyDictionary(2);
+        final KeySet keySet = new KeySet(keyDictionary, 2);
+        final int nThreads = 4;
+        final int nKeys = 5000;
+        final ArrayList<Throwable> errors = new ArrayList<Throwable>();
+        ArrayList<Thread> threads = new ArrayList<Thread>(nThreads);
+        for (int i = 0; i < nThreads; i++) {
+            final int threadIndex = i;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < nKeys; j++) {
+                            String key = "key_" + threadIndex + "_" + j;
+                            keySet.add(key);
+                            String previousKey = "key_" + threadIndex + "_" + j / 2;
+                            Assert.assertTrue(keySet.contains(previousKey));
+                            Assert.assertEquals(previousKey, keyDictionary.getKey(keyDictionary.getId(previousKey)));
+                            Assert.assertFalse(keySet.contains("key_" + threadIndex + "_" + (j + 1)));
+                        }
+                    } catch (Throwable e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (!errors.isEmpty()) {
+            throw new IllegalStateException("Error while accessing the key set.", errors.get(0));
+        }
+        Assert.assertEquals(nThreads * nKeys, keySet.size());
+        Assert.assertEquals(nThreads * nKeys, keyDictionary.size());
+    }
+
+    /**
+     * Tests the int multimap.
+     */
+    public void testIntMultimap() {
+
+        IntMultimap intMultimap = new IntMultimap(2);
+        Assert.assertTrue(intMultimap.put(10, 3));
+        Assert.assertTrue(intMultimap.put(10, 5));
+        Assert.assertFalse(intMultimap.put(10, 3));
+        Assert.assertTrue(intMultimap.put(2, 3));
+        Assert.assertTrue(intMultimap.contains(10, 5));
+        Assert.assertFalse(intMultimap.contains(2, 5));
+        Assert.assertNull(intMultimap.get(100));
+        Assert.assertEquals(2, intMultimap.get(10).size());
+
+        Assert.assertTrue(intMultimap.remove(2, 3));
+        Assert.assertFalse(intMultimap.remove(2, 3));
+        Assert.assertNull(intMultimap.get(2));
+        int[] keys = intMultimap.getKeys();
+        Assert.assertEquals(1, keys.length);
+        Assert.assertEquals(10, keys[0]);
+    }
+}